@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.matrix.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import maspack.matrix.Matrix3d;
+import maspack.matrix.Matrix3x6;
+import maspack.matrix.Matrix6d;
+import maspack.matrix.Matrix6x3;
+import maspack.matrix.MatrixMulAdd;
+import maspack.matrix.Vector3d;
+import maspack.util.RandomGenerator;
+
+/**
+ * Benchmarks for the small fixed-size matrix operations used in assembling
+ * FEM and rigid body stiffness and mass matrices.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockOpsBench {
+
+   Matrix3d A3 = new Matrix3d();
+   Matrix3d B3 = new Matrix3d();
+   Matrix3d R3 = new Matrix3d();
+   Vector3d v3 = new Vector3d();
+   Vector3d r3 = new Vector3d();
+
+   Matrix6d A6 = new Matrix6d();
+   Matrix6d B6 = new Matrix6d();
+   Matrix6d R6 = new Matrix6d();
+
+   Matrix3x6 A36 = new Matrix3x6();
+   Matrix6x3 B63 = new Matrix6x3();
+   Matrix3x6 R36 = new Matrix3x6();
+   Matrix6x3 R63 = new Matrix6x3();
+
+   @Setup
+   public void setup() {
+      RandomGenerator.setSeed (0x1234);
+      A3.setRandom();
+      B3.setRandom();
+      // make A3 well-conditioned so that the inverse is meaningful
+      A3.addDiagonal (3.0);
+      v3.setRandom();
+      A6.setRandom();
+      B6.setRandom();
+      A36.setRandom();
+      B63.setRandom();
+   }
+
+   @Benchmark
+   public Matrix3d matrix3dMul() {
+      R3.mul (A3, B3);
+      return R3;
+   }
+
+   @Benchmark
+   public Matrix3d matrix3dMulTransposeLeft() {
+      R3.mulTransposeLeft (A3, B3);
+      return R3;
+   }
+
+   @Benchmark
+   public Matrix3d matrix3dInvert() {
+      R3.invert (A3);
+      return R3;
+   }
+
+   @Benchmark
+   public Vector3d matrix3dMulVec() {
+      A3.mul (r3, v3);
+      return r3;
+   }
+
+   @Benchmark
+   public Matrix6d matrix6dMul() {
+      R6.mul (A6, B6);
+      return R6;
+   }
+
+   @Benchmark
+   public Matrix6d matrix6dMulAdd() {
+      R6.mulAdd (A6, B6);
+      return R6;
+   }
+
+   @Benchmark
+   public Matrix3d mulAdd3x3() {
+      MatrixMulAdd.mulAdd3x3 (R3, A3, B3);
+      return R3;
+   }
+
+   @Benchmark
+   public Matrix3x6 mulAdd3x6() {
+      MatrixMulAdd.mulAdd3x6 (R36, A3, A36);
+      return R36;
+   }
+
+   @Benchmark
+   public Matrix6x3 mulAdd6x3() {
+      MatrixMulAdd.mulAdd6x3 (R63, B63, A3);
+      return R63;
+   }
+
+   @Benchmark
+   public Matrix6d mulAdd6x6() {
+      MatrixMulAdd.mulAdd6x6 (R6, A6, B6);
+      return R6;
+   }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.matrix.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import maspack.matrix.CholeskyDecomposition;
+import maspack.matrix.LUDecomposition;
+import maspack.matrix.Matrix3d;
+import maspack.matrix.MatrixNd;
+import maspack.matrix.PolarDecomposition3d;
+import maspack.matrix.SVDecomposition3d;
+import maspack.matrix.VectorNd;
+import maspack.util.RandomGenerator;
+
+/**
+ * Benchmarks for the dense matrix decompositions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecompositionBench {
+
+   @Param({"6", "30", "150"})
+   public int size;
+
+   MatrixNd M;
+   MatrixNd SPD;
+   VectorNd b;
+   VectorNd x;
+   CholeskyDecomposition chol;
+   LUDecomposition lu;
+
+   Matrix3d F = new Matrix3d();
+   Matrix3d U = new Matrix3d();
+   Matrix3d V = new Matrix3d();
+   SVDecomposition3d svd3;
+   PolarDecomposition3d polar3;
+
+   @Setup
+   public void setup() {
+      RandomGenerator.setSeed (0x1234);
+      M = new MatrixNd (size, size);
+      M.setRandom();
+      SPD = new MatrixNd (size, size);
+      SPD.mulTransposeLeft (M, M);
+      SPD.addDiagonal (size);
+      b = new VectorNd (size);
+      b.setRandom();
+      x = new VectorNd (size);
+      chol = new CholeskyDecomposition (size);
+      lu = new LUDecomposition (size);
+
+      // deformation gradient with a modest amount of stretch and rotation
+      F.setRandom();
+      F.scale (0.2);
+      F.addDiagonal (1.0);
+      svd3 = new SVDecomposition3d (U, V);
+      polar3 = new PolarDecomposition3d();
+   }
+
+   @Benchmark
+   public VectorNd choleskyFactorAndSolve() {
+      chol.factor (SPD);
+      chol.solve (x, b);
+      return x;
+   }
+
+   @Benchmark
+   public VectorNd luFactorAndSolve() {
+      lu.factor (M);
+      lu.solve (x, b);
+      return x;
+   }
+
+   @Benchmark
+   public Matrix3d svd3Factor() {
+      svd3.factor (F);
+      return U;
+   }
+
+   @Benchmark
+   public Matrix3d polar3Factor() {
+      polar3.factor (F);
+      return polar3.getQ();
+   }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.matrix.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+import maspack.matrix.SparseBlockMatrix;
+import maspack.matrix.SparseMatrixNd;
+import maspack.util.PathFinder;
+import maspack.util.RandomGenerator;
+import maspack.util.ReaderTokenizer;
+
+/**
+ * Loads recorded matrices for use by the benchmarks. Matrices are stored in
+ * the text format read by {@link SparseMatrixNd#scan}.
+ */
+public class RecordedMatrices {
+
+   /**
+    * Default recorded matrix: a 2529 x 2529 symmetric positive definite
+    * stiffness matrix from an FEM simulation.
+    */
+   public static final String DEFAULT_MATRIX = "testMatrix.mat";
+
+   /**
+    * Returns the path of a recorded matrix file. If {@code fileName} is empty
+    * or equals {@link #DEFAULT_MATRIX}, the default matrix located in the
+    * maspack.solvers source directory is used. This is found relative to the
+    * class path, or, failing that, relative to ARTISYNTH_HOME. Otherwise,
+    * {@code fileName} is returned as is.
+    */
+   public static String getPath (String fileName) {
+      if (fileName == null || fileName.length() == 0 ||
+          fileName.equals (DEFAULT_MATRIX)) {
+         try {
+            return PathFinder.getSourceRelativePath (
+               maspack.solvers.KKTSolver.class, DEFAULT_MATRIX);
+         }
+         catch (IllegalArgumentException e) {
+            String home = System.getenv ("ARTISYNTH_HOME");
+            if (home == null) {
+               home = "..";
+            }
+            File file = new File (
+               home, "src/maspack/solvers/" + DEFAULT_MATRIX);
+            return file.getPath();
+         }
+      }
+      else {
+         return fileName;
+      }
+   }
+
+   /**
+    * Reads a recorded matrix into a SparseBlockMatrix whose blocks all have
+    * size {@code bsize} x {@code bsize}. The matrix size must be a multiple
+    * of {@code bsize}.
+    *
+    * @param fileName name of the matrix file (see {@link #getPath})
+    * @param bsize size of the matrix blocks
+    * @return recorded matrix
+    */
+   public static SparseBlockMatrix read (String fileName, int bsize)
+      throws IOException {
+
+      SparseMatrixNd S = new SparseMatrixNd (0, 0);
+      ReaderTokenizer rtok = null;
+      try {
+         rtok = new ReaderTokenizer (
+            new BufferedReader (new FileReader (getPath (fileName))));
+         S.scan (rtok);
+      }
+      finally {
+         if (rtok != null) {
+            rtok.close();
+         }
+      }
+      if (S.rowSize() % bsize != 0 || S.colSize() % bsize != 0) {
+         throw new IOException (
+            "Matrix size "+S.rowSize()+"x"+S.colSize()+
+            " is not a multiple of the block size "+bsize);
+      }
+      SparseBlockMatrix M = new SparseBlockMatrix (
+         uniformSizes (S.rowSize()/bsize, bsize),
+         uniformSizes (S.colSize()/bsize, bsize));
+      int[] rowOffs = new int[S.rowSize()+1];
+      int[] colIdxs = new int[S.numNonZeroVals()];
+      double[] vals = new double[S.numNonZeroVals()];
+      S.getCRSIndices (colIdxs, rowOffs);
+      S.getCRSValues (vals);
+      for (int i=0; i<S.rowSize(); i++) {
+         for (int k=rowOffs[i]-1; k<rowOffs[i+1]-1; k++) {
+            M.set (i, colIdxs[k]-1, vals[k]);
+         }
+      }
+      return M;
+   }
+
+   /**
+    * Creates a constraint matrix GT, of size {@code M.rowSize()} x {@code
+    * 3*ncons}, in which each 3 x 3 constraint block couples two randomly
+    * selected blocks of {@code M}, mimicking the structure of point-to-point
+    * attachments. The random generator is seeded so that the matrix is the
+    * same on every call.
+    *
+    * @param M matrix for which the constraints are to be created
+    * @param ncons number of 3 x 3 constraint blocks
+    * @return constraint matrix
+    */
+   public static SparseBlockMatrix createConstraints (
+      SparseBlockMatrix M, int ncons) {
+
+      RandomGenerator.setSeed (0x1234);
+      int nblks = M.numBlockRows();
+      SparseBlockMatrix GT = new SparseBlockMatrix (
+         M.getBlockRowSizes(), uniformSizes (ncons, 3));
+      for (int k=0; k<ncons; k++) {
+         int bi = RandomGenerator.nextInt (0, nblks-1);
+         int bj = RandomGenerator.nextInt (0, nblks-1);
+         if (bj == bi) {
+            bj = (bi+1) % nblks;
+         }
+         int i0 = M.getBlockRowOffset (bi);
+         int i1 = M.getBlockRowOffset (bj);
+         for (int j=0; j<3; j++) {
+            GT.set (i0+j, 3*k+j, 1.0);
+            GT.set (i1+j, 3*k+j, -1.0);
+         }
+      }
+      return GT;
+   }
+
+   private static int[] uniformSizes (int n, int size) {
+      int[] sizes = new int[n];
+      for (int i=0; i<n; i++) {
+         sizes[i] = size;
+      }
+      return sizes;
+   }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.matrix.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import maspack.matrix.Matrix.Partition;
+import maspack.matrix.SparseBlockMatrix;
+import maspack.matrix.VectorNd;
+import maspack.util.RandomGenerator;
+
+/**
+ * Benchmarks for SparseBlockMatrix multiplication and CRS extraction, using
+ * a recorded matrix.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SparseBlockMatrixBench {
+
+   /**
+    * Recorded matrix file; see {@link RecordedMatrices#getPath}.
+    */
+   @Param({RecordedMatrices.DEFAULT_MATRIX})
+   public String matrixFile;
+
+   SparseBlockMatrix M;
+   VectorNd x;
+   VectorNd y;
+   int[] colIdxs;
+   int[] rowOffs;
+   double[] vals;
+
+   @Setup
+   public void setup() throws IOException {
+      M = RecordedMatrices.read (matrixFile, 3);
+      RandomGenerator.setSeed (0x1234);
+      x = new VectorNd (M.colSize());
+      x.setRandom();
+      y = new VectorNd (M.rowSize());
+      int nvals = M.numNonZeroVals();
+      colIdxs = new int[nvals];
+      rowOffs = new int[M.rowSize()+1];
+      vals = new double[nvals];
+   }
+
+   @Benchmark
+   public VectorNd mul() {
+      M.mul (y, x);
+      return y;
+   }
+
+   @Benchmark
+   public VectorNd mulTranspose() {
+      M.mulTranspose (y, x);
+      return y;
+   }
+
+   @Benchmark
+   public int[] getCRSIndices() {
+      M.getCRSIndices (colIdxs, rowOffs, Partition.Full);
+      return colIdxs;
+   }
+
+   @Benchmark
+   public double[] getCRSValues() {
+      M.getCRSValues (vals, Partition.Full);
+      return vals;
+   }
+
+   @Benchmark
+   public double[] getCRSValuesUpper() {
+      M.getCRSValues (vals, Partition.UpperTriangular);
+      return vals;
+   }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import maspack.matrix.Matrix;
+import maspack.matrix.SparseBlockMatrix;
+import maspack.matrix.VectorNd;
+import maspack.matrix.bench.RecordedMatrices;
+import maspack.solvers.KKTSolver;
+import maspack.solvers.SparseSolverId;
+import maspack.util.RandomGenerator;
+
+/**
+ * Benchmarks for KKTSolver factor and solve, using a recorded matrix for M
+ * together with synthetic bilateral constraints.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KKTSolverBench {
+
+   /**
+    * Recorded matrix file; see {@link RecordedMatrices#getPath}.
+    */
+   @Param({RecordedMatrices.DEFAULT_MATRIX})
+   public String matrixFile;
+
+   /**
+    * Sparse solver used by the KKTSolver. Pardiso requires its native
+    * library to be installed.
+    */
+   @Param({"SparseLDLT"})
+   public String solver;
+
+   /**
+    * Number of 3 x 3 constraint blocks.
+    */
+   @Param({"50"})
+   public int numConstraints;
+
+   SparseBlockMatrix M;
+   SparseBlockMatrix GT;
+   KKTSolver kkt;
+   VectorNd vel;
+   VectorNd lam;
+   VectorNd bm;
+   VectorNd bg;
+
+   @Setup
+   public void setup() throws IOException {
+      M = RecordedMatrices.read (matrixFile, 3);
+      GT = RecordedMatrices.createConstraints (M, numConstraints);
+      RandomGenerator.setSeed (0x1234);
+      vel = new VectorNd (M.rowSize());
+      lam = new VectorNd (GT.colSize());
+      bm = new VectorNd (M.rowSize());
+      bm.setRandom();
+      bg = new VectorNd (GT.colSize());
+      kkt = new KKTSolver (SparseSolverId.valueOf (solver));
+      kkt.analyze (M, M.rowSize(), GT, null, Matrix.SYMMETRIC);
+      kkt.factor (M, M.rowSize(), GT, null);
+   }
+
+   @TearDown
+   public void tearDown() {
+      kkt.dispose();
+   }
+
+   @Benchmark
+   public KKTSolver factor() {
+      kkt.factor (M, M.rowSize(), GT, null);
+      return kkt;
+   }
+
+   @Benchmark
+   public VectorNd solve() {
+      kkt.solve (vel, lam, bm, bg);
+      return vel;
+   }
+
+   @Benchmark
+   public VectorNd factorAndSolve() {
+      kkt.factor (M, M.rowSize(), GT, null);
+      kkt.solve (vel, lam, bm, bg);
+      return vel;
+   }
+}
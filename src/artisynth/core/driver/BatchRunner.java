@@ -0,0 +1,869 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.driver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import artisynth.core.modelbase.ComponentUtils;
+import artisynth.core.modelbase.CompositeState;
+import artisynth.core.modelbase.ModelComponentBase;
+import artisynth.core.probes.NumericOutputProbe;
+import artisynth.core.probes.Probe;
+import artisynth.core.util.TimeBase;
+import artisynth.core.workspace.RootModel;
+import maspack.concurrency.NamedThreadFactory;
+import maspack.geometry.GeometryCache;
+import maspack.interpolation.NumericList;
+import maspack.interpolation.NumericListKnot;
+import maspack.properties.Property;
+import maspack.properties.PropertyInfo;
+import maspack.util.NumberFormat;
+import maspack.util.ReaderTokenizer;
+
+/**
+ * Runs a set of simulations of the same model class in parallel, without a
+ * GUI or a {@link Scheduler}, in order to perform parameter sweeps or other
+ * batch studies.
+ *
+ * <p>Each run is described by a name, a set of property overrides, and an end
+ * time. Property overrides are specified by a component property path (such
+ * as {@code "models/mech/particles/0:mass"}), relative to the root model,
+ * together with a value in the same text format used in model files.
+ *
+ * <p>Runs are distributed over a set of worker threads. Each worker builds
+ * its own instance of the root model, and by default reuses it for all its
+ * runs: at the start of each run the model is reset to its initial state and
+ * the overrides are applied, after which the model is advanced to the end
+ * time and the overrides are restored. Models are built one at a time, since
+ * model construction is not generally thread-safe, and meshes and distance
+ * grids are shared between workers using {@link GeometryCache} so that they
+ * are only read and computed once.
+ *
+ * <p>The data of the designated numeric output probes is collected from each
+ * run into a {@link Result}. If no probes are designated, data is collected
+ * from all numeric output probes.
+ */
+public class BatchRunner {
+
+   private static final Object myBuildLock = new Object();
+
+   private Class<? extends RootModel> myModelClass;
+   private String[] myBuildArgs;
+   private int myNumThreads;
+   private double myEndTime = 1.0;
+   private boolean myRebuildEachRun = false;
+   private boolean myShareGeometry = true;
+   private ArrayList<String> myProbeNames = new ArrayList<>();
+   private ArrayList<Run> myRuns = new ArrayList<>();
+
+   /**
+    * Describes a single run within a batch.
+    */
+   public static class Run {
+      String myName;
+      LinkedHashMap<String,String> myOverrides;
+      double myEndTime;
+
+      Run (String name, Map<String,String> overrides, double endTime) {
+         myName = name;
+         myOverrides = new LinkedHashMap<>();
+         if (overrides != null) {
+            myOverrides.putAll (overrides);
+         }
+         myEndTime = endTime;
+      }
+
+      /**
+       * Returns the name of this run.
+       *
+       * @return run name
+       */
+      public String getName() {
+         return myName;
+      }
+
+      /**
+       * Returns the property overrides for this run, as a map from property
+       * paths to values.
+       *
+       * @return property overrides
+       */
+      public Map<String,String> getOverrides() {
+         return myOverrides;
+      }
+
+      /**
+       * Returns the end time for this run, or -1 if the default end time of
+       * the runner should be used.
+       *
+       * @return run end time
+       */
+      public double getEndTime() {
+         return myEndTime;
+      }
+   }
+
+   /**
+    * Contains the results of a single run.
+    */
+   public static class Result {
+      String myName;
+      LinkedHashMap<String,NumericList> myOutputs = new LinkedHashMap<>();
+      double myWallTime;
+      Throwable myError;
+
+      Result (String name) {
+         myName = name;
+      }
+
+      /**
+       * Returns the name of the run that produced this result.
+       *
+       * @return run name
+       */
+      public String getName() {
+         return myName;
+      }
+
+      /**
+       * Returns the output data collected for this run, as a map from probe
+       * names to copies of the probes' numeric lists.
+       *
+       * @return output data
+       */
+      public Map<String,NumericList> getOutputs() {
+         return myOutputs;
+      }
+
+      /**
+       * Returns the output data collected for a specific probe, or {@code
+       * null} if there is no such data.
+       *
+       * @param probeName name of the probe
+       * @return output data for the probe
+       */
+      public NumericList getOutput (String probeName) {
+         return myOutputs.get (probeName);
+      }
+
+      /**
+       * Returns the wall clock time, in seconds, required for this run.
+       *
+       * @return run wall time
+       */
+      public double getWallTime() {
+         return myWallTime;
+      }
+
+      /**
+       * Returns the error that caused this run to fail, or {@code null} if
+       * the run completed successfully.
+       *
+       * @return error that caused failure, or {@code null}
+       */
+      public Throwable getError() {
+         return myError;
+      }
+   }
+
+   /**
+    * Creates a BatchRunner for a specific root model class.
+    *
+    * @param modelClass root model class
+    * @param buildArgs arguments passed to the model's {@code build()} method,
+    * or {@code null} if there are no arguments
+    */
+   public BatchRunner (
+      Class<? extends RootModel> modelClass, String[] buildArgs) {
+      myModelClass = modelClass;
+      myBuildArgs = (buildArgs != null ? buildArgs : new String[0]);
+      myNumThreads = Runtime.getRuntime().availableProcessors();
+   }
+
+   /**
+    * Creates a BatchRunner for a root model class specified by name.
+    *
+    * @param className name of the root model class
+    * @param buildArgs arguments passed to the model's {@code build()} method,
+    * or {@code null} if there are no arguments
+    */
+   public BatchRunner (String className, String[] buildArgs)
+      throws ClassNotFoundException {
+      this (findModelClass (className), buildArgs);
+   }
+
+   private static Class<? extends RootModel> findModelClass (String className)
+      throws ClassNotFoundException {
+      Class<?> cls = Class.forName (className);
+      if (!RootModel.class.isAssignableFrom (cls)) {
+         throw new IllegalArgumentException (
+            "Class "+className+" is not a subclass of RootModel");
+      }
+      return cls.asSubclass (RootModel.class);
+   }
+
+   /**
+    * Returns the number of worker threads used to perform the runs.
+    *
+    * @return number of worker threads
+    */
+   public int getNumThreads() {
+      return myNumThreads;
+   }
+
+   /**
+    * Sets the number of worker threads used to perform the runs. The default
+    * value is the number of available processors.
+    *
+    * @param num number of worker threads
+    */
+   public void setNumThreads (int num) {
+      if (num < 1) {
+         throw new IllegalArgumentException (
+            "Number of threads must be positive");
+      }
+      myNumThreads = num;
+   }
+
+   /**
+    * Returns the default end time for runs.
+    *
+    * @return default end time
+    */
+   public double getEndTime() {
+      return myEndTime;
+   }
+
+   /**
+    * Sets the default end time for runs which do not specify their own.
+    *
+    * @param t default end time
+    */
+   public void setEndTime (double t) {
+      myEndTime = t;
+   }
+
+   /**
+    * Queries whether the model is rebuilt for each run.
+    *
+    * @return {@code true} if the model is rebuilt for each run
+    */
+   public boolean getRebuildEachRun() {
+      return myRebuildEachRun;
+   }
+
+   /**
+    * Sets whether the model is rebuilt for each run, instead of being reset
+    * to its initial state. Rebuilding is slower but should be used for models
+    * whose behavior depends on settings that are not restored by resetting
+    * the state, such as properties set inside controllers.
+    *
+    * @param enable if {@code true}, rebuilds the model for each run
+    */
+   public void setRebuildEachRun (boolean enable) {
+      myRebuildEachRun = enable;
+   }
+
+   /**
+    * Queries whether meshes and distance grids are shared between workers.
+    *
+    * @return {@code true} if geometry is shared
+    */
+   public boolean getShareGeometry() {
+      return myShareGeometry;
+   }
+
+   /**
+    * Sets whether meshes and distance grids are shared between workers,
+    * using {@link GeometryCache}. The default value is {@code true}.
+    *
+    * @param enable if {@code true}, shares geometry between workers
+    */
+   public void setShareGeometry (boolean enable) {
+      myShareGeometry = enable;
+   }
+
+   /**
+    * Designates an output probe, by name, whose data should be collected from
+    * each run.
+    *
+    * @param name name of the output probe
+    */
+   public void addOutputProbe (String name) {
+      myProbeNames.add (name);
+   }
+
+   /**
+    * Returns the names of the designated output probes.
+    *
+    * @return designated output probe names
+    */
+   public List<String> getOutputProbes() {
+      return myProbeNames;
+   }
+
+   /**
+    * Adds a run, using the default end time.
+    *
+    * @param name name of the run
+    * @param overrides map from property paths to values
+    * @return the added run
+    */
+   public Run addRun (String name, Map<String,String> overrides) {
+      return addRun (name, overrides, -1);
+   }
+
+   /**
+    * Adds a run.
+    *
+    * @param name name of the run
+    * @param overrides map from property paths to values
+    * @param endTime end time for the run, or -1 if the default end time
+    * should be used
+    * @return the added run
+    */
+   public Run addRun (String name, Map<String,String> overrides, double endTime) {
+      Run run = new Run (name, overrides, endTime);
+      myRuns.add (run);
+      return run;
+   }
+
+   /**
+    * Returns the runs currently specified for this runner.
+    *
+    * @return runs for this runner
+    */
+   public List<Run> getRuns() {
+      return myRuns;
+   }
+
+   /**
+    * Removes all runs.
+    */
+   public void clearRuns() {
+      myRuns.clear();
+   }
+
+   /**
+    * Reads runs from a text file. Each non-blank line not beginning with
+    * {@code #} describes one run, and consists of the run name followed by
+    * any number of {@code path=value} overrides. Values containing white
+    * space, such as vectors, should be enclosed in double quotes.
+    *
+    * @param file file containing the runs
+    */
+   public void readRuns (File file) throws IOException {
+      BufferedReader reader = new BufferedReader (new FileReader (file));
+      try {
+         String line;
+         int lineno = 0;
+         while ((line = reader.readLine()) != null) {
+            lineno++;
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith ("#")) {
+               continue;
+            }
+            ArrayList<String> tokens = splitLine (line);
+            LinkedHashMap<String,String> overrides = new LinkedHashMap<>();
+            for (int i=1; i<tokens.size(); i++) {
+               String tok = tokens.get(i);
+               int eq = tok.indexOf ('=');
+               if (eq <= 0) {
+                  throw new IOException (
+                     "Expected path=value, got '"+tok+"', line "+lineno);
+               }
+               overrides.put (tok.substring (0, eq), tok.substring (eq+1));
+            }
+            addRun (tokens.get(0), overrides);
+         }
+      }
+      finally {
+         reader.close();
+      }
+   }
+
+   /**
+    * Splits a line into white-space separated tokens, removing double quotes
+    * and keeping any white space they enclose.
+    */
+   private static ArrayList<String> splitLine (String line) {
+      ArrayList<String> tokens = new ArrayList<>();
+      StringBuilder sb = new StringBuilder();
+      boolean quoted = false;
+      boolean inToken = false;
+      for (int i=0; i<line.length(); i++) {
+         char c = line.charAt(i);
+         if (c == '"') {
+            quoted = !quoted;
+            inToken = true;
+         }
+         else if (Character.isWhitespace (c) && !quoted) {
+            if (inToken) {
+               tokens.add (sb.toString());
+               sb.setLength (0);
+               inToken = false;
+            }
+         }
+         else {
+            sb.append (c);
+            inToken = true;
+         }
+      }
+      if (inToken) {
+         tokens.add (sb.toString());
+      }
+      return tokens;
+   }
+
+   /**
+    * Creates a new instance of the model, in the same way as {@link
+    * Main#createRootModel}. Model construction is serialized, since it is
+    * not generally thread-safe.
+    */
+   RootModel buildModel (String name) throws Exception {
+      synchronized (myBuildLock) {
+         ModelComponentBase.enforceUniqueNames = true;
+         RootModel root;
+         Method method = myModelClass.getMethod ("build", String[].class);
+         if (myModelClass == RootModel.class ||
+             method.getDeclaringClass() != RootModel.class) {
+            Constructor<? extends RootModel> constructor =
+               myModelClass.getConstructor();
+            root = constructor.newInstance();
+            root.setName (name);
+            root.build (myBuildArgs);
+         }
+         else {
+            Constructor<? extends RootModel> constructor =
+               myModelClass.getConstructor (String.class);
+            root = constructor.newInstance (name);
+         }
+         ComponentUtils.checkReferenceContainment (root, root);
+         for (Probe p : root.getOutputProbes()) {
+            if (p instanceof NumericOutputProbe) {
+               // data is collected in memory, and several workers might
+               // otherwise stream to the same file
+               ((NumericOutputProbe)p).setBinaryFormat (false);
+            }
+         }
+         root.initialize (0);
+         return root;
+      }
+   }
+
+   /**
+    * Finds the property associated with an override path.
+    */
+   private Property findProperty (RootModel root, String path) {
+      Property prop = ComponentUtils.findProperty (root, path);
+      if (prop == null) {
+         throw new IllegalArgumentException (
+            "Property '"+path+"' not found");
+      }
+      if (prop.getInfo().isReadOnly()) {
+         throw new IllegalArgumentException (
+            "Property '"+path+"' is read-only");
+      }
+      return prop;
+   }
+
+   /**
+    * Sets a property from its text value.
+    */
+   private void scanProperty (Property prop, String value) throws IOException {
+      ReaderTokenizer rtok = new ReaderTokenizer (new StringReader (value));
+      prop.set (prop.getInfo().scanValue (rtok));
+   }
+
+   /**
+    * Returns the text value of a property, so that it can later be restored
+    * using {@link #scanProperty}.
+    */
+   private String printProperty (Property prop) throws IOException {
+      StringWriter sw = new StringWriter();
+      PrintWriter pw = new PrintWriter (sw);
+      PropertyInfo info = prop.getInfo();
+      info.writeValue (prop.get(), pw, new NumberFormat ("%.17g"), null);
+      pw.flush();
+      return sw.toString();
+   }
+
+   /**
+    * Applies the overrides for a run, and returns the previous values of the
+    * associated properties.
+    */
+   private LinkedHashMap<Property,String> applyOverrides (
+      RootModel root, Run run) throws IOException {
+      LinkedHashMap<Property,String> saved = new LinkedHashMap<>();
+      for (Map.Entry<String,String> entry : run.myOverrides.entrySet()) {
+         Property prop = findProperty (root, entry.getKey());
+         saved.put (prop, printProperty (prop));
+         scanProperty (prop, entry.getValue());
+      }
+      return saved;
+   }
+
+   private void restoreOverrides (LinkedHashMap<Property,String> saved)
+      throws IOException {
+      for (Map.Entry<Property,String> entry : saved.entrySet()) {
+         scanProperty (entry.getKey(), entry.getValue());
+      }
+   }
+
+   /**
+    * Returns the output probes whose data should be collected, as a map from
+    * their names to the probes.
+    */
+   private LinkedHashMap<String,NumericOutputProbe> findOutputProbes (
+      RootModel root) {
+      LinkedHashMap<String,NumericOutputProbe> probes = new LinkedHashMap<>();
+      if (myProbeNames.size() > 0) {
+         for (String name : myProbeNames) {
+            Probe p = root.getOutputProbes().get (name);
+            if (!(p instanceof NumericOutputProbe)) {
+               throw new IllegalArgumentException (
+                  "Numeric output probe '"+name+"' not found");
+            }
+            probes.put (name, (NumericOutputProbe)p);
+         }
+      }
+      else {
+         for (Probe p : root.getOutputProbes()) {
+            if (p instanceof NumericOutputProbe) {
+               String name = p.getName();
+               if (name == null) {
+                  name = Integer.toString (p.getNumber());
+               }
+               probes.put (name, (NumericOutputProbe)p);
+            }
+         }
+      }
+      return probes;
+   }
+
+   /**
+    * Advances a root model from time 0 to an end time, using the model's
+    * maximum step size, in the same way as the scheduler.
+    */
+   private void advance (RootModel root, double endTime) {
+      double stepSize = root.getMaxStepSize();
+      double t0 = 0;
+      while (TimeBase.compare (t0, endTime) < 0) {
+         double t1 = endTime;
+         if (stepSize > 0) {
+            double nextStepTime = t0+(stepSize-TimeBase.modulo(t0,stepSize));
+            if (TimeBase.compare (nextStepTime, t1) < 0) {
+               t1 = nextStepTime;
+            }
+         }
+         t1 = TimeBase.round (t1);
+         root.advance (t0, t1, 0);
+         if (root.getStopRequest()) {
+            break;
+         }
+         t0 = t1;
+      }
+   }
+
+   /**
+    * Performs the runs for a single worker thread.
+    */
+   private class Worker implements Runnable {
+
+      AtomicInteger myNextRun;
+      Result[] myResults;
+      RootModel myRoot;
+      CompositeState myInitialState; // used to reset the model
+
+      Worker (AtomicInteger nextRun, Result[] results) {
+         myNextRun = nextRun;
+         myResults = results;
+      }
+
+      void resetModel () throws Exception {
+         if (myRoot == null || myRebuildEachRun) {
+            myRoot = buildModel (myModelClass.getSimpleName());
+            myInitialState = myRoot.getState (/*annotated=*/false);
+         }
+         else {
+            myRoot.setState (myInitialState);
+         }
+      }
+
+      void doRun (Run run, Result result) throws Exception {
+         resetModel();
+         LinkedHashMap<String,NumericOutputProbe> probes =
+            findOutputProbes (myRoot);
+         for (NumericOutputProbe p : probes.values()) {
+            p.getNumericList().clear();
+         }
+         LinkedHashMap<Property,String> saved = applyOverrides (myRoot, run);
+         try {
+            myRoot.setStopRequest (false);
+            myRoot.initialize (0);
+            double endTime = (run.myEndTime >= 0 ? run.myEndTime : myEndTime);
+            advance (myRoot, endTime);
+            for (Map.Entry<String,NumericOutputProbe> entry :
+                    probes.entrySet()) {
+               NumericList list = entry.getValue().getNumericList();
+               result.myOutputs.put (entry.getKey(), (NumericList)list.clone());
+            }
+         }
+         finally {
+            restoreOverrides (saved);
+         }
+      }
+
+      public void run() {
+         int idx;
+         while ((idx = myNextRun.getAndIncrement()) < myRuns.size()) {
+            Run run = myRuns.get (idx);
+            Result result = new Result (run.myName);
+            long t0 = System.nanoTime();
+            try {
+               doRun (run, result);
+            }
+            catch (Exception | Error e) {
+               result.myError = e;
+               // model may be in an unknown state, so rebuild it
+               myRoot = null;
+            }
+            result.myWallTime = 1e-9*(System.nanoTime()-t0);
+            myResults[idx] = result;
+         }
+      }
+   }
+
+   /**
+    * Performs all the runs, and returns their results, in the same order as
+    * the runs. Runs which fail do not cause this method to throw an
+    * exception; instead, the exception is recorded in the run's result.
+    *
+    * @return results for each run
+    */
+   public List<Result> runAll() {
+      Result[] results = new Result[myRuns.size()];
+      int nthreads = Math.min (myNumThreads, myRuns.size());
+      boolean cacheWasEnabled = GeometryCache.isEnabled();
+      if (myShareGeometry) {
+         GeometryCache.setEnabled (true);
+      }
+      try {
+         AtomicInteger nextRun = new AtomicInteger (0);
+         if (nthreads <= 1) {
+            new Worker (nextRun, results).run();
+         }
+         else {
+            ExecutorService executor = Executors.newFixedThreadPool (
+               nthreads, new NamedThreadFactory ("batch"));
+            ArrayList<Future<?>> futures = new ArrayList<>();
+            for (int i=0; i<nthreads; i++) {
+               futures.add (executor.submit (new Worker (nextRun, results)));
+            }
+            try {
+               for (Future<?> f : futures) {
+                  f.get();
+               }
+            }
+            catch (Exception e) {
+               throw new RuntimeException ("Batch execution failed", e);
+            }
+            finally {
+               executor.shutdown();
+            }
+         }
+      }
+      finally {
+         if (myShareGeometry && !cacheWasEnabled) {
+            GeometryCache.setEnabled (false);
+         }
+      }
+      ArrayList<Result> list = new ArrayList<>(results.length);
+      for (Result r : results) {
+         list.add (r);
+      }
+      return list;
+   }
+
+   /**
+    * Writes a set of results to a CSV file. Each line contains the run name,
+    * the probe name, the probe time, and the probe values at that time.
+    * Failed runs are written as a single line containing the run name and the
+    * error message.
+    *
+    * @param file file to write to
+    * @param results results to write
+    * @param fmtStr format string for the numeric values
+    */
+   public static void writeCsv (
+      File file, List<Result> results, String fmtStr) throws IOException {
+      PrintWriter pw = new PrintWriter (file);
+      try {
+         writeCsv (pw, results, fmtStr);
+      }
+      finally {
+         pw.close();
+      }
+   }
+
+   /**
+    * Writes a set of results in CSV format, as described for {@link
+    * #writeCsv(File,List,String)}.
+    *
+    * @param pw writer to write to
+    * @param results results to write
+    * @param fmtStr format string for the numeric values
+    */
+   public static void writeCsv (
+      PrintWriter pw, List<Result> results, String fmtStr) {
+      NumberFormat fmt = new NumberFormat (fmtStr);
+      pw.println ("run,probe,time,values");
+      for (Result r : results) {
+         if (r.myError != null) {
+            pw.println (r.myName+",ERROR,"+r.myError);
+            continue;
+         }
+         for (Map.Entry<String,NumericList> entry : r.myOutputs.entrySet()) {
+            for (NumericListKnot knot : entry.getValue()) {
+               StringBuilder sb = new StringBuilder();
+               sb.append (r.myName+","+entry.getKey()+","+fmt.format(knot.t));
+               for (int i=0; i<knot.v.size(); i++) {
+                  sb.append (","+fmt.format(knot.v.get(i)));
+               }
+               pw.println (sb.toString());
+            }
+         }
+      }
+      pw.flush();
+   }
+
+   private static void printUsageAndExit() {
+      System.out.println (
+         "Usage: java "+BatchRunner.class.getName()+
+         " -model <className> -runs <file> [options]\n"+
+         "Options:\n"+
+         "  -args \"<args>\"    arguments for the model's build() method\n"+
+         "  -time <t>         end time for each run (default 1)\n"+
+         "  -probes <names>   comma-separated output probes to collect\n"+
+         "  -threads <n>      number of worker threads\n"+
+         "  -out <file>       CSV output file (default stdout)\n"+
+         "  -format <fmt>     number format (default %g)\n"+
+         "  -rebuild          rebuild the model for each run\n"+
+         "  -noShareGeometry  don't share meshes and grids between workers");
+      System.exit (1);
+   }
+
+   public static void main (String[] args) {
+      String className = null;
+      String buildArgs = null;
+      String runsFile = null;
+      String probes = null;
+      String outFile = null;
+      String fmtStr = "%g";
+      double endTime = 1.0;
+      int nthreads = -1;
+      boolean rebuild = false;
+      boolean shareGeometry = true;
+
+      try {
+         for (int i=0; i<args.length; i++) {
+            if (args[i].equals ("-model")) {
+               className = args[++i];
+            }
+            else if (args[i].equals ("-args")) {
+               buildArgs = args[++i];
+            }
+            else if (args[i].equals ("-runs")) {
+               runsFile = args[++i];
+            }
+            else if (args[i].equals ("-time")) {
+               endTime = Double.parseDouble (args[++i]);
+            }
+            else if (args[i].equals ("-probes")) {
+               probes = args[++i];
+            }
+            else if (args[i].equals ("-threads")) {
+               nthreads = Integer.parseInt (args[++i]);
+            }
+            else if (args[i].equals ("-out")) {
+               outFile = args[++i];
+            }
+            else if (args[i].equals ("-format")) {
+               fmtStr = args[++i];
+            }
+            else if (args[i].equals ("-rebuild")) {
+               rebuild = true;
+            }
+            else if (args[i].equals ("-noShareGeometry")) {
+               shareGeometry = false;
+            }
+            else {
+               printUsageAndExit();
+            }
+         }
+      }
+      catch (Exception e) {
+         printUsageAndExit();
+      }
+      if (className == null || runsFile == null) {
+         printUsageAndExit();
+      }
+      try {
+         String[] bargs = null;
+         if (buildArgs != null && buildArgs.trim().length() > 0) {
+            bargs = buildArgs.trim().split ("\\s+");
+         }
+         BatchRunner runner = new BatchRunner (className, bargs);
+         runner.setEndTime (endTime);
+         runner.setRebuildEachRun (rebuild);
+         runner.setShareGeometry (shareGeometry);
+         if (nthreads > 0) {
+            runner.setNumThreads (nthreads);
+         }
+         if (probes != null) {
+            for (String name : probes.split (",")) {
+               runner.addOutputProbe (name.trim());
+            }
+         }
+         runner.readRuns (new File (runsFile));
+         List<Result> results = runner.runAll();
+         for (Result r : results) {
+            if (r.getError() != null) {
+               System.err.println ("Run "+r.getName()+" failed:");
+               r.getError().printStackTrace();
+            }
+         }
+         if (outFile != null) {
+            writeCsv (new File (outFile), results, fmtStr);
+         }
+         else {
+            PrintWriter pw = new PrintWriter (System.out);
+            writeCsv (pw, results, fmtStr);
+         }
+      }
+      catch (Exception e) {
+         e.printStackTrace();
+         System.exit (1);
+      }
+   }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.driver;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import artisynth.core.driver.BatchRunner.Result;
+import artisynth.core.mechmodels.MechModel;
+import artisynth.core.mechmodels.Particle;
+import artisynth.core.probes.NumericOutputProbe;
+import artisynth.core.workspace.RootModel;
+import maspack.interpolation.NumericList;
+import maspack.solvers.SparseSolverId;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Tests BatchRunner, by comparing parallel runs against serial runs and
+ * against runs in which the model is rebuilt each time.
+ */
+public class BatchRunnerTest extends UnitTest {
+
+   /**
+    * Simple model consisting of a damped particle falling under gravity.
+    */
+   public static class FallingParticle extends RootModel {
+
+      public void build (String[] args) {
+         MechModel mech = new MechModel ("mech");
+         mech.setMatrixSolver (SparseSolverId.SparseLDLT);
+         addModel (mech);
+         Particle p = new Particle ("p", 1.0, 0, 0, 0);
+         mech.addParticle (p);
+         mech.setPointDamping (0.5);
+
+         NumericOutputProbe probe =
+            new NumericOutputProbe (p, "position", null, 0.02);
+         probe.setName ("pos");
+         probe.setStopTime (1.0);
+         addOutputProbe (probe);
+      }
+   }
+
+   private LinkedHashMap<String,String> overrides (String... pathsAndValues) {
+      LinkedHashMap<String,String> map = new LinkedHashMap<>();
+      for (int i=0; i<pathsAndValues.length; i+=2) {
+         map.put (pathsAndValues[i], pathsAndValues[i+1]);
+      }
+      return map;
+   }
+
+   private BatchRunner createRunner() {
+      BatchRunner runner = new BatchRunner (FallingParticle.class, null);
+      runner.setEndTime (0.5);
+      runner.addOutputProbe ("pos");
+      runner.addRun (
+         "g1", overrides ("models/mech:gravity", "0 0 -1"));
+      runner.addRun (
+         "g5", overrides ("models/mech:gravity", "0 0 -5"));
+      runner.addRun ("default", null);
+      runner.addRun (
+         "g5damped", overrides (
+            "models/mech:gravity", "0 0 -5",
+            "models/mech:pointDamping", "4"));
+      runner.addRun (
+         "g1long", overrides ("models/mech:gravity", "0 0 -1"), 1.0);
+      runner.addRun (
+         "g5again", overrides ("models/mech:gravity", "0 0 -5"));
+      runner.addRun (
+         "bad", overrides ("models/mech:nonexistent", "1"));
+      return runner;
+   }
+
+   private void checkEqualResults (
+      String msg, List<Result> results, List<Result> check) {
+      checkEquals (msg+": num results", results.size(), check.size());
+      for (int i=0; i<results.size(); i++) {
+         Result r = results.get(i);
+         Result c = check.get(i);
+         checkEquals (msg+": run name", r.getName(), c.getName());
+         checkEquals (
+            msg+": error", r.getError() == null, c.getError() == null);
+         if (r.getError() == null) {
+            if (!r.getOutput("pos").equals (c.getOutput("pos"))) {
+               throw new TestException (
+                  msg+": outputs differ for run "+r.getName());
+            }
+         }
+      }
+   }
+
+   private double finalZ (Result result) {
+      NumericList list = result.getOutput ("pos");
+      return list.getLast().v.get(2);
+   }
+
+   public void test() {
+      BatchRunner runner = createRunner();
+      runner.setNumThreads (1);
+      List<Result> serial = runner.runAll();
+
+      // check results for individual runs
+      Result g1 = serial.get(0);
+      Result g5 = serial.get(1);
+      Result gdefault = serial.get(2);
+      Result g5damped = serial.get(3);
+      Result g1long = serial.get(4);
+      Result g5again = serial.get(5);
+      Result bad = serial.get(6);
+      for (int i=0; i<6; i++) {
+         if (serial.get(i).getError() != null) {
+            throw new TestException (
+               "Run "+serial.get(i).getName()+" failed: "+
+               serial.get(i).getError());
+         }
+      }
+      checkEquals ("bad run failed", bad.getError() != null, true);
+      checkEquals ("g1 num knots", g1.getOutput("pos").getNumKnots(), 26);
+      checkEquals (
+         "g1long num knots", g1long.getOutput("pos").getNumKnots(), 51);
+      if (!(finalZ(g5) < finalZ(g1) && finalZ(gdefault) < finalZ(g5))) {
+         throw new TestException (
+            "final positions not ordered by gravity magnitude");
+      }
+      if (!(finalZ(g5damped) > finalZ(g5))) {
+         throw new TestException ("damping override had no effect");
+      }
+      // overrides should have been restored after each run
+      if (!g5.getOutput("pos").equals (g5again.getOutput("pos"))) {
+         throw new TestException ("repeated runs produce different outputs");
+      }
+      NumericList g1head = (NumericList)g1long.getOutput("pos").clone();
+      g1head.clearAfter (g1head.findKnotAtOrBefore (0.5, null));
+      if (!g1head.equals (g1.getOutput("pos"))) {
+         throw new TestException ("g1long does not extend g1");
+      }
+
+      runner.setNumThreads (3);
+      checkEqualResults ("parallel", runner.runAll(), serial);
+
+      runner.setRebuildEachRun (true);
+      checkEqualResults ("rebuild", runner.runAll(), serial);
+   }
+
+   public static void main (String[] args) {
+      BatchRunnerTest tester = new BatchRunnerTest();
+      tester.runtest();
+   }
+}
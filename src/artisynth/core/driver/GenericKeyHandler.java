@@ -88,7 +88,7 @@ public class GenericKeyHandler implements KeyListener {
       switch (e.getKeyChar()) {
          case 'q':
 
-            Main.exit (0);
+            myMain.quit();
             break;
 
          case ' ':
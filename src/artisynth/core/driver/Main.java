@@ -133,6 +133,7 @@ import maspack.render.Viewer;
 import maspack.widgets.GuiUtils;
 import maspack.render.GL.GLViewerFrame;
 import maspack.solvers.PardisoSolver;
+import maspack.solvers.SparseLDLTSolver;
 import maspack.solvers.SparseSolverId;
 import maspack.util.ClassFinder;
 import maspack.util.IndentingPrintWriter;
@@ -1617,6 +1618,7 @@ public class Main implements DriverInterface, ComponentChangeListener {
          numThreads = numSolverThreads.value;
       }
       PardisoSolver.setDefaultNumThreads(numThreads);
+      SparseLDLTSolver.setDefaultNumThreads(numThreads);
 
       // settings that are not in preferences:
 
@@ -1628,6 +1630,11 @@ public class Main implements DriverInterface, ComponentChangeListener {
          MechSystemBase.setDefaultMatrixSolver (
             SparseSolverId.valueOf (matrixSolver.value));
       }
+
+      // solver profiling
+      if (solverProfileFile.value != null) {
+         MechSystemBase.setDefaultSolverProfiling (true);
+      }
    }      
 
    private void initializeMaintenancePrefs () {
@@ -2523,6 +2530,8 @@ public class Main implements DriverInterface, ComponentChangeListener {
          new StringHolder(); 
    protected static StringHolder wayPointsFile = 
          new StringHolder(); 
+   protected static StringHolder solverProfileFile = 
+         new StringHolder(); 
    protected static StringHolder taskManagerClassName = 
          new StringHolder(); 
 
@@ -2796,7 +2805,7 @@ public class Main implements DriverInterface, ComponentChangeListener {
          "-disableHybridSolves %v #disable hybrid linear solves",
          disableHybridSolves);
       parser.addOption (
-         "-matrixSolver %s{Pardiso,Umfpack} #default matrix solver",
+         "-matrixSolver %s{Pardiso,Umfpack,SparseLDLT} #default matrix solver",
          matrixSolver);
       parser.addOption (
          "-numSolverThreads %d #number of threads to use for linear solver",
@@ -2855,6 +2864,9 @@ public class Main implements DriverInterface, ComponentChangeListener {
       parser.addOption (
          "-waypoints %s # specifies a waypoints file to load",
          wayPointsFile);
+      parser.addOption (
+         "-profileSolver %s #write per-step solver phase times to a CSV file "+
+         "on exit", solverProfileFile);
       
       Locale.setDefault(Locale.CANADA);
 
@@ -3565,6 +3577,9 @@ public class Main implements DriverInterface, ComponentChangeListener {
 
    public void dispose() {
       if (!disposed) {
+         if (solverProfileFile.value != null) {
+            writeSolverProfiles (new File (solverProfileFile.value));
+         }
          clearRootModel();
          if (myFrame != null) {
             myFrame.dispose ();
@@ -3599,6 +3614,50 @@ public class Main implements DriverInterface, ComponentChangeListener {
       exit (0);
    }
 
+   /**
+    * Writes the solver profiles of the top-level MechSystem models in CSV
+    * format. If there is more than one such model, the model name is
+    * appended to the base name of each file.
+    */
+   private void writeSolverProfiles (File file) {
+      RootModel root = getRootModel();
+      if (root == null) {
+         return;
+      }
+      ArrayList<MechSystemBase> systems = new ArrayList<MechSystemBase>();
+      for (Model model : root.models()) {
+         if (model instanceof MechSystemBase &&
+             ((MechSystemBase)model).getSolverProfiler() != null) {
+            systems.add ((MechSystemBase)model);
+         }
+      }
+      for (MechSystemBase sys : systems) {
+         File csvFile = file;
+         if (systems.size() > 1) {
+            String name = file.getName();
+            String suffix = "";
+            int dotIdx = name.lastIndexOf ('.');
+            if (dotIdx != -1) {
+               suffix = name.substring (dotIdx);
+               name = name.substring (0, dotIdx);
+            }
+            String sysName = sys.getName();
+            if (sysName == null) {
+               sysName = Integer.toString (sys.getNumber());
+            }
+            csvFile = new File (
+               file.getParentFile(), name + "_" + sysName + suffix);
+         }
+         try {
+            sys.getSolverProfiler().writeCsv (csvFile);
+         }
+         catch (IOException e) {
+            System.out.println (
+               "Error writing solver profile to '"+csvFile+"': " + e);
+         }
+      }
+   }
+
    /**
     * add the selection listener
     */
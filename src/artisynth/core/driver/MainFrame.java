@@ -173,7 +173,7 @@ public class MainFrame extends JFrame {
       addWindowListener (new WindowAdapter() {
             public void windowClosing (WindowEvent e) {
                GLPanel.dispose();  // cleanly close JOGL context
-               Main.exit (0);
+               myMain.quit();
             }
 
             public void windowClosed (WindowEvent e) {
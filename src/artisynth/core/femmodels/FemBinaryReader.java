@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.femmodels;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+
+import artisynth.core.util.MappedArrayIO;
+import maspack.matrix.Point3d;
+import maspack.matrix.Vector3d;
+
+/**
+ * Reads the nodes and elements of a FEM model from a binary snapshot file
+ * created by {@link FemBinaryWriter}, which describes the file format.
+ */
+public class FemBinaryReader implements FemReader {
+
+   File myFile;
+
+   public FemBinaryReader (File file) {
+      myFile = file;
+   }
+
+   public FemBinaryReader (String fileName) {
+      this (new File (fileName));
+   }
+
+   @Override
+   public FemModel3d readFem (FemModel3d fem) throws IOException {
+      return read (fem, myFile);
+   }
+
+   static FemElement3d createElement (int type, FemNode3d[] nodes) {
+      switch (type) {
+         case 0: return new TetElement (nodes);
+         case 1: return new PyramidElement (nodes);
+         case 2: return new WedgeElement (nodes);
+         case 3: return new HexElement (nodes);
+         case 4: return new QuadtetElement (nodes);
+         case 5: return new QuadpyramidElement (nodes);
+         case 6: return new QuadwedgeElement (nodes);
+         case 7: return new QuadhexElement (nodes);
+         default: {
+            throw new IllegalArgumentException (
+               "Unknown element type code " + type);
+         }
+      }
+   }
+
+   /**
+    * Returns <code>true</code> if the specified file appears to be a binary
+    * FEM file, as determined by its magic number.
+    *
+    * @param file file to check
+    * @return <code>true</code> if <code>file</code> is a binary FEM file
+    */
+   public static boolean isBinaryFemFile (File file) {
+      if (file == null || !file.isFile() ||
+          file.length() < FemBinaryWriter.HEADER_SIZE) {
+         return false;
+      }
+      try {
+         RandomAccessFile raf = new RandomAccessFile (file, "r");
+         try {
+            byte[] bytes = new byte[FemBinaryWriter.MAGIC.length];
+            raf.readFully (bytes);
+            for (int i=0; i<bytes.length; i++) {
+               if (bytes[i] != FemBinaryWriter.MAGIC[i]) {
+                  return false;
+               }
+            }
+            return true;
+         }
+         finally {
+            raf.close();
+         }
+      }
+      catch (IOException e) {
+         return false;
+      }
+   }
+
+   private static void setNodeData (Vector3d vec, double[] buf, int idx) {
+      vec.set (buf[idx], buf[idx+1], buf[idx+2]);
+   }
+
+   /**
+    * Reads a FEM model from a binary snapshot file. If <code>fem</code> is
+    * non-null, it is cleared and then populated with the nodes and elements
+    * of the file. Otherwise, a new model is created.
+    *
+    * @param fem FEM model to populate, or <code>null</code>
+    * @param file file to read from
+    * @return FEM model containing the file's nodes and elements
+    * @throws IOException if the file is not a binary FEM file, has an
+    * unsupported version, or is corrupt
+    */
+   public static FemModel3d read (FemModel3d fem, File file)
+      throws IOException {
+
+      RandomAccessFile raf = new RandomAccessFile (file, "r");
+      try {
+         FileChannel ch = raf.getChannel();
+         if (ch.size() < FemBinaryWriter.HEADER_SIZE) {
+            throw new IOException (
+               "File "+file+" is too short to be a binary FEM file");
+         }
+         MappedByteBuffer header =
+            ch.map (MapMode.READ_ONLY, 0, FemBinaryWriter.HEADER_SIZE);
+         header.order (ByteOrder.LITTLE_ENDIAN);
+         byte[] magic = new byte[FemBinaryWriter.MAGIC.length];
+         header.get (magic);
+         for (int i=0; i<magic.length; i++) {
+            if (magic[i] != FemBinaryWriter.MAGIC[i]) {
+               throw new IOException (
+                  "File "+file+" is not a binary FEM file");
+            }
+         }
+         int version = header.getInt();
+         if (version > FemBinaryWriter.VERSION) {
+            throw new IOException (
+               "File "+file+" has unsupported version "+version);
+         }
+         int numn = header.getInt();
+         int nume = header.getInt();
+         int nconn = header.getInt();
+         double density = header.getDouble();
+         if (numn < 0 || nume < 0 || nconn < 0) {
+            throw new IOException ("File "+file+" has a corrupt header");
+         }
+
+         double[] rest = new double[3*numn];
+         double[] pos = new double[3*numn];
+         double[] vel = new double[3*numn];
+         int[] nodeNums = new int[numn];
+         int[] elemNums = new int[nume];
+         int[] types = new int[nume];
+         int[] conn = new int[nconn];
+
+         long off = FemBinaryWriter.HEADER_SIZE;
+         off = MappedArrayIO.getDoubles (ch, off, rest, rest.length);
+         off = MappedArrayIO.getDoubles (ch, off, pos, pos.length);
+         off = MappedArrayIO.getDoubles (ch, off, vel, vel.length);
+         off = MappedArrayIO.getInts (ch, off, nodeNums, numn);
+         off = MappedArrayIO.getInts (ch, off, elemNums, nume);
+         off = MappedArrayIO.getInts (ch, off, types, nume);
+         off = MappedArrayIO.getInts (ch, off, conn, nconn);
+
+         if (fem == null) {
+            fem = new FemModel3d();
+         }
+         else {
+            fem.clear();
+         }
+         fem.setDensity (density);
+
+         ArrayList<FemNode3d> nodes = new ArrayList<FemNode3d>(numn);
+         Point3d tmp = new Point3d();
+         for (int i=0; i<numn; i++) {
+            setNodeData (tmp, rest, 3*i);
+            FemNode3d node = new FemNode3d (tmp);
+            setNodeData (tmp, pos, 3*i);
+            node.setPosition (tmp);
+            setNodeData (tmp, vel, 3*i);
+            node.setVelocity (tmp);
+            fem.addNumberedNode (node, nodeNums[i]);
+            nodes.add (node);
+         }
+         int k = 0;
+         for (int i=0; i<nume; i++) {
+            int type = types[i];
+            if (type < 0 || type >= FemBinaryWriter.ELEMENT_SIZES.length) {
+               throw new IOException (
+                  "Element "+elemNums[i]+" has unknown type code "+type);
+            }
+            int size = FemBinaryWriter.ELEMENT_SIZES[type];
+            if (k+size > nconn) {
+               throw new IOException (
+                  "Connectivity data for element "+elemNums[i]+
+                  " exceeds connectivity size");
+            }
+            FemNode3d[] elemNodes = new FemNode3d[size];
+            for (int j=0; j<size; j++) {
+               int idx = conn[k++];
+               if (idx < 0 || idx >= numn) {
+                  throw new IOException (
+                     "Element "+elemNums[i]+" has node index "+idx+
+                     " out of range");
+               }
+               elemNodes[j] = nodes.get(idx);
+            }
+            FemElement3d elem = createElement (type, elemNodes);
+            fem.addNumberedElement (elem, elemNums[i]);
+         }
+         return fem;
+      }
+      finally {
+         raf.close();
+      }
+   }
+
+   public static FemModel3d read (FemModel3d fem, String fileName)
+      throws IOException {
+      return read (fem, new File (fileName));
+   }
+}
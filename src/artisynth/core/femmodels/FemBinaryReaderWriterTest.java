@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.femmodels;
+
+import java.io.File;
+import java.io.IOException;
+
+import artisynth.core.modelbase.ComponentState;
+import artisynth.core.modelbase.StateSnapshot;
+import maspack.matrix.Point3d;
+import maspack.matrix.Vector3d;
+import maspack.util.RandomGenerator;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Tests FemBinaryWriter and FemBinaryReader, together with StateSnapshot.
+ */
+public class FemBinaryReaderWriterTest extends UnitTest {
+
+   private void perturbNodes (FemModel3d fem) {
+      for (FemNode3d node : fem.getNodes()) {
+         Point3d pos = new Point3d();
+         pos.setRandom();
+         pos.scale (0.01);
+         pos.add (node.getPosition());
+         node.setPosition (pos);
+         Vector3d vel = new Vector3d();
+         vel.setRandom();
+         node.setVelocity (vel);
+      }
+   }
+
+   private void checkNodes (FemModel3d fem, FemModel3d chk) {
+      if (fem.numNodes() != chk.numNodes()) {
+         throw new TestException (
+            "Read "+fem.numNodes()+" nodes, expected "+chk.numNodes());
+      }
+      for (int i=0; i<fem.numNodes(); i++) {
+         FemNode3d node = fem.getNode(i);
+         FemNode3d nchk = chk.getNode(i);
+         if (node.getNumber() != nchk.getNumber()) {
+            throw new TestException (
+               "Node "+i+": number "+node.getNumber()+
+               ", expected "+nchk.getNumber());
+         }
+         if (!node.getRestPosition().equals (nchk.getRestPosition()) ||
+             !node.getPosition().equals (nchk.getPosition()) ||
+             !node.getVelocity().equals (nchk.getVelocity())) {
+            throw new TestException (
+               "Node "+i+": position or velocity differs from original");
+         }
+      }
+   }
+
+   private void checkElements (FemModel3d fem, FemModel3d chk) {
+      if (fem.numElements() != chk.numElements()) {
+         throw new TestException (
+            "Read "+fem.numElements()+" elements, expected "+
+            chk.numElements());
+      }
+      for (int i=0; i<fem.numElements(); i++) {
+         FemElement3d elem = fem.getElement(i);
+         FemElement3d echk = chk.getElement(i);
+         if (elem.getClass() != echk.getClass() ||
+             elem.getNumber() != echk.getNumber()) {
+            throw new TestException (
+               "Element "+i+": type or number differs from original");
+         }
+         FemNode3d[] nodes = elem.getNodes();
+         FemNode3d[] nchks = echk.getNodes();
+         for (int j=0; j<nodes.length; j++) {
+            if (nodes[j].getNumber() != nchks[j].getNumber()) {
+               throw new TestException (
+                  "Element "+i+": node "+j+" is "+nodes[j].getNumber()+
+                  ", expected "+nchks[j].getNumber());
+            }
+         }
+      }
+   }
+
+   public void testReadWrite (FemModel3d fem, File file) throws IOException {
+      perturbNodes (fem);
+      FemBinaryWriter.write (fem, file);
+      if (!FemBinaryReader.isBinaryFemFile (file)) {
+         throw new TestException ("Written file not recognized");
+      }
+      FemModel3d chk = FemBinaryReader.read (null, file);
+      checkNodes (chk, fem);
+      checkElements (chk, fem);
+      if (chk.getDensity() != fem.getDensity()) {
+         throw new TestException (
+            "Density "+chk.getDensity()+", expected "+fem.getDensity());
+      }
+   }
+
+   public void testState (FemModel3d fem, File file) throws IOException {
+      FemModel3d chk = FemBinaryReader.read (null, file);
+      StateSnapshot.save (file, fem);
+      ComponentState state = fem.createState (null);
+      fem.getState (state);
+      perturbNodes (fem);
+      StateSnapshot.load (file, fem);
+      ComponentState check = fem.createState (null);
+      fem.getState (check);
+      StringBuilder msg = new StringBuilder();
+      if (!check.equals (state, msg)) {
+         System.out.println (msg);
+         throw new TestException ("Loaded state differs from saved state");
+      }
+      checkNodes (fem, chk);
+   }
+
+   public void test() throws IOException {
+      File file = File.createTempFile ("femBinaryTest", ".dat");
+      try {
+         FemModel3d fem = FemFactory.createHexGrid (null, 1, 1, 1, 4, 3, 2);
+         fem.setDensity (1234.0);
+         testReadWrite (fem, file);
+         testState (fem, file);
+         testReadWrite (
+            FemFactory.createTetGrid (null, 1, 1, 1, 3, 3, 3), file);
+         testReadWrite (
+            FemFactory.createWedgeGrid (null, 1, 1, 1, 2, 3, 2), file);
+         testReadWrite (
+            FemFactory.createPyramidGrid (null, 1, 1, 1, 2, 2, 2), file);
+         testReadWrite (
+            FemFactory.createQuadtetGrid (null, 1, 1, 1, 2, 2, 2), file);
+         testReadWrite (
+            FemFactory.createQuadhexGrid (null, 1, 1, 1, 2, 2, 2), file);
+         testReadWrite (
+            FemFactory.createQuadwedgeGrid (null, 1, 1, 1, 2, 2, 2), file);
+         testReadWrite (
+            FemFactory.createQuadpyramidGrid (null, 1, 1, 1, 2, 2, 2), file);
+      }
+      finally {
+         file.delete();
+      }
+   }
+
+   public static void main (String[] args) {
+      FemBinaryReaderWriterTest tester = new FemBinaryReaderWriterTest();
+      RandomGenerator.setSeed (0x1234);
+      tester.runtest();
+   }
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.femmodels;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import artisynth.core.mechmodels.PointList;
+import artisynth.core.util.MappedArrayIO;
+import maspack.matrix.Vector3d;
+
+/**
+ * Writes the nodes and elements of a FEM model to a binary snapshot file,
+ * which can be read back with {@link FemBinaryReader}. Unlike the text
+ * <code>.art</code> format, which is scanned token by token and resolves
+ * node references by path name, the snapshot stores node data and element
+ * connectivity as contiguous blocks which are transferred using memory
+ * mapping, and elements refer to their nodes by index. This makes it
+ * suitable for very large meshes. Component state (such as that of the
+ * whole model) can be saved in a similar way using {@link
+ * artisynth.core.modelbase.StateSnapshot StateSnapshot}.
+ *
+ * <p>The file begins with a 64 byte header, laid out (little-endian) as
+ * follows:
+ * <pre>
+ *  0  magic number "AFEMBIN1"
+ *  8  int    format version
+ * 12  int    number of nodes (n)
+ * 16  int    number of elements (e)
+ * 20  int    connectivity size (c)
+ * 24  double density
+ * 32  reserved
+ * </pre>
+ * This is followed by the blocks
+ * <pre>
+ * double[3n] node rest positions
+ * double[3n] node positions
+ * double[3n] node velocities
+ * int[n]     node numbers
+ * int[e]     element numbers
+ * int[e]     element type codes
+ * int[c]     element connectivity, as indices into the node blocks
+ * </pre>
+ * Element type codes are indices into the list {@link #ELEMENT_TYPES}.
+ * Node and element numbers are preserved, so that the model can still
+ * be referred to by other components in a text file.
+ *
+ * NOTE: Does not currently support shell elements
+ */
+public class FemBinaryWriter implements FemWriter {
+
+   /**
+    * Magic number identifying binary FEM files.
+    */
+   public static final byte[] MAGIC =
+      new byte[] { 'A', 'F', 'E', 'M', 'B', 'I', 'N', '1' };
+
+   public static final int VERSION = 1;
+
+   static final int HEADER_SIZE = 64;
+
+   /**
+    * Element classes supported by the format. The index of each class
+    * gives its type code.
+    */
+   public static final Class<?>[] ELEMENT_TYPES = new Class<?>[] {
+      TetElement.class,
+      PyramidElement.class,
+      WedgeElement.class,
+      HexElement.class,
+      QuadtetElement.class,
+      QuadpyramidElement.class,
+      QuadwedgeElement.class,
+      QuadhexElement.class
+   };
+
+   /**
+    * Number of nodes for each element type code.
+    */
+   static final int[] ELEMENT_SIZES = new int[] {
+      4, 5, 6, 8, 10, 13, 15, 20
+   };
+
+   File myFile;
+
+   public FemBinaryWriter (File file) {
+      myFile = file;
+   }
+
+   public FemBinaryWriter (String fileName) {
+      this (new File (fileName));
+   }
+
+   @Override
+   public void writeFem (FemModel3d fem) throws IOException {
+      write (fem, myFile);
+   }
+
+   static int getElementType (FemElement3d elem) {
+      for (int i=0; i<ELEMENT_TYPES.length; i++) {
+         if (elem.getClass() == ELEMENT_TYPES[i]) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   private static void getNodeData (double[] buf, int idx, Vector3d vec) {
+      buf[idx  ] = vec.x;
+      buf[idx+1] = vec.y;
+      buf[idx+2] = vec.z;
+   }
+
+   /**
+    * Writes the nodes and elements of a FEM model to a binary snapshot
+    * file. Any existing file is overwritten.
+    *
+    * @param fem FEM model to write
+    * @param file file to write to
+    * @throws IllegalArgumentException if the model contains elements
+    * whose type is not supported, or elements that reference nodes
+    * outside the model
+    */
+   public static void write (FemModel3d fem, File file) throws IOException {
+
+      PointList<FemNode3d> nodes = fem.getNodes();
+      FemElement3dList<FemElement3d> elems = fem.getElements();
+      int numn = nodes.size();
+      int nume = elems.size();
+
+      // collect element data first, so that unsupported models are
+      // rejected before the file is touched
+      int[] elemNums = new int[nume];
+      int[] types = new int[nume];
+      long nconn = 0;
+      for (int i=0; i<nume; i++) {
+         FemElement3d elem = elems.get(i);
+         types[i] = getElementType (elem);
+         if (types[i] == -1) {
+            throw new IllegalArgumentException (
+               "Element "+elem.getNumber()+" has unsupported type "+
+               elem.getClass().getName());
+         }
+         elemNums[i] = elem.getNumber();
+         nconn += elem.numNodes();
+      }
+      if (nconn > Integer.MAX_VALUE) {
+         throw new IllegalArgumentException (
+            "Element connectivity size "+nconn+" exceeds maximum");
+      }
+      int[] conn = new int[(int)nconn];
+      int k = 0;
+      for (int i=0; i<nume; i++) {
+         FemElement3d elem = elems.get(i);
+         for (FemNode3d node : elem.getNodes()) {
+            if (node.getParent() != nodes) {
+               throw new IllegalArgumentException (
+                  "Element "+elem.getNumber()+
+                  " references a node not contained in the model");
+            }
+            conn[k++] = nodes.indexOf (node);
+         }
+      }
+
+      double[] buf = new double[3*numn];
+      int[] nodeNums = new int[numn];
+
+      RandomAccessFile raf = new RandomAccessFile (file, "rw");
+      try {
+         FileChannel ch = raf.getChannel();
+         raf.setLength (0);
+         raf.setLength (
+            HEADER_SIZE + 72L*numn + 4L*numn + 8L*nume + 4L*nconn);
+
+         MappedByteBuffer header =
+            ch.map (MapMode.READ_WRITE, 0, HEADER_SIZE);
+         header.order (ByteOrder.LITTLE_ENDIAN);
+         header.put (MAGIC);
+         header.putInt (VERSION);
+         header.putInt (numn);
+         header.putInt (nume);
+         header.putInt ((int)nconn);
+         header.putDouble (fem.getDensity());
+
+         long off = HEADER_SIZE;
+         for (int i=0; i<numn; i++) {
+            getNodeData (buf, 3*i, nodes.get(i).getRestPosition());
+         }
+         off = MappedArrayIO.putDoubles (ch, off, buf, buf.length);
+         for (int i=0; i<numn; i++) {
+            getNodeData (buf, 3*i, nodes.get(i).getPosition());
+         }
+         off = MappedArrayIO.putDoubles (ch, off, buf, buf.length);
+         for (int i=0; i<numn; i++) {
+            getNodeData (buf, 3*i, nodes.get(i).getVelocity());
+            nodeNums[i] = nodes.get(i).getNumber();
+         }
+         off = MappedArrayIO.putDoubles (ch, off, buf, buf.length);
+         off = MappedArrayIO.putInts (ch, off, nodeNums, numn);
+         off = MappedArrayIO.putInts (ch, off, elemNums, nume);
+         off = MappedArrayIO.putInts (ch, off, types, nume);
+         off = MappedArrayIO.putInts (ch, off, conn, conn.length);
+      }
+      finally {
+         raf.close();
+      }
+   }
+
+   public static void write (FemModel3d fem, String fileName)
+      throws IOException {
+      write (fem, new File (fileName));
+   }
+}
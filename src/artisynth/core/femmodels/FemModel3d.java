@@ -9,6 +9,7 @@ package artisynth.core.femmodels;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -116,6 +117,7 @@ import maspack.util.DataBuffer;
 import maspack.util.DoubleInterval;
 import maspack.util.EnumRange;
 import maspack.util.FunctionTimer;
+import maspack.concurrency.ParallelLoop;
 import maspack.util.IndentingPrintWriter;
 import maspack.util.InternalErrorException;
 import maspack.util.NumberFormat;
@@ -256,6 +258,94 @@ PointAttachable, ConnectableBody {
    // temp for computing element-wise linear stiffness strain
    protected SymmetricMatrix3d myEps = new SymmetricMatrix3d();
 
+   public static int DEFAULT_NUM_STIFFNESS_THREADS = 1;
+   protected int myNumStiffnessThreads = DEFAULT_NUM_STIFFNESS_THREADS;
+   public static boolean DEFAULT_SERIAL_STIFFNESS_ORDER = true;
+   protected boolean mySerialStiffnessOrder = DEFAULT_SERIAL_STIFFNESS_ORDER;
+   // minimum number of elements handed to a thread at once
+   private static int MIN_STIFFNESS_CHUNK = 64;
+   // loop and per-thread work space for parallel stress/stiffness computation
+   protected ParallelLoop myStiffnessLoop;
+   protected ElementWorkspace[] myElementWorkspaces;
+   // element indices grouped by color, for parallel stress/stiffness
+   // computation; null if not currently valid
+   protected int[][] myElementColors;
+
+   // block index of the node neighbors for the most recent solve matrix;
+   // null if not currently valid
+   protected FemNeighborIndex myNeighborIndex;
+
+   // internal forces of the nodes, packed three values per node in node
+   // order. Each node addresses its force within this array, so that the
+   // element kernels accumulate into contiguous memory and the forces can
+   // be cleared at once. null if not currently valid.
+   protected double[] myInternalForces;
+
+   /**
+    * Per-thread work space used when computing element stresses and
+    * stiffnesses in parallel. Holds the temporary storage that is otherwise
+    * shared at the model level, together with the element condition
+    * information, which is merged back into the model once all elements have
+    * been processed.
+    */
+   protected static class ElementWorkspace {
+      VectorNd myPressures = new VectorNd(MAX_PRESSURE_VALS);
+      MatrixNd myRinv = new MatrixNd();
+      Vector3d[] myNodalConstraints = new Vector3d[MAX_NODAL_INCOMP_NODES];
+      Vector3d[] myGNx = new Vector3d[0];
+      Matrix6d myD = new Matrix6d();
+
+      double myMinDetJ = Double.MAX_VALUE;
+      FemElement3dBase myMinDetJElement = null;
+      int myNumInverted = 0;
+
+      ElementWorkspace() {
+         for (int i=0; i<myNodalConstraints.length; i++) {
+            myNodalConstraints[i] = new Vector3d();
+         }
+      }
+
+      /**
+       * Computes the shape function gradient for an integration point into
+       * storage local to this work space, rather than into the integration
+       * point itself, which is shared by all elements of the same type.
+       */
+      Vector3d[] computeShapeGradient (
+         IntegrationPoint3d pt, Matrix3d invJ, int n) {
+         if (myGNx.length < n) {
+            Vector3d[] GNx = new Vector3d[n];
+            for (int i=0; i<n; i++) {
+               GNx[i] = (i < myGNx.length ? myGNx[i] : new Vector3d());
+            }
+            myGNx = GNx;
+         }
+         pt.computeShapeGradient (invJ, myGNx);
+         return myGNx;
+      }
+
+      boolean checkElementCondition (
+         FemElement3dBase e, double detJ, boolean recordInversion) {
+         if (detJ < myMinDetJ) {
+            myMinDetJ = detJ;
+            myMinDetJElement = e;
+         }
+         if (detJ <= 0 && recordInversion) {
+            e.setInverted(true);
+            myNumInverted++;
+            return false;
+         }
+         else {
+            return true;
+         }
+      }
+
+      void clearElementConditionInfo() {
+         myMinDetJ = Double.MAX_VALUE;
+         myMinDetJElement = null;
+         myNumInverted = 0;
+      }
+   }
+
    // protected ArrayList<FemSurface> myEmbeddedSurfaces;
    protected MeshComponentList<FemMeshComp> myMeshList;
    protected ComponentList<FieldComponent> myFieldList;
@@ -307,6 +397,14 @@ PointAttachable, ConnectableBody {
          "useConsistentMass",
          "use consistent mass matrix and gravity loadings", 
          DEFAULT_USE_CONSISTENT_MASS);
+      myProps.add (
+         "numStiffnessThreads",
+         "number of threads used to compute element stresses and stiffnesses",
+         DEFAULT_NUM_STIFFNESS_THREADS, "[1,inf]");
+      myProps.add (
+         "serialStiffnessOrder",
+         "accumulate parallel stress and stiffness in the serial element order",
+         DEFAULT_SERIAL_STIFFNESS_ORDER);
    }
 
    public PropertyList getAllPropertyInfo() {
@@ -589,6 +687,80 @@ PointAttachable, ConnectableBody {
       }
    }
 
+   /**
+    * Returns the number of threads used to compute the stresses and
+    * stiffnesses of this model's volumetric elements.
+    *
+    * @return number of stress and stiffness threads
+    * @see #setNumStiffnessThreads
+    */
+   public int getNumStiffnessThreads() {
+      return myNumStiffnessThreads;
+   }
+
+   /**
+    * Sets the number of threads used to compute the stresses and stiffnesses
+    * of this model's volumetric elements. The default value of 1 results in
+    * serial computation. For larger values, elements are partitioned into
+    * color groups in which no two elements share a node, and the elements
+    * within each group are then processed concurrently. Since the
+    * computation invokes the materials from several threads at once, all
+    * materials must be reentrant.
+    *
+    * <p>Parallel computation is not used for shell elements, or when
+    * {@link #checkTangentStability} is {@code true}.
+    *
+    * @param nthreads number of stress and stiffness threads
+    * @see #setSerialStiffnessOrder
+    */
+   public void setNumStiffnessThreads (int nthreads) {
+      if (nthreads < 1) {
+         throw new IllegalArgumentException (
+            "number of threads must be at least 1; got "+nthreads);
+      }
+      if (nthreads != myNumStiffnessThreads) {
+         myNumStiffnessThreads = nthreads;
+         if (myStiffnessLoop != null) {
+            myStiffnessLoop.shutdown();
+            myStiffnessLoop = null;
+         }
+         myElementWorkspaces = null;
+      }
+   }
+
+   /**
+    * Queries whether parallel stress and stiffness computation accumulates
+    * element contributions in the serial element order.
+    *
+    * @return {@code true} if parallel computation uses the serial order
+    * @see #setSerialStiffnessOrder
+    */
+   public boolean getSerialStiffnessOrder() {
+      return mySerialStiffnessOrder;
+   }
+
+   /**
+    * Controls the order in which element contributions are accumulated into
+    * the nodal forces and stiffness blocks when stresses and stiffnesses are
+    * computed in parallel. If {@code true} (the default), elements are
+    * grouped so that each node receives its contributions in the same order
+    * as for the serial computation, making the results identical to the
+    * serial results. Otherwise, elements are grouped using a greedy coloring
+    * that generally produces fewer and larger groups, and hence better
+    * parallel performance, but whose results may differ from the serial
+    * results by round-off error. In either case the results do not depend on
+    * the number of threads.
+    *
+    * @param enable if {@code true}, use the serial accumulation order
+    * @see #setNumStiffnessThreads
+    */
+   public void setSerialStiffnessOrder (boolean enable) {
+      if (enable != mySerialStiffnessOrder) {
+         mySerialStiffnessOrder = enable;
+         myElementColors = null;
+      }
+   }
+
    protected void setDefaultValues() {
       super.setDefaultValues();
       //myDensity = DEFAULT_DENSITY;
@@ -1896,6 +2068,9 @@ PointAttachable, ConnectableBody {
       myHardIncompMethodValidP = false;
       myHardIncompConfigValidP = false;
       myAllElements = null;
+      myElementColors = null;
+      myNeighborIndex = null;
+      myInternalForces = null;
       myNumTetElements = -1; // invalidates all element counts
       //myNodeNeighborsValidP = false;
    }
@@ -2495,13 +2670,23 @@ PointAttachable, ConnectableBody {
    
    protected void computePressuresAndRinv(
       FemElement3d e, IncompressibleMaterialBase imat, FemDeformedPoint dpnt) {
+      computePressuresAndRinv (e, imat, dpnt, myPressures, myRinv);
+   }
+
+   /**
+    * Computes the element pressures and inverse pressure stiffness into the
+    * supplied storage.
+    */
+   protected void computePressuresAndRinv(
+      FemElement3d e, IncompressibleMaterialBase imat, FemDeformedPoint dpnt,
+      VectorNd pressures, MatrixNd Rinv) {
 
       int npvals = e.numPressureVals();
 
-      myRinv.setSize(npvals, npvals);
-      myPressures.setSize(npvals);
+      Rinv.setSize(npvals, npvals);
+      pressures.setSize(npvals);
 
-      double[] pbuf = myPressures.getBuffer();
+      double[] pbuf = pressures.getBuffer();
       double restVol = e.getRestVolume();
       double K;
       if (imat.getBulkModulusField() != null) {
@@ -2514,12 +2699,12 @@ PointAttachable, ConnectableBody {
       }
       
       if (npvals > 1) {
-         myPressures.setZero();
+         pressures.setZero();
          IntegrationPoint3d[] ipnts = e.getIntegrationPoints();
          IntegrationData3d[] idata = e.getIntegrationData();
 
          if (imat.getBulkPotential() != BulkPotential.QUADRATIC) {
-            myRinv.setZero();
+            Rinv.setZero();
          }
          for (int k = 0; k < ipnts.length; k++) {
             IntegrationPoint3d pt = ipnts[k];
@@ -2535,31 +2720,31 @@ PointAttachable, ConnectableBody {
                double mod = imat.getEffectiveModulus(K, detJ);
                for (int i = 0; i < npvals; i++) {
                   for (int j = 0; j < npvals; j++) {
-                     myRinv.add(i, j, H[i] * H[j] * mod * dV);
+                     Rinv.add(i, j, H[i] * H[j] * mod * dV);
                   }
                }
             }
          }
          Matrix W = e.getPressureWeightMatrix();
-         W.mul(myPressures, myPressures);
-         myPressures.scale(1 / restVol);
+         W.mul(pressures, pressures);
+         pressures.scale(1 / restVol);
          if (imat.getBulkPotential() == BulkPotential.QUADRATIC) {
-            myRinv.set(W);
-            myRinv.scale(K/restVol);
+            Rinv.set(W);
+            Rinv.scale(K/restVol);
          }
          else {
             // optimize later
             MatrixNd Wtmp = new MatrixNd(W);
             Wtmp.scale(1.0 / restVol);
-            myRinv.mul(Wtmp);
-            myRinv.mul(Wtmp, myRinv);
+            Rinv.mul(Wtmp);
+            Rinv.mul(Wtmp, Rinv);
          }
       }
       else {
          double Jpartial = e.myVolumes[0] / e.myRestVolumes[0];
          pbuf[0] = (imat.getEffectivePressure(K, Jpartial) +
             0 * e.myLagrangePressures[0]);
-         myRinv.set(0, 0, imat.getEffectiveModulus(K, Jpartial) / restVol);
+         Rinv.set(0, 0, imat.getEffectiveModulus(K, Jpartial) / restVol);
       }
    }
    
@@ -2694,7 +2879,8 @@ PointAttachable, ConnectableBody {
          }
          if (n.hasDirector()) {
             BackNode3d b = n.getBackNode();
-            n.subForce (n.myInternalForce);
+            getInternalForce (fk, n);
+            n.subForce (fk);
             b.subForce (b.myInternalForce);
             fd.setZero();
             fk.setZero(); // use fk to store stiffness damping for back node
@@ -2711,7 +2897,7 @@ PointAttachable, ConnectableBody {
             b.subForce (fk);
          }
          else {
-            fk.set(n.myInternalForce);
+            getInternalForce (fk, n);
             fd.setZero();
             if (myStiffnessDamping != 0) {
                // TODO: check that was want to use local velocity for
@@ -2771,11 +2957,39 @@ PointAttachable, ConnectableBody {
       }
    }
 
+   /**
+    * Returns the array containing the packed internal forces of this model's
+    * nodes, first (re)building it if it is not currently valid. When the
+    * array is built, the internal force of each node is copied into it and
+    * the node is set to use it for storing the force.
+    *
+    * @return array of packed internal node forces
+    */
+   protected double[] updateInternalForces() {
+      if (myInternalForces == null) {
+         double[] forces = new double[3*myNodes.size()];
+         for (int i=0; i<myNodes.size(); i++) {
+            myNodes.get(i).setInternalForceStorage (forces, 3*i);
+         }
+         myInternalForces = forces;
+      }
+      return myInternalForces;
+   }
+
+   /**
+    * Gets the internal force of a node from its force storage.
+    */
+   private void getInternalForce (Vector3d f, FemNode3d n) {
+      double[] forces = n.myInternalForces;
+      int off = n.myInternalForceOff;
+      f.set (forces[off], forces[off+1], forces[off+2]);
+   }
+
    public void updateStress() {
       // clear existing internal forces and maybe stiffnesses
       timerStart();
+      Arrays.fill (updateInternalForces(), 0);
       for (FemNode3d n : myNodes) {
-         n.myInternalForce.setZero();
          if (n.myBackNode != null) {
             n.myBackNode.myInternalForce.setZero();
          }
@@ -2818,6 +3032,153 @@ PointAttachable, ConnectableBody {
       myStressesValidP = true;
    }
 
+   /**
+    * Returns the indices of the volumetric elements, grouped into colors
+    * such that no two elements within a color share a node. If serial
+    * stiffness ordering is enabled, colors are assigned so that for any
+    * node, elements containing it appear in colors in the same order as they
+    * appear in the element list. Otherwise, colors are assigned greedily.
+    */
+   protected int[][] getElementColors() {
+      if (myElementColors == null) {
+         int nelems = myElements.size();
+         int[] colors = new int[nelems];
+         int ncolors = 0;
+         if (mySerialStiffnessOrder) {
+            // color of each element is one more than the largest color of
+            // any previous element sharing a node with it
+            int[] nodeColors = new int[myNodes.size()];
+            for (int i=0; i<nodeColors.length; i++) {
+               nodeColors[i] = -1;
+            }
+            for (int k=0; k<nelems; k++) {
+               FemNode3d[] nodes = myElements.get(k).getNodes();
+               int c = -1;
+               for (FemNode3d n : nodes) {
+                  c = Math.max (c, nodeColors[myNodes.indexOf(n)]);
+               }
+               c++;
+               for (FemNode3d n : nodes) {
+                  nodeColors[myNodes.indexOf(n)] = c;
+               }
+               colors[k] = c;
+               ncolors = Math.max (ncolors, c+1);
+            }
+         }
+         else {
+            // greedy coloring, using a bit mask of the colors in use at
+            // each node
+            int nnodes = myNodes.size();
+            int nwords = 1;
+            long[] nodeMasks = new long[nnodes];
+            for (int k=0; k<nelems; k++) {
+               FemNode3d[] nodes = myElements.get(k).getNodes();
+               int[] nodeIdxs = new int[nodes.length];
+               for (int i=0; i<nodes.length; i++) {
+                  nodeIdxs[i] = myNodes.indexOf(nodes[i]);
+               }
+               int c = -1;
+               for (int w=0; w<nwords && c == -1; w++) {
+                  long used = 0;
+                  for (int ni : nodeIdxs) {
+                     used |= nodeMasks[ni*nwords+w];
+                  }
+                  if (used != -1L) {
+                     c = 64*w + Long.numberOfTrailingZeros (~used);
+                  }
+               }
+               if (c == -1) {
+                  // all colors in use; add another word to each mask
+                  long[] masks = new long[nnodes*(nwords+1)];
+                  for (int i=0; i<nnodes; i++) {
+                     for (int w=0; w<nwords; w++) {
+                        masks[i*(nwords+1)+w] = nodeMasks[i*nwords+w];
+                     }
+                  }
+                  nodeMasks = masks;
+                  c = 64*nwords;
+                  nwords++;
+               }
+               for (int ni : nodeIdxs) {
+                  nodeMasks[ni*nwords+c/64] |= (1L << (c%64));
+               }
+               colors[k] = c;
+               ncolors = Math.max (ncolors, c+1);
+            }
+         }
+         int[] sizes = new int[ncolors];
+         for (int k=0; k<nelems; k++) {
+            sizes[colors[k]]++;
+         }
+         int[][] groups = new int[ncolors][];
+         for (int c=0; c<ncolors; c++) {
+            groups[c] = new int[sizes[c]];
+            sizes[c] = 0;
+         }
+         for (int k=0; k<nelems; k++) {
+            int c = colors[k];
+            groups[c][sizes[c]++] = k;
+         }
+         myElementColors = groups;
+      }
+      return myElementColors;
+   }
+
+   /**
+    * Returns the number of color groups used for parallel stress and
+    * stiffness computation. Mainly intended for diagnostics.
+    *
+    * @return number of element color groups
+    */
+   public int numElementColors() {
+      return getElementColors().length;
+   }
+
+   /**
+    * Computes the stresses and stiffnesses of all volumetric elements using
+    * {@link #getNumStiffnessThreads} threads. Elements within each color
+    * group are processed concurrently, and the groups are processed in
+    * sequence.
+    */
+   protected void parallelComputeStressAndStiffness (
+      final ArrayList<FemMaterial> amats, final IncompMethod softIncomp) {
+
+      if (myStiffnessLoop == null) {
+         myStiffnessLoop =
+            new ParallelLoop ("FemStiffness", myNumStiffnessThreads);
+      }
+      if (myElementWorkspaces == null) {
+         myElementWorkspaces = new ElementWorkspace[myNumStiffnessThreads];
+         for (int i=0; i<myNumStiffnessThreads; i++) {
+            myElementWorkspaces[i] = new ElementWorkspace();
+         }
+      }
+      final ElementWorkspace[] workspaces = myElementWorkspaces;
+      for (final int[] group : getElementColors()) {
+         myStiffnessLoop.forRange (
+            group.length, MIN_STIFFNESS_CHUNK, new ParallelLoop.Body() {
+               public void run (int start, int end, int worker) {
+                  ElementWorkspace ws = workspaces[worker];
+                  for (int k=start; k<end; k++) {
+                     FemElement3d e = myElements.get(group[k]);
+                     computeStressAndStiffness (
+                        e, getElementMaterial(e), amats, ws.myD, 
+                        softIncomp, ws);
+                  }
+               }
+            });
+      }
+      // merge element condition information back into the model
+      for (ElementWorkspace ws : workspaces) {
+         if (ws.myMinDetJ < myMinDetJ) {
+            myMinDetJ = ws.myMinDetJ;
+            myMinDetJElement = ws.myMinDetJElement;
+         }
+         myNumInverted += ws.myNumInverted;
+         ws.clearElementConditionInfo();
+      }
+   }
+
    // DIVBLK
    public void updateStressAndStiffness() {
       if (profileStressAndStiffness) {
@@ -2827,12 +3188,17 @@ PointAttachable, ConnectableBody {
       setNodalIncompBlocksAllocated (getSoftIncompMethod()==IncompMethod.NODAL);
 
       // clear existing internal forces and maybe stiffnesses
+      boolean zeroStiffness = !myStiffnessesValidP;
+      if (zeroStiffness && myNeighborIndex != null) {
+         myNeighborIndex.zeroStiffness();
+         zeroStiffness = false;
+      }
+      Arrays.fill (updateInternalForces(), 0);
       for (FemNode3d n : myNodes) {
-         n.myInternalForce.setZero();
          if (n.myBackNode != null) {
             n.myBackNode.myInternalForce.setZero();
          }
-         if (!myStiffnessesValidP) {
+         if (zeroStiffness) {
             for (FemNodeNeighbor nbr : getNodeNeighbors(n)) {
                nbr.zeroStiffness();
             }
@@ -2872,14 +3238,19 @@ PointAttachable, ConnectableBody {
 
       ArrayList<FemMaterial> amats = getAugmentingMaterials();
 
-      for (FemElement3d e : myElements) {
-         FemMaterial mat = getElementMaterial(e);
-         computeStressAndStiffness(e, mat, amats, D, softIncomp);
-         if (checkTangentStability) {
-            double s = checkMatrixStability(D);
-            if (s < mins) {
-               mins = s;
-               minE = e;
+      if (myNumStiffnessThreads > 1 && !checkTangentStability) {
+         parallelComputeStressAndStiffness (amats, softIncomp);
+      }
+      else {
+         for (FemElement3d e : myElements) {
+            FemMaterial mat = getElementMaterial(e);
+            computeStressAndStiffness(e, mat, amats, D, softIncomp);
+            if (checkTangentStability) {
+               double s = checkMatrixStability(D);
+               if (s < mins) {
+                  mins = s;
+                  minE = e;
+               }
             }
          }
       }
@@ -2924,24 +3295,29 @@ PointAttachable, ConnectableBody {
       }
 
       if (!myStiffnessesValidP && mySolveMatrixSymmetricP) {
-         for (FemNode3d n : myNodes) {
-            int bi = n.getLocalSolveIndex();
-            if (bi != -1) {
-               for (FemNodeNeighbor nbr : getNodeNeighbors(n)) {
-                  int bj = nbr.myNode.getLocalSolveIndex();
-                  if (bj > bi) {
-                     FemNodeNeighbor nbrT =
-                        nbr.myNode.getNodeNeighborBySolveIndex(bi);
-                     nbrT.setTransposedStiffness(nbr);
+         if (myNeighborIndex != null && myNeighborIndex.solveIndicesMatch()) {
+            myNeighborIndex.setTransposedStiffness();
+         }
+         else {
+            for (FemNode3d n : myNodes) {
+               int bi = n.getLocalSolveIndex();
+               if (bi != -1) {
+                  for (FemNodeNeighbor nbr : getNodeNeighbors(n)) {
+                     int bj = nbr.myNode.getLocalSolveIndex();
+                     if (bj > bi) {
+                        FemNodeNeighbor nbrT =
+                           nbr.myNode.getNodeNeighborBySolveIndex(bi);
+                        nbrT.setTransposedStiffness(nbr);
+                     }
                   }
-               }
-               // used for soft nodal-based incompressibilty:
-               for (FemNodeNeighbor nbr : getIndirectNeighbors(n)) {
-                  int bj = nbr.myNode.getLocalSolveIndex();
-                  if (bj > bi) {
-                     FemNodeNeighbor nbrT =
-                        nbr.myNode.getIndirectNeighborBySolveIndex(bi);
-                     nbrT.setTransposedStiffness(nbr);
+                  // used for soft nodal-based incompressibilty:
+                  for (FemNodeNeighbor nbr : getIndirectNeighbors(n)) {
+                     int bj = nbr.myNode.getLocalSolveIndex();
+                     if (bj > bi) {
+                        FemNodeNeighbor nbrT =
+                           nbr.myNode.getIndirectNeighborBySolveIndex(bi);
+                        nbrT.setTransposedStiffness(nbr);
+                     }
                   }
                }
             }
@@ -3158,6 +3534,19 @@ PointAttachable, ConnectableBody {
    public void computeStressAndStiffness (
       FemElement3d e, FemMaterial mat, ArrayList<FemMaterial> amats, 
       Matrix6d D, IncompMethod softIncomp) {
+      computeStressAndStiffness (e, mat, amats, D, softIncomp, null);
+   }
+
+   /**
+    * Computes the stress and stiffness for a volumetric element. If {@code
+    * ws} is non-{@code null}, all temporary storage and element condition
+    * information is taken from, or recorded in, the work space instead of
+    * the model, which allows this method to be called concurrently for
+    * elements that do not share nodes.
+    */
+   protected void computeStressAndStiffness (
+      FemElement3d e, FemMaterial mat, ArrayList<FemMaterial> amats, 
+      Matrix6d D, IncompMethod softIncomp, ElementWorkspace ws) {
 
       IntegrationPoint3d[] ipnts = e.getIntegrationPoints();
       IntegrationData3d[] idata = e.getIntegrationData();
@@ -3204,12 +3593,15 @@ PointAttachable, ConnectableBody {
                   for (int j = 0; j < nodes.length; j++) {
                      int bj = nodes[j].getLocalSolveIndex();
                      if (!mySolveMatrixSymmetricP || bj >= bi) {
-                        warper.addNodeStiffness(e.myNbrs[i][j].getK00(), i, j);
+                        FemNodeNeighbor nbr = e.myNbrs[i][j];
+                        warper.addNodeStiffness (
+                           nbr.myK00Vals, nbr.myK00Off, i, j);
                      }
                   }
                }
                // add node force
-               warper.addNodeForce(ni.myInternalForce, i, nodes);
+               warper.addNodeForce(
+                  ni.myInternalForces, ni.myInternalForceOff, i, nodes);
             }
             needsStressStrain |= ni.needsStressStrain();
          }
@@ -3251,9 +3643,12 @@ PointAttachable, ConnectableBody {
       SymmetricMatrix3d C = new SymmetricMatrix3d();
 
       // initialize incompressible pressure
-      double[] pbuf = myPressures.getBuffer();
+      VectorNd pressures = (ws != null ? ws.myPressures : myPressures);
+      MatrixNd Rinv = (ws != null ? ws.myRinv : myRinv);
+      double[] pbuf = pressures.getBuffer();
       if (softIncomp == IncompMethod.ELEMENT) {
-         computePressuresAndRinv (e, imat, dpnt);
+         computePressuresAndRinv (e, imat, dpnt, pressures, Rinv);
+         pbuf = pressures.getBuffer();
          if (D != null) {
             constraints = e.getIncompressConstraints();
             for (int i = 0; i < e.myNodes.length; i++) {
@@ -3284,11 +3679,17 @@ PointAttachable, ConnectableBody {
          dpnt.setFromIntegrationPoint (pt, dt, null, e, k);
 
          double detJ = invJ.fastInvert(dpnt.getJ()); // pt.computeInverseJacobian();
-         checkElementCondition (e, detJ, !invertible);
-
          // compute shape function gradient and volume fraction
          double dv = detJ * pt.getWeight();
-         Vector3d[] GNx = pt.updateShapeGradient(invJ);
+         Vector3d[] GNx;
+         if (ws != null) {
+            ws.checkElementCondition (e, detJ, !invertible);
+            GNx = ws.computeShapeGradient (pt, invJ, nodes.length);
+         }
+         else {
+            checkElementCondition (e, detJ, !invertible);
+            GNx = pt.updateShapeGradient(invJ);
+         }
 
          // compute pressure
          double pressure = 0;
@@ -3378,7 +3779,8 @@ PointAttachable, ConnectableBody {
             int bi = nodei.getLocalSolveIndex();
 
             FemUtilities.addStressForce(
-               nodei.myInternalForce, GNx[i], sigma, dv);
+               nodei.myInternalForces, nodei.myInternalForceOff,
+               GNx[i], sigma, dv);
 
             if (D != null) {              
                double p = 0;
@@ -3454,16 +3856,18 @@ PointAttachable, ConnectableBody {
       if (D != null) {
          if (softIncomp == IncompMethod.NODAL && e instanceof TetElement) {
             // tet nodal incompressibility
-            ((TetElement)e).getAreaWeightedNormals(myNodalConstraints);
+            Vector3d[] nodalConstraints =
+               (ws != null ? ws.myNodalConstraints : myNodalConstraints);
+            ((TetElement)e).getAreaWeightedNormals(nodalConstraints);
             for (int i = 0; i < 4; i++) {
-               myNodalConstraints[i].scale(-1 / 12.0);
+               nodalConstraints[i].scale(-1 / 12.0);
             }
 
             for (int i=0; i<e.numNodes(); ++i) {
                for (FemNodeNeighbor nbr : getNodeNeighbors(e.myNodes[i])) {
                   int j = e.getLocalNodeIndex(nbr.myNode);
                   if (j != -1) {
-                     nbr.myDivBlk.scaledAdd(1, myNodalConstraints[j]);
+                     nbr.myDivBlk.scaledAdd(1, nodalConstraints[j]);
                   }
                }
             }
@@ -3477,7 +3881,7 @@ PointAttachable, ConnectableBody {
                      int bj = e.myNodes[j].getLocalSolveIndex();
                      if (!mySolveMatrixSymmetricP || bj >= bi) {
                         e.myNbrs[i][j].addDilationalStiffness(
-                           myRinv, constraints[i], constraints[j]);
+                           Rinv, constraints[i], constraints[j]);
                      }
                   }
                }
@@ -3525,7 +3929,8 @@ PointAttachable, ConnectableBody {
                }
                // add node force
                warper.addNodeForce(
-                  ni.myInternalForce, ni.myBackNode.myInternalForce, i, nodes);
+                  ni.myInternalForces, ni.myInternalForceOff,
+                  ni.myBackNode.myInternalForce, i, nodes);
             }
             needsStressStrain |= ni.needsStressStrain();
          }
@@ -3627,7 +4032,8 @@ PointAttachable, ConnectableBody {
                
             // Add stress (pt.sigma) to node force
             FemUtilities.addShellStressForce(
-               nodei.myInternalForce, nodei.myBackNode.myInternalForce,
+               nodei.myInternalForces, nodei.myInternalForceOff,
+               nodei.myBackNode.myInternalForce,
                sigma, t, dv, Ns.get(i), dNs[i].x, dNs[i].y, invJ);
 
             if (D != null) {
@@ -3645,7 +4051,8 @@ PointAttachable, ConnectableBody {
                         FemNodeNeighbor nbr = e.myNbrs[i][j];
                         /* Add shell-specific material stiffness */
                         FemUtilities.addShellMaterialStiffness (
-                           nbr.myK00, nbr.myK01, nbr.myK10, nbr.myK11,
+                           nbr.myK00Vals, nbr.myK00Off,
+                           nbr.myK01, nbr.myK10, nbr.myK11,
                            iN, jN, idN, jdN, dv, t, invJ, 
                            /*material stress=*/sigma, 
                            /*material tangent=*/D);
@@ -3704,7 +4111,8 @@ PointAttachable, ConnectableBody {
                   }
                }
                // add node force
-               warper.addNodeForce(ni.myInternalForce, i, nodes);
+               warper.addNodeForce(
+                  ni.myInternalForces, ni.myInternalForceOff, i, nodes);
             }
             needsStressStrain |= ni.needsStressStrain();
          }
@@ -3803,7 +4211,7 @@ PointAttachable, ConnectableBody {
                
             // Add stress (pt.sigma) to node force
             FemUtilities.addMembraneStressForce(
-               nodei.myInternalForce, 
+               nodei.myInternalForces, nodei.myInternalForceOff,
                sigma, dv, dNs[i].x, dNs[i].y, invJ);
 
             if (D != null) {
@@ -3815,8 +4223,9 @@ PointAttachable, ConnectableBody {
                         Vector3d jdN = dNs[j];
                            
                         /* Add membrane-specific material stiffness */
+                        FemNodeNeighbor nbr = e.myNbrs[i][j];
                         FemUtilities.addMembraneMaterialStiffness (
-                           e.myNbrs[i][j].myK00, idN, jdN, dv, invJ, 
+                           nbr.myK00Vals, nbr.myK00Off, idN, jdN, dv, invJ, 
                            /*material stress=*/sigma, 
                            /*material tangent=*/D);
                      }
@@ -3937,6 +4346,7 @@ PointAttachable, ConnectableBody {
             nbr.addSolveBlocks (S, node);
          }        
       }
+      myNeighborIndex = new FemNeighborIndex (myNodes, S);
       // System.out.println ("sparsity=\n" + S.getBlockPattern());
    }
 
@@ -3957,6 +4367,16 @@ PointAttachable, ConnectableBody {
 //      }
 //   }
 
+   /**
+    * Queries whether the neighbor index can be used to add Jacobian terms
+    * to a given solve matrix.
+    */
+   private boolean neighborIndexValid (SparseNumberedBlockMatrix M) {
+      return (myNeighborIndex != null &&
+              myNeighborIndex.getSolveMatrix() == M &&
+              myNeighborIndex.solveIndicesMatch());
+   }
+
    public void addVelJacobian(
       SparseNumberedBlockMatrix M, double s) {
 
@@ -3965,6 +4385,10 @@ PointAttachable, ConnectableBody {
       }
       double sm = -s*myMassDamping;
       double sk = -s*myStiffnessDamping;
+      if (neighborIndexValid (M)) {
+         myNeighborIndex.addVelJacobian (sm, sk, myUseConsistentMass);
+         return;
+      }
       for (int i = 0; i < myNodes.size(); i++) {
          FemNode3d node = myNodes.get(i);
          if (node.getLocalSolveIndex() != -1) {
@@ -3987,6 +4411,10 @@ PointAttachable, ConnectableBody {
       if (!myStressesValidP || !myStiffnessesValidP) {
          updateStressAndStiffness();
       }
+      if (neighborIndexValid (M)) {
+         myNeighborIndex.addPosJacobian (-s);
+         return;
+      }
       for (int i = 0; i < myNodes.size(); i++) {
          FemNode3d node = myNodes.get(i);
          if (node.getLocalSolveIndex() != -1) {
@@ -4264,6 +4692,7 @@ PointAttachable, ConnectableBody {
          }
          // XXX signal structure change for solve matrix
          myNodalIncompBlocksAllocatedP = allocated;
+         myNeighborIndex = null;
          return true;
       }
       else {
@@ -5345,6 +5774,11 @@ PointAttachable, ConnectableBody {
 
       fem.myPressures = new VectorNd(MAX_PRESSURE_VALS);
       fem.myKp = new double[MAX_PRESSURE_VALS];
+      fem.myStiffnessLoop = null;
+      fem.myElementWorkspaces = null;
+      fem.myElementColors = null;
+      fem.myNeighborIndex = null;
+      fem.myInternalForces = null;
       fem.myNodalConstraints = new Vector3d[MAX_NODAL_INCOMP_NODES];
       for (int i = 0; i < MAX_NODAL_INCOMP_NODES; i++) {
          fem.myNodalConstraints[i] = new Vector3d();
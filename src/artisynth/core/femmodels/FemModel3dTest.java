@@ -17,6 +17,7 @@ import maspack.spatialmotion.*;
 import artisynth.core.mechmodels.*;
 import artisynth.core.modelbase.*;
 import artisynth.core.materials.*;
+import artisynth.core.femmodels.FemModel.IncompMethod;
 
 public class FemModel3dTest extends UnitTest {
 
@@ -605,11 +606,235 @@ public class FemModel3dTest extends UnitTest {
       checkNumbering (fem, /*zeroBased=*/true);
    }
 
+   /**
+    * Creates a tet model with a nonlinear material and then randomly
+    * perturbs the node positions.
+    */
+   private FemModel3d createPerturbedTetModel (
+      IncompMethod softIncomp, long seed) {
+      FemModel3d fem = FemFactory.createTetGrid (
+         null, 1.0, 0.5, 0.5, 6, 3, 3);
+      fem.setMaterial (new MooneyRivlinMaterial (1000, 0, 0, 0, 0, 100000));
+      fem.setSoftIncompMethod (softIncomp);
+      Random rand = new Random (seed);
+      for (FemNode3d n : fem.getNodes()) {
+         Vector3d del = new Vector3d (
+            rand.nextDouble(), rand.nextDouble(), rand.nextDouble());
+         n.getPosition().scaledAdd (0.02, del);
+      }
+      fem.invalidateStressAndStiffness();
+      return fem;
+   }
+
+   private void checkStressAndStiffness (
+      FemModel3d fem0, FemModel3d fem1, double eps) {
+      fem0.updateStressAndStiffness();
+      fem1.updateStressAndStiffness();
+      for (int i=0; i<fem0.numNodes(); i++) {
+         FemNode3d n0 = fem0.getNode(i);
+         FemNode3d n1 = fem1.getNode(i);
+         checkNormedEquals (
+            "internal force at node "+i, 
+            n1.getInternalForce(), n0.getInternalForce(), eps);
+         ArrayList<FemNodeNeighbor> nbrs0 = fem0.getNodeNeighbors(n0);
+         ArrayList<FemNodeNeighbor> nbrs1 = fem1.getNodeNeighbors(n1);
+         checkEquals ("num neighbors at node "+i, nbrs1.size(), nbrs0.size());
+         for (int j=0; j<nbrs0.size(); j++) {
+            checkNormedEquals (
+               "stiffness block at node "+i+", neighbor "+j,
+               nbrs1.get(j).getK00(), nbrs0.get(j).getK00(), eps);
+         }
+      }
+   }
+
+   void testParallelStressAndStiffness() {
+      for (IncompMethod method : new IncompMethod[] {
+            IncompMethod.OFF, IncompMethod.ELEMENT, IncompMethod.NODAL }) {
+         FemModel3d fem0 = createPerturbedTetModel (method, 0x1234);
+         FemModel3d fem1 = createPerturbedTetModel (method, 0x1234);
+         fem1.setNumStiffnessThreads (4);
+
+         // serial ordering should give results identical to serial
+         fem1.setSerialStiffnessOrder (true);
+         checkStressAndStiffness (fem0, fem1, 0);
+         int nserialColors = fem1.numElementColors();
+         // greedy coloring should give results equal to within round-off
+         fem1.setSerialStiffnessOrder (false);
+         fem0.invalidateStressAndStiffness();
+         fem1.invalidateStressAndStiffness();
+         checkStressAndStiffness (fem0, fem1, 1e-12);
+         check ("greedy coloring uses no more colors than serial ordering",
+                fem1.numElementColors() <= nserialColors);
+      }
+   }
+
+   private MechModel createNeighborIndexModel (
+      IncompMethod method, boolean consistentMass) {
+      MechModel mech = new MechModel ("mech");
+      FemModel3d fem = createPerturbedTetModel (method, 0x1234);
+      fem.setMassDamping (2.0);
+      fem.setStiffnessDamping (0.1);
+      fem.setUseConsistentMass (consistentMass);
+      for (FemNode3d n : fem.getNodes()) {
+         if (n.getRestPosition().x < -0.49) {
+            n.setDynamic (false);
+         }
+      }
+      mech.addModel (fem);
+      return mech;
+   }
+
+   private void checkPackedStiffness (FemNeighborIndex index) {
+      List<FemNodeNeighbor> nbrs = index.getNeighbors();
+      for (int k=0; k<nbrs.size(); k++) {
+         FemNodeNeighbor nbr = nbrs.get(k);
+         if (nbr.myK00Vals != index.myK00Vals || nbr.myK00Off != 9*k) {
+            throw new TestException (
+               "neighbor "+k+" does not use the packed stiffness");
+         }
+         if (index.myKXVals != null &&
+             (nbr.myKXVals != index.myKXVals || nbr.myKXOff != 9*k)) {
+            throw new TestException (
+               "neighbor "+k+" does not use the packed extra stiffness");
+         }
+      }
+      checkEquals (
+         "packed extra stiffness", index.myKXVals != null,
+         FemModel3d.noIncompressStiffnessDamping);
+   }
+
+   void testNeighborIndex() {
+      boolean noIncompDamping = FemModel3d.noIncompressStiffnessDamping;
+      try {
+         FemModel3d.noIncompressStiffnessDamping = false;
+         testNeighborIndex (IncompMethod.OFF);
+         testNeighborIndex (IncompMethod.NODAL);
+         FemModel3d.noIncompressStiffnessDamping = true;
+         testNeighborIndex (IncompMethod.NODAL);
+      }
+      finally {
+         FemModel3d.noIncompressStiffnessDamping = noIncompDamping;
+      }
+   }
+
+   void testNeighborIndex (IncompMethod method) {
+      for (boolean consistentMass : new boolean[] { false, true }) {
+         MechModel mech0 = createNeighborIndexModel (method, consistentMass);
+         MechModel mech1 = createNeighborIndexModel (method, consistentMass);
+         FemModel3d fem0 = (FemModel3d)mech0.models().get(0);
+         FemModel3d fem1 = (FemModel3d)mech1.models().get(0);
+         SparseNumberedBlockMatrix S0 = new SparseNumberedBlockMatrix();
+         SparseNumberedBlockMatrix S1 = new SparseNumberedBlockMatrix();
+         mech0.buildSolveMatrix (S0);
+         mech1.buildSolveMatrix (S1);
+         // fem0 uses the neighbor lists directly
+         fem0.myNeighborIndex = null;
+         FemNeighborIndex index = fem1.myNeighborIndex;
+         if (index == null || index.getSolveMatrix() != S1) {
+            throw new TestException (
+               "neighbor index not built by addSolveBlocks()");
+         }
+         if (!index.solveIndicesMatch()) {
+            throw new TestException (
+               "neighbor index solve indices do not match");
+         }
+         int nrows = 0;
+         int nentries = 0;
+         for (FemNode3d n : fem1.getNodes()) {
+            if (n.getLocalSolveIndex() != -1) {
+               nrows++;
+               nentries += fem1.getNodeNeighbors(n).size();
+               nentries += fem1.getIndirectNeighbors(n).size();
+            }
+         }
+         checkEquals ("num index rows", index.numRows(), nrows);
+         checkEquals ("num index entries", index.numEntries(), nentries);
+
+         mech0.addPosJacobian (S0, null, 0.01);
+         mech1.addPosJacobian (S1, null, 0.01);
+         mech0.addVelJacobian (S0, null, -0.1);
+         mech1.addVelJacobian (S1, null, -0.1);
+         checkEquals (
+            "solve matrix, "+method+" consistentMass="+consistentMass,
+            new MatrixNd (S1), new MatrixNd (S0));
+
+         // recompute stiffness, using the index for zeroing and
+         // transposing
+         fem0.invalidateStressAndStiffness();
+         fem1.invalidateStressAndStiffness();
+         checkStressAndStiffness (fem0, fem1, 0);
+         if (fem1.myNeighborIndex != index) {
+            throw new TestException (
+               "neighbor index not preserved by stiffness update");
+         }
+         checkPackedStiffness (index);
+         S0.setZero();
+         S1.setZero();
+         mech0.addPosJacobian (S0, null, 0.01);
+         mech1.addPosJacobian (S1, null, 0.01);
+         checkEquals (
+            "updated solve matrix, "+method+" consistentMass="+consistentMass,
+            new MatrixNd (S1), new MatrixNd (S0));
+      }
+   }
+
+   private void checkPackedInternalForces (FemModel3d fem) {
+      double[] forces = fem.myInternalForces;
+      if (forces == null) {
+         throw new TestException ("packed internal forces not created");
+      }
+      checkEquals ("packed force size", forces.length, 3*fem.numNodes());
+      for (int i=0; i<fem.numNodes(); i++) {
+         FemNode3d n = fem.getNode(i);
+         if (n.myInternalForces != forces || n.myInternalForceOff != 3*i) {
+            throw new TestException (
+               "node "+i+" does not use the packed internal forces");
+         }
+         checkEquals (
+            "packed internal force at node "+i, n.getInternalForce(),
+            new Vector3d (forces[3*i], forces[3*i+1], forces[3*i+2]));
+      }
+   }
+
+   void testPackedInternalForces() {
+      FemModel3d fem = createPerturbedTetModel (IncompMethod.OFF, 0x1234);
+      fem.updateStressAndStiffness();
+      checkPackedInternalForces (fem);
+      FemNode3d node = fem.getNode (fem.numNodes()-1);
+      Vector3d f = node.getInternalForce();
+      check ("internal force is zero", f.norm() != 0);
+
+      // adding a node rebuilds the packed forces, keeping the existing ones
+      FemNode3d extra = new FemNode3d (2, 0, 0);
+      fem.addNode (extra);
+      check ("packed forces not invalidated", fem.myInternalForces == null);
+      fem.updateStressAndStiffness();
+      checkPackedInternalForces (fem);
+      checkEquals ("internal force after rebuild", node.getInternalForce(), f);
+      checkEquals (
+         "internal force of free node", extra.getInternalForce(),
+         Vector3d.ZERO);
+
+      // a removed node keeps its force in storage of its own
+      fem.removeNode (extra);
+      extra.myInternalForces[extra.myInternalForceOff] = 1.0;
+      fem.updateStressAndStiffness();
+      checkPackedInternalForces (fem);
+      check ("removed node shares packed forces",
+             extra.myInternalForces.length == 3);
+      checkEquals (
+         "internal force of removed node", extra.getInternalForce(),
+         new Vector3d (1, 0, 0));
+   }
+
    public void test() {
       //testFrameRelativeMass();
       testFindNearestElement();
       testSetNumbering();
       testFemCopy();
+      testParallelStressAndStiffness();
+      testNeighborIndex();
+      testPackedInternalForces();
    }
 
    public static void main (String[] args) {
@@ -0,0 +1,419 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.femmodels;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import maspack.matrix.Matrix3x3Block;
+import maspack.matrix.SparseNumberedBlockMatrix;
+
+/**
+ * Block compressed-row index and stiffness store for the node neighbors of
+ * an FEM model, used to speed up the per-step passes that zero the stiffness
+ * blocks, fill in transposed blocks for symmetric solve matrices, and add the
+ * blocks into the solve matrix.
+ *
+ * <p>Rows correspond to the nodes with a valid local solve index, ordered by
+ * that index. The entries for each row are the node's direct neighbors,
+ * followed by its indirect neighbors (used for soft nodal
+ * incompressibility), and for each entry the index records the
+ * corresponding solve matrix block and, where applicable, the entry whose
+ * transpose it contains. This removes the need to traverse the neighbor
+ * lists and search for transposed neighbors on each step.
+ *
+ * <p>The K00 stiffness blocks of all the indexed neighbors are packed into
+ * a single array, nine values per neighbor in entry order, and each neighbor
+ * accumulates its block directly into this array at a precomputed offset.
+ * The blocks can therefore be zeroed with a single fill, and are added to
+ * the solve matrix by traversing the array sequentially. The extra KX blocks
+ * used when {@link FemModel3d#noIncompressStiffnessDamping} is set are
+ * packed into a second array with the same layout. Director blocks of shell
+ * nodes are not packed and remain in their neighbors.
+ *
+ * <p>The index is built for a particular solve matrix and a fixed neighbor
+ * structure and set of solve indices, and must be rebuilt if any of these
+ * change.
+ */
+public class FemNeighborIndex {
+
+   // row nodes, ordered by local solve index
+   protected FemNode3d[] myRowNodes;
+   // start of each row's entries; myRowStarts[numRows()] = number of entries
+   protected int[] myRowStarts;
+   // start of each row's indirect neighbor entries
+   protected int[] myIndirectStarts;
+   // neighbor for each entry
+   protected FemNodeNeighbor[] myNbrs;
+   // solve matrix block for each entry, or null if the neighbor has no
+   // local solve index
+   protected Matrix3x3Block[] myBlks;
+   // entries (dst, src) such that dst is set to the transpose of src
+   protected int[] myTransDst;
+   protected int[] myTransSrc;
+   // neighbors of nodes without a local solve index, which still need to
+   // be zeroed
+   protected FemNodeNeighbor[] myOtherNbrs;
+   // all indexed nodes, and their local solve indices when the index was
+   // built
+   protected FemNode3d[] myNodes;
+   protected int[] mySolveIdxs;
+
+   // packed K00 blocks of myNbrs followed by those of myOtherNbrs
+   protected double[] myK00Vals;
+   // packed KX blocks with the same layout, or null if not used
+   protected double[] myKXVals;
+   // neighbors with director blocks, which must be zeroed separately
+   protected FemNodeNeighbor[] myDirectorNbrs;
+
+   protected SparseNumberedBlockMatrix myS;
+
+   /**
+    * Builds an index for a set of nodes. The solve blocks for the node
+    * neighbors must already have been added to {@code S}, as done by {@link
+    * FemModel3d#addSolveBlocks}.
+    *
+    * @param nodes nodes whose neighbors should be indexed
+    * @param S solve matrix containing the neighbor blocks
+    */
+   public FemNeighborIndex (
+      Collection<? extends FemNode3d> nodes, SparseNumberedBlockMatrix S) {
+
+      myS = S;
+      myNodes = nodes.toArray (new FemNode3d[0]);
+      mySolveIdxs = new int[myNodes.length];
+      for (int i=0; i<myNodes.length; i++) {
+         mySolveIdxs[i] = myNodes[i].getLocalSolveIndex();
+      }
+      ArrayList<FemNode3d> rows = new ArrayList<>();
+      ArrayList<FemNodeNeighbor> others = new ArrayList<>();
+      int maxIdx = -1;
+      for (FemNode3d n : myNodes) {
+         int bi = n.getLocalSolveIndex();
+         if (bi != -1) {
+            rows.add (n);
+            maxIdx = Math.max (maxIdx, bi);
+         }
+         else {
+            others.addAll (n.getNodeNeighbors());
+            if (n.getIndirectNeighbors() != null) {
+               others.addAll (n.getIndirectNeighbors());
+            }
+         }
+      }
+      // sort rows by solve index
+      FemNode3d[] byIdx = new FemNode3d[maxIdx+1];
+      for (FemNode3d n : rows) {
+         byIdx[n.getLocalSolveIndex()] = n;
+      }
+      int nrows = 0;
+      for (FemNode3d n : byIdx) {
+         if (n != null) {
+            rows.set (nrows++, n);
+         }
+      }
+      myRowNodes = rows.toArray (new FemNode3d[0]);
+      myOtherNbrs = others.toArray (new FemNodeNeighbor[0]);
+
+      myRowStarts = new int[nrows+1];
+      myIndirectStarts = new int[nrows];
+      int nentries = 0;
+      for (FemNode3d n : myRowNodes) {
+         nentries += n.getNodeNeighbors().size();
+         if (n.getIndirectNeighbors() != null) {
+            nentries += n.getIndirectNeighbors().size();
+         }
+      }
+      myNbrs = new FemNodeNeighbor[nentries];
+      myBlks = new Matrix3x3Block[nentries];
+      int k = 0;
+      for (int i=0; i<nrows; i++) {
+         FemNode3d n = myRowNodes[i];
+         myRowStarts[i] = k;
+         for (FemNodeNeighbor nbr : n.getNodeNeighbors()) {
+            setEntry (k++, n, nbr, S);
+         }
+         myIndirectStarts[i] = k;
+         if (n.getIndirectNeighbors() != null) {
+            for (FemNodeNeighbor nbr : n.getIndirectNeighbors()) {
+               setEntry (k++, n, nbr, S);
+            }
+         }
+      }
+      myRowStarts[nrows] = k;
+      buildTransposeMap();
+      packStiffness();
+   }
+
+   /**
+    * Returns the neighbor whose stiffness blocks are stored at position
+    * {@code k} of the packed arrays.
+    */
+   private FemNodeNeighbor getStoredNeighbor (int k) {
+      if (k < myNbrs.length) {
+         return myNbrs[k];
+      }
+      else {
+         return myOtherNbrs[k-myNbrs.length];
+      }
+   }
+
+   private void packStiffness() {
+      int nstored = myNbrs.length + myOtherNbrs.length;
+      myK00Vals = new double[9*nstored];
+      ArrayList<FemNodeNeighbor> dirNbrs = new ArrayList<>();
+      boolean packKX = FemModel3d.noIncompressStiffnessDamping;
+      for (int k=0; k<nstored; k++) {
+         FemNodeNeighbor nbr = getStoredNeighbor (k);
+         nbr.setStiffnessStorage (myK00Vals, 9*k);
+         if (nbr.hasDirectorStorage()) {
+            dirNbrs.add (nbr);
+         }
+         if (nbr.myKXVals != null) {
+            packKX = true;
+         }
+      }
+      myDirectorNbrs = dirNbrs.toArray (new FemNodeNeighbor[0]);
+      if (packKX) {
+         packExtraStiffness();
+      }
+   }
+
+   private void packExtraStiffness() {
+      myKXVals = new double[myK00Vals.length];
+      for (int k=0; k<myK00Vals.length/9; k++) {
+         getStoredNeighbor(k).setExtraStiffnessStorage (myKXVals, 9*k);
+      }
+   }
+
+   private void setEntry (
+      int k, FemNode3d node, FemNodeNeighbor nbr,
+      SparseNumberedBlockMatrix S) {
+      myNbrs[k] = nbr;
+      int bj = nbr.myNode.getLocalSolveIndex();
+      if (bj != -1) {
+         myBlks[k] = (Matrix3x3Block)S.getBlock (node.getLocalSolveIndex(), bj);
+      }
+   }
+
+   /**
+    * Queries whether a neighbor has director blocks, in which case its
+    * Jacobian terms are added by the neighbor itself.
+    */
+   private boolean hasDirector (FemNodeNeighbor nbr) {
+      return nbr.myBlkNum01 != -1 || nbr.hasDirectorStorage();
+   }
+
+   /**
+    * Finds the location of the row for a given solve index, or -1.
+    */
+   private int findRow (int bi) {
+      int lo = 0;
+      int hi = myRowNodes.length-1;
+      while (lo <= hi) {
+         int mid = (lo+hi) >>> 1;
+         int b = myRowNodes[mid].getLocalSolveIndex();
+         if (b < bi) {
+            lo = mid+1;
+         }
+         else if (b > bi) {
+            hi = mid-1;
+         }
+         else {
+            return mid;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Finds the entry within a range of a row whose neighbor has a given
+    * solve index, or -1.
+    */
+   private int findEntry (int start, int end, int bj) {
+      for (int k=start; k<end; k++) {
+         if (myNbrs[k].myNode.getLocalSolveIndex() == bj) {
+            return k;
+         }
+      }
+      return -1;
+   }
+
+   private void buildTransposeMap() {
+      // matches the transposed neighbors found by
+      // getNodeNeighborBySolveIndex() and getIndirectNeighborBySolveIndex()
+      int[] dst = new int[myNbrs.length];
+      int[] src = new int[myNbrs.length];
+      int num = 0;
+      for (int i=0; i<myRowNodes.length; i++) {
+         int bi = myRowNodes[i].getLocalSolveIndex();
+         for (int k=myRowStarts[i]; k<myRowStarts[i+1]; k++) {
+            int bj = myNbrs[k].myNode.getLocalSolveIndex();
+            if (bj > bi) {
+               int j = findRow (bj);
+               int kt;
+               if (k < myIndirectStarts[i]) {
+                  kt = findEntry (myRowStarts[j], myIndirectStarts[j], bi);
+               }
+               else {
+                  kt = findEntry (myIndirectStarts[j], myRowStarts[j+1], bi);
+               }
+               if (kt == -1) {
+                  throw new IllegalStateException (
+                     "no transposed neighbor for solve indices "+bi+", "+bj);
+               }
+               dst[num] = kt;
+               src[num] = k;
+               num++;
+            }
+         }
+      }
+      myTransDst = new int[num];
+      myTransSrc = new int[num];
+      System.arraycopy (dst, 0, myTransDst, 0, num);
+      System.arraycopy (src, 0, myTransSrc, 0, num);
+   }
+
+   /**
+    * Returns the solve matrix for which this index was built.
+    *
+    * @return solve matrix
+    */
+   public SparseNumberedBlockMatrix getSolveMatrix() {
+      return myS;
+   }
+
+   /**
+    * Queries whether the local solve indices of the indexed nodes are the
+    * same as when this index was built.
+    *
+    * @return {@code true} if the solve indices are unchanged
+    */
+   public boolean solveIndicesMatch() {
+      for (int i=0; i<myNodes.length; i++) {
+         if (myNodes[i].getLocalSolveIndex() != mySolveIdxs[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Returns the number of rows in this index.
+    *
+    * @return number of rows
+    */
+   public int numRows() {
+      return myRowNodes.length;
+   }
+
+   /**
+    * Returns the number of neighbor entries in this index.
+    *
+    * @return number of entries
+    */
+   public int numEntries() {
+      return myNbrs.length;
+   }
+
+   /**
+    * Returns the neighbors of each row, in row order, with the direct
+    * neighbors of each row preceding its indirect neighbors.
+    *
+    * @return list of indexed neighbors
+    */
+   public List<FemNodeNeighbor> getNeighbors() {
+      ArrayList<FemNodeNeighbor> list = new ArrayList<>(myNbrs.length);
+      for (FemNodeNeighbor nbr : myNbrs) {
+         list.add (nbr);
+      }
+      return list;
+   }
+
+   /**
+    * Zeros the stiffness blocks of all the neighbors of the model's nodes.
+    */
+   public void zeroStiffness() {
+      if (myKXVals == null && FemModel3d.noIncompressStiffnessDamping) {
+         // KX blocks are about to be used
+         packExtraStiffness();
+      }
+      Arrays.fill (myK00Vals, 0);
+      if (myKXVals != null) {
+         Arrays.fill (myKXVals, 0);
+      }
+      for (FemNodeNeighbor nbr : myDirectorNbrs) {
+         nbr.zeroDirectorStiffness();
+      }
+   }
+
+   /**
+    * For each neighbor whose solve index is greater than that of its row
+    * node, sets the stiffness of the transposed neighbor to the transpose of
+    * its stiffness. This is used when the solve matrix is symmetric and only
+    * the upper triangular blocks are computed.
+    */
+   public void setTransposedStiffness() {
+      for (int l=0; l<myTransDst.length; l++) {
+         myNbrs[myTransDst[l]].setTransposedStiffness (myNbrs[myTransSrc[l]]);
+      }
+   }
+
+   /**
+    * Adds the stiffness blocks, scaled by {@code s}, to the solve matrix. This
+    * is equivalent to calling {@link FemNodeNeighbor#addPosJacobian} for
+    * each neighbor.
+    *
+    * @param s scale factor
+    */
+   public void addPosJacobian (double s) {
+      for (int i=0; i<myRowNodes.length; i++) {
+         FemNode3d node = myRowNodes[i];
+         for (int k=myRowStarts[i]; k<myRowStarts[i+1]; k++) {
+            FemNodeNeighbor nbr = myNbrs[k];
+            Matrix3x3Block blk = myBlks[k];
+            if (hasDirector (nbr)) {
+               nbr.addPosJacobian (myS, node, s);
+            }
+            else if (blk != null) {
+               FemNodeNeighbor.scaledAddBlock (blk, s, myK00Vals, 9*k);
+               if (myKXVals != null) {
+                  FemNodeNeighbor.scaledAddBlock (blk, s, myKXVals, 9*k);
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Adds the stiffness and mass damping blocks to the solve matrix. This is
+    * equivalent to calling {@link FemNodeNeighbor#addVelJacobian} for each
+    * neighbor.
+    *
+    * @param sm mass damping scale factor
+    * @param sk stiffness damping scale factor
+    * @param useConsistentMass if {@code true}, use the consistent mass
+    * terms for the direct neighbors
+    */
+   public void addVelJacobian (double sm, double sk, boolean useConsistentMass) {
+      for (int i=0; i<myRowNodes.length; i++) {
+         FemNode3d node = myRowNodes[i];
+         for (int k=myRowStarts[i]; k<myRowStarts[i+1]; k++) {
+            FemNodeNeighbor nbr = myNbrs[k];
+            boolean consistent = (useConsistentMass && k < myIndirectStarts[i]);
+            if (hasDirector (nbr)) {
+               nbr.addVelJacobian (myS, node, sm, sk, consistent);
+            }
+            else if (myBlks[k] != null) {
+               nbr.addVelJacobian (myBlks[k], node, sm, sk, consistent);
+            }
+         }
+      }
+   }
+}
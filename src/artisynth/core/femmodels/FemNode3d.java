@@ -104,7 +104,11 @@ public class FemNode3d extends FemNode implements Boundable {
    };
 
    protected Point3d myRest;
-   protected Vector3d myInternalForce;
+   // the internal force is stored in three consecutive entries of
+   // myInternalForces, starting at myInternalForceOff. When the node belongs
+   // to a FemModel3d, this array is shared with the model's other nodes.
+   protected double[] myInternalForces;
+   protected int myInternalForceOff;
 
    private LinkedList<FemElement3dBase> myElementDeps;
    protected int myShellElemCnt;
@@ -172,7 +176,7 @@ public class FemNode3d extends FemNode implements Boundable {
    public FemNode3d() {
       super();
       myRest = new Point3d();
-      myInternalForce = new Vector3d();
+      myInternalForces = new double[3];
       myElementDeps = new LinkedList<FemElement3dBase>();
       myNodeNeighbors = new ArrayList<FemNodeNeighbor>();
    }
@@ -613,8 +617,33 @@ public class FemNode3d extends FemNode implements Boundable {
       }
    }
    
+   /**
+    * Returns the internal force acting on this node, as most recently
+    * computed by its FEM model. The force is returned in a new vector,
+    * so modifying it will not affect the node.
+    *
+    * @return internal force on this node
+    */
    public Vector3d getInternalForce() {
-      return myInternalForce;
+      double[] f = myInternalForces;
+      int off = myInternalForceOff;
+      return new Vector3d (f[off], f[off+1], f[off+2]);
+   }
+
+   /**
+    * Sets the array and offset used to store this node's internal force,
+    * copying the current force into the new location. Used by {@link
+    * FemModel3d} to pack the internal forces of its nodes into a single
+    * array.
+    *
+    * @param forces array in which to store the force
+    * @param off offset of the force within {@code forces}
+    */
+   void setInternalForceStorage (double[] forces, int off) {
+      System.arraycopy (
+         myInternalForces, myInternalForceOff, forces, off, 3);
+      myInternalForces = forces;
+      myInternalForceOff = off;
    }
 
    /* --- Methods pertaining to node neighbors --- */
@@ -859,7 +888,9 @@ public class FemNode3d extends FemNode implements Boundable {
    public void scaleDistance (double s) {
       super.scaleDistance (s);
       myRest.scale (s);
-      myInternalForce.scale (s);
+      for (int i=0; i<3; i++) {
+         myInternalForces[myInternalForceOff+i] *= s;
+      }
    }
    
    public void addElementDependency (FemElement3dBase e) {
@@ -1038,6 +1069,8 @@ public class FemNode3d extends FemNode implements Boundable {
          myNodeNeighbors.clear();
          clearIndirectNeighbors();
          setFrameNode (null);
+         // stop sharing the force storage of the former model
+         setInternalForceStorage (new double[3], 0);
       }
    }
 
@@ -1097,7 +1130,8 @@ public class FemNode3d extends FemNode implements Boundable {
       }
 
       node.myRest = new Point3d (myRest);
-      node.myInternalForce = new Vector3d();
+      node.myInternalForces = new double[3];
+      node.myInternalForceOff = 0;
       node.myElementDeps = new LinkedList<FemElement3dBase>();
       node.myShellElemCnt = 0;
       node.myNodeNeighbors = new ArrayList<FemNodeNeighbor>();
@@ -6,19 +6,28 @@
  */
 package artisynth.core.femmodels;
 
+import java.util.Arrays;
+
 import maspack.matrix.*;
 
 public class FemNodeNeighbor {
    protected FemNode3d myNode;
-   protected Matrix3d myK00;
+
+   // primary stiffness block K00, stored in row-major order as nine values
+   // starting at myK00Off. The array is shared with the model's other
+   // neighbors when they are packed by a FemNeighborIndex.
+   protected double[] myK00Vals;
+   protected int myK00Off;
 
    // Extra K matrix components for directors in shell nodes
    protected Matrix3d myK01; 
    protected Matrix3d myK10;
    protected Matrix3d myK11;
 
-   // Extra K matrix components for which we don't want to apply stiffness damping
-   protected Matrix3d myKX; 
+   // Extra K matrix components for which we don't want to apply stiffness
+   // damping, stored like K00. null if not used.
+   protected double[] myKXVals;
+   protected int myKXOff;
 
    protected double myMass00; // mass term for consistent mass matrix
    
@@ -34,16 +43,51 @@ public class FemNodeNeighbor {
    // Matrix3x1Block myDivBlk1;
 
    public void zeroStiffness() {
-      myK00.setZero();
-      if (myKX != null) {
-         myKX.setZero();
+      Arrays.fill (myK00Vals, myK00Off, myK00Off+9, 0);
+      if (myKXVals != null) {
+         Arrays.fill (myKXVals, myKXOff, myKXOff+9, 0);
       }
+      zeroDirectorStiffness();
+   }
+
+   void zeroDirectorStiffness() {
       if (myK01 != null) {
          myK01.setZero();
          myK10.setZero();
          myK11.setZero();
       }
    }
+
+   /**
+    * Sets the array in which the K00 stiffness block of this neighbor is
+    * stored, along with the offset of the block within it. The current
+    * values of the block are copied into the new storage.
+    */
+   void setStiffnessStorage (double[] vals, int off) {
+      System.arraycopy (myK00Vals, myK00Off, vals, off, 9);
+      myK00Vals = vals;
+      myK00Off = off;
+   }
+
+   /**
+    * Sets the array in which the extra KX stiffness block of this neighbor
+    * is stored, along with the offset of the block within it. The current
+    * values of the block, if any, are copied into the new storage.
+    */
+   void setExtraStiffnessStorage (double[] vals, int off) {
+      if (myKXVals != null) {
+         System.arraycopy (myKXVals, myKXOff, vals, off, 9);
+      }
+      myKXVals = vals;
+      myKXOff = off;
+   }
+
+   private void allocateExtraStiffness() {
+      if (myKXVals == null) {
+         myKXVals = new double[9];
+         myKXOff = 0;
+      }
+   }
    
    public boolean hasDirectorStorage() {
       return myK01 != null;
@@ -65,8 +109,15 @@ public class FemNodeNeighbor {
       }
    }
    
+   /**
+    * Returns a copy of the primary stiffness block of this neighbor.
+    *
+    * @return K00 stiffness block
+    */
    public Matrix3d getK00()  {
-      return myK00;
+      Matrix3d K = new Matrix3d();
+      getBlock (K, myK00Vals, myK00Off);
+      return K;
    }
    
    public Matrix3d getK01()  {
@@ -94,12 +145,10 @@ public class FemNodeNeighbor {
     * the stiffness components of another node neighbour. 
     */
    public void setTransposedStiffness (FemNodeNeighbor nbr) {
-      myK00.transpose (nbr.myK00);
-      if (nbr.myKX != null) {
-         if (myKX == null) {
-            myKX = new Matrix3d();
-         }
-         myKX.transpose (nbr.myKX);
+      transposeBlock (myK00Vals, myK00Off, nbr.myK00Vals, nbr.myK00Off);
+      if (nbr.myKXVals != null) {
+         allocateExtraStiffness();
+         transposeBlock (myKXVals, myKXOff, nbr.myKXVals, nbr.myKXOff);
       }
       if (nbr.myK01 != null) {
          myK01.transpose (nbr.myK10);
@@ -123,7 +172,80 @@ public class FemNodeNeighbor {
 
    public FemNodeNeighbor (FemNode3d node) {
       myNode = node;
-      myK00 = new Matrix3d();
+      myK00Vals = new double[9];
+      myK00Off = 0;
+   }
+
+   /**
+    * Sets {@code K} to the 3 x 3 block stored in row-major order at {@code
+    * off} within {@code vals}.
+    */
+   static void getBlock (Matrix3d K, double[] vals, int off) {
+      K.m00 = vals[off  ]; K.m01 = vals[off+1]; K.m02 = vals[off+2];
+      K.m10 = vals[off+3]; K.m11 = vals[off+4]; K.m12 = vals[off+5];
+      K.m20 = vals[off+6]; K.m21 = vals[off+7]; K.m22 = vals[off+8];
+   }
+
+   /**
+    * Sets the 3 x 3 block stored at {@code off} within {@code vals} to
+    * {@code K}.
+    */
+   static void setBlock (double[] vals, int off, Matrix3d K) {
+      vals[off  ] = K.m00; vals[off+1] = K.m01; vals[off+2] = K.m02;
+      vals[off+3] = K.m10; vals[off+4] = K.m11; vals[off+5] = K.m12;
+      vals[off+6] = K.m20; vals[off+7] = K.m21; vals[off+8] = K.m22;
+   }
+
+   /**
+    * Adds {@code K} to the 3 x 3 block stored at {@code off} within {@code
+    * vals}.
+    */
+   static void addBlock (double[] vals, int off, Matrix3d K) {
+      vals[off  ] += K.m00; vals[off+1] += K.m01; vals[off+2] += K.m02;
+      vals[off+3] += K.m10; vals[off+4] += K.m11; vals[off+5] += K.m12;
+      vals[off+6] += K.m20; vals[off+7] += K.m21; vals[off+8] += K.m22;
+   }
+
+   /**
+    * Adds {@code s} times the 3 x 3 block stored at {@code off} within {@code
+    * vals} to {@code blk}.
+    */
+   static void scaledAddBlock (
+      Matrix3d blk, double s, double[] vals, int off) {
+      blk.m00 = s*vals[off  ] + blk.m00;
+      blk.m01 = s*vals[off+1] + blk.m01;
+      blk.m02 = s*vals[off+2] + blk.m02;
+
+      blk.m10 = s*vals[off+3] + blk.m10;
+      blk.m11 = s*vals[off+4] + blk.m11;
+      blk.m12 = s*vals[off+5] + blk.m12;
+
+      blk.m20 = s*vals[off+6] + blk.m20;
+      blk.m21 = s*vals[off+7] + blk.m21;
+      blk.m22 = s*vals[off+8] + blk.m22;
+   }
+
+   private static void transposeBlock (
+      double[] vals, int off, double[] src, int soff) {
+      vals[off  ] = src[soff  ]; vals[off+1] = src[soff+3];
+      vals[off+2] = src[soff+6]; vals[off+3] = src[soff+1];
+      vals[off+4] = src[soff+4]; vals[off+5] = src[soff+7];
+      vals[off+6] = src[soff+2]; vals[off+7] = src[soff+5];
+      vals[off+8] = src[soff+8];
+   }
+
+   /**
+    * Adds the product of the 3 x 3 block stored at {@code off} within {@code
+    * vals} and {@code v} to {@code vr}.
+    */
+   private static void mulAddBlock (
+      Vector3d vr, double[] vals, int off, Vector3d v) {
+      double x = vals[off  ]*v.x + vals[off+1]*v.y + vals[off+2]*v.z;
+      double y = vals[off+3]*v.x + vals[off+4]*v.y + vals[off+5]*v.z;
+      double z = vals[off+6]*v.x + vals[off+7]*v.y + vals[off+8]*v.z;
+      vr.x = x + vr.x;
+      vr.y = y + vr.y;
+      vr.z = z + vr.z;
    }
    
    public void setBlockNumber (int num) {
@@ -189,6 +311,22 @@ public class FemNodeNeighbor {
       blk.m22 += d;
    }
 
+   /**
+    * Adds the stiffness and mass damping terms for the primary block of this
+    * neighbor to its solve matrix block.
+    */
+   void addVelJacobian (
+      Matrix3x3Block blk, FemNode3d node, double sm, double sk, 
+      boolean useConsistentMass) {
+      scaledAddBlock (blk, sk, myK00Vals, myK00Off);
+      if (useConsistentMass && myNode.isActiveLocal()) {
+         addMassDamping (blk, sm*myMass00);
+      }
+      else if (node == myNode && myNode.isActiveLocal()) {
+         addMassDamping (blk, sm*myNode.getMass());
+      }
+   }
+
    public void addVelJacobian (
       SparseNumberedBlockMatrix S, FemNode3d node, double sm, double sk, 
       boolean useConsistentMass) {
@@ -196,13 +334,7 @@ public class FemNodeNeighbor {
       Matrix3x3Block blk;
       if (myBlkNum != -1) {
          blk = (Matrix3x3Block)S.getBlockByNumber(myBlkNum);
-         blk.scaledAdd (sk, myK00, blk);
-         if (useConsistentMass && myNode.isActiveLocal()) {
-            addMassDamping (blk, sm*myMass00);
-         }
-         else if (node == myNode && myNode.isActiveLocal()) {
-            addMassDamping (blk, sm*myNode.getMass());
-         }
+         addVelJacobian (blk, node, sm, sk, useConsistentMass);
       }
       if (myBlkNum01 != -1) {
          blk = (Matrix3x3Block)S.getBlockByNumber(myBlkNum01);
@@ -228,9 +360,9 @@ public class FemNodeNeighbor {
       Matrix3x3Block blk;
       if (myBlkNum != -1) {
          blk = (Matrix3x3Block)S.getBlockByNumber(myBlkNum);
-         blk.scaledAdd (s, myK00, blk);
-         if (myKX != null) {
-            blk.scaledAdd (s, myKX, blk);
+         scaledAddBlock (blk, s, myK00Vals, myK00Off);
+         if (myKXVals != null) {
+            scaledAddBlock (blk, s, myKXVals, myKXOff);
          }
       }
       if (myBlkNum01 != -1) {
@@ -252,9 +384,9 @@ public class FemNodeNeighbor {
     * @deprecated 
     */
    public void addPosJacobian (Matrix3d blk, double s) {
-      blk.scaledAdd (-s, myK00, blk);
-      if (myKX != null) {
-         blk.scaledAdd (-s, myKX, blk);
+      scaledAddBlock (blk, -s, myK00Vals, myK00Off);
+      if (myKXVals != null) {
+         scaledAddBlock (blk, -s, myKXVals, myKXOff);
       }
    }
    
@@ -264,12 +396,12 @@ public class FemNodeNeighbor {
 
    public void addDampingForce (Vector3d fd) {
       // XXX check that we want to use local velocity for this
-      fd.mulAdd (myK00, myNode.getLocalVelocity(), fd);
+      mulAddBlock (fd, myK00Vals, myK00Off, myNode.getLocalVelocity());
    }
 
    public void addStiffnessDampingForce (Vector3d fd, Vector3d fb) {
       // XXX check that we want to use local velocity for this
-      fd.mulAdd (myK00, myNode.getLocalVelocity(), fd);
+      mulAddBlock (fd, myK00Vals, myK00Off, myNode.getLocalVelocity());
       if (myK01 != null) {
          if (myNode.myBackNode == null) {
             System.out.println (" myNode.hasDirector()=" + myNode.hasDirector());
@@ -288,13 +420,13 @@ public class FemNodeNeighbor {
       double kp, Vector3d intGi, Vector3d intGj) {
 
       if (FemModel3d.noIncompressStiffnessDamping) {
-         if (myKX == null) {
-            myKX = new Matrix3d();
-         }
-         FemUtilities.addDilationalStiffness (myKX, kp, intGi, intGj);
+         allocateExtraStiffness();
+         FemUtilities.addDilationalStiffness (
+            myKXVals, myKXOff, kp, intGi, intGj);
       }
       else {
-         FemUtilities.addDilationalStiffness (myK00, kp, intGi, intGj);
+         FemUtilities.addDilationalStiffness (
+            myK00Vals, myK00Off, kp, intGi, intGj);
       }
       
    }
@@ -303,13 +435,13 @@ public class FemNodeNeighbor {
       double kp, Matrix3x1 intGi, Matrix3x1 intGj) {
 
       if (FemModel3d.noIncompressStiffnessDamping) {
-         if (myKX == null) {
-            myKX = new Matrix3d();
-         }
-         FemUtilities.addDilationalStiffness (myKX, kp, intGi, intGj);
+         allocateExtraStiffness();
+         FemUtilities.addDilationalStiffness (
+            myKXVals, myKXOff, kp, intGi, intGj);
       }
       else {
-         FemUtilities.addDilationalStiffness (myK00, kp, intGi, intGj);
+         FemUtilities.addDilationalStiffness (
+            myK00Vals, myK00Off, kp, intGi, intGj);
       }
       
    }
@@ -318,13 +450,13 @@ public class FemNodeNeighbor {
       MatrixNd Rinv, MatrixBlock GT_i, MatrixBlock GT_j) {
 
       if (FemModel3d.noIncompressStiffnessDamping) {
-         if (myKX == null) {
-            myKX = new Matrix3d();
-         }
-         FemUtilities.addDilationalStiffness (myKX, Rinv, GT_i, GT_j);
+         allocateExtraStiffness();
+         FemUtilities.addDilationalStiffness (
+            myKXVals, myKXOff, Rinv, GT_i, GT_j);
       }
       else {
-         FemUtilities.addDilationalStiffness (myK00, Rinv, GT_i, GT_j);
+         FemUtilities.addDilationalStiffness (
+            myK00Vals, myK00Off, Rinv, GT_i, GT_j);
       }
       
    }
@@ -333,13 +465,13 @@ public class FemNodeNeighbor {
       double s, Vector3d intGi, Vector3d intGj) {
 
       if (FemModel3d.noIncompressStiffnessDamping) {
-         if (myKX == null) {
-            myKX = new Matrix3d();
-         }
-         FemUtilities.addIncompressibilityStiffness (myKX, s, intGi, intGj);
+         allocateExtraStiffness();
+         FemUtilities.addIncompressibilityStiffness (
+            myKXVals, myKXOff, s, intGi, intGj);
       }
       else {
-         FemUtilities.addIncompressibilityStiffness (myK00, s, intGi, intGj);
+         FemUtilities.addIncompressibilityStiffness (
+            myK00Vals, myK00Off, s, intGi, intGj);
       }
       
    }
@@ -348,7 +480,8 @@ public class FemNodeNeighbor {
       Vector3d gi, Matrix6d D, double p,
       SymmetricMatrix3d sig, Vector3d gj, double dv) {
 
-      FemUtilities.addMaterialStiffness (myK00, gi, D, sig, gj, dv);   
+      FemUtilities.addMaterialStiffness (
+         myK00Vals, myK00Off, gi, D, sig, gj, dv);
       addPressureStiffness(gi, p, gj, dv);
    }
    
@@ -356,11 +489,13 @@ public class FemNodeNeighbor {
    // Separated pressure term so I can compute incompressibility component separately
    public void addMaterialStiffness(Vector3d gi, Matrix6d D,
       SymmetricMatrix3d sig, Vector3d gj, double dv) {
-      FemUtilities.addMaterialStiffness (myK00, gi, D, sig, gj, dv);
+      FemUtilities.addMaterialStiffness (
+         myK00Vals, myK00Off, gi, D, sig, gj, dv);
    }
    
    public void addMaterialStiffness(Vector3d gi, Matrix6d D, Vector3d gj, double dv) {
-      FemUtilities.addMaterialStiffness (myK00, gi, D, gj, dv);
+      FemUtilities.addMaterialStiffness (
+         myK00Vals, myK00Off, gi, D, gj, dv);
    }
 
    /**
@@ -368,18 +503,19 @@ public class FemNodeNeighbor {
     */
    public void addGeometricStiffness (
       Vector3d gi, SymmetricMatrix3d sig, Vector3d gj, double dv) {
-      FemUtilities.addGeometricStiffness (myK00, gi, sig, gj, dv);   
+      FemUtilities.addGeometricStiffness (
+         myK00Vals, myK00Off, gi, sig, gj, dv);
    }
    
    public void addPressureStiffness( Vector3d gi, double p,
       Vector3d gj, double dv) {
       
       if (FemModel3d.noIncompressStiffnessDamping) {
-         if (myKX == null) {
-            myKX = new Matrix3d();
-         }
-         FemUtilities.addPressureStiffness (myKX, gi, p, gj, dv);  
-         FemUtilities.addPressureStiffness (myK00, gi, -p, gj, dv);  
+         allocateExtraStiffness();
+         FemUtilities.addPressureStiffness (
+            myKXVals, myKXOff, gi, p, gj, dv);  
+         FemUtilities.addPressureStiffness (
+            myK00Vals, myK00Off, gi, -p, gj, dv);  
       }
       
    }
@@ -46,6 +46,24 @@ public class FemUtilities {
       f.z += gz*sig.m22 + gy*sig.m12 + gx*sig.m02;
    }
 
+   /** 
+    * Adds the force on a node resulting from a given stress and shape
+    * function gradient g, as for {@link
+    * #addStressForce(Vector3d,Vector3d,SymmetricMatrix3d,double)}, with
+    * the force stored in three consecutive entries of {@code f} starting at
+    * {@code off}.
+    */
+   public static void addStressForce (
+      double[] f, int off, Vector3d g, SymmetricMatrix3d sig, double dv) {
+      double gx = g.x*dv;
+      double gy = g.y*dv;
+      double gz = g.z*dv;
+
+      f[off  ] += gx*sig.m00 + gy*sig.m01 + gz*sig.m02;
+      f[off+1] += gy*sig.m11 + gx*sig.m01 + gz*sig.m12;
+      f[off+2] += gz*sig.m22 + gy*sig.m12 + gx*sig.m02;
+   }
+
    /** 
     * Adds a weighted node-to-node stiffness to the matrix Kij via the formula
     * <pre>
@@ -62,6 +80,19 @@ public class FemUtilities {
       addMaterialStiffness(K, gi, D, gj, dv);
       addGeometricStiffness(K, gi, sig, gj, dv);
    }
+
+   /** 
+    * Adds a weighted node-to-node stiffness to the block Kij, as for {@link
+    * #addMaterialStiffness(Matrix3d,Vector3d,Matrix6d,SymmetricMatrix3d,Vector3d,double)},
+    * with the block stored in row-major order as nine consecutive entries
+    * of {@code K} starting at {@code off}.
+    */
+   public static void addMaterialStiffness (
+      double[] K, int off, Vector3d gi, Matrix6d D,
+      SymmetricMatrix3d sig, Vector3d gj, double dv) {
+      addMaterialStiffness(K, off, gi, D, gj, dv);
+      addGeometricStiffness(K, off, gi, sig, gj, dv);
+   }
    
    /** 
     * Adds a weighted node-to-node stiffness to the matrix Kij via the formula
@@ -119,6 +150,59 @@ public class FemUtilities {
       K.m21 += giz*dm21 + giy*dm41 + gix*dm51;
       K.m22 += giz*dm22 + giy*dm42 + gix*dm52;
    }
+
+   /** 
+    * Adds a weighted node-to-node stiffness to the block Kij, as for {@link
+    * #addMaterialStiffness(Matrix3d,Vector3d,Matrix6d,Vector3d,double)},
+    * with the block stored in row-major order as nine consecutive entries
+    * of {@code K} starting at {@code off}.
+    */
+   public static void addMaterialStiffness (
+      double[] K, int off, Vector3d gi, Matrix6d D, Vector3d gj, double dv) {
+      double gjx = gj.x*dv;
+      double gjy = gj.y*dv;
+      double gjz = gj.z*dv;
+
+      double dm00 = D.m00*gjx + D.m03*gjy + D.m05*gjz;
+      double dm01 = D.m01*gjy + D.m03*gjx + D.m04*gjz;
+      double dm02 = D.m02*gjz + D.m04*gjy + D.m05*gjx;
+      
+      double dm10 = D.m10*gjx + D.m13*gjy + D.m15*gjz;
+      double dm11 = D.m11*gjy + D.m13*gjx + D.m14*gjz;
+      double dm12 = D.m12*gjz + D.m14*gjy + D.m15*gjx;
+      
+      double dm20 = D.m20*gjx + D.m23*gjy + D.m25*gjz;
+      double dm21 = D.m21*gjy + D.m23*gjx + D.m24*gjz;
+      double dm22 = D.m22*gjz + D.m24*gjy + D.m25*gjx;
+      
+      double dm30 = D.m30*gjx + D.m33*gjy + D.m35*gjz;
+      double dm31 = D.m31*gjy + D.m33*gjx + D.m34*gjz;
+      double dm32 = D.m32*gjz + D.m34*gjy + D.m35*gjx;
+      
+      double dm40 = D.m40*gjx + D.m43*gjy + D.m45*gjz;
+      double dm41 = D.m41*gjy + D.m43*gjx + D.m44*gjz;
+      double dm42 = D.m42*gjz + D.m44*gjy + D.m45*gjx;
+      
+      double dm50 = D.m50*gjx + D.m53*gjy + D.m55*gjz;
+      double dm51 = D.m51*gjy + D.m53*gjx + D.m54*gjz;
+      double dm52 = D.m52*gjz + D.m54*gjy + D.m55*gjx;
+
+      double gix = gi.x;
+      double giy = gi.y;
+      double giz = gi.z;
+
+      K[off  ] += gix*dm00 + giy*dm30 + giz*dm50;
+      K[off+1] += gix*dm01 + giy*dm31 + giz*dm51;
+      K[off+2] += gix*dm02 + giy*dm32 + giz*dm52;
+
+      K[off+3] += giy*dm10 + gix*dm30 + giz*dm40;
+      K[off+4] += giy*dm11 + gix*dm31 + giz*dm41;
+      K[off+5] += giy*dm12 + gix*dm32 + giz*dm42;
+
+      K[off+6] += giz*dm20 + giy*dm40 + gix*dm50;
+      K[off+7] += giz*dm21 + giy*dm41 + gix*dm51;
+      K[off+8] += giz*dm22 + giy*dm42 + gix*dm52;
+   }
    
    /**
     * Adds the geometric stiffness defined by
@@ -141,6 +225,27 @@ public class FemUtilities {
       K.m22 += Kg;
    }
 
+   /** 
+    * Adds the geometric stiffness to the block Kij, as for {@link
+    * #addGeometricStiffness(Matrix3d,Vector3d,SymmetricMatrix3d,Vector3d,double)},
+    * with the block stored in row-major order as nine consecutive entries
+    * of {@code K} starting at {@code off}.
+    */
+   public static void addGeometricStiffness(double[] K, int off, Vector3d gi, 
+      SymmetricMatrix3d sig, Vector3d gj, double dv) {
+
+      // add geometrical stiffness
+      double Kg = (
+         gi.x*(sig.m00*gj.x + sig.m01*gj.y + sig.m02*gj.z) +
+         gi.y*(sig.m10*gj.x + sig.m11*gj.y + sig.m12*gj.z) +
+         gi.z*(sig.m20*gj.x + sig.m21*gj.y + sig.m22*gj.z));
+      Kg = Kg*dv;
+
+      K[off  ] += Kg;
+      K[off+4] += Kg;
+      K[off+8] += Kg;
+   }
+
    /** 
     * Adds a weighted node-to-node stiffness to the matrix Kij via the formula
     * <pre>
@@ -236,6 +341,40 @@ public class FemUtilities {
 
    }
 
+   /** 
+    * Adds pressure stiffness to the block Kij, as for {@link
+    * #addPressureStiffness(Matrix3d,Vector3d,double,Vector3d,double)},
+    * with the block stored in row-major order as nine consecutive entries
+    * of {@code K} starting at {@code off}.
+    */
+   public static void addPressureStiffness (
+      double[] K, int off, Vector3d gi, double p,
+      Vector3d gj, double dv) {
+
+      double gjx = p*gj.x*dv;
+      double gjy = p*gj.y*dv;
+      double gjz = p*gj.z*dv;
+
+      double gix = gi.x;
+      double giy = gi.y;
+      double giz = gi.z;
+
+      double diag = -gix*gjx - giy*gjy - giz*gjz;
+
+      K[off  ] += diag;
+      K[off+1] += gix*gjy - giy*gjx;
+      K[off+2] += gix*gjz - giz*gjx;
+
+      K[off+3] += giy*gjx - gix*gjy;
+      K[off+4] += diag;
+      K[off+5] += giy*gjz - giz*gjy;
+
+      K[off+6] += giz*gjx - gix*gjz;
+      K[off+7] += giz*gjy - giy*gjz;
+      K[off+8] += diag;
+
+   }
+
    /** 
     * Adds dilational stiffness to the node-to-node stiffness matrix Kij.
     * This is calculated via the formula
@@ -270,6 +409,36 @@ public class FemUtilities {
       K.m22 += giz*gjz;
    }
 
+   /** 
+    * Adds dilational stiffness to the block Kij, as for {@link
+    * #addDilationalStiffness(Matrix3d,double,Vector3d,Vector3d)},
+    * with the block stored in row-major order as nine consecutive entries
+    * of {@code K} starting at {@code off}.
+    */
+   public static void addDilationalStiffness (
+      double[] K, int off, double kp, Vector3d intGi, Vector3d intGj) {
+
+      double gix = kp*intGi.x;
+      double giy = kp*intGi.y;
+      double giz = kp*intGi.z;    
+
+      double gjx = intGj.x;
+      double gjy = intGj.y;
+      double gjz = intGj.z;
+
+      K[off  ] += gix*gjx;
+      K[off+1] += gix*gjy;
+      K[off+2] += gix*gjz;
+
+      K[off+3] += giy*gjx;
+      K[off+4] += giy*gjy;
+      K[off+5] += giy*gjz;
+
+      K[off+6] += giz*gjx;
+      K[off+7] += giz*gjy;
+      K[off+8] += giz*gjz;
+   }
+
    /** 
     * Adds dilational stiffness to the node-to-node stiffness matrix Kij.
     * This is calculated via the formula
@@ -303,6 +472,36 @@ public class FemUtilities {
       K.m22 += giz*gjz;
    }
 
+   /** 
+    * Adds dilational stiffness to the block Kij, as for {@link
+    * #addDilationalStiffness(Matrix3d,double,Matrix3x1,Matrix3x1)},
+    * with the block stored in row-major order as nine consecutive entries
+    * of {@code K} starting at {@code off}.
+    */
+   public static void addDilationalStiffness (
+      double[] K, int off, double kp, Matrix3x1 GT_i, Matrix3x1 GT_j) {
+
+      double gix = kp*GT_i.m00;
+      double giy = kp*GT_i.m10;
+      double giz = kp*GT_i.m20;
+
+      double gjx = GT_j.m00;
+      double gjy = GT_j.m10;
+      double gjz = GT_j.m20;
+
+      K[off  ] += gix*gjx;
+      K[off+1] += gix*gjy;
+      K[off+2] += gix*gjz;
+
+      K[off+3] += giy*gjx;
+      K[off+4] += giy*gjy;
+      K[off+5] += giy*gjz;
+
+      K[off+6] += giz*gjx;
+      K[off+7] += giz*gjy;
+      K[off+8] += giz*gjz;
+   }
+
    /** 
     * Adds dilational stiffness to the node-to-node stiffness matrix Kij.
     * This is calculated via the formula
@@ -339,6 +538,21 @@ public class FemUtilities {
       }
    }
 
+   /** 
+    * Adds dilational stiffness to the block Kij, as for {@link
+    * #addDilationalStiffness(Matrix3d,MatrixNd,MatrixBlock,MatrixBlock)},
+    * with the block stored in row-major order as nine consecutive entries
+    * of {@code K} starting at {@code off}.
+    */
+   public static void addDilationalStiffness (
+      double[] K, int off, MatrixNd Rinv, MatrixBlock GT_i, MatrixBlock GT_j) {
+
+      Matrix3d Kij = new Matrix3d();
+      FemNodeNeighbor.getBlock (Kij, K, off);
+      addDilationalStiffness (Kij, Rinv, GT_i, GT_j);
+      FemNodeNeighbor.setBlock (K, off, Kij);
+   }
+
    /** 
     * Adds stiffness for the incompressibility constraint to the node-to-node
     * stiffness matrix Kij.  This is calculated via the formula
@@ -374,6 +588,35 @@ public class FemUtilities {
       //K.m22 += (giz*gjz - gjz*giz); don't need to compute; is zero
    }
 
+   /** 
+    * Adds stiffness for the incompressibility constraint to the block Kij,
+    * as for {@link
+    * #addIncompressibilityStiffness(Matrix3d,double,Vector3d,Vector3d)},
+    * with the block stored in row-major order as nine consecutive entries
+    * of {@code K} starting at {@code off}.
+    */
+   public static void addIncompressibilityStiffness (
+      double[] K, int off, double s, Vector3d intGi, Vector3d intGj) {
+
+      double gix = s*intGi.x;
+      double giy = s*intGi.y;
+      double giz = s*intGi.z;    
+
+      double gjx = intGj.x;
+      double gjy = intGj.y;
+      double gjz = intGj.z;    
+
+      // diagonal terms are zero
+      K[off+1] += (gix*gjy - gjx*giy);
+      K[off+2] += (gix*gjz - gjx*giz);
+
+      K[off+3] += (giy*gjx - gjy*gix);
+      K[off+5] += (giy*gjz - gjy*giz);
+
+      K[off+6] += (giz*gjx - gjz*gix);
+      K[off+7] += (giz*gjy - gjz*giy);
+   }
+
    /** 
     * Adds H^T GNx dv to a matrix block, where H is a row vector of weight
     * values, and dv is a volume differential. It is assumed that the matrix
@@ -724,6 +967,27 @@ public class FemUtilities {
       K11.m11 += sKdd;
       K11.m22 += sKdd;
    }
+
+   /**
+    * Adds the material+geometric stiffness at a given shell integration
+    * point, as for {@link
+    * #addShellMaterialStiffness(Matrix3d,Matrix3d,Matrix3d,Matrix3d,double,double,Vector3d,Vector3d,double,double,Matrix3d,SymmetricMatrix3d,Matrix6d)},
+    * with the K00 block stored in row-major order as nine consecutive
+    * entries of {@code K00} starting at {@code off}.
+    */
+   public static void addShellMaterialStiffness (
+      double[] K00, int off, Matrix3d K01, Matrix3d K10, Matrix3d K11, 
+      double iN, double jN, Vector3d idN, Vector3d jdN, double dv,
+      double t, Matrix3d invJ, SymmetricMatrix3d matStress,
+      Matrix6d matTangent) {
+
+      Matrix3d Kuu = new Matrix3d();
+      FemNodeNeighbor.getBlock (Kuu, K00, off);
+      addShellMaterialStiffness (
+         Kuu, K01, K10, K11, iN, jN, idN, jdN, dv, t, invJ,
+         matStress, matTangent);
+      FemNodeNeighbor.setBlock (K00, off, Kuu);
+   }
    
    public static void addMembraneMaterialStiffness (
       Matrix3d K00, 
@@ -767,6 +1031,26 @@ public class FemUtilities {
       K00.m11 += sKuu;
       K00.m22 += sKuu; 
    }
+
+   /**
+    * Adds the material+geometric stiffness at a given membrane integration
+    * point, as for {@link
+    * #addMembraneMaterialStiffness(Matrix3d,Vector3d,Vector3d,double,Matrix3d,SymmetricMatrix3d,Matrix6d)},
+    * with the block stored in row-major order as nine consecutive entries of
+    * {@code K00} starting at {@code off}.
+    */
+   public static void addMembraneMaterialStiffness (
+      double[] K00, int off, 
+      Vector3d idN, Vector3d jdN, double dv,
+      Matrix3d invJ, SymmetricMatrix3d matStress,
+      Matrix6d matTangent) {
+
+      Matrix3d Kuu = new Matrix3d();
+      FemNodeNeighbor.getBlock (Kuu, K00, off);
+      addMembraneMaterialStiffness (
+         Kuu, idN, jdN, dv, invJ, matStress, matTangent);
+      FemNodeNeighbor.setBlock (K00, off, Kuu);
+   }
    
    /** 
     * Adds the material+geometric forces on a node resulting from a given stress
@@ -846,6 +1130,24 @@ public class FemUtilities {
       df.z += fd.z*dv;
    }
 
+   /**
+    * Adds the material+geometric forces on a node resulting from a given
+    * stress at a given shell integration point, as for {@link
+    * #addShellStressForce(Vector3d,Vector3d,SymmetricMatrix3d,double,double,double,double,double,Matrix3d)},
+    * with the displacement force stored in three consecutive entries of
+    * {@code f} starting at {@code off}.
+    */
+   public static void addShellStressForce (
+      double[] f, int off, Vector3d df, SymmetricMatrix3d sig, double t, 
+      double dv, double N, double dNdr, double dNds, Matrix3d invJ) {
+
+      Vector3d fu = new Vector3d();
+      addShellStressForce (fu, df, sig, t, dv, N, dNdr, dNds, invJ);
+      f[off  ] += fu.x;
+      f[off+1] += fu.y;
+      f[off+2] += fu.z;
+   }
+
    public static void addMembraneStressForce (
       Vector3d f, SymmetricMatrix3d sig, double dv, 
       double dNdr, double dNds, Matrix3d invJ) {
@@ -866,4 +1168,22 @@ public class FemUtilities {
       f.y += fu.y*dv;
       f.z += fu.z*dv;
    }
+
+   /**
+    * Adds the forces on a node resulting from a given stress at a given
+    * membrane integration point, as for {@link
+    * #addMembraneStressForce(Vector3d,SymmetricMatrix3d,double,double,double,Matrix3d)},
+    * with the force stored in three consecutive entries of {@code f}
+    * starting at {@code off}.
+    */
+   public static void addMembraneStressForce (
+      double[] f, int off, SymmetricMatrix3d sig, double dv, 
+      double dNdr, double dNds, Matrix3d invJ) {
+
+      Vector3d fu = new Vector3d();
+      addMembraneStressForce (fu, sig, dv, dNdr, dNds, invJ);
+      f[off  ] += fu.x;
+      f[off+1] += fu.y;
+      f[off+2] += fu.z;
+   }
 }
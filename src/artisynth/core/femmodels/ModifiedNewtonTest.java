@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.femmodels;
+
+import artisynth.core.femmodels.FemModel.IncompMethod;
+import artisynth.core.materials.NeoHookeanMaterial;
+import artisynth.core.mechmodels.MechModel;
+import artisynth.core.mechmodels.MechSystemSolver;
+import artisynth.core.mechmodels.MechSystemSolver.Integrator;
+import artisynth.core.mechmodels.SolverProfiler;
+import maspack.matrix.VectorNd;
+import maspack.solvers.SparseSolverId;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Tests the modified-Newton solve option of MechSystemSolver, by comparing
+ * simulations of an FEM beam with and without factorization reuse.
+ */
+public class ModifiedNewtonTest extends UnitTest {
+
+   MechModel createModel (boolean modifiedNewton, IncompMethod incomp) {
+      MechModel mech = new MechModel ("mech");
+      mech.setIntegrator (Integrator.ConstrainedBackwardEuler);
+      mech.setMatrixSolver (SparseSolverId.SparseLDLT);
+      mech.setModifiedNewton (modifiedNewton);
+
+      FemModel3d fem = FemFactory.createHexGrid (null, 1.0, 0.2, 0.2, 8, 2, 2);
+      fem.setDensity (1000);
+      fem.setMaterial (new NeoHookeanMaterial (500000, 0.45));
+      fem.setIncompressible (incomp);
+      for (FemNode3d n : fem.getNodes()) {
+         if (n.getPosition().x < -0.499) {
+            n.setDynamic (false);
+         }
+      }
+      mech.addModel (fem);
+      mech.setSolverProfilingEnabled (true);
+      return mech;
+   }
+
+   void getPositions (MechModel mech, VectorNd pos) {
+      pos.setSize (mech.getActivePosStateSize());
+      mech.getActivePosState (pos);
+   }
+
+   void testBeam (IncompMethod incomp, double postol) {
+      MechModel mech0 = createModel (false, incomp);
+      MechModel mech1 = createModel (true, incomp);
+      double h = 0.01;
+      int nsteps = 40;
+      VectorNd pos0 = new VectorNd();
+      VectorNd pos1 = new VectorNd();
+      mech0.initialize (0);
+      mech1.initialize (0);
+      for (int i=0; i<nsteps; i++) {
+         double t0 = i*h;
+         double t1 = t0+h;
+         mech0.preadvance (t0, t1, /*flags=*/0);
+         mech0.advance (t0, t1, /*flags=*/0);
+         mech1.preadvance (t0, t1, /*flags=*/0);
+         mech1.advance (t0, t1, /*flags=*/0);
+         getPositions (mech0, pos0);
+         getPositions (mech1, pos1);
+         double err = pos1.distance (pos0);
+         if (err > postol*pos0.norm()) {
+            throw new TestException (
+               "Step "+i+", "+incomp+": modified Newton position error "+err);
+         }
+      }
+      MechSystemSolver solver0 = mech0.getSolver();
+      MechSystemSolver solver1 = mech1.getSolver();
+      checkEquals (
+         "reused solves without modified Newton",
+         solver0.getNumKKTReusedSolves(), 0L);
+      checkEquals (
+         "factorizations without modified Newton",
+         solver0.getNumKKTFactorizations(), (long)nsteps);
+      if (solver1.getNumKKTReusedSolves() == 0) {
+         throw new TestException (
+            "No reused solves with modified Newton, "+incomp);
+      }
+      checkEquals (
+         "total solves with modified Newton",
+         solver1.getNumKKTFactorizations()+solver1.getNumKKTReusedSolves(),
+         (long)nsteps);
+      SolverProfiler profiler = mech1.getSolverProfiler();
+      checkEquals (
+         "profiler factorizations", profiler.getNumFactorizations(),
+         solver1.getNumKKTFactorizations());
+      checkEquals (
+         "profiler reused solves", profiler.getNumReusedSolves(),
+         solver1.getNumKKTReusedSolves());
+      if (profiler.getRefactorRate() >= 1) {
+         throw new TestException ("Profiler refactor rate is 1");
+      }
+   }
+
+   public void test() {
+      testBeam (IncompMethod.OFF, 1e-6);
+      // nodal incompressibility makes the system less well conditioned, so
+      // the refinement tolerance gives larger velocity errors
+      testBeam (IncompMethod.NODAL, 1e-4);
+   }
+
+   public static void main (String[] args) {
+      ModifiedNewtonTest tester = new ModifiedNewtonTest();
+      tester.runtest();
+   }
+}
@@ -239,13 +239,40 @@ public class StiffnessWarper3d {
       }
    }
 
+   /**
+    * Adds the total stiffness contributions between nodes i and j, as for
+    * {@link #addNodeStiffness(Matrix3d,int,int)}, with the stiffness stored
+    * in row-major order as nine consecutive entries of {@code K} starting
+    * at {@code off}.
+    * 
+    * @param K local stiffness values
+    * @param off offset of the stiffness within {@code K}
+    * @param i first node index
+    * @param j second node index
+    */
+   public void addNodeStiffness (double[] K, int off, int i, int j) {
+     
+      // corotated component
+      if (corotated != null) {
+         Matrix3d Kr = new Matrix3d();
+         rotateStiffness(Kr, corotated.getInitialStiffness00(i, j));
+         FemNodeNeighbor.addBlock (K, off, Kr);
+      }
+      
+      // linear component
+      if (linear != null) {
+         FemNodeNeighbor.addBlock (
+            K, off, linear.getInitialStiffness00(i, j));
+      }
+   }
+
    public void addNodeStiffness (FemNodeNeighbor nbr, int i, int j) {
       
       // corotated component
       if (corotated != null) {
          Matrix3d Kr = new Matrix3d();
          Kr.transform (R, corotated.getInitialStiffness00(i,j));
-         nbr.myK00.add(Kr);
+         FemNodeNeighbor.addBlock (nbr.myK00Vals, nbr.myK00Off, Kr);
          if (corotated.hasShellData()) {
             Kr.transform (R, corotated.getInitialStiffness01(i,j));
             nbr.myK01.add(Kr);
@@ -258,7 +285,8 @@ public class StiffnessWarper3d {
       
       // linear component
       if (linear != null) {
-         nbr.myK00.add (linear.getInitialStiffness00(i, j));
+         FemNodeNeighbor.addBlock (
+            nbr.myK00Vals, nbr.myK00Off, linear.getInitialStiffness00(i, j));
          if (linear.hasShellData()) {
             nbr.myK01.add (linear.getInitialStiffness01(i, j));
             nbr.myK10.add (linear.getInitialStiffness10(i, j));
@@ -308,6 +336,26 @@ public class StiffnessWarper3d {
    }
 
 
+   /**
+    * Adds the total force contribution due to stiffness from all cached
+    * linear materials for node i, as for {@link
+    * #addNodeForce(Vector3d,int,FemNode3d[])}, with the force stored in
+    * three consecutive entries of {@code f} starting at {@code off}.
+    *
+    * @param f output force array
+    * @param off offset of the force within {@code f}
+    * @param i node index
+    * @param nodes element nodes
+    */
+   public void addNodeForce (
+      double[] f, int off, int i, FemNode3d[] nodes) {
+      Vector3d fi = new Vector3d (f[off], f[off+1], f[off+2]);
+      addNodeForce (fi, i, nodes);
+      f[off  ] = fi.x;
+      f[off+1] = fi.y;
+      f[off+2] = fi.z;
+   }
+
    public void addNodeForce (
       Vector3d f, Vector3d fback, int i, FemNode3d[] nodes) {
       
@@ -348,6 +396,28 @@ public class StiffnessWarper3d {
       }
    }
    
+   /**
+    * Adds the total force contribution due to stiffness from all cached
+    * linear materials for node i and its back node, as for {@link
+    * #addNodeForce(Vector3d,Vector3d,int,FemNode3d[])}, with the node force
+    * stored in three consecutive entries of {@code f} starting at {@code
+    * off}.
+    *
+    * @param f output node force array
+    * @param off offset of the node force within {@code f}
+    * @param fback output back node force
+    * @param i node index
+    * @param nodes element nodes
+    */
+   public void addNodeForce (
+      double[] f, int off, Vector3d fback, int i, FemNode3d[] nodes) {
+      Vector3d fi = new Vector3d (f[off], f[off+1], f[off+2]);
+      addNodeForce (fi, fback, i, nodes);
+      f[off  ] = fi.x;
+      f[off+1] = fi.y;
+      f[off+2] = fi.z;
+   }
+
    // required for static analysis
    /**
     * Adds initial force contribution due to cached stiffness
@@ -66,6 +66,10 @@ public class ExcitationResponse
    VectorNd ftmp = new VectorNd();
 
    VectorNd lam0 = new VectorNd(0);
+
+   // force vectors for each exciter, used when the response is solved
+   // for all exciters at once
+   VectorNd[] bfCols = new VectorNd[0];
    
    VectorNd the = new VectorNd(0);
 
@@ -177,6 +181,19 @@ public class ExcitationResponse
       
       lam0.set (myMechSysSolver.getLambda ());
 
+      // if the response is computed using the pre-factored KKT system, and
+      // multiple threads are requested, collect the force vectors for all
+      // exciters and then solve for them together
+      boolean batchSolve =
+         (myController.getNumResponseThreads() > 1 &&
+          !myController.getUseKKTFactorization() && !incremental);
+      if (batchSolve && bfCols.length != exSize) {
+         bfCols = new VectorNd[exSize];
+         for (int j=0; j<exSize; j++) {
+            bfCols[j] = new VectorNd (velSize);
+         }
+      }
+
       // where e_j is elementary unit vector
       for (int j = 0; j < exSize; j++) {
          double dex = deltaEx;
@@ -229,12 +246,18 @@ public class ExcitationResponse
                HlamCols[j].scale (1/dex);  
             }
          }
+         else if (batchSolve) {
+            bfCols[j].set (bf);
+         }
          else {
             // use pre-factored KKT system
             // Note neglecting change in jacobians due to excitation
             myMechSysSolver.KKTSolve(HuCols[j], HlamCols[j], the, bf);
          }
       }
+      if (batchSolve) {
+         myMechSysSolver.KKTSolve (HuCols, HlamCols, bfCols, exSize);
+      }
 
       // XXX rest now done in motion target term
 
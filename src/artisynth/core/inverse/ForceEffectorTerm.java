@@ -306,7 +306,6 @@ public class ForceEffectorTerm extends LeastSquaresTermBase {
       myFbar.setSize (fsize);
       myHf.setSize (fsize, numex);
       VectorNd f0 = new VectorNd(fsize);
-      VectorNd Hf_j = new VectorNd(fsize);
 
       VectorNd u0 = controller.getU0();
       int velSize = u0.size();
@@ -329,10 +328,7 @@ public class ForceEffectorTerm extends LeastSquaresTermBase {
       addPosJacobian (Jf, mech, -h);
 
       Jf.mulAdd (f0, u0, Jf.rowSize (), velSize);
-      for (int j=0; j<numex; j++) {
-         Jf.mul (Hf_j, controller.getHuCol(j), Jf.rowSize (), velSize);
-         myHf.setColumn (j, Hf_j.getBuffer());          
-      }
+      controller.mulResponse (myHf, Jf, /*useLam=*/false);
 
       myFbar.sub (myForceError, f0);
       
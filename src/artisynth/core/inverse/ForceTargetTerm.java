@@ -298,15 +298,10 @@ public class ForceTargetTerm extends LeastSquaresTermBase {
       VectorNd c0 = new VectorNd (myTargetForceSize);
       myCbar.setSize (myTargetForceSize);
       myHc.setSize (myTargetForceSize, numex);
-      VectorNd Hc_j = new VectorNd (myTargetForceSize);
       SparseBlockMatrix Jc = getForceJacobian((MechModel)controller.getMech());
 
       Jc.mul (c0, controller.getLam0());
-      
-      for (int j=0; j<numex; j++) {
-         Jc.mul (Hc_j, controller.getHlamCol(j));
-         myHc.setColumn (j, Hc_j);
-      }
+      controller.mulResponse (myHc, Jc, /*useLam=*/true);
       
       // scale cbar by h -- Benedikt
       myCbar.set (myTargetForce);
@@ -737,11 +737,7 @@ public class MotionTargetTerm extends LeastSquaresTermBase {
       
       VectorNd u0 = controller.getU0();
       Jm.mul(v0, u0, Jm.rowSize(), u0.size());
-      VectorNd Hv_j = new VectorNd (myTargetVelSize);
-      for (int j=0; j<numex; j++) {
-         Jm.mul(Hv_j, controller.getHuCol(j), Jm.rowSize (), u0.size());
-         myHv.setColumn (j, Hv_j);
-      }
+      controller.mulResponse (myHv, Jm, /*useLam=*/false);
       
       myVbar.sub (myTargetVel, v0);
 
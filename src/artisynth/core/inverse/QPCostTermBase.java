@@ -26,12 +26,21 @@ public abstract class QPCostTermBase extends QPTermBase
       super (weight);
    }
    
+   // indices of the non-zero columns of H, retained between calls to
+   // computeAndAddQP() to avoid reallocation
+   private int[] myNonzeroCols = new int[0];
+
    /**
     * Adds to the quadratic cost components Q and p according to
     * <pre>
     * Q += H^T H
     * p -= H^T b
     * </pre>
+    * Columns of H that are entirely zero, which arise for excitations that
+    * do not affect this term, contribute nothing and are skipped, so that
+    * the cost of the update depends on the number of non-zero columns
+    * rather than the size of Q. No storage is allocated beyond that needed
+    * to record the non-zero columns.
     */
    protected void computeAndAddQP (
       MatrixNd Q, VectorNd p, MatrixNd H, VectorNd b) {
@@ -40,11 +49,44 @@ public abstract class QPCostTermBase extends QPTermBase
          throw new InternalErrorException (
             "H column size = "+H.colSize()+", expected " +size); 
       }
-      MatrixNd Qadd = new MatrixNd (size, size);
-      VectorNd Psub = new VectorNd (size);
-      Qadd.mulTransposeLeft (H,H);
-      Q.add (Qadd);
-      Psub.mulTranspose (H, b);
-      p.sub (Psub);
+      int nrows = H.rowSize();
+      double[] hbuf = H.getBuffer();
+      int hw = H.getBufferWidth();
+      int hbase = H.getBufferBase();
+
+      if (myNonzeroCols.length < size) {
+         myNonzeroCols = new int[size];
+      }
+      int[] cols = myNonzeroCols;
+      int ncols = 0;
+      for (int j=0; j<size; j++) {
+         for (int k=0; k<nrows; k++) {
+            if (hbuf[hbase+k*hw+j] != 0) {
+               cols[ncols++] = j;
+               break;
+            }
+         }
+      }
+      for (int ii=0; ii<ncols; ii++) {
+         int i = cols[ii];
+         // upper triangle of H^T H, including the diagonal
+         for (int jj=ii; jj<ncols; jj++) {
+            int j = cols[jj];
+            double sum = 0;
+            for (int k=0; k<nrows; k++) {
+               int off = hbase+k*hw;
+               sum += hbuf[off+i]*hbuf[off+j];
+            }
+            Q.add (i, j, sum);
+            if (j != i) {
+               Q.add (j, i, sum);
+            }
+         }
+         double sum = 0;
+         for (int k=0; k<nrows; k++) {
+            sum += hbuf[hbase+k*hw+i]*b.get(k);
+         }
+         p.add (i, -sum);
+      }
    }
 }
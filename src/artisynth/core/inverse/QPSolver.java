@@ -7,6 +7,7 @@ import java.util.Collection;
 import maspack.matrix.MatrixNd;
 import maspack.matrix.VectorNd;
 import maspack.util.*;
+import maspack.solvers.ADMMQPSolver;
 import maspack.solvers.DantzigQPSolver;
 import maspack.solvers.DantzigQPSolver.Status;
 
@@ -15,15 +16,68 @@ import maspack.solvers.DantzigQPSolver.Status;
  */
 public class QPSolver {
 
+   /**
+    * Describes the method used to solve the quadratic program.
+    */
+   public enum Method {
+      /**
+       * Dense active-set solution using Dantzig's LCP pivoting algorithm.
+       * Accurate, but the cost grows cubically with the number of
+       * inequality constraints.
+       */
+      DANTZIG,
+
+      /**
+       * Operator splitting (ADMM) solution that exploits sparsity in the
+       * constraint rows, such as those of the bounds term, and is
+       * warm-started from the previous solution. Approximate, but scales
+       * better for problems with many exciters.
+       */
+      ADMM
+   };
+
+   public static Method DEFAULT_METHOD = Method.DANTZIG;
+   Method myMethod = DEFAULT_METHOD;
+
    /*
     * Default solver
     */
    DantzigQPSolver mySolver = new DantzigQPSolver();
+   ADMMQPSolver myADMMSolver = null;
    String myQPTestCaseFile = null; // "frameQP.txt";
    int myQPTestCaseCnt = 200;
    int myQPCnt = 0;
    FunctionTimer timer = new FunctionTimer();
 
+   // Persistent workspace for assembling the program. The storage is
+   // resized only when the problem dimensions change, so that steady-state
+   // solves do not allocate new matrices and vectors.
+   MatrixNd myQ = new MatrixNd();
+   VectorNd myP = new VectorNd();
+   MatrixNd myA = new MatrixNd();
+   VectorNd myb = new VectorNd();
+   MatrixNd myAeq = new MatrixNd();
+   VectorNd mybeq = new VectorNd();
+
+   /**
+    * Queries the method used to solve the quadratic program.
+    *
+    * @return solution method
+    */
+   public Method getMethod() {
+      return myMethod;
+   }
+
+   /**
+    * Sets the method used to solve the quadratic program. The default
+    * is {@link Method#DANTZIG}.
+    *
+    * @param method solution method
+    */
+   public void setMethod (Method method) {
+      myMethod = method;
+   }
+
    /**
     * Solves the quadratic program of the form:
     * <pre>
@@ -49,13 +103,38 @@ public class QPSolver {
       List<QPConstraintTerm> constraintTerms, 
       int size, double t0, double t1) {
 
-      MatrixNd Q = new MatrixNd (size, size);
-      VectorNd P = new VectorNd (size);
+      VectorNd x = new VectorNd (size);
+      solve (x, costTerms, constraintTerms, size, t0, t1);
+      return x;
+   }
+
+   /**
+    * Solves the quadratic program described for {@link
+    * #solve(List,List,int,double,double)}, placing the result in {@code x}.
+    * The program is assembled using workspace storage that is retained
+    * between calls, so that if the program size and the number of
+    * constraints remain unchanged, no storage is allocated for the assembly.
+    *
+    * @param x returns the solution to the program. Will be resized
+    * if necessary.
+    * @param costTerms terms used to assemble Q and p
+    * @param constraintTerms terms used to assemble A, b, Aeq and beq.
+    * @param size size of the program
+    * @param t0 time step start time
+    * @param t1 time step end time
+    * @return solver status. A status other than {@code SOLVED} is
+    * also reported on the error stream.
+    */
+   public Status solve (
+      VectorNd x, List<QPCostTerm> costTerms,
+      List<QPConstraintTerm> constraintTerms, 
+      int size, double t0, double t1) {
 
       int numEq = 0;
       int numIneq = 0;
       if (constraintTerms != null) {
-         for (QPConstraintTerm term : constraintTerms) {
+         for (int k=0; k<constraintTerms.size(); k++) {
+            QPConstraintTerm term = constraintTerms.get(k);
             if (term.isEnabled()) {
                if (term.getType() == QPConstraintTerm.Type.EQUALITY) {
                   numEq += term.numConstraints (size);
@@ -67,16 +146,32 @@ public class QPSolver {
          }
       }
 
-      MatrixNd A = new MatrixNd (numIneq, size);
-      VectorNd b = new VectorNd (numIneq);
+      // setSize() only reallocates if the required storage grows
+      MatrixNd Q = myQ;
+      VectorNd P = myP;
+      MatrixNd A = myA;
+      VectorNd b = myb;
+      MatrixNd Aeq = myAeq;
+      VectorNd beq = mybeq;
+      Q.setSize (size, size);
+      P.setSize (size);
+      A.setSize (numIneq, size);
+      b.setSize (numIneq);
+      Aeq.setSize (numEq, size);
+      beq.setSize (numEq);
+      Q.setZero();
+      P.setZero();
+      A.setZero();
+      b.setZero();
+      Aeq.setZero();
+      beq.setZero();
 
-      MatrixNd Aeq = new MatrixNd (numEq, size);
-      VectorNd beq = new VectorNd (numEq);
-
-      VectorNd x = new VectorNd (size);
+      x.setSize (size);
+      x.setZero();
 
       // collect all cost terms
-      for (QPCostTerm term : costTerms) {
+      for (int k=0; k<costTerms.size(); k++) {
+         QPCostTerm term = costTerms.get(k);
          if (term.isEnabled ()) {
             term.getQP (Q,P,t0,t1);
          }
@@ -86,7 +181,8 @@ public class QPSolver {
 
       // collect all constraint terms
       if (constraintTerms != null) {
-         for (QPConstraintTerm term : constraintTerms) {
+         for (int k=0; k<constraintTerms.size(); k++) {
+            QPConstraintTerm term = constraintTerms.get(k);
             if (term.isEnabled()) {
                if (term.getType() == QPConstraintTerm.Type.EQUALITY) {
                   rowEq += term.getTerm (Aeq, beq, rowEq, t0, t1);
@@ -99,8 +195,19 @@ public class QPSolver {
       }
 
       // solve the problem
+      Status qpStatus = null;
       try {
-         if (Aeq.rowSize() == 0) {
+         if (myMethod == Method.ADMM) {
+            if (myADMMSolver == null) {
+               myADMMSolver = new ADMMQPSolver();
+            }
+            qpStatus = myADMMSolver.solve (x, Q, P, A, b, Aeq, beq);
+            if (qpStatus != Status.SOLVED) {
+               System.err.println (
+                  "InverseSolve failed: solver status = "+qpStatus.toString ());
+            }
+         }
+         else if (Aeq.rowSize() == 0) {
             // System.out.println ("Q=\n" + Q.toString ("%12.5f"));
             // System.out.println ("P=\n" + P.toString ("%12.5f"));
             // System.out.println ("A=\n" + A.toString ("%12.5f"));
@@ -112,7 +219,7 @@ public class QPSolver {
                   timer.start();
                }
             }
-            mySolver.solve (x,Q,P,A,b);
+            qpStatus = mySolver.solve (x,Q,P,A,b);
             if (myQPTestCaseFile != null) {
                if (myQPCnt == myQPTestCaseCnt) {
                   timer.stop();
@@ -123,7 +230,7 @@ public class QPSolver {
             }
          }
          else {
-            Status qpStatus = mySolver.solve (x, Q, P, A, b, Aeq, beq);
+            qpStatus = mySolver.solve (x, Q, P, A, b, Aeq, beq);
             if (qpStatus != Status.SOLVED) {
                System.err.println (
                   "InverseSolve failed: solver status = "+qpStatus.toString ());
@@ -133,7 +240,7 @@ public class QPSolver {
       catch (Exception e) {
          e.printStackTrace();
       }
-      return x;
+      return qpStatus;
    }
 
    void writeQP (
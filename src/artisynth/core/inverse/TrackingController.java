@@ -42,6 +42,9 @@ import artisynth.core.modelbase.RenderableComponent;
 import artisynth.core.modelbase.WeightedReferenceComp;
 import artisynth.core.util.ScanToken;
 import artisynth.core.workspace.RootModel;
+import maspack.concurrency.ParallelLoop;
+import maspack.matrix.MatrixNd;
+import maspack.matrix.SparseBlockMatrix;
 import maspack.matrix.VectorNd;
 import maspack.properties.PropertyList;
 import maspack.properties.PropertyMode;
@@ -136,6 +139,14 @@ public class TrackingController extends ControllerBase
       new DoubleInterval(DEFAULT_EXCITATION_BOUNDS);
    private PropertyMode myExcitationBoundsMode = PropertyMode.Inherited;
 
+   // method used to solve the quadratic program
+   public static QPSolver.Method DEFAULT_QP_METHOD = QPSolver.DEFAULT_METHOD;
+
+   // number of threads used to evaluate the excitation response
+   public static int DEFAULT_NUM_RESPONSE_THREADS = 1;
+   protected int myNumResponseThreads = DEFAULT_NUM_RESPONSE_THREADS;
+   protected ParallelLoop myResponseLoop;
+
    private static boolean DEFAULT_COMPUTE_INCREMENTALLY = false;
    private boolean myComputeIncrementally = DEFAULT_COMPUTE_INCREMENTALLY;
 
@@ -150,6 +161,11 @@ public class TrackingController extends ControllerBase
 
    protected MechSystemBase myMech;
    protected QPSolver myQPSolver;
+   // workspace retained between calls to apply()
+   private VectorNd myQPSolution = new VectorNd();
+   private VectorNd mySavedForces = new VectorNd();
+   private ArrayList<QPCostTerm> myCostList = new ArrayList<>();
+   private ArrayList<QPConstraintTerm> myConstraintList = new ArrayList<>();
    //protected MotionForceInverseData myMotionForceData;
    protected ExcitationResponse myExcitationResponse;
 
@@ -228,6 +244,13 @@ public class TrackingController extends ControllerBase
          "computeIncrementally",
          "compute excitations incrementally at each time step",
          DEFAULT_COMPUTE_INCREMENTALLY);
+      myProps.add(
+         "QPMethod", "method used to solve the quadratic program",
+         DEFAULT_QP_METHOD);
+      myProps.add(
+         "numResponseThreads",
+         "number of threads used to evaluate the excitation response",
+         DEFAULT_NUM_RESPONSE_THREADS, "[1,inf]");
    }
 
    /**
@@ -436,6 +459,112 @@ public class TrackingController extends ControllerBase
       }
    }
 
+   /**
+    * Queries the method used to solve the quadratic program, as described
+    * in {@link #setQPMethod}.
+    *
+    * @return quadratic program solution method
+    */
+   public QPSolver.Method getQPMethod () {
+      return myQPSolver.getMethod();
+   }
+
+   /**
+    * Sets the method used to solve the quadratic program that determines
+    * the excitations. {@link QPSolver.Method#DANTZIG} uses a dense
+    * active-set solver, while {@link QPSolver.Method#ADMM} uses an operator
+    * splitting solver that exploits the sparsity of the bounds constraints
+    * and is warm-started from the previous step, which is faster for models
+    * with many exciters. The default is {@code DANTZIG}.
+    *
+    * @param method quadratic program solution method
+    */
+   public void setQPMethod (QPSolver.Method method) {
+      myQPSolver.setMethod (method);
+   }
+
+   /**
+    * Returns the number of threads used to evaluate the excitation response,
+    * as described in {@link #setNumResponseThreads}.
+    *
+    * @return number of excitation response threads
+    */
+   public int getNumResponseThreads() {
+      return myNumResponseThreads;
+   }
+
+   /**
+    * Sets the number of threads used to evaluate the excitation response.
+    * The default value of 1 results in serial computation. For larger
+    * values, the velocity and constraint force responses for all exciters
+    * are solved together using the factored KKT system, which allows the
+    * sparse solver to process them concurrently, and the products of the
+    * target Jacobians with the response columns are computed concurrently
+    * across exciters. The forces for each exciter are still evaluated
+    * serially, since doing so modifies the model.
+    *
+    * <p>Batched solves are not used when KKT factorization is enabled (see
+    * {@link #setUseKKTFactorization}) or when excitations are computed
+    * incrementally.
+    *
+    * @param nthreads number of excitation response threads
+    */
+   public void setNumResponseThreads (int nthreads) {
+      if (nthreads < 1) {
+         throw new IllegalArgumentException (
+            "number of threads must be at least 1; got "+nthreads);
+      }
+      if (nthreads != myNumResponseThreads) {
+         myNumResponseThreads = nthreads;
+         if (myResponseLoop != null) {
+            myResponseLoop.shutdown();
+            myResponseLoop = null;
+         }
+      }
+   }
+
+   /**
+    * Computes the response matrix {@code H = J Hu}, or {@code H = J Hlam} if
+    * {@code useLam} is {@code true}, where {@code Hu} and {@code Hlam} are
+    * the most recently computed velocity and constraint force responses.
+    * {@code H} is sized appropriately, and its columns are computed
+    * concurrently if {@link #getNumResponseThreads} exceeds 1.
+    *
+    * @param H returns the response matrix
+    * @param J target Jacobian
+    * @param useLam if {@code true}, use the constraint force response
+    */
+   protected void mulResponse (
+      final MatrixNd H, final SparseBlockMatrix J, final boolean useLam) {
+
+      int numex = numExciters();
+      H.setSize (J.rowSize(), numex);
+      if (myNumResponseThreads > 1 && numex > 1) {
+         if (myResponseLoop == null) {
+            myResponseLoop =
+               new ParallelLoop ("ExcitationResponse", myNumResponseThreads);
+         }
+         myResponseLoop.forRange (numex, new ParallelLoop.Body() {
+               public void run (int start, int end, int worker) {
+                  mulResponseColumns (H, J, useLam, start, end);
+               }
+            });
+      }
+      else {
+         mulResponseColumns (H, J, useLam, 0, numex);
+      }
+   }
+
+   private void mulResponseColumns (
+      MatrixNd H, SparseBlockMatrix J, boolean useLam, int start, int end) {
+      VectorNd Hcol = new VectorNd (J.rowSize());
+      for (int j=start; j<end; j++) {
+         VectorNd resp = useLam ? getHlamCol(j) : getHuCol(j);
+         J.mul (Hcol, resp, J.rowSize(), Math.min (J.colSize(), resp.size()));
+         H.setColumn (j, Hcol);
+      }
+   }
+
    /**
     * Queries whether or not KKT factorization is enabled, as described in
     * {@link #setUseKKTFactorization(boolean)}.
@@ -844,20 +973,32 @@ public class TrackingController extends ControllerBase
 //         return;
 //      }
 
-      VectorNd savedForces = new VectorNd();
+      VectorNd savedForces = mySavedForces;
       myMech.getForces (savedForces);
 
       updateCostTerms (t0, t1);
 
-      // collect cost and constraint terms from among the child components
-      ArrayList<QPCostTerm> costs = new ArrayList<>();
-      ArrayList<QPConstraintTerm> constraints = new ArrayList<>();
-      costs.addAll (getCostTerms());
-      constraints.addAll (getInequalityConstraints());
-      constraints.addAll (getEqualityConstraints());
+      // collect cost and constraint terms from among the child components,
+      // reusing the term lists from the previous step
+      ArrayList<QPCostTerm> costs = myCostList;
+      ArrayList<QPConstraintTerm> constraints = myConstraintList;
+      costs.clear();
+      constraints.clear();
+      for (int i=0; i<numComponents(); i++) {
+         ModelComponent mc = get(i);
+         if (mc instanceof QPCostTerm) {
+            QPCostTerm term = (QPCostTerm)mc;
+            if (term.getType() == QPTerm.Type.COST) {
+               costs.add (term);
+            }
+         }
+      }
+      collectConstraintTerms (constraints, QPTerm.Type.INEQUALITY);
+      collectConstraintTerms (constraints, QPTerm.Type.EQUALITY);
 
       // solve for the excitations, given the cost and constraint terms
-      VectorNd x = myQPSolver.solve (costs, constraints, numExciters(), t0, t1);
+      VectorNd x = myQPSolution;
+      myQPSolver.solve (x, costs, constraints, numExciters(), t0, t1);
 
       if (myComputeIncrementally) {
 
@@ -878,6 +1019,19 @@ public class TrackingController extends ControllerBase
       myMech.setForces (savedForces);
    }
 
+   private void collectConstraintTerms (
+      ArrayList<QPConstraintTerm> terms, QPTerm.Type type) {
+      for (int i=0; i<numComponents(); i++) {
+         ModelComponent mc = get(i);
+         if (mc instanceof QPConstraintTerm) {
+            QPConstraintTerm term = (QPConstraintTerm)mc;
+            if (term.getType() == type) {
+               terms.add (term);
+            }
+         }
+      }
+   }
+
    /**
     * Clears all terms and disposes storage
     */
@@ -45,9 +45,6 @@ public class BlemkerMuscle extends MuscleMaterial {
    protected ScalarFieldComponent myExpStressCoeffField = null;
    protected ScalarFieldComponent myUncrimpingFactorField = null;
 
-   protected Vector3d myTmp = new Vector3d();
-   protected Matrix3d myMat = new Matrix3d();
-
    // Set this true to keep the tangent matrix continuous (and symmetric) at
    // lam = lamOpt, at the expense of slightly negative forces for lam < lamOpt
    protected static boolean myZeroForceBelowLamOptP = true;
@@ -377,7 +374,7 @@ public class BlemkerMuscle extends MuscleMaterial {
       double optLambda = getOptLambda(def);
       double maxStress = getMaxStress(def);
       
-      Vector3d a = myTmp;
+      Vector3d a = new Vector3d();
       def.getF().mul (a, dir0);
       double mag = a.norm();
       if (mag == 0.0) {
@@ -483,11 +480,12 @@ public class BlemkerMuscle extends MuscleMaterial {
          //
          // compute -2/3 (dev sigma (X) I)' - 4 wa/(3J) (a (X) a (X) I)'
          //
-         myMat.outerProduct (a, a);
-         myMat.scale (2*wa/J); // will be scaled again by -2/3 below
-         addStress (myMat, J, I4, W4, a);
-         myMat.scale (-2/3.0);
-         TensorUtils.addSymmetricIdentityProduct (D, myMat);
+         Matrix3d T = new Matrix3d();
+         T.outerProduct (a, a);
+         T.scale (2*wa/J); // will be scaled again by -2/3 below
+         addStress (T, J, I4, W4, a);
+         T.scale (-2/3.0);
+         TensorUtils.addSymmetricIdentityProduct (D, T);
 
          TensorUtils.addScaledIdentity (D, 4/3.0*w0/J);
          TensorUtils.addScaledIdentityProduct (D, 4/9.0*(wa-w0)/J);
@@ -498,7 +496,7 @@ public class BlemkerMuscle extends MuscleMaterial {
    }
 
    public double computeStretch (Vector3d dir0, DeformedPoint def) {
-      Vector3d dir = myTmp;
+      Vector3d dir = new Vector3d();
       def.getF().mul(dir, dir0);
       double mag = dir.norm();
       double J = def.getDetF();
@@ -524,8 +522,6 @@ public class BlemkerMuscle extends MuscleMaterial {
 
    public BlemkerMuscle clone() {
       BlemkerMuscle mat = (BlemkerMuscle)super.clone();
-      mat.myTmp = new Vector3d();
-      mat.myMat = new Matrix3d();
       return mat;
    }
 
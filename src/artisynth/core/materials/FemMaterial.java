@@ -106,6 +106,11 @@ public abstract class FemMaterial extends MaterialBase
     * @param excitation current excitation value
     * @param state material state information, or {@code null} if the
     * material does not have state.
+    *
+    * <p>Implementations should not store intermediate results in member
+    * fields, since FEM models may call this method concurrently from several
+    * threads (see {@link
+    * artisynth.core.femmodels.FemModel3d#setNumStiffnessThreads}).
     */
    public abstract void computeStressAndTangent (
       SymmetricMatrix3d sigma, Matrix6d D, DeformedPoint def, 
@@ -37,9 +37,6 @@ public class FungMaterial extends IncompressibleMaterialBase {
    private double myL31 = DEFAULT_L31; 
    private double myCC  = DEFAULT_CC; 
 
-   private double[]   mu = new double[3]; 
-   private double[][] lam = new double[3][3]; 
-
    PropertyMode myMU1Mode = PropertyMode.Inherited;
    PropertyMode myMU2Mode = PropertyMode.Inherited;
    PropertyMode myMU3Mode = PropertyMode.Inherited;
@@ -62,10 +59,6 @@ public class FungMaterial extends IncompressibleMaterialBase {
    ScalarFieldComponent myL31Field = null;
    ScalarFieldComponent myCCField  = null;
 
-   private SymmetricMatrix3d myB;
-   private SymmetricMatrix3d myC;
-   private SymmetricMatrix3d myC2;
-
    static {
       myProps.addInheritableWithField (
          "MU1:Inherited", "MU1", DEFAULT_MU1, "[0,inf]");
@@ -94,9 +87,6 @@ public class FungMaterial extends IncompressibleMaterialBase {
    }
 
    public FungMaterial () {
-      myB   = new SymmetricMatrix3d();
-      myC   = new SymmetricMatrix3d();
-      myC2  = new SymmetricMatrix3d();
    }
 
    public FungMaterial (double MU1, double MU2, double MU3, double L11, double L22, 
@@ -525,6 +515,8 @@ public class FungMaterial extends IncompressibleMaterialBase {
       SymmetricMatrix3d sigtmp = null;
 
       // Evaluate Lame coefficients
+      double[] mu = new double[3];
+      double[][] lam = new double[3][3];
       mu[0] = getMU1(def);
       mu[1] = getMU2(def);
       mu[2] = getMU3(def);
@@ -543,14 +535,18 @@ public class FungMaterial extends IncompressibleMaterialBase {
       
       double J = def.getDetF();
 
+      SymmetricMatrix3d B = new SymmetricMatrix3d();
+      SymmetricMatrix3d C = new SymmetricMatrix3d();
+      SymmetricMatrix3d C2 = new SymmetricMatrix3d();
+
       // Calculate deviatoric left Cauchy-Green tensor
-      computeDevLeftCauchyGreen(myB,def);
+      computeDevLeftCauchyGreen(B,def);
 
       // Calculate deviatoric right Cauchy-Green tensor
-      computeDevRightCauchyGreen(myC,def);
+      computeDevRightCauchyGreen(C,def);
 
       // calculate square of C
-      myC2.mulTransposeLeft (myC);
+      C2.mulTransposeLeft (C);
 
       Matrix3d mydevF = new Matrix3d(def.getF());
       mydevF.scale(Math.pow(J,-1.0 / 3.0));
@@ -561,10 +557,10 @@ public class FungMaterial extends IncompressibleMaterialBase {
          a0[i].y = Q.get(1,i);
          a0[i].z = Q.get(2,i);
 
-         vtmp.mul(myC,a0[i]);
+         vtmp.mul(C,a0[i]);
          K[i] = a0[i].dot(vtmp);
 
-         vtmp.mul(myC2,a0[i]);
+         vtmp.mul(C2,a0[i]);
          L[i] = a0[i].dot(vtmp);
 
          a[i].mul(mydevF,a0[i]);
@@ -586,7 +582,7 @@ public class FungMaterial extends IncompressibleMaterialBase {
 
       // Evaluate the stress
       SymmetricMatrix3d bmi = new SymmetricMatrix3d(); 
-      bmi.sub(myB,SymmetricMatrix3d.IDENTITY);
+      bmi.sub(B,SymmetricMatrix3d.IDENTITY);
       for (int i=0; i<3; i++) {
          //       s += mu[i]*K[i]*(A[i]*bmi + bmi*A[i]);
          tmpMatrix.mul(A[i], bmi);
@@ -621,7 +617,7 @@ public class FungMaterial extends IncompressibleMaterialBase {
          Matrix6d tmpMatrix6d  = new Matrix6d();
       
          for (int i=0; i<3; i++) {
-            addTensorProduct4(D, mu[i]*K[i], A[i], myB);
+            addTensorProduct4(D, mu[i]*K[i], A[i], B);
          
             // C += mu[i]*K[i]*dyad4s(A[i],b);
             for (int j=0; j<3; j++) {
@@ -690,7 +686,6 @@ public class FungMaterial extends IncompressibleMaterialBase {
 
    public FungMaterial clone() {
       FungMaterial mat = (FungMaterial)super.clone();
-      mat.myB = new SymmetricMatrix3d();
       return mat;
    }
 
@@ -47,9 +47,6 @@ public class GenericMuscle extends MuscleMaterial {
    protected ScalarFieldComponent myExpStressCoeffField = null;
    protected ScalarFieldComponent myUncrimpingFactorField = null;
 
-   protected Vector3d myTmp = new Vector3d();
-   protected Matrix3d myMat = new Matrix3d();
-
    // Set this true to keep the tangent matrix continuous (and symmetric) at
    // lam = lamOpt, at the expense of slightly negative forces for lam < lamOpt
    protected static boolean myZeroForceBelowLamOptP = false;
@@ -372,7 +369,7 @@ public class GenericMuscle extends MuscleMaterial {
       double maxLambda = getMaxLambda(def);
       double maxStress = getMaxStress(def);
       
-      Vector3d a = myTmp;
+      Vector3d a = new Vector3d();
       def.getF().mul (a, dir0);
       double mag = a.norm();
       if (mag == 0.0) {
@@ -446,11 +443,12 @@ public class GenericMuscle extends MuscleMaterial {
          //
          // compute -2/3 (dev sigma (X) I)' - 4 wa/(3J) (a (X) a (X) I)'
          //
-         myMat.outerProduct (a, a);
-         myMat.scale (2*wa/J); // will be scaled again by -2/3 below
-         addStress (myMat, J, I4, W4, a);
-         myMat.scale (-2/3.0);
-         TensorUtils.addSymmetricIdentityProduct (D, myMat);
+         Matrix3d T = new Matrix3d();
+         T.outerProduct (a, a);
+         T.scale (2*wa/J); // will be scaled again by -2/3 below
+         addStress (T, J, I4, W4, a);
+         T.scale (-2/3.0);
+         TensorUtils.addSymmetricIdentityProduct (D, T);
          TensorUtils.addScaledIdentity (D, 4/3.0*w0/J);
          TensorUtils.addScaledIdentityProduct (D, 4/9.0*(wa-w0)/J);
 
@@ -481,8 +479,6 @@ public class GenericMuscle extends MuscleMaterial {
 
    public GenericMuscle clone() {
       GenericMuscle mat = (GenericMuscle)super.clone();
-      mat.myTmp = new Vector3d();
-      mat.myMat = new Matrix3d();
       return mat;
    }
 
@@ -19,8 +19,6 @@ public class IncompNeoHookeanMaterial extends IncompressibleMaterialBase {
    PropertyMode myGMode = PropertyMode.Inherited;
    ScalarFieldComponent myGField = null;
 
-   private SymmetricMatrix3d myB;
-
    static {
       myProps.addInheritableWithField (
          "shearModulus:Inherited", "shear modulus", DEFAULT_G);
@@ -31,11 +29,9 @@ public class IncompNeoHookeanMaterial extends IncompressibleMaterialBase {
    }
 
    public IncompNeoHookeanMaterial (){
-      myB = new SymmetricMatrix3d();
    }
 
    public IncompNeoHookeanMaterial (double E, double kappa) {
-      myB = new SymmetricMatrix3d();
       setShearModulus (E);
       setBulkModulus (kappa);
    }
@@ -84,24 +80,25 @@ public class IncompNeoHookeanMaterial extends IncompressibleMaterialBase {
       
       double J = def.getDetF();
 
-      computeLeftCauchyGreen (myB,def);
+      SymmetricMatrix3d B = new SymmetricMatrix3d();
+      computeLeftCauchyGreen (B,def);
 
       double G = getShearModulus (def);
       double muJ = G/Math.pow(J, 5.0/3.0);
-      double diagTerm = -muJ*(myB.m00 + myB.m11 + myB.m22)/3.0;
+      double diagTerm = -muJ*(B.m00 + B.m11 + B.m22)/3.0;
 
-      sigma.scale (muJ, myB);
+      sigma.scale (muJ, B);
       sigma.m00 += diagTerm;
       sigma.m11 += diagTerm;
       sigma.m22 += diagTerm;
 
       if (D != null) {
-         double Ib = myB.m00+myB.m11+myB.m22;
+         double Ib = B.m00+B.m11+B.m22;
          D.setZero();
          TensorUtils.addScaledIdentityProduct (D, 2/9.0*muJ*Ib);
          TensorUtils.addScaledIdentity (D, 2/3.0*muJ*Ib);
          TensorUtils.addSymmetricTensorProduct (
-            D, -2/3.0*muJ, myB, SymmetricMatrix3d.IDENTITY);
+            D, -2/3.0*muJ, B, SymmetricMatrix3d.IDENTITY);
          D.setLowerToUpper();         
       }
    }
@@ -121,7 +118,6 @@ public class IncompNeoHookeanMaterial extends IncompressibleMaterialBase {
 
    public IncompNeoHookeanMaterial clone() {
       IncompNeoHookeanMaterial mat = (IncompNeoHookeanMaterial)super.clone();
-      mat.myB = new SymmetricMatrix3d();
       return mat;
    }
 
@@ -22,9 +22,6 @@ public class NeoHookeanMaterial extends FemMaterial {
    PropertyMode myNuMode = PropertyMode.Inherited;
    PropertyMode myEMode = PropertyMode.Inherited;
 
-   private SymmetricMatrix3d myB;
-   //private SymmetricMatrix3d myB2;
-
    static {
       myProps.addInheritableWithField (
          "YoungsModulus:Inherited", "Youngs modulus", DEFAULT_E);
@@ -37,8 +34,6 @@ public class NeoHookeanMaterial extends FemMaterial {
    }
 
    public NeoHookeanMaterial (){
-      myB = new SymmetricMatrix3d();
-      //myB2 = new SymmetricMatrix3d();
    }
    
    public NeoHookeanMaterial(double E, double nu) {
@@ -112,9 +107,10 @@ public class NeoHookeanMaterial extends FemMaterial {
       double lam = (E*myNu)/((1-2*myNu)*(1+myNu));
       double mu = G;
       
-      computeLeftCauchyGreen (myB,def);
+      SymmetricMatrix3d B = new SymmetricMatrix3d();
+      computeLeftCauchyGreen (B,def);
 
-      sigma.scale (mu/J, myB);
+      sigma.scale (mu/J, B);
       double diagTerm = (lam*Math.log(J)-mu)/J;
       sigma.m00 += diagTerm;
       sigma.m11 += diagTerm;
@@ -144,8 +140,6 @@ public class NeoHookeanMaterial extends FemMaterial {
 
    public NeoHookeanMaterial clone() {
       NeoHookeanMaterial mat = (NeoHookeanMaterial)super.clone();
-      mat.myB = new SymmetricMatrix3d();
-      //mat.myB2 = new SymmetricMatrix3d();
       return mat;
    }
    
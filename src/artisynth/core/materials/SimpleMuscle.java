@@ -33,9 +33,6 @@ public class SimpleMuscle extends MuscleMaterial {
    //protected ScalarFieldPointFunction myMaxStressFunction = null;
    protected ScalarFieldComponent myMaxStressField = null;
 
-   protected Vector3d myTmp = new Vector3d();
-   protected Matrix3d myMat = new Matrix3d();
-
    // Set this true to keep the tangent matrix continuous (and symmetric) at
    // lam = lamOpt, at the expense of slightly negative forces for lam < lamOpt
    protected static boolean myZeroForceBelowLamOptP = false;
@@ -201,7 +198,7 @@ public class SimpleMuscle extends MuscleMaterial {
          return;
       }
 
-      Vector3d dir = myTmp;
+      Vector3d dir = new Vector3d();
       def.getF().mul (dir, dir0);
       double mag = dir.norm();
       dir.scale (1/mag);
@@ -219,11 +216,12 @@ public class SimpleMuscle extends MuscleMaterial {
          //
          // compute -2/3 (dev sigma (X) I)' - 4 wa/(3J) (dir (X) dir (X) I)'
          //
-         myMat.outerProduct (dir, dir);
-         myMat.scale (2*wa/J); // will be scaled again by -2/3 below
-         addStress (myMat, J, I4, W4, dir);
-         myMat.scale (-2/3.0);
-         TensorUtils.addSymmetricIdentityProduct (D, myMat);
+         Matrix3d T = new Matrix3d();
+         T.outerProduct (dir, dir);
+         T.scale (2*wa/J); // will be scaled again by -2/3 below
+         addStress (T, J, I4, W4, dir);
+         T.scale (-2/3.0);
+         TensorUtils.addSymmetricIdentityProduct (D, T);
          TensorUtils.addScaledIdentity (D, 4/3.0*w0/J);
          TensorUtils.addScaledIdentityProduct (D, 4/9.0*(wa-w0)/J);
          
@@ -251,8 +249,6 @@ public class SimpleMuscle extends MuscleMaterial {
 
    public SimpleMuscle clone() {
       SimpleMuscle mat = (SimpleMuscle)super.clone();
-      mat.myTmp = new Vector3d();
-      mat.myMat = new Matrix3d();
       return mat;
    }
 
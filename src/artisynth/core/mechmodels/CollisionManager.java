@@ -18,8 +18,12 @@ import maspack.collision.MeshCollider;
 import maspack.collision.SurfaceMeshIntersector;
 import maspack.collision.SurfaceMeshIntersector.RegionType;
 import maspack.collision.SignedDistanceCollider;
+import maspack.collision.SweepAndPrune;
+import maspack.concurrency.ParallelLoop;
+import maspack.geometry.BVTree;
 import maspack.geometry.PolygonalMesh;
 import maspack.geometry.DistanceGrid;
+import maspack.matrix.RigidTransform3d;
 import maspack.matrix.SparseBlockMatrix;
 import maspack.matrix.Vector3d;
 import maspack.matrix.VectorNd;
@@ -37,6 +41,7 @@ import maspack.render.Renderer.ColorInterpolation;
 import maspack.render.color.ColorMapBase;
 import maspack.render.color.HueColorMap;
 import maspack.util.DataBuffer;
+import maspack.util.DynamicIntArray;
 import maspack.util.InternalErrorException;
 import maspack.util.NumberFormat;
 import maspack.util.ReaderTokenizer;
@@ -166,12 +171,54 @@ public class CollisionManager extends RenderableCompositeBase
 
    AbstractCollider myCollider = null;
 
-   SurfaceMeshIntersector myAjlIntersector = null;
-   SignedDistanceCollider mySDCollider = null;
-   MeshCollider myTriTriCollider = null;
+   /**
+    * Colliders used to compute contact information. Each narrow phase
+    * thread uses its own set, since the colliders are not reentrant.
+    */
+   static class ColliderSet {
+      SurfaceMeshIntersector myAjlIntersector = null;
+      SignedDistanceCollider mySDCollider = null;
+      MeshCollider myTriTriCollider = null;
+   }
+
+   /**
+    * Candidate collision pair whose contact information is to be computed by
+    * the concurrent narrow phase.
+    */
+   static class ContactTask {
+      CollidableBody myC0;
+      CollidableBody myC1;
+      CollisionBehavior myBehav;
+      BehaviorSource mySrc;
+      ContactInfo myCinfo;
+
+      ContactTask (
+         CollidableBody c0, CollidableBody c1, 
+         CollisionBehavior behav, BehaviorSource src) {
+         myC0 = c0;
+         myC1 = c1;
+         myBehav = behav;
+         mySrc = src;
+      }
+   }
+
+   ColliderSet[] myColliderSets = new ColliderSet[] { new ColliderSet() };
+   // loop used by the concurrent narrow phase
+   ParallelLoop myNarrowPhaseLoop;
+   // candidate pairs for the concurrent narrow phase, or null if contact
+   // information is being computed immediately
+   ArrayList<ContactTask> myContactTasks;
 
    double myMaxpen; // accumulates maximum penetration 
 
+   // broad phase used to cull external collision pairs
+   SweepAndPrune myBroadPhase;
+   ArrayList<CollidableBody> myBroadPhaseBodies;
+   // for each broad phase body, 2*k+d, where k is the index of the
+   // sub-MechModel containing it and d is 1 if it is deformable
+   DynamicIntArray myBroadPhaseLists;
+   DynamicIntArray myBroadPhasePairs;
+
    /**
     * Specifies the collider that generates contact information between the
     * two meshes. Contact information is returned in a 
@@ -325,6 +372,14 @@ public class CollisionManager extends RenderableCompositeBase
 
    static double DEFAULT_CONTACT_FORCE_LEN_SCALE = 1.0;
    private double myContactForceLenScale = DEFAULT_CONTACT_FORCE_LEN_SCALE;
+
+   static boolean DEFAULT_BROAD_PHASE_ENABLED = true;
+   private boolean myBroadPhaseEnabled = DEFAULT_BROAD_PHASE_ENABLED;
+
+   public static int DEFAULT_NUM_COLLISION_THREADS = 1;
+   private int myNumCollisionThreads = DEFAULT_NUM_COLLISION_THREADS;
+   // minimum number of candidate pairs needed to use multiple threads
+   private static int MIN_PARALLEL_CONTACT_TASKS = 2;
    
    // Estimate of the radius of the set of collidable objects.
    // Used for computing default tolerances.
@@ -470,6 +525,14 @@ public class CollisionManager extends RenderableCompositeBase
       myProps.add (
          "colorMap", "color map for penetration plotting", 
          defaultColorMap, "CE");
+      myProps.add (
+         "broadPhaseEnabled",
+         "use sweep-and-prune on world bounding boxes to cull external "+
+         "collision pairs", DEFAULT_BROAD_PHASE_ENABLED);
+      myProps.add (
+         "numCollisionThreads",
+         "number of threads used to compute contact information",
+         DEFAULT_NUM_COLLISION_THREADS, "[1,inf]");
    }
 
    public PropertyList getAllPropertyInfo() {
@@ -654,6 +717,66 @@ public class CollisionManager extends RenderableCompositeBase
     public double getContactForceLenScale() {
       return myContactForceLenScale;
    }
+
+   /**
+    * Queries whether a broad phase is used to cull external collision
+    * pairs. See {@link #setBroadPhaseEnabled}.
+    *
+    * @return {@code true} if the broad phase is enabled
+    */
+   public boolean getBroadPhaseEnabled() {
+      return myBroadPhaseEnabled;
+   }
+
+   /**
+    * Sets whether a broad phase is used to cull external collision pairs.  If
+    * enabled (the default), the world-space bounding boxes of all externally
+    * collidable bodies (including those of sub-MechModels) are maintained
+    * using incremental sweep-and-prune, and behavior lookup and contact
+    * detection is performed only for bodies whose boxes overlap. Otherwise,
+    * every possible pair is examined.
+    *
+    * @param enable if {@code true}, enables the broad phase
+    */
+   public void setBroadPhaseEnabled (boolean enable) {
+      myBroadPhaseEnabled = enable;
+   }
+
+   /**
+    * Returns the number of threads used to compute contact information.
+    *
+    * @return number of collision threads
+    * @see #setNumCollisionThreads
+    */
+   public int getNumCollisionThreads() {
+      return myNumCollisionThreads;
+   }
+
+   /**
+    * Sets the number of threads used to compute contact information for
+    * candidate collision pairs. The default value of 1 results in serial
+    * computation. For larger values, the candidate pairs are first collected,
+    * and the mesh intersections for each pair are then computed concurrently.
+    * The resulting contacts are passed to the collision handlers in the same
+    * order as for serial computation, so that results do not depend on the
+    * number of threads. This setting applies only to the collidables handled
+    * directly by this manager; sub-MechModels use their own setting.
+    *
+    * @param nthreads number of collision threads
+    */
+   public void setNumCollisionThreads (int nthreads) {
+      if (nthreads < 1) {
+         throw new IllegalArgumentException (
+            "number of threads must be at least 1; got "+nthreads);
+      }
+      if (nthreads != myNumCollisionThreads) {
+         myNumCollisionThreads = nthreads;
+         if (myNarrowPhaseLoop != null) {
+            myNarrowPhaseLoop.shutdown();
+            myNarrowPhaseLoop = null;
+         }
+      }
+   }
     
    /** 
     * Gets the Coulomb friction coefficient
@@ -2386,6 +2509,12 @@ public class CollisionManager extends RenderableCompositeBase
 
    ContactInfo computeContactInfo (
       CollidableBody c0, CollidableBody c1, CollisionBehavior behav) {
+      return computeContactInfo (c0, c1, behav, myColliderSets[0]);
+   }
+
+   ContactInfo computeContactInfo (
+      CollidableBody c0, CollidableBody c1, CollisionBehavior behav,
+      ColliderSet colliders) {
 
       PolygonalMesh mesh0 = c0.getCollisionMesh();
       PolygonalMesh mesh1 = c1.getCollisionMesh();
@@ -2403,8 +2532,8 @@ public class CollisionManager extends RenderableCompositeBase
       //timer.start();
       switch (colliderType) {
          case AJL_CONTOUR: {
-            if (myAjlIntersector == null) {
-               myAjlIntersector = new SurfaceMeshIntersector();
+            if (colliders.myAjlIntersector == null) {
+               colliders.myAjlIntersector = new SurfaceMeshIntersector();
             }
             // types of regions that we need to compute for mesh0 and mesh1
             RegionType regions0 = RegionType.INSIDE;
@@ -2424,24 +2553,24 @@ public class CollisionManager extends RenderableCompositeBase
                   regions1 = RegionType.NONE;
                }
             }
-            cinfo = myAjlIntersector.findContoursAndRegions (
+            cinfo = colliders.myAjlIntersector.findContoursAndRegions (
                mesh0, regions0, mesh1, regions1);
             break;
          }
          case TRI_INTERSECTION: {
-            if (myTriTriCollider == null) {
-               myTriTriCollider = new MeshCollider();
+            if (colliders.myTriTriCollider == null) {
+               colliders.myTriTriCollider = new MeshCollider();
             }
-            cinfo = myTriTriCollider.getContacts (mesh0, mesh1);
+            cinfo = colliders.myTriTriCollider.getContacts (mesh0, mesh1);
             break;
          }
          case SIGNED_DISTANCE: {
-            if (mySDCollider == null) {
-               mySDCollider = new SignedDistanceCollider();
+            if (colliders.mySDCollider == null) {
+               colliders.mySDCollider = new SignedDistanceCollider();
             }
             DistanceGridComp gcomp0 = c0.getDistanceGridComp();
             DistanceGridComp gcomp1 = c1.getDistanceGridComp();
-            cinfo = mySDCollider.getContacts (
+            cinfo = colliders.mySDCollider.getContacts (
                mesh0, gcomp0 != null ? gcomp0.getGrid() : null,
                mesh1, gcomp1 != null ? gcomp1.getGrid() : null);
             break;
@@ -2470,6 +2599,11 @@ public class CollisionManager extends RenderableCompositeBase
       if (testMode) {
          cinfo = new ContactInfo (c0.getCollisionMesh(), c1.getCollisionMesh());
       }
+      else if (myContactTasks != null) {
+         // defer to the concurrent narrow phase
+         myContactTasks.add (new ContactTask (c0, c1, behav, src));
+         return;
+      }
       else {
          cinfo = computeContactInfo (c0, c1, behav);
       }
@@ -2478,6 +2612,79 @@ public class CollisionManager extends RenderableCompositeBase
       }     
    }
 
+   /**
+    * Updates cached mesh and grid data that the colliders would otherwise
+    * compute on demand, so that the colliders can then be called
+    * concurrently for pairs that share the same collidable.
+    */
+   private void prepareForConcurrentContact (
+      CollidableBody cb, CollisionBehavior behav) {
+      PolygonalMesh mesh = cb.getCollisionMesh();
+      if (mesh != null) {
+         mesh.getBVTree();
+         mesh.updateFaceNormals();
+         mesh.isTriangular();
+         mesh.isClosed();
+      }
+      if (behav.getColliderType() == ColliderType.SIGNED_DISTANCE &&
+          !cb.isDeformable() && cb.hasDistanceGrid()) {
+         cb.getDistanceGridComp().getGrid();
+      }
+   }
+
+   /**
+    * Computes contact information for all the candidate pairs that were
+    * collected in myContactTasks, using up to {@link #getNumCollisionThreads}
+    * threads, and then updates the collision handlers serially in the order
+    * in which the pairs were collected.
+    */
+   private void processContactTasks () {
+      final ArrayList<ContactTask> tasks = myContactTasks;
+      myContactTasks = null;
+
+      int nthreads = myNumCollisionThreads;
+      if (myColliderSets.length != nthreads) {
+         ColliderSet[] sets = new ColliderSet[nthreads];
+         for (int i=0; i<nthreads; i++) {
+            sets[i] = (i < myColliderSets.length ?
+                       myColliderSets[i] : new ColliderSet());
+         }
+         myColliderSets = sets;
+      }
+      if (tasks.size() < MIN_PARALLEL_CONTACT_TASKS || nthreads == 1) {
+         for (ContactTask task : tasks) {
+            task.myCinfo = computeContactInfo (
+               task.myC0, task.myC1, task.myBehav);
+         }
+      }
+      else {
+         for (ContactTask task : tasks) {
+            prepareForConcurrentContact (task.myC0, task.myBehav);
+            prepareForConcurrentContact (task.myC1, task.myBehav);
+         }
+         if (myNarrowPhaseLoop == null) {
+            myNarrowPhaseLoop = new ParallelLoop ("NarrowPhase", nthreads);
+         }
+         myNarrowPhaseLoop.forRange (
+            tasks.size(), new ParallelLoop.Body() {
+               public void run (int start, int end, int worker) {
+                  ColliderSet colliders = myColliderSets[worker];
+                  for (int k=start; k<end; k++) {
+                     ContactTask task = tasks.get(k);
+                     task.myCinfo = computeContactInfo (
+                        task.myC0, task.myC1, task.myBehav, colliders);
+                  }
+               }
+            });
+      }
+      for (ContactTask task : tasks) {
+         if (task.myCinfo != null) {
+            addOrUpdateHandler (
+               task.myCinfo, task.myC0, task.myC1, task.myBehav, task.mySrc);
+         }
+      }
+   }
+
    CollisionBehavior getBehavior (
       CollidableBody c0, CollidableBody c1, BehaviorSource src) {
       switch (src) {
@@ -2548,6 +2755,132 @@ public class CollisionManager extends RenderableCompositeBase
       }
    }
 
+   /**
+    * Computes a world-space bounding box for a collidable body, using the
+    * root of its collision mesh's bounding volume hierarchy. If the body has
+    * a valid distance grid, the box is enlarged to contain it, since the
+    * signed distance collider may use the grid for contact detection. (A
+    * grid which has not been generated yet does not need to be considered,
+    * since it will be generated from the collision mesh.) If no bounds are
+    * available, the box is set to be infinite so that the body will not be
+    * culled.
+    */
+   void getWorldBounds (CollidableBody cb, Vector3d min, Vector3d max) {
+      double inf = Double.POSITIVE_INFINITY;
+      min.set (inf, inf, inf);
+      max.set (-inf, -inf, -inf);
+      PolygonalMesh mesh = cb.getCollisionMesh();
+      BVTree bvh = (mesh != null ? mesh.getBVTree() : null);
+      if (bvh != null) {
+         bvh.updateBounds (min, max);
+      }
+      if (min.x > max.x || min.y > max.y || min.z > max.z) {
+         min.set (-inf, -inf, -inf);
+         max.set (inf, inf, inf);
+         return;
+      }
+      RigidTransform3d X = bvh.getBvhToWorld();
+      if (X != RigidTransform3d.IDENTITY) {
+         // transform the box center and half widths into world coordinates
+         double[] c = new double[3];
+         double[] w = new double[3];
+         for (int i=0; i<3; i++) {
+            c[i] = (max.get(i)+min.get(i))/2;
+            w[i] = (max.get(i)-min.get(i))/2;
+         }
+         for (int i=0; i<3; i++) {
+            double ci = X.p.get(i);
+            double wi = 0;
+            for (int j=0; j<3; j++) {
+               double rij = X.R.get(i,j);
+               ci += rij*c[j];
+               wi += Math.abs(rij)*w[j];
+            }
+            min.set (i, ci-wi);
+            max.set (i, ci+wi);
+         }
+      }
+      if (cb.hasDistanceGrid()) {
+         DistanceGridComp gcomp = cb.getDistanceGridComp();
+         DistanceGrid grid = (gcomp != null ? gcomp.getGridIfValid() : null);
+         if (grid != null) {
+            grid.updateBounds (min, max);
+         }
+      }
+   }
+
+   /**
+    * Check external collisions among the bodies of this manager and those of
+    * the sub-MechModels in {@code subMechs} (where the first entry is this
+    * manager's MechModel), using sweep-and-prune to restrict behavior lookup
+    * and contact detection to pairs whose world bounding boxes overlap. The
+    * pairs that are examined, and the argument order used for each, are
+    * otherwise the same as those for the corresponding calls to
+    * checkExternalCollisions().
+    */
+   void checkBroadPhaseCollisions (ArrayList<MechModel> subMechs) {
+      if (myBroadPhase == null) {
+         myBroadPhase = new SweepAndPrune();
+         myBroadPhaseBodies = new ArrayList<CollidableBody>();
+         myBroadPhaseLists = new DynamicIntArray();
+         myBroadPhasePairs = new DynamicIntArray();
+      }
+      ArrayList<CollidableBody> bodies = myBroadPhaseBodies;
+      DynamicIntArray lists = myBroadPhaseLists;
+      bodies.clear();
+      lists.clear();
+      for (int k=0; k<subMechs.size(); k++) {
+         CollisionManager cm = subMechs.get(k).getCollisionManager();
+         for (CollidableBody cb : cm.myRigidExts) {
+            bodies.add (cb);
+            lists.add (2*k);
+         }
+         for (CollidableBody cb : cm.myDeformableExts) {
+            bodies.add (cb);
+            lists.add (2*k+1);
+         }
+      }
+      myBroadPhase.setNumBoxes (bodies.size());
+      Vector3d min = new Vector3d();
+      Vector3d max = new Vector3d();
+      for (int i=0; i<bodies.size(); i++) {
+         getWorldBounds (bodies.get(i), min, max);
+         myBroadPhase.setBox (i, min, max);
+      }
+      DynamicIntArray pairs = myBroadPhasePairs;
+      int npairs = myBroadPhase.getOverlappingPairs (pairs);
+      for (int k=0; k<npairs; k++) {
+         int i = pairs.get(2*k);
+         int j = pairs.get(2*k+1);
+         int li = lists.get(i);
+         int lj = lists.get(j);
+         CollidableBody ci = bodies.get(i);
+         CollidableBody cj = bodies.get(j);
+         if (li/2 == lj/2) {
+            if (li/2 != 0) {
+               // pair is handled by the sub-MechModel's manager
+               continue;
+            }
+            if (li == lj) {
+               if (nearestCommonCollidableAncestor (ci, cj) != null) {
+                  continue;
+               }
+            }
+            else {
+               // match the argument order used for deformable-rigid pairs
+               CollidableBody tmp = ci; ci = cj; cj = tmp;
+            }
+         }
+         if (getExplicitBehavior (ci, cj) == null) {
+            CollisionBehavior behav = getExternalBehavior (ci, cj);
+            if (behav.isEnabled()) {
+               checkForContact (
+                  ci, cj, behav, BehaviorSource.EXTERNAL, /*testMode=*/false);
+            }
+         }
+      }
+   }
+
    /**
     * Check internal collisions among elements of the same component list cols
     */
@@ -2831,6 +3164,13 @@ public class CollisionManager extends RenderableCompositeBase
       myHandlerTable.saveLastConstraintData();
       //myHandlerTable.setHandlerActivity (false);
 
+      // if using multiple threads, collect candidate pairs for the
+      // concurrent narrow phase
+      myContactTasks = null;
+      if (myNumCollisionThreads > 1 && !testMode) {
+         myContactTasks = new ArrayList<ContactTask>();
+      }
+
       // compute explicit collisions
       for (Map.Entry<CollidablePair,CollisionBehavior> e :
               myExplicitBehaviors.entrySet()) {
@@ -2844,29 +3184,39 @@ public class CollisionManager extends RenderableCompositeBase
       }
       // compute implicit collisions
 
-      checkExternalCollisions (myRigidExts, testMode);
-      checkExternalCollisions (myDeformableExts, myRigidExts, testMode);
-      checkExternalCollisions (myDeformableExts, testMode);
+      if (myBroadPhaseEnabled && !testMode) {
+         checkBroadPhaseCollisions (subMechs);
+      }
+      else {
+         checkExternalCollisions (myRigidExts, testMode);
+         checkExternalCollisions (myDeformableExts, myRigidExts, testMode);
+         checkExternalCollisions (myDeformableExts, testMode);
+      }
       checkInternalCollisions (myDeformableInts, testMode);
 
-      for (int i=0; i<subMechs.size(); i++) {
-         CollisionManager cmi = null;
-         cmi = subMechs.get(i).getCollisionManager();
-         for (int j=i+1; j<subMechs.size(); j++) {
-            CollisionManager cmj = null;
-            cmj = subMechs.get(j).getCollisionManager();
-            
-            checkExternalCollisions (
-               cmi.myRigidExts, cmj.myRigidExts, testMode);
-            checkExternalCollisions (
-               cmi.myRigidExts, cmj.myDeformableExts, testMode);
-            checkExternalCollisions (
-               cmi.myDeformableExts, cmj.myRigidExts, testMode);
-            checkExternalCollisions (
-               cmi.myDeformableExts, cmj.myDeformableExts, testMode);
+      if (!myBroadPhaseEnabled || testMode) {
+         for (int i=0; i<subMechs.size(); i++) {
+            CollisionManager cmi = null;
+            cmi = subMechs.get(i).getCollisionManager();
+            for (int j=i+1; j<subMechs.size(); j++) {
+               CollisionManager cmj = null;
+               cmj = subMechs.get(j).getCollisionManager();
+
+               checkExternalCollisions (
+                  cmi.myRigidExts, cmj.myRigidExts, testMode);
+               checkExternalCollisions (
+                  cmi.myRigidExts, cmj.myDeformableExts, testMode);
+               checkExternalCollisions (
+                  cmi.myDeformableExts, cmj.myRigidExts, testMode);
+               checkExternalCollisions (
+                  cmi.myDeformableExts, cmj.myDeformableExts, testMode);
+            }
          }
       }
 
+      if (myContactTasks != null) {
+         processContactTasks();
+      }
       myHandlerTable.removeInactiveHandlers();
       myHandlerTable.collectHandlers (handlers);
 
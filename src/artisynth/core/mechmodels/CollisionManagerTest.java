@@ -1713,10 +1713,113 @@ public class CollisionManagerTest extends UnitTest {
               "                        . 2 "+ // ball
               "                          . ");// base
 
+      testBroadPhase();
+      testConcurrentNarrowPhase();
+   }
+
+   private HashSet<CollidablePair> collectContactPairs (
+      MechModel mech, boolean broadPhase) {
+      CollisionManager cm = mech.getCollisionManager();
+      cm.setBroadPhaseEnabled (broadPhase);
+      ArrayList<CollisionHandler> handlers = new ArrayList<CollisionHandler>();
+      cm.updateConstraints (handlers, 0, /*flags=*/0);
+      HashSet<CollidablePair> pairs = new HashSet<CollidablePair>();
+      for (CollisionHandler ch : handlers) {
+         pairs.add (new CollidablePair (ch.getCollidable(0), ch.getCollidable(1)));
+      }
+      return pairs;
+   }
+
+   /**
+    * Checks that enabling the broad phase does not change the set of
+    * collision handlers that are created.
+    */
+   public void testBroadPhase() {
+      MechModel mech = createMechModel ("top");
+      MechModel sub = createSubModel ("sub");
+      mech.addModel (sub);
+      // add some randomly placed boxes, a few of which will intersect
+      for (int i=0; i<20; i++) {
+         RigidBody box = RigidBody.createBox (
+            "box"+i, 0.3, 0.4, 0.5, /*density=*/1000);
+         RigidTransform3d TBW = new RigidTransform3d();
+         TBW.setRandom();
+         TBW.p.setRandom (-3, 3);
+         box.transformGeometry (TBW);
+         mech.addRigidBody (box);
+      }
+      mech.setDefaultCollisionBehavior (true, 0);
+      sub.setDefaultCollisionBehavior (true, 0);
+      mech.setCollisionBehavior (
+         (Collidable)mech.findComponent ("rigidBodies/box0"),
+         (Collidable)mech.findComponent ("rigidBodies/box1"), false);
+
+      HashSet<CollidablePair> check = collectContactPairs (mech, false);
+      HashSet<CollidablePair> pairs = collectContactPairs (mech, true);
+      if (check.size() == 0) {
+         throw new TestException ("no contacts found in broad phase test");
+      }
+      if (!check.equals (pairs)) {
+         throw new TestException (
+            "Broad phase found "+pairs.size()+" contacting pairs, expected "+
+            check.size());
+      }
+   }
+
+   /**
+    * Checks that computing contact information with multiple threads gives
+    * the same handlers and contact constraints as serial computation.
+    */
+   public void testConcurrentNarrowPhase() {
+      MechModel mech = new MechModel ("top");
+      for (int i=0; i<30; i++) {
+         RigidBody box = RigidBody.createBox (
+            "box"+i, 0.6, 0.8, 1.0, /*density=*/1000);
+         RigidTransform3d TBW = new RigidTransform3d();
+         TBW.setRandom();
+         TBW.p.setRandom (-2, 2);
+         box.transformGeometry (TBW);
+         mech.addRigidBody (box);
+      }
+      FemModel3d fem = FemFactory.createHexGrid (null, 1, 1, 1, 4, 4, 4);
+      fem.setName ("fem");
+      mech.addModel (fem);
+      mech.setDefaultCollisionBehavior (true, 0);
+      CollisionManager cm = mech.getCollisionManager();
+
+      cm.updateConstraints (0, /*flags=*/0);
+      ArrayList<CollisionHandler> check =
+         new ArrayList<CollisionHandler>(cm.myHandlers);
+      VectorNi checkSizes = new VectorNi();
+      cm.getUnilateralSizes (checkSizes);
+      
+      cm.setNumCollisionThreads (4);
+      cm.updateConstraints (0, /*flags=*/0);
+      ArrayList<CollisionHandler> handlers =
+         new ArrayList<CollisionHandler>(cm.myHandlers);
+      VectorNi sizes = new VectorNi();
+      cm.getUnilateralSizes (sizes);
+      cm.setNumCollisionThreads (1);
+
+      if (check.size() == 0) {
+         throw new TestException (
+            "no contacts found in concurrent narrow phase test");
+      }
+      if (!handlers.equals (check)) {
+         throw new TestException (
+            "Concurrent narrow phase found "+handlers.size()+
+            " handlers, expected "+check.size());
+      }
+      if (!sizes.equals (checkSizes)) {
+         throw new TestException (
+            "Concurrent narrow phase unilateral sizes "+sizes+
+            ", expected "+checkSizes);
+      }
    }
 
    public static void main (String[] args) {
       CollisionManagerTest tester = new CollisionManagerTest(); 
+      RandomGenerator.setSeed (0x1234);
       tester.runtest();
    }
 }
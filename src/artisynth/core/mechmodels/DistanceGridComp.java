@@ -14,6 +14,7 @@ import artisynth.core.modelbase.ModelComponent;
 import artisynth.core.modelbase.ScanWriteUtils;
 import artisynth.core.util.ScanToken;
 import maspack.geometry.DistanceGrid;
+import maspack.geometry.GeometryCache;
 import maspack.geometry.DistanceGridSurfCalc;
 import maspack.geometry.Feature;
 import maspack.geometry.InterpolatingGridBase;
@@ -74,6 +75,9 @@ public class DistanceGridComp extends GridCompBase {
    static boolean DEFAULT_FIT_WITH_OBB = false;
    boolean myFitWithOBB = DEFAULT_FIT_WITH_OBB;
 
+   public static int DEFAULT_NUM_BUILD_THREADS = 1;
+   int myNumBuildThreads = DEFAULT_NUM_BUILD_THREADS;
+
    static double DEFAULT_MARGIN_FRACTION = 0.1;
    double myMarginFraction = DEFAULT_MARGIN_FRACTION;
 
@@ -105,6 +109,10 @@ public class DistanceGridComp extends GridCompBase {
          "fitWithOBB", 
          "if true, grid is fitted using an oriented bounded box (OBB)",
          DEFAULT_FIT_WITH_OBB);
+      myProps.add (
+         "numBuildThreads", 
+         "number of threads used to compute the grid distances",
+         DEFAULT_NUM_BUILD_THREADS, "[1,inf]");
       myProps.add (
          "marginFraction", 
          "margin fraction used when creating a grid",
@@ -295,6 +303,32 @@ public class DistanceGridComp extends GridCompBase {
 
    // TODO get OBB coordinate frame?
 
+   /**
+    * Returns the number of threads used to compute distances when
+    * automatically constructing a grid.
+    *
+    * @return number of threads used for grid construction
+    */
+   public int getNumBuildThreads () {
+      return myNumBuildThreads;
+   }
+
+   /**
+    * Sets the number of threads used to compute distances when automatically
+    * constructing a grid. The computed distances do not depend on the number
+    * of threads, so changing this value does not cause the grid to be
+    * rebuilt.
+    *
+    * @param num number of threads used for grid construction
+    */
+   public void setNumBuildThreads (int num) {
+      if (num < 1) {
+         throw new IllegalArgumentException (
+            "Number of build threads must be at least 1");
+      }
+      myNumBuildThreads = num;
+   }
+
    /**
     * Returns the margin fraction used when automatically constructing a grid.
     *
@@ -420,11 +454,36 @@ public class DistanceGridComp extends GridCompBase {
       return myGrid;
    }
 
+   /**
+    * Returns the grid if it is currently valid, without generating it from
+    * the generating meshes otherwise.
+    */
+   DistanceGrid getGridIfValid() {
+      return myGridValidP ? myGrid : null;
+   }
+
    protected void buildGridFromMeshes (ArrayList<MeshComponent> meshes) {
 
       DistanceGrid grid = null;
 
-      if (canGenerateGrid()) {
+      String cacheKey = null;
+      if (canGenerateGrid() && GeometryCache.isEnabled()) {
+         // see if an identical grid has already been computed
+         cacheKey = GeometryCache.gridKey (
+            myPolygonalMeshes, getLocalToWorld(), myResolution,
+            myMaxResolution, myMarginFraction, myFitWithOBB);
+         grid = GeometryCache.getGrid (cacheKey, myPolygonalMeshes);
+         if (grid != null) {
+            if (myPolygonalMeshes.size() == 1) {
+               // make the closest features refer to faces of our own mesh
+               grid.replaceFeatures (myPolygonalMeshes.get(0).getFaces());
+            }
+            grid.setLocalToWorld (getLocalToWorld());
+            setRenderRanges (myRenderRanges);
+         }
+      }
+
+      if (grid == null && canGenerateGrid()) {
          
          // create the grid with the specified resolution
          int maxRes = myMaxResolution;
@@ -436,6 +495,7 @@ public class DistanceGridComp extends GridCompBase {
             // resolution will be recomputed in computeFromFeatures
             grid = new DistanceGrid (new Vector3i (1,1,1));
          }
+         grid.setNumBuildThreads (myNumBuildThreads);
                   
          // fit the grid to the faces
          ArrayList<List<? extends Feature>> faceLists = new ArrayList<>();
@@ -460,6 +520,9 @@ public class DistanceGridComp extends GridCompBase {
             grid.computeDistances (
                grid.createDistanceSurface(), /*signed=*/true);
          }
+         if (cacheKey != null) {
+            GeometryCache.putGrid (cacheKey, grid, myPolygonalMeshes);
+         }
          setRenderRanges (myRenderRanges);
          // estimate the minimum distance from the surface to the grid
          // boundary, and then mark any quad tets whose nodes have a greater
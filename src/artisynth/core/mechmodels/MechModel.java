@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
 
+import maspack.concurrency.ParallelLoop;
 import maspack.geometry.GeometryTransformer;
 import maspack.matrix.AffineTransform3dBase;
 import maspack.matrix.Matrix;
@@ -130,6 +131,11 @@ TransformableGeometry, ScalableUnits {
    protected double myRotaryLimitTol = DEFAULT_ROTARY_LIMIT_TOL;
    protected PropertyMode myRotaryLimitTolMode = PropertyMode.Inherited;
 
+   public static int DEFAULT_NUM_WRAP_THREADS = 1;
+   protected int myNumWrapThreads = DEFAULT_NUM_WRAP_THREADS;
+   // loop used for parallel multipoint spring wrap updates
+   protected ParallelLoop myWrapLoop;
+
    protected double myMaxTranslationalVel = 1e10;
    protected double myMaxRotationalVel = 1e10;
 
@@ -163,6 +169,10 @@ TransformableGeometry, ScalableUnits {
          DEFAULT_ROTARY_LIMIT_TOL);
       myProps.add("staticTikhonovFactor", "Tikhonov regularization factor for static solves", 0);
       myProps.add("staticIncrements", "Number of load increments for incremental static solves", 20);
+      myProps.add (
+         "numWrapThreads",
+         "number of threads used to update multipoint spring wrap paths",
+         DEFAULT_NUM_WRAP_THREADS, "[1,inf]");
       myProps.addInheritable (
          "excitationColor", "color of activated muscles", null);
       myProps.addInheritable (
@@ -1069,6 +1079,45 @@ TransformableGeometry, ScalableUnits {
       return 0;
    }
 
+   /**
+    * Queries the number of threads used to update the wrap paths of the
+    * {@link MultiPointSpring}s in this model.
+    *
+    * @return number of wrap update threads
+    * @see #setNumWrapThreads
+    */
+   public int getNumWrapThreads() {
+      return myNumWrapThreads;
+   }
+
+   /**
+    * Sets the number of threads used to update the wrap paths of the {@link
+    * MultiPointSpring}s contained locally in this model, which is done at
+    * the end of each time step. The default value of 1 results in serial
+    * computation. For larger values, postadvance is still performed for the
+    * components in their usual order, except that each run of consecutive
+    * springs that do not override {@link MultiPointSpring#postadvance} is
+    * updated concurrently using {@link
+    * MultiPointSpring#updateWrapSegments(List,ParallelLoop)}, with each
+    * spring handled by a single thread.
+    *
+    * @param nthreads number of wrap update threads
+    * @see #getNumWrapThreads
+    */
+   public void setNumWrapThreads (int nthreads) {
+      if (nthreads < 1) {
+         throw new IllegalArgumentException (
+            "number of threads must be at least 1; got "+nthreads);
+      }
+      if (nthreads != myNumWrapThreads) {
+         myNumWrapThreads = nthreads;
+         if (myWrapLoop != null) {
+            myWrapLoop.shutdown();
+            myWrapLoop = null;
+         }
+      }
+   }
+
    public PointList<Particle> particles() {
       return myParticles;
    }
@@ -1927,11 +1976,47 @@ TransformableGeometry, ScalableUnits {
          m.recursivelyFinalizeAdvance (stepAdjust, t0, t1, flags, level+1);
       }
       updateLocalAdvanceComponents();
-      for (RequiresPrePostAdvance c : myLocalPrePostAdvanceComps) {
-         c.postadvance (t0, t1, flags);
+      if (myNumWrapThreads > 1) {
+         // consecutive springs with the default postadvance behavior are
+         // batched and updated in parallel
+         ArrayList<MultiPointSpring> springs = new ArrayList<>();
+         for (RequiresPrePostAdvance c : myLocalPrePostAdvanceComps) {
+            if (c instanceof MultiPointSpring &&
+                !((MultiPointSpring)c).overridesPostadvance()) {
+               springs.add ((MultiPointSpring)c);
+            }
+            else {
+               postadvanceWrapSprings (springs, t0, t1, flags);
+               c.postadvance (t0, t1, flags);
+            }
+         }
+         postadvanceWrapSprings (springs, t0, t1, flags);
+      }
+      else {
+         for (RequiresPrePostAdvance c : myLocalPrePostAdvanceComps) {
+            c.postadvance (t0, t1, flags);
+         }
       }
    }
 
+   /**
+    * Performs postadvance for a batch of springs, in parallel if there is
+    * more than one, and then clears the batch.
+    */
+   private void postadvanceWrapSprings (
+      ArrayList<MultiPointSpring> springs, double t0, double t1, int flags) {
+      if (springs.size() > 1) {
+         if (myWrapLoop == null) {
+            myWrapLoop = new ParallelLoop ("wrap", myNumWrapThreads);
+         }
+         MultiPointSpring.updateWrapSegments (springs, myWrapLoop);
+      }
+      else if (springs.size() == 1) {
+         springs.get(0).postadvance (t0, t1, flags);
+      }
+      springs.clear();
+   }
+
    public void recursivelyInitialize (double t, int level) {
       // Local initialization should cause excitations of ExcitationComponents
       // to be zeroed at t = 0. Note that inputProbe.setState should do that
@@ -2333,6 +2418,10 @@ TransformableGeometry, ScalableUnits {
    public void dispose() {
       recursivelyDispose (this);
       mySolver.dispose();
+      if (myWrapLoop != null) {
+         myWrapLoop.shutdown();
+         myWrapLoop = null;
+      }
    }
 
    // ForceEffector that implements gravity for MechModels
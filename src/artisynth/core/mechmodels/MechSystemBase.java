@@ -122,6 +122,18 @@ public abstract class MechSystemBase extends RenderableModelBase
       DEFAULT_USE_IMPLICIT_FRICTION;
    protected boolean myUseImplicitFriction = myDefaultUseImplicitFriction;
 
+   public static boolean DEFAULT_MODIFIED_NEWTON = false;
+   protected static boolean myDefaultModifiedNewton = DEFAULT_MODIFIED_NEWTON;
+   protected boolean myModifiedNewton = myDefaultModifiedNewton;
+
+   public static boolean DEFAULT_WARM_START_CONTACTS = false;
+   protected boolean myWarmStartContacts = DEFAULT_WARM_START_CONTACTS;
+
+   public static boolean DEFAULT_TREE_SOLVE = false;
+   protected boolean myTreeSolve = DEFAULT_TREE_SOLVE;
+
+   protected static boolean myDefaultSolverProfiling = false;
+
    protected boolean myInsideAdvanceP = false;
    protected double myAvgSolveTime;
    protected StepAdjustment myStepAdjust;
@@ -242,6 +254,18 @@ public abstract class MechSystemBase extends RenderableModelBase
       myProps.add (
          "useImplicitFriction", "combine friction with implicit integration",
          DEFAULT_USE_IMPLICIT_FRICTION);
+      myProps.add (
+         "modifiedNewton",
+         "reuse KKT factorizations between implicit solves when possible",
+         DEFAULT_MODIFIED_NEWTON);
+      myProps.add (
+         "warmStartContacts",
+         "seed contact solves with the contact state of the previous step",
+         DEFAULT_WARM_START_CONTACTS);
+      myProps.add (
+         "treeSolve",
+         "use linear-time solves for tree-structured systems when possible",
+         DEFAULT_TREE_SOLVE);
          
 
    }
@@ -277,6 +301,9 @@ public abstract class MechSystemBase extends RenderableModelBase
       setMatrixSolver (myDefaultMatrixSolver);
       setIntegrator (DEFAULT_INTEGRATOR);
       setUseImplicitFriction (DEFAULT_USE_IMPLICIT_FRICTION);
+      setModifiedNewton (myDefaultModifiedNewton);
+      setWarmStartContacts (DEFAULT_WARM_START_CONTACTS);
+      setTreeSolve (DEFAULT_TREE_SOLVE);
    }
 
    public boolean getDynamicsEnabled() {
@@ -298,6 +325,12 @@ public abstract class MechSystemBase extends RenderableModelBase
          mySolver.setIntegrator (getIntegrator());
          mySolver.setMatrixSolver (getMatrixSolver());
          mySolver.setUseImplicitFriction (getUseImplicitFriction());
+         mySolver.setModifiedNewton (getModifiedNewton());
+         mySolver.setWarmStartContacts (getWarmStartContacts());
+         mySolver.setTreeSolve (getTreeSolve());
+         if (myDefaultSolverProfiling) {
+            mySolver.setProfiler (new SolverProfiler());
+         }
       }
    }
 
@@ -1641,6 +1674,150 @@ public abstract class MechSystemBase extends RenderableModelBase
       myDefaultUseImplicitFriction = enable;
    }
 
+   /**
+    * Queries whether the solver reuses KKT factorizations between implicit
+    * solves. See {@link #setModifiedNewton}.
+    *
+    * @return {@code true} if factorizations are reused
+    */
+   public boolean getModifiedNewton () {
+      return myModifiedNewton;
+   }
+
+   /**
+    * Sets whether the solver reuses KKT factorizations between implicit
+    * solves, as a modified-Newton matrix, refactoring only when the system
+    * structure changes or the reused factorization fails to give a
+    * sufficiently accurate solution. This can substantially reduce solve
+    * times for models whose stiffness changes slowly, such as quasi-static
+    * soft tissue simulations. The resulting refactorization rate can be
+    * monitored using the solver profiler.
+    *
+    * @param enable if {@code true}, enables factorization reuse
+    * @see MechSystemSolver#setModifiedNewton
+    */
+   public void setModifiedNewton (boolean enable) {
+      myModifiedNewton = enable;
+      if (mySolver != null) {
+         mySolver.setModifiedNewton (enable);
+      }
+   }
+
+   public static boolean getDefaultModifiedNewton () {
+      return myDefaultModifiedNewton;
+   }
+
+   /**
+    * Sets whether factorization reuse is enabled by default for newly
+    * created systems.
+    *
+    * @param enable if {@code true}, enables factorization reuse by default
+    */
+   public static void setDefaultModifiedNewton (boolean enable) {
+      myDefaultModifiedNewton = enable;
+   }
+
+   /**
+    * Queries whether contact solves are warm-started. See {@link
+    * #setWarmStartContacts}.
+    *
+    * @return {@code true} if contact solves are warm-started
+    */
+   public boolean getWarmStartContacts () {
+      return myWarmStartContacts;
+   }
+
+   /**
+    * Sets whether the solver warm-starts contact solves, using the LCP
+    * states of the contacts that persist from the previous step as the
+    * initial pivot state. In resting contact, where most contacts are
+    * unchanged between steps, this greatly reduces the number of pivots.
+    * Pivot and iteration counts can be monitored using {@link
+    * MechSystemSolver#getNumContactPivots} and {@link
+    * MechSystemSolver#getNumContactIterations}.
+    *
+    * @param enable if {@code true}, enables contact warm starts
+    * @see MechSystemSolver#setWarmStartContacts
+    */
+   public void setWarmStartContacts (boolean enable) {
+      myWarmStartContacts = enable;
+      if (mySolver != null) {
+         mySolver.setWarmStartContacts (enable);
+      }
+   }
+
+   /**
+    * Queries whether the solver uses linear-time solves for tree-structured
+    * systems. See {@link #setTreeSolve}.
+    *
+    * @return {@code true} if tree-structured solves are enabled
+    */
+   public boolean getTreeSolve () {
+      return myTreeSolve;
+   }
+
+   /**
+    * Sets whether the solver uses linear-time solves for systems whose
+    * bodies are connected by joints into open chains or trees, such as
+    * spines, hands and other skeletal models. Such systems are solved by
+    * block elimination along the joint tree, avoiding a general sparse
+    * factorization. The solver automatically falls back to the general
+    * solver at steps where the system is not tree-structured, such as when
+    * it contains closed kinematic loops, contacts or joint limits, or
+    * force effectors that couple bodies that are not directly jointed.
+    *
+    * @param enable if {@code true}, enables tree-structured solves
+    * @see MechSystemSolver#setTreeSolve
+    */
+   public void setTreeSolve (boolean enable) {
+      myTreeSolve = enable;
+      if (mySolver != null) {
+         mySolver.setTreeSolve (enable);
+      }
+   }
+
+   /**
+    * Returns the profiler recording the time spent in each phase of this
+    * system's solver steps, or {@code null} if solver profiling is not
+    * enabled.
+    *
+    * @return solver profiler, or {@code null}
+    */
+   public SolverProfiler getSolverProfiler() {
+      return mySolver != null ? mySolver.getProfiler() : null;
+   }
+
+   /**
+    * Enables or disables profiling of this system's solver steps. When
+    * enabled, the results are available from {@link #getSolverProfiler}.
+    *
+    * @param enable if {@code true}, enables solver profiling
+    */
+   public void setSolverProfilingEnabled (boolean enable) {
+      if (mySolver != null) {
+         if (enable && mySolver.getProfiler() == null) {
+            mySolver.setProfiler (new SolverProfiler());
+         }
+         else if (!enable) {
+            mySolver.setProfiler (null);
+         }
+      }
+   }
+
+   public static boolean getDefaultSolverProfiling () {
+      return myDefaultSolverProfiling;
+   }
+
+   /**
+    * Sets whether solver profiling is enabled by default for newly created
+    * systems.
+    *
+    * @param enable if {@code true}, enables solver profiling by default
+    */
+   public static void setDefaultSolverProfiling (boolean enable) {
+      myDefaultSolverProfiling = enable;
+   }
+
    public Integrator getIntegrator () {
       return myIntegrator;
    }
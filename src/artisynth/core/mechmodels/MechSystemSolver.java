@@ -42,6 +42,8 @@ import maspack.solvers.IterativeSolver.ToleranceType;
 import maspack.solvers.KKTSolver;
 import maspack.solvers.PardisoSolver;
 import maspack.solvers.UmfpackSolver;
+import maspack.solvers.SparseLDLTSolver;
+import maspack.solvers.TreeKKTSolver;
 import maspack.solvers.LCPSolver;
 import maspack.solvers.SparseSolverId;
 import maspack.solvers.MurtyMechSolver;
@@ -188,6 +190,36 @@ public class MechSystemSolver {
    public static boolean profileConstraintSolves = false;
    private boolean myHybridSolveP = false;
 
+   // modified-Newton reuse of KKT factorizations
+   public static double DEFAULT_MODIFIED_NEWTON_TOL = 1e-8;
+   public static int DEFAULT_MODIFIED_NEWTON_MAX_ITERS = 10;
+   private boolean myModifiedNewtonP = false;
+   private double myModifiedNewtonTol = DEFAULT_MODIFIED_NEWTON_TOL;
+   private int myModifiedNewtonMaxIters = DEFAULT_MODIFIED_NEWTON_MAX_ITERS;
+   private long myNumKKTFactors = 0;
+   private long myNumKKTReuses = 0;
+
+   // warm starting of contact solves
+   private boolean myWarmStartContactsP = false;
+   private long myNumContactSolves = 0;
+   private long myNumWarmContactSolves = 0;
+   private long myNumContactPivots = 0;
+   private long myNumContactIters = 0;
+   // contact states used to seed warm-started LCP solves
+   private VectorNi myWarmStateN = new VectorNi(0);
+   // true if the last KKT solve reused an out-of-date factorization
+   private boolean myKKTFactorReused = false;
+
+   // linear-time solves for tree-structured systems
+   private boolean myTreeSolveP = false;
+   private TreeKKTSolver myTreeSolver;
+   private long myNumTreeSolves = 0;
+   // true if the last KKT solve was done by the tree solver
+   private boolean myKKTTreeSolved = false;
+   // true if the KKT solver analysis was deferred because the tree solver
+   // was tried first
+   private boolean myKKTAnalyzePending = false;
+
    int myStateSizeVersion = -1;
    int myParametricPosSize = 0;
    int myParametricVelSize = 0;
@@ -204,6 +236,8 @@ public class MechSystemSolver {
    FunctionTimer mySolveTimer = new FunctionTimer();
    int mySolveCnt = 0;
 
+   SolverProfiler myProfiler = null;
+
    VectorNd myVel = new VectorNd();
    //VectorNd myPos = new VectorNd();
 
@@ -290,6 +324,253 @@ public class MechSystemSolver {
       }
    }
 
+   /**
+    * Queries whether modified-Newton solves are enabled. See {@link
+    * #setModifiedNewton}.
+    *
+    * @return {@code true} if modified-Newton solves are enabled
+    */
+   public boolean getModifiedNewton () {
+      return myModifiedNewtonP;
+   }
+
+   /**
+    * Enables or disables modified-Newton solves for the implicit
+    * integrators. When enabled, KKT systems containing no unilateral
+    * constraints are first solved by reusing the most recent numeric
+    * factorization, with iterative refinement against the current system
+    * matrix. The system is refactored only if this fails to reach the
+    * relative residual given by {@link #getModifiedNewtonTol} within {@link
+    * #getModifiedNewtonMaxIters} corrections, or if the structure of the
+    * system or constraint matrices has changed. The number of
+    * factorizations and reused solves are available from {@link
+    * #getNumKKTFactorizations} and {@link #getNumKKTReusedSolves}, and are
+    * also recorded by the profiler, if present.
+    *
+    * @param enable if {@code true}, enables modified-Newton solves
+    */
+   public void setModifiedNewton (boolean enable) {
+      myModifiedNewtonP = enable;
+   }
+
+   /**
+    * Returns the relative residual tolerance for modified-Newton solves.
+    *
+    * @return modified-Newton tolerance
+    */
+   public double getModifiedNewtonTol () {
+      return myModifiedNewtonTol;
+   }
+
+   /**
+    * Sets the relative residual tolerance for modified-Newton solves. A
+    * solve that reuses a previous factorization is accepted if the residual
+    * norm of the current system is within this tolerance times the norm of
+    * the right hand side.
+    *
+    * @param tol modified-Newton tolerance
+    */
+   public void setModifiedNewtonTol (double tol) {
+      myModifiedNewtonTol = tol;
+   }
+
+   /**
+    * Returns the maximum number of refinement corrections for
+    * modified-Newton solves.
+    *
+    * @return maximum number of corrections
+    */
+   public int getModifiedNewtonMaxIters () {
+      return myModifiedNewtonMaxIters;
+   }
+
+   /**
+    * Sets the maximum number of refinement corrections for modified-Newton
+    * solves, after which the system is refactored.
+    *
+    * @param max maximum number of corrections
+    */
+   public void setModifiedNewtonMaxIters (int max) {
+      myModifiedNewtonMaxIters = max;
+   }
+
+   /**
+    * Returns the number of numeric KKT factorizations performed by the
+    * implicit integrators since this solver was created or the counts were
+    * last reset.
+    *
+    * @return number of KKT factorizations
+    */
+   public long getNumKKTFactorizations() {
+      return myNumKKTFactors;
+   }
+
+   /**
+    * Returns the number of KKT solves performed by reusing a previous
+    * factorization since this solver was created or the counts were last
+    * reset.
+    *
+    * @return number of reused factorization solves
+    */
+   public long getNumKKTReusedSolves() {
+      return myNumKKTReuses;
+   }
+
+   /**
+    * Resets the counts returned by {@link #getNumKKTFactorizations} and
+    * {@link #getNumKKTReusedSolves}.
+    */
+   public void resetKKTCounts() {
+      myNumKKTFactors = 0;
+      myNumKKTReuses = 0;
+      myNumTreeSolves = 0;
+   }
+
+   /**
+    * Queries whether contact solves are warm-started. See {@link
+    * #setWarmStartContacts}.
+    *
+    * @return {@code true} if contact solves are warm-started
+    */
+   public boolean getWarmStartContacts () {
+      return myWarmStartContactsP;
+   }
+
+   /**
+    * Enables or disables warm-starting of the contact LCP solves performed
+    * by the implicit integrators when implicit friction is not used. When
+    * enabled, the LCP states of the unilateral contacts, which are retained
+    * by contacts that persist between steps, are used as the initial pivot
+    * state for a principal pivoting solver. If this fails to find a
+    * solution, the LCP is resolved from scratch. When disabled, the
+    * contact LCP is solved from scratch, as before, and the contact states
+    * are neither read nor updated. (Solves using implicit friction are
+    * always seeded from the contact states, but are only counted as
+    * warm-started when this property is enabled.) Solve, pivot and
+    * iteration counts are available from {@link #getNumContactSolves},
+    * {@link #getNumContactPivots} and {@link #getNumContactIterations}.
+    *
+    * @param enable if {@code true}, enables contact warm starts
+    */
+   public void setWarmStartContacts (boolean enable) {
+      myWarmStartContactsP = enable;
+   }
+
+   /**
+    * Queries whether tree-structured KKT solves are enabled. See {@link
+    * #setTreeSolve}.
+    *
+    * @return {@code true} if tree-structured solves are enabled
+    */
+   public boolean getTreeSolve () {
+      return myTreeSolveP;
+   }
+
+   /**
+    * Enables or disables tree-structured KKT solves for the implicit
+    * integrators. When enabled, KKT systems containing no unilateral
+    * constraints are checked to see if their block structure is a tree,
+    * which is the case for bodies connected by joints into open chains or
+    * branching trees (such as skeletons), with no closed loops and no
+    * force coupling between bodies that are not directly jointed. Such
+    * systems are solved by {@link TreeKKTSolver}, in time that is linear in
+    * the number of bodies, instead of by a general sparse factorization.
+    * Otherwise, or if the tree factorization fails, the system is solved
+    * using the regular KKT solver. The number of tree-structured solves is
+    * available from {@link #getNumTreeSolves}.
+    *
+    * @param enable if {@code true}, enables tree-structured solves
+    */
+   public void setTreeSolve (boolean enable) {
+      myTreeSolveP = enable;
+   }
+
+   /**
+    * Returns the number of KKT solves performed by the tree solver since
+    * this solver was created or the counts were last reset.
+    *
+    * @return number of tree-structured solves
+    */
+   public long getNumTreeSolves() {
+      return myNumTreeSolves;
+   }
+
+   /**
+    * Returns the number of contact LCP solves performed since this solver
+    * was created or the counts were last reset.
+    *
+    * @return number of contact solves
+    */
+   public long getNumContactSolves() {
+      return myNumContactSolves;
+   }
+
+   /**
+    * Returns the number of contact LCP solves that were successfully
+    * warm-started since this solver was created or the counts were last
+    * reset.
+    *
+    * @return number of warm-started contact solves
+    */
+   public long getNumWarmStartedContactSolves() {
+      return myNumWarmContactSolves;
+   }
+
+   /**
+    * Returns the total number of pivots used by contact LCP solves since
+    * this solver was created or the counts were last reset.
+    *
+    * @return number of contact pivots
+    */
+   public long getNumContactPivots() {
+      return myNumContactPivots;
+   }
+
+   /**
+    * Returns the total number of iterations used by contact LCP solves
+    * since this solver was created or the counts were last reset.
+    *
+    * @return number of contact iterations
+    */
+   public long getNumContactIterations() {
+      return myNumContactIters;
+   }
+
+   /**
+    * Resets the counts returned by {@link #getNumContactSolves}, {@link
+    * #getNumWarmStartedContactSolves}, {@link #getNumContactPivots} and
+    * {@link #getNumContactIterations}.
+    */
+   public void resetContactSolveCounts() {
+      myNumContactSolves = 0;
+      myNumWarmContactSolves = 0;
+      myNumContactPivots = 0;
+      myNumContactIters = 0;
+   }
+
+   private void countContactSolve (int pivots, int iters, boolean warm) {
+      myNumContactSolves++;
+      myNumContactPivots += pivots;
+      myNumContactIters += iters;
+      if (warm) {
+         myNumWarmContactSolves++;
+      }
+   }
+
+   private void countKKTFactorization() {
+      myNumKKTFactors++;
+      if (myProfiler != null) {
+         myProfiler.countFactorization();
+      }
+   }
+
+   private void countKKTReusedSolve() {
+      myNumKKTReuses++;
+      if (myProfiler != null) {
+         myProfiler.countReusedSolve();
+      }
+   }
+
    public boolean getUseImplicitFriction () {
       return myUseImplicitFriction;
    }
@@ -308,6 +589,7 @@ public class MechSystemSolver {
 
    PardisoSolver myPardisoSolver;
    UmfpackSolver myUmfpackSolver;
+   SparseLDLTSolver mySparseLDLTSolver;
    KKTSolver myKKTSolver;
    KKTSolver myConSolver;
    KKTSolver myStaticSolver;
@@ -547,7 +829,8 @@ public class MechSystemSolver {
       if (solver != myMatrixSolver) {
          switch (solver) {
             case Pardiso: 
-            case Umfpack: {
+            case Umfpack: 
+            case SparseLDLT: {
                break;
             }
             default: {
@@ -576,19 +859,24 @@ public class MechSystemSolver {
     */   
    private void updateSolver () {
       switch (myMatrixSolver) {
-         case Pardiso: {
-            if (myPardisoSolver == null) {
-               myPardisoSolver = new PardisoSolver();
+         case Pardiso:
+         case Umfpack:
+         case SparseLDLT: {
+            // SparseLDLT only handles symmetric matrices, so a native solver
+            // is used instead if the solve matrix is not symmetric
+            SparseSolverId type = myMatrixSolver.getCompatibleDirectSolver (
+               mySys.getSolveMatrixType());
+            if (type == null) {
+               throw new UnsupportedOperationException (
+                  "Matrix solver "+myMatrixSolver+" requires a symmetric "+
+                  "solve matrix, and neither Pardiso nor Umfpack are available");
             }
-            myDirectSolver = myPardisoSolver;
-            myUseDirectSolver = true;
-            break;
-         }
-         case Umfpack: {
-            if (myUmfpackSolver == null) {
-               myUmfpackSolver = new UmfpackSolver();
+            DirectSolver solver = getDirectSolver (type);
+            if (myDirectSolver != null && solver != myDirectSolver) {
+               // new solver needs to be analyzed
+               myRegSolveMatrixVersion = -1;
             }
-            myDirectSolver = myUmfpackSolver;
+            myDirectSolver = solver;
             myUseDirectSolver = true;
             break;
          }
@@ -606,6 +894,37 @@ public class MechSystemSolver {
       }
    }
 
+   /**
+    * Returns the direct solver for the indicated type, creating it if
+    * necessary.
+    */
+   private DirectSolver getDirectSolver (SparseSolverId type) {
+      switch (type) {
+         case Pardiso: {
+            if (myPardisoSolver == null) {
+               myPardisoSolver = new PardisoSolver();
+            }
+            return myPardisoSolver;
+         }
+         case Umfpack: {
+            if (myUmfpackSolver == null) {
+               myUmfpackSolver = new UmfpackSolver();
+            }
+            return myUmfpackSolver;
+         }
+         case SparseLDLT: {
+            if (mySparseLDLTSolver == null) {
+               mySparseLDLTSolver = new SparseLDLTSolver();
+            }
+            return mySparseLDLTSolver;
+         }
+         default: {
+            throw new InternalErrorException (
+               "Solver " + type + " is not a direct solver");
+         }
+      }
+   }
+
    // public boolean isPardisoAvailable () {
    //    return PardisoSolver.isAvailable();
    // }
@@ -662,9 +981,15 @@ public class MechSystemSolver {
    public MechSystemSolver (MechSystem system, MechSystemSolver solver) {
       this (system);
       setHybridSolve (solver.getHybridSolve());
+      setModifiedNewton (solver.getModifiedNewton());
+      setModifiedNewtonTol (solver.getModifiedNewtonTol());
+      setModifiedNewtonMaxIters (solver.getModifiedNewtonMaxIters());
+      setWarmStartContacts (solver.getWarmStartContacts());
+      setTreeSolve (solver.getTreeSolve());
       setIntegrator (solver.getIntegrator());
       setMatrixSolver (solver.getMatrixSolver());
       setUseImplicitFriction (solver.getUseImplicitFriction());
+      setProfiler (solver.getProfiler());
    }
 
    public void nonDynamicSolve (double t0, double t1, StepAdjustment stepAdjust) {
@@ -686,6 +1011,9 @@ public class MechSystemSolver {
       if (profileWholeSolve) {
          mySolveTimer.restart();
       }
+      if (myProfiler != null) {
+         myProfiler.beginStep (t0, t1);
+      }
       updateStateSizes();
       updateMassMatrix (t0);
       setParametricTargets (1, t1-t0);
@@ -747,6 +1075,9 @@ public class MechSystemSolver {
          updateActiveForces (t0, t1);
          computeParametricForces(t1-t0);
       }
+      if (myProfiler != null) {
+         myProfiler.endStep();
+      }
       if (profileWholeSolve) {
          mySolveTimer.stop();
          mySolveCnt++;
@@ -770,7 +1101,7 @@ public class MechSystemSolver {
       myQ.setSize (posSize);
       myDqdt.setSize (posSize);
 
-      mySys.updateForces (t0);
+      updateSysForces (t0);
       updateInverseMassMatrix (t0);
 
       mySys.getActiveVelState (myU);
@@ -783,7 +1114,7 @@ public class MechSystemSolver {
       myU.scaledAdd (h, myDudt, myU);
       mySys.setActiveVelState (myU);         
 
-      mySys.updateConstraints (t0, null, MechSystem.UPDATE_CONTACTS);
+      updateSysConstraints (t0, null, MechSystem.UPDATE_CONTACTS);
       applyVelCorrection (myU, t0, t1);
 
       applyPosCorrection (
@@ -819,7 +1150,7 @@ public class MechSystemSolver {
       myQ.setSize (posSize);
       myDqdt.setSize (posSize);
 
-      mySys.updateForces (t0);
+      updateSysForces (t0);
       updateInverseMassMatrix (t0);
 
       mySys.getActiveVelState (myU);
@@ -830,7 +1161,7 @@ public class MechSystemSolver {
       myU.scaledAdd (h, myDudt, myU);
       mySys.setActiveVelState (myU);
 
-      mySys.updateConstraints (t0, null, MechSystem.UPDATE_CONTACTS);
+      updateSysConstraints (t0, null, MechSystem.UPDATE_CONTACTS);
       
       applyVelCorrection (myU, t0, t1);
 
@@ -851,8 +1182,8 @@ public class MechSystemSolver {
       myU.setSize (velSize);
       myQ.setSize (posSize);
 
-      mySys.updateConstraints (t0, null, MechSystem.UPDATE_CONTACTS);
-      mySys.updateForces (t0);
+      updateSysConstraints (t0, null, MechSystem.UPDATE_CONTACTS);
+      updateSysForces (t0);
 
       mySys.getActiveVelState (myU);
       mySys.getActiveForces (myF);
@@ -890,7 +1221,7 @@ public class MechSystemSolver {
       myDqdt.setSize (posSize);
       myDqdtAvg.setSize (posSize);
 
-      mySys.updateForces (t0);
+      updateSysForces (t0);
 
       mySys.getActivePosState (myQ);
       mySys.getActiveVelState (myU);
@@ -908,7 +1239,7 @@ public class MechSystemSolver {
       mySys.setActiveVelState (myUtmp);
       updateMassMatrix (-1);
       updateInverseMassMatrix (-1);
-      mySys.updateForces (th);
+      updateSysForces (th);
 
       mySys.getActivePosDerivative (myDqdt, th);
       getActiveVelDerivative (myDudt, myF);
@@ -926,7 +1257,7 @@ public class MechSystemSolver {
 
       updateMassMatrix (-1);
       updateInverseMassMatrix (-1);
-      mySys.updateForces (th);
+      updateSysForces (th);
 
       mySys.getActivePosDerivative (myDqdt, th);
       getActiveVelDerivative (myDudt, myF);
@@ -946,7 +1277,7 @@ public class MechSystemSolver {
       mySys.setActiveVelState (myUtmp);
       updateMassMatrix (-1);
       updateInverseMassMatrix (-1);
-      mySys.updateForces (t1);
+      updateSysForces (t1);
 
       mySys.getActivePosDerivative (myDqdt, t1);
       getActiveVelDerivative (myDudt, myF);
@@ -964,13 +1295,59 @@ public class MechSystemSolver {
 
       mySys.setActivePosState (myQtmp);
       mySys.setActiveVelState (myUtmp);         
-      mySys.updateConstraints (t1, null, MechSystem.UPDATE_CONTACTS);
+      updateSysConstraints (t1, null, MechSystem.UPDATE_CONTACTS);
 
       applyVelCorrection (myUtmp, t0, t1);
       applyPosCorrection (
          myQtmp, myUtmp, t1, stepAdjust);
    }
 
+   /**
+    * Returns the profiler used to record the time spent in each phase of a
+    * step, or {@code null} if profiling is not enabled.
+    *
+    * @return solver profiler, or {@code null}
+    */
+   public SolverProfiler getProfiler() {
+      return myProfiler;
+   }
+
+   /**
+    * Sets a profiler to record the time spent in each phase of a step.
+    * Specifying {@code null} disables profiling.
+    *
+    * @param profiler solver profiler, or {@code null}
+    */
+   public void setProfiler (SolverProfiler profiler) {
+      myProfiler = profiler;
+   }
+
+   private void profileStart (SolverProfiler.Phase phase) {
+      if (myProfiler != null) {
+         myProfiler.startPhase (phase);
+      }
+   }
+
+   private void profileStop (SolverProfiler.Phase phase) {
+      if (myProfiler != null) {
+         myProfiler.stopPhase (phase);
+      }
+   }
+
+   private void updateSysForces (double t) {
+      profileStart (SolverProfiler.Phase.FORCES);
+      mySys.updateForces (t);
+      profileStop (SolverProfiler.Phase.FORCES);
+   }
+
+   private boolean updateSysConstraints (
+      double t, StepAdjustment stepAdjust, int flags) {
+      profileStart (SolverProfiler.Phase.COLLISIONS);
+      boolean hasConstraints = mySys.updateConstraints (t, stepAdjust, flags);
+      profileStop (SolverProfiler.Phase.COLLISIONS);
+      return hasConstraints;
+   }
+
    private void timerStart (FunctionTimer timer) {
       timer.start();
    }
@@ -1075,7 +1452,7 @@ public class MechSystemSolver {
       myQ.setSize (posSize);
       myDqdt.setSize (posSize);
 
-      mySys.updateForces (t1);
+      updateSysForces (t1);
 
       // b = M v
       mySys.getActiveVelState (myU);
@@ -1141,7 +1518,7 @@ public class MechSystemSolver {
       }
 
       mySys.setActiveVelState (myU); 
-      mySys.updateConstraints (t1, null, MechSystem.UPDATE_CONTACTS);
+      updateSysConstraints (t1, null, MechSystem.UPDATE_CONTACTS);
 
       applyVelCorrection (myU, t0, t1);
       mySys.getActivePosState (myQ);
@@ -1531,6 +1908,7 @@ public class MechSystemSolver {
       myC.setSize (S.rowSize());
       myC.setZero();
 
+      profileStart (SolverProfiler.Phase.FORCES);
       mySys.addVelJacobian (S, myC, a0);
       //System.out.println ("myC=" + myC);
       //printEigenValues (S, velSize, "VEL:\n", "%8.2e");
@@ -1566,6 +1944,7 @@ public class MechSystemSolver {
             btmp, myUpar, 0, velSize, velSize, myParametricVelSize);
          bf.sub (btmp);
       }
+      profileStop (SolverProfiler.Phase.FORCES);
       
       VectorNd ff = new VectorNd();
 
@@ -1585,6 +1964,7 @@ public class MechSystemSolver {
          timerStopStart ("    KKT solve: build matrix", myKKTTimer);
       }     
 
+      profileStart (SolverProfiler.Phase.CONSTRAINTS);
       updateBilateralConstraints ();
 
       if (myKKTGTVersion != getGTVersion()) {
@@ -1625,12 +2005,15 @@ public class MechSystemSolver {
       // convert forces to impulses:
       myLam.scale (h);
       myThe.scale (h);
+      profileStop (SolverProfiler.Phase.CONSTRAINTS);
 
       if (myUseImplicitFriction) {
+         profileStart (SolverProfiler.Phase.FRICTION);
          updateFrictionConstraints (h, /*prune=*/false);
          // XXX set friction offsets?
          mySys.getFrictionForces (myPhi);
          myPhi.scale (h);
+         profileStop (SolverProfiler.Phase.FRICTION);
       }
 
       if (profileKKTSolveTime) {
@@ -1673,6 +2056,7 @@ public class MechSystemSolver {
                timerStart (myKKTTimer);
             }
             myMurtySolverTimer.restart();
+            profileStart (SolverProfiler.Phase.KKT_SOLVE);
             // get state
             int sizeN = (myNT != null ? myNT.colSize() : 0);
             int sizeD = (myDT != null ? myDT.colSize() : 0);
@@ -1686,6 +2070,9 @@ public class MechSystemSolver {
                myNT, myRn, myBn, stateN, myDT, myRd, myBd, stateD,
                myFrictionInfo, myFrictionIters, contactSolverFlags); 
             checkContactSolverPivots();
+            countContactSolve (
+               myMurtySolver.getPivotCount(),
+               myMurtySolver.getIterationCount(), myWarmStartContactsP);
             // System.out.println (
             //    "state out: " + LCPSolver.stateToString (state));
             // System.out.println (
@@ -1698,6 +2085,7 @@ public class MechSystemSolver {
             }
             mySys.setUnilateralState (stateN, 0);
             setFrictionState (stateD, 0);                   
+            profileStop (SolverProfiler.Phase.KKT_SOLVE);
             if (profileKKTSolveTime|profileImplicitFriction) {
                timerStop ("    KKT solve: contact solve", myKKTTimer);
             }
@@ -1725,22 +2113,62 @@ public class MechSystemSolver {
             //showContactSolverTiming();
          }
          else {
+            boolean treeSolve = (myTreeSolveP && myNT.colSize() == 0);
             if (analyze) {
-               if (profileKKTSolveTime|profileImplicitFriction) {
-                  timerStart (myKKTTimer);
+               if (treeSolve) {
+                  // defer the analysis, which is not needed if the tree
+                  // solver succeeds
+                  myKKTAnalyzePending = true;
                }
-               myKKTSolver.analyze (
-                  S, velSize, myGT, myRg, mySys.getSolveMatrixType());
-               if (profileKKTSolveTime|profileImplicitFriction) {
-                  timerStop ("    KKT solve: analyze", myKKTTimer);
+               else {
+                  analyzeKKTSystem (S, velSize);
+               }
+            }
+            boolean solved = false;
+            myKKTTreeSolved = false;
+            if (treeSolve) {
+               profileStart (SolverProfiler.Phase.KKT_SOLVE);
+               solved = treeFactorAndSolve (S, velSize, vel, bf, analyze);
+               profileStop (SolverProfiler.Phase.KKT_SOLVE);
+               myKKTTreeSolved = solved;
+            }
+            if (!solved && myKKTAnalyzePending) {
+               analyzeKKTSystem (S, velSize);
+               // the current factorization, if any, is out of date
+               analyze = true;
+            }
+            if (!solved && myModifiedNewtonP && !analyze &&
+                myNT.colSize() == 0 && myKKTSolver.isFactored()) {
+               // try to reuse the previous factorization
+               profileStart (SolverProfiler.Phase.KKT_SOLVE);
+               solved = myKKTSolver.solveWithCurrentFactor (
+                  S, velSize, myGT, myRg, vel, myLam, bf, myBg,
+                  myModifiedNewtonTol, myModifiedNewtonMaxIters);
+               profileStop (SolverProfiler.Phase.KKT_SOLVE);
+               if (solved) {
+                  countKKTReusedSolve();
                }
             }
-            if (myHybridSolveP && !analyze && myNT.colSize() == 0) {
+            myKKTFactorReused = (solved && !myKKTTreeSolved);
+            if (solved) {
+               // nothing more to do
+            }
+            else if (myHybridSolveP && !analyze && myNT.colSize() == 0) {
                if (profileKKTSolveTime|profileImplicitFriction) {
                   timerStart (myKKTTimer);
                }
+               // hybrid solves only occasionally refactor, so the time
+               // is attributed to solving
+               profileStart (SolverProfiler.Phase.KKT_SOLVE);
                myKKTSolver.factorAndSolve (
                   S, velSize, myGT, myRg, vel, myLam, bf, myBg, myHybridSolveTol);
+               profileStop (SolverProfiler.Phase.KKT_SOLVE);
+               if (myKKTSolver.lastSolveWasIterative()) {
+                  countKKTReusedSolve();
+               }
+               else {
+                  countKKTFactorization();
+               }
                if (profileKKTSolveTime|profileImplicitFriction) {
                   timerStop ("    KKT solve: factorAndSolve(hybrid)", myKKTTimer);
                }
@@ -1749,8 +2177,31 @@ public class MechSystemSolver {
                if (profileKKTSolveTime|profileImplicitFriction) {
                   timerStart (myKKTTimer);
                }
+               profileStart (SolverProfiler.Phase.KKT_FACTOR);
                myKKTSolver.factor (S, velSize, myGT, myRg, myNT, myRn);
-               myKKTSolver.solve (vel, myLam, myThe, bf, myBg, myBn);
+               profileStop (SolverProfiler.Phase.KKT_FACTOR);
+               countKKTFactorization();
+               profileStart (SolverProfiler.Phase.KKT_SOLVE);
+               int sizeN = myNT.colSize();
+               if (myWarmStartContactsP && sizeN > 0) {
+                  // seed the LCP with the states of persisting contacts
+                  myWarmStateN.setSize (sizeN);
+                  mySys.getUnilateralState (myWarmStateN, 0);
+                  myKKTSolver.setWarmStartLCP (true);
+                  myKKTSolver.solve (
+                     vel, myLam, myThe, bf, myBg, myBn, myWarmStateN);
+                  mySys.setUnilateralState (myWarmStateN, 0);
+               }
+               else {
+                  myKKTSolver.solve (vel, myLam, myThe, bf, myBg, myBn);
+               }
+               if (sizeN > 0) {
+                  countContactSolve (
+                     myKKTSolver.getLastLCPPivotCount(),
+                     myKKTSolver.getLastLCPIterationCount(),
+                     myKKTSolver.lastLCPWasWarmStarted());
+               }
+               profileStop (SolverProfiler.Phase.KKT_SOLVE);
                if (profileKKTSolveTime|profileImplicitFriction) {
                   timerStop ("    KKT solve: factor and solve", myKKTTimer);
                }
@@ -2056,6 +2507,50 @@ public class MechSystemSolver {
 
    }
 
+   /**
+    * Performs symbolic analysis of the current KKT system using the KKT
+    * solver.
+    */
+   private void analyzeKKTSystem (SparseNumberedBlockMatrix S, int velSize) {
+      if (profileKKTSolveTime|profileImplicitFriction) {
+         timerStart (myKKTTimer);
+      }
+      profileStart (SolverProfiler.Phase.KKT_ANALYZE);
+      myKKTSolver.analyze (
+         S, velSize, myGT, myRg, mySys.getSolveMatrixType());
+      profileStop (SolverProfiler.Phase.KKT_ANALYZE);
+      if (profileKKTSolveTime|profileImplicitFriction) {
+         timerStop ("    KKT solve: analyze", myKKTTimer);
+      }
+      myKKTAnalyzePending = false;
+   }
+
+   /**
+    * Attempts to solve the current KKT system using the tree solver. Returns
+    * {@code false} if the system is not tree-structured, or if the
+    * factorization fails, in which case the system should be solved using
+    * the regular KKT solver.
+    */
+   private boolean treeFactorAndSolve (
+      SparseNumberedBlockMatrix S, int velSize, VectorNd vel, VectorNd bf,
+      boolean analyze) {
+
+      if (myTreeSolver == null) {
+         myTreeSolver = new TreeKKTSolver();
+         analyze = true;
+      }
+      if (analyze) {
+         myTreeSolver.analyze (S, velSize, myGT);
+      }
+      if (!myTreeSolver.isTreeStructured() ||
+          !myTreeSolver.factor (S, velSize, myGT, myRg)) {
+         return false;
+      }
+      myTreeSolver.solve (vel, myLam, bf, myBg);
+      myNumTreeSolves++;
+      return true;
+   }
+
    /** 
     * Solves the KKT system given a new right hand side <code>bf</code>. It is
     * assumed that KKTFactorAndSolve() has already been called once, and that
@@ -2110,6 +2605,12 @@ public class MechSystemSolver {
                "KKTFactorAndSolve must be called prior to KKTSolve");
          }
       }
+      else if (myKKTTreeSolved) {
+         if (!myTreeSolver.isFactored()) {
+            throw new IllegalStateException (
+               "KKTFactorAndSolve must be called prior to KKTSolve");
+         }
+      }
       else {
          if (myKKTSolver == null || !myKKTSolver.isFactored()) {
             throw new IllegalStateException (
@@ -2128,12 +2629,76 @@ public class MechSystemSolver {
          if (myUseImplicitFriction) {
             myMurtySolver.resolveMG (vel, lam, bf, myBg);
          }
+         else if (myKKTTreeSolved) {
+            myTreeSolver.solve (vel, lam, bf, myBg);
+         }
+         else if (myKKTFactorReused) {
+            // factorization is out of date, so refine against the current
+            // matrix, or refactor if that fails
+            SparseNumberedBlockMatrix S = mySolveMatrix;
+            if (!myKKTSolver.solveWithCurrentFactor (
+                   S, velSize, myGT, myRg, vel, lam, bf, myBg,
+                   myModifiedNewtonTol, myModifiedNewtonMaxIters)) {
+               myKKTSolver.factor (S, velSize, myGT, myRg, myNT, myRn);
+               countKKTFactorization();
+               myKKTFactorReused = false;
+               myKKTSolver.solve (vel, lam, the, bf, myBg, myBn);
+            }
+         }
          else {
             myKKTSolver.solve (vel, lam, the, bf, myBg, myBn);
          }
       }
    }
 
+   /**
+    * Calls {@link #KKTSolve(VectorNd,VectorNd,VectorNd,VectorNd)} for
+    * multiple force vectors {@code bf[k]}, using the factorization from the
+    * most recent call to KKTFactorAndSolve(). If the system contains no
+    * unilateral constraints, the solves are performed together, which
+    * allows the underlying sparse solver to process them concurrently.
+    * Otherwise, each is solved in turn and the unilateral impulses are
+    * discarded.
+    *
+    * @param vel returns the velocities
+    * @param lam returns the bilateral constraint impulses
+    * @param bf supplies the force vectors, computed as for KKTSolve()
+    * @param nrhs number of force vectors to solve for
+    */
+   public void KKTSolve (
+      VectorNd[] vel, VectorNd[] lam, VectorNd[] bf, int nrhs) {
+
+      boolean hasUnilaterals = (myNT != null && myNT.colSize() > 0);
+      if (hasUnilaterals || myUseImplicitFriction || myKKTFactorReused ||
+          myKKTTreeSolved || myKKTSolver == null ||
+          mySys.getActiveVelStateSize() == 0) {
+         VectorNd the = new VectorNd();
+         for (int k=0; k<nrhs; k++) {
+            KKTSolve (vel[k], lam[k], the, bf[k]);
+         }
+         return;
+      }
+      int velSize = mySys.getActiveVelStateSize();
+      if (myKKTSolveMatrixVersion != mySys.getStructureVersion()) {
+         throw new IllegalStateException ("Solve structure has changed");
+      }
+      if (myGT.colSize() != myBg.size()) {
+         throw new IllegalStateException (
+            "Number of bilateral offsets != number of bilateral constraints");
+      }
+      if (!myKKTSolver.isFactored()) {
+         throw new IllegalStateException (
+            "KKTFactorAndSolve must be called prior to KKTSolve");
+      }
+      for (int k=0; k<nrhs; k++) {
+         if (vel[k].size() != velSize) {
+            throw new IllegalStateException (
+               "Velocity size != current active velocity state size");
+         }
+      }
+      myKKTSolver.solve (vel, lam, bf, myBg, nrhs);
+   }
+
    //int cnt = 0;
 
    protected void projectFrictionConstraintsImplicitly (
@@ -2200,6 +2765,9 @@ public class MechSystemSolver {
          }
       }
       else {
+         if (myKKTAnalyzePending) {
+            analyzeKKTSystem (S, velSize);
+         }
          timer.start();
          myKKTSolver.factor (S, velSize, myGT, myRg, myNT, myRn, myDT, myRd);
          timer.stop();
@@ -2236,13 +2804,14 @@ public class MechSystemSolver {
    protected boolean updateAndProjectFrictionConstraints (
       VectorNd vel, double t0, double h) {
       // BEGIN project friction constraints
+      profileStart (SolverProfiler.Phase.FRICTION);
+      boolean projected = false;
       if (updateFrictionConstraints(h, /*prune=*/true)) {
          projectFrictionConstraints (vel, t0, h);
-         return true;
-      }
-      else {
-         return false;
+         projected = true;
       }
+      profileStop (SolverProfiler.Phase.FRICTION);
+      return projected;
    }
    
    void setFrictionForces (VectorNd phi, double s) {
@@ -2826,7 +3395,7 @@ public class MechSystemSolver {
       VectorNd u = new VectorNd (myActiveVelSize);
       StepAdjustment stepAdjust = new StepAdjustment();
 
-      mySys.updateConstraints (
+      updateSysConstraints (
          t, stepAdjust, /*flags=*/MechSystem.COMPUTE_CONTACTS);
       mySys.getActivePosState (q);
       computePosCorrections (q, u, t);
@@ -2950,6 +3519,9 @@ public class MechSystemSolver {
          vel, myLam, myThe, S, velSize, myBf, myKKTSolveMatrixVersion, 
          myGT, myRg, myBg, myNT, myRn, myBn, stateN, solveFlags);
       myMurtySolverTimer.stop();
+      countContactSolve (
+         myMurtySolver.getPivotCount(),
+         myMurtySolver.getIterationCount(), myWarmStartContactsP);
       if (status != LCPSolver.Status.SOLVED) {
          System.out.println ("WARNING: contact solve failed, "+status);
       }
@@ -2985,9 +3557,11 @@ public class MechSystemSolver {
          analyze = true;
          myKKTGTVersion = getGTVersion();
       }
-      if (analyze) {
+      if (analyze || myKKTAnalyzePending) {
          myKKTSolver.analyze (
             S, velSize, myGT, myRg, mySys.getSolveMatrixType());
+         myKKTAnalyzePending = false;
+         analyze = true;
       }
       if (myHybridSolveP && !analyze && myNT.colSize() == 0) {
          myKKTSolver.factorAndSolve (
@@ -3020,7 +3594,7 @@ public class MechSystemSolver {
    protected void updateActiveForces (double t0, double t1) {
 
       double h = t1-t0;
-      mySys.updateForces (t1);
+      updateSysForces (t1);
       mySys.getActiveForces (myF);
       // add accumulated constraint forces to the active forces
       myF.scaledAdd (1/h, myFcon);
@@ -3030,7 +3604,8 @@ public class MechSystemSolver {
    protected void applyPosCorrection (
       VectorNd pos, VectorNd vel, double t, StepAdjustment stepAdjust) {
       
-      boolean hasConstraints = mySys.updateConstraints (
+      profileStart (SolverProfiler.Phase.POS_CORRECTION);
+      boolean hasConstraints = updateSysConstraints (
          t, stepAdjust, /*flags=*/MechSystem.COMPUTE_CONTACTS);
       if (hasConstraints) {
          updateMassMatrix (-1);
@@ -3038,6 +3613,7 @@ public class MechSystemSolver {
             mySys.setActivePosState (pos);
          }
       }
+      profileStop (SolverProfiler.Phase.POS_CORRECTION);
    }
 
    protected boolean computePosCorrections (
@@ -3131,7 +3707,7 @@ public class MechSystemSolver {
 
       StepAdjustment steppingInfo = new StepAdjustment();
 
-      mySys.updateConstraints (
+      updateSysConstraints (
          t, steppingInfo, /*flags=*/MechSystem.COMPUTE_CONTACTS);
       mySys.getActivePosState (q);
 
@@ -3177,13 +3753,13 @@ public class MechSystemSolver {
       myFparC.setSize (myParametricVelSize);
 
       // update constraints and forces appropriately for time t1.
-      mySys.updateConstraints (t1, null, MechSystem.UPDATE_CONTACTS);
+      updateSysConstraints (t1, null, MechSystem.UPDATE_CONTACTS);
       if (profileConstrainedBE) {
          timer.stop();
          System.out.println ("  updateConstraints=" + timer.result(1));
          timer.start();
       }
-      mySys.updateForces (t1);
+      updateSysForces (t1);
       if (profileConstrainedBE) {
          timer.stop();
          System.out.println ("  updateForces=" + timer.result(1));
@@ -3221,6 +3797,7 @@ public class MechSystemSolver {
       if (profileConstrainedBE) {
          timer.start();
       }
+      profileStart (SolverProfiler.Phase.FRICTION);
       if (!myUseImplicitFriction && 
           updateFrictionConstraints(h, /*prune=*/true)) {
          if (implicitFriction || murtyFriction) {
@@ -3231,6 +3808,7 @@ public class MechSystemSolver {
          }
          mySys.setActiveVelState (myUtmp);
       }
+      profileStop (SolverProfiler.Phase.FRICTION);
       if (profileConstrainedBE) {
          timer.stop();
          System.out.println ("  friction " + timer.result(1));
@@ -3311,8 +3889,8 @@ public class MechSystemSolver {
       //dxdtVec.setSize (posSize);
       myFparC.setSize (myParametricVelSize);
 
-      mySys.updateConstraints (t1, null, MechSystem.UPDATE_CONTACTS);
-      mySys.updateForces (t1);
+      updateSysConstraints (t1, null, MechSystem.UPDATE_CONTACTS);
+      updateSysForces (t1);
 
       // b = M v
 
@@ -3333,7 +3911,7 @@ public class MechSystemSolver {
       mySys.addActivePosImpulse (myQ, h, myUtmp);
       mySys.setActivePosState (myQ);
 
-      mySys.updateForces (t1);
+      updateSysForces (t1);
       double fres = computeForceResidual (t0, t1, /*tmp=*/myF, velSize);
 
       double FRES_TOL = 1e-8;
@@ -3367,7 +3945,7 @@ public class MechSystemSolver {
             mySys.addActivePosImpulse (myQ, h, myUtmp);
             mySys.setActivePosState (myQ);
 
-            mySys.updateForces (t1);
+            updateSysForces (t1);
             fres = computeForceResidual (t0, t1, /*tmp=*/myF, velSize);
 
             iter++;
@@ -3381,7 +3959,7 @@ public class MechSystemSolver {
       //System.out.println ("iter=" + iter);
 
       //computeImplicitParametricForces (myUtmp, myFparC);
-      mySys.updateConstraints (t1, null, MechSystem.UPDATE_CONTACTS);
+      updateSysConstraints (t1, null, MechSystem.UPDATE_CONTACTS);
       if (updateAndProjectFrictionConstraints (myUtmp, -1, h)) {
          mySys.setActiveVelState (myUtmp);
       }
@@ -3407,8 +3985,8 @@ public class MechSystemSolver {
       //dxdtVec.setSize (posSize);
       //dxdtVec0.setSize (posSize);
 
-      mySys.updateConstraints (t1, null, MechSystem.UPDATE_CONTACTS);
-      mySys.updateForces (t1);
+      updateSysConstraints (t1, null, MechSystem.UPDATE_CONTACTS);
+      updateSysForces (t1);
 
       // b = M v
       mySys.getActiveVelState (myU);
@@ -3514,8 +4092,8 @@ public class MechSystemSolver {
       myUtmp.setZero();
       mySys.setActiveVelState(myUtmp);
       mySys.setParametricVelState(myFx);
-      mySys.updateConstraints (t1, null, MechSystem.UPDATE_CONTACTS);
-      mySys.updateForces (t1);
+      updateSysConstraints (t1, null, MechSystem.UPDATE_CONTACTS);
+      updateSysForces (t1);
 
       // set of forces (mix of internal and external)
       mySys.getActiveForces (myB);
@@ -3532,7 +4110,7 @@ public class MechSystemSolver {
       // XXX Position correction 
       //     maybe only required if alpha is small and if error is sufficiently large
       //     and constraints active
-      mySys.updateConstraints (t1, null, MechSystem.COMPUTE_CONTACTS);
+      updateSysConstraints (t1, null, MechSystem.COMPUTE_CONTACTS);
       if (myGsize > 0 || myNsize > 0) {
          myB.setZero();  // zero-out forces
          KKTStaticFactorAndSolve(myUtmp, myB, 0 /*no forces*/, /*tmp=*/myF);
@@ -3570,8 +4148,8 @@ public class MechSystemSolver {
          double alpha = (i+1)*1.0/nincrements;
       
          // compute our new constraints and forces at time t1
-         mySys.updateConstraints (t1, stepAdjust, MechSystem.COMPUTE_CONTACTS);
-         mySys.updateForces (t1);
+         updateSysConstraints (t1, stepAdjust, MechSystem.COMPUTE_CONTACTS);
+         updateSysForces (t1);
          // set of forces (mix of internal and external)
          mySys.getActiveForces (myB);
          
@@ -3871,8 +4449,8 @@ public class MechSystemSolver {
       while (fres > FRES_TOL && iter < MAX_ITER) {
 
          // compute our new constraints and forces at time t1
-         mySys.updateConstraints (t1, null, MechSystem.UPDATE_CONTACTS);
-         mySys.updateForces (t1);
+         updateSysConstraints (t1, null, MechSystem.UPDATE_CONTACTS);
+         updateSysForces (t1);
    
          // set of forces (mix of internal and external)
          mySys.getActiveForces (myB);
@@ -3900,7 +4478,7 @@ public class MechSystemSolver {
          // check if converged within tolerance
          if (myU.norm() <= utol) {
             // compute contacts
-            mySys.updateConstraints (t1, null, MechSystem.COMPUTE_CONTACTS);
+            updateSysConstraints (t1, null, MechSystem.COMPUTE_CONTACTS);
             break;
          } 
          
@@ -3920,7 +4498,7 @@ public class MechSystemSolver {
          
          // update forces at new position
          double R0 = myB.dot(myU);          // energy at alpha=0
-         mySys.updateForces (t1);
+         updateSysForces (t1);
          mySys.getActiveForces(myF);        // new forces at alpha=1
          double R1 = myF.dot(myU)+cenergy;  // energy at alpha=1
          
@@ -3958,7 +4536,7 @@ public class MechSystemSolver {
          
          // XXX Position correction 
          //     maybe only apply if alpha is small and if error is sufficiently large
-         mySys.updateConstraints (t1, null, MechSystem.COMPUTE_CONTACTS);
+         updateSysConstraints (t1, null, MechSystem.COMPUTE_CONTACTS);
          if (myGsize > 0 || myNsize > 0) {
             myB.setZero();  // zero-out forces
             KKTStaticFactorAndSolve(myU, myB, 0 /*no forces*/, /*tmp=*/myF);
@@ -3996,8 +4574,8 @@ public class MechSystemSolver {
       //dxdtVec.setSize (posSize);
       //dxdtVec0.setSize (posSize);
 
-      mySys.updateConstraints (t1, null, MechSystem.UPDATE_CONTACTS);
-      mySys.updateForces (t1);
+      updateSysConstraints (t1, null, MechSystem.UPDATE_CONTACTS);
+      updateSysForces (t1);
 
       // b = M v
       mySys.getActiveVelState (myU);
@@ -4030,7 +4608,7 @@ public class MechSystemSolver {
 
    public SparseBlockMatrix createActiveStiffnessMatrix (double h) {
       updateStateSizes();
-      mySys.updateForces (0);
+      updateSysForces (0);
       SparseNumberedBlockMatrix S = new SparseNumberedBlockMatrix();
       mySys.buildSolveMatrix (S);
       mySys.addPosJacobian (S, null, h);
@@ -4086,6 +4664,10 @@ public class MechSystemSolver {
          myUmfpackSolver.dispose();
          myUmfpackSolver = null;
       }
+      if (mySparseLDLTSolver != null) {
+         mySparseLDLTSolver.dispose();
+         mySparseLDLTSolver = null;
+      }
       if (myRBSolver != null) {
          myRBSolver.dispose();
          myRBSolver = null;
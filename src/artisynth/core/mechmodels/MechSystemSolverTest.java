@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.mechmodels;
+
+import artisynth.core.mechmodels.MechSystemSolver.Integrator;
+import maspack.matrix.Point3d;
+import maspack.matrix.RigidTransform3d;
+import maspack.matrix.Vector3d;
+import maspack.solvers.KKTSolver;
+import maspack.solvers.SparseSolverId;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Tests aspects of MechSystemSolver.
+ */
+public class MechSystemSolverTest extends UnitTest {
+
+   /**
+    * Creates a two link pendulum, initially horizontal, whose links are
+    * connected to each other and to ground by hinge joints.
+    */
+   MechModel createPendulum () {
+      MechModel mech = new MechModel ("mech");
+      mech.setIntegrator (Integrator.ConstrainedBackwardEuler);
+      mech.setMatrixSolver (SparseSolverId.SparseLDLT);
+
+      RigidBody link0 = RigidBody.createBox ("link0", 1, 0.1, 0.1, 1000);
+      link0.setPose (new RigidTransform3d (0.5, 0, 0));
+      mech.addRigidBody (link0);
+      RigidBody link1 = RigidBody.createBox ("link1", 1, 0.1, 0.1, 1000);
+      link1.setPose (new RigidTransform3d (1.5, 0, 0));
+      mech.addRigidBody (link1);
+
+      Vector3d yaxis = new Vector3d (0, 1, 0);
+      mech.addBodyConnector (
+         new HingeJoint (link0, null, new Point3d (0, 0, 0), yaxis));
+      mech.addBodyConnector (
+         new HingeJoint (link1, link0, new Point3d (1, 0, 0), yaxis));
+      return mech;
+   }
+
+   /**
+    * Checks that the KKT solver reuses its maps for obtaining the CRS values
+    * of M and GT across time steps, even though GT is recreated at each
+    * step.
+    */
+   public void testValueMapReuse() {
+      MechModel mech = createPendulum();
+      double h = 0.01;
+      int nsteps = 20;
+      mech.initialize (0);
+      for (int i=0; i<nsteps; i++) {
+         mech.advance (i*h, (i+1)*h, 0);
+      }
+      KKTSolver solver = mech.getSolver().myKKTSolver;
+      if (solver == null) {
+         throw new TestException ("KKT solver not created");
+      }
+      checkEquals (
+         "value map creations", solver.getValueMapCreationCount(), 1);
+      RigidBody link1 = mech.rigidBodies().get ("link1");
+      if (link1.getPose().p.z > -0.1) {
+         throw new TestException ("pendulum did not swing down");
+      }
+   }
+
+   /**
+    * Checks that when tree solves are enabled and succeed, the KKT solver
+    * is never used to analyze the system.
+    */
+   public void testTreeSolveAnalysis() {
+      MechModel mech = createPendulum();
+      mech.setTreeSolve (true);
+      double h = 0.01;
+      int nsteps = 20;
+      mech.initialize (0);
+      for (int i=0; i<nsteps; i++) {
+         mech.advance (i*h, (i+1)*h, 0);
+      }
+      MechSystemSolver solver = mech.getSolver();
+      checkEquals ("tree solves", solver.getNumTreeSolves() > 0, true);
+      if (solver.myKKTSolver != null) {
+         checkEquals (
+            "KKT analyses", solver.myKKTSolver.getAnalyzeCount(), 0);
+      }
+      RigidBody link1 = mech.rigidBodies().get ("link1");
+      if (link1.getPose().p.z > -0.1) {
+         throw new TestException ("pendulum did not swing down");
+      }
+   }
+
+   /**
+    * Checks that when tree solves are enabled but the system contains a
+    * closed loop, the deferred analysis is performed and the KKT solver is
+    * used instead.
+    */
+   public void testTreeSolveFallback() {
+      MechModel mech = createPendulum();
+      RigidBody link0 = mech.rigidBodies().get ("link0");
+      RigidBody link1 = mech.rigidBodies().get ("link1");
+      // a third link joining the centers of the first two closes a
+      // kinematic loop
+      RigidBody link2 = RigidBody.createBox ("link2", 1, 0.1, 0.1, 1000);
+      link2.setPose (new RigidTransform3d (1, 0, 0));
+      mech.addRigidBody (link2);
+      mech.addBodyConnector (
+         new SphericalJoint (link2, link0, new Point3d (0.5, 0, 0)));
+      mech.addBodyConnector (
+         new SphericalJoint (link2, link1, new Point3d (1.5, 0, 0)));
+      mech.setTreeSolve (true);
+      double h = 0.01;
+      int nsteps = 10;
+      mech.initialize (0);
+      for (int i=0; i<nsteps; i++) {
+         mech.advance (i*h, (i+1)*h, 0);
+      }
+      MechSystemSolver solver = mech.getSolver();
+      checkEquals ("tree solves", solver.getNumTreeSolves(), 0L);
+      checkEquals (
+         "KKT analyses", solver.myKKTSolver.getAnalyzeCount() > 0, true);
+      if (link0.getPose().p.z >= 0) {
+         throw new TestException ("closed loop did not move down");
+      }
+   }
+
+   public void test() {
+      testValueMapReuse();
+      testTreeSolveAnalysis();
+      testTreeSolveFallback();
+   }
+
+   public static void main (String[] args) {
+      MechSystemSolverTest tester = new MechSystemSolverTest();
+      tester.runtest();
+   }
+}
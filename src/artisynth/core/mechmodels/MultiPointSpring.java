@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -29,6 +30,7 @@ import artisynth.core.modelbase.TransformableGeometry;
 import artisynth.core.util.ScalableUnits;
 import artisynth.core.util.ScanToken;
 import artisynth.core.util.StringToken;
+import maspack.concurrency.ParallelLoop;
 import maspack.geometry.GeometryTransformer;
 import maspack.geometry.LineSegment;
 import maspack.geometry.OBB;
@@ -58,6 +60,7 @@ import maspack.render.Renderer.PointStyle;
 import maspack.util.Clonable;
 import maspack.util.DataBuffer;
 import maspack.util.DoubleHolder;
+import maspack.util.DynamicIntArray;
 import maspack.util.FunctionTimer;
 import maspack.util.IndentingPrintWriter;
 import maspack.util.InternalErrorException;
@@ -132,6 +135,7 @@ public class MultiPointSpring extends PointSpringBase
    protected int myNumBlks; // set to numPoints()
    protected int[] mySolveBlkNums;
    protected int myHasWrappableSegs = -1; // -1 means we don't know
+   private int myOverridesPostadvance = -1; // -1 means we don't know
    protected ArrayList<Point3d[]> myWrapPaths; // used only for scanning
 
    /* === property attributes === */
@@ -1420,6 +1424,90 @@ public class MultiPointSpring extends PointSpringBase
       }
    }      
 
+   /**
+    * Performs the work of {@link #postadvance} for a list of springs,
+    * processing the wrappable segments of all the springs concurrently using
+    * the workers of {@code loop}. {@link #updateStructure} is first called
+    * serially for each spring, after which the wrap path of each wrappable
+    * segment is updated, using the maximum number of wrap iterations of the
+    * segment's spring. Each segment is handled by a single worker, since the
+    * wrap path computations for different segments are independent given
+    * the current positions of the spring's points and the poses of the
+    * wrappables, neither of which are modified. Distributing segments,
+    * rather than springs, allows springs with several wrappable segments to
+    * be spread across workers.
+    *
+    * <p>Data that wrappables compute on demand and share among springs,
+    * such as distance grids and bounding volume hierarchies, is initialized
+    * serially before the concurrent update. Profiling information, as
+    * enabled by {@link #setProfiling}, is not collected.
+    *
+    * <p>This is equivalent to calling {@link #postadvance} for each spring
+    * only if the springs' classes do not override that method (see {@link
+    * #overridesPostadvance}).
+    *
+    * @param springs springs whose wrap paths should be updated
+    * @param loop parallel loop used to process the wrappable segments
+    */
+   public static void updateWrapSegments (
+      List<? extends MultiPointSpring> springs, ParallelLoop loop) {
+      HashSet<Wrappable> visited = new HashSet<>();
+      final ArrayList<WrapSegment> wrapSegs = new ArrayList<>();
+      // maximum wrap iterations for each segment, taken from its spring
+      final DynamicIntArray maxIters = new DynamicIntArray();
+      for (int i=0; i<springs.size(); i++) {
+         MultiPointSpring spr = springs.get(i);
+         spr.updateStructure();
+         for (Wrappable w : spr.myWrappables) {
+            if (visited.add (w)) {
+               // a single query is sufficient to build any lazily
+               // initialized data used by the wrappable
+               w.penetrationDistance (
+                  new Vector3d(), new Matrix3d(), new Point3d(w.getPose().p));
+            }
+         }
+         for (int j=0; j<spr.numSegments(); j++) {
+            Segment seg = spr.mySegments.get(j);
+            if (seg instanceof WrapSegment) {
+               wrapSegs.add ((WrapSegment)seg);
+               maxIters.add (spr.myMaxWrapIterations);
+            }
+         }
+      }
+      loop.forRange (wrapSegs.size(), new ParallelLoop.Body() {
+            public void run (int start, int end, int worker) {
+               for (int i=start; i<end; i++) {
+                  WrapSegment wrapSeg = wrapSegs.get(i);
+                  wrapSeg.updateWrapStrand (maxIters.get(i));
+                  wrapSeg.updateSubSegments();
+               }
+            }
+         });
+   }
+
+   /**
+    * Queries whether the class of this spring overrides {@link
+    * #postadvance}, in which case its postadvance work cannot be performed
+    * by {@link #updateWrapSegments(List,ParallelLoop)}.
+    *
+    * @return {@code true} if {@link #postadvance} is overridden
+    */
+   public boolean overridesPostadvance() {
+      if (myOverridesPostadvance == -1) {
+         try {
+            java.lang.reflect.Method method = getClass().getMethod (
+               "postadvance", double.class, double.class, int.class);
+            myOverridesPostadvance =
+               (method.getDeclaringClass() != MultiPointSpring.class ? 1 : 0);
+         }
+         catch (NoSuchMethodException e) {
+            throw new InternalErrorException (
+               "postadvance method not found for "+getClass());
+         }
+      }
+      return myOverridesPostadvance == 1;
+   }
+
    public boolean hasWrappableSegments() {
       if (myHasWrappableSegs == -1) {
          myHasWrappableSegs = 0;
@@ -3578,7 +3666,10 @@ public class MultiPointSpring extends PointSpringBase
                changed = true;
             }
          }
-         myUpdateContactsCnt++;
+         // segments of the same spring may be updated concurrently
+         synchronized (MultiPointSpring.this) {
+            myUpdateContactsCnt++;
+         }
          return changed;
       }
 
@@ -4677,7 +4768,9 @@ public class MultiPointSpring extends PointSpringBase
                   oscillateCnt++;
                   if (oscillateCnt >= 3) {
                      localMinimumFound = true;
-                     totalStuck++;
+                     synchronized (MultiPointSpring.this) {
+                        totalStuck++;
+                     }
                      //break;
                   }
                }
@@ -4818,46 +4911,50 @@ public class MultiPointSpring extends PointSpringBase
          if (myUpdateContactsP) {
             saveContactingKnotPositions();
          }
-         totalIterations += icnt;
-         totalCalls++;
-         boolean contacting = inContact();
-         if (contacting) {
-            myContactCnt++;
-         }
-         if (converged) {
-            if (localMinimumFound) {
-               totalFalseStuck++;
+         // segments of the same spring may be updated concurrently, so
+         // guard the spring's statistics
+         synchronized (MultiPointSpring.this) {
+            totalIterations += icnt;
+            totalCalls++;
+            boolean contacting = inContact();
+            if (contacting) {
+               myContactCnt++;
             }
-            if (debugLevel > 0) {
-               System.out.printf (
-                  "converged, icnt=%d numc=%d forceNorm=%g\n",
-                  icnt, numContacts(), forceNorm());
+            if (converged) {
+               if (localMinimumFound) {
+                  totalFalseStuck++;
+               }
+               if (debugLevel > 0) {
+                  System.out.printf (
+                     "converged, icnt=%d numc=%d forceNorm=%g\n",
+                     icnt, numContacts(), forceNorm());
+               }
+               if (contacting) {
+                  myConvergedCnt++;
+                  maxForceNorm = Math.max(maxForceNorm, forceNorm());
+                  sumForceNorm += forceNorm();
+                  double lenErr = Math.abs(lastLength-getLength())/getLength();
+                  //maxLengthErr = Math.max(maxLengthErr, lenErr);
+                  //sumLengthErr += lenErr;
+               }
             }
-            if (contacting) {
-               myConvergedCnt++;
+            else {
+               if (debugLevel > 0) {
+                  System.out.printf (
+                     "did NOT converge, icnt=%d numc=%d forceNorm=%g "+
+                     "maxForce=%g ftol=%g\n",
+                     icnt, numContacts(), forceNorm(), maxForce(), ftol);
+               }
+               totalFails++;
                maxForceNorm = Math.max(maxForceNorm, forceNorm());
                sumForceNorm += forceNorm();
                double lenErr = Math.abs(lastLength-getLength())/getLength();
-               //maxLengthErr = Math.max(maxLengthErr, lenErr);
-               //sumLengthErr += lenErr;
+               maxLengthErr = Math.max(maxLengthErr, lenErr);
+               sumLengthErr += lenErr;
             }
-         }
-         else {
-            if (debugLevel > 0) {
-               System.out.printf (
-                  "did NOT converge, icnt=%d numc=%d forceNorm=%g "+
-                  "maxForce=%g ftol=%g\n",
-                  icnt, numContacts(), forceNorm(), maxForce(), ftol);
-            }
-            totalFails++;
-            maxForceNorm = Math.max(maxForceNorm, forceNorm());
-            sumForceNorm += forceNorm();
-            double lenErr = Math.abs(lastLength-getLength())/getLength();
-            maxLengthErr = Math.max(maxLengthErr, lenErr);
-            sumLengthErr += lenErr;
-         }
 
-         myIterationCnt += icnt;
+            myIterationCnt += icnt;
+         }
          return icnt;
       }
 
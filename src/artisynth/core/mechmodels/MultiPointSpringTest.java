@@ -10,6 +10,7 @@ import java.util.*;
 import java.io.*;
 
 import artisynth.core.modelbase.ScanTest;
+import maspack.concurrency.ParallelLoop;
 import maspack.matrix.*;
 import maspack.util.*;
 import maspack.spatialmotion.*;
@@ -208,6 +209,159 @@ public class MultiPointSpringTest extends UnitTest {
       ScanTest.testScanAndWrite (spring, mech, null);
    }
 
+   private MultiPointSpring createWrapSpring (
+      double z, RigidCylinder cylinder, RigidSphere sphere) {
+      MultiPointSpring spring = new MultiPointSpring (1, 0, 0);
+      spring.addPoint (new Particle (0, -2, 0.1, z));
+      spring.setSegmentWrappable (50);
+      spring.addPoint (new Particle (0, 2, -0.1, z));
+      // second wrappable segment, so that segments of the same spring are
+      // updated concurrently
+      spring.setSegmentWrappable (40);
+      spring.addPoint (new Particle (0, -2, -0.3, z+0.2));
+      spring.addWrappable (cylinder);
+      spring.addWrappable (sphere);
+      return spring;
+   }
+
+   /**
+    * Checks that updating wrap segments for a list of springs concurrently
+    * produces the same knot positions as updating them serially. Each
+    * spring has two wrappable segments.
+    */
+   public void testParallelWrapUpdate (int numSprings, int nthreads) {
+      RigidCylinder cylinder =
+         new RigidCylinder ("cylinder", 0.5, 4.0, 1000.0, 32);
+      cylinder.setPose (new RigidTransform3d (0, 0, 0, 0, 0, Math.PI/2));
+      RigidSphere sphere = new RigidSphere ("sphere", 0.4, 1000.0, 16);
+      sphere.setPose (new RigidTransform3d (0.5, 0, -1.0));
+
+      ArrayList<MultiPointSpring> serial = new ArrayList<>();
+      ArrayList<MultiPointSpring> parallel = new ArrayList<>();
+      for (int i=0; i<numSprings; i++) {
+         double z = -1.5 + 3.0*i/numSprings;
+         serial.add (createWrapSpring (z, cylinder, sphere));
+         parallel.add (createWrapSpring (z, cylinder, sphere));
+      }
+      ParallelLoop loop = new ParallelLoop ("wrapTest", nthreads);
+      try {
+         for (int step=0; step<3; step++) {
+            for (MultiPointSpring spr : serial) {
+               spr.updateWrapSegments (spr.getMaxWrapIterations());
+            }
+            MultiPointSpring.updateWrapSegments (parallel, loop);
+         }
+      }
+      finally {
+         loop.shutdown();
+      }
+      for (int i=0; i<numSprings; i++) {
+         MultiPointSpring sspr = serial.get(i);
+         MultiPointSpring pspr = parallel.get(i);
+         for (int j=0; j<2; j++) {
+            for (int k=0; k<sspr.numKnots(j); k++) {
+               Point3d ps = sspr.getKnot(j,k).myPos;
+               Point3d pp = pspr.getKnot(j,k).myPos;
+               if (!ps.equals (pp)) {
+                  throw new TestException (
+                     "Spring "+i+", segment "+j+", knot "+k+
+                     ": parallel position "+pp+", expected "+ps);
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Spring subclass that overrides postadvance and counts the calls.
+    */
+   private class CountingSpring extends MultiPointSpring {
+      int myNumPostadvances = 0;
+
+      CountingSpring() {
+         super (1, 0, 0);
+      }
+
+      public void postadvance (double t0, double t1, int flags) {
+         super.postadvance (t0, t1, flags);
+         myNumPostadvances++;
+      }
+   }
+
+   private MechModel createWrapModel (int numSprings, int nthreads) {
+      MechModel mech = new MechModel ("mech");
+      mech.setGravity (0, 0, 0);
+      mech.setNumWrapThreads (nthreads);
+      RigidCylinder cylinder =
+         new RigidCylinder ("cylinder", 0.5, 4.0, 1000.0, 32);
+      cylinder.setPose (new RigidTransform3d (0, 0, 0, 0, 0, Math.PI/2));
+      cylinder.setDynamic (false);
+      mech.addRigidBody (cylinder);
+      RigidSphere sphere = new RigidSphere ("sphere", 0.4, 1000.0, 16);
+      sphere.setPose (new RigidTransform3d (0.5, 0, -1.0));
+      sphere.setDynamic (false);
+      mech.addRigidBody (sphere);
+      for (int i=0; i<numSprings; i++) {
+         double z = -1.5 + 3.0*i/numSprings;
+         // make the middle spring one that overrides postadvance
+         MultiPointSpring spring =
+            (i == numSprings/2 ? new CountingSpring() : 
+             new MultiPointSpring (1, 0, 0));
+         Particle p0 = new Particle (1, -2, 0.1, z);
+         Particle p1 = new Particle (1, 2, -0.1, z);
+         p0.setDynamic (false);
+         p1.setDynamic (false);
+         mech.addParticle (p0);
+         mech.addParticle (p1);
+         spring.addPoint (p0);
+         spring.setSegmentWrappable (50);
+         spring.addPoint (p1);
+         spring.addWrappable (cylinder);
+         spring.addWrappable (sphere);
+         mech.addMultiPointSpring (spring);
+      }
+      return mech;
+   }
+
+   /**
+    * Checks that advancing a MechModel with parallel wrap updates produces
+    * the same knot positions as a serial update, and that springs which
+    * override postadvance still have it called.
+    */
+   public void testParallelPostadvance (int numSprings, int nthreads) {
+      MechModel serial = createWrapModel (numSprings, 1);
+      MechModel parallel = createWrapModel (numSprings, nthreads);
+      MultiPointSpring plain = serial.multiPointSprings().get(0);
+      CountingSpring counting =
+         (CountingSpring)parallel.multiPointSprings().get(numSprings/2);
+      checkEquals ("overrides postadvance", plain.overridesPostadvance(), false);
+      checkEquals (
+         "overrides postadvance", counting.overridesPostadvance(), true);
+      serial.initialize (0);
+      parallel.initialize (0);
+      double h = 0.01;
+      int nsteps = 3;
+      for (int i=0; i<nsteps; i++) {
+         serial.advance (i*h, (i+1)*h, 0);
+         parallel.advance (i*h, (i+1)*h, 0);
+      }
+      checkEquals ("postadvance calls", counting.myNumPostadvances, nsteps);
+      for (int i=0; i<numSprings; i++) {
+         MultiPointSpring sspr = serial.multiPointSprings().get(i);
+         MultiPointSpring pspr = parallel.multiPointSprings().get(i);
+         for (int k=0; k<sspr.numKnots(0); k++) {
+            Point3d ps = sspr.getKnot(0,k).myPos;
+            Point3d pp = pspr.getKnot(0,k).myPos;
+            if (!ps.equals (pp)) {
+               throw new TestException (
+                  "Spring "+i+", knot "+k+": parallel position "+pp+
+                  ", expected "+ps);
+            }
+         }
+      }
+      parallel.dispose();
+   }
+
    public void test() {
       //tester.test(0); // force and Jacobians should be 0
       //tester.test(1); // force and Jacobians should be 0
@@ -218,6 +372,8 @@ public class MultiPointSpringTest extends UnitTest {
       test(2, new int[] {0});               
       test(4, new int[] {0, 1});               
       test(5, new int[] {0, 2, 4});   
+      testParallelWrapUpdate (8, 3);
+      testParallelPostadvance (7, 3);
    }
 
    public static void main (String[] args) {
@@ -15,8 +15,20 @@ import artisynth.core.util.*;
 
 public class RigidMesh extends RigidBody implements Wrappable {
 
-   BVFeatureQuery myQuery = new BVFeatureQuery();
-   NagataInterpolator myNagata = new NagataInterpolator();
+   // wrap segments may be updated in parallel, so each thread gets its own
+   // query and interpolator
+   private static ThreadLocal<BVFeatureQuery> myQueries =
+      new ThreadLocal<BVFeatureQuery>() {
+         protected BVFeatureQuery initialValue() {
+            return new BVFeatureQuery();
+         }
+      };
+   private static ThreadLocal<NagataInterpolator> myNagatas =
+      new ThreadLocal<NagataInterpolator>() {
+         protected NagataInterpolator initialValue() {
+            return new NagataInterpolator();
+         }
+      };
 
    boolean myUseQuadraticTangents = true;
    boolean mySmooth = false;
@@ -603,7 +615,7 @@ public class RigidMesh extends RigidBody implements Wrappable {
          if (mesh != null) {
             Vector3d dir = new Vector3d();
             dir.sub (p1, pa);
-            myQuery.nearestFaceAlongRay (
+            myQueries.get().nearestFaceAlongRay (
                pr, /*uv=*/null, mesh.getBVTree(), pa, dir);
          }
          else {
@@ -658,11 +670,13 @@ public class RigidMesh extends RigidBody implements Wrappable {
          if (Dnrm != null) {
             Dnrm.setZero();
          }
+         BVFeatureQuery query = myQueries.get();
          if (mySmooth) {
-            myNagata.nearestPointOnMesh (near, nrm, mesh, p0, 1e-8, myQuery);
+            myNagatas.get().nearestPointOnMesh (
+               near, nrm, mesh, p0, 1e-8, query);
          }
          else {
-            Face face = myQuery.nearestFaceToPoint (
+            Face face = query.nearestFaceToPoint (
                near, /*uv=*/null, mesh.getBVTree(), p0);
             if(face == null)
                return Wrappable.OUTSIDE;
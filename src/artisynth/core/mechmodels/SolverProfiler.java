@@ -0,0 +1,491 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.mechmodels;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+
+import artisynth.core.probes.DataFunction;
+import artisynth.core.probes.NumericMonitorProbe;
+import maspack.matrix.VectorNd;
+import maspack.util.DynamicDoubleArray;
+
+/**
+ * Records the time spent in each phase of a {@link MechSystemSolver} step.
+ * Phases are started and stopped by the solver and may be nested, in which
+ * case the time of an inner phase is not included in the time of the outer
+ * phase. Time spent in a step outside of any phase is reported as "other".
+ *
+ * <p>The results for the most recent step can be queried directly, or
+ * supplied to a {@link NumericMonitorProbe} since this class implements
+ * {@link DataFunction}. If history recording is enabled (the default), the
+ * results for all steps are also retained and can be written to a CSV file
+ * using {@link #writeCsv}.
+ *
+ * <p>Times are reported in milliseconds. If the JVM supports it, the number
+ * of bytes allocated by the solving thread during each step is recorded as
+ * well. The number of numeric KKT factorizations performed during each step,
+ * and the number of KKT solves which instead reused a previous factorization
+ * (see {@link MechSystemSolver#setModifiedNewton}), are also recorded.
+ */
+public class SolverProfiler implements DataFunction {
+
+   /**
+    * Phases of a solver step that are timed by the profiler.
+    */
+   public enum Phase {
+      /**
+       * Computing forces and assembling the force and stiffness
+       * Jacobians. Includes FEM stress and stiffness computation.
+       */
+      FORCES ("forces"),
+
+      /**
+       * Updating the constraints, including collision detection.
+       */
+      COLLISIONS ("collisions"),
+
+      /**
+       * Assembling the bilateral and unilateral constraint matrices.
+       */
+      CONSTRAINTS ("constraints"),
+
+      /**
+       * Symbolic analysis of the KKT system.
+       */
+      KKT_ANALYZE ("kktAnalyze"),
+
+      /**
+       * Numeric factorization of the KKT system.
+       */
+      KKT_FACTOR ("kktFactor"),
+
+      /**
+       * Solving the factored KKT system.
+       */
+      KKT_SOLVE ("kktSolve"),
+
+      /**
+       * Updating and projecting friction constraints.
+       */
+      FRICTION ("friction"),
+
+      /**
+       * Correcting positions to remove constraint errors.
+       */
+      POS_CORRECTION ("posCorrection");
+
+      private String myLabel;
+
+      Phase (String label) {
+         myLabel = label;
+      }
+
+      /**
+       * Returns the label used for this phase in CSV headers.
+       */
+      public String getLabel() {
+         return myLabel;
+      }
+   }
+
+   private static final int NUM_PHASES = Phase.values().length;
+
+   /**
+    * Number of values recorded for each step: the time for each phase,
+    * followed by the "other" time, the total step time, the number of
+    * bytes allocated, the number of KKT factorizations, and the number
+    * of KKT solves that reused a previous factorization.
+    */
+   public static final int NUM_VALUES = NUM_PHASES+5;
+
+   // number of trailing values that are counts rather than times
+   private static final int NUM_COUNTS = 3;
+
+   private static final int MAX_DEPTH = 32;
+
+   private long[] myPhaseNsec = new long[NUM_PHASES];
+   private Phase[] myStack = new Phase[MAX_DEPTH];
+   private int myDepth = 0;
+   private long myMarkNsec;
+   private long myStepStartNsec;
+   private long myStepStartBytes;
+   private boolean myStepActive = false;
+   private double myStepTime;
+   private int myStepFactorCnt;
+   private int myStepReuseCnt;
+   private long myNumFactors;
+   private long myNumReuses;
+
+   private double[] myLastValues = new double[NUM_VALUES];
+   private int myNumSteps = 0;
+
+   private boolean myRecordHistory = true;
+   private DynamicDoubleArray myHistory = new DynamicDoubleArray();
+
+   private com.sun.management.ThreadMXBean myThreadBean;
+
+   /**
+    * Creates a new SolverProfiler.
+    */
+   public SolverProfiler() {
+      java.lang.management.ThreadMXBean bean =
+         ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean) {
+         com.sun.management.ThreadMXBean sbean =
+            (com.sun.management.ThreadMXBean)bean;
+         if (sbean.isThreadAllocatedMemorySupported() &&
+             sbean.isThreadAllocatedMemoryEnabled()) {
+            myThreadBean = sbean;
+         }
+      }
+   }
+
+   /**
+    * Queries whether the results for every step are being retained.
+    *
+    * @return {@code true} if history recording is enabled
+    */
+   public boolean getRecordHistory() {
+      return myRecordHistory;
+   }
+
+   /**
+    * Sets whether the results for every step should be retained so that
+    * they can later be written using {@link #writeCsv}. The default is {@code
+    * true}.
+    *
+    * @param enable if {@code true}, enables history recording
+    */
+   public void setRecordHistory (boolean enable) {
+      myRecordHistory = enable;
+   }
+
+   /**
+    * Returns {@code true} if allocation counts are being recorded. This
+    * depends on whether the JVM supports per-thread allocation counting.
+    *
+    * @return {@code true} if allocation counts are being recorded
+    */
+   public boolean isAllocationCountingSupported() {
+      return myThreadBean != null;
+   }
+
+   private long allocatedBytes() {
+      if (myThreadBean != null) {
+         return myThreadBean.getThreadAllocatedBytes (
+            Thread.currentThread().getId());
+      }
+      else {
+         return 0;
+      }
+   }
+
+   /**
+    * Called by the solver at the beginning of a step.
+    *
+    * @param t0 time at the start of the step
+    * @param t1 time at the end of the step
+    */
+   public void beginStep (double t0, double t1) {
+      for (int i=0; i<NUM_PHASES; i++) {
+         myPhaseNsec[i] = 0;
+      }
+      myDepth = 0;
+      myStepFactorCnt = 0;
+      myStepReuseCnt = 0;
+      myStepTime = t1;
+      myStepActive = true;
+      myStepStartBytes = allocatedBytes();
+      myStepStartNsec = System.nanoTime();
+      myMarkNsec = myStepStartNsec;
+   }
+
+   /**
+    * Called by the solver at the end of a step. Any phases that are still
+    * active are stopped.
+    */
+   public void endStep () {
+      if (!myStepActive) {
+         return;
+      }
+      long nsec = System.nanoTime();
+      if (myDepth > 0) {
+         myPhaseNsec[myStack[myDepth-1].ordinal()] += (nsec-myMarkNsec);
+         myDepth = 0;
+      }
+      long total = nsec-myStepStartNsec;
+      long other = total;
+      for (int i=0; i<NUM_PHASES; i++) {
+         myLastValues[i] = 1e-6*myPhaseNsec[i];
+         other -= myPhaseNsec[i];
+      }
+      myLastValues[NUM_PHASES] = 1e-6*other;
+      myLastValues[NUM_PHASES+1] = 1e-6*total;
+      myLastValues[NUM_PHASES+2] = allocatedBytes()-myStepStartBytes;
+      myLastValues[NUM_PHASES+3] = myStepFactorCnt;
+      myLastValues[NUM_PHASES+4] = myStepReuseCnt;
+      myNumFactors += myStepFactorCnt;
+      myNumReuses += myStepReuseCnt;
+      myStepActive = false;
+      myNumSteps++;
+      if (myRecordHistory) {
+         myHistory.add (myStepTime);
+         myHistory.addAll (myLastValues);
+      }
+   }
+
+   /**
+    * Starts timing a phase. If another phase is active, its timing is
+    * suspended until this phase is stopped. Has no effect if called outside
+    * a step.
+    *
+    * @param phase phase to start
+    */
+   public void startPhase (Phase phase) {
+      if (!myStepActive || myDepth == MAX_DEPTH) {
+         return;
+      }
+      long nsec = System.nanoTime();
+      if (myDepth > 0) {
+         myPhaseNsec[myStack[myDepth-1].ordinal()] += (nsec-myMarkNsec);
+      }
+      myStack[myDepth++] = phase;
+      myMarkNsec = nsec;
+   }
+
+   /**
+    * Stops timing a phase, resuming the timing of any enclosing phase.
+    * Has no effect if {@code phase} is not the most recently started phase.
+    *
+    * @param phase phase to stop
+    */
+   public void stopPhase (Phase phase) {
+      if (!myStepActive || myDepth == 0 || myStack[myDepth-1] != phase) {
+         return;
+      }
+      long nsec = System.nanoTime();
+      myPhaseNsec[phase.ordinal()] += (nsec-myMarkNsec);
+      myDepth--;
+      myMarkNsec = nsec;
+   }
+
+   /**
+    * Called by the solver when it performs a numeric factorization of the
+    * KKT system. Has no effect if called outside a step.
+    */
+   public void countFactorization() {
+      if (myStepActive) {
+         myStepFactorCnt++;
+      }
+   }
+
+   /**
+    * Called by the solver when it solves the KKT system by reusing a
+    * previous factorization. Has no effect if called outside a step.
+    */
+   public void countReusedSolve() {
+      if (myStepActive) {
+         myStepReuseCnt++;
+      }
+   }
+
+   /**
+    * Returns the number of KKT factorizations performed in all steps
+    * recorded since this profiler was created or last cleared.
+    *
+    * @return number of factorizations
+    */
+   public long getNumFactorizations() {
+      return myNumFactors;
+   }
+
+   /**
+    * Returns the number of KKT solves that reused a previous factorization,
+    * in all steps recorded since this profiler was created or last cleared.
+    *
+    * @return number of reused factorization solves
+    */
+   public long getNumReusedSolves() {
+      return myNumReuses;
+   }
+
+   /**
+    * Returns the fraction of KKT solves that required a new factorization,
+    * over all steps recorded since this profiler was created or last
+    * cleared, or 0 if no solves have been recorded.
+    *
+    * @return refactorization rate
+    */
+   public double getRefactorRate() {
+      long total = myNumFactors+myNumReuses;
+      return total > 0 ? myNumFactors/(double)total : 0;
+   }
+
+   /**
+    * Returns the number of steps that have been recorded since this profiler
+    * was created or last cleared.
+    *
+    * @return number of recorded steps
+    */
+   public int numSteps() {
+      return myNumSteps;
+   }
+
+   /**
+    * Returns the time, in milliseconds, spent in a specific phase during the
+    * most recent step.
+    *
+    * @param phase phase to query
+    * @return time spent in the phase
+    */
+   public double getLastTime (Phase phase) {
+      return myLastValues[phase.ordinal()];
+   }
+
+   /**
+    * Returns the total time, in milliseconds, of the most recent step.
+    *
+    * @return total step time
+    */
+   public double getLastTotalTime() {
+      return myLastValues[NUM_PHASES+1];
+   }
+
+   /**
+    * Returns the number of bytes allocated during the most recent step, or 0
+    * if allocation counting is not supported.
+    *
+    * @return number of allocated bytes
+    */
+   public long getLastAllocatedBytes() {
+      return (long)myLastValues[NUM_PHASES+2];
+   }
+
+   /**
+    * Returns the values recorded for the most recent step, in the order
+    * given by {@link #getLabels}.
+    *
+    * @param vals returns the values. Will be resized if necessary.
+    */
+   public void getLastValues (VectorNd vals) {
+      vals.setSize (NUM_VALUES);
+      vals.set (myLastValues);
+   }
+
+   /**
+    * Returns labels for the values recorded for each step.
+    *
+    * @return value labels
+    */
+   public static String[] getLabels() {
+      String[] labels = new String[NUM_VALUES];
+      for (Phase phase : Phase.values()) {
+         labels[phase.ordinal()] = phase.getLabel();
+      }
+      labels[NUM_PHASES] = "other";
+      labels[NUM_PHASES+1] = "total";
+      labels[NUM_PHASES+2] = "allocBytes";
+      labels[NUM_PHASES+3] = "kktFactors";
+      labels[NUM_PHASES+4] = "kktReuses";
+      return labels;
+   }
+
+   /**
+    * Clears the recorded history.
+    */
+   public void clear() {
+      myHistory.clear();
+      myNumSteps = 0;
+      myNumFactors = 0;
+      myNumReuses = 0;
+      for (int i=0; i<NUM_VALUES; i++) {
+         myLastValues[i] = 0;
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    *
+    * <p>Returns the values for the most recent step, as described for {@link
+    * #getLastValues}.
+    */
+   public void eval (VectorNd vec, double t, double trel) {
+      getLastValues (vec);
+   }
+
+   /**
+    * Creates a {@link NumericMonitorProbe} that records the values for the
+    * most recent step.
+    *
+    * @param fileName name of the file the probe can save its data to
+    * @param startTime probe start time
+    * @param stopTime probe stop time
+    * @param interval probe update interval
+    * @return created probe
+    */
+   public NumericMonitorProbe createMonitorProbe (
+      String fileName, double startTime, double stopTime, double interval) {
+      NumericMonitorProbe probe = new NumericMonitorProbe (
+         NUM_VALUES, fileName, startTime, stopTime, interval);
+      probe.setDataFunction (this);
+      probe.setName ("solver profile");
+      return probe;
+   }
+
+   /**
+    * Writes the recorded history in CSV format. The first line is a header
+    * giving the column labels, and each subsequent line gives the step end
+    * time followed by the values described for {@link #getLastValues}.
+    *
+    * @param pw writer to write the data to
+    */
+   public void writeCsv (PrintWriter pw) {
+      pw.print ("time");
+      for (String label : getLabels()) {
+         pw.print (","+label);
+      }
+      pw.println ("");
+      double[] buf = myHistory.getArray();
+      int stride = NUM_VALUES+1;
+      for (int k=0; k+stride<=myHistory.size(); k+=stride) {
+         pw.print (buf[k]);
+         for (int i=1; i<stride; i++) {
+            if (i >= stride-NUM_COUNTS) {
+               pw.print (","+(long)buf[k+i]);
+            }
+            else {
+               pw.print (","+buf[k+i]);
+            }
+         }
+         pw.println ("");
+      }
+      pw.flush();
+   }
+
+   /**
+    * Writes the recorded history to a file in CSV format, as described for
+    * {@link #writeCsv(PrintWriter)}.
+    *
+    * @param file file to write the data to
+    */
+   public void writeCsv (File file) throws IOException {
+      PrintWriter pw = null;
+      try {
+         pw = new PrintWriter (new FileWriter (file));
+         writeCsv (pw);
+      }
+      finally {
+         if (pw != null) {
+            pw.close();
+         }
+      }
+   }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.mechmodels;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import artisynth.core.mechmodels.MechSystemSolver.Integrator;
+import artisynth.core.mechmodels.SolverProfiler.Phase;
+import maspack.matrix.RigidTransform3d;
+import maspack.matrix.VectorNd;
+import maspack.solvers.SparseSolverId;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Tests the SolverProfiler, both directly and when attached to a
+ * MechModel's solver.
+ */
+public class SolverProfilerTest extends UnitTest {
+
+   private void checkValues (SolverProfiler profiler) {
+      VectorNd vals = new VectorNd();
+      profiler.getLastValues (vals);
+      if (vals.size() != SolverProfiler.NUM_VALUES) {
+         throw new TestException (
+            "Expected "+SolverProfiler.NUM_VALUES+" values, got "+vals.size());
+      }
+      double sum = 0;
+      for (Phase phase : Phase.values()) {
+         double time = profiler.getLastTime (phase);
+         if (time < 0) {
+            throw new TestException (
+               "Negative time "+time+" for phase "+phase);
+         }
+         sum += time;
+      }
+      // other time
+      sum += vals.get (Phase.values().length);
+      double total = profiler.getLastTotalTime();
+      if (Math.abs (sum-total) > 1e-6*Math.max(1,total)) {
+         throw new TestException (
+            "Phase times sum to "+sum+", total time is "+total);
+      }
+   }
+
+   public void testNesting() {
+      SolverProfiler profiler = new SolverProfiler();
+
+      // phases started outside a step should be ignored
+      profiler.startPhase (Phase.FORCES);
+      profiler.stopPhase (Phase.FORCES);
+      checkEquals ("numSteps", profiler.numSteps(), 0);
+
+      profiler.beginStep (0, 0.01);
+      profiler.startPhase (Phase.POS_CORRECTION);
+      profiler.startPhase (Phase.COLLISIONS);
+      busyWait (2);
+      // mismatched stop should be ignored
+      profiler.stopPhase (Phase.FORCES);
+      profiler.stopPhase (Phase.COLLISIONS);
+      busyWait (1);
+      profiler.startPhase (Phase.KKT_SOLVE);
+      // left active; should be stopped by endStep()
+      profiler.endStep();
+
+      checkEquals ("numSteps", profiler.numSteps(), 1);
+      checkValues (profiler);
+      if (profiler.getLastTime (Phase.COLLISIONS) < 2.0) {
+         throw new TestException (
+            "Collision time "+profiler.getLastTime (Phase.COLLISIONS)+
+            " less than 2 msec");
+      }
+      double posTime = profiler.getLastTime (Phase.POS_CORRECTION);
+      if (posTime < 1.0 || posTime > profiler.getLastTotalTime()-2.0) {
+         throw new TestException (
+            "Position correction time "+posTime+" should be at least 1 "+
+            "msec and should exclude the nested collision time");
+      }
+      if (profiler.getLastTime (Phase.FORCES) != 0) {
+         throw new TestException ("Nonzero time for unused phase FORCES");
+      }
+   }
+
+   private void busyWait (double msec) {
+      long t0 = System.nanoTime();
+      while (System.nanoTime()-t0 < (long)(msec*1e6)) {
+      }
+   }
+
+   MechModel createModel() {
+      MechModel mech = new MechModel ("mech");
+      mech.setIntegrator (Integrator.ConstrainedBackwardEuler);
+      mech.setMatrixSolver (SparseSolverId.SparseLDLT);
+
+      RigidBody base = RigidBody.createBox ("base", 4, 4, 0.5, 1000);
+      base.setDynamic (false);
+      mech.addRigidBody (base);
+
+      RigidBody box = RigidBody.createBox ("box", 1, 1, 1, 1000);
+      box.setPose (new RigidTransform3d (0, 0, 0.74));
+      mech.addRigidBody (box);
+
+      Particle p = new Particle (1, 0, 0, 2);
+      mech.addParticle (p);
+      mech.attachPoint (p, box);
+
+      mech.setDefaultCollisionBehavior (true, 0.2);
+      return mech;
+   }
+
+   public void testModel() {
+      MechModel mech = createModel();
+      mech.setSolverProfilingEnabled (true);
+      SolverProfiler profiler = mech.getSolverProfiler();
+      if (profiler == null) {
+         throw new TestException ("Profiler not created");
+      }
+      double h = 0.01;
+      int nsteps = 20;
+      mech.initialize (0);
+      for (int i=0; i<nsteps; i++) {
+         mech.advance (i*h, (i+1)*h, 0);
+         checkValues (profiler);
+      }
+      checkEquals ("numSteps", profiler.numSteps(), nsteps);
+      if (profiler.getLastTime (Phase.KKT_FACTOR) <= 0) {
+         throw new TestException ("No time recorded for KKT factor");
+      }
+
+      StringWriter sw = new StringWriter();
+      profiler.writeCsv (new PrintWriter (sw));
+      String[] lines = sw.toString().split ("\n");
+      checkEquals ("number of CSV lines", lines.length, nsteps+1);
+      String[] labels = lines[0].split (",");
+      checkEquals ("number of CSV columns", labels.length,
+                   SolverProfiler.NUM_VALUES+1);
+      checkEquals ("first CSV label", labels[0], "time");
+      String[] fields = lines[nsteps].split (",");
+      checkEquals (
+         "last step time", Double.parseDouble(fields[0]), nsteps*h, 1e-10);
+
+      mech.setSolverProfilingEnabled (false);
+      if (mech.getSolverProfiler() != null) {
+         throw new TestException ("Profiler not removed");
+      }
+   }
+
+   public void test() {
+      testNesting();
+      testModel();
+   }
+
+   public static void main (String[] args) {
+      SolverProfilerTest tester = new SolverProfilerTest();
+      tester.runtest();
+   }
+}
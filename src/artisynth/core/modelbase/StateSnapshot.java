@@ -0,0 +1,419 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.modelbase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+
+import artisynth.core.util.MappedArrayIO;
+
+/**
+ * Binary snapshot files for component state, such as the state of a
+ * <code>RootModel</code>, <code>MechModel</code> or
+ * <code>FemModel3d</code>. The result is the same as that of {@link
+ * ComponentState#writeBinary} and {@link ComponentState#readBinary}, but
+ * instead of writing values one at a time to a stream, the integer and
+ * double data of all the {@link NumericState}s within the state tree are
+ * gathered into two contiguous blocks, which are transferred using memory
+ * mapping. Substates are matched by their position within the tree, so
+ * restoring a snapshot requires a component whose structure is the same as
+ * the one that was saved.
+ *
+ * <p>The file begins with a 64 byte header, laid out (little-endian) as
+ * follows:
+ * <pre>
+ *  0  magic number "ASTATEB1"
+ *  8  int    format version
+ * 12  int    reserved
+ * 16  long   structure block size (bytes)
+ * 24  long   total number of integer values (nz)
+ * 32  long   total number of double values (nd)
+ * 40  reserved
+ * </pre>
+ * This is followed by the structure block, which describes the state tree
+ * in the format written by <code>DataOutputStream</code>, and then, starting
+ * at the next multiple of 8 bytes, the blocks
+ * <pre>
+ * double[nd] double values
+ * int[nz]    integer values
+ * </pre>
+ * Substates which are neither composite nor numeric are written into the
+ * structure block using their own <code>writeBinary</code> method.
+ */
+public class StateSnapshot {
+
+   /**
+    * Magic number identifying binary state files.
+    */
+   public static final byte[] MAGIC =
+      new byte[] { 'A', 'S', 'T', 'A', 'T', 'E', 'B', '1' };
+
+   public static final int VERSION = 1;
+
+   private static final int HEADER_SIZE = 64;
+
+   // tags used in the structure block
+   private static final byte COMPOSITE = 0;
+   private static final byte NUMERIC = 1;
+   private static final byte OTHER = 2;
+
+   private StateSnapshot() {
+   }
+
+   private static void collectNumericStates (
+      ArrayList<NumericState> list, ComponentState state) {
+      if (state instanceof CompositeState) {
+         CompositeState cstate = (CompositeState)state;
+         for (int i=0; i<cstate.numSubStates(); i++) {
+            collectNumericStates (list, cstate.getState(i));
+         }
+      }
+      else if (state instanceof NumericState) {
+         list.add ((NumericState)state);
+      }
+   }
+
+   private static void writeStructure (
+      DataOutputStream dos, ComponentState state) throws IOException {
+      if (state instanceof CompositeState) {
+         CompositeState cstate = (CompositeState)state;
+         dos.writeByte (COMPOSITE);
+         dos.writeUTF (state.getClass().getName());
+         dos.writeInt (cstate.numSubStates());
+         for (int i=0; i<cstate.numSubStates(); i++) {
+            writeStructure (dos, cstate.getState(i));
+         }
+      }
+      else if (state instanceof NumericState) {
+         NumericState nstate = (NumericState)state;
+         dos.writeByte (NUMERIC);
+         dos.writeUTF (state.getClass().getName());
+         if (nstate.myFrames != null) {
+            dos.writeInt (nstate.myFrames.size());
+            for (NumericState.DataFrame frame : nstate.myFrames) {
+               dos.writeInt (frame.myZoff);
+               dos.writeInt (frame.myDoff);
+            }
+         }
+         else {
+            dos.writeInt (-1);
+         }
+         dos.writeInt (nstate.zsize());
+         dos.writeInt (nstate.dsize());
+      }
+      else {
+         dos.writeByte (OTHER);
+         dos.writeUTF (state.getClass().getName());
+         state.writeBinary (dos);
+      }
+   }
+
+   /**
+    * Writes a component state to a binary snapshot file. Any existing file
+    * is overwritten.
+    *
+    * @param file file to write to
+    * @param state state to write
+    */
+   public static void write (File file, ComponentState state)
+      throws IOException {
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream dos = new DataOutputStream (bytes);
+      writeStructure (dos, state);
+      dos.close();
+
+      ArrayList<NumericState> nstates = new ArrayList<NumericState>();
+      collectNumericStates (nstates, state);
+      long nz = 0;
+      long nd = 0;
+      for (NumericState nstate : nstates) {
+         nz += nstate.zsize();
+         nd += nstate.dsize();
+      }
+      if (nz > Integer.MAX_VALUE || nd > Integer.MAX_VALUE) {
+         throw new IllegalArgumentException (
+            "State size exceeds maximum");
+      }
+      int[] zbuf = new int[(int)nz];
+      double[] dbuf = new double[(int)nd];
+      int zk = 0;
+      int dk = 0;
+      for (NumericState nstate : nstates) {
+         System.arraycopy (nstate.zbuffer(), 0, zbuf, zk, nstate.zsize());
+         System.arraycopy (nstate.dbuffer(), 0, dbuf, dk, nstate.dsize());
+         zk += nstate.zsize();
+         dk += nstate.dsize();
+      }
+
+      long dataOff = alignedDataOffset (bytes.size());
+      RandomAccessFile raf = new RandomAccessFile (file, "rw");
+      try {
+         FileChannel ch = raf.getChannel();
+         raf.setLength (0);
+         raf.setLength (dataOff + 8L*nd + 4L*nz);
+
+         MappedByteBuffer header =
+            ch.map (MapMode.READ_WRITE, 0, HEADER_SIZE);
+         header.order (ByteOrder.LITTLE_ENDIAN);
+         header.put (MAGIC);
+         header.putInt (VERSION);
+         header.putInt (0);
+         header.putLong (bytes.size());
+         header.putLong (nz);
+         header.putLong (nd);
+
+         ch.map (MapMode.READ_WRITE, HEADER_SIZE, bytes.size())
+            .put (bytes.toByteArray());
+         long off = MappedArrayIO.putDoubles (ch, dataOff, dbuf, dbuf.length);
+         MappedArrayIO.putInts (ch, off, zbuf, zbuf.length);
+      }
+      finally {
+         raf.close();
+      }
+   }
+
+   private static long alignedDataOffset (long structSize) {
+      return 8*((HEADER_SIZE + structSize + 7)/8);
+   }
+
+   private static ComponentState createSubState (
+      String className, boolean annotated) throws IOException {
+      ComponentState substate = null;
+      try {
+         substate = (ComponentState)Class.forName(className).newInstance();
+      }
+      catch (ClassCastException e) {
+         throw new IOException (
+            "Class "+className+" not an instance of ComponentState");
+      }
+      catch (Exception e) {
+         throw new IOException (
+            "Class "+className+" cannot be instantiated");
+      }
+      if (annotated) {
+         substate.setAnnotated (true);
+      }
+      return substate;
+   }
+
+   /**
+    * Reads the structure for <code>state</code> from the structure block,
+    * and collects the numeric states, together with their sizes, so that
+    * their data can be filled in from the data blocks.
+    */
+   private static void readStructure (
+      DataInputStream dis, ComponentState state,
+      ArrayList<NumericState> nstates, ArrayList<int[]> sizes)
+      throws IOException {
+
+      byte tag = dis.readByte();
+      String className = dis.readUTF();
+      if (!state.getClass().getName().equals (className)) {
+         throw new IOException (
+            "State data incompatible with system structure "+
+            "(expected "+state.getClass().getName()+", got "+className+")");
+      }
+      if (tag == COMPOSITE) {
+         CompositeState cstate = (CompositeState)state;
+         int numsub = dis.readInt();
+         while (cstate.myStates.size() < numsub) {
+            cstate.myStates.add (null);
+         }
+         while (cstate.myStates.size() > numsub) {
+            cstate.myStates.remove (cstate.myStates.size()-1);
+         }
+         for (int i=0; i<numsub; i++) {
+            // peek at the substate class so it can be created if necessary
+            dis.mark (Integer.MAX_VALUE);
+            dis.readByte();
+            String subName = dis.readUTF();
+            dis.reset();
+            ComponentState substate = cstate.myStates.get(i);
+            if (substate == null ||
+                !substate.getClass().getName().equals (subName)) {
+               substate = createSubState (subName, cstate.isAnnotated());
+               cstate.myStates.set (i, substate);
+            }
+            readStructure (dis, substate, nstates, sizes);
+         }
+      }
+      else if (tag == NUMERIC) {
+         NumericState nstate = (NumericState)state;
+         int nframes = dis.readInt();
+         if (nframes > 0) {
+            if (nstate.myFrames != null) {
+               if (nframes != nstate.myFrames.size()) {
+                  throw new IOException (
+                     "State data incompatible with system structure "+
+                     "(incompatible frame count "+nframes+
+                     ", expected "+nstate.myFrames.size()+")");
+               }
+               for (int i=0; i<nframes; i++) {
+                  NumericState.DataFrame frame = nstate.myFrames.get(i);
+                  if (frame.myZoff != dis.readInt() ||
+                      frame.myDoff != dis.readInt()) {
+                     throw new IOException (
+                        "State data incompatible with existing structure "+
+                        "(frame "+i+")");
+                  }
+               }
+            }
+            else {
+               dis.skipBytes (8*nframes);
+            }
+         }
+         int zsize = dis.readInt();
+         int dsize = dis.readInt();
+         if (nstate.myFrames != null && nstate.myFrames.size() > 0) {
+            NumericState.DataFrame lastf =
+               nstate.myFrames.get(nstate.myFrames.size()-1);
+            if (lastf.myZoff != zsize || lastf.myDoff != dsize) {
+               throw new IOException (
+                  "State data incompatible with existing structure "+
+                  "(incompatible data sizes)");
+            }
+         }
+         nstates.add (nstate);
+         sizes.add (new int[] { zsize, dsize });
+      }
+      else if (tag == OTHER) {
+         state.readBinary (dis);
+      }
+      else {
+         throw new IOException ("Unknown structure tag "+tag);
+      }
+   }
+
+   /**
+    * Reads a component state from a binary snapshot file. Where possible,
+    * the existing substates of <code>state</code> are reused, and if
+    * they contain data frames, these are checked for consistency with the
+    * file.
+    *
+    * @param file file to read from
+    * @param state state to read into
+    * @throws IOException if the file is not a binary state file, has an
+    * unsupported version, or is incompatible with <code>state</code>
+    */
+   public static void read (File file, ComponentState state)
+      throws IOException {
+
+      RandomAccessFile raf = new RandomAccessFile (file, "r");
+      try {
+         FileChannel ch = raf.getChannel();
+         if (ch.size() < HEADER_SIZE) {
+            throw new IOException (
+               "File "+file+" is too short to be a binary state file");
+         }
+         MappedByteBuffer header = ch.map (MapMode.READ_ONLY, 0, HEADER_SIZE);
+         header.order (ByteOrder.LITTLE_ENDIAN);
+         byte[] magic = new byte[MAGIC.length];
+         header.get (magic);
+         for (int i=0; i<magic.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+               throw new IOException (
+                  "File "+file+" is not a binary state file");
+            }
+         }
+         int version = header.getInt();
+         if (version > VERSION) {
+            throw new IOException (
+               "File "+file+" has unsupported version "+version);
+         }
+         header.getInt();
+         long structSize = header.getLong();
+         long nz = header.getLong();
+         long nd = header.getLong();
+         if (structSize < 0 || structSize > Integer.MAX_VALUE ||
+             nz < 0 || nz > Integer.MAX_VALUE ||
+             nd < 0 || nd > Integer.MAX_VALUE ||
+             HEADER_SIZE + structSize > ch.size()) {
+            throw new IOException ("File "+file+" has a corrupt header");
+         }
+
+         byte[] bytes = new byte[(int)structSize];
+         ch.map (MapMode.READ_ONLY, HEADER_SIZE, structSize).get (bytes);
+         DataInputStream dis =
+            new DataInputStream (new ByteArrayInputStream (bytes));
+         ArrayList<NumericState> nstates = new ArrayList<NumericState>();
+         ArrayList<int[]> sizes = new ArrayList<int[]>();
+         readStructure (dis, state, nstates, sizes);
+
+         long zk = 0;
+         long dk = 0;
+         for (int[] size : sizes) {
+            zk += size[0];
+            dk += size[1];
+         }
+         if (zk != nz || dk != nd) {
+            throw new IOException (
+               "File "+file+": structure block inconsistent with header");
+         }
+         int[] zbuf = new int[(int)nz];
+         double[] dbuf = new double[(int)nd];
+         long off = alignedDataOffset (structSize);
+         off = MappedArrayIO.getDoubles (ch, off, dbuf, dbuf.length);
+         MappedArrayIO.getInts (ch, off, zbuf, zbuf.length);
+
+         int zoff = 0;
+         int doff = 0;
+         for (int i=0; i<nstates.size(); i++) {
+            NumericState nstate = nstates.get(i);
+            int zsize = sizes.get(i)[0];
+            int dsize = sizes.get(i)[1];
+            nstate.zsetSize (zsize);
+            System.arraycopy (zbuf, zoff, nstate.zbuffer(), 0, zsize);
+            nstate.dsetSize (dsize);
+            System.arraycopy (dbuf, doff, nstate.dbuffer(), 0, dsize);
+            zoff += zsize;
+            doff += dsize;
+         }
+      }
+      finally {
+         raf.close();
+      }
+   }
+
+   /**
+    * Saves the current state of a component, such as a
+    * <code>RootModel</code>, to a binary snapshot file.
+    *
+    * @param file file to write to
+    * @param comp component whose state should be saved
+    */
+   public static void save (File file, HasState comp) throws IOException {
+      ComponentState state = comp.createState (null);
+      comp.getState (state);
+      write (file, state);
+   }
+
+   /**
+    * Restores the state of a component, such as a <code>RootModel</code>,
+    * from a binary snapshot file created by {@link #save}. The component
+    * must have the same structure as the one whose state was saved.
+    *
+    * @param file file to read from
+    * @param comp component whose state should be restored
+    */
+   public static void load (File file, HasState comp) throws IOException {
+      ComponentState state = comp.createState (null);
+      comp.getState (state);
+      read (file, state);
+      comp.setState (state);
+   }
+}
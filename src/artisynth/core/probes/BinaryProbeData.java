@@ -0,0 +1,611 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.probes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import maspack.interpolation.Interpolation.Order;
+import maspack.interpolation.NumericList;
+import maspack.interpolation.NumericListKnot;
+
+/**
+ * Binary, memory-mapped storage for numeric probe data. Samples consist of a
+ * time value and a vector of <code>vsize</code> values, and are stored in
+ * blocks of <code>blockSize</code> samples. Within each block, the data is
+ * stored by column: first the times of all the block's samples, and then the
+ * values of each channel in turn. This allows data to be streamed to the
+ * file as it is generated, while still allowing individual channels to be
+ * read efficiently.
+ *
+ * <p>The file begins with a 64 byte header, laid out (little-endian) as
+ * follows:
+ * <pre>
+ *  0  magic number "APROBEB1"
+ *  8  int    format version
+ * 12  int    vsize
+ * 16  int    block size (number of samples per block)
+ * 20  int    interpolation order (ordinal of {@link Order})
+ * 24  long   number of samples
+ * 32  double start time
+ * 40  double stop time
+ * 48  double scale
+ * 56  double update interval
+ * </pre>
+ * The number of samples in the header is updated every time a sample is
+ * added, so that the file remains readable even if the application
+ * terminates before the file is closed.
+ *
+ * <p>Blocks are memory-mapped on demand, so that reading a file does not
+ * require its data to be loaded onto the heap.
+ */
+public class BinaryProbeData {
+
+   /**
+    * Magic number identifying binary probe files.
+    */
+   public static final byte[] MAGIC =
+      new byte[] { 'A', 'P', 'R', 'O', 'B', 'E', 'B', '1' };
+
+   public static final int VERSION = 1;
+
+   private static final int HEADER_SIZE = 64;
+   private static final int NUM_SAMPLES_OFF = 24;
+
+   /**
+    * Approximate target size, in bytes, of each block.
+    */
+   private static final int TARGET_BLOCK_BYTES = (1 << 20);
+
+   private File myFile;
+   private RandomAccessFile myRaf;
+   private FileChannel myChannel;
+   private boolean myWritable;
+
+   private int myVsize;
+   private int myBlockSize;
+   private long myBlockBytes;
+   private int myNumSamples;
+   private Order myOrder = Order.Linear;
+   private double myStartTime;
+   private double myStopTime;
+   private double myScale = 1;
+   private double myUpdateInterval = -1;
+
+   private MappedByteBuffer myHeader;
+   private ArrayList<MappedByteBuffer> myBlocks =
+      new ArrayList<MappedByteBuffer>();
+
+   private BinaryProbeData() {
+   }
+
+   /**
+    * Returns <code>true</code> if the specified file appears to be a binary
+    * probe file, as determined by its magic number.
+    *
+    * @param file file to check
+    * @return <code>true</code> if <code>file</code> is a binary probe file
+    */
+   public static boolean isBinaryFile (File file) {
+      if (file == null || !file.isFile() || file.length() < HEADER_SIZE) {
+         return false;
+      }
+      FileInputStream is = null;
+      try {
+         is = new FileInputStream (file);
+         byte[] bytes = new byte[MAGIC.length];
+         int nread = 0;
+         while (nread < bytes.length) {
+            int n = is.read (bytes, nread, bytes.length-nread);
+            if (n < 0) {
+               return false;
+            }
+            nread += n;
+         }
+         for (int i=0; i<MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+               return false;
+            }
+         }
+         return true;
+      }
+      catch (IOException e) {
+         return false;
+      }
+      finally {
+         if (is != null) {
+            try {
+               is.close();
+            }
+            catch (IOException e) {
+               // ignore
+            }
+         }
+      }
+   }
+
+   /**
+    * Creates a new binary probe file for writing. Any existing file is
+    * overwritten.
+    *
+    * @param file file to create
+    * @param vsize size of the data vectors
+    * @return binary probe data attached to the file
+    * @throws IOException if an I/O error occurred
+    */
+   public static BinaryProbeData create (File file, int vsize)
+      throws IOException {
+      if (vsize < 0) {
+         throw new IllegalArgumentException ("vsize is negative");
+      }
+      BinaryProbeData data = new BinaryProbeData();
+      data.myFile = file;
+      data.myWritable = true;
+      data.myVsize = vsize;
+      data.myBlockSize =
+         Math.max (16, TARGET_BLOCK_BYTES / (8*(vsize+1)));
+      data.myBlockBytes = 8L*data.myBlockSize*(vsize+1);
+      data.myRaf = new RandomAccessFile (file, "rw");
+      data.myRaf.setLength (0);
+      data.myChannel = data.myRaf.getChannel();
+      data.myHeader = data.myChannel.map (
+         FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+      data.myHeader.order (ByteOrder.LITTLE_ENDIAN);
+      data.writeHeader();
+      return data;
+   }
+
+   /**
+    * Opens an existing binary probe file for reading.
+    *
+    * @param file file to open
+    * @return binary probe data attached to the file
+    * @throws IOException if an I/O error occurred or the file is not a
+    * binary probe file
+    */
+   public static BinaryProbeData open (File file) throws IOException {
+      return open (file, /*writable=*/false);
+   }
+
+   /**
+    * Opens an existing binary probe file for reading, and optionally
+    * writing. If opened for writing, new samples are appended to the
+    * existing ones.
+    *
+    * @param file file to open
+    * @param writable if <code>true</code>, opens the file for writing
+    * @return binary probe data attached to the file
+    * @throws IOException if an I/O error occurred or the file is not a
+    * binary probe file
+    */
+   public static BinaryProbeData open (File file, boolean writable)
+      throws IOException {
+      if (!isBinaryFile (file)) {
+         throw new IOException (
+            "File '"+file+"' is not a binary probe file");
+      }
+      BinaryProbeData data = new BinaryProbeData();
+      data.myFile = file;
+      data.myWritable = writable;
+      data.myRaf = new RandomAccessFile (file, writable ? "rw" : "r");
+      data.myChannel = data.myRaf.getChannel();
+      data.myHeader = data.myChannel.map (
+         writable ?
+         FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+         0, HEADER_SIZE);
+      data.myHeader.order (ByteOrder.LITTLE_ENDIAN);
+      try {
+         data.readHeader();
+      }
+      catch (IOException e) {
+         data.close();
+         throw e;
+      }
+      return data;
+   }
+
+   private void writeHeader() {
+      for (int i=0; i<MAGIC.length; i++) {
+         myHeader.put (i, MAGIC[i]);
+      }
+      myHeader.putInt (8, VERSION);
+      myHeader.putInt (12, myVsize);
+      myHeader.putInt (16, myBlockSize);
+      myHeader.putInt (20, myOrder.ordinal());
+      myHeader.putLong (NUM_SAMPLES_OFF, myNumSamples);
+      myHeader.putDouble (32, myStartTime);
+      myHeader.putDouble (40, myStopTime);
+      myHeader.putDouble (48, myScale);
+      myHeader.putDouble (56, myUpdateInterval);
+   }
+
+   private void readHeader() throws IOException {
+      int version = myHeader.getInt (8);
+      if (version != VERSION) {
+         throw new IOException (
+            "File '"+myFile+"': unsupported binary probe version "+version);
+      }
+      myVsize = myHeader.getInt (12);
+      myBlockSize = myHeader.getInt (16);
+      int orderCode = myHeader.getInt (20);
+      long nsamps = myHeader.getLong (NUM_SAMPLES_OFF);
+      if (myVsize < 0 || myBlockSize <= 0 || nsamps < 0 ||
+          nsamps > Integer.MAX_VALUE ||
+          orderCode < 0 || orderCode >= Order.values().length) {
+         throw new IOException (
+            "File '"+myFile+"': corrupt binary probe header");
+      }
+      myOrder = Order.values()[orderCode];
+      myNumSamples = (int)nsamps;
+      myStartTime = myHeader.getDouble (32);
+      myStopTime = myHeader.getDouble (40);
+      myScale = myHeader.getDouble (48);
+      myUpdateInterval = myHeader.getDouble (56);
+      myBlockBytes = 8L*myBlockSize*(myVsize+1);
+      long numBlocks = (myNumSamples+myBlockSize-1)/myBlockSize;
+      if (myChannel.size() < HEADER_SIZE+numBlocks*myBlockBytes) {
+         throw new IOException (
+            "File '"+myFile+"': binary probe data is truncated");
+      }
+   }
+
+   /**
+    * Returns the file associated with this data.
+    *
+    * @return associated file
+    */
+   public File getFile() {
+      return myFile;
+   }
+
+   /**
+    * Queries whether this data was opened for writing.
+    *
+    * @return <code>true</code> if this data is writable
+    */
+   public boolean isWritable() {
+      return myWritable;
+   }
+
+   /**
+    * Queries whether this data has been closed.
+    *
+    * @return <code>true</code> if this data is closed
+    */
+   public boolean isClosed() {
+      return myChannel == null;
+   }
+
+   public int getVectorSize() {
+      return myVsize;
+   }
+
+   public int getBlockSize() {
+      return myBlockSize;
+   }
+
+   public int numSamples() {
+      return myNumSamples;
+   }
+
+   public Order getInterpolationOrder() {
+      return myOrder;
+   }
+
+   public double getStartTime() {
+      return myStartTime;
+   }
+
+   public double getStopTime() {
+      return myStopTime;
+   }
+
+   public double getScale() {
+      return myScale;
+   }
+
+   /**
+    * Returns the update interval recorded for the data, or -1 if
+    * the time values are explicit.
+    *
+    * @return update interval, or -1
+    */
+   public double getUpdateInterval() {
+      return myUpdateInterval;
+   }
+
+   /**
+    * Sets the probe information stored in the file header.
+    *
+    * @param order interpolation order
+    * @param startTime probe start time
+    * @param stopTime probe stop time
+    * @param scale probe scale factor
+    * @param interval probe update interval, or -1 if times are explicit
+    */
+   public void setProbeInfo (
+      Order order, double startTime, double stopTime,
+      double scale, double interval) {
+      checkWritable();
+      myOrder = order;
+      myStartTime = startTime;
+      myStopTime = stopTime;
+      myScale = scale;
+      myUpdateInterval = interval;
+      writeHeader();
+   }
+
+   private void checkWritable() {
+      if (myChannel == null) {
+         throw new IllegalStateException ("Binary probe data is closed");
+      }
+      if (!myWritable) {
+         throw new IllegalStateException (
+            "Binary probe data is not writable");
+      }
+   }
+
+   private void checkIndex (int k) {
+      if (k < 0 || k >= myNumSamples) {
+         throw new IndexOutOfBoundsException (
+            "Sample index "+k+" not in range [0,"+myNumSamples+")");
+      }
+   }
+
+   private ByteBuffer getBlock (int bidx) {
+      if (myChannel == null) {
+         throw new IllegalStateException ("Binary probe data is closed");
+      }
+      while (myBlocks.size() <= bidx) {
+         myBlocks.add (null);
+      }
+      MappedByteBuffer block = myBlocks.get (bidx);
+      if (block == null) {
+         try {
+            block = myChannel.map (
+               myWritable ?
+               FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+               HEADER_SIZE+bidx*myBlockBytes, myBlockBytes);
+         }
+         catch (IOException e) {
+            throw new IllegalStateException (
+               "Error mapping binary probe file '"+myFile+"'", e);
+         }
+         block.order (ByteOrder.LITTLE_ENDIAN);
+         myBlocks.set (bidx, block);
+      }
+      return block;
+   }
+
+   /**
+    * Appends a sample to the end of the data.
+    *
+    * @param t time value for the sample
+    * @param vals values for the sample. Must have a length {@code >=} the
+    * vector size.
+    */
+   public void add (double t, double[] vals) {
+      checkWritable();
+      int k = myNumSamples;
+      ByteBuffer block = getBlock (k/myBlockSize);
+      int off = 8*(k%myBlockSize);
+      int stride = 8*myBlockSize;
+      block.putDouble (off, t);
+      for (int i=0; i<myVsize; i++) {
+         off += stride;
+         block.putDouble (off, vals[i]);
+      }
+      myNumSamples++;
+      myHeader.putLong (NUM_SAMPLES_OFF, myNumSamples);
+   }
+
+   /**
+    * Truncates the data so that it contains only the first
+    * <code>num</code> samples.
+    *
+    * @param num number of samples to retain
+    */
+   public void truncate (int num) {
+      checkWritable();
+      if (num < 0) {
+         num = 0;
+      }
+      if (num < myNumSamples) {
+         myNumSamples = num;
+         myHeader.putLong (NUM_SAMPLES_OFF, myNumSamples);
+      }
+   }
+
+   /**
+    * Removes all samples.
+    */
+   public void clear() {
+      truncate (0);
+   }
+
+   /**
+    * Returns the time value of a specific sample.
+    *
+    * @param k sample index
+    * @return time value
+    */
+   public double getTime (int k) {
+      checkIndex (k);
+      return getBlock (k/myBlockSize).getDouble (8*(k%myBlockSize));
+   }
+
+   /**
+    * Returns a specific value of a specific sample.
+    *
+    * @param k sample index
+    * @param i value (channel) index
+    * @return value
+    */
+   public double getValue (int k, int i) {
+      checkIndex (k);
+      if (i < 0 || i >= myVsize) {
+         throw new IndexOutOfBoundsException (
+            "Value index "+i+" not in range [0,"+myVsize+")");
+      }
+      return getBlock (k/myBlockSize).getDouble (
+         8*((i+1)*myBlockSize + k%myBlockSize));
+   }
+
+   /**
+    * Returns the values of a specific sample.
+    *
+    * @param k sample index
+    * @param vals returns the values. Must have a length {@code >=}
+    * the vector size.
+    */
+   public void getValues (int k, double[] vals) {
+      checkIndex (k);
+      ByteBuffer block = getBlock (k/myBlockSize);
+      int off = 8*(k%myBlockSize);
+      int stride = 8*myBlockSize;
+      for (int i=0; i<myVsize; i++) {
+         off += stride;
+         vals[i] = block.getDouble (off);
+      }
+   }
+
+   /**
+    * Returns all the values of a specific channel.
+    *
+    * @param i value (channel) index
+    * @param vals returns the values. Must have a length {@code >=} the number
+    * of samples.
+    */
+   public void getChannel (int i, double[] vals) {
+      if (i < 0 || i >= myVsize) {
+         throw new IndexOutOfBoundsException (
+            "Value index "+i+" not in range [0,"+myVsize+")");
+      }
+      int k = 0;
+      int bidx = 0;
+      while (k < myNumSamples) {
+         ByteBuffer block = getBlock (bidx++);
+         int n = Math.min (myBlockSize, myNumSamples-k);
+         int off = 8*(i+1)*myBlockSize;
+         for (int j=0; j<n; j++) {
+            vals[k++] = block.getDouble (off);
+            off += 8;
+         }
+      }
+   }
+
+   /**
+    * Returns the number of samples whose time values are less than
+    * <code>t</code>. Time values are assumed to be non-decreasing.
+    *
+    * @param t time value
+    * @return number of samples before <code>t</code>
+    */
+   public int numSamplesBefore (double t) {
+      int lo = 0;
+      int hi = myNumSamples;
+      while (lo < hi) {
+         int mid = (lo+hi) >>> 1;
+         if (getTime (mid) < t) {
+            lo = mid+1;
+         }
+         else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+
+   /**
+    * Appends samples <code>k0</code> through <code>numSamples()-1</code> to a
+    * numeric list.
+    *
+    * @param list list to add the samples to
+    * @param k0 index of the first sample to add
+    */
+   public void addToList (NumericList list, int k0) {
+      if (list.getVectorSize() != myVsize) {
+         throw new IllegalArgumentException (
+            "List vector size "+list.getVectorSize()+
+            " incompatible with data vector size "+myVsize);
+      }
+      for (int k=k0; k<myNumSamples; k++) {
+         NumericListKnot knot = new NumericListKnot (myVsize);
+         knot.t = getTime (k);
+         getValues (k, knot.v.getBuffer());
+         list.add (knot);
+      }
+   }
+
+   /**
+    * Writes the contents of a numeric list to a binary probe file.
+    *
+    * @param file file to write to
+    * @param list list to write
+    * @param startTime probe start time
+    * @param stopTime probe stop time
+    * @param scale probe scale factor
+    * @param interval probe update interval, or -1 if times are explicit
+    * @throws IOException if an I/O error occurred
+    */
+   public static void write (
+      File file, NumericList list, double startTime, double stopTime,
+      double scale, double interval) throws IOException {
+      BinaryProbeData data = create (file, list.getVectorSize());
+      try {
+         data.setProbeInfo (
+            list.getInterpolation().getOrder(),
+            startTime, stopTime, scale, interval);
+         for (NumericListKnot knot : list) {
+            data.add (knot.t, knot.v.getBuffer());
+         }
+      }
+      finally {
+         data.close();
+      }
+   }
+
+   /**
+    * Forces any changes to be written to the storage device.
+    */
+   public void flush() {
+      if (myChannel != null && myWritable) {
+         myHeader.force();
+         for (MappedByteBuffer block : myBlocks) {
+            if (block != null) {
+               block.force();
+            }
+         }
+      }
+   }
+
+   /**
+    * Closes this data. Any changes are flushed to the storage device.
+    */
+   public void close() {
+      if (myChannel != null) {
+         flush();
+         myBlocks.clear();
+         myHeader = null;
+         try {
+            myRaf.close();
+         }
+         catch (IOException e) {
+            // ignore
+         }
+         myChannel = null;
+         myRaf = null;
+      }
+   }
+}
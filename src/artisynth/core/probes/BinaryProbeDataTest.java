@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.probes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import artisynth.core.mechmodels.Particle;
+import maspack.interpolation.Interpolation.Order;
+import maspack.interpolation.NumericList;
+import maspack.interpolation.NumericListKnot;
+import maspack.matrix.Point3d;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Tests BinaryProbeData, and the binary storage mode of NumericOutputProbe.
+ */
+public class BinaryProbeDataTest extends UnitTest {
+
+   private double sampleValue (int k, int i) {
+      return 1000*k + i + 0.5;
+   }
+
+   private File createTempFile() throws IOException {
+      File file = File.createTempFile ("binaryProbeTest", ".dat");
+      file.deleteOnExit();
+      return file;
+   }
+
+   private void checkSamples (BinaryProbeData data, int nsamps, double h) {
+      int vsize = data.getVectorSize();
+      checkEquals ("numSamples", data.numSamples(), nsamps);
+      double[] vals = new double[vsize];
+      for (int k=0; k<nsamps; k++) {
+         checkEquals ("time "+k, data.getTime(k), k*h);
+         data.getValues (k, vals);
+         for (int i=0; i<vsize; i++) {
+            checkEquals ("value ("+k+","+i+")", vals[i], sampleValue(k,i));
+            checkEquals (
+               "getValue ("+k+","+i+")", data.getValue(k,i), sampleValue(k,i));
+         }
+      }
+      double[] chan = new double[nsamps];
+      for (int i=0; i<vsize; i+=7) {
+         data.getChannel (i, chan);
+         for (int k=0; k<nsamps; k++) {
+            checkEquals ("channel ("+k+","+i+")", chan[k], sampleValue(k,i));
+         }
+      }
+   }
+
+   public void testData() throws IOException {
+      File file = createTempFile();
+      int vsize = 50;
+      double h = 0.01;
+      BinaryProbeData data = BinaryProbeData.create (file, vsize);
+      int bsize = data.getBlockSize();
+      // make sure samples extend over several blocks
+      int nsamps = 3*bsize + bsize/2;
+      double[] vals = new double[vsize];
+      for (int k=0; k<nsamps; k++) {
+         for (int i=0; i<vsize; i++) {
+            vals[i] = sampleValue (k, i);
+         }
+         data.add (k*h, vals);
+      }
+      data.setProbeInfo (Order.Cubic, 1.0, 2.0, 0.5, h);
+      checkSamples (data, nsamps, h);
+
+      checkEquals ("numSamplesBefore(0)", data.numSamplesBefore(0), 0);
+      checkEquals (
+         "numSamplesBefore(h*bsize)", data.numSamplesBefore(h*bsize), bsize);
+      checkEquals (
+         "numSamplesBefore(end)", data.numSamplesBefore(nsamps*h), nsamps);
+      data.close();
+      checkEquals ("isClosed", data.isClosed(), true);
+
+      // reopen and check header info and data
+      checkEquals ("isBinaryFile", BinaryProbeData.isBinaryFile(file), true);
+      data = BinaryProbeData.open (file);
+      checkEquals ("isWritable", data.isWritable(), false);
+      checkEquals ("vsize", data.getVectorSize(), vsize);
+      checkEquals ("order", data.getInterpolationOrder(), Order.Cubic);
+      checkEquals ("startTime", data.getStartTime(), 1.0);
+      checkEquals ("stopTime", data.getStopTime(), 2.0);
+      checkEquals ("scale", data.getScale(), 0.5);
+      checkEquals ("updateInterval", data.getUpdateInterval(), h);
+      checkSamples (data, nsamps, h);
+
+      NumericList list = new NumericList (vsize);
+      data.addToList (list, 0);
+      checkEquals ("list size", list.getNumKnots(), nsamps);
+      int k = 0;
+      for (NumericListKnot knot : list) {
+         checkEquals ("list time "+k, knot.t, k*h);
+         checkEquals ("list value "+k, knot.v.get(vsize-1),
+                      sampleValue (k, vsize-1));
+         k++;
+      }
+      data.close();
+
+      // reopen for writing, truncate, and append
+      data = BinaryProbeData.open (file, /*writable=*/true);
+      int ntrunc = 2*bsize - 3;
+      data.truncate (ntrunc);
+      for (k=ntrunc; k<nsamps+bsize; k++) {
+         for (int i=0; i<vsize; i++) {
+            vals[i] = sampleValue (k, i);
+         }
+         data.add (k*h, vals);
+      }
+      checkSamples (data, nsamps+bsize, h);
+      data.close();
+
+      data = BinaryProbeData.open (file);
+      checkSamples (data, nsamps+bsize, h);
+      data.close();
+
+      // text files should not be recognized as binary
+      File textFile = createTempFile();
+      PrintWriter pw = new PrintWriter (textFile);
+      pw.println ("0 1 1\nLinear 1 explicit\n0 1\n");
+      pw.close();
+      checkEquals (
+         "isBinaryFile(text)", BinaryProbeData.isBinaryFile(textFile), false);
+      try {
+         BinaryProbeData.open (textFile);
+         throw new TestException ("Expected IOException for text file");
+      }
+      catch (IOException e) {
+         // expected
+      }
+   }
+
+   private String writeData (NumericOutputProbe probe) throws IOException {
+      StringWriter sw = new StringWriter();
+      PrintWriter pw = new PrintWriter (sw);
+      probe.writeData (pw, "%g", /*showTime=*/true);
+      pw.flush();
+      return sw.toString();
+   }
+
+   private void runProbes (
+      Particle p, NumericOutputProbe textProbe, NumericOutputProbe binProbe,
+      double t0, double t1, double h) {
+      for (double t=t0; t<=t1+1e-10; t+=h) {
+         p.setPosition (new Point3d (t, 2*t, -t));
+         textProbe.apply (t);
+         binProbe.apply (t);
+      }
+   }
+
+   public void testOutputProbe() throws IOException {
+      Particle p = new Particle (1, 0, 0, 0);
+      File file = createTempFile();
+      double h = 0.01;
+      NumericOutputProbe textProbe =
+         new NumericOutputProbe (p, "position", null, h);
+      NumericOutputProbe binProbe =
+         new NumericOutputProbe (p, "position", file.toString(), h);
+      binProbe.setBinaryFormat (true);
+
+      runProbes (p, textProbe, binProbe, 0, 1, h);
+      // data should be streamed, and not loaded into the numeric list
+      checkEquals ("binary data present", binProbe.getBinaryData() != null, true);
+      checkEquals (
+         "numSamples", binProbe.getBinaryData().numSamples(),
+         textProbe.getNumericList().getNumKnots());
+      checkEquals ("isEmpty", binProbe.isEmpty(), false);
+      checkEquals ("text export", writeData(binProbe), writeData(textProbe));
+
+      // rerun part of the interval, which should replace later samples
+      runProbes (p, textProbe, binProbe, 0.5, 0.75, h);
+      checkEquals ("text export after rerun",
+                   writeData(binProbe), writeData(textProbe));
+      checkEquals (
+         "numKnots after rerun", binProbe.getNumericList().getNumKnots(),
+         textProbe.getNumericList().getNumKnots());
+
+      // save and read back into a new probe
+      binProbe.save();
+      checkEquals ("isBinaryFile", BinaryProbeData.isBinaryFile(file), true);
+      NumericOutputProbe readProbe =
+         new NumericOutputProbe (p, "position", null, h);
+      readProbe.read (file, /*setTimes=*/false);
+      checkEquals ("text export after read",
+                   writeData(readProbe), writeData(textProbe));
+      checkEquals (
+         "numKnots after read", readProbe.getNumericList().getNumKnots(),
+         textProbe.getNumericList().getNumKnots());
+      readProbe.dispose();
+      binProbe.dispose();
+   }
+
+   public void test() throws IOException {
+      testData();
+      testOutputProbe();
+   }
+
+   public static void main (String[] args) {
+      BinaryProbeDataTest tester = new BinaryProbeDataTest();
+      tester.runtest();
+   }
+}
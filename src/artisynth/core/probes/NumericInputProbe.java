@@ -230,6 +230,7 @@ public class NumericInputProbe extends NumericProbeBase
     * if an I/O error occurs.
     */
    public void write (PrintWriter pw, String fmtStr) throws IOException {
+      ensureDataLoaded();
       pw.println (getStartTime() + " " + getStopTime() + " " + myScale);
       pw.print (myInterpolation.getOrder()+" "+myNumericList.getVectorSize());
       pw.println (" explicit");
@@ -406,6 +407,7 @@ public class NumericInputProbe extends NumericProbeBase
     * current time
     */
    public void apply (double t) {
+      ensureDataLoaded();
       double tloc = (t-getStartTime()) / myScale;
       myNumericList.interpolate (myTmpVec, tloc);
       int k = 0;
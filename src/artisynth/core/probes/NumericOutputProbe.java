@@ -16,6 +16,7 @@ import java.util.*;
 import maspack.interpolation.NumericList;
 import maspack.interpolation.NumericListKnot;
 import maspack.matrix.ImproperStateException;
+import maspack.matrix.VectorNd;
 import maspack.properties.NumericConverter;
 import maspack.properties.Property;
 import maspack.properties.PropertyList;
@@ -32,6 +33,10 @@ public class NumericOutputProbe extends NumericProbeBase
    private boolean myShowHeader;
    private static boolean defaultShowHeader = true;
 
+   private boolean myBinaryFormat;
+   private static boolean defaultBinaryFormat = false;
+   private NumericListKnot myBinaryKnot;
+
    public static PropertyList myProps =
       new PropertyList (NumericOutputProbe.class, NumericProbeBase.class);
 
@@ -43,6 +48,10 @@ public class NumericOutputProbe extends NumericProbeBase
       myProps.add (
          "showHeader * *", "show header explicitly in output file",
          defaultShowHeader);
+      myProps.add (
+         "binaryFormat * *",
+         "stream data to the attached file in binary format",
+         defaultBinaryFormat);
    }
 
    public PropertyList getAllPropertyInfo() {
@@ -53,6 +62,7 @@ public class NumericOutputProbe extends NumericProbeBase
       super.setDefaultValues();
       myShowTime = defaultShowTime;
       myShowHeader = defaultShowHeader;
+      myBinaryFormat = defaultBinaryFormat;
    }
 
    public boolean getShowTime() {
@@ -71,6 +81,47 @@ public class NumericOutputProbe extends NumericProbeBase
       myShowHeader = enable;
    }
 
+   /**
+    * Queries whether this probe stores its data in binary format.
+    *
+    * @return <code>true</code> if binary format is enabled
+    * @see #setBinaryFormat
+    */
+   public boolean getBinaryFormat() {
+      return myBinaryFormat;
+   }
+
+   /**
+    * Sets whether this probe stores its data in binary format. If enabled,
+    * and the probe has an attached file, data is streamed to that file as it
+    * is generated, using the memory-mapped format implemented by {@link
+    * BinaryProbeData}, and is only loaded into the probe's numeric list when
+    * it is needed (such as for display). This greatly reduces memory and I/O
+    * costs for probes with many channels or samples. The data can still be
+    * exported in text format using {@link #writeData} or {@link #export}.
+    *
+    * @param enable if <code>true</code>, enables binary format
+    */
+   public void setBinaryFormat (boolean enable) {
+      if (enable != myBinaryFormat) {
+         if (!enable && myBinaryData != null) {
+            ensureDataLoaded();
+            closeBinaryData();
+         }
+         myBinaryFormat = enable;
+      }
+   }
+
+   @Override
+   public void setAttachedFileName (String fileName) {
+      if (myBinaryData != null) {
+         // detach the current binary data, retaining its samples
+         ensureDataLoaded();
+         closeBinaryData();
+      }
+      super.setAttachedFileName (fileName);
+   }
+
    public NumericOutputProbe() {
       setDefaultValues();
       myPlotTraceManager = new PlotTraceManager ("output");
@@ -164,7 +215,7 @@ public class NumericOutputProbe extends NumericProbeBase
    public void write (PrintWriter pw, String fmtStr, boolean showTime)
       throws IOException {
       pw.println (getStartTime() + " " + getStopTime() + " " + myScale);
-      pw.print (myInterpolation.getOrder()+" "+myNumericList.getVectorSize());
+      pw.print (myInterpolation.getOrder()+" "+myVsize);
       if (showTime) {
          pw.println (" explicit");
       }
@@ -199,6 +250,10 @@ public class NumericOutputProbe extends NumericProbeBase
          if (isAttachedFileRelative()) {
             file.getParentFile().mkdirs();
          }
+         if (myBinaryFormat) {
+            saveBinary (file);
+            return;
+         }
          PrintWriter pw = 
             new PrintWriter (new BufferedWriter (new FileWriter (file)));
          try {
@@ -218,6 +273,81 @@ public class NumericOutputProbe extends NumericProbeBase
       }
    }
 
+   private double getBinaryUpdateInterval() {
+      return myShowTime ? EXPLICIT_TIME : getUpdateInterval();
+   }
+
+   /**
+    * Saves the probe data to a file in binary format. If the data is already
+    * being streamed to that file, then the file header is updated and the
+    * data is flushed.
+    */
+   private void saveBinary (File file) throws IOException {
+      if (myBinaryData != null && myBinaryData.isWritable() &&
+          file.equals (myBinaryData.getFile())) {
+         myBinaryData.setProbeInfo (
+            myInterpolation.getOrder(), getStartTime(), getStopTime(),
+            myScale, getBinaryUpdateInterval());
+         myBinaryData.flush();
+      }
+      else {
+         // make sure all data is loaded before (possibly) overwriting
+         // the file it is being loaded from
+         ensureDataLoaded();
+         closeBinaryData();
+         BinaryProbeData.write (
+            file, myNumericList, getStartTime(), getStopTime(),
+            myScale, getBinaryUpdateInterval());
+      }
+   }
+
+   /**
+    * Opens binary data on the attached file for streaming, if binary format
+    * is enabled and the data is not already open.
+    */
+   private boolean maybeOpenBinaryData() {
+      if (myBinaryData != null && myBinaryData.isWritable()) {
+         return true;
+      }
+      File file = getAttachedFile();
+      if (!myBinaryFormat || file == null || file.isDirectory()) {
+         return false;
+      }
+      try {
+         if (myBinaryData != null && file.equals (myBinaryData.getFile()) &&
+             myBinaryData.getVectorSize() == myVsize &&
+             myNumBinaryLoaded == 0 && myNumericList.isEmpty()) {
+            // reopen the existing data for writing, without loading it
+            closeBinaryData();
+            myBinaryData = BinaryProbeData.open (file, /*writable=*/true);
+            return true;
+         }
+         // retain any data that was loaded from the file
+         ensureDataLoaded();
+         closeBinaryData();
+         if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+         }
+         myBinaryData = BinaryProbeData.create (file, myVsize);
+         myBinaryData.setProbeInfo (
+            myInterpolation.getOrder(), getStartTime(), getStopTime(),
+            myScale, getBinaryUpdateInterval());
+         for (NumericListKnot knot : myNumericList) {
+            myBinaryData.add (knot.t, knot.v.getBuffer());
+         }
+         myNumBinaryLoaded = myBinaryData.numSamples();
+         return true;
+      }
+      catch (IOException e) {
+         System.out.println (
+            "WARNING: can't open binary file '"+file+
+            "' for probe data; storing data in memory: " + e);
+         closeBinaryData();
+         myBinaryFormat = false;
+         return false;
+      }
+   }
+
    /**
     * When called (perhaps by the Artsynth timeline), causes information about
     * this probe to be loaded from the attached file.
@@ -237,6 +367,20 @@ public class NumericOutputProbe extends NumericProbeBase
          }
       }
       NumberFormat fmt = new NumberFormat (fmtStr);
+      if (myBinaryData != null && myNumBinaryLoaded == 0 &&
+          myNumericList.isEmpty()) {
+         // data not loaded yet, so write it directly from the binary data
+         VectorNd vec = new VectorNd (myVsize);
+         for (int k=0; k<myBinaryData.numSamples(); k++) {
+            myBinaryData.getValues (k, vec.getBuffer());
+            if (showTime) {
+               pw.print (timeFmt.format (myBinaryData.getTime(k)) + " ");
+            }
+            pw.println (vec.toString (fmt));
+         }
+         return;
+      }
+      ensureDataLoaded();
       Iterator<NumericListKnot> it = myNumericList.iterator();
       while (it.hasNext()) {
          NumericListKnot knot = it.next();
@@ -254,7 +398,18 @@ public class NumericOutputProbe extends NumericProbeBase
       // XXX don't we want to apply scaling here too?
       double tloc = (t-getStartTime())/myScale;
 
-      NumericListKnot knot = new NumericListKnot (myVsize);
+      boolean streamBinary = (myBinaryFormat && maybeOpenBinaryData());
+      NumericListKnot knot;
+      if (streamBinary) {
+         // knot is only used as a buffer, so it can be reused
+         if (myBinaryKnot == null || myBinaryKnot.v.size() != myVsize) {
+            myBinaryKnot = new NumericListKnot (myVsize);
+         }
+         knot = myBinaryKnot;
+      }
+      else {
+         knot = new NumericListKnot (myVsize);
+      }
       int i = 0;
       for (NumericProbeVariable var : myVariables.values()) {
          Object obj = myPropList.get (i).get();
@@ -271,6 +426,20 @@ public class NumericOutputProbe extends NumericProbeBase
          }
       }
       knot.t = tloc;
+      if (streamBinary) {
+         // remove any samples at or after tloc, and then stream the sample
+         // to the binary data without adding it to the numeric list
+         int num = myBinaryData.numSamplesBefore (tloc);
+         if (num < myBinaryData.numSamples()) {
+            myBinaryData.truncate (num);
+            if (num < myNumBinaryLoaded) {
+               myNumericList.clear();
+               myNumBinaryLoaded = 0;
+            }
+         }
+         myBinaryData.add (tloc, buf);
+         return;
+      }
       myNumericList.add (knot);
       myNumericList.clearAfter (knot);
    }
@@ -404,6 +573,20 @@ public class NumericOutputProbe extends NumericProbeBase
 
       tmpVariableNames = null;
       tmpDriverExpressions = null;
+
+      // data for binary format probes is stored in the attached file,
+      // from which it is loaded lazily
+      File file = getAttachedFile();
+      if (myBinaryFormat && myNumericList.isEmpty() &&
+          BinaryProbeData.isBinaryFile (file)) {
+         try {
+            readBinary (file, /*setTimes=*/false);
+         }
+         catch (IOException e) {
+            System.out.println (
+               "WARNING: can't read binary probe data from '"+file+"': "+e);
+         }
+      }
    }
 
    public void writeItems (
@@ -444,7 +627,10 @@ public class NumericOutputProbe extends NumericProbeBase
       else {
          pw.println ("drivers=[ ]");
       }
-      if (myNumericList != null) {
+      if (myNumericList != null &&
+          !(myBinaryFormat && getAttachedFile() != null)) {
+         // data for binary format probes is stored in the attached file
+         ensureDataLoaded();
          pw.println ("data=[");
          IndentingPrintWriter.addIndentation (pw, 2);      
          for (NumericListKnot knot : myNumericList) {
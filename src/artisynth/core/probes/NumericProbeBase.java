@@ -41,6 +41,10 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
    public static final double EXPLICIT_TIME = -1;
 
    protected NumericList myNumericList = null;
+   // binary data from which myNumericList is lazily loaded, if any
+   protected BinaryProbeData myBinaryData = null;
+   // number of samples of myBinaryData that have been loaded
+   protected int myNumBinaryLoaded = 0;
    protected LinkedHashMap<String,NumericProbeVariable> myVariables = null;
    protected ArrayList<NumericProbeDriver> myDrivers = null;
    protected ArrayList<Property> myPropList = null;
@@ -113,6 +117,7 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
     * @return Values of this numeric probe
     */   
    public double[][] getValues() {
+      ensureDataLoaded();
       return myNumericList.getValues();
    }
 
@@ -124,6 +129,7 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
     * @param vals Values used to set this numeric probe
     */  
    public void setValues(double[][] vals) {
+      ensureDataLoaded();
       myNumericList.setValues (vals);
       updateDisplays();
    }
@@ -169,6 +175,7 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
    }
 
    public void createNumericList (int vsize) {
+      closeBinaryData();
       myVsize = vsize;
       myNumericList = new NumericList (myVsize);
       myNumericList.setInterpolation (myInterpolation);
@@ -194,6 +201,9 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
    }
 
    public void updateDisplays (NumericProbePanel notToUpdate) {
+      if (myDisplays.size() > 0) {
+         ensureDataLoaded();
+      }
       for (NumericProbePanel display : myDisplays) {
          if (display.isVisible() && display != notToUpdate) {
             display.repaint();
@@ -344,12 +354,16 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
    }
 
    public double[] getMinMaxValues() {
+      ensureDataLoaded();
       double[] minMax = new double[2];
       myNumericList.getMinMaxValues (minMax);
       return minMax;
    }
 
    public boolean isEmpty() {
+      if (myBinaryData != null && myBinaryData.numSamples() > 0) {
+         return false;
+      }
       return myNumericList.isEmpty();
    }
 
@@ -373,6 +387,7 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
    }
    
    public double[] getRange() {
+      ensureDataLoaded();
       return getRange (myNumericList);
    }
 
@@ -396,6 +411,7 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
     * the parameter by which to scale the values.
     */
    public void scaleNumericList (double s) {
+      ensureDataLoaded();
       myNumericList.scale(s);
       updateDisplays();
    }
@@ -408,9 +424,54 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
    }
 
    public NumericList getNumericList() {
+      ensureDataLoaded();
       return myNumericList;
    }
 
+   /**
+    * Returns the binary data from which this probe's numeric list is loaded,
+    * or <code>null</code> if the probe's data is not associated with a binary
+    * file.
+    *
+    * @return binary data for this probe, or <code>null</code>
+    */
+   public BinaryProbeData getBinaryData() {
+      return myBinaryData;
+   }
+
+   /**
+    * Loads into the numeric list any samples from the binary data that
+    * have not already been loaded. Binary data is loaded lazily, so this
+    * should be called before the numeric list is accessed.
+    */
+   protected void ensureDataLoaded() {
+      if (myBinaryData != null && myNumericList != null &&
+          !myBinaryData.isClosed()) {
+         int nsamps = myBinaryData.numSamples();
+         if (nsamps < myNumBinaryLoaded) {
+            // binary data has been truncated; reload it
+            myNumericList.clear();
+            myNumBinaryLoaded = 0;
+         }
+         if (nsamps > myNumBinaryLoaded) {
+            myBinaryData.addToList (myNumericList, myNumBinaryLoaded);
+            myNumBinaryLoaded = nsamps;
+         }
+      }
+   }
+
+   /**
+    * Closes any binary data associated with this probe. Data that has
+    * already been loaded remains in the numeric list.
+    */
+   protected void closeBinaryData() {
+      if (myBinaryData != null) {
+         myBinaryData.close();
+         myBinaryData = null;
+         myNumBinaryLoaded = 0;
+      }
+   }
+
    public LinkedHashMap<String,NumericProbeVariable> getVariables() {
       return myVariables;
    }
@@ -586,8 +647,11 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
    }
 
    public Object clone() throws CloneNotSupportedException {
+      ensureDataLoaded();
       NumericProbeBase probe = (NumericProbeBase)super.clone();
       probe.myNumericList = (NumericList)myNumericList.clone();
+      probe.myBinaryData = null;
+      probe.myNumBinaryLoaded = 0;
       probe.myInterpolation = new Interpolation (myInterpolation);
 
       if (myVariables != null) {
@@ -642,6 +706,7 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
 
    public VectorNd getData (double sec) {
 	  VectorNd vals = new VectorNd(myVsize);
+      ensureDataLoaded();
       double t = getVirtualTime (sec);
       myNumericList.interpolate (
          vals, t, myNumericList.getInterpolation().getOrder(), 
@@ -750,6 +815,7 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
     */
    public void dispose () {
       removeLegend();
+      closeBinaryData();
    }
 
    public String getMatlabName () {
@@ -943,6 +1009,10 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
     */
    public void read (File file, boolean setTimes) throws IOException {
       // myAttachedFile = null;
+      if (BinaryProbeData.isBinaryFile (file)) {
+         readBinary (file, setTimes);
+         return;
+      }
       ReaderTokenizer rtok =
          new ReaderTokenizer (new BufferedReader (new FileReader (file)));
       try {
@@ -1018,12 +1088,46 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
             + rtok.lineno());
       }
       // myNumericList = new NumericList (numValues);
+      closeBinaryData();
       myNumericList = new NumericList (myVsize);
       myInterpolation.setOrder (interpolationOrder);
       myNumericList.setInterpolation (myInterpolation);
       addData (rtok, timeStep);
    }
 
+   /**
+    * Reads the start and stop times, scale value, and data for this probe
+    * from a binary probe file, as written by {@link BinaryProbeData}. The
+    * data itself is not read immediately, but is instead loaded lazily when
+    * it is first needed.
+    *
+    * @param file binary file from which to read the probe data
+    * @param setTimes if <code>true</code>, sets the start time, stop time,
+    * and scale values to those indicated in the file.
+    * @throws IOException
+    * if an I/O or format error occurred.
+    */
+   protected void readBinary (File file, boolean setTimes) throws IOException {
+      BinaryProbeData data = BinaryProbeData.open (file);
+      if (data.getVectorSize() != myVsize) {
+         data.close();
+         throw new IOException (
+            "File '"+file+"': vector size "+data.getVectorSize()+
+            " incompatible with probe vector size "+myVsize);
+      }
+      if (setTimes) {
+         setStartTime (data.getStartTime());
+         setStopTime (data.getStopTime());
+         setScale (data.getScale());
+      }
+      closeBinaryData();
+      myNumericList = new NumericList (myVsize);
+      myInterpolation.setOrder (data.getInterpolationOrder());
+      myNumericList.setInterpolation (myInterpolation);
+      myBinaryData = data;
+      myNumBinaryLoaded = 0;
+   }
+
    protected void load(boolean setTimes) throws IOException {
       File file = getAttachedFile();
       if (file != null) {
@@ -1050,20 +1154,27 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
 
       try {
          NumberFormat fmt = new NumberFormat (fmtStr);
-         Iterator<NumericListKnot> it = myNumericList.iterator();
-         while (it.hasNext()) {
-            NumericListKnot knot = it.next();
-            if (includeTime) {
-               pw.print (fmt.format (knot.t));
+         if (myBinaryData != null && myNumBinaryLoaded == 0 &&
+             myNumericList.isEmpty()) {
+            // data not loaded yet, so write it directly from the binary data
+            double[] vals = new double[myVsize];
+            for (int k=0; k<myBinaryData.numSamples(); k++) {
+               myBinaryData.getValues (k, vals);
+               writeTextLine (
+                  pw, fmt, separator, includeTime,
+                  myBinaryData.getTime(k), vals, myVsize);
             }
-            for (int i=0; i<knot.v.size(); i++) {
-               if (includeTime || i>0) {
-                  pw.print (separator);
-               }
-               pw.print (fmt.format(knot.v.get(i)));
+         }
+         else {
+            ensureDataLoaded();
+            Iterator<NumericListKnot> it = myNumericList.iterator();
+            while (it.hasNext()) {
+               NumericListKnot knot = it.next();
+               writeTextLine (
+                  pw, fmt, separator, includeTime,
+                  knot.t, knot.v.getBuffer(), knot.v.size());
             }
-            pw.println ("");
-         }     
+         }
       }
       catch (Exception e) {
          if (e instanceof IOException) {
@@ -1078,6 +1189,21 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
       }
    }
 
+   private void writeTextLine (
+      PrintWriter pw, NumberFormat fmt, String separator, boolean includeTime,
+      double t, double[] vals, int size) {
+      if (includeTime) {
+         pw.print (fmt.format (t));
+      }
+      for (int i=0; i<size; i++) {
+         if (includeTime || i>0) {
+            pw.print (separator);
+         }
+         pw.print (fmt.format(vals[i]));
+      }
+      pw.println ("");
+   }
+
    /**
     * Still being implemented
     */
@@ -474,7 +474,7 @@ public abstract class Probe extends ModelAgentBase {
          return file;
       }
       else {
-         if (useOldSaveMethod) {
+         if (useOldSaveMethod || Main.getMain() == null) {
             return new File (ArtisynthPath.getWorkingDir(), fileName);
          }
          else {
@@ -495,7 +495,7 @@ public abstract class Probe extends ModelAgentBase {
          return null;
       }
       File dir;
-      if (useOldSaveMethod) {
+      if (useOldSaveMethod || Main.getMain() == null) {
          dir = ArtisynthPath.getWorkingDir();
       }
       else {
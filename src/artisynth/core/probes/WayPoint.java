@@ -6,6 +6,9 @@
  */
 package artisynth.core.probes;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
 import artisynth.core.modelbase.CompositeState;
 import artisynth.core.util.TimeBase;
 import artisynth.core.workspace.RootModel;
@@ -20,6 +23,16 @@ public class WayPoint {
    protected WayPoint myNext;
    protected WayPoint myPrev;
 
+   // compact state storage, used if the waypoint belongs to a
+   // WayPointProbe for which compact states are enabled
+   protected WayPointStateStore myStore;
+   protected ByteBuffer myStateData;         // encoded state record
+   protected CompositeState myStateLayout;   // layout for decoding the state
+   protected int myStateSize;                // number of flattened words
+   protected WayPoint myStateRef;            // waypoint record is relative to
+   protected int myStateDepth;               // records since last key frame
+   protected ArrayList<WayPoint> myStateDependents; // records relative to this
+
    public WayPoint (double t) {
       setTime (t);
    }
@@ -46,26 +59,78 @@ public class WayPoint {
       myValidP = valid;
    }
 
+   /**
+    * Returns the state stored in this waypoint. If the state is kept in
+    * compact form, it is reconstructed and a new state object is returned
+    * each time, so that changes to it will not affect the waypoint.
+    *
+    * @return waypoint state, or {@code null} if there is none
+    */
    public CompositeState getState() {
+      if (myStateData != null) {
+         return myStore.load (this);
+      }
       return myState;
    }
 
    public void setState (RootModel model) {
-      myState = (CompositeState)model.createState(null);
+      CompositeState state = (CompositeState)model.createState(null);
       if (myTime == 0) {
-         model.getInitialState (myState, null);
+         model.getInitialState (state, null);
       }
       else {
-         model.getState (myState);
+         model.getState (state);
       }
-      setValid (true);
+      setState (state);
    }
    
    public void setState (CompositeState state) {
-      myState = state;
+      if (myStore != null && myTime > 0 && myStore.store (this, state)) {
+         myState = null;
+      }
+      else {
+         if (myStore != null) {
+            myStore.release (this);
+         }
+         myState = state;
+      }
       setValid (true);
    }
 
+   /**
+    * Sets the store used to keep this waypoint's state in compact form, or
+    * removes it if {@code store} is {@code null}. Any existing state is
+    * transferred.
+    */
+   void setStateStore (WayPointStateStore store) {
+      if (store != myStore) {
+         CompositeState state = getState();
+         if (myStore != null) {
+            myStore.release (this);
+         }
+         myStore = store;
+         myState = null;
+         if (state != null) {
+            boolean valid = isValid();
+            setState (state);
+            setValid (valid);
+         }
+      }
+   }
+
+   void addStateDependent (WayPoint way) {
+      if (myStateDependents == null) {
+         myStateDependents = new ArrayList<>();
+      }
+      myStateDependents.add (way);
+   }
+
+   void removeStateDependent (WayPoint way) {
+      if (myStateDependents != null) {
+         myStateDependents.remove (way);
+      }
+   }
+
    public boolean isBreakPoint() {
       return myBreakPointP;
    }
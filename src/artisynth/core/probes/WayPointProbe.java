@@ -28,6 +28,9 @@ public class WayPointProbe extends OutputProbe implements Iterable<WayPoint> {
 
    protected int myWriteFlags = 0;
 
+   public static boolean DEFAULT_COMPACT_STATES = false;
+   protected WayPointStateStore myStateStore = null;
+
    private class MyIterator implements Iterator<WayPoint> {
 
       WayPoint myNext;
@@ -122,6 +125,7 @@ public class WayPointProbe extends OutputProbe implements Iterable<WayPoint> {
       myWayPoints = new TreeMap<Double,WayPoint>();
       myWayPoints.put (0.0, myWay0);
       myWay0.setValid (false);
+      setCompactStates (DEFAULT_COMPACT_STATES);
    }
 
    public WayPointProbe (RootModel model) {
@@ -137,6 +141,48 @@ public class WayPointProbe extends OutputProbe implements Iterable<WayPoint> {
       return myCheckStateP;
    }
 
+   /**
+    * Enables or disables compact storage for the waypoint states. When
+    * enabled, the states of all waypoints except the one at time 0 are kept
+    * in a {@link WayPointStateStore}, which stores them outside the Java heap
+    * as key frames and XOR-encoded differences, greatly reducing the memory
+    * required for dense waypoints. States are then reconstructed each time
+    * they are requested by {@link WayPoint#getState}. Existing waypoint
+    * states are converted when this setting is changed.
+    *
+    * @param enable if {@code true}, enables compact state storage
+    */
+   public void setCompactStates (boolean enable) {
+      if (enable != getCompactStates()) {
+         myStateStore = (enable ? new WayPointStateStore() : null);
+         for (WayPoint way : myWayPoints.values()) {
+            if (way != myWay0) {
+               way.setStateStore (myStateStore);
+            }
+         }
+      }
+   }
+
+   /**
+    * Queries whether compact storage is enabled for the waypoint states.
+    * See {@link #setCompactStates}.
+    *
+    * @return {@code true} if compact state storage is enabled
+    */
+   public boolean getCompactStates() {
+      return myStateStore != null;
+   }
+
+   /**
+    * Returns the store used to keep waypoint states in compact form, or
+    * {@code null} if compact storage is not enabled.
+    *
+    * @return compact state store, if any
+    */
+   public WayPointStateStore getStateStore() {
+      return myStateStore;
+   }
+
    public void resetInitialState() {
       RootModel root = getRootModel();
       WayPoint way0 = get (0);
@@ -200,6 +246,9 @@ public class WayPointProbe extends OutputProbe implements Iterable<WayPoint> {
          oldWay = next;
          next = oldWay.myNext;
       }
+      if (oldWay != null) {
+         oldWay.setStateStore (null);
+      }
       newWay.myPrev = prev;
       newWay.myNext = next;
       prev.myNext = newWay;
@@ -211,6 +260,7 @@ public class WayPointProbe extends OutputProbe implements Iterable<WayPoint> {
          throw new InternalErrorException (
             "TreeMap and linked list report different existing WayPoint");
       }
+      newWay.setStateStore (myStateStore);
       return oldWay;
    }
 
@@ -235,6 +285,7 @@ public class WayPointProbe extends OutputProbe implements Iterable<WayPoint> {
                throw new InternalErrorException (
                   "Removed WayPoint does not have a previous WayPoint"); 
             }
+            way.setStateStore (null);
             prev.myNext = next;
             if (next != null) {
                next.myPrev = prev;
@@ -263,6 +314,15 @@ public class WayPointProbe extends OutputProbe implements Iterable<WayPoint> {
     * Clears all waypoints in this probe, except for the waypoint at time 0.
     */
    public void clear() {
+      if (myStateStore != null) {
+         // release in reverse order so that no records need to be rebased
+         for (WayPoint way : myWayPoints.descendingMap().values()) {
+            if (way != myWay0) {
+               myStateStore.release (way);
+               way.myStore = null;
+            }
+         }
+      }
       myWayPoints.clear();
       myWayPoints.put (0.0, myWay0);
       myWay0.myNext = null;
@@ -1,6 +1,12 @@
 package artisynth.core.probes;
 
 import java.util.ListIterator;
+
+import artisynth.core.mechmodels.MechModel;
+import artisynth.core.mechmodels.Particle;
+import artisynth.core.modelbase.*;
+import artisynth.core.workspace.RootModel;
+import maspack.matrix.Point3d;
 import maspack.util.*;
 
 public class WayPointProbeTest extends UnitTest {
@@ -228,6 +234,185 @@ public class WayPointProbeTest extends UnitTest {
          check ("way point "+i+" is valid", !ways[i].isValid());
       }      
 
+      compactStateTest();
+      recordStateTest (/*compactFirst=*/true);
+      recordStateTest (/*compactFirst=*/false);
+   }
+
+   /**
+    * Creates a state with a single numeric substate whose values are those
+    * of a random walk, so that successive states are similar.
+    */
+   CompositeState createState (double[] vals, int step) {
+      CompositeState state = new CompositeState();
+      NumericState nstate = new NumericState();
+      nstate.zput (step);
+      nstate.zput (-step);
+      for (int i=0; i<vals.length; i++) {
+         if (i < vals.length/2) {
+            // first half of the values change with each step
+            vals[i] += 1e-3*RandomGenerator.nextDouble (-1, 1);
+         }
+         nstate.dput (vals[i]);
+      }
+      state.addState (nstate);
+      state.addState (new NumericState());
+      return state;
+   }
+
+   void checkStates (String msg, WayPointProbe wayPoints, WayPoint[] ways,
+      CompositeState[] states) {
+      for (int i=1; i<ways.length; i++) {
+         if (states[i] != null && ways[i].getState() != null) {
+            StringBuilder errMsg = new StringBuilder();
+            if (!states[i].equals (ways[i].getState(), errMsg)) {
+               throw new TestException (
+                  msg + ": state for waypoint "+i+" differs:\n" + errMsg);
+            }
+         }
+      }
+   }
+
+   public void compactStateTest() {
+      WayPointProbe wayPoints = new WayPointProbe();
+      wayPoints.setCompactStates (true);
+      WayPointStateStore store = wayPoints.getStateStore();
+      store.setKeyFrameInterval (4);
+
+      int nways = 30;
+      int nvals = 200;
+      double[] vals = new double[nvals];
+      for (int i=0; i<nvals; i++) {
+         vals[i] = RandomGenerator.nextDouble (-1, 1);
+      }
+      WayPoint[] ways = new WayPoint[nways];
+      CompositeState[] states = new CompositeState[nways];
+      for (int i=1; i<nways; i++) {
+         ways[i] = new WayPoint (i);
+         wayPoints.add (ways[i]);
+         states[i] = createState (vals, i);
+         ways[i].setState (states[i].duplicate());
+      }
+      checkEquals ("num records", store.numRecords(), nways-1);
+      checkStates ("initial", wayPoints, ways, states);
+      long rawBytes = (nways-1)*(8*nvals + 8);
+      check ("compact storage "+store.getNumBytes()+
+             " not less than raw storage "+rawBytes,
+             store.getNumBytes() < 0.8*rawBytes);
+
+      // access in random order
+      for (int k=0; k<50; k++) {
+         int i = RandomGenerator.nextInt (1, nways-1);
+         check ("random access state "+i+" differs",
+                states[i].equals (ways[i].getState(), null));
+      }
+
+      // replace a state while later states remain valid
+      states[10] = createState (vals, 10);
+      ways[10].setState (states[10].duplicate());
+      checkStates ("after replacement", wayPoints, ways, states);
+
+      // invalidate and rerecord
+      wayPoints.invalidateAfterTime (15.0);
+      for (int i=16; i<20; i++) {
+         states[i] = createState (vals, i);
+         ways[i].setState (states[i].duplicate());
+      }
+      for (int i=20; i<nways; i++) {
+         states[i] = null; // no longer guaranteed to be retained
+      }
+      checkStates ("after rerecording", wayPoints, ways, states);
+
+      // remove some waypoints
+      wayPoints.remove (12.0);
+      wayPoints.remove (17.0);
+      checkStates ("after removal", wayPoints, ways, states);
+      check ("removed waypoint lost its state",
+             states[12].equals (ways[12].getState(), null));
+
+      // changing the state returned by getState() does not affect the
+      // waypoint
+      CompositeState state = ways[5].getState();
+      ((NumericState)state.getState(0)).dbuffer()[0] += 1.0;
+      check ("waypoint state changed",
+             states[5].equals (ways[5].getState(), null));
+
+      // converting back to regular storage
+      wayPoints.setCompactStates (false);
+      check ("state store not removed", wayPoints.getStateStore() == null);
+      checkStates ("after conversion", wayPoints, ways, states);
+      checkEquals ("num records", store.numRecords(), 0);
+
+      wayPoints.setCompactStates (true);
+      checkStates ("after reconversion", wayPoints, ways, states);
+      wayPoints.clear();
+      checkEquals (
+         "num records after clear", 
+         wayPoints.getStateStore().numRecords(), 0);
+   }
+
+   /**
+    * Sets the particle to a position that depends on a step number.
+    */
+   void setStepPosition (Particle part, int step) {
+      part.setPosition (new Point3d (step, 2*step, -step));
+   }
+
+   void checkRecordedState (
+      String msg, RootModel root, Particle part, WayPoint way, int step) {
+      CompositeState state = way.getState();
+      check (msg + ": no state for waypoint "+way.getTime(), state != null);
+      root.setState (state);
+      checkEquals (
+         msg + ": recorded position for waypoint "+way.getTime(),
+         part.getPosition(), new Point3d (step, 2*step, -step));
+   }
+
+   /**
+    * Tests recording waypoint states from a root model via {@code apply()},
+    * with compact storage either enabled before recording or enabled
+    * afterward by converting the existing states. Rerecording a waypoint
+    * must replace its stored state.
+    */
+   public void recordStateTest (boolean compactFirst) {
+      RootModel root = new RootModel();
+      MechModel mech = new MechModel ("mech");
+      Particle part = new Particle ("part", 1.0, 0, 0, 0);
+      mech.addParticle (part);
+      root.addModel (mech);
+
+      WayPointProbe wayPoints = new WayPointProbe (root);
+      wayPoints.setCompactStates (compactFirst);
+      int nways = 10;
+      WayPoint[] ways = new WayPoint[nways];
+      for (int i=1; i<nways; i++) {
+         ways[i] = new WayPoint (i);
+         wayPoints.add (ways[i]);
+      }
+      for (int i=1; i<nways; i++) {
+         setStepPosition (part, i);
+         wayPoints.apply (i);
+         check ("waypoint "+i+" not valid after apply", ways[i].isValid());
+      }
+      if (!compactFirst) {
+         wayPoints.setCompactStates (true);
+      }
+      WayPointStateStore store = wayPoints.getStateStore();
+      checkEquals ("num records", store.numRecords(), nways-1);
+      for (int i=1; i<nways; i++) {
+         checkRecordedState ("recorded", root, part, ways[i], i);
+      }
+
+      // rerecord some waypoints with different positions
+      for (int i=1; i<nways; i+=3) {
+         setStepPosition (part, 100+i);
+         wayPoints.apply (i);
+      }
+      checkEquals ("num records after rerecording", store.numRecords(), nways-1);
+      for (int i=1; i<nways; i++) {
+         int step = ((i-1)%3 == 0 ? 100+i : i);
+         checkRecordedState ("rerecorded", root, part, ways[i], step);
+      }
    }
 
    public static void main (String[] args) {
@@ -0,0 +1,463 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.probes;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import artisynth.core.modelbase.ComponentState;
+import artisynth.core.modelbase.CompositeState;
+import artisynth.core.modelbase.EmptyState;
+import artisynth.core.modelbase.NumericState;
+
+/**
+ * Stores waypoint states in a compact form outside the Java heap.
+ *
+ * <p>The integer and double data of a state's {@link NumericState}
+ * components are flattened into a sequence of 64 bit words, which is then
+ * XORed with the words of a <i>reference</i> state, usually that of the
+ * preceding waypoint. Since successive states are similar, the XORed words
+ * typically have many leading zero bytes, and so each is stored using only
+ * its significant bytes, together with a 4 bit byte count. Every {@link
+ * #getKeyFrameInterval} waypoints, a <i>key frame</i> is stored relative to
+ * zero instead, which bounds the number of records that must be decoded to
+ * reconstruct any state. The encoded records are kept in direct byte
+ * buffers, and so do not occupy heap space.
+ *
+ * <p>Reconstructed states are created by duplicating a <i>layout</i> state,
+ * shared between all waypoints whose states have the same structure, and
+ * then filling in its data. The flattened data of the most recently encoded
+ * or decoded waypoint is cached, so that accessing waypoints sequentially
+ * requires decoding only one record per waypoint.
+ */
+public class WayPointStateStore {
+
+   public static int DEFAULT_KEY_FRAME_INTERVAL = 20;
+   protected int myKeyFrameInterval = DEFAULT_KEY_FRAME_INTERVAL;
+
+   // flattened data for the cached waypoint, plus a spare array
+   private WayPoint myCacheWay;
+   private long[] myCacheData = new long[0];
+   private long[] mySpareData = new long[0];
+   // scratch space for encoding and decoding records
+   private byte[] myBytes = new byte[0];
+
+   // most recently used layout state, shared among waypoints
+   private CompositeState myLayout;
+   private int myLayoutSize;
+
+   private long myNumBytes;
+   private int myNumRecords;
+
+   /**
+    * Sets the number of waypoints between successive key frames. Smaller
+    * values make random access faster, while larger values reduce the
+    * storage.
+    *
+    * @param num key frame interval
+    */
+   public void setKeyFrameInterval (int num) {
+      if (num < 1) {
+         throw new IllegalArgumentException (
+            "Key frame interval must be at least 1");
+      }
+      myKeyFrameInterval = num;
+   }
+
+   /**
+    * Returns the number of waypoints between successive key frames.
+    *
+    * @return key frame interval
+    */
+   public int getKeyFrameInterval() {
+      return myKeyFrameInterval;
+   }
+
+   /**
+    * Returns the total number of bytes used by the encoded records.
+    *
+    * @return number of bytes in the encoded records
+    */
+   public long getNumBytes() {
+      return myNumBytes;
+   }
+
+   /**
+    * Returns the number of encoded records in this store.
+    *
+    * @return number of encoded records
+    */
+   public int numRecords() {
+      return myNumRecords;
+   }
+
+   /**
+    * Queries whether a state can be stored by this store. This is the case
+    * if all its substates are composite, numeric or empty states, and none
+    * of the numeric states contain object data.
+    */
+   static boolean isStorable (ComponentState state) {
+      if (state instanceof CompositeState) {
+         CompositeState cstate = (CompositeState)state;
+         for (int i=0; i<cstate.numSubStates(); i++) {
+            if (!isStorable (cstate.getState(i))) {
+               return false;
+            }
+         }
+         return true;
+      }
+      else if (state instanceof NumericState) {
+         return ((NumericState)state).osize() == 0;
+      }
+      else {
+         return (state instanceof EmptyState);
+      }
+   }
+
+   /**
+    * Queries whether two storable states have the same structure, so that
+    * one can be used as the layout for the other.
+    */
+   static boolean haveSameLayout (
+      ComponentState state0, ComponentState state1) {
+      if (state0.getClass() != state1.getClass()) {
+         return false;
+      }
+      if (state0 instanceof CompositeState) {
+         CompositeState cstate0 = (CompositeState)state0;
+         CompositeState cstate1 = (CompositeState)state1;
+         if (cstate0.numSubStates() != cstate1.numSubStates() ||
+             cstate0.isAnnotated() != cstate1.isAnnotated()) {
+            return false;
+         }
+         for (int i=0; i<cstate0.numSubStates(); i++) {
+            if (!haveSameLayout (cstate0.getState(i), cstate1.getState(i))) {
+               return false;
+            }
+         }
+      }
+      else if (state0 instanceof NumericState) {
+         NumericState nstate0 = (NumericState)state0;
+         NumericState nstate1 = (NumericState)state1;
+         if (nstate0.zsize() != nstate1.zsize() ||
+             nstate0.dsize() != nstate1.dsize() ||
+             nstate0.numDataFrames() != nstate1.numDataFrames()) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static int flatSize (ComponentState state) {
+      if (state instanceof CompositeState) {
+         CompositeState cstate = (CompositeState)state;
+         int size = 0;
+         for (int i=0; i<cstate.numSubStates(); i++) {
+            size += flatSize (cstate.getState(i));
+         }
+         return size;
+      }
+      else if (state instanceof NumericState) {
+         NumericState nstate = (NumericState)state;
+         return nstate.zsize() + nstate.dsize();
+      }
+      else {
+         return 0;
+      }
+   }
+
+   private static int flatten (long[] data, int k, ComponentState state) {
+      if (state instanceof CompositeState) {
+         CompositeState cstate = (CompositeState)state;
+         for (int i=0; i<cstate.numSubStates(); i++) {
+            k = flatten (data, k, cstate.getState(i));
+         }
+      }
+      else if (state instanceof NumericState) {
+         NumericState nstate = (NumericState)state;
+         int[] zbuf = nstate.zbuffer();
+         for (int i=0; i<nstate.zsize(); i++) {
+            data[k++] = zbuf[i] & 0xffffffffL;
+         }
+         double[] dbuf = nstate.dbuffer();
+         for (int i=0; i<nstate.dsize(); i++) {
+            data[k++] = Double.doubleToRawLongBits (dbuf[i]);
+         }
+      }
+      return k;
+   }
+
+   private static int unflatten (ComponentState state, long[] data, int k) {
+      if (state instanceof CompositeState) {
+         CompositeState cstate = (CompositeState)state;
+         for (int i=0; i<cstate.numSubStates(); i++) {
+            k = unflatten (cstate.getState(i), data, k);
+         }
+      }
+      else if (state instanceof NumericState) {
+         NumericState nstate = (NumericState)state;
+         int[] zbuf = nstate.zbuffer();
+         for (int i=0; i<nstate.zsize(); i++) {
+            zbuf[i] = (int)data[k++];
+         }
+         double[] dbuf = nstate.dbuffer();
+         for (int i=0; i<nstate.dsize(); i++) {
+            dbuf[i] = Double.longBitsToDouble (data[k++]);
+         }
+      }
+      return k;
+   }
+
+   private void ensureBytesCapacity (int size) {
+      if (myBytes.length < size) {
+         myBytes = new byte[size];
+      }
+   }
+
+   private long[] getSpareData (int size) {
+      if (mySpareData.length < size) {
+         mySpareData = new long[size];
+      }
+      return mySpareData;
+   }
+
+   private void setCache (WayPoint way, long[] data) {
+      if (data == mySpareData) {
+         mySpareData = myCacheData;
+      }
+      myCacheData = data;
+      myCacheWay = way;
+   }
+
+   /**
+    * Encodes the first {@code size} words of {@code data}, XORed with those
+    * of {@code ref} (if not {@code null}), into a direct byte buffer.
+    */
+   private ByteBuffer encodeRecord (long[] data, long[] ref, int size) {
+      int nctrl = (size+1)/2;
+      ensureBytesCapacity (nctrl + 8*size);
+      byte[] bytes = myBytes;
+      int k = nctrl;
+      for (int i=0; i<size; i++) {
+         long x = (ref != null ? data[i]^ref[i] : data[i]);
+         int nb = (64-Long.numberOfLeadingZeros(x)+7) >>> 3;
+         if ((i & 1) == 0) {
+            bytes[i>>1] = (byte)nb;
+         }
+         else {
+            bytes[i>>1] |= (byte)(nb << 4);
+         }
+         for (int j=0; j<nb; j++) {
+            bytes[k++] = (byte)x;
+            x >>>= 8;
+         }
+      }
+      ByteBuffer buf = ByteBuffer.allocateDirect (k);
+      buf.put (bytes, 0, k);
+      buf.flip();
+      return buf;
+   }
+
+   /**
+    * Decodes a record into the first {@code size} words of {@code data},
+    * XORing with the values already there.
+    */
+   private void decodeRecord (long[] data, ByteBuffer buf, int size) {
+      int nbytes = buf.limit();
+      ensureBytesCapacity (nbytes);
+      byte[] bytes = myBytes;
+      buf.duplicate().get (bytes, 0, nbytes);
+      int k = (size+1)/2;
+      for (int i=0; i<size; i++) {
+         int nb = (bytes[i>>1] >> ((i & 1) << 2)) & 0xf;
+         long x = 0;
+         for (int j=0; j<nb; j++) {
+            x |= (bytes[k++] & 0xffL) << (8*j);
+         }
+         data[i] ^= x;
+      }
+   }
+
+   private void addRecord (WayPoint way, ByteBuffer buf) {
+      way.myStateData = buf;
+      myNumBytes += buf.limit();
+      myNumRecords++;
+   }
+
+   private void removeRecord (WayPoint way) {
+      myNumBytes -= way.myStateData.limit();
+      myNumRecords--;
+      way.myStateData = null;
+   }
+
+   /**
+    * Returns the flattened data for a waypoint, decoding its record, and
+    * those it is relative to, as necessary. The returned array is owned by
+    * this store and is valid until the next encode or decode.
+    */
+   private long[] decodeData (WayPoint way) {
+      if (way == myCacheWay) {
+         return myCacheData;
+      }
+      int size = way.myStateSize;
+      // find the chain of records back to a key frame or the cached waypoint
+      ArrayList<WayPoint> chain = new ArrayList<>();
+      WayPoint w = way;
+      while (w != null && w != myCacheWay) {
+         chain.add (w);
+         w = w.myStateRef;
+      }
+      long[] data = getSpareData (size);
+      if (w == myCacheWay && w != null) {
+         System.arraycopy (myCacheData, 0, data, 0, size);
+      }
+      else {
+         for (int i=0; i<size; i++) {
+            data[i] = 0;
+         }
+      }
+      for (int i=chain.size()-1; i>=0; i--) {
+         decodeRecord (data, chain.get(i).myStateData, size);
+      }
+      setCache (way, data);
+      return data;
+   }
+
+   /**
+    * Stores a state for a waypoint, replacing any state it currently has in
+    * this store. Returns {@code false} if the state cannot be stored
+    * because it contains non-numeric data.
+    *
+    * @param way waypoint whose state is being stored
+    * @param state state to store
+    * @return {@code true} if the state was stored
+    */
+   public boolean store (WayPoint way, CompositeState state) {
+      if (!isStorable (state)) {
+         return false;
+      }
+      release (way);
+      CompositeState layout;
+      if (myLayout != null && haveSameLayout (myLayout, state)) {
+         layout = myLayout;
+      }
+      else {
+         layout = state;
+         myLayout = layout;
+         myLayoutSize = flatSize (layout);
+      }
+      int size = myLayoutSize;
+
+      // find the reference waypoint, which is the nearest previous waypoint
+      // with the same layout, provided a key frame is not due
+      WayPoint ref = way.myPrev;
+      while (ref != null && ref.myStateData == null) {
+         ref = ref.myPrev;
+      }
+      if (ref != null &&
+          (ref.myStateLayout != layout ||
+           ref.myStateDepth+1 >= myKeyFrameInterval)) {
+         ref = null;
+      }
+      long[] refData = (ref != null ? decodeData (ref) : null);
+      long[] data = getSpareData (size);
+      flatten (data, 0, state);
+
+      addRecord (way, encodeRecord (data, refData, size));
+      way.myStateLayout = layout;
+      way.myStateSize = size;
+      way.myStateRef = ref;
+      if (ref != null) {
+         way.myStateDepth = ref.myStateDepth+1;
+         ref.addStateDependent (way);
+      }
+      else {
+         way.myStateDepth = 0;
+      }
+      setCache (way, data);
+      return true;
+   }
+
+   /**
+    * Reconstructs the state for a waypoint from this store.
+    *
+    * @param way waypoint whose state is required
+    * @return reconstructed state, or {@code null} if the waypoint has
+    * no state in this store
+    */
+   public CompositeState load (WayPoint way) {
+      if (way.myStateData == null) {
+         return null;
+      }
+      long[] data = decodeData (way);
+      CompositeState state = way.myStateLayout.duplicate();
+      unflatten (state, data, 0);
+      return state;
+   }
+
+   /**
+    * Queries whether a waypoint has a state in this store.
+    *
+    * @param way waypoint to query
+    * @return {@code true} if {@code way} has a state in this store
+    */
+   public boolean hasState (WayPoint way) {
+      return way.myStateData != null;
+   }
+
+   /**
+    * Removes the state, if any, for a waypoint from this store. Valid
+    * waypoints whose records are relative to it are converted to key
+    * frames, while the states of invalid ones are discarded.
+    *
+    * @param way waypoint whose state should be removed
+    */
+   public void release (WayPoint way) {
+      if (way.myStateData == null) {
+         return;
+      }
+      if (way.myStateDependents != null) {
+         for (WayPoint dep : way.myStateDependents) {
+            if (dep.isValid()) {
+               long[] data = decodeData (dep);
+               removeRecord (dep);
+               addRecord (dep, encodeRecord (data, null, dep.myStateSize));
+               dep.myStateRef = null;
+               dep.myStateDepth = 0;
+               updateDepths (dep);
+            }
+            else {
+               dep.myStateRef = null;
+               release (dep);
+            }
+         }
+         way.myStateDependents = null;
+      }
+      if (way.myStateRef != null) {
+         way.myStateRef.removeStateDependent (way);
+         way.myStateRef = null;
+      }
+      if (myCacheWay == way) {
+         myCacheWay = null;
+      }
+      removeRecord (way);
+      way.myStateLayout = null;
+   }
+
+   /**
+    * Updates the key frame depths of the waypoints that depend on a
+    * specified waypoint.
+    */
+   private void updateDepths (WayPoint way) {
+      if (way.myStateDependents != null) {
+         for (WayPoint dep : way.myStateDependents) {
+            dep.myStateDepth = way.myStateDepth+1;
+            updateDepths (dep);
+         }
+      }
+   }
+}
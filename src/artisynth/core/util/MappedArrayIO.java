@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.util;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Static methods for bulk-transferring primitive arrays to and from a file
+ * channel using memory mapping. Data is stored little-endian. Since a single
+ * mapping is limited to 2 GB, large arrays are transferred in chunks of at
+ * most {@link #MAX_MAP_BYTES} bytes.
+ */
+public class MappedArrayIO {
+
+   /**
+    * Maximum number of bytes mapped at once.
+    */
+   public static final int MAX_MAP_BYTES = (1 << 30);
+
+   private static MappedByteBuffer map (
+      FileChannel ch, MapMode mode, long off, long size) throws IOException {
+      MappedByteBuffer buf = ch.map (mode, off, size);
+      buf.order (ByteOrder.LITTLE_ENDIAN);
+      return buf;
+   }
+
+   /**
+    * Writes the first <code>n</code> values of <code>vals</code> to a channel
+    * starting at byte offset <code>off</code>. The channel must be open for
+    * both reading and writing.
+    *
+    * @param ch channel to write to
+    * @param off byte offset at which to start writing
+    * @param vals values to write
+    * @param n number of values to write
+    * @return byte offset following the written data
+    */
+   public static long putDoubles (
+      FileChannel ch, long off, double[] vals, int n) throws IOException {
+      int k = 0;
+      while (k < n) {
+         int cnt = Math.min (n-k, MAX_MAP_BYTES/8);
+         map(ch, MapMode.READ_WRITE, off, 8L*cnt)
+            .asDoubleBuffer().put (vals, k, cnt);
+         off += 8L*cnt;
+         k += cnt;
+      }
+      return off;
+   }
+
+   /**
+    * Writes the first <code>n</code> values of <code>vals</code> to a channel
+    * starting at byte offset <code>off</code>. The channel must be open for
+    * both reading and writing.
+    *
+    * @param ch channel to write to
+    * @param off byte offset at which to start writing
+    * @param vals values to write
+    * @param n number of values to write
+    * @return byte offset following the written data
+    */
+   public static long putInts (
+      FileChannel ch, long off, int[] vals, int n) throws IOException {
+      int k = 0;
+      while (k < n) {
+         int cnt = Math.min (n-k, MAX_MAP_BYTES/4);
+         map(ch, MapMode.READ_WRITE, off, 4L*cnt)
+            .asIntBuffer().put (vals, k, cnt);
+         off += 4L*cnt;
+         k += cnt;
+      }
+      return off;
+   }
+
+   /**
+    * Reads <code>n</code> values into <code>vals</code> from a channel,
+    * starting at byte offset <code>off</code>.
+    *
+    * @param ch channel to read from
+    * @param off byte offset at which to start reading
+    * @param vals returns the values
+    * @param n number of values to read
+    * @return byte offset following the read data
+    */
+   public static long getDoubles (
+      FileChannel ch, long off, double[] vals, int n) throws IOException {
+      checkSize (ch, off, 8L*n);
+      int k = 0;
+      while (k < n) {
+         int cnt = Math.min (n-k, MAX_MAP_BYTES/8);
+         map(ch, MapMode.READ_ONLY, off, 8L*cnt)
+            .asDoubleBuffer().get (vals, k, cnt);
+         off += 8L*cnt;
+         k += cnt;
+      }
+      return off;
+   }
+
+   /**
+    * Reads <code>n</code> values into <code>vals</code> from a channel,
+    * starting at byte offset <code>off</code>.
+    *
+    * @param ch channel to read from
+    * @param off byte offset at which to start reading
+    * @param vals returns the values
+    * @param n number of values to read
+    * @return byte offset following the read data
+    */
+   public static long getInts (
+      FileChannel ch, long off, int[] vals, int n) throws IOException {
+      checkSize (ch, off, 4L*n);
+      int k = 0;
+      while (k < n) {
+         int cnt = Math.min (n-k, MAX_MAP_BYTES/4);
+         map(ch, MapMode.READ_ONLY, off, 4L*cnt)
+            .asIntBuffer().get (vals, k, cnt);
+         off += 4L*cnt;
+         k += cnt;
+      }
+      return off;
+   }
+
+   private static void checkSize (
+      FileChannel ch, long off, long size) throws IOException {
+      if (off+size > ch.size()) {
+         throw new IOException (
+            "File truncated: expected "+(off+size)+" bytes, found "+ch.size());
+      }
+   }
+}
@@ -752,7 +752,7 @@ public class RootModel extends RenderableModelBase
       if (myMainViewer == null) {
          // XXX hack in case this is called inside the RootModel constructor
          // instead of inside the build method
-         return Main.getMain().getViewer();
+         return Main.getMain() != null ? Main.getMain().getViewer() : null;
       }
       else {
          return myMainViewer;
@@ -1320,7 +1320,9 @@ public class RootModel extends RenderableModelBase
    }
 
    public void rerender() {
-      Main.getMain().rerender();
+      if (Main.getMain() != null) {
+         Main.getMain().rerender();
+      }
    }
 
    /**
@@ -0,0 +1,278 @@
+package maspack.collision;
+
+import java.util.Arrays;
+
+import maspack.matrix.Vector3d;
+import maspack.util.DynamicIntArray;
+
+/**
+ * Broad phase collision culling using sweep-and-prune on axis-aligned
+ * bounding boxes.
+ *
+ * <p>The boxes are identified by indices in the range {@code [0, n)}, where
+ * {@code n} is set using {@link #setNumBoxes}. Each time step, the application
+ * updates the box bounds using {@link #setBox} and then calls {@link
+ * #getOverlappingPairs} to find all pairs of boxes that overlap. The boxes are
+ * kept sorted by their minimum coordinate along a single sweep axis, and this
+ * ordering is retained between calls. Since boxes typically move only a
+ * small amount between time steps, the ordering is restored using an
+ * insertion sort whose cost is proportional to the number of boxes plus the
+ * number of order changes, rather than requiring a full sort.
+ *
+ * <p>Overlap tests are inclusive, so that boxes which are merely touching are
+ * reported as overlapping. Boxes may have infinite bounds, in which case they
+ * will overlap every other box along the corresponding axis.
+ */
+public class SweepAndPrune {
+
+   int myNumBoxes;
+   // box bounds, stored as three consecutive values per box
+   double[] myMin = new double[0];
+   double[] myMax = new double[0];
+   // box indices, sorted by minimum coordinate along the sweep axis
+   int[] myOrder = new int[0];
+   int myAxis = 0;
+   boolean myAxisValid = false;
+
+   // active list used during the sweep
+   int[] myActive = new int[0];
+   // workspace used to sort the output pairs
+   long[] myKeys = new long[0];
+
+   int myNumSwaps;
+
+   /**
+    * Creates a new SweepAndPrune with no boxes.
+    */
+   public SweepAndPrune() {
+   }
+
+   /**
+    * Returns the number of boxes handled by this SweepAndPrune.
+    *
+    * @return number of boxes
+    */
+   public int numBoxes() {
+      return myNumBoxes;
+   }
+
+   /**
+    * Sets the number of boxes handled by this SweepAndPrune. If the number
+    * changes, the current box ordering is discarded and the sweep axis is
+    * reselected at the next call to {@link #getOverlappingPairs}. The bounds
+    * of any new boxes are initialized to be empty.
+    *
+    * @param n number of boxes
+    */
+   public void setNumBoxes (int n) {
+      if (n < 0) {
+         throw new IllegalArgumentException (
+            "number of boxes must be non-negative; got " + n);
+      }
+      if (n != myNumBoxes) {
+         if (3*n > myMin.length) {
+            myMin = Arrays.copyOf (myMin, 3*n);
+            myMax = Arrays.copyOf (myMax, 3*n);
+         }
+         for (int k=3*myNumBoxes; k<3*n; k++) {
+            myMin[k] = Double.POSITIVE_INFINITY;
+            myMax[k] = Double.NEGATIVE_INFINITY;
+         }
+         myOrder = new int[n];
+         for (int i=0; i<n; i++) {
+            myOrder[i] = i;
+         }
+         myActive = new int[n];
+         myNumBoxes = n;
+         myAxisValid = false;
+      }
+   }
+
+   /**
+    * Sets the bounds of a specific box.
+    *
+    * @param idx index of the box
+    * @param min minimum coordinates of the box
+    * @param max maximum coordinates of the box
+    */
+   public void setBox (int idx, Vector3d min, Vector3d max) {
+      if (idx < 0 || idx >= myNumBoxes) {
+         throw new IndexOutOfBoundsException (
+            "box index "+idx+" not in range [0,"+(myNumBoxes-1)+"]");
+      }
+      int k = 3*idx;
+      myMin[k  ] = min.x;
+      myMin[k+1] = min.y;
+      myMin[k+2] = min.z;
+      myMax[k  ] = max.x;
+      myMax[k+1] = max.y;
+      myMax[k+2] = max.z;
+   }
+
+   /**
+    * Gets the bounds of a specific box.
+    *
+    * @param idx index of the box
+    * @param min returns the minimum coordinates of the box
+    * @param max returns the maximum coordinates of the box
+    */
+   public void getBox (int idx, Vector3d min, Vector3d max) {
+      int k = 3*idx;
+      min.set (myMin[k], myMin[k+1], myMin[k+2]);
+      max.set (myMax[k], myMax[k+1], myMax[k+2]);
+   }
+
+   /**
+    * Returns the axis (0, 1 or 2) along which boxes are currently sorted.
+    *
+    * @return current sweep axis
+    */
+   public int getSweepAxis() {
+      return myAxis;
+   }
+
+   /**
+    * Returns the number of order swaps that were required to resort the boxes
+    * during the most recent call to {@link #getOverlappingPairs}. For
+    * coherent motion this is typically much smaller than the number of
+    * boxes.
+    *
+    * @return number of swaps for the last sort
+    */
+   public int numLastSwaps() {
+      return myNumSwaps;
+   }
+
+   /**
+    * Selects the sweep axis as the axis along which the box centers have the
+    * largest variance. Boxes with infinite bounds are ignored.
+    */
+   private void selectAxis() {
+      double[] sum = new double[3];
+      double[] sumSqr = new double[3];
+      int cnt = 0;
+      for (int i=0; i<myNumBoxes; i++) {
+         int k = 3*i;
+         boolean finite = true;
+         for (int j=0; j<3; j++) {
+            if (Double.isInfinite (myMin[k+j]) ||
+                Double.isInfinite (myMax[k+j])) {
+               finite = false;
+            }
+         }
+         if (finite) {
+            for (int j=0; j<3; j++) {
+               double c = (myMin[k+j]+myMax[k+j])/2;
+               sum[j] += c;
+               sumSqr[j] += c*c;
+            }
+            cnt++;
+         }
+      }
+      myAxis = 0;
+      if (cnt > 0) {
+         double maxVar = -1;
+         for (int j=0; j<3; j++) {
+            double var = sumSqr[j]/cnt - (sum[j]/cnt)*(sum[j]/cnt);
+            if (var > maxVar) {
+               maxVar = var;
+               myAxis = j;
+            }
+         }
+      }
+      myAxisValid = true;
+   }
+
+   /**
+    * Restores the ordering of the boxes along the sweep axis using an
+    * insertion sort, which is efficient when the ordering from the previous
+    * call is nearly correct.
+    */
+   private void sortBoxes() {
+      int[] order = myOrder;
+      double[] min = myMin;
+      int a = myAxis;
+      int nswaps = 0;
+      for (int i=1; i<myNumBoxes; i++) {
+         int b = order[i];
+         double x = min[3*b+a];
+         int j = i-1;
+         while (j >= 0 && min[3*order[j]+a] > x) {
+            order[j+1] = order[j];
+            j--;
+            nswaps++;
+         }
+         order[j+1] = b;
+      }
+      myNumSwaps = nswaps;
+   }
+
+   private boolean overlapsOffAxes (int b0, int b1) {
+      int k0 = 3*b0;
+      int k1 = 3*b1;
+      for (int j=0; j<3; j++) {
+         if (j != myAxis) {
+            if (myMax[k0+j] < myMin[k1+j] || myMax[k1+j] < myMin[k0+j]) {
+               return false;
+            }
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Finds all pairs of boxes that overlap. Each pair is returned as two
+    * consecutive entries {@code i, j} in {@code pairs}, with {@code i < j},
+    * and the pairs are sorted in lexicographic order. Any existing contents
+    * of {@code pairs} are cleared.
+    *
+    * @param pairs returns the overlapping pairs
+    * @return number of overlapping pairs
+    */
+   public int getOverlappingPairs (DynamicIntArray pairs) {
+      pairs.clear();
+      if (!myAxisValid) {
+         selectAxis();
+      }
+      sortBoxes();
+
+      int a = myAxis;
+      int[] active = myActive;
+      int nactive = 0;
+      int npairs = 0;
+      for (int i=0; i<myNumBoxes; i++) {
+         int b = myOrder[i];
+         double bmin = myMin[3*b+a];
+         if (bmin > myMax[3*b+a]) {
+            // empty box
+            continue;
+         }
+         // prune active boxes that end before this one starts, and test the
+         // remaining ones for overlap
+         int k = 0;
+         for (int l=0; l<nactive; l++) {
+            int c = active[l];
+            if (myMax[3*c+a] >= bmin) {
+               active[k++] = c;
+               if (overlapsOffAxes (b, c)) {
+                  if (npairs == myKeys.length) {
+                     myKeys = Arrays.copyOf (myKeys, Math.max (16, 2*npairs));
+                  }
+                  myKeys[npairs++] = (b < c ?
+                     ((long)b << 32) | c : ((long)c << 32) | b);
+               }
+            }
+         }
+         active[k++] = b;
+         nactive = k;
+      }
+      Arrays.sort (myKeys, 0, npairs);
+      pairs.ensureCapacity (2*npairs);
+      for (int k=0; k<npairs; k++) {
+         pairs.add ((int)(myKeys[k] >>> 32));
+         pairs.add ((int)myKeys[k]);
+      }
+      return npairs;
+   }
+
+}
@@ -0,0 +1,132 @@
+package maspack.collision;
+
+import maspack.matrix.*;
+import maspack.util.*;
+
+/**
+ * Test method for SweepAndPrune.
+ */
+public class SweepAndPruneTest extends UnitTest {
+
+   private void bruteForcePairs (
+      DynamicIntArray pairs, Vector3d[] mins, Vector3d[] maxs) {
+      pairs.clear();
+      for (int i=0; i<mins.length; i++) {
+         for (int j=i+1; j<mins.length; j++) {
+            boolean overlap = true;
+            for (int k=0; k<3; k++) {
+               if (maxs[i].get(k) < mins[j].get(k) ||
+                   maxs[j].get(k) < mins[i].get(k) ||
+                   mins[i].get(k) > maxs[i].get(k) ||
+                   mins[j].get(k) > maxs[j].get(k)) {
+                  overlap = false;
+               }
+            }
+            if (overlap) {
+               pairs.add (i);
+               pairs.add (j);
+            }
+         }
+      }
+   }
+
+   private void setRandomBox (Vector3d min, Vector3d max, double size) {
+      min.setRandom (-1, 1);
+      max.setRandom (0, size);
+      max.add (min);
+   }
+
+   private void checkPairs (
+      SweepAndPrune sap, Vector3d[] mins, Vector3d[] maxs) {
+      DynamicIntArray pairs = new DynamicIntArray();
+      DynamicIntArray check = new DynamicIntArray();
+      for (int i=0; i<mins.length; i++) {
+         sap.setBox (i, mins[i], maxs[i]);
+      }
+      int npairs = sap.getOverlappingPairs (pairs);
+      bruteForcePairs (check, mins, maxs);
+      if (npairs != check.size()/2 || !pairs.equals (check)) {
+         throw new TestException (
+            "Found "+npairs+" overlapping pairs, expected "+check.size()/2);
+      }
+   }
+
+   public void testRandomMotion (int nboxes, double size, int nsteps) {
+      SweepAndPrune sap = new SweepAndPrune();
+      sap.setNumBoxes (nboxes);
+      Vector3d[] mins = new Vector3d[nboxes];
+      Vector3d[] maxs = new Vector3d[nboxes];
+      for (int i=0; i<nboxes; i++) {
+         mins[i] = new Vector3d();
+         maxs[i] = new Vector3d();
+         setRandomBox (mins[i], maxs[i], size);
+      }
+      checkPairs (sap, mins, maxs);
+      Vector3d disp = new Vector3d();
+      for (int k=0; k<nsteps; k++) {
+         for (int i=0; i<nboxes; i++) {
+            disp.setRandom (-0.02, 0.02);
+            mins[i].add (disp);
+            maxs[i].add (disp);
+         }
+         checkPairs (sap, mins, maxs);
+      }
+   }
+
+   public void testSpecialBoxes() {
+      int nboxes = 20;
+      SweepAndPrune sap = new SweepAndPrune();
+      sap.setNumBoxes (nboxes);
+      Vector3d[] mins = new Vector3d[nboxes];
+      Vector3d[] maxs = new Vector3d[nboxes];
+      double inf = Double.POSITIVE_INFINITY;
+      for (int i=0; i<nboxes; i++) {
+         mins[i] = new Vector3d();
+         maxs[i] = new Vector3d();
+         setRandomBox (mins[i], maxs[i], 0.3);
+      }
+      // infinite box
+      mins[3].set (-inf, -inf, -inf);
+      maxs[3].set (inf, inf, inf);
+      // box that is infinite along one axis only
+      mins[7].x = -inf;
+      maxs[7].x = inf;
+      // empty box
+      mins[11].set (1, 1, 1);
+      maxs[11].set (0, 0, 0);
+      // touching boxes
+      mins[15].set (2, 2, 2);
+      maxs[15].set (3, 3, 3);
+      mins[16].set (3, 2, 2);
+      maxs[16].set (4, 3, 3);
+      checkPairs (sap, mins, maxs);
+
+      // change the number of boxes and make sure results are still correct
+      nboxes = 10;
+      sap.setNumBoxes (nboxes);
+      Vector3d[] newMins = new Vector3d[nboxes];
+      Vector3d[] newMaxs = new Vector3d[nboxes];
+      for (int i=0; i<nboxes; i++) {
+         newMins[i] = mins[i];
+         newMaxs[i] = maxs[i];
+      }
+      checkPairs (sap, newMins, newMaxs);
+   }
+
+   public void test() {
+      testRandomMotion (1, 0.5, 5);
+      testRandomMotion (10, 0.5, 20);
+      testRandomMotion (100, 0.2, 50);
+      testRandomMotion (300, 0.05, 50);
+      testSpecialBoxes();
+   }
+
+   public static void main (String[] args) {
+      SweepAndPruneTest tester = new SweepAndPruneTest();
+
+      RandomGenerator.setSeed (0x1234);
+
+      tester.runtest();
+   }
+
+}
@@ -0,0 +1,210 @@
+package maspack.concurrency;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes data-parallel loops over an index range {@code [0, n)} using a
+ * fixed number of workers. The calling thread always participates as worker
+ * 0, and the remaining workers are taken from an internal thread pool whose
+ * threads time out when idle.
+ *
+ * <p>Each invocation of the loop body is passed the index of the worker that
+ * is executing it, in the range {@code [0, numThreads()-1]}, so that callers
+ * can allocate per-worker scratch storage and accumulators without
+ * synchronization. The assignment of index chunks to workers is dynamic, so
+ * results should not depend on which worker processes which chunk.
+ */
+public class ParallelLoop {
+
+   /**
+    * Body of a parallel loop.
+    */
+   public interface Body {
+      /**
+       * Processes indices {@code start} (inclusive) to {@code end}
+       * (exclusive).
+       *
+       * @param start first index to process
+       * @param end one past the last index to process
+       * @param worker index of the worker executing this chunk
+       */
+      void run (int start, int end, int worker);
+   }
+
+   protected static long defaultTimeoutMS = 1000;
+
+   // number of chunks per worker, to help balance the load
+   private static int CHUNKS_PER_WORKER = 4;
+
+   private String myName;
+   private int myNumThreads;
+   private ThreadPoolExecutor myExecutor;
+
+   /**
+    * Creates a new ParallelLoop.
+    *
+    * @param name base name for the pool threads
+    * @param nthreads number of workers (including the calling thread)
+    */
+   public ParallelLoop (String name, int nthreads) {
+      myName = name;
+      setNumThreads (nthreads);
+   }
+
+   /**
+    * Returns the number of workers used by this loop, including the calling
+    * thread.
+    *
+    * @return number of workers
+    */
+   public int numThreads() {
+      return myNumThreads;
+   }
+
+   /**
+    * Sets the number of workers used by this loop, including the calling
+    * thread. A value of 1 causes loops to be executed serially.
+    *
+    * @param nthreads number of workers
+    */
+   public synchronized void setNumThreads (int nthreads) {
+      if (nthreads < 1) {
+         throw new IllegalArgumentException (
+            "number of threads must be at least 1; got "+nthreads);
+      }
+      if (nthreads != myNumThreads) {
+         myNumThreads = nthreads;
+         if (myExecutor != null) {
+            myExecutor.shutdown();
+            myExecutor = null;
+         }
+      }
+   }
+
+   private synchronized ThreadPoolExecutor getExecutor() {
+      if (myExecutor == null) {
+         // core size must equal the maximum size, since otherwise an
+         // unbounded queue will only ever use a single thread
+         myExecutor = new ThreadPoolExecutor (
+            myNumThreads-1, myNumThreads-1,
+            defaultTimeoutMS, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(myName));
+         myExecutor.allowCoreThreadTimeOut (true);
+      }
+      return myExecutor;
+   }
+
+   /**
+    * Executes {@code body} over the index range {@code [0, n)}, returning
+    * once all indices have been processed. If the body throws an exception
+    * in any worker, the first such exception is rethrown in the calling
+    * thread.
+    *
+    * @param n size of the index range
+    * @param body loop body
+    */
+   public void forRange (int n, Body body) {
+      forRange (n, 1, body);
+   }
+
+   /**
+    * Executes {@code body} over the index range {@code [0, n)}, as for
+    * {@link #forRange(int,Body)}, but ensures that each chunk contains at
+    * least {@code minChunk} indices (except possibly the last).
+    *
+    * @param n size of the index range
+    * @param minChunk minimum chunk size
+    * @param body loop body
+    */
+   public void forRange (int n, int minChunk, final Body body) {
+      if (n <= 0) {
+         return;
+      }
+      minChunk = Math.max (minChunk, 1);
+      int nworkers = Math.min (myNumThreads, (n+minChunk-1)/minChunk);
+      if (nworkers <= 1) {
+         body.run (0, n, 0);
+         return;
+      }
+      final int chunk =
+         Math.max (minChunk, (n+nworkers*CHUNKS_PER_WORKER-1)/
+                             (nworkers*CHUNKS_PER_WORKER));
+      final int nchunks = (n+chunk-1)/chunk;
+      final int size = n;
+      final AtomicInteger next = new AtomicInteger();
+
+      ThreadPoolExecutor exec = getExecutor();
+      ArrayList<Future<?>> futures = new ArrayList<>(nworkers-1);
+      for (int w=1; w<nworkers; w++) {
+         final int worker = w;
+         futures.add (exec.submit (new Runnable() {
+            public void run() {
+               runChunks (body, next, chunk, nchunks, size, worker);
+            }
+         }));
+      }
+      RuntimeException exc = null;
+      try {
+         runChunks (body, next, chunk, nchunks, size, 0);
+      }
+      catch (RuntimeException e) {
+         exc = e;
+         // prevent other workers from taking more work
+         next.set (nchunks);
+      }
+      for (Future<?> fut : futures) {
+         try {
+            fut.get();
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (exc == null) {
+               exc = new IllegalStateException ("parallel loop interrupted", e);
+            }
+         }
+         catch (ExecutionException e) {
+            if (exc == null) {
+               Throwable cause = e.getCause();
+               if (cause instanceof RuntimeException) {
+                  exc = (RuntimeException)cause;
+               }
+               else if (cause instanceof Error) {
+                  throw (Error)cause;
+               }
+               else {
+                  exc = new IllegalStateException (cause);
+               }
+            }
+         }
+      }
+      if (exc != null) {
+         throw exc;
+      }
+   }
+
+   private void runChunks (
+      Body body, AtomicInteger next, int chunk, int nchunks, int n, int worker) {
+      int k;
+      while ((k = next.getAndIncrement()) < nchunks) {
+         int start = k*chunk;
+         body.run (start, Math.min (start+chunk, n), worker);
+      }
+   }
+
+   /**
+    * Releases the pool threads used by this loop. The loop may still be
+    * used afterwards, in which case new threads will be created as needed.
+    */
+   public synchronized void shutdown() {
+      if (myExecutor != null) {
+         myExecutor.shutdown();
+         myExecutor = null;
+      }
+   }
+}
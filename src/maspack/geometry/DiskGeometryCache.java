@@ -0,0 +1,1234 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import maspack.geometry.io.StlReader;
+import maspack.matrix.Point3d;
+import maspack.matrix.RigidTransform3d;
+import maspack.matrix.Vector3d;
+import maspack.matrix.Vector3i;
+import maspack.util.DynamicDoubleArray;
+import maspack.util.DynamicIntArray;
+
+/**
+ * On-disk cache of meshes read from files, bounding volume hierarchies built
+ * for meshes, and distance grids computed from meshes. It complements the
+ * in-memory {@link GeometryCache}, allowing the results of parsing and
+ * building to be reused across program runs, and is normally accessed
+ * through that class after being installed using {@link
+ * GeometryCache#setDiskCache}.
+ *
+ * <p>Entries are content-addressed: each is stored in a file whose name is
+ * the SHA-256 digest of a key describing the source data together with the
+ * parameters used to build the entry. For meshes, the source data is the
+ * contents of the mesh file; for hierarchies and grids, it is the vertex
+ * positions and face indices of the mesh. Entries therefore never become
+ * stale, and are shared between identical files with different names.
+ *
+ * <p>Each entry is written to a temporary file which is then atomically
+ * renamed, so that a reader, possibly in another JVM, sees either a complete
+ * entry or none at all. Entries also contain a checksum, and those that are
+ * found to be damaged are deleted and treated as misses. The total size of
+ * the cache is limited by deleting the least recently used entries. Reading
+ * an entry updates its modification time, which is used to determine its
+ * last use, and entries are deleted while holding a lock on the file
+ * <code>cache.lock</code>, so that several JVMs can safely share the same
+ * cache directory.
+ *
+ * <p>Meshes are only stored if they are instances of {@link PolygonalMesh}
+ * without colors. Distance grids are only stored if they were computed from a
+ * single mesh, since the closest features are recorded as face indices.
+ */
+public class DiskGeometryCache {
+
+   /**
+    * Version of the entry format. Entries with a different version are
+    * ignored.
+    */
+   public static final int VERSION = 1;
+
+   /**
+    * Default maximum size of the cache, in bytes.
+    */
+   public static long DEFAULT_MAX_SIZE = 2L*1024*1024*1024;
+
+   /**
+    * Default minimum number of faces a mesh must have for its bounding
+    * volume hierarchy to be cached.
+    */
+   public static int DEFAULT_MIN_BVTREE_FACES = 2000;
+
+   private static final byte[] MAGIC =
+      new byte[] { 'A', 'G', 'E', 'O', 'C', 'A', 'C', 'H' };
+   private static final int HEADER_SIZE = 32;
+   private static final String ENTRY_SUFFIX = ".gce";
+   private static final String TEMP_SUFFIX = ".tmp";
+   private static final String LOCK_FILE = "cache.lock";
+   // temporary files older than this are assumed to be abandoned
+   private static final long TEMP_FILE_AGE = 3600*1000L;
+
+   // entry kinds
+   private static final int MESH = 1;
+   private static final int AABB_TREE = 2;
+   private static final int OBB_TREE = 3;
+   private static final int GRID = 4;
+
+   private File myDir;
+   private long myMaxSize;
+   private int myMinBVTreeFaces = DEFAULT_MIN_BVTREE_FACES;
+   private long mySize;
+
+   // content hashes for files, keyed by path, length and modification time
+   private static ConcurrentHashMap<String,String> myFileHashes =
+      new ConcurrentHashMap<>();
+
+   /**
+    * Creates a disk cache in a specified directory, which is created if
+    * necessary. The directory may be shared with other instances, including
+    * those in other JVMs.
+    *
+    * @param dir directory in which to store cache entries
+    * @param maxSize maximum total size of the entries, in bytes
+    */
+   public DiskGeometryCache (File dir, long maxSize) throws IOException {
+      if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+         throw new IOException ("Cannot create cache directory "+dir);
+      }
+      myDir = dir;
+      myMaxSize = maxSize;
+      mySize = computeSize();
+   }
+
+   /**
+    * Creates a disk cache in a specified directory, with a maximum size
+    * given by {@link #DEFAULT_MAX_SIZE}.
+    *
+    * @param dir directory in which to store cache entries
+    */
+   public DiskGeometryCache (File dir) throws IOException {
+      this (dir, DEFAULT_MAX_SIZE);
+   }
+
+   /**
+    * Returns the directory containing the cache entries.
+    *
+    * @return cache directory
+    */
+   public File getDirectory() {
+      return myDir;
+   }
+
+   /**
+    * Returns the maximum total size of the cache entries.
+    *
+    * @return maximum size, in bytes
+    */
+   public long getMaxSize() {
+      return myMaxSize;
+   }
+
+   /**
+    * Sets the maximum total size of the cache entries. If the cache is
+    * currently larger than this, the least recently used entries are
+    * deleted.
+    *
+    * @param maxSize maximum size, in bytes
+    */
+   public void setMaxSize (long maxSize) {
+      myMaxSize = maxSize;
+      synchronized (this) {
+         if (mySize > myMaxSize) {
+            evict();
+         }
+      }
+   }
+
+   /**
+    * Returns the minimum number of faces a mesh must have for its bounding
+    * volume hierarchy to be cached. Hierarchies for smaller meshes are
+    * quicker to build than to read.
+    *
+    * @return minimum number of faces
+    */
+   public int getMinBVTreeFaces() {
+      return myMinBVTreeFaces;
+   }
+
+   /**
+    * Sets the minimum number of faces a mesh must have for its bounding
+    * volume hierarchy to be cached.
+    *
+    * @param num minimum number of faces
+    */
+   public void setMinBVTreeFaces (int num) {
+      myMinBVTreeFaces = num;
+   }
+
+   /**
+    * Returns the number of entries currently in the cache directory.
+    *
+    * @return number of entries
+    */
+   public int numEntries() {
+      return listEntries().length;
+   }
+
+   /**
+    * Returns the total size of the entries currently in the cache directory.
+    *
+    * @return size of the entries, in bytes
+    */
+   public long getSize() {
+      return computeSize();
+   }
+
+   /**
+    * Deletes all entries from the cache directory.
+    */
+   public synchronized void clear() {
+      try {
+         FileLock lock = lockDirectory();
+         try {
+            for (File file : listEntries()) {
+               file.delete();
+            }
+            mySize = 0;
+         }
+         finally {
+            releaseLock (lock);
+         }
+      }
+      catch (IOException e) {
+         // ignore; the cache is only an optimization
+      }
+   }
+
+   private static MessageDigest createDigest() {
+      try {
+         return MessageDigest.getInstance ("SHA-256");
+      }
+      catch (NoSuchAlgorithmException e) {
+         throw new InternalError ("SHA-256 not available");
+      }
+   }
+
+   private static String toHex (byte[] bytes) {
+      StringBuilder sb = new StringBuilder (2*bytes.length);
+      for (byte b : bytes) {
+         sb.append (Character.forDigit ((b >> 4) & 0xf, 16));
+         sb.append (Character.forDigit (b & 0xf, 16));
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Returns the SHA-256 digest of a string, as a hex string.
+    *
+    * @param str string to digest
+    * @return digest of the string
+    */
+   public static String digest (String str) {
+      MessageDigest md = createDigest();
+      try {
+         md.update (str.getBytes ("UTF-8"));
+      }
+      catch (java.io.UnsupportedEncodingException e) {
+         throw new InternalError ("UTF-8 not available");
+      }
+      return toHex (md.digest());
+   }
+
+   /**
+    * Returns the SHA-256 digest of the contents of a file, as a hex string.
+    * Digests are remembered for the lifetime of the JVM, using the file's
+    * path, length and modification time, so that each file is only read
+    * once.
+    *
+    * @param file file to digest
+    * @return digest of the file contents
+    */
+   public static String fileHash (File file) throws IOException {
+      String fileKey = (file.getCanonicalPath()+":"+file.length()+":"+
+                        file.lastModified());
+      String hash = myFileHashes.get (fileKey);
+      if (hash == null) {
+         MessageDigest md = createDigest();
+         FileInputStream fis = new FileInputStream (file);
+         try {
+            byte[] buf = new byte[1 << 16];
+            int n;
+            while ((n = fis.read (buf)) > 0) {
+               md.update (buf, 0, n);
+            }
+         }
+         finally {
+            fis.close();
+         }
+         hash = toHex (md.digest());
+         myFileHashes.put (fileKey, hash);
+      }
+      return hash;
+   }
+
+   /**
+    * Returns the SHA-256 digest of the geometry of a mesh, as a hex string.
+    * The digest depends on the vertex positions (in mesh coordinates) and the
+    * face indices, so that geometrically identical meshes give the same
+    * digest.
+    *
+    * @param mesh mesh to digest
+    * @return digest of the mesh geometry
+    */
+   public static String meshHash (PolygonalMesh mesh) {
+      MessageDigest md = createDigest();
+      ByteBuffer buf = ByteBuffer.allocate (1 << 16);
+      buf.order (ByteOrder.LITTLE_ENDIAN);
+      buf.putInt (mesh.numVertices());
+      buf.putInt (mesh.numFaces());
+      for (int i=0; i<mesh.numVertices(); i++) {
+         if (buf.remaining() < 24) {
+            flushDigest (md, buf);
+         }
+         Vertex3d vtx = mesh.getVertex(i);
+         buf.putDouble (vtx.pnt.x);
+         buf.putDouble (vtx.pnt.y);
+         buf.putDouble (vtx.pnt.z);
+      }
+      for (int i=0; i<mesh.numFaces(); i++) {
+         Face face = mesh.getFace(i);
+         if (buf.remaining() < 4*(face.numVertices()+1)) {
+            flushDigest (md, buf);
+         }
+         buf.putInt (face.numVertices());
+         HalfEdge he0 = face.firstHalfEdge();
+         HalfEdge he = he0;
+         do {
+            buf.putInt (he.head.getIndex());
+            he = he.next;
+         }
+         while (he != he0);
+      }
+      flushDigest (md, buf);
+      return toHex (md.digest());
+   }
+
+   private static void flushDigest (MessageDigest md, ByteBuffer buf) {
+      md.update (buf.array(), 0, buf.position());
+      buf.clear();
+   }
+
+   private File entryFile (String key) {
+      return new File (myDir, digest (key) + ENTRY_SUFFIX);
+   }
+
+   private File[] listEntries() {
+      File[] files = myDir.listFiles();
+      if (files == null) {
+         return new File[0];
+      }
+      ArrayList<File> entries = new ArrayList<File>();
+      for (File file : files) {
+         if (file.getName().endsWith (ENTRY_SUFFIX)) {
+            entries.add (file);
+         }
+      }
+      return entries.toArray (new File[0]);
+   }
+
+   private long computeSize() {
+      long size = 0;
+      for (File file : listEntries()) {
+         size += file.length();
+      }
+      return size;
+   }
+
+   private FileLock lockDirectory() throws IOException {
+      RandomAccessFile raf =
+         new RandomAccessFile (new File (myDir, LOCK_FILE), "rw");
+      try {
+         return raf.getChannel().lock();
+      }
+      catch (IOException e) {
+         raf.close();
+         throw e;
+      }
+   }
+
+   private void releaseLock (FileLock lock) throws IOException {
+      lock.release();
+      lock.channel().close();
+   }
+
+   /**
+    * Reads the payload of an entry, or returns <code>null</code> if there is
+    * no valid entry for the key.
+    */
+   private ByteBuffer readEntry (String key, int kind) {
+      File file = entryFile (key);
+      if (!file.isFile()) {
+         return null;
+      }
+      ByteBuffer buf;
+      try {
+         RandomAccessFile raf = new RandomAccessFile (file, "r");
+         try {
+            FileChannel ch = raf.getChannel();
+            long size = ch.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+               buf = null;
+            }
+            else {
+               buf = ByteBuffer.allocate ((int)size);
+               while (buf.hasRemaining() && ch.read (buf) >= 0) {
+               }
+               buf.flip();
+            }
+         }
+         finally {
+            raf.close();
+         }
+      }
+      catch (IOException e) {
+         // may have been deleted by another process
+         return null;
+      }
+      buf = (buf != null ? checkEntry (buf, kind) : null);
+      if (buf == null) {
+         file.delete();
+         return null;
+      }
+      // record the use for LRU eviction
+      file.setLastModified (System.currentTimeMillis());
+      return buf;
+   }
+
+   private ByteBuffer checkEntry (ByteBuffer buf, int kind) {
+      buf.order (ByteOrder.LITTLE_ENDIAN);
+      byte[] magic = new byte[MAGIC.length];
+      buf.get (magic);
+      if (!Arrays.equals (magic, MAGIC) ||
+          buf.getInt() != VERSION || buf.getInt() != kind) {
+         return null;
+      }
+      long length = buf.getLong();
+      long crc = buf.getLong();
+      if (length != buf.limit()-HEADER_SIZE) {
+         return null;
+      }
+      CRC32 crc32 = new CRC32();
+      crc32.update (buf.array(), HEADER_SIZE, (int)length);
+      if (crc32.getValue() != crc) {
+         return null;
+      }
+      buf.position (HEADER_SIZE);
+      return buf.slice().order (ByteOrder.LITTLE_ENDIAN);
+   }
+
+   /**
+    * Writes an entry, atomically replacing any existing entry for the key.
+    */
+   private void writeEntry (String key, int kind, Encoder enc) {
+      ByteBuffer payload = enc.myBuf;
+      int length = payload.position();
+      CRC32 crc32 = new CRC32();
+      crc32.update (payload.array(), 0, length);
+      ByteBuffer header = ByteBuffer.allocate (HEADER_SIZE);
+      header.order (ByteOrder.LITTLE_ENDIAN);
+      header.put (MAGIC);
+      header.putInt (VERSION);
+      header.putInt (kind);
+      header.putLong (length);
+      header.putLong (crc32.getValue());
+      header.flip();
+      payload.flip();
+
+      File file = entryFile (key);
+      File tmp = null;
+      try {
+         tmp = File.createTempFile ("entry", TEMP_SUFFIX, myDir);
+         RandomAccessFile raf = new RandomAccessFile (tmp, "rw");
+         try {
+            FileChannel ch = raf.getChannel();
+            while (header.hasRemaining()) {
+               ch.write (header);
+            }
+            while (payload.hasRemaining()) {
+               ch.write (payload);
+            }
+         }
+         finally {
+            raf.close();
+         }
+         try {
+            Files.move (
+               tmp.toPath(), file.toPath(),
+               StandardCopyOption.ATOMIC_MOVE);
+         }
+         catch (AtomicMoveNotSupportedException e) {
+            Files.move (
+               tmp.toPath(), file.toPath(),
+               StandardCopyOption.REPLACE_EXISTING);
+         }
+         tmp = null;
+      }
+      catch (IOException e) {
+         // ignore; the cache is only an optimization
+         return;
+      }
+      finally {
+         if (tmp != null) {
+            tmp.delete();
+         }
+      }
+      synchronized (this) {
+         mySize += HEADER_SIZE + length;
+         if (mySize > myMaxSize) {
+            evict();
+         }
+      }
+   }
+
+   /**
+    * Deletes the least recently used entries until the cache is below its
+    * maximum size. Other JVMs may be adding entries at the same time, so the
+    * directory is rescanned while holding the cache lock.
+    */
+   private void evict() {
+      try {
+         FileLock lock = lockDirectory();
+         try {
+            File[] entries = listEntries();
+            final long[] times = new long[entries.length];
+            final long[] sizes = new long[entries.length];
+            Integer[] order = new Integer[entries.length];
+            long size = 0;
+            for (int i=0; i<entries.length; i++) {
+               times[i] = entries[i].lastModified();
+               sizes[i] = entries[i].length();
+               size += sizes[i];
+               order[i] = i;
+            }
+            Arrays.sort (order, new Comparator<Integer>() {
+                  public int compare (Integer i0, Integer i1) {
+                     return Long.compare (times[i0], times[i1]);
+                  }
+               });
+            // evict down to 90% of the limit to avoid evicting on every put
+            long target = myMaxSize - myMaxSize/10;
+            for (int k=0; k<order.length && size > target; k++) {
+               int i = order[k];
+               if (entries[i].delete()) {
+                  size -= sizes[i];
+               }
+            }
+            mySize = size;
+            deleteAbandonedTempFiles();
+         }
+         finally {
+            releaseLock (lock);
+         }
+      }
+      catch (IOException e) {
+         // ignore; the cache is only an optimization
+      }
+   }
+
+   private void deleteAbandonedTempFiles() {
+      File[] files = myDir.listFiles();
+      if (files != null) {
+         long time = System.currentTimeMillis() - TEMP_FILE_AGE;
+         for (File file : files) {
+            if (file.getName().endsWith (TEMP_SUFFIX) &&
+                file.lastModified() < time) {
+               file.delete();
+            }
+         }
+      }
+   }
+
+   /**
+    * Growable little-endian buffer used to encode entries.
+    */
+   private static class Encoder {
+      ByteBuffer myBuf;
+
+      Encoder (int capacity) {
+         myBuf = ByteBuffer.allocate (Math.max (capacity, 256));
+         myBuf.order (ByteOrder.LITTLE_ENDIAN);
+      }
+
+      private void ensureRemaining (long n) {
+         if (myBuf.remaining() < n) {
+            long cap = Math.max (2L*myBuf.capacity(), myBuf.position()+n);
+            if (cap > Integer.MAX_VALUE) {
+               throw new IllegalStateException ("Entry too large");
+            }
+            ByteBuffer buf = ByteBuffer.allocate ((int)cap);
+            buf.order (ByteOrder.LITTLE_ENDIAN);
+            myBuf.flip();
+            buf.put (myBuf);
+            myBuf = buf;
+         }
+      }
+
+      void putInt (int val) {
+         ensureRemaining (4);
+         myBuf.putInt (val);
+      }
+
+      void putDouble (double val) {
+         ensureRemaining (8);
+         myBuf.putDouble (val);
+      }
+
+      void putInts (int[] vals, int n) {
+         putInt (n);
+         ensureRemaining (4L*n);
+         myBuf.asIntBuffer().put (vals, 0, n);
+         myBuf.position (myBuf.position()+4*n);
+      }
+
+      void putDoubles (double[] vals, int n) {
+         putInt (n);
+         ensureRemaining (8L*n);
+         myBuf.asDoubleBuffer().put (vals, 0, n);
+         myBuf.position (myBuf.position()+8*n);
+      }
+
+      void putString (String str) {
+         if (str == null) {
+            putInt (-1);
+         }
+         else {
+            char[] chars = str.toCharArray();
+            putInt (chars.length);
+            ensureRemaining (2L*chars.length);
+            myBuf.asCharBuffer().put (chars);
+            myBuf.position (myBuf.position()+2*chars.length);
+         }
+      }
+
+      void putTransform (RigidTransform3d X) {
+         double[] vals = new double[12];
+         X.R.get (vals);
+         vals[9] = X.p.x;
+         vals[10] = X.p.y;
+         vals[11] = X.p.z;
+         for (int i=0; i<12; i++) {
+            putDouble (vals[i]);
+         }
+      }
+   }
+
+   private static int[] getInts (ByteBuffer buf) {
+      int n = buf.getInt();
+      if (n < 0 || 4L*n > buf.remaining()) {
+         throw new BufferUnderflowException();
+      }
+      int[] vals = new int[n];
+      buf.asIntBuffer().get (vals);
+      buf.position (buf.position()+4*n);
+      return vals;
+   }
+
+   private static double[] getDoubles (ByteBuffer buf) {
+      int n = buf.getInt();
+      if (n < 0 || 8L*n > buf.remaining()) {
+         throw new BufferUnderflowException();
+      }
+      double[] vals = new double[n];
+      buf.asDoubleBuffer().get (vals);
+      buf.position (buf.position()+8*n);
+      return vals;
+   }
+
+   private static String getString (ByteBuffer buf) {
+      int n = buf.getInt();
+      if (n == -1) {
+         return null;
+      }
+      if (n < 0 || 2L*n > buf.remaining()) {
+         throw new BufferUnderflowException();
+      }
+      char[] chars = new char[n];
+      buf.asCharBuffer().get (chars);
+      buf.position (buf.position()+2*n);
+      return new String (chars);
+   }
+
+   private static RigidTransform3d getTransform (ByteBuffer buf) {
+      double[] vals = new double[12];
+      for (int i=0; i<12; i++) {
+         vals[i] = buf.getDouble();
+      }
+      RigidTransform3d X = new RigidTransform3d();
+      X.R.set (vals);
+      X.p.set (vals[9], vals[10], vals[11]);
+      return X;
+   }
+
+   private static String meshKey (File file) throws IOException {
+      String name = file.getName().toLowerCase();
+      int dot = name.lastIndexOf ('.');
+      String ext = (dot != -1 ? name.substring (dot+1) : "");
+      // reader settings that affect the result
+      return ("mesh:"+fileHash(file)+":"+ext+":"+
+              StlReader.DEFAULT_TOLERANCE);
+   }
+
+   /**
+    * Returns <code>true</code> if a mesh can be stored in the cache.
+    */
+   private static boolean canStoreMesh (MeshBase mesh) {
+      if (mesh == null ||
+          mesh.getClass() != PolygonalMesh.class || mesh.hasColors()) {
+         return false;
+      }
+      if (mesh.hasExplicitNormals() &&
+          (mesh.getNormals() == null || mesh.getNormalIndices() == null)) {
+         return false;
+      }
+      return true;
+   }
+
+   /**
+    * Returns a mesh previously read from a file, or <code>null</code> if no
+    * mesh is cached for the file contents. If <code>mesh</code> is
+    * non-null, it should be an empty {@link PolygonalMesh}, and the cached
+    * contents are read into it. Otherwise, a new mesh is created.
+    *
+    * @param file file the mesh was read from
+    * @param mesh optional mesh into which the contents should be read
+    * @return cached mesh, or <code>null</code> if none is available
+    */
+   public MeshBase getMesh (File file, MeshBase mesh) throws IOException {
+      if (mesh != null &&
+          (mesh.getClass() != PolygonalMesh.class ||
+           mesh.numVertices() != 0)) {
+         return null;
+      }
+      if (!file.isFile()) {
+         return null;
+      }
+      ByteBuffer buf = readEntry (meshKey (file), MESH);
+      if (buf == null) {
+         return null;
+      }
+      try {
+         return decodeMesh (buf, (PolygonalMesh)mesh);
+      }
+      catch (BufferUnderflowException e) {
+         return null;
+      }
+   }
+
+   /**
+    * Stores a mesh that has just been read from a file. Does nothing if the
+    * mesh cannot be stored.
+    *
+    * @param file file the mesh was read from
+    * @param mesh mesh that was read
+    */
+   public void putMesh (File file, MeshBase mesh) throws IOException {
+      if (!canStoreMesh (mesh) || !file.isFile()) {
+         return;
+      }
+      writeEntry (meshKey (file), MESH, encodeMesh ((PolygonalMesh)mesh));
+   }
+
+   private Encoder encodeMesh (PolygonalMesh mesh) {
+      int nverts = mesh.numVertices();
+      int nfaces = mesh.numFaces();
+      Encoder enc = new Encoder (24*nverts + 20*nfaces + 256);
+      enc.putString (mesh.getName());
+
+      double[] pnts = new double[3*nverts];
+      for (int i=0; i<nverts; i++) {
+         Point3d pnt = mesh.getVertex(i).pnt;
+         pnts[3*i] = pnt.x;
+         pnts[3*i+1] = pnt.y;
+         pnts[3*i+2] = pnt.z;
+      }
+      enc.putDoubles (pnts, pnts.length);
+
+      // face sizes followed by indices
+      DynamicIntArray faces = new DynamicIntArray (0);
+      DynamicIntArray hard = new DynamicIntArray (0);
+      int k = 0;
+      for (int i=0; i<nfaces; i++) {
+         Face face = mesh.getFace(i);
+         faces.add (face.numVertices());
+         HalfEdge he0 = face.firstHalfEdge();
+         HalfEdge he = he0;
+         do {
+            faces.add (he.head.getIndex());
+            if (he.isHard()) {
+               hard.add (k);
+            }
+            k++;
+            he = he.next;
+         }
+         while (he != he0);
+      }
+      enc.putInts (faces.getArray(), faces.size());
+      enc.putInts (hard.getArray(), hard.size());
+
+      if (mesh.hasExplicitNormals()) {
+         ArrayList<Vector3d> nrmls = mesh.getNormals();
+         enc.putInt (1);
+         enc.putDoubles (toArray (nrmls), 3*nrmls.size());
+         int[] idxs = mesh.getNormalIndices();
+         enc.putInts (idxs, idxs.length);
+      }
+      else {
+         enc.putInt (0);
+      }
+      ArrayList<Vector3d> txts = mesh.getTextureCoords();
+      int[] tidxs = mesh.getTextureIndices();
+      if (txts != null && tidxs != null) {
+         enc.putInt (1);
+         enc.putDoubles (toArray (txts), 3*txts.size());
+         enc.putInts (tidxs, tidxs.length);
+      }
+      else {
+         enc.putInt (0);
+      }
+      return enc;
+   }
+
+   private static double[] toArray (List<Vector3d> vecs) {
+      double[] vals = new double[3*vecs.size()];
+      for (int i=0; i<vecs.size(); i++) {
+         Vector3d vec = vecs.get(i);
+         vals[3*i] = vec.x;
+         vals[3*i+1] = vec.y;
+         vals[3*i+2] = vec.z;
+      }
+      return vals;
+   }
+
+   private static ArrayList<Vector3d> toVectors (double[] vals) {
+      ArrayList<Vector3d> vecs = new ArrayList<Vector3d>(vals.length/3);
+      for (int i=0; i<vals.length/3; i++) {
+         vecs.add (new Vector3d (vals[3*i], vals[3*i+1], vals[3*i+2]));
+      }
+      return vecs;
+   }
+
+   private PolygonalMesh decodeMesh (ByteBuffer buf, PolygonalMesh mesh) {
+      String name = getString (buf);
+      double[] pnts = getDoubles (buf);
+      int[] faces = getInts (buf);
+      int[] hard = getInts (buf);
+      double[] nrmls = null;
+      int[] nidxs = null;
+      if (buf.getInt() != 0) {
+         nrmls = getDoubles (buf);
+         nidxs = getInts (buf);
+      }
+      double[] txts = null;
+      int[] tidxs = null;
+      if (buf.getInt() != 0) {
+         txts = getDoubles (buf);
+         tidxs = getInts (buf);
+      }
+      // check the face indices before modifying the mesh
+      int nverts = pnts.length/3;
+      for (int k=0; k<faces.length; ) {
+         int size = faces[k++];
+         if (size < 0 || k+size > faces.length) {
+            throw new BufferUnderflowException();
+         }
+         for (int j=0; j<size; j++) {
+            int idx = faces[k++];
+            if (idx < 0 || idx >= nverts) {
+               throw new BufferUnderflowException();
+            }
+         }
+      }
+      if (mesh == null) {
+         mesh = new PolygonalMesh();
+      }
+      for (int i=0; i<nverts; i++) {
+         mesh.addVertex (
+            new Point3d (pnts[3*i], pnts[3*i+1], pnts[3*i+2]),
+            /*byReference=*/true);
+      }
+      for (int k=0; k<faces.length; ) {
+         int[] idxs = new int[faces[k++]];
+         for (int j=0; j<idxs.length; j++) {
+            idxs[j] = faces[k++];
+         }
+         mesh.addFace (idxs);
+      }
+      if (nrmls != null) {
+         mesh.setNormals (toVectors (nrmls), nidxs);
+      }
+      if (txts != null) {
+         mesh.setTextureCoords (toVectors (txts), tidxs);
+      }
+      if (hard.length > 0) {
+         Arrays.sort (hard);
+         int k = 0;
+         int h = 0;
+         for (int i=0; i<mesh.numFaces() && h<hard.length; i++) {
+            HalfEdge he0 = mesh.getFace(i).firstHalfEdge();
+            HalfEdge he = he0;
+            do {
+               if (h < hard.length && hard[h] == k) {
+                  he.setHard (true);
+                  h++;
+               }
+               k++;
+               he = he.next;
+            }
+            while (he != he0);
+         }
+      }
+      mesh.setName (name);
+      return mesh;
+   }
+
+   private static String bvTreeKey (
+      String meshHash, boolean obb, int maxLeafElems, double margin) {
+      String type = (obb ? "obb:"+OBBTree.myDefaultMethod : "aabb");
+      return ("bvtree:"+meshHash+":"+type+":"+maxLeafElems+":"+
+              Double.toHexString (margin));
+   }
+
+   /**
+    * Returns a bounding volume hierarchy for the faces of a mesh, reading it
+    * from the cache if possible, and otherwise building it and storing it in
+    * the cache. The hierarchy is the same as that created by the constructors
+    * <code>OBBTree(mesh,maxLeafElems,margin)</code> or
+    * <code>AABBTree(mesh,maxLeafElems,margin)</code>. Hierarchies for meshes
+    * with fewer than {@link #getMinBVTreeFaces} faces are always built.
+    *
+    * @param mesh mesh for which the hierarchy is needed
+    * @param obb if <code>true</code>, creates an {@link OBBTree}; otherwise,
+    * creates an {@link AABBTree}
+    * @param maxLeafElems maximum number of elements in each leaf node
+    * @param margin margin for the bounding volumes, or -1 to use a default
+    * margin based on the mesh size
+    * @return hierarchy for the mesh
+    */
+   public BVTree getBVTree (
+      PolygonalMesh mesh, boolean obb, int maxLeafElems, double margin) {
+
+      if (mesh.numFaces() < myMinBVTreeFaces) {
+         return buildBVTree (mesh, obb, maxLeafElems, margin);
+      }
+      String key = bvTreeKey (meshHash (mesh), obb, maxLeafElems, margin);
+      int kind = (obb ? OBB_TREE : AABB_TREE);
+      ByteBuffer buf = readEntry (key, kind);
+      if (buf != null) {
+         try {
+            return decodeBVTree (buf, mesh, obb);
+         }
+         catch (BufferUnderflowException e) {
+            // damaged entry; rebuild below
+         }
+      }
+      BVTree tree = buildBVTree (mesh, obb, maxLeafElems, margin);
+      Encoder enc = encodeBVTree (tree, mesh);
+      if (enc != null) {
+         writeEntry (key, kind, enc);
+      }
+      return tree;
+   }
+
+   static BVTree buildBVTree (
+      PolygonalMesh mesh, boolean obb, int maxLeafElems, double margin) {
+      if (obb) {
+         return new OBBTree (mesh, maxLeafElems, margin);
+      }
+      else {
+         return new AABBTree (mesh, maxLeafElems, margin);
+      }
+   }
+
+   /**
+    * Encodes a hierarchy as two flat arrays, giving the structure and the
+    * bounds of the nodes in depth-first order. For each node, the structure
+    * contains the number of children and the number of elements (or -1 if
+    * the element array is <code>null</code>), followed by the element
+    * indices. The bounds contain the minimum and maximum for AABBs, and the
+    * half-widths and transform for OBBs.
+    */
+   private Encoder encodeBVTree (BVTree tree, PolygonalMesh mesh) {
+      DynamicIntArray structure = new DynamicIntArray (0);
+      DynamicDoubleArray bounds = new DynamicDoubleArray (0);
+      if (!encodeNode (tree.getRoot(), mesh, structure, bounds)) {
+         return null;
+      }
+      Encoder enc = new Encoder (4*structure.size() + 8*bounds.size() + 64);
+      enc.putInt (tree.getMaxLeafElements());
+      enc.putDouble (tree.getMargin());
+      enc.putInts (structure.getArray(), structure.size());
+      enc.putDoubles (bounds.getArray(), bounds.size());
+      return enc;
+   }
+
+   private boolean encodeNode (
+      BVNode node, PolygonalMesh mesh,
+      DynamicIntArray structure, DynamicDoubleArray bounds) {
+
+      structure.add (node.numChildren());
+      Boundable[] elems = node.getElements();
+      if (elems == null) {
+         structure.add (-1);
+      }
+      else {
+         structure.add (elems.length);
+         for (Boundable elem : elems) {
+            if (!(elem instanceof Face) ||
+                mesh.getFace(((Face)elem).getIndex()) != elem) {
+               return false;
+            }
+            structure.add (((Face)elem).getIndex());
+         }
+      }
+      if (node instanceof AABB) {
+         AABB aabb = (AABB)node;
+         addPoint (bounds, aabb.myMin);
+         addPoint (bounds, aabb.myMax);
+      }
+      else if (node instanceof OBB) {
+         OBB obb = (OBB)node;
+         addPoint (bounds, obb.myHalfWidths);
+         double[] vals = new double[9];
+         obb.myX.R.get (vals);
+         for (int i=0; i<vals.length; i++) {
+            bounds.add (vals[i]);
+         }
+         addPoint (bounds, obb.myX.p);
+      }
+      else {
+         return false;
+      }
+      for (BVNode child=node.getFirstChild(); child!=null;
+           child=child.getNext()) {
+         if (!encodeNode (child, mesh, structure, bounds)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static void addPoint (DynamicDoubleArray bounds, Vector3d vec) {
+      bounds.add (vec.x);
+      bounds.add (vec.y);
+      bounds.add (vec.z);
+   }
+
+   private BVTree decodeBVTree (
+      ByteBuffer buf, PolygonalMesh mesh, boolean obb) {
+      int maxLeafElems = buf.getInt();
+      double margin = buf.getDouble();
+      int[] structure = getInts (buf);
+      double[] bounds = getDoubles (buf);
+      int[] offs = new int[2];
+      BVNode root = decodeNode (structure, bounds, offs, mesh, obb);
+      if (offs[0] != structure.length || offs[1] != bounds.length) {
+         throw new BufferUnderflowException();
+      }
+      BVTree tree;
+      if (obb) {
+         OBBTree obbTree = new OBBTree();
+         obbTree.setRoot ((OBB)root);
+         tree = obbTree;
+      }
+      else {
+         AABBTree aabbTree = new AABBTree();
+         aabbTree.myRoot = (AABB)root;
+         tree = aabbTree;
+      }
+      tree.setMaxLeafElements (maxLeafElems);
+      tree.setMargin (margin);
+      tree.numberNodes (root, 0);
+      return tree;
+   }
+
+   private int getStructure (int[] structure, int[] offs) {
+      if (offs[0] >= structure.length) {
+         throw new BufferUnderflowException();
+      }
+      return structure[offs[0]++];
+   }
+
+   private double getBound (double[] bounds, int[] offs) {
+      if (offs[1] >= bounds.length) {
+         throw new BufferUnderflowException();
+      }
+      return bounds[offs[1]++];
+   }
+
+   private BVNode decodeNode (
+      int[] structure, double[] bounds, int[] offs,
+      PolygonalMesh mesh, boolean obb) {
+
+      int nchildren = getStructure (structure, offs);
+      int nelems = getStructure (structure, offs);
+      BVNode node;
+      if (obb) {
+         OBB obbNode = new OBB();
+         Vector3d hw = obbNode.myHalfWidths;
+         hw.x = getBound (bounds, offs);
+         hw.y = getBound (bounds, offs);
+         hw.z = getBound (bounds, offs);
+         double[] vals = new double[9];
+         for (int i=0; i<vals.length; i++) {
+            vals[i] = getBound (bounds, offs);
+         }
+         obbNode.myX.R.set (vals);
+         Vector3d p = obbNode.myX.p;
+         p.x = getBound (bounds, offs);
+         p.y = getBound (bounds, offs);
+         p.z = getBound (bounds, offs);
+         node = obbNode;
+      }
+      else {
+         AABB aabb = new AABB();
+         aabb.myMin.x = getBound (bounds, offs);
+         aabb.myMin.y = getBound (bounds, offs);
+         aabb.myMin.z = getBound (bounds, offs);
+         aabb.myMax.x = getBound (bounds, offs);
+         aabb.myMax.y = getBound (bounds, offs);
+         aabb.myMax.z = getBound (bounds, offs);
+         node = aabb;
+      }
+      if (nelems >= 0) {
+         Boundable[] elems = new Boundable[nelems];
+         for (int i=0; i<nelems; i++) {
+            int idx = getStructure (structure, offs);
+            if (idx < 0 || idx >= mesh.numFaces()) {
+               throw new BufferUnderflowException();
+            }
+            elems[i] = mesh.getFace (idx);
+         }
+         node.setElements (elems);
+      }
+      for (int i=0; i<nchildren; i++) {
+         node.addChild (decodeNode (structure, bounds, offs, mesh, obb));
+      }
+      return node;
+   }
+
+   /**
+    * Returns a distance grid computed from a single mesh, or
+    * <code>null</code> if no grid is cached for the key. The closest
+    * features of the grid are set to the faces of <code>mesh</code>.
+    *
+    * @param key key created using {@link GeometryCache#gridKey}
+    * @param mesh mesh from which the grid was computed
+    * @return cached grid, or <code>null</code>
+    */
+   public DistanceGrid getGrid (String key, PolygonalMesh mesh) {
+      ByteBuffer buf = readEntry ("grid:"+key, GRID);
+      if (buf == null) {
+         return null;
+      }
+      try {
+         return decodeGrid (buf, mesh);
+      }
+      catch (BufferUnderflowException e) {
+         return null;
+      }
+   }
+
+   /**
+    * Stores a distance grid computed from a single mesh. Does nothing
+    * unless the features of the grid are the faces of <code>mesh</code>
+    * and every vertex has a closest feature.
+    *
+    * @param key key created using {@link GeometryCache#gridKey}
+    * @param grid grid to store
+    * @param mesh mesh from which the grid was computed
+    */
+   public void putGrid (String key, DistanceGrid grid, PolygonalMesh mesh) {
+      Feature[] features = grid.getFeatures();
+      if (features == null || features.length != mesh.numFaces()) {
+         return;
+      }
+      for (int i=0; i<features.length; i++) {
+         if (features[i] != mesh.getFace(i)) {
+            return;
+         }
+      }
+      int numv = grid.numVertices();
+      int[] closest = grid.myClosestFeatureIdxs;
+      for (int i=0; i<numv; i++) {
+         if (closest[i] < 0) {
+            return;
+         }
+      }
+      Encoder enc = new Encoder (12*numv + 256);
+      Vector3d widths = grid.getWidths();
+      enc.putDouble (widths.x);
+      enc.putDouble (widths.y);
+      enc.putDouble (widths.z);
+      Vector3i res = grid.getResolution();
+      enc.putInt (res.x);
+      enc.putInt (res.y);
+      enc.putInt (res.z);
+      enc.putTransform (grid.getCenterAndOrientation());
+      enc.putInt (grid.isSigned() ? 1 : 0);
+      enc.putDoubles (grid.getVertexDistances(), numv);
+      enc.putInts (closest, numv);
+      writeEntry ("grid:"+key, GRID, enc);
+   }
+
+   private DistanceGrid decodeGrid (ByteBuffer buf, PolygonalMesh mesh) {
+      Vector3d widths = new Vector3d();
+      widths.x = buf.getDouble();
+      widths.y = buf.getDouble();
+      widths.z = buf.getDouble();
+      Vector3i res = new Vector3i();
+      res.x = buf.getInt();
+      res.y = buf.getInt();
+      res.z = buf.getInt();
+      RigidTransform3d TCL = getTransform (buf);
+      boolean signed = (buf.getInt() != 0);
+      double[] dists = getDoubles (buf);
+      int[] closest = getInts (buf);
+      if (res.x < 1 || res.y < 1 || res.z < 1 ||
+          (res.x+1L)*(res.y+1L)*(res.z+1L) != dists.length ||
+          closest.length != dists.length) {
+         throw new BufferUnderflowException();
+      }
+      for (int i=0; i<closest.length; i++) {
+         if (closest[i] < 0 || closest[i] >= mesh.numFaces()) {
+            throw new BufferUnderflowException();
+         }
+      }
+      DistanceGrid grid = new DistanceGrid (widths, res, TCL);
+      grid.setDistancesAndFeatures (dists, mesh.getFaces(), closest, signed);
+      return grid;
+   }
+}
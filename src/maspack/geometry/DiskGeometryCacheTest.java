@@ -0,0 +1,385 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Objects;
+
+import maspack.geometry.io.GenericMeshReader;
+import maspack.matrix.Point3d;
+import maspack.matrix.Vector3d;
+import maspack.matrix.Vector3i;
+import maspack.util.RandomGenerator;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Tests DiskGeometryCache.
+ */
+public class DiskGeometryCacheTest extends UnitTest {
+
+   File myDir;
+
+   String objFileContents =
+      "# textured tetrahedron\n" +
+      "v 0 0 0\n" +
+      "v 1 0 0\n" +
+      "v 0 1 0\n" +
+      "v 0 0 1\n" +
+      "vt 0 0\n" +
+      "vt 1 0\n" +
+      "vt 0 1\n" +
+      "vn 0 0 -1\n" +
+      "vn 0 -1 0\n" +
+      "vn -1 0 0\n" +
+      "vn 0.577 0.577 0.577\n" +
+      "f 1/1/1 3/3/1 2/2/1\n" +
+      "f 1/1/2 2/2/2 4/3/2\n" +
+      "f 1/1/3 4/3/3 3/2/3\n" +
+      "f 2/1/4 3/2/4 4/3/4\n";
+
+   File createTempDir() throws IOException {
+      return Files.createTempDirectory ("diskGeometryCacheTest").toFile();
+   }
+
+   void deleteDir (File dir) {
+      File[] files = dir.listFiles();
+      if (files != null) {
+         for (File file : files) {
+            file.delete();
+         }
+      }
+      dir.delete();
+   }
+
+   File[] entryFiles (DiskGeometryCache cache) {
+      File[] files = cache.getDirectory().listFiles();
+      int num = 0;
+      for (File file : files) {
+         if (file.getName().endsWith (".gce")) {
+            files[num++] = file;
+         }
+      }
+      File[] entries = new File[num];
+      System.arraycopy (files, 0, entries, 0, num);
+      return entries;
+   }
+
+   void checkMeshesEqual (String msg, PolygonalMesh mesh, PolygonalMesh check) {
+      if (!mesh.epsilonEquals (check, 0)) {
+         throw new TestException (msg+": meshes not equal");
+      }
+      if (!Objects.equals (mesh.getName(), check.getName())) {
+         throw new TestException (
+            msg+": name is "+mesh.getName()+", expected "+check.getName());
+      }
+      checkEquals (
+         msg+": hard edges", mesh.numHardEdges(), check.numHardEdges());
+      checkEquals (
+         msg+": has textures", mesh.hasTextureCoords(),
+         check.hasTextureCoords());
+      if (check.hasTextureCoords()) {
+         checkEquals (
+            msg+": num texture coords",
+            mesh.numTextureCoords(), check.numTextureCoords());
+         for (int i=0; i<check.numTextureCoords(); i++) {
+            checkEquals (
+               msg+": texture coord "+i,
+               mesh.getTextureCoords().get(i),
+               check.getTextureCoords().get(i));
+         }
+         if (!Arrays.equals (
+                mesh.getTextureIndices(), check.getTextureIndices())) {
+            throw new TestException (msg+": texture indices not equal");
+         }
+      }
+   }
+
+   void checkNodesEqual (String msg, BVNode node, BVNode check) {
+      checkEquals (msg+": num children", node.numChildren(), check.numChildren());
+      checkEquals (
+         msg+": has elements", node.getElements() != null,
+         check.getElements() != null);
+      checkEquals (msg+": radius", node.getRadius(), check.getRadius());
+      Vector3d cent = new Vector3d();
+      Vector3d ccent = new Vector3d();
+      node.getCenter (cent);
+      check.getCenter (ccent);
+      checkEquals (msg+": center", cent, ccent);
+      Boundable[] elems = node.getElements();
+      Boundable[] celems = check.getElements();
+      if (elems != null) {
+         checkEquals (msg+": num elements", elems.length, celems.length);
+         for (int i=0; i<elems.length; i++) {
+            if (elems[i] != celems[i]) {
+               throw new TestException (msg+": element "+i+" differs");
+            }
+         }
+      }
+      BVNode child = node.getFirstChild();
+      BVNode cchild = check.getFirstChild();
+      while (child != null) {
+         if (child.getParent() != node) {
+            throw new TestException (msg+": inconsistent parent");
+         }
+         checkNodesEqual (msg, child, cchild);
+         child = child.getNext();
+         cchild = cchild.getNext();
+      }
+   }
+
+   public void testMeshes() throws IOException {
+      File file = File.createTempFile ("diskGeometryCacheTest", ".obj");
+      file.deleteOnExit();
+      PrintWriter pw = new PrintWriter (new FileOutputStream (file));
+      pw.print (objFileContents);
+      pw.close();
+
+      PolygonalMesh check = (PolygonalMesh)GenericMeshReader.readMesh (file);
+      check.setName ("tet");
+      check.setHardEdgesFromFaceNormals (0.5);
+
+      DiskGeometryCache cache = new DiskGeometryCache (myDir);
+      checkEquals (
+         "mesh initially cached", cache.getMesh (file, null) != null, false);
+      cache.putMesh (file, check);
+      checkEquals ("num entries", cache.numEntries(), 1);
+      checkEquals ("size", cache.getSize(), entryFiles(cache)[0].length());
+
+      checkMeshesEqual (
+         "cached read", (PolygonalMesh)cache.getMesh (file, null), check);
+      checkMeshesEqual (
+         "cached read into mesh",
+         (PolygonalMesh)cache.getMesh (file, new PolygonalMesh()), check);
+
+      // a second cache sharing the directory should see the same entry
+      DiskGeometryCache other = new DiskGeometryCache (myDir);
+      checkEquals ("other num entries", other.numEntries(), 1);
+      checkMeshesEqual (
+         "other cache read", (PolygonalMesh)other.getMesh (file, null), check);
+
+      // changing the file contents should give a different key
+      pw = new PrintWriter (new FileOutputStream (file));
+      pw.print (objFileContents + "# changed\n");
+      pw.close();
+      checkEquals (
+         "changed file cached", cache.getMesh (file, null) != null, false);
+
+      // GeometryCache should fall back on the disk cache
+      GeometryCache.setEnabled (true);
+      GeometryCache.setDiskCache (cache);
+      GeometryCache.clear();
+      PolygonalMesh mesh0 = (PolygonalMesh)GenericMeshReader.readMesh (file);
+      checkEquals ("num entries after read", cache.numEntries(), 2);
+      GeometryCache.clear();
+      PolygonalMesh mesh1 = (PolygonalMesh)GenericMeshReader.readMesh (file);
+      checkEquals ("num cached meshes", GeometryCache.numMeshes(), 1);
+      checkMeshesEqual ("GeometryCache read", mesh1, mesh0);
+      GeometryCache.setDiskCache (null);
+      GeometryCache.setEnabled (false);
+      cache.clear();
+      checkEquals ("num entries after clear", cache.numEntries(), 0);
+      checkEquals ("size after clear", cache.getSize(), 0L);
+   }
+
+   void testBVTree (
+      DiskGeometryCache cache, PolygonalMesh mesh, boolean obb, int maxLeaf,
+      double margin) {
+
+      int numEntries = cache.numEntries();
+      BVTree check = DiskGeometryCache.buildBVTree (mesh, obb, maxLeaf, margin);
+      BVTree tree0 = cache.getBVTree (mesh, obb, maxLeaf, margin);
+      checkEquals ("num entries", cache.numEntries(), numEntries+1);
+      BVTree tree1 = cache.getBVTree (mesh, obb, maxLeaf, margin);
+      checkEquals ("num entries", cache.numEntries(), numEntries+1);
+      checkEquals (
+         "tree class", tree1.getClass(), obb ? OBBTree.class : AABBTree.class);
+      checkEquals ("max leaf elements", tree1.getMaxLeafElements(), maxLeaf);
+      checkEquals ("margin", tree1.getMargin(), check.getMargin());
+      checkEquals ("num nodes", tree1.numNodes(), check.numNodes());
+      checkNodesEqual ("built tree", tree0.getRoot(), check.getRoot());
+      checkNodesEqual ("cached tree", tree1.getRoot(), check.getRoot());
+
+      // queries on the cached tree should give the same results
+      BVFeatureQuery query = new BVFeatureQuery();
+      RandomGenerator.setSeed (0x1234);
+      Point3d pnt = new Point3d();
+      Point3d near0 = new Point3d();
+      Point3d near1 = new Point3d();
+      for (int i=0; i<50; i++) {
+         pnt.setRandom();
+         pnt.scale (2);
+         Face face0 = query.nearestFaceToPoint (near0, null, check, pnt);
+         Face face1 = query.nearestFaceToPoint (near1, null, tree1, pnt);
+         if (face0 != face1) {
+            throw new TestException ("nearest faces differ for "+pnt);
+         }
+         checkEquals ("nearest point", near1, near0);
+      }
+   }
+
+   public void testBVTrees() throws IOException {
+      DiskGeometryCache cache = new DiskGeometryCache (myDir);
+      cache.setMinBVTreeFaces (0);
+      PolygonalMesh mesh = MeshFactory.createOctahedralSphere (1.0, 3);
+      testBVTree (cache, mesh, /*obb=*/false, 2, -1);
+      testBVTree (cache, mesh, /*obb=*/true, 2, -1);
+      testBVTree (cache, mesh, /*obb=*/true, 4, 0.01);
+
+      // a cached tree should also be found for an identical mesh
+      PolygonalMesh copy = MeshFactory.createOctahedralSphere (1.0, 3);
+      int numEntries = cache.numEntries();
+      BVTree tree = cache.getBVTree (copy, /*obb=*/true, 2, -1);
+      checkEquals ("num entries for copy", cache.numEntries(), numEntries);
+      Boundable elem = tree.getLeafNodes().get(0).getElements()[0];
+      if (((Face)elem).getMesh() != copy) {
+         throw new TestException ("cached tree does not refer to copy");
+      }
+
+      // small meshes should not be cached
+      cache.setMinBVTreeFaces (DiskGeometryCache.DEFAULT_MIN_BVTREE_FACES);
+      cache.getBVTree (
+         MeshFactory.createBox (1, 1, 1), /*obb=*/true, 2, -1);
+      checkEquals ("num entries for small mesh", cache.numEntries(), numEntries);
+      cache.clear();
+   }
+
+   public void testGrids() throws IOException {
+      DiskGeometryCache cache = new DiskGeometryCache (myDir);
+      PolygonalMesh mesh0 = MeshFactory.createOctahedralSphere (1.0, 2);
+      PolygonalMesh mesh1 = MeshFactory.createOctahedralSphere (1.0, 2);
+      Vector3i res = new Vector3i (10, 12, 14);
+      for (boolean signed : new boolean[] { false, true }) {
+         String key = "testGrid:"+signed;
+         checkEquals (
+            "grid initially cached", cache.getGrid (key, mesh0) != null, false);
+         DistanceGrid grid = new DistanceGrid (
+            mesh0.getFaces(), 0.1, res, /*signed=*/false);
+         if (signed) {
+            // mark the field as signed without needing sign computation
+            grid.setDistancesAndFeatures (
+               grid.getVertexDistances().clone(), mesh0.getFaces(),
+               grid.myClosestFeatureIdxs.clone(), /*signed=*/true);
+         }
+         cache.putGrid (key, grid, mesh0);
+         DistanceGrid copy = cache.getGrid (key, mesh1);
+         checkEquals (
+            "resolution", copy.getResolution().equals (grid.getResolution()),
+            true);
+         checkEquals ("widths", copy.getWidths(), grid.getWidths());
+         checkEquals (
+            "center and orientation", copy.getCenterAndOrientation(),
+            grid.getCenterAndOrientation());
+         checkEquals ("signed", copy.isSigned(), grid.isSigned());
+         for (int i=0; i<grid.numVertices(); i++) {
+            checkEquals (
+               "distance at "+i, copy.getVertexValue(i),
+               grid.getVertexValue(i));
+            Face f0 = (Face)grid.getClosestFeature(i);
+            Face f1 = (Face)copy.getClosestFeature(i);
+            if (f1 != mesh1.getFace (f0.getIndex())) {
+               throw new TestException (
+                  "closest feature at "+i+" does not refer to new mesh");
+            }
+         }
+      }
+      cache.clear();
+   }
+
+   public void testCorruption() throws IOException {
+      DiskGeometryCache cache = new DiskGeometryCache (myDir);
+      PolygonalMesh mesh = MeshFactory.createOctahedralSphere (1.0, 1);
+      DistanceGrid grid = new DistanceGrid (
+         mesh.getFaces(), 0.1, new Vector3i (5, 5, 5), /*signed=*/false);
+      cache.putGrid ("corrupt", grid, mesh);
+      File entry = entryFiles(cache)[0];
+
+      // flip a byte in the payload
+      RandomAccessFile raf = new RandomAccessFile (entry, "rw");
+      raf.seek (entry.length()/2);
+      int b = raf.read();
+      raf.seek (entry.length()/2);
+      raf.write (b ^ 0xff);
+      raf.close();
+      checkEquals (
+         "corrupted entry found", cache.getGrid ("corrupt", mesh) != null,
+         false);
+      checkEquals ("corrupted entry removed", entry.exists(), false);
+
+      // truncate an entry
+      cache.putGrid ("corrupt", grid, mesh);
+      raf = new RandomAccessFile (entry, "rw");
+      raf.setLength (entry.length()-8);
+      raf.close();
+      checkEquals (
+         "truncated entry found", cache.getGrid ("corrupt", mesh) != null,
+         false);
+      checkEquals ("truncated entry removed", entry.exists(), false);
+      cache.clear();
+   }
+
+   public void testEviction() throws IOException {
+      DiskGeometryCache cache = new DiskGeometryCache (myDir);
+      PolygonalMesh mesh = MeshFactory.createOctahedralSphere (1.0, 1);
+      DistanceGrid grid = new DistanceGrid (
+         mesh.getFaces(), 0.1, new Vector3i (8, 8, 8), /*signed=*/false);
+      cache.putGrid ("grid0", grid, mesh);
+      long entrySize = cache.getSize();
+      cache.setMaxSize (4*entrySize + entrySize/2);
+      long time = System.currentTimeMillis() - 100000;
+      for (int i=1; i<4; i++) {
+         cache.putGrid ("grid"+i, grid, mesh);
+      }
+      // make the modification times distinct, with grid1 the oldest
+      int k = 0;
+      for (String key : new String[] {"grid1", "grid2", "grid3", "grid0"}) {
+         File file = new File (
+            myDir, DiskGeometryCache.digest ("grid:"+key)+".gce");
+         file.setLastModified (time + 1000*(k++));
+      }
+      checkEquals ("num entries", cache.numEntries(), 4);
+      // adding another entry should evict the least recently used one
+      cache.putGrid ("grid4", grid, mesh);
+      if (cache.getSize() > cache.getMaxSize()) {
+         throw new TestException (
+            "cache size "+cache.getSize()+" exceeds maximum "+
+            cache.getMaxSize());
+      }
+      checkEquals ("num entries after eviction", cache.numEntries(), 4);
+      checkEquals ("grid1 cached", cache.getGrid("grid1", mesh) != null, false);
+      checkEquals ("grid2 cached", cache.getGrid("grid2", mesh) != null, true);
+      checkEquals ("grid3 cached", cache.getGrid("grid3", mesh) != null, true);
+      checkEquals ("grid0 cached", cache.getGrid("grid0", mesh) != null, true);
+      checkEquals ("grid4 cached", cache.getGrid("grid4", mesh) != null, true);
+      cache.clear();
+   }
+
+   public void test() throws IOException {
+      myDir = createTempDir();
+      try {
+         testMeshes();
+         testBVTrees();
+         testGrids();
+         testCorruption();
+         testEviction();
+      }
+      finally {
+         deleteDir (myDir);
+      }
+   }
+
+   public static void main (String[] args) {
+      DiskGeometryCacheTest tester = new DiskGeometryCacheTest();
+      tester.runtest();
+   }
+}
@@ -24,6 +24,7 @@ import maspack.matrix.VectorTransformer3d;
 import maspack.geometry.DistanceGridSurfCalc.*;
 import maspack.geometry.BVFeatureQuery.*;
 import maspack.util.InternalErrorException;
+import maspack.concurrency.ParallelLoop;
 import maspack.util.*;
 
 /**
@@ -204,6 +205,36 @@ public class DistanceGrid extends ScalarGridBase {
       return myDistanceMethod;
    }
 
+   public static int DEFAULT_NUM_BUILD_THREADS = 1;
+   protected int myNumBuildThreads = DEFAULT_NUM_BUILD_THREADS;
+
+   /**
+    * Sets the number of threads used to compute distance values from
+    * features or meshes. The parallel computation produces the same
+    * values as the serial one: feature distances and ray intersection
+    * counts are partitioned by y slab, and the sweeps are performed one
+    * diagonal plane at a time, since the vertices within a plane do not
+    * depend on each other.
+    *
+    * @param num number of build threads
+    */
+   public void setNumBuildThreads (int num) {
+      if (num < 1) {
+         throw new IllegalArgumentException (
+            "Number of build threads must be at least 1");
+      }
+      myNumBuildThreads = num;
+   }
+
+   /**
+    * Returns the number of threads used to compute distance values.
+    *
+    * @return number of build threads
+    */
+   public int getNumBuildThreads() {
+      return myNumBuildThreads;
+   }
+
    /**
     * Default constructor. Should not be called by applications, unless
     * {@link #scan} is called immediately after.
@@ -508,6 +539,7 @@ public class DistanceGrid extends ScalarGridBase {
       }
 
       mySignedP = grid.mySignedP;
+      myNumBuildThreads = grid.myNumBuildThreads;
 
       myQx = grid.myQx;
       myQy = grid.myQy;
@@ -1088,10 +1120,43 @@ public class DistanceGrid extends ScalarGridBase {
          closestFeatureIdxs[i] = -1;
       }
 
+      mesh.getBVTree(); // make sure the tree is built before querying
+      if (myNumBuildThreads > 1) {
+         ParallelLoop loop =
+            new ParallelLoop ("DistanceGrid", myNumBuildThreads);
+         final int[] featIdxs = closestFeatureIdxs;
+         try {
+            loop.forRange (myNx, new ParallelLoop.Body() {
+               public void run (int start, int end, int worker) {
+                  computeMeshDistances (
+                     phi, featIdxs, mesh, signed, start, end);
+               }
+            });
+         }
+         finally {
+            loop.shutdown();
+         }
+      }
+      else {
+         computeMeshDistances (
+            phi, closestFeatureIdxs, mesh, signed, 0, myNx);
+      }
+      timer.stop();
+      System.out.println ("BVH: " + timer.result(1));
+   }
+
+   /**
+    * Computes distances to a mesh for vertices whose x indices lie within
+    * the range {@code [xlo, xhi)}, using bounding volume hierarchy queries.
+    */
+   private void computeMeshDistances (
+      double[] phi, int[] closestFeatureIdxs,
+      PolygonalMesh mesh, boolean signed, int xlo, int xhi) {
+
       BVFeatureQuery query = new BVFeatureQuery();
       Point3d pnt = new Point3d();
       Point3d near = new Point3d();
-      for (int xi = 0; xi < myNx; xi++) {
+      for (int xi = xlo; xi < xhi; xi++) {
          for (int yj = 0; yj < myNy; yj++) {
             for (int zk = 0; zk < myNz; zk++) {
                int vi = xyzIndicesToVertex (xi, yj, zk);
@@ -1126,9 +1191,7 @@ public class DistanceGrid extends ScalarGridBase {
                }
             }
          }
-      }   
-      timer.stop();
-      System.out.println ("BVH: " + timer.result(1));
+      }
    }
 
    /** 
@@ -1171,29 +1234,29 @@ public class DistanceGrid extends ScalarGridBase {
             zIntersectCount[i] = 0;
          }
       }
-      Point3d featPnt    = new Point3d();
+
+      // For every feature, find the vertex-aligned parallelpiped containing
+      // the feature's bounding box, along with the feature's z range in grid
+      // coordinates.
+      final int[] featBoxes = new int[6*features.length];
+      final double[] featZRanges = new double[2*features.length];
       Point3d gridPnt    = new Point3d();
       Vector3i gridMin   = new Vector3i();
       Vector3i gridMax   = new Vector3i();
-      Point3d nearPntLoc = new Point3d();
-      Point3d featPntLoc = new Point3d();
       Vector3i hi = new Vector3i();
       Vector3i lo = new Vector3i();
-
-      // For every feature ...
       for (int t=0; t<features.length; ++t) {
-         // Find the vertex-aligned parallelpiped containing the feature's
-         // bounding box.
          Feature feature = features[t];
-
+         if (signed && !(feature instanceof Face)) {
+            throw new IllegalArgumentException (
+               "Signed grid can only be created if all features are Faces");
+         }
          gridMin.set (myNx+1, myNy+1, myNz+1);
          gridMax.set (-1, -1, -1);
          double maxz = -INF; // max, minz of the feature in grid coords
          double minz = INF;
          for (int i=0; i<feature.numPoints(); i++) {
-            featPnt = feature.getPoint(i);
-            
-            myGridToLocal.inverseTransformPnt (gridPnt, featPnt);
+            myGridToLocal.inverseTransformPnt (gridPnt, feature.getPoint(i));
 
             lo.x = clip((int)gridPnt.x, 0, myNx-1);
             lo.y = clip((int)gridPnt.y, 0, myNy-1);
@@ -1210,12 +1273,109 @@ public class DistanceGrid extends ScalarGridBase {
             lo.updateBounds (gridMin, gridMax);
             hi.updateBounds (gridMin, gridMax);
          }
+         featBoxes[6*t  ] = gridMin.x;
+         featBoxes[6*t+1] = gridMin.y;
+         featBoxes[6*t+2] = gridMin.z;
+         featBoxes[6*t+3] = gridMax.x;
+         featBoxes[6*t+4] = gridMax.y;
+         featBoxes[6*t+5] = gridMax.z;
+         featZRanges[2*t  ] = minz;
+         featZRanges[2*t+1] = maxz;
+      }
+
+      ParallelLoop loop = null;
+      if (myNumBuildThreads > 1) {
+         loop = new ParallelLoop ("DistanceGrid", myNumBuildThreads);
+      }
+      try {
+         // Compute distances and ray intersection counts near each
+         // feature. When done in parallel, the work is partitioned into y
+         // slabs, each of which processes the features in order, so that the
+         // results are the same as for the serial computation.
+         final int[] featIdxs = closestFeatureIdxs;
+         if (loop != null) {
+            final int[] zCounts = zIntersectCount;
+            loop.forRange (myNy, new ParallelLoop.Body() {
+               public void run (int start, int end, int worker) {
+                  computeFeatureDistances (
+                     phi, featIdxs, zCounts, features,
+                     featBoxes, featZRanges, start, end);
+               }
+            });
+         }
+         else {
+            computeFeatureDistances (
+               phi, featIdxs, zIntersectCount, features,
+               featBoxes, featZRanges, 0, myNy);
+         }
+
+         // Done all triangles.
+         // Sweep, propagating values throughout the grid volume.
+         for (int pass = 0; pass < 2; pass++) {
+            sweep(phi, +1, +1, +1, featIdxs, features, loop);
+            sweep(phi, -1, -1, -1, featIdxs, features, loop);
+            sweep(phi, +1, +1, -1, featIdxs, features, loop);
+            sweep(phi, -1, -1, +1, featIdxs, features, loop);
+            sweep(phi, +1, -1, +1, featIdxs, features, loop);
+            sweep(phi, -1, +1, -1, featIdxs, features, loop);
+            sweep(phi, +1, -1, -1, featIdxs, features, loop);
+            sweep(phi, -1, +1, +1, featIdxs, features, loop);
+         }
 
-         // Go through the entire parallelpiped. Calculate distance and
+         if (signed) {
+            if (loop != null) {
+               final int[] zCounts = zIntersectCount;
+               loop.forRange (myNx, new ParallelLoop.Body() {
+                  public void run (int start, int end, int worker) {
+                     applyIntersectionSigns (phi, zCounts, start, end);
+                  }
+               });
+            }
+            else {
+               applyIntersectionSigns (phi, zIntersectCount, 0, myNx);
+            }
+         }
+      }
+      finally {
+         if (loop != null) {
+            loop.shutdown();
+         }
+      }
+      //timer.stop();
+      //System.out.println ("BRIDSON: " + timer.result(1));
+   }
+
+   /**
+    * Computes distances to each feature for the grid vertices within the
+    * feature's bounding box, along with the z ray intersection counts used
+    * to determine signs, for vertices whose y indices lie within a specified
+    * range.
+    */
+   private void computeFeatureDistances (
+      double[] phi, int[] closestFeatureIdxs, int[] zIntersectCount,
+      Feature[] features, int[] featBoxes, double[] featZRanges,
+      int ylo, int yhi) {
+
+      double maxDist = 2*getRadius();
+      Point3d gridPnt    = new Point3d();
+      Point3d nearPntLoc = new Point3d();
+      Point3d featPntLoc = new Point3d();
+      Point3d bot = new Point3d();
+      Point3d top = new Point3d();
+      Point3d ipnt = new Point3d();
+
+      for (int t=0; t<features.length; ++t) {
+         Feature feature = features[t];
+         int y0 = Math.max (featBoxes[6*t+1], ylo);
+         int y1 = Math.min (featBoxes[6*t+4], yhi-1);
+         if (y0 > y1) {
+            continue;
+         }
+         // Go through the parallelpiped. Calculate distance and
          // closestFeature.
-         for (int zk = gridMin.z; zk <= gridMax.z; zk++) {
-            for (int yj = gridMin.y; yj <= gridMax.y; yj++) {
-               for (int xi = gridMin.x; xi <= gridMax.x; xi++) {
+         for (int zk = featBoxes[6*t+2]; zk <= featBoxes[6*t+5]; zk++) {
+            for (int yj = y0; yj <= y1; yj++) {
+               for (int xi = featBoxes[6*t]; xi <= featBoxes[6*t+3]; xi++) {
                   // Get features coordinates
                   featPntLoc.set (xi, yj, zk);
                   myGridToLocal.transformPnt (featPntLoc, featPntLoc);
@@ -1223,33 +1383,23 @@ public class DistanceGrid extends ScalarGridBase {
                   feature.nearestPoint (nearPntLoc, featPntLoc);
                   double distance = featPntLoc.distance (nearPntLoc);
                   int index = xyzIndicesToVertex (xi, yj, zk);
-                  if (index >= numv) {
-                     System.out.println ("coords = " +xi+" "+yj+" "+zk);
-                  }
                   if (distance < phi[index]) {
                      phi[index] = distance;
-                     if (closestFeatureIdxs != null) {
-                        closestFeatureIdxs [index] = t;
-                     }
+                     closestFeatureIdxs [index] = t;
                   }
                }
             }
          }
 
-         if (signed) {
-            if (!(feature instanceof Face)) {
-               throw new IllegalArgumentException (
-                  "Signed grid can only be created if all features are Faces");
-            }
+         if (zIntersectCount != null) {
             Face face = (Face)feature;
-            Point3d bot = new Point3d();
-            Point3d top = new Point3d();
-            // Ray-casts from bottom x-y plane, upwards, counting intersections.
-            // We're building intersectionCount[] to use in ray casting below.
-            for (int yj = gridMin.y; yj <= gridMax.y; yj++) {
-               for (int xi = gridMin.x; xi <= gridMax.x; xi++) {
-
-                  Point3d ipnt = new Point3d();
+            double minz = featZRanges[2*t];
+            double maxz = featZRanges[2*t+1];
+            // Ray-casts from bottom x-y plane, upwards, counting
+            // intersections.
+            for (int yj = y0; yj <= y1; yj++) {
+               for (int xi = featBoxes[6*t]; xi <= featBoxes[6*t+3]; xi++) {
+
                   int res = 0;
                   if (maxz >= 0) {
                      myGridToLocal.transformPnt (
@@ -1270,42 +1420,30 @@ public class DistanceGrid extends ScalarGridBase {
             } // y 
          }
       }
+   }
 
-      // Done all triangles.
-      // Sweep, propagating values throughout the grid volume.
-      for (int pass = 0; pass < 2; pass++) {
-         sweep(phi, +1, +1, +1, closestFeatureIdxs, features);
-         sweep(phi, -1, -1, -1, closestFeatureIdxs, features);
-         sweep(phi, +1, +1, -1, closestFeatureIdxs, features);
-         sweep(phi, -1, -1, +1, closestFeatureIdxs, features);
-         sweep(phi, +1, -1, +1, closestFeatureIdxs, features);
-         sweep(phi, -1, +1, -1, closestFeatureIdxs, features);
-         sweep(phi, +1, -1, -1, closestFeatureIdxs, features);
-         sweep(phi, -1, +1, +1, closestFeatureIdxs, features);
-      }
-
-      if (signed) {
-         // This is a ray-casting implementation to find the sign of each
-         // vertex in the grid.
-         for (int xi = 0; xi < myNx; xi++) {
-            for (int yj = 0; yj < myNy; yj++) {
-               int total_count = 0;
-               //Count the intersections of the x axis
-               for (int zk = 0; zk < myNz; zk++) {
-                  int index = xyzIndicesToVertex (xi, yj, zk);
-                  total_count += zIntersectCount [index];
-                  
-                  // If parity of intersections so far is odd, we are inside the 
-                  // mesh.
-                  if (total_count % 2 == 1) {
-                     phi[index] =- phi[index];
-                  }
+   /**
+    * Sets the sign of each vertex in the x index range {@code [xlo, xhi)},
+    * based on the parity of the ray intersections below it.
+    */
+   private void applyIntersectionSigns (
+      double[] phi, int[] zIntersectCount, int xlo, int xhi) {
+      for (int xi = xlo; xi < xhi; xi++) {
+         for (int yj = 0; yj < myNy; yj++) {
+            int total_count = 0;
+            //Count the intersections of the x axis
+            for (int zk = 0; zk < myNz; zk++) {
+               int index = xyzIndicesToVertex (xi, yj, zk);
+               total_count += zIntersectCount [index];
+               
+               // If parity of intersections so far is odd, we are inside the 
+               // mesh.
+               if (total_count % 2 == 1) {
+                  phi[index] =- phi[index];
                }
             }
-         }         
+         }
       }
-      //timer.stop();
-      //System.out.println ("BRIDSON: " + timer.result(1));
    }
 
    /** 
@@ -1976,60 +2114,111 @@ public class DistanceGrid extends ScalarGridBase {
    protected void sweep (
       double[] phi, int dx, int dy, int dz, 
       int[] featIdxs, Feature[] features) {
+      sweep (phi, dx, dy, dz, featIdxs, features, null);
+   }
 
-      Point3d pc = new Point3d();
-      Point3d p1 = new Point3d();
-
-      int x0, x1;
-      if (dx > 0) {
-         x0 = 1;
-         x1 = myNx;
-      }
-      else {
-         x0 = myNx-2;  // sweeps backwards
-         x1 = -1;
-      }
-      int y0, y1;
-      if (dy > 0) { 
-         y0 = 1;
-         y1 = myNy;
-      }
-      else { 
-         y0 = myNy-2;
-         y1 = -1;
-      }
-      int z0, z1;
-      if (dz > 0) {
-         z0 = 1;
-         z1 = myNz;
-      }
-      else {
-         z0 = myNz-2;
-         z1 = -1;
-      }
-      for (int z = z0; z != z1; z += dz) {
-         for (int y = y0; y != y1; y += dy) {
-            for (int x = x0; x != x1; x += dx) {
-               // What are the neighbours? Depending on dx,dy,dz...
-               checkNeighbouringVertex (
-                  phi, x, y, z, x-dx,    y   , z, pc, p1, features, featIdxs);
-               checkNeighbouringVertex (
-                  phi, x, y, z,    x, y-dy   , z, pc, p1, features, featIdxs);
-               checkNeighbouringVertex (
-                  phi, x, y, z, x-dx, y-dy   , z, pc, p1, features, featIdxs);
-               checkNeighbouringVertex (
-                  phi, x, y, z,    x,    y, z-dz, pc, p1, features, featIdxs);
-               checkNeighbouringVertex (
-                  phi, x, y, z, x-dx,    y, z-dz, pc, p1, features, featIdxs);
-               checkNeighbouringVertex (
-                  phi, x, y, z,    x, y-dy, z-dz, pc, p1, features, featIdxs);
-               checkNeighbouringVertex (
-                  phi, x, y, z, x-dx, y-dy, z-dz, pc, p1, features, featIdxs);
+   /**
+    * Sweeps across the entire grid, propagating distance values, as for
+    * {@link #sweep(double[],int,int,int,int[],Feature[])}. If {@code loop}
+    * is not {@code null}, the sweep is done in parallel: since each vertex
+    * depends only on neighbours that precede it along all three sweep
+    * directions, the vertices on each diagonal plane {@code u+v+w = const}
+    * (where u, v, w are the sweep-ordered indices) are independent and can
+    * be updated concurrently, with the planes processed in order. This gives
+    * the same result as the serial sweep.
+    */
+   private void sweep (
+      final double[] phi, final int dx, final int dy, final int dz, 
+      final int[] featIdxs, final Feature[] features, ParallelLoop loop) {
+
+      if (loop == null) {
+         Point3d pc = new Point3d();
+         Point3d p1 = new Point3d();
+         int x0 = (dx > 0 ? 1 : myNx-2); // sweeps backwards if dx < 0
+         int x1 = (dx > 0 ? myNx : -1);
+         int y0 = (dy > 0 ? 1 : myNy-2);
+         int y1 = (dy > 0 ? myNy : -1);
+         int z0 = (dz > 0 ? 1 : myNz-2);
+         int z1 = (dz > 0 ? myNz : -1);
+         for (int z = z0; z != z1; z += dz) {
+            for (int y = y0; y != y1; y += dy) {
+               for (int x = x0; x != x1; x += dx) {
+                  sweepVertex (
+                     phi, x, y, z, dx, dy, dz, pc, p1,
+                     features, featIdxs);
+               }
             }
          }
+         return;
+      }
+      // number of vertices swept along each axis
+      final int nu = myNx-1;
+      final int nv = myNy-1;
+      final int nw = myNz-1;
+      if (nu <= 0 || nv <= 0 || nw <= 0) {
+         return;
+      }
+      int nthreads = loop.numThreads();
+      final Point3d[] pcs = new Point3d[nthreads];
+      final Point3d[] p1s = new Point3d[nthreads];
+      for (int i=0; i<nthreads; i++) {
+         pcs[i] = new Point3d();
+         p1s[i] = new Point3d();
+      }
+      for (int l=0; l<=nu+nv+nw-3; l++) {
+         final int level = l;
+         final int ulo = Math.max (0, level-(nv-1)-(nw-1));
+         int uhi = Math.min (nu-1, level);
+         loop.forRange (
+            uhi-ulo+1, MIN_SWEEP_CHUNK, new ParallelLoop.Body() {
+               public void run (int start, int end, int worker) {
+                  Point3d pc = pcs[worker];
+                  Point3d p1 = p1s[worker];
+                  for (int u=ulo+start; u<ulo+end; u++) {
+                     int x = (dx > 0 ? 1+u : myNx-2-u);
+                     int vlo = Math.max (0, level-u-(nw-1));
+                     int vhi = Math.min (nv-1, level-u);
+                     for (int v=vlo; v<=vhi; v++) {
+                        int w = level-u-v;
+                        int y = (dy > 0 ? 1+v : myNy-2-v);
+                        int z = (dz > 0 ? 1+w : myNz-2-w);
+                        sweepVertex (
+                           phi, x, y, z, dx, dy, dz, pc, p1,
+                           features, featIdxs);
+                     }
+                  }
+               }
+            });
       }
    }
 
+   private static final int MIN_SWEEP_CHUNK = 4;
+
+   /**
+    * Updates the distance at a single vertex during a sweep, using the
+    * neighbours that precede it in the sweep direction.
+    */
+   private void sweepVertex (
+      double[] phi, int x, int y, int z, int dx, int dy, int dz,
+      Point3d pc, Point3d p1, Feature[] features, int[] featIdxs) {
+
+      // What are the neighbours? Depending on dx,dy,dz...
+      checkNeighbouringVertex (
+         phi, x, y, z, x-dx,    y   , z, pc, p1, features, featIdxs);
+      checkNeighbouringVertex (
+         phi, x, y, z,    x, y-dy   , z, pc, p1, features, featIdxs);
+      checkNeighbouringVertex (
+         phi, x, y, z, x-dx, y-dy   , z, pc, p1, features, featIdxs);
+      checkNeighbouringVertex (
+         phi, x, y, z,    x,    y, z-dz, pc, p1, features, featIdxs);
+      checkNeighbouringVertex (
+         phi, x, y, z, x-dx,    y, z-dz, pc, p1, features, featIdxs);
+      checkNeighbouringVertex (
+         phi, x, y, z,    x, y-dy, z-dz, pc, p1, features, featIdxs);
+      checkNeighbouringVertex (
+         phi, x, y, z, x-dx, y-dy, z-dz, pc, p1, features, featIdxs);
+   }
+
    /**
     * Returns the features, if any, associated with this distance
     * grid Features will be associated with the field if they were used to
@@ -2056,10 +2245,33 @@ public class DistanceGrid extends ScalarGridBase {
       myClosestFeatureIdxs = null;
    }
 
+   /**
+    * Replaces the features associated with this grid with a corresponding
+    * list of features, leaving the distances and closest feature indices
+    * unchanged. This is used when a grid is copied for use with a different,
+    * but geometrically identical, mesh, so that the closest features refer to
+    * the faces of the new mesh. The number of features must equal the number
+    * currently associated with the grid.
+    *
+    * @param features replacement features
+    */
+   public void replaceFeatures (List<? extends Feature> features) {
+      if (myFeatures == null) {
+         throw new IllegalStateException (
+            "Grid has no features to replace");
+      }
+      if (features.size() != myFeatures.length) {
+         throw new IllegalArgumentException (
+            "Number of features "+features.size()+
+            " does not equal current number "+myFeatures.length);
+      }
+      myFeatures = features.toArray (new Feature[0]);
+   }
+
    /** 
     * Returns the closest Feature to the vertex indexed by <code>idx</code>.
     * This assumes that the distance field is associated with features, as
-    * described for {@link #getFeatures}. If this is not the case,
+    * described for {@link #getFeatures}. If this is not the case, or if the
     * <code>null</code> is returned.
     *
     * @param idx vertex index
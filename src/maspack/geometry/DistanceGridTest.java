@@ -367,6 +367,31 @@ public class DistanceGridTest extends UnitTest {
       return gchk;
    }
 
+   /**
+    * Checks that parallel construction gives the same distances and closest
+    * features as serial construction.
+    */
+   private void testParallel (DistanceGrid grid, PolygonalMesh mesh) {
+
+      double[] dists = grid.getVertexDistances();
+
+      DistanceGrid gridP = new DistanceGrid (grid);
+      gridP.setNumBuildThreads (4);
+      gridP.computeDistances (mesh.getFaces(), /*signed=*/true);
+      double[] distsP = gridP.getVertexDistances();
+      for (int i=0; i<dists.length; i++) {
+         if (dists[i] != distsP[i]) {
+            throw new TestException (
+               "parallel distance at vertex "+i+" is "+distsP[i]+
+               ", expected "+dists[i]);
+         }
+         if (grid.getClosestFeature(i) != gridP.getClosestFeature(i)) {
+            throw new TestException (
+               "parallel closest feature differs at vertex "+i);
+         }
+      }
+   }
+
    private void testScanWrite (DistanceGrid grid) {
       StringWriter sw = new StringWriter();
       IndentingPrintWriter pw = new IndentingPrintWriter (sw);
@@ -712,7 +737,7 @@ public class DistanceGridTest extends UnitTest {
       }
 
       testScanWrite (gridT);
-
+      testParallel (grid, torus);
    }
 
    public static void main (String[] args) {
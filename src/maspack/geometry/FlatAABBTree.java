@@ -0,0 +1,645 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry;
+
+import java.util.Arrays;
+
+import maspack.concurrency.ParallelLoop;
+import maspack.matrix.Vector3d;
+
+/**
+ * An axis-aligned bounding box tree which is built using the surface area
+ * heuristic (SAH) and whose structure and bounds are stored in flat arrays,
+ * making it suitable for meshes that deform. The nodes are numbered in
+ * depth-first order, with the bounds of node <code>i</code> stored at
+ * locations <code>6*i</code> to <code>6*i+5</code> of a <code>double</code>
+ * array, and the indices of its left and right children stored at locations
+ * <code>2*i</code> and <code>2*i+1</code> of an <code>int</code> array.
+ *
+ * <p>{@link #update} refits the tree bottom-up, first computing the leaf
+ * bounds and then the internal node bounds one level at a time, using
+ * multiple threads if {@link #setNumThreads} is set to a value greater than
+ * one. Since refitting does not change the tree structure, the tree quality
+ * may degrade as the mesh deforms. If a rebuild ratio is set using {@link
+ * #setRebuildRatio}, then the tree is rebuilt whenever its SAH cost exceeds
+ * its cost when last built by more than this ratio.
+ *
+ * <p>To allow the tree to be used anywhere an {@link AABBTree} is
+ * expected, including by {@link BVFeatureQuery} and {@link BVIntersector},
+ * the nodes are also available as {@link AABB} objects, which are kept
+ * consistent with the flat arrays.
+ */
+public class FlatAABBTree extends AABBTree {
+
+   /**
+    * Default number of bins used to evaluate candidate SAH splits.
+    */
+   public static int DEFAULT_NUM_BINS = 16;
+
+   /**
+    * Default number of threads used to refit the tree.
+    */
+   public static int DEFAULT_NUM_THREADS = 1;
+
+   /**
+    * Default rebuild ratio. A value of 0 disables rebuilding.
+    */
+   public static double DEFAULT_REBUILD_RATIO = 0;
+
+   private static final double INF = Double.POSITIVE_INFINITY;
+
+   // minimum number of nodes per chunk when refitting in parallel
+   private static final int MIN_REFIT_CHUNK = 64;
+
+   protected int myNumBins = DEFAULT_NUM_BINS;
+   protected int myNumThreads = DEFAULT_NUM_THREADS;
+   protected double myRebuildRatio = DEFAULT_REBUILD_RATIO;
+   private ParallelLoop myLoop;
+
+   // elements, ordered so that those of each leaf are contiguous
+   protected Boundable[] myElems;
+   protected int myNumNodes;
+   // node bounds, stored as minx, miny, minz, maxx, maxy, maxz
+   protected double[] myBounds;
+   // left and right child indices, or -1 for leaf nodes
+   protected int[] myChildren;
+   // offset into myElems and number of elements, for leaf nodes
+   protected int[] myElemRanges;
+   protected AABB[] myNodes;
+   protected int[] myLeafIdxs;
+   // internal node indices, grouped by level with the deepest level first
+   protected int[] myInternalIdxs;
+   protected int[] myLevelOffsets;
+
+   protected double myBuildCost;
+   protected int myNumRebuilds;
+
+   public FlatAABBTree () {
+   }
+
+   public FlatAABBTree (MeshBase mesh, int maxLeafElems, double margin) {
+      setMaxLeafElementsForMesh (mesh, maxLeafElems);
+      setMarginForMesh (mesh, margin);
+      build (mesh);
+   }
+
+   public FlatAABBTree (MeshBase mesh, int maxLeafElems) {
+      this (mesh, maxLeafElems, -1);
+   }
+
+   public FlatAABBTree (MeshBase mesh) {
+      this (mesh, 2, -1);
+   }
+
+   /**
+    * Returns the number of bins used to evaluate candidate SAH splits.
+    *
+    * @return number of bins
+    * @see #setNumBins
+    */
+   public int getNumBins() {
+      return myNumBins;
+   }
+
+   /**
+    * Sets the number of bins used to evaluate candidate SAH splits along
+    * each axis. Larger values give better trees at the expense of build
+    * time. Setting this value will only be effective for subsequent
+    * <code>build</code> calls.
+    *
+    * @param num number of bins
+    * @see #getNumBins
+    */
+   public void setNumBins (int num) {
+      if (num < 2) {
+         throw new IllegalArgumentException (
+            "Number of bins must be at least 2");
+      }
+      myNumBins = num;
+   }
+
+   /**
+    * Returns the number of threads used to build and refit the tree.
+    *
+    * @return number of threads
+    * @see #setNumThreads
+    */
+   public int getNumThreads() {
+      return myNumThreads;
+   }
+
+   /**
+    * Sets the number of threads used to build and refit the tree. A value
+    * of 1 causes all computation to be done in the calling thread.
+    *
+    * @param num number of threads
+    * @see #getNumThreads
+    */
+   public void setNumThreads (int num) {
+      if (num < 1) {
+         throw new IllegalArgumentException (
+            "Number of threads must be at least 1");
+      }
+      myNumThreads = num;
+   }
+
+   /**
+    * Returns the ratio by which the SAH cost must increase for {@link
+    * #update} to rebuild the tree.
+    *
+    * @return rebuild ratio
+    * @see #setRebuildRatio
+    */
+   public double getRebuildRatio() {
+      return myRebuildRatio;
+   }
+
+   /**
+    * Sets the ratio by which the SAH cost must increase, relative to its
+    * value when the tree was last built, for {@link #update} to rebuild the
+    * tree instead of simply refitting it. Values {@code <=} 1 disable
+    * rebuilding.
+    *
+    * <p>Since rebuilding replaces the nodes of the tree, nodes obtained
+    * from the tree before a call to {@link #update} should not be used
+    * afterwards.
+    *
+    * @param ratio rebuild ratio
+    * @see #getRebuildRatio
+    */
+   public void setRebuildRatio (double ratio) {
+      myRebuildRatio = ratio;
+   }
+
+   /**
+    * Returns the number of times the tree has been rebuilt by {@link
+    * #update}.
+    *
+    * @return number of rebuilds
+    */
+   public int numRebuilds() {
+      return myNumRebuilds;
+   }
+
+   /**
+    * Returns the SAH cost of the tree when it was last built.
+    *
+    * @return SAH cost when built
+    * @see #getSAHCost
+    */
+   public double getBuildSAHCost() {
+      return myBuildCost;
+   }
+
+   /**
+    * Computes the current SAH cost of the tree. This is the sum of the
+    * surface areas of the internal nodes, plus the surface areas of the
+    * leaf nodes weighted by their number of elements, all divided by the
+    * surface area of the root node.
+    *
+    * @return current SAH cost
+    */
+   public double getSAHCost() {
+      if (myNumNodes == 0 || myElems.length == 0) {
+         return 0;
+      }
+      double rootArea = area (myBounds, 0);
+      if (!(rootArea > 0)) {
+         return 0;
+      }
+      double cost = 0;
+      for (int i=0; i<myNumNodes; i++) {
+         if (myChildren[2*i] == -1) {
+            cost += myElemRanges[2*i+1]*area (myBounds, 6*i);
+         }
+         else {
+            cost += area (myBounds, 6*i);
+         }
+      }
+      return cost/rootArea;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public int numNodes() {
+      return myNumNodes;
+   }
+
+   private ParallelLoop getLoop() {
+      if (myLoop == null) {
+         myLoop = new ParallelLoop ("FlatAABBTree", myNumThreads);
+      }
+      else if (myLoop.numThreads() != myNumThreads) {
+         myLoop.setNumThreads (myNumThreads);
+      }
+      return myLoop;
+   }
+
+   private void forRange (int n, int minChunk, ParallelLoop.Body body) {
+      if (myNumThreads > 1 && n > minChunk) {
+         getLoop().forRange (n, minChunk, body);
+      }
+      else {
+         body.run (0, n, 0);
+      }
+   }
+
+   /**
+    * Returns half the surface area of the box stored at location
+    * <code>off</code> of <code>bounds</code>.
+    */
+   private static double area (double[] bounds, int off) {
+      double dx = bounds[off+3]-bounds[off];
+      double dy = bounds[off+4]-bounds[off+1];
+      double dz = bounds[off+5]-bounds[off+2];
+      return dx*dy + dy*dz + dz*dx;
+   }
+
+   private static void clearBounds (double[] bounds, int off) {
+      bounds[off  ] = INF;
+      bounds[off+1] = INF;
+      bounds[off+2] = INF;
+      bounds[off+3] = -INF;
+      bounds[off+4] = -INF;
+      bounds[off+5] = -INF;
+   }
+
+   private static void growBounds (
+      double[] bounds, int off, double[] other, int ooff) {
+      for (int j=0; j<3; j++) {
+         if (other[ooff+j] < bounds[off+j]) {
+            bounds[off+j] = other[ooff+j];
+         }
+         if (other[ooff+3+j] > bounds[off+3+j]) {
+            bounds[off+3+j] = other[ooff+3+j];
+         }
+      }
+   }
+
+   /**
+    * Computes the bounds and centroid of each element.
+    */
+   private void computeElementBounds (
+      final Boundable[] elems, final double[] ebounds,
+      final double[] centroids) {
+
+      forRange (elems.length, 256, new ParallelLoop.Body() {
+         public void run (int start, int end, int worker) {
+            Vector3d min = new Vector3d();
+            Vector3d max = new Vector3d();
+            Vector3d cent = new Vector3d();
+            for (int i=start; i<end; i++) {
+               min.set (INF, INF, INF);
+               max.set (-INF, -INF, -INF);
+               elems[i].updateBounds (min, max);
+               elems[i].computeCentroid (cent);
+               ebounds[6*i  ] = min.x;
+               ebounds[6*i+1] = min.y;
+               ebounds[6*i+2] = min.z;
+               ebounds[6*i+3] = max.x;
+               ebounds[6*i+4] = max.y;
+               ebounds[6*i+5] = max.z;
+               centroids[3*i  ] = cent.x;
+               centroids[3*i+1] = cent.y;
+               centroids[3*i+2] = cent.z;
+            }
+         }
+      });
+   }
+
+   private static int binIndex (double c, double cmin, double scale, int nb) {
+      int b = (int)((c-cmin)*scale);
+      return b < nb ? b : nb-1;
+   }
+
+   /**
+    * Scratch storage used to evaluate SAH splits.
+    */
+   private class SplitBins {
+      int[] counts = new int[myNumBins];
+      double[] bounds = new double[6*myNumBins];
+      double[] rightAreas = new double[myNumBins];
+      int[] rightCounts = new int[myNumBins];
+      double[] box = new double[6];
+   }
+
+   /**
+    * Partitions the elements indexed by <code>idxs[start]</code> to
+    * <code>idxs[end-1]</code> into two non-empty sets, choosing the split
+    * which minimizes the SAH cost among those that separate the element
+    * centroids along a coordinate axis. Returns the index of the first
+    * element in the second set.
+    */
+   private int splitElements (
+      int[] idxs, int start, int end, double[] ebounds, double[] centroids,
+      SplitBins bins) {
+
+      int nb = myNumBins;
+      double[] cmin = new double[] { INF, INF, INF };
+      double[] cmax = new double[] { -INF, -INF, -INF };
+      for (int k=start; k<end; k++) {
+         int e = idxs[k];
+         for (int j=0; j<3; j++) {
+            double c = centroids[3*e+j];
+            if (c < cmin[j]) {
+               cmin[j] = c;
+            }
+            if (c > cmax[j]) {
+               cmax[j] = c;
+            }
+         }
+      }
+      double bestCost = INF;
+      int bestAxis = -1;
+      int bestBin = -1;
+      for (int axis=0; axis<3; axis++) {
+         double extent = cmax[axis]-cmin[axis];
+         if (!(extent > 0)) {
+            continue;
+         }
+         double scale = nb/extent;
+         for (int b=0; b<nb; b++) {
+            bins.counts[b] = 0;
+            clearBounds (bins.bounds, 6*b);
+         }
+         for (int k=start; k<end; k++) {
+            int e = idxs[k];
+            int b = binIndex (centroids[3*e+axis], cmin[axis], scale, nb);
+            bins.counts[b]++;
+            growBounds (bins.bounds, 6*b, ebounds, 6*e);
+         }
+         // sweep from the right to find the areas and counts to the right
+         // of each candidate split
+         clearBounds (bins.box, 0);
+         int cnt = 0;
+         for (int b=nb-1; b>0; b--) {
+            if (bins.counts[b] > 0) {
+               cnt += bins.counts[b];
+               growBounds (bins.box, 0, bins.bounds, 6*b);
+            }
+            bins.rightCounts[b] = cnt;
+            bins.rightAreas[b] = (cnt > 0 ? area (bins.box, 0) : 0);
+         }
+         // then sweep from the left to evaluate each split
+         clearBounds (bins.box, 0);
+         cnt = 0;
+         for (int b=0; b<nb-1; b++) {
+            if (bins.counts[b] > 0) {
+               cnt += bins.counts[b];
+               growBounds (bins.box, 0, bins.bounds, 6*b);
+            }
+            int rcnt = bins.rightCounts[b+1];
+            if (cnt > 0 && rcnt > 0) {
+               double cost =
+                  cnt*area (bins.box, 0) + rcnt*bins.rightAreas[b+1];
+               if (cost < bestCost) {
+                  bestCost = cost;
+                  bestAxis = axis;
+                  bestBin = b;
+               }
+            }
+         }
+      }
+      if (bestAxis == -1) {
+         // all centroids coincide, so just split the elements in half
+         return start + (end-start)/2;
+      }
+      double scale = nb/(cmax[bestAxis]-cmin[bestAxis]);
+      int i = start;
+      int j = end-1;
+      while (i <= j) {
+         int e = idxs[i];
+         if (binIndex (
+                centroids[3*e+bestAxis], cmin[bestAxis], scale, nb) <= bestBin) {
+            i++;
+         }
+         else {
+            idxs[i] = idxs[j];
+            idxs[j--] = e;
+         }
+      }
+      return i;
+   }
+
+   public void build (Boundable[] elements, int nelems) {
+      Boundable[] elems = Arrays.copyOf (elements, nelems);
+      double[] ebounds = new double[6*nelems];
+      double[] centroids = new double[3*nelems];
+      computeElementBounds (elems, ebounds, centroids);
+
+      int[] idxs = new int[nelems];
+      for (int i=0; i<nelems; i++) {
+         idxs[i] = i;
+      }
+      int maxNodes = Math.max (2*nelems-1, 1);
+      myBounds = new double[6*maxNodes];
+      myChildren = new int[2*maxNodes];
+      myElemRanges = new int[2*maxNodes];
+      int[] depths = new int[maxNodes];
+      myNumNodes = 0;
+
+      SplitBins bins = new SplitBins();
+      // stack of pending nodes, each described by the range of its elements
+      // within idxs, the location in myChildren where its index should be
+      // stored, and its depth
+      int[] stack = new int[4*(nelems+2)];
+      int sp = 0;
+      stack[sp++] = 0;
+      stack[sp++] = nelems;
+      stack[sp++] = -1;
+      stack[sp++] = 0;
+      int maxDepth = 0;
+      while (sp > 0) {
+         int depth = stack[--sp];
+         int slot = stack[--sp];
+         int end = stack[--sp];
+         int start = stack[--sp];
+         int node = myNumNodes++;
+         if (slot != -1) {
+            myChildren[slot] = node;
+         }
+         depths[node] = depth;
+         clearBounds (myBounds, 6*node);
+         for (int k=start; k<end; k++) {
+            growBounds (myBounds, 6*node, ebounds, 6*idxs[k]);
+         }
+         for (int j=0; j<3; j++) {
+            myBounds[6*node+j] -= myMargin;
+            myBounds[6*node+3+j] += myMargin;
+         }
+         int num = end-start;
+         if (num > myMaxLeafElements && num > 1) {
+            int mid = splitElements (
+               idxs, start, end, ebounds, centroids, bins);
+            myElemRanges[2*node] = start;
+            myElemRanges[2*node+1] = 0;
+            // push the right child first so that the left child is
+            // numbered immediately after its parent
+            stack[sp++] = mid;
+            stack[sp++] = end;
+            stack[sp++] = 2*node+1;
+            stack[sp++] = depth+1;
+            stack[sp++] = start;
+            stack[sp++] = mid;
+            stack[sp++] = 2*node;
+            stack[sp++] = depth+1;
+            maxDepth = Math.max (maxDepth, depth);
+         }
+         else {
+            myChildren[2*node] = -1;
+            myChildren[2*node+1] = -1;
+            myElemRanges[2*node] = start;
+            myElemRanges[2*node+1] = num;
+         }
+      }
+
+      myElems = new Boundable[nelems];
+      for (int k=0; k<nelems; k++) {
+         myElems[k] = elems[idxs[k]];
+      }
+      createNodes();
+      createLevels (depths, maxDepth);
+      myBuildCost = getSAHCost();
+   }
+
+   /**
+    * Creates the AABB nodes which mirror the flat arrays.
+    */
+   private void createNodes() {
+      myNodes = new AABB[myNumNodes];
+      int numLeaves = 0;
+      for (int i=0; i<myNumNodes; i++) {
+         AABB node = new AABB();
+         node.setNumber (i);
+         setNodeBounds (node, i);
+         myNodes[i] = node;
+         if (myChildren[2*i] == -1) {
+            numLeaves++;
+         }
+      }
+      myLeafIdxs = new int[numLeaves];
+      numLeaves = 0;
+      for (int i=0; i<myNumNodes; i++) {
+         AABB node = myNodes[i];
+         if (myChildren[2*i] == -1) {
+            int off = myElemRanges[2*i];
+            node.setElements (
+               Arrays.copyOfRange (myElems, off, off+myElemRanges[2*i+1]));
+            myLeafIdxs[numLeaves++] = i;
+         }
+         else {
+            node.addChild (myNodes[myChildren[2*i]]);
+            node.addChild (myNodes[myChildren[2*i+1]]);
+         }
+      }
+      myRoot = myNodes[0];
+   }
+
+   /**
+    * Groups the internal nodes by depth, deepest first, so that each group
+    * can be refit once all the groups before it have been.
+    */
+   private void createLevels (int[] depths, int maxDepth) {
+      int numInternal = myNumNodes-myLeafIdxs.length;
+      int numLevels = (numInternal > 0 ? maxDepth+1 : 0);
+      myLevelOffsets = new int[numLevels+1];
+      for (int i=0; i<myNumNodes; i++) {
+         if (myChildren[2*i] != -1) {
+            myLevelOffsets[maxDepth-depths[i]+1]++;
+         }
+      }
+      for (int l=0; l<numLevels; l++) {
+         myLevelOffsets[l+1] += myLevelOffsets[l];
+      }
+      myInternalIdxs = new int[numInternal];
+      int[] next = Arrays.copyOf (myLevelOffsets, numLevels);
+      for (int i=0; i<myNumNodes; i++) {
+         if (myChildren[2*i] != -1) {
+            myInternalIdxs[next[maxDepth-depths[i]]++] = i;
+         }
+      }
+   }
+
+   private void setNodeBounds (AABB node, int i) {
+      double[] b = myBounds;
+      node.setMinimums (b[6*i  ], b[6*i+1], b[6*i+2]);
+      node.setMaximums (b[6*i+3], b[6*i+4], b[6*i+5]);
+   }
+
+   private void refitLeaf (int i) {
+      AABB node = myNodes[i];
+      node.set (node.myElements, node.myElements.length, myMargin);
+      double[] b = myBounds;
+      b[6*i  ] = node.myMin.x;
+      b[6*i+1] = node.myMin.y;
+      b[6*i+2] = node.myMin.z;
+      b[6*i+3] = node.myMax.x;
+      b[6*i+4] = node.myMax.y;
+      b[6*i+5] = node.myMax.z;
+   }
+
+   private void refitInternal (int i) {
+      double[] b = myBounds;
+      int o = 6*i;
+      int l = 6*myChildren[2*i];
+      int r = 6*myChildren[2*i+1];
+      for (int j=0; j<3; j++) {
+         b[o+j] = Math.min (b[l+j], b[r+j]);
+         b[o+3+j] = Math.max (b[l+3+j], b[r+3+j]);
+      }
+      setNodeBounds (myNodes[i], i);
+   }
+
+   /**
+    * Refits the tree, without changing its structure, so that the bounds
+    * contain the current element positions. This is done by {@link #update}
+    * when a rebuild is not required.
+    */
+   public void refit() {
+      if (myNumNodes == 0) {
+         return;
+      }
+      forRange (myLeafIdxs.length, MIN_REFIT_CHUNK, new ParallelLoop.Body() {
+         public void run (int start, int end, int worker) {
+            for (int k=start; k<end; k++) {
+               refitLeaf (myLeafIdxs[k]);
+            }
+         }
+      });
+      for (int l=0; l<myLevelOffsets.length-1; l++) {
+         final int off = myLevelOffsets[l];
+         int num = myLevelOffsets[l+1]-off;
+         forRange (num, MIN_REFIT_CHUNK, new ParallelLoop.Body() {
+            public void run (int start, int end, int worker) {
+               for (int k=start; k<end; k++) {
+                  refitInternal (myInternalIdxs[off+k]);
+               }
+            }
+         });
+      }
+   }
+
+   /**
+    * Updates the tree to contain the current element positions. The tree is
+    * refit, and then rebuilt if a rebuild ratio has been set and the SAH
+    * cost has increased by more than this ratio. Note that internal node
+    * bounds are set to the union of their child bounds, so that the margin
+    * is not accumulated across levels.
+    */
+   public void update() {
+      if (myNumNodes == 0) {
+         return;
+      }
+      refit();
+      if (myRebuildRatio > 1 && getSAHCost() > myRebuildRatio*myBuildCost) {
+         build (myElems, myElems.length);
+         myNumRebuilds++;
+      }
+   }
+
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+
+import maspack.matrix.Point3d;
+import maspack.matrix.RigidTransform3d;
+import maspack.matrix.Vector3d;
+import maspack.render.RenderableUtils;
+import maspack.util.RandomGenerator;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Tests FlatAABBTree.
+ */
+public class FlatAABBTreeTest extends UnitTest {
+
+   void collectElements (ArrayList<Boundable> elems, BVNode node) {
+      if (node.isLeaf()) {
+         for (Boundable b : node.getElements()) {
+            elems.add (b);
+         }
+      }
+      else {
+         BVNode child;
+         for (child=node.getFirstChild(); child!=null; child=child.getNext()) {
+            collectElements (elems, child);
+         }
+      }
+   }
+
+   /**
+    * Checks the node structure and that each node contains all of the
+    * elements beneath it.
+    */
+   int checkNode (FlatAABBTree tree, BVNode node, int num, double tol) {
+      AABB aabb = (AABB)node;
+      if (aabb.getNumber() != num) {
+         throw new TestException (
+            "node number is "+aabb.getNumber()+", expected "+num);
+      }
+      if (tree.myNodes[num] != aabb) {
+         throw new TestException ("node "+num+" not in node array");
+      }
+      double[] b = tree.myBounds;
+      if (b[6*num  ] != aabb.myMin.x || b[6*num+1] != aabb.myMin.y ||
+          b[6*num+2] != aabb.myMin.z || b[6*num+3] != aabb.myMax.x ||
+          b[6*num+4] != aabb.myMax.y || b[6*num+5] != aabb.myMax.z) {
+         throw new TestException (
+            "node "+num+" bounds inconsistent with flat array");
+      }
+      ArrayList<Boundable> elems = new ArrayList<Boundable>();
+      collectElements (elems, node);
+      if (!node.isContained (elems.toArray (new Boundable[0]), tol)) {
+         throw new TestException (
+            "node "+num+" does not contain its elements");
+      }
+      if (node.isLeaf()) {
+         if (node.getNumElements() > tree.getMaxLeafElements() &&
+             node.getNumElements() > 1) {
+            throw new TestException (
+               "leaf node "+num+" has "+node.getNumElements()+" elements");
+         }
+         return num+1;
+      }
+      checkEquals ("num children", node.numChildren(), 2);
+      int next = num+1;
+      BVNode child;
+      for (child=node.getFirstChild(); child!=null; child=child.getNext()) {
+         if (child.getParent() != node) {
+            throw new TestException ("inconsistent parent for node "+next);
+         }
+         next = checkNode (tree, child, next, tol);
+      }
+      return next;
+   }
+
+   void checkTree (FlatAABBTree tree, Collection<? extends Boundable> elems) {
+      int num = checkNode (tree, tree.getRoot(), 0, tree.getMargin()/2);
+      checkEquals ("num nodes", tree.numNodes(), num);
+      ArrayList<Boundable> treeElems = new ArrayList<Boundable>();
+      collectElements (treeElems, tree.getRoot());
+      checkEquals ("num elements", treeElems.size(), elems.size());
+      HashSet<Boundable> elemSet = new HashSet<Boundable>(treeElems);
+      if (elemSet.size() != treeElems.size() || !elemSet.containsAll (elems)) {
+         throw new TestException ("tree does not contain each element once");
+      }
+   }
+
+   void perturbVertices (MeshBase mesh, double amp) {
+      for (Vertex3d vtx : mesh.getVertices()) {
+         Vector3d del = new Vector3d();
+         del.setRandom();
+         del.scale (amp);
+         vtx.pnt.add (del);
+      }
+      mesh.notifyVertexPositionsModified();
+   }
+
+   public void testBuildAndRefit (MeshBase mesh) {
+      double radius = RenderableUtils.getRadius (mesh);
+      double amp = radius/Math.pow (mesh.numVertices(), 1/3.0);
+
+      FlatAABBTree tree = new FlatAABBTree (mesh);
+      FlatAABBTree ptree = new FlatAABBTree (mesh);
+      ptree.setNumThreads (4);
+      Collection<? extends Boundable> elems = tree.getElementsForMesh (mesh);
+      checkTree (tree, elems);
+      for (int i=0; i<20; i++) {
+         perturbVertices (mesh, amp);
+         tree.update();
+         ptree.update();
+         checkTree (tree, elems);
+         checkTree (ptree, elems);
+         for (int k=0; k<6*tree.numNodes(); k++) {
+            if (tree.myBounds[k] != ptree.myBounds[k]) {
+               throw new TestException (
+                  "parallel refit differs from serial refit");
+            }
+         }
+      }
+      // a rebuilt tree should be at least as good as a refit one
+      FlatAABBTree newTree = new FlatAABBTree (mesh);
+      checkTree (newTree, elems);
+      if (newTree.getSAHCost() > tree.getSAHCost()*(1+1e-10)) {
+         throw new TestException ("rebuilt tree has higher SAH cost");
+      }
+   }
+
+   public void testRebuild() {
+      PolygonalMesh mesh = MeshFactory.createOctahedralSphere (1.0, 4);
+      FlatAABBTree tree = new FlatAABBTree (mesh);
+      tree.setRebuildRatio (1.5);
+      ArrayList<Face> faces = mesh.getFaces();
+
+      // small deformations should not cause a rebuild
+      perturbVertices (mesh, 1e-4);
+      tree.update();
+      checkEquals ("num rebuilds", tree.numRebuilds(), 0);
+
+      // scrambling the vertices should
+      ArrayList<Vertex3d> vtxs = mesh.getVertices();
+      Point3d tmp = new Point3d();
+      for (int i=0; i<vtxs.size(); i++) {
+         Vertex3d v0 = vtxs.get(i);
+         Vertex3d v1 = vtxs.get(RandomGenerator.nextInt (0, vtxs.size()-1));
+         tmp.set (v0.pnt);
+         v0.pnt.set (v1.pnt);
+         v1.pnt.set (tmp);
+      }
+      mesh.notifyVertexPositionsModified();
+      tree.update();
+      checkEquals ("num rebuilds", tree.numRebuilds(), 1);
+      checkTree (tree, faces);
+      if (tree.getSAHCost() > 1.5*tree.getBuildSAHCost()) {
+         throw new TestException ("rebuilt tree has excessive SAH cost");
+      }
+   }
+
+   public void testQueries() {
+      PolygonalMesh mesh1 = MeshFactory.createOctahedralSphere (1.0, 3);
+      PolygonalMesh mesh2 = MeshFactory.createOctahedralSphere (0.8, 3);
+      mesh2.transform (new RigidTransform3d (0.9, 0.3, 0.2, 0.3, 0.4, 0.5));
+      perturbVertices (mesh1, 0.02);
+      perturbVertices (mesh2, 0.02);
+
+      AABBTree tree1 = new AABBTree (mesh1);
+      AABBTree tree2 = new AABBTree (mesh2);
+      FlatAABBTree ftree1 = new FlatAABBTree (mesh1);
+      FlatAABBTree ftree2 = new FlatAABBTree (mesh2);
+
+      BVFeatureQuery query = new BVFeatureQuery();
+      Point3d pnt = new Point3d();
+      Point3d near = new Point3d();
+      Point3d fnear = new Point3d();
+      for (int i=0; i<100; i++) {
+         pnt.setRandom();
+         pnt.scale (2);
+         query.nearestFaceToPoint (near, null, tree1, pnt);
+         query.nearestFaceToPoint (fnear, null, ftree1, pnt);
+         checkEquals (
+            "nearest distance", pnt.distance(fnear), pnt.distance(near), 1e-12);
+      }
+
+      BVIntersector intersector = new BVIntersector();
+      ArrayList<TriTriIntersection> isects =
+         new ArrayList<TriTriIntersection>();
+      ArrayList<TriTriIntersection> fisects =
+         new ArrayList<TriTriIntersection>();
+      intersector.intersectMeshMesh (isects, tree1, tree2);
+      intersector.intersectMeshMesh (fisects, ftree1, ftree2);
+      checkEquals ("num intersections", fisects.size(), isects.size());
+      HashSet<String> pairs = new HashSet<String>();
+      for (TriTriIntersection isect : isects) {
+         pairs.add (isect.face0.getIndex()+" "+isect.face1.getIndex());
+      }
+      for (TriTriIntersection isect : fisects) {
+         if (!pairs.contains (
+                isect.face0.getIndex()+" "+isect.face1.getIndex())) {
+            throw new TestException (
+               "intersection "+isect.face0.getIndex()+" "+
+               isect.face1.getIndex()+" not found using AABBTree");
+         }
+      }
+      if (isects.size() == 0) {
+         throw new TestException ("no intersections found");
+      }
+   }
+
+   public void testMeshDefault() {
+      PolygonalMesh mesh = MeshFactory.createOctahedralSphere (1.0, 2);
+      mesh.setFixed (false);
+      PolygonalMesh.setUseFlatBVTrees (true);
+      try {
+         checkEquals (
+            "flat tree", mesh.getBVTree() instanceof FlatAABBTree, true);
+         mesh.clearBVTree();
+         mesh.setFixed (true);
+         checkEquals (
+            "fixed mesh tree", mesh.getBVTree() instanceof OBBTree, true);
+      }
+      finally {
+         PolygonalMesh.setUseFlatBVTrees (false);
+      }
+   }
+
+   public void test() {
+      RandomGenerator.setSeed (0x1234);
+      testBuildAndRefit (MeshFactory.createBox (1.0, 1.5, 2.0));
+      testBuildAndRefit (MeshFactory.createSphere (1.0, 7));
+      testBuildAndRefit (MeshFactory.createOctahedralSphere (1.0, 5));
+      testBuildAndRefit (MeshFactory.createSphericalPolyline (8.0, 12, 12));
+      testBuildAndRefit (MeshFactory.createRandomPointMesh (200, 5));
+      testRebuild();
+      testQueries();
+      testMeshDefault();
+   }
+
+   public static void main (String[] args) {
+      FlatAABBTreeTest tester = new FlatAABBTreeTest();
+      tester.runtest();
+   }
+}
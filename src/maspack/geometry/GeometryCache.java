@@ -0,0 +1,362 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import maspack.matrix.RigidTransform3d;
+import maspack.matrix.Vector3i;
+
+/**
+ * Process-wide cache of meshes read from files and of distance grids
+ * computed from meshes. It is intended for situations where the same model is
+ * built many times within one JVM, such as parameter sweeps that build one
+ * model instance per worker thread, so that files are parsed and grids are
+ * computed only once.
+ *
+ * <p>Cached objects are stored as private copies and are never handed out
+ * directly; callers always receive a fresh copy, so that instances can be
+ * modified freely and used concurrently by different threads. Mesh entries
+ * are keyed by the canonical file path, together with the file length and
+ * modification time, so that changes to a file cause it to be reread.
+ *
+ * <p>Caching is disabled by default and is enabled using {@link
+ * #setEnabled}. In addition, a {@link DiskGeometryCache} can be installed
+ * using {@link #setDiskCache}, in which case meshes, distance grids, and the
+ * bounding volume hierarchies of large meshes are also stored on disk and
+ * reused across program runs.
+ */
+public class GeometryCache {
+
+   private static volatile boolean myEnabled = false;
+
+   private static ConcurrentHashMap<String,MeshBase> myMeshes =
+      new ConcurrentHashMap<>();
+   private static ConcurrentHashMap<String,DistanceGrid> myGrids =
+      new ConcurrentHashMap<>();
+
+   private static volatile DiskGeometryCache myDiskCache = null;
+
+   /**
+    * Queries whether caching is enabled.
+    *
+    * @return {@code true} if caching is enabled
+    */
+   public static boolean isEnabled() {
+      return myEnabled;
+   }
+
+   /**
+    * Enables or disables caching. Disabling caching also clears the cache.
+    *
+    * @param enable if {@code true}, enables caching
+    */
+   public static void setEnabled (boolean enable) {
+      myEnabled = enable;
+      if (!enable) {
+         clear();
+      }
+   }
+
+   /**
+    * Returns the disk cache, if any, used in addition to the in-memory cache.
+    *
+    * @return disk cache, or {@code null}
+    */
+   public static DiskGeometryCache getDiskCache() {
+      return myDiskCache;
+   }
+
+   /**
+    * Sets a disk cache to be used in addition to the in-memory cache. The
+    * disk cache is only used while caching is enabled.
+    *
+    * @param cache disk cache, or {@code null} to disable disk caching
+    */
+   public static void setDiskCache (DiskGeometryCache cache) {
+      myDiskCache = cache;
+   }
+
+   /**
+    * Clears all cached meshes and grids held in memory. Entries in the disk
+    * cache, if any, are not affected.
+    */
+   public static void clear() {
+      myMeshes.clear();
+      myGrids.clear();
+   }
+
+   /**
+    * Returns the number of meshes currently in the cache.
+    *
+    * @return number of cached meshes
+    */
+   public static int numMeshes() {
+      return myMeshes.size();
+   }
+
+   /**
+    * Returns the number of distance grids currently in the cache.
+    *
+    * @return number of cached grids
+    */
+   public static int numGrids() {
+      return myGrids.size();
+   }
+
+   /**
+    * Creates the key used to identify a mesh file, or returns {@code null} if
+    * the file does not exist.
+    */
+   private static String fileKey (File file) throws IOException {
+      if (!file.isFile()) {
+         return null;
+      }
+      return (file.getCanonicalPath()+":"+file.length()+":"+
+              file.lastModified());
+   }
+
+   /**
+    * Returns a mesh previously read from a file, or {@code null} if caching
+    * is disabled or no mesh is cached for the file. If {@code mesh} is
+    * non-null, it is expected to be empty and of the same type as the cached
+    * mesh, and the cached contents are copied into it. Otherwise, a copy of
+    * the cached mesh is returned.
+    *
+    * @param file file the mesh was read from
+    * @param mesh optional mesh into which the contents should be copied
+    * @return copied mesh, or {@code null} if no suitable mesh is cached
+    */
+   public static MeshBase getMesh (File file, MeshBase mesh)
+      throws IOException {
+      if (!myEnabled) {
+         return null;
+      }
+      String key = fileKey (file);
+      if (key == null) {
+         return null;
+      }
+      MeshBase cached = myMeshes.get (key);
+      if (cached == null) {
+         DiskGeometryCache diskCache = myDiskCache;
+         if (diskCache != null) {
+            MeshBase newMesh = diskCache.getMesh (file, mesh);
+            if (newMesh != null) {
+               myMeshes.put (key, newMesh.copy());
+            }
+            return newMesh;
+         }
+         return null;
+      }
+      if (mesh == null) {
+         return cached.copy();
+      }
+      else if (mesh.getClass() == cached.getClass() &&
+               mesh.numVertices() == 0 && copyInto (mesh, cached)) {
+         return mesh;
+      }
+      else {
+         return null;
+      }
+   }
+
+   /**
+    * Adds a mesh that has just been read from a file to the cache. A copy of
+    * the mesh is stored. Does nothing if caching is disabled.
+    *
+    * @param file file the mesh was read from
+    * @param mesh mesh that was read
+    */
+   public static void putMesh (File file, MeshBase mesh) throws IOException {
+      if (!myEnabled || mesh == null) {
+         return;
+      }
+      String key = fileKey (file);
+      if (key != null) {
+         myMeshes.put (key, mesh.copy());
+         DiskGeometryCache diskCache = myDiskCache;
+         if (diskCache != null) {
+            diskCache.putMesh (file, mesh);
+         }
+      }
+   }
+
+   /**
+    * Copies the contents of a cached mesh into an empty mesh of the same
+    * type, using the same vertex, face and attribute ordering. Returns {@code
+    * false} if the mesh type is not supported.
+    */
+   private static boolean copyInto (MeshBase mesh, MeshBase cached) {
+      if (mesh instanceof PolygonalMesh) {
+         PolygonalMesh pmesh = (PolygonalMesh)mesh;
+         PolygonalMesh pcached = (PolygonalMesh)cached;
+         pmesh.addMesh (pcached, /*respectTransforms=*/false);
+         if (pcached.numHardEdges() > 0) {
+            // copy hard edge settings
+            for (int i=0; i<pcached.numFaces(); i++) {
+               HalfEdge he0 = pcached.getFace(i).firstHalfEdge();
+               HalfEdge heNew = pmesh.getFace(i).firstHalfEdge();
+               HalfEdge he = he0;
+               do {
+                  if (he.isHard()) {
+                     heNew.setHard (true);
+                  }
+                  heNew = heNew.next;
+                  he = he.next;
+               }
+               while (he != he0);
+            }
+         }
+         return true;
+      }
+      else if (mesh instanceof PolylineMesh) {
+         ((PolylineMesh)mesh).addMesh (
+            (PolylineMesh)cached, /*respectTransforms=*/false);
+         return true;
+      }
+      else if (mesh instanceof PointMesh) {
+         ((PointMesh)mesh).addMesh (
+            (PointMesh)cached, /*respectTransforms=*/false);
+         return true;
+      }
+      else {
+         return false;
+      }
+   }
+
+   /**
+    * Creates a key describing the geometry of a set of meshes, together with
+    * the parameters used to build a distance grid from them. Meshes whose
+    * vertex positions, face topology and mesh-to-world transforms are
+    * identical produce the same key. The geometry is described using a
+    * SHA-256 digest, so that keys can also be used for the disk cache.
+    *
+    * @param meshes meshes from which the grid is built
+    * @param gridToWorld local-to-world transform for the grid
+    * @param resolution explicit grid resolution, or zero
+    * @param maxRes maximum resolution, used if {@code resolution} is zero
+    * @param margin margin fraction
+    * @param useOBB {@code true} if the grid is fit using an OBB
+    * @return key for the grid
+    */
+   public static String gridKey (
+      List<PolygonalMesh> meshes, RigidTransform3d gridToWorld,
+      Vector3i resolution, int maxRes, double margin, boolean useOBB) {
+
+      StringBuilder sb = new StringBuilder();
+      for (PolygonalMesh mesh : meshes) {
+         sb.append (mesh.numVertices()+":"+mesh.numFaces()+":");
+         sb.append (DiskGeometryCache.meshHash (mesh));
+         sb.append (":"+mesh.getMeshToWorld().toString("%a")+";");
+      }
+      sb.append (gridToWorld.toString ("%a"));
+      sb.append (":"+resolution+":"+maxRes+":"+margin+":"+useOBB);
+      return sb.toString();
+   }
+
+   /**
+    * Returns a copy of a cached distance grid, or {@code null} if caching is
+    * disabled or no grid is cached for the key.
+    *
+    * @param key key created using {@link #gridKey}
+    * @return copy of the cached grid, or {@code null}
+    */
+   public static DistanceGrid getGrid (String key) {
+      return getGrid (key, null);
+   }
+
+   /**
+    * Returns a copy of a cached distance grid, or {@code null} if caching is
+    * disabled or no grid is cached for the key. If the grid is not cached in
+    * memory, and {@code meshes} contains a single mesh, the disk cache (if
+    * any) is also checked, in which case the closest features of the
+    * returned grid are the faces of that mesh.
+    *
+    * @param key key created using {@link #gridKey}
+    * @param meshes meshes from which the grid is built, or {@code null}
+    * @return copy of the cached grid, or {@code null}
+    */
+   public static DistanceGrid getGrid (
+      String key, List<PolygonalMesh> meshes) {
+      if (!myEnabled) {
+         return null;
+      }
+      DistanceGrid cached = myGrids.get (key);
+      if (cached != null) {
+         return new DistanceGrid (cached);
+      }
+      DiskGeometryCache diskCache = myDiskCache;
+      if (diskCache != null && meshes != null && meshes.size() == 1) {
+         DistanceGrid grid = diskCache.getGrid (key, meshes.get(0));
+         if (grid != null) {
+            myGrids.put (key, new DistanceGrid (grid));
+         }
+         return grid;
+      }
+      return null;
+   }
+
+   /**
+    * Adds a copy of a distance grid to the cache. Does nothing if caching is
+    * disabled.
+    *
+    * @param key key created using {@link #gridKey}
+    * @param grid grid to add
+    */
+   public static void putGrid (String key, DistanceGrid grid) {
+      putGrid (key, grid, null);
+   }
+
+   /**
+    * Adds a copy of a distance grid to the cache. Does nothing if caching is
+    * disabled. If {@code meshes} contains a single mesh, the grid is also
+    * stored in the disk cache (if any).
+    *
+    * @param key key created using {@link #gridKey}
+    * @param grid grid to add
+    * @param meshes meshes from which the grid was built, or {@code null}
+    */
+   public static void putGrid (
+      String key, DistanceGrid grid, List<PolygonalMesh> meshes) {
+      if (myEnabled && grid != null) {
+         myGrids.put (key, new DistanceGrid (grid));
+         DiskGeometryCache diskCache = myDiskCache;
+         if (diskCache != null && meshes != null && meshes.size() == 1) {
+            diskCache.putGrid (key, grid, meshes.get(0));
+         }
+      }
+   }
+
+   /**
+    * Creates a bounding volume hierarchy for the faces of a mesh. If caching
+    * is enabled and a disk cache is present, the hierarchy is read from the
+    * disk cache if possible, and stored there otherwise. Otherwise, it is
+    * simply built.
+    *
+    * @param mesh mesh for which the hierarchy is needed
+    * @param obb if {@code true}, creates an {@link OBBTree}; otherwise,
+    * creates an {@link AABBTree}
+    * @param maxLeafElems maximum number of elements in each leaf node
+    * @param margin margin for the bounding volumes, or -1 to use a default
+    * margin based on the mesh size
+    * @return hierarchy for the mesh
+    */
+   public static BVTree createBVTree (
+      PolygonalMesh mesh, boolean obb, int maxLeafElems, double margin) {
+      DiskGeometryCache diskCache = myDiskCache;
+      if (myEnabled && diskCache != null) {
+         return diskCache.getBVTree (mesh, obb, maxLeafElems, margin);
+      }
+      else {
+         return DiskGeometryCache.buildBVTree (
+            mesh, obb, maxLeafElems, margin);
+      }
+   }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import maspack.geometry.io.GenericMeshReader;
+import maspack.matrix.RigidTransform3d;
+import maspack.matrix.Vector3i;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Tests GeometryCache.
+ */
+public class GeometryCacheTest extends UnitTest {
+
+   void checkMeshesEqual (String msg, PolygonalMesh mesh, PolygonalMesh check) {
+      if (!mesh.epsilonEquals (check, 0)) {
+         throw new TestException (msg+": meshes not equal");
+      }
+      checkEquals (
+         msg+": hard edges", mesh.numHardEdges(), check.numHardEdges());
+   }
+
+   public void testMeshes() throws IOException {
+      PolygonalMesh box = MeshFactory.createBox (1.0, 2.0, 3.0);
+      File file = File.createTempFile ("geometryCacheTest", ".obj");
+      file.deleteOnExit();
+      box.write (file);
+
+      GeometryCache.setEnabled (false);
+      PolygonalMesh check = new PolygonalMesh (file);
+
+      GeometryCache.setEnabled (true);
+      PolygonalMesh mesh0 = (PolygonalMesh)GenericMeshReader.readMesh (file);
+      checkEquals ("num cached meshes", GeometryCache.numMeshes(), 1);
+      PolygonalMesh mesh1 = (PolygonalMesh)GenericMeshReader.readMesh (file);
+      PolygonalMesh mesh2 = new PolygonalMesh (file);
+      checkEquals ("num cached meshes", GeometryCache.numMeshes(), 1);
+      checkMeshesEqual ("first read", mesh0, check);
+      checkMeshesEqual ("cached read", mesh1, check);
+      checkMeshesEqual ("cached read into mesh", mesh2, check);
+      if (mesh1 == mesh0 || mesh1.getVertex(0) == mesh0.getVertex(0)) {
+         throw new TestException ("cached meshes are not copies");
+      }
+      // modifying a returned mesh should not affect the cache
+      mesh1.scale (2.0);
+      checkMeshesEqual (
+         "read after modification",
+         (PolygonalMesh)GenericMeshReader.readMesh (file), check);
+
+      GeometryCache.setEnabled (false);
+      checkEquals ("num cached meshes", GeometryCache.numMeshes(), 0);
+   }
+
+   public void testGrids() {
+      PolygonalMesh mesh0 = MeshFactory.createOctahedralSphere (1.0, 2);
+      PolygonalMesh mesh1 = MeshFactory.createOctahedralSphere (1.0, 2);
+      Vector3i res = new Vector3i (10, 10, 10);
+      RigidTransform3d TGW = new RigidTransform3d();
+
+      GeometryCache.setEnabled (true);
+      String key0 = GeometryCache.gridKey (
+         Collections.singletonList (mesh0), TGW, res, 0, 0.1, false);
+      String key1 = GeometryCache.gridKey (
+         Collections.singletonList (mesh1), TGW, res, 0, 0.1, false);
+      checkEquals ("keys for identical meshes", key0, key1);
+      String key2 = GeometryCache.gridKey (
+         Collections.singletonList (mesh1), TGW, res, 0, 0.2, false);
+      checkEquals ("keys for different margins", key0.equals (key2), false);
+
+      checkEquals (
+         "grid initially cached", GeometryCache.getGrid(key0) != null, false);
+      DistanceGrid grid = new DistanceGrid (
+         mesh0.getFaces(), 0.1, res, /*signed=*/false);
+      GeometryCache.putGrid (key0, grid);
+      DistanceGrid copy = GeometryCache.getGrid (key1);
+      checkEquals ("num cached grids", GeometryCache.numGrids(), 1);
+      copy.replaceFeatures (mesh1.getFaces());
+      for (int i=0; i<grid.numVertices(); i++) {
+         checkEquals (
+            "distance at "+i, copy.getVertexValue(i),
+            grid.getVertexValue(i));
+         Face f0 = (Face)grid.getClosestFeature(i);
+         Face f1 = (Face)copy.getClosestFeature(i);
+         if (f1 != mesh1.getFace (f0.getIndex())) {
+            throw new TestException (
+               "closest feature at "+i+" does not refer to new mesh");
+         }
+      }
+      GeometryCache.setEnabled (false);
+   }
+
+   public void test() throws IOException {
+      testMeshes();
+      testGrids();
+   }
+
+   public static void main (String[] args) {
+      GeometryCacheTest tester = new GeometryCacheTest();
+      tester.runtest();
+   }
+}
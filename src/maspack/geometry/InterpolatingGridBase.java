@@ -363,7 +363,12 @@ public abstract class InterpolatingGridBase implements Renderable, Scannable {
       myNz = grid.myNz;
       myNxNy = grid.myNxNy;
 
-      setLocalToWorld (grid.myTLocalToWorld);
+      if (grid.myTLocalToWorld != null) {
+         setLocalToWorld (grid.myTLocalToWorld);
+      }
+      else {
+         setLocalToWorld (RigidTransform3d.IDENTITY);
+      }
    }
 
    /**
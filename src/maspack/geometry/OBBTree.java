@@ -58,6 +58,13 @@ public class OBBTree extends BVTree {
       return root;
    }
 
+   /**
+    * Sets the root directly. Used when restoring a tree from a cache.
+    */
+   void setRoot (OBB root) {
+      this.root = root;
+   }
+
    // DBG
    public boolean debug = false;
 
@@ -70,6 +70,7 @@ public class PolygonalMesh extends MeshBase {
    //private boolean bvHierarchyValid = false;
    private BVTree myBVTree = null;
    private boolean myBVTreeUpdated = false;
+   private static boolean myUseFlatBVTrees = false;
    
    // topological properties
    private boolean myTopologyPredicatesValid = false;
@@ -3595,13 +3596,40 @@ public class PolygonalMesh extends MeshBase {
       return (new RigidTransform3d(cov, R));
    }
 
+   /**
+    * Sets whether the bounding volume hierarchies created by {@link
+    * #getBVTree} for non-fixed meshes are instances of {@link FlatAABBTree},
+    * which are built using the surface area heuristic and can be refit in
+    * parallel, instead of {@link AABBTree}. The default value is
+    * <code>false</code>. Setting this value only affects hierarchies created
+    * subsequently.
+    *
+    * @param enable if <code>true</code>, use flat trees for non-fixed meshes
+    */
+   public static void setUseFlatBVTrees (boolean enable) {
+      myUseFlatBVTrees = enable;
+   }
+
+   /**
+    * Queries whether the bounding volume hierarchies created for non-fixed
+    * meshes are instances of {@link FlatAABBTree}.
+    *
+    * @return <code>true</code> if flat trees are used for non-fixed meshes
+    * @see #setUseFlatBVTrees
+    */
+   public static boolean getUseFlatBVTrees() {
+      return myUseFlatBVTrees;
+   }
+
    public BVTree getBVTree() {
       if (myBVTree == null) {
-         if (isFixed) {
-            myBVTree = new OBBTree (this, 2);
+         if (!isFixed && myUseFlatBVTrees) {
+            myBVTree = new FlatAABBTree (
+               this, /*maxLeafElems=*/2, /*margin=*/-1);
          }
          else {
-            myBVTree = new AABBTree (this);
+            myBVTree = GeometryCache.createBVTree (
+               this, /*obb=*/isFixed, /*maxLeafElems=*/2, /*margin=*/-1);
          }
          myBVTree.setBvhToWorld (XMeshToWorld);
          myBVTreeUpdated = true;
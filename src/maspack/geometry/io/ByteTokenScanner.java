@@ -0,0 +1,301 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Lightweight scanner for ASCII text held in a byte buffer, used by the fast
+ * mesh readers. Only the tokens needed for mesh files (numbers, keywords and
+ * line ends) are recognized, and numbers are converted to exactly the same
+ * values as those produced by {@link maspack.util.ReaderTokenizer}. Any
+ * input that <code>ReaderTokenizer</code> might interpret differently is
+ * reported as a scan failure, so that callers can fall back to the standard
+ * readers.
+ */
+final class ByteTokenScanner {
+
+   private static final double[] POW10 = new double[23];
+   static {
+      POW10[0] = 1;
+      for (int i=1; i<POW10.length; i++) {
+         POW10[i] = 10*POW10[i-1];
+      }
+   }
+
+   ByteBuffer myBuf;
+   int myPos;
+   int myEnd;
+
+   /**
+    * Value of the last number scanned.
+    */
+   double nval;
+
+   /**
+    * <code>true</code> if the last number scanned was an integer, in which
+    * case its value is also given by {@link #lval}.
+    */
+   boolean isInt;
+   long lval;
+
+   ByteTokenScanner (ByteBuffer buf, int start, int end) {
+      myBuf = buf;
+      myPos = start;
+      myEnd = end;
+   }
+
+   /**
+    * Maps a file into memory for reading, or returns <code>null</code> if it
+    * is too large to be mapped in one piece.
+    */
+   static ByteBuffer map (File file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile (file, "r");
+      try {
+         FileChannel ch = raf.getChannel();
+         if (ch.size() > Integer.MAX_VALUE) {
+            return null;
+         }
+         return ch.map (MapMode.READ_ONLY, 0, ch.size());
+      }
+      finally {
+         raf.close();
+      }
+   }
+
+   boolean atEnd() {
+      return myPos >= myEnd;
+   }
+
+   int peek() {
+      return myPos < myEnd ? (myBuf.get(myPos) & 0xff) : -1;
+   }
+
+   /**
+    * Returns <code>true</code> if <code>c</code> is a line end. As with
+    * <code>ReaderTokenizer</code>, only <code>'\n'</code> ends a line, and
+    * <code>'\r'</code> is treated as ordinary whitespace.
+    */
+   static boolean isEol (int c) {
+      return c == '\n';
+   }
+
+   /**
+    * Skips blanks, not including line ends.
+    */
+   void skipBlanks() {
+      while (myPos < myEnd) {
+         int c = myBuf.get(myPos) & 0xff;
+         if (c > ' ' || c == '\n') {
+            break;
+         }
+         myPos++;
+      }
+   }
+
+   /**
+    * Skips all whitespace, including line ends.
+    */
+   void skipWhitespace() {
+      while (myPos < myEnd && (myBuf.get(myPos) & 0xff) <= ' ') {
+         myPos++;
+      }
+   }
+
+   /**
+    * Returns <code>true</code> if, after skipping blanks, the scanner is at
+    * a line end or at the end of its range.
+    */
+   boolean atEol() {
+      skipBlanks();
+      return myPos >= myEnd || isEol (myBuf.get(myPos));
+   }
+
+   /**
+    * Advances to the start of the next line.
+    */
+   void skipLine() {
+      while (myPos < myEnd) {
+         int c = myBuf.get(myPos++);
+         if (c == '\n') {
+            break;
+         }
+      }
+   }
+
+   /**
+    * Returns <code>true</code> if the byte at <code>pos</code> delimits a
+    * token.
+    */
+   boolean isDelimiter (int pos) {
+      return pos >= myEnd || (myBuf.get(pos) & 0xff) <= ' ';
+   }
+
+   /**
+    * Scans a word consisting of ASCII letters, digits and underscores,
+    * starting with a letter or underscore, and returns it, or returns
+    * <code>null</code> (leaving the position unchanged) if there is no such
+    * word delimited by whitespace at the current position.
+    */
+   String scanWord() {
+      int p = myPos;
+      while (p < myEnd) {
+         int c = myBuf.get(p) & 0xff;
+         if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' ||
+             (p > myPos && c >= '0' && c <= '9')) {
+            p++;
+         }
+         else {
+            break;
+         }
+      }
+      if (p == myPos || !isDelimiter (p)) {
+         return null;
+      }
+      String word = getString (myPos, p);
+      myPos = p;
+      return word;
+   }
+
+   /**
+    * Returns the ASCII string for bytes <code>start</code> to
+    * <code>end</code>.
+    */
+   String getString (int start, int end) {
+      char[] chars = new char[end-start];
+      for (int i=start; i<end; i++) {
+         chars[i-start] = (char)(myBuf.get(i) & 0xff);
+      }
+      return new String (chars);
+   }
+
+   /**
+    * Scans a number at the current position. The number must be followed by
+    * whitespace, the end of the range, or <code>term</code> (if
+    * <code>term</code> is non-negative). If successful, the value is placed
+    * in {@link #nval} and the position is advanced past the number.
+    * Otherwise, the position is unchanged and <code>false</code> is
+    * returned.
+    */
+   boolean scanNumber (int term) {
+      int p = myPos;
+      int end = myEnd;
+      ByteBuffer buf = myBuf;
+      boolean negate = false;
+      if (p < end) {
+         int c = buf.get(p);
+         if (c == '-') {
+            negate = true;
+            p++;
+         }
+         else if (c == '+') {
+            p++;
+         }
+      }
+      int numStart = p;
+      // m accumulates up to 18 significant digits; longer mantissas are
+      // converted using Double.parseDouble
+      long m = 0;
+      int ndigits = 0;
+      int nsig = 0;
+      int nfrac = 0;
+      boolean dotseen = false;
+      int c = 0;
+      while (p < end && (c = buf.get(p)) >= '0' && c <= '9') {
+         if (nsig > 0 || c != '0') {
+            m = 10*m + (c-'0');
+            nsig++;
+         }
+         ndigits++;
+         p++;
+      }
+      if (p < end && buf.get(p) == '.') {
+         dotseen = true;
+         p++;
+         while (p < end && (c = buf.get(p)) >= '0' && c <= '9') {
+            if (nsig > 0 || c != '0') {
+               m = 10*m + (c-'0');
+               nsig++;
+            }
+            ndigits++;
+            nfrac++;
+            p++;
+         }
+      }
+      if (ndigits == 0 || (nsig > 18 && !dotseen)) {
+         return false;
+      }
+      int exp = 0;
+      int nexp = 0;
+      if (p < end && ((c = buf.get(p)) == 'e' || c == 'E')) {
+         int q = p+1;
+         boolean expNegate = false;
+         if (q < end && ((c = buf.get(q)) == '+' || c == '-')) {
+            expNegate = (c == '-');
+            q++;
+         }
+         while (q < end && (c = buf.get(q)) >= '0' && c <= '9') {
+            exp = 10*exp + (c-'0');
+            nexp++;
+            q++;
+         }
+         if (nexp == 0 || nexp > 4) {
+            return false;
+         }
+         if (expNegate) {
+            exp = -exp;
+         }
+         p = q;
+      }
+      if (!isDelimiter (p) && (term < 0 || buf.get(p) != term)) {
+         return false;
+      }
+      if (!dotseen && nexp == 0) {
+         isInt = true;
+         lval = negate ? -m : m;
+         nval = (double)lval;
+      }
+      else {
+         isInt = false;
+         int e = exp - nfrac;
+         double val;
+         if (nsig <= 15 && e >= -22 && e <= 22) {
+            // exact conversion: both operands are exactly representable,
+            // so the result is correctly rounded
+            val = (e >= 0 ? m*POW10[e] : m/POW10[-e]);
+         }
+         else {
+            val = Double.parseDouble (getString (numStart, p));
+         }
+         nval = negate ? -val : val;
+      }
+      myPos = p;
+      return true;
+   }
+
+   /**
+    * Scans an integer at the current position, as for {@link
+    * #scanNumber}. Returns <code>false</code> if there is no number, or it
+    * is not an integer within the range of <code>int</code>.
+    */
+   boolean scanInt (int term) {
+      int save = myPos;
+      if (!scanNumber (term)) {
+         return false;
+      }
+      if (!isInt || lval < Integer.MIN_VALUE || lval > Integer.MAX_VALUE) {
+         myPos = save;
+         return false;
+      }
+      return true;
+   }
+}
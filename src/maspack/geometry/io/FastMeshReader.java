@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import maspack.concurrency.ParallelLoop;
+import maspack.geometry.MeshBase;
+import maspack.geometry.PolygonalMesh;
+
+/**
+ * Reads polygonal meshes from Wavefront OBJ, STL and PLY files, using a
+ * memory-mapped file and, for large files, multiple threads. The resulting
+ * meshes are identical to those produced by {@link WavefrontReader}, {@link
+ * StlReader} and {@link PlyReader}. Files containing anything the fast
+ * parsers do not handle (such as OBJ materials or curves, unusual formatting,
+ * or errors) are passed on to the standard readers, so that the results and
+ * error messages are always the same.
+ *
+ * <p>This reader is used by {@link GenericMeshReader#readMesh(File,MeshBase)}
+ * when enabled via {@link GenericMeshReader#setFastReadingEnabled}.
+ */
+public class FastMeshReader implements MeshReader {
+
+   /**
+    * Default number of threads used for large files.
+    */
+   public static int DEFAULT_NUM_THREADS =
+      Runtime.getRuntime().availableProcessors();
+
+   /**
+    * Default size, in bytes, above which files are parsed using multiple
+    * threads.
+    */
+   public static int DEFAULT_PARALLEL_THRESHOLD = 4*1024*1024;
+
+   protected File myFile;
+   protected int myNumThreads = DEFAULT_NUM_THREADS;
+   protected int myParallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+   protected boolean myZeroIndexed = false;
+   protected double myTol = -1;
+
+   public FastMeshReader (File file) {
+      myFile = file;
+   }
+
+   public FastMeshReader (String fileName) {
+      this (new File (fileName));
+   }
+
+   /**
+    * Returns <code>true</code> if the extension of <code>file</code>
+    * indicates a format handled by this reader.
+    */
+   public static boolean isSupported (File file) {
+      String lfileName = file.getName().toLowerCase();
+      return (lfileName.endsWith (".obj") ||
+              lfileName.endsWith (".stl") ||
+              lfileName.endsWith (".ply"));
+   }
+
+   public int getNumThreads() {
+      return myNumThreads;
+   }
+
+   /**
+    * Sets the maximum number of threads used to read large files.
+    */
+   public void setNumThreads (int num) {
+      myNumThreads = Math.max (1, num);
+   }
+
+   public int getParallelThreshold() {
+      return myParallelThreshold;
+   }
+
+   /**
+    * Sets the file size, in bytes, at or above which files are parsed using
+    * multiple threads.
+    */
+   public void setParallelThreshold (int size) {
+      myParallelThreshold = size;
+   }
+
+   public boolean getZeroIndexed() {
+      return myZeroIndexed;
+   }
+
+   /**
+    * Sets whether OBJ indices are zero-based. See {@link
+    * WavefrontReader#setZeroIndexed}.
+    */
+   public void setZeroIndexed (boolean enable) {
+      myZeroIndexed = enable;
+   }
+
+   /**
+    * Returns the tolerance used to merge STL vertices. A negative value
+    * means that {@link StlReader#DEFAULT_TOLERANCE} is used.
+    */
+   public double getTolerance() {
+      return myTol;
+   }
+
+   public void setTolerance (double tol) {
+      myTol = tol;
+   }
+
+   /**
+    * Attempts to read the file using the fast parsers, returning
+    * <code>null</code> (with <code>mesh</code> unmodified) if the file
+    * needs to be read by the standard reader instead.
+    */
+   protected MeshBase readFast (MeshBase mesh) throws IOException {
+      if (mesh != null && !(mesh instanceof PolygonalMesh)) {
+         return null;
+      }
+      String lfileName = myFile.getName().toLowerCase();
+      ByteBuffer buf = ByteTokenScanner.map (myFile);
+      if (buf == null) {
+         return null;
+      }
+      ParallelLoop loop = null;
+      int nchunks = 1;
+      if (myNumThreads > 1 && buf.limit() >= myParallelThreshold) {
+         loop = new ParallelLoop ("FastMeshReader", myNumThreads);
+         nchunks = 4*myNumThreads;
+      }
+      try {
+         PolygonalMesh pmesh = (PolygonalMesh)mesh;
+         if (lfileName.endsWith (".obj")) {
+            return FastObjReader.read (
+               pmesh, buf, myZeroIndexed, loop, nchunks);
+         }
+         else if (lfileName.endsWith (".stl")) {
+            double tol = (myTol >= 0 ? myTol : StlReader.DEFAULT_TOLERANCE);
+            return FastStlReader.read (pmesh, buf, tol, loop, nchunks);
+         }
+         else if (lfileName.endsWith (".ply")) {
+            return FastPlyReader.read (pmesh, buf, loop);
+         }
+         else {
+            return null;
+         }
+      }
+      finally {
+         if (loop != null) {
+            loop.shutdown();
+         }
+      }
+   }
+
+   /**
+    * Reads a mesh from the file, using the fast parsers if possible and the
+    * standard reader for the file type otherwise.
+    */
+   public MeshBase readMesh (MeshBase mesh) throws IOException {
+      MeshBase newMesh = readFast (mesh);
+      if (newMesh == null) {
+         MeshReader reader = GenericMeshReader.createReader (myFile);
+         if (reader == null) {
+            throw new UnsupportedOperationException (
+               "File "+myFile.getName ()+" has unrecognized extension");
+         }
+         if (reader instanceof WavefrontReader) {
+            ((WavefrontReader)reader).setZeroIndexed (myZeroIndexed);
+         }
+         else if (reader instanceof StlReader && myTol >= 0) {
+            ((StlReader)reader).setTolerance (myTol);
+         }
+         try {
+            newMesh = reader.readMesh (mesh);
+         }
+         finally {
+            reader.close();
+         }
+      }
+      return newMesh;
+   }
+
+   public MeshBase readMesh() throws IOException {
+      return readMesh ((MeshBase)null);
+   }
+
+   public void close() {
+   }
+
+   public static MeshBase read (File file) throws IOException {
+      return read (file, null);
+   }
+
+   public static MeshBase read (File file, MeshBase mesh) throws IOException {
+      FastMeshReader reader = new FastMeshReader (file);
+      return reader.readMesh (mesh);
+   }
+}
@@ -0,0 +1,410 @@
+package maspack.geometry.io;
+
+import java.io.*;
+import java.util.*;
+
+import maspack.util.*;
+import maspack.geometry.*;
+import maspack.matrix.*;
+
+import maspack.geometry.io.MeshWriter.DataFormat;
+import maspack.geometry.io.PlyWriter.DataType;
+
+/**
+ * Checks that FastMeshReader produces the same meshes as the standard
+ * readers, using both one and several threads, and that it defers to the
+ * standard readers for input it does not handle.
+ */
+public class FastMeshReaderTest extends UnitTest {
+
+   ArrayList<File> myFiles = new ArrayList<File>();
+
+   public FastMeshReaderTest() {
+   }
+
+   File createFile (String suffix) throws IOException {
+      File file = File.createTempFile ("fastMeshTest", suffix);
+      file.deleteOnExit();
+      myFiles.add (file);
+      return file;
+   }
+
+   File writeString (String str, String suffix) throws IOException {
+      File file = createFile (suffix);
+      OutputStream os = new FileOutputStream (file);
+      os.write (str.getBytes ("US-ASCII"));
+      os.close();
+      return file;
+   }
+
+   void checkEqual (MeshBase check, MeshBase mesh) {
+      if (check.getClass() != mesh.getClass()) {
+         throw new TestException (
+            "Mesh class is "+mesh.getClass()+", expected "+check.getClass());
+      }
+      if (!check.epsilonEquals (mesh, 0)) {
+         throw new TestException ("Mesh differs from standard reader result");
+      }
+      if (check.getName() == null ?
+          mesh.getName() != null : !check.getName().equals (mesh.getName())) {
+         throw new TestException (
+            "Mesh name is "+mesh.getName()+", expected "+check.getName());
+      }
+      ArrayList<Vector3d> ctxts = check.getTextureCoords();
+      ArrayList<Vector3d> mtxts = mesh.getTextureCoords();
+      if ((ctxts == null) != (mtxts == null)) {
+         throw new TestException ("Texture coordinates differ");
+      }
+      if (ctxts != null) {
+         if (ctxts.size() != mtxts.size()) {
+            throw new TestException ("Texture coordinates differ");
+         }
+         for (int i=0; i<ctxts.size(); i++) {
+            if (!ctxts.get(i).equals (mtxts.get(i))) {
+               throw new TestException ("Texture coordinates differ");
+            }
+         }
+         if (!Arrays.equals (
+                check.getTextureIndices(), mesh.getTextureIndices())) {
+            throw new TestException ("Texture indices differ");
+         }
+      }
+      if (check instanceof PolygonalMesh) {
+         int nhard = ((PolygonalMesh)mesh).numHardEdges();
+         if (((PolygonalMesh)check).numHardEdges() != nhard) {
+            throw new TestException ("Hard edges differ");
+         }
+      }
+   }
+
+   MeshBase readStandard (File file) throws IOException {
+      MeshReader reader = GenericMeshReader.createReader (file);
+      MeshBase mesh = reader.readMesh (null);
+      reader.close();
+      return mesh;
+   }
+
+   PolygonalMesh createExistingMesh (File file) {
+      if (file.getName().endsWith (".ply")) {
+         return new PolygonalMesh();
+      }
+      else {
+         return MeshFactory.createBox (1, 1, 1, Point3d.ZERO, 1, 1, 1);
+      }
+   }
+
+   /**
+    * Reads a file with the standard and fast readers and checks that the
+    * results are the same. If <code>fast</code> is true, the fast parsers
+    * are expected to handle the file; otherwise, they are expected to defer
+    * to the standard reader.
+    */
+   void test (File file, boolean fast) throws IOException {
+      MeshBase check = readStandard (file);
+
+      for (int nthreads=1; nthreads<=4; nthreads+=3) {
+         FastMeshReader reader = new FastMeshReader (file);
+         reader.setNumThreads (nthreads);
+         reader.setParallelThreshold (0);
+         MeshBase mesh = reader.readFast (null);
+         if (fast && mesh == null) {
+            throw new TestException (
+               "Fast reader did not handle "+describe (file));
+         }
+         else if (!fast && mesh != null) {
+            throw new TestException (
+               "Fast reader unexpectedly handled "+describe (file));
+         }
+         mesh = reader.readMesh (null);
+         checkEqual (check, mesh);
+         // read into an existing mesh. PlyReader does not clear the mesh
+         // first, so use an empty mesh in that case
+         if (check instanceof PolygonalMesh) {
+            PolygonalMesh pmesh = createExistingMesh (file);
+            PolygonalMesh pcheck = createExistingMesh (file);
+            MeshReader sreader = GenericMeshReader.createReader (file);
+            sreader.readMesh (pcheck);
+            sreader.close();
+            reader.readMesh (pmesh);
+            checkEqual (pcheck, pmesh);
+         }
+      }
+   }
+
+   /**
+    * Checks that the fast and standard readers report the same error for
+    * an invalid file.
+    */
+   void testError (File file) throws IOException {
+      String expected = null;
+      try {
+         readStandard (file);
+      }
+      catch (Exception e) {
+         expected = e.toString();
+      }
+      if (expected == null) {
+         throw new TestException ("No error reading "+describe (file));
+      }
+      String actual = null;
+      try {
+         FastMeshReader.read (file);
+      }
+      catch (Exception e) {
+         actual = e.toString();
+      }
+      if (!expected.equals (actual)) {
+         throw new TestException (
+            "Error is '"+actual+"', expected '"+expected+"'");
+      }
+   }
+
+   String describe (File file) throws IOException {
+      if (file.length() < 2000) {
+         BufferedReader reader = new BufferedReader (new FileReader (file));
+         StringBuilder sb = new StringBuilder();
+         String line;
+         while ((line = reader.readLine()) != null) {
+            sb.append (line);
+            sb.append ('\n');
+         }
+         reader.close();
+         return "\n" + sb.toString();
+      }
+      else {
+         return file.getName();
+      }
+   }
+
+   File writeObj (MeshBase mesh) throws IOException {
+      File file = createFile (".obj");
+      WavefrontWriter writer = new WavefrontWriter (file);
+      writer.setFormat ("%.17g");
+      writer.writeMesh (mesh);
+      writer.close();
+      return file;
+   }
+
+   File writeStl (PolygonalMesh mesh, boolean binary) throws IOException {
+      File file = createFile (".stl");
+      StlWriter writer = new StlWriter (file);
+      writer.setBinary (binary);
+      writer.writeMesh (mesh);
+      writer.close();
+      return file;
+   }
+
+   File writePly (
+      MeshBase mesh, DataFormat dataFmt, DataType floatType, boolean nrms)
+      throws IOException {
+      File file = createFile (".ply");
+      PlyWriter writer = new PlyWriter (file);
+      writer.setDataFormat (dataFmt);
+      writer.setFloatType (floatType);
+      writer.setWriteNormals (nrms ? 1 : 0);
+      writer.writeMesh (mesh);
+      writer.close();
+      return file;
+   }
+
+   /**
+    * Creates a triangular mesh with randomly perturbed vertex positions,
+    * some of which coincide.
+    */
+   PolygonalMesh createRandomMesh (int nslices) {
+      PolygonalMesh mesh = MeshFactory.createSphere (1.0, nslices);
+      for (Vertex3d vtx : mesh.getVertices()) {
+         Vector3d del = new Vector3d();
+         del.setRandom();
+         vtx.pnt.scaledAdd (1e-3, del);
+      }
+      return mesh;
+   }
+
+   void testObj() throws IOException {
+      PolygonalMesh sphere = createRandomMesh (24);
+      test (writeObj (sphere), true);
+      PolygonalMesh box =
+         MeshFactory.createQuadBox (1, 2, 3, Point3d.ZERO, 1, 1, 1);
+      test (writeObj (box), true);
+
+      String boxStr =
+         "# box with normals and texture coordinates\n" +
+         "v 0 0 0\n" +
+         "v 1 0 0\n" +
+         "v 1 1 0\n" +
+         "v 0 1 0\n" +
+         "v 0.5 0.5 1.5e0 1\n" +
+         "vt 0 0\n" +
+         "vt 1 0\n" +
+         "vt 1 1\n" +
+         "vt 0.5 0.5 0\n" +
+         "vn 0 0 -1\n" +
+         "vn 0 -1 1\n" +
+         "vn 1 0 1\n" +
+         "vn 0 1 1\n" +
+         "vn -1 0 1\n" +
+         "\n" +
+         "s off\n";
+      String faceStr =
+         "f 1/1/1 4/3/1 3/3/1 2/2/1\n" +
+         "f 1/1/2 2/2/2 5/4/2\n" +
+         "f 2/2/3 3/3/3 5/4/3\n" +
+         "f 3/3/4 4/1/4 5/4/4\n" +
+         "f 4/1/5 1/1/5 5/4/5\n";
+      test (writeString (boxStr + faceStr, ".obj"), true);
+      // single group, so only the vertices used by the group are kept
+      test (writeString (
+               "v 9 9 9\nvt 9 9\nvn 9 9 9\n" + boxStr +
+               "g pyramid\n" + faceStr, ".obj"), true);
+      // relative indices and CRLF line endings
+      String relStr =
+         "o tets\r\n" +
+         "v 0 0 0\r\n" +
+         "v 1 0 0\r\n" +
+         "v 0 1 0\r\n" +
+         "v 0 0 1\r\n" +
+         "f -4 -2 -3\r\n" +
+         "f -4 -3 -1\r\n" +
+         "f -3 -2 -1\r\n" +
+         "f -4 -1 -2\r\n" +
+         "v 2 0 0\r\n" +
+         "f -5 -4 -1\r\n";
+      test (writeString (relStr, ".obj"), true);
+      // multiple groups
+      test (writeString (
+               "g a\nv 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\nv 0 0 1\n" +
+               "f 1 4 3 2\n" +
+               "g b\nf 1 2 5\n" +
+               "g a\nf 2 3 5\n" +
+               "g c\nf 3 4 5\nf 4 1 5\n", ".obj"), true);
+      // numbers in various forms
+      test (writeString (
+               "v -1.25E+1 +3 0.000000000000000000001234\n" +
+               "v 1.7976931348623157e308 1.1 -.5\n" +
+               "v 123456789012345678 2.2e-5 7\n" +
+               "f 1 2 3\n", ".obj"), true);
+
+      // input that should be passed to WavefrontReader
+      test (writeString (
+               "mtllib box.mtl\n" + boxStr + faceStr, ".obj"), false);
+      testError (writeString (
+               boxStr + "f 1 2 3 # comment\n" + faceStr, ".obj"));
+      testError (writeString ("v 0 0 0\nv 1 0 0\nf 1 2 3\n", ".obj"));
+      test (writeString (
+               boxStr + faceStr + "l 1 2 3\n", ".obj"), false);
+      testError (writeString (
+               boxStr + "g \"a b\"\n" + faceStr, ".obj"));
+      test (writeString (boxStr + faceStr.trim(), ".obj"), false);
+      testError (writeString (boxStr + "f 1/1/1 2 3\n", ".obj"));
+   }
+
+   void testStl() throws IOException {
+      PolygonalMesh sphere = createRandomMesh (32);
+      test (writeStl (sphere, true), true);
+      test (writeStl (sphere, false), true);
+      PolygonalMesh box =
+         MeshFactory.createBox (1, 2, 3, Point3d.ZERO, 2, 2, 2);
+      test (writeStl (box, true), true);
+      test (writeStl (box, false), true);
+
+      String facetStr =
+         "facet normal 0 0 1\n" +
+         "  outer loop\n" +
+         "    vertex 0 0 0\n" +
+         "    vertex 1 0 0\n" +
+         "    vertex 0 1 0\n" +
+         "  endloop\n" +
+         "endfacet\n" +
+         "FACET NORMAL 0 0 1\r\n" +
+         "  Outer Loop\r\n" +
+         "    vertex 1.0 0 0\r\n" +
+         "    vertex 1 1 0\r\n" +
+         "    vertex 0 1 0\r\n" +
+         "  endloop\r\n" +
+         "endfacet\r\n";
+      test (writeString (
+               "solid square\n" + facetStr + "endsolid square\n", ".stl"),
+            true);
+      test (writeString (
+               "solid\n" + facetStr + "endsolid\n" + facetStr, ".stl"),
+            true);
+      // input that should be passed to StlReader
+      test (writeString (
+               "solid \"square\"\n" + facetStr + "endsolid\n", ".stl"), false);
+      testError (writeString (
+               "solid square\n" + facetStr.replace ("endloop", "end loop") +
+               "endsolid\n", ".stl"));
+   }
+
+   void testPly() throws IOException {
+      PolygonalMesh sphere = createRandomMesh (16);
+      PolygonalMesh box =
+         MeshFactory.createQuadBox (1, 2, 3, Point3d.ZERO, 1, 1, 1);
+      DataFormat[] dataFmts = new DataFormat[] {
+         DataFormat.ASCII,
+         DataFormat.BINARY_LITTLE_ENDIAN,
+         DataFormat.BINARY_BIG_ENDIAN };
+      DataType[] floatTypes = new DataType[] {
+         DataType.FLOAT, DataType.DOUBLE };
+      for (DataFormat dataFmt : dataFmts) {
+         for (DataType floatType : floatTypes) {
+            test (writePly (sphere, dataFmt, floatType, false), true);
+            test (writePly (sphere, dataFmt, floatType, true), true);
+            test (writePly (box, dataFmt, floatType, true), true);
+         }
+      }
+      String header =
+         "ply\n" +
+         "format ascii 1.0\n" +
+         "comment made by hand\n" +
+         "element vertex 4\n" +
+         "property float x\n" +
+         "property float y\n" +
+         "property float z\n" +
+         "property uchar red\n" +
+         "property uchar green\n" +
+         "property uchar blue\n";
+      String vertices =
+         "0 0 0 255 0 0\n" +
+         "1 0 0 0 255 0\n" +
+         "1 1 0 0 0 255\n" +
+         "0 1 0 10 20 30\n";
+      test (writeString (
+               header +
+               "element face 2\n" +
+               "property list uchar int vertex_indices\n" +
+               "end_header\n" +
+               vertices +
+               "3 0 1 2\n" +
+               "3 0 2 3\n", ".ply"), true);
+      // no faces, so the result is a point mesh
+      test (writeString (
+               header +
+               "end_header\n" +
+               vertices, ".ply"), false);
+   }
+
+   public void test() {
+      try {
+         testObj();
+         testStl();
+         testPly();
+      }
+      catch (IOException e) {
+         throw new TestException ("Unexpected IOException: " + e);
+      }
+      finally {
+         for (File file : myFiles) {
+            file.delete();
+         }
+         myFiles.clear();
+      }
+   }
+
+   public static void main (String[] args) {
+      RandomGenerator.setSeed (0x1234);
+      FastMeshReaderTest tester = new FastMeshReaderTest();
+      tester.runtest();
+   }
+}
@@ -0,0 +1,693 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import maspack.concurrency.ParallelLoop;
+import maspack.geometry.PolygonalMesh;
+import maspack.matrix.Point3d;
+import maspack.matrix.Vector3d;
+import maspack.util.DynamicDoubleArray;
+import maspack.util.DynamicIntArray;
+
+/**
+ * Fast path for reading Wavefront OBJ files, used by {@link
+ * FastMeshReader}. Since every line of an OBJ file can be interpreted on its
+ * own (apart from relative indices, which are resolved afterwards), large
+ * files are split into chunks at line boundaries and parsed in parallel. The
+ * mesh is then built in the same way as {@link WavefrontReader}.
+ *
+ * <p>Only polygonal geometry is handled here: the keywords <code>v</code>,
+ * <code>vt</code>, <code>vn</code>, <code>f</code>, <code>s</code>, and
+ * single-name <code>g</code> and <code>o</code> lines, together with comment
+ * lines. For other keywords (such as materials, lines, or curves), or for
+ * any input that <code>WavefrontReader</code> might interpret differently,
+ * <code>null</code> is returned so that the caller can use
+ * <code>WavefrontReader</code> instead.
+ */
+final class FastObjReader {
+
+   private static final int TEXTURE = 0x1;
+   private static final int NORMAL = 0x2;
+
+   // kinds of index, used to resolve relative indices
+   private static final int VERTEX_IDX = 0;
+   private static final int TEXTURE_IDX = 1;
+   private static final int NORMAL_IDX = 2;
+
+   /**
+    * Data parsed from a section of the file.
+    */
+   private static class Chunk {
+      DynamicDoubleArray verts = new DynamicDoubleArray(); // x, y, z, w
+      DynamicDoubleArray txts = new DynamicDoubleArray();  // u, v, w
+      DynamicDoubleArray nrmls = new DynamicDoubleArray(); // x, y, z
+      DynamicIntArray faceSizes = new DynamicIntArray();
+      DynamicIntArray faceFlags = new DynamicIntArray();
+      // vertex, texture and normal indices for each face vertex, with -1
+      // for texture and normal indices that are not present
+      DynamicIntArray idxs = new DynamicIntArray();
+      // locations in idxs of relative indices, which must be offset by the
+      // number of items in the preceding chunks
+      DynamicIntArray relative = new DynamicIntArray();
+      ArrayList<String> groupNames = new ArrayList<String>();
+      DynamicIntArray groupStarts = new DynamicIntArray();
+      boolean failed;
+
+      int numVerts() {
+         return verts.size()/4;
+      }
+
+      int numTxts() {
+         return txts.size()/3;
+      }
+
+      int numNrmls() {
+         return nrmls.size()/3;
+      }
+   }
+
+   private boolean myZeroIndexed;
+
+   private FastObjReader (boolean zeroIndexed) {
+      myZeroIndexed = zeroIndexed;
+   }
+
+   private static boolean isNameChar (int c) {
+      return ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+              (c >= '0' && c <= '9') || c == '_' || c == '-' || c == '(' ||
+              c == ')' || c == '.' || c == ':' || c == '/');
+   }
+
+   /**
+    * Skips blanks and checks that the scanner is at the end of the line,
+    * and if so, advances past it.
+    */
+   private static boolean endLine (ByteTokenScanner scanner) {
+      scanner.skipBlanks();
+      if (scanner.peek() != '\n') {
+         return false;
+      }
+      scanner.myPos++;
+      return true;
+   }
+
+   private static boolean scanNumbers (
+      ByteTokenScanner scanner, DynamicDoubleArray vals, int num) {
+      for (int i=0; i<num; i++) {
+         scanner.skipBlanks();
+         if (!scanner.scanNumber (-1)) {
+            return false;
+         }
+         vals.add (scanner.nval);
+      }
+      return true;
+   }
+
+   /**
+    * Adds an index to the chunk, converting it in the same way as
+    * WavefrontReader.getIndex().
+    */
+   private boolean addIndex (Chunk chunk, int idx, int kind, int count) {
+      if (!myZeroIndexed && idx == 0) {
+         return false;
+      }
+      if (!myZeroIndexed && idx > 0) {
+         idx -= 1;
+      }
+      else if (idx < 0) {
+         idx += count;
+         chunk.relative.add (3*chunk.idxs.size()+kind);
+      }
+      chunk.idxs.add (idx);
+      return true;
+   }
+
+   private boolean parseFace (ByteTokenScanner scanner, Chunk chunk) {
+      int flags = -1;
+      int size = 0;
+      while (true) {
+         scanner.skipBlanks();
+         if (scanner.peek() == '\n') {
+            break;
+         }
+         if (!scanner.scanInt ('/') ||
+             !addIndex (chunk, (int)scanner.lval,
+                        VERTEX_IDX, chunk.numVerts())) {
+            return false;
+         }
+         int vflags = 0;
+         int tidx = -1;
+         int nidx = -1;
+         if (scanner.peek() == '/') {
+            scanner.myPos++;
+            if (scanner.peek() != '/') {
+               if (!scanner.scanInt ('/')) {
+                  return false;
+               }
+               tidx = (int)scanner.lval;
+               vflags |= TEXTURE;
+            }
+            if (scanner.peek() == '/') {
+               scanner.myPos++;
+               if (!scanner.scanInt (-1)) {
+                  return false;
+               }
+               nidx = (int)scanner.lval;
+               vflags |= NORMAL;
+            }
+            else if (vflags == 0) {
+               return false;
+            }
+         }
+         if (flags == -1) {
+            flags = vflags;
+         }
+         else if (flags != vflags) {
+            // WavefrontReader would either fail or misalign the indices
+            return false;
+         }
+         if ((vflags & TEXTURE) != 0) {
+            if (!addIndex (chunk, tidx, TEXTURE_IDX, chunk.numTxts())) {
+               return false;
+            }
+         }
+         else {
+            chunk.idxs.add (-1);
+         }
+         if ((vflags & NORMAL) != 0) {
+            if (!addIndex (chunk, nidx, NORMAL_IDX, chunk.numNrmls())) {
+               return false;
+            }
+         }
+         else {
+            chunk.idxs.add (-1);
+         }
+         size++;
+      }
+      if (size == 0) {
+         return false;
+      }
+      scanner.myPos++;
+      chunk.faceSizes.add (size);
+      chunk.faceFlags.add (flags);
+      return true;
+   }
+
+   private boolean parseGroup (ByteTokenScanner scanner, Chunk chunk) {
+      scanner.skipBlanks();
+      if (scanner.peek() == '\n') {
+         // no name, so the group is unchanged
+         scanner.myPos++;
+         return true;
+      }
+      int start = scanner.myPos;
+      while (isNameChar (scanner.peek())) {
+         scanner.myPos++;
+      }
+      if (scanner.myPos == start || !scanner.isDelimiter (scanner.myPos)) {
+         return false;
+      }
+      String name = scanner.getString (start, scanner.myPos);
+      // secondary group names are not handled
+      if (!endLine (scanner)) {
+         return false;
+      }
+      chunk.groupNames.add (name);
+      chunk.groupStarts.add (chunk.faceSizes.size());
+      return true;
+   }
+
+   private boolean parseLine (
+      ByteTokenScanner scanner, String keyword, Chunk chunk) {
+
+      if (keyword.equals ("v")) {
+         if (!scanNumbers (scanner, chunk.verts, 3)) {
+            return false;
+         }
+         scanner.skipBlanks();
+         if (scanner.peek() == '\n') {
+            chunk.verts.add (1);
+         }
+         else {
+            // extra numbers after w are ignored
+            if (!scanNumbers (scanner, chunk.verts, 1)) {
+               return false;
+            }
+            scanner.skipBlanks();
+            while (scanner.peek() != '\n') {
+               if (!scanner.scanNumber (-1)) {
+                  return false;
+               }
+               scanner.skipBlanks();
+            }
+         }
+         return endLine (scanner);
+      }
+      else if (keyword.equals ("vn")) {
+         return scanNumbers (scanner, chunk.nrmls, 3) && endLine (scanner);
+      }
+      else if (keyword.equals ("vt")) {
+         if (!scanNumbers (scanner, chunk.txts, 1)) {
+            return false;
+         }
+         for (int i=0; i<2; i++) {
+            scanner.skipBlanks();
+            if (scanner.peek() == '\n') {
+               chunk.txts.add (0);
+            }
+            else if (!scanNumbers (scanner, chunk.txts, 1)) {
+               return false;
+            }
+         }
+         return endLine (scanner);
+      }
+      else if (keyword.equals ("f")) {
+         return parseFace (scanner, chunk);
+      }
+      else if (keyword.equals ("g") || keyword.equals ("o") ||
+               keyword.equals ("sg") || keyword.equals ("mg")) {
+         return parseGroup (scanner, chunk);
+      }
+      else if (keyword.equals ("s")) {
+         scanner.skipBlanks();
+         String word = scanner.scanWord();
+         if (word == null) {
+            if (!scanner.scanNumber (-1)) {
+               return false;
+            }
+         }
+         else if (!word.equals ("off")) {
+            return false;
+         }
+         return endLine (scanner);
+      }
+      else {
+         return false;
+      }
+   }
+
+   private Chunk parseChunk (ByteBuffer buf, int start, int end) {
+      Chunk chunk = new Chunk();
+      ByteTokenScanner scanner = new ByteTokenScanner (buf, start, end);
+      while (true) {
+         scanner.skipBlanks();
+         if (scanner.atEnd()) {
+            break;
+         }
+         int c = scanner.peek();
+         if (c == '\n') {
+            scanner.myPos++;
+         }
+         else if (c == '#') {
+            scanner.skipLine();
+         }
+         else {
+            String keyword = scanner.scanWord();
+            if (keyword == null || !parseLine (scanner, keyword, chunk)) {
+               chunk.failed = true;
+               break;
+            }
+         }
+      }
+      return chunk;
+   }
+
+   private static int nextLineStart (ByteBuffer buf, int pos) {
+      int end = buf.limit();
+      while (pos > 0 && pos < end && buf.get(pos-1) != '\n') {
+         pos++;
+      }
+      return pos;
+   }
+
+   /**
+    * Parsed and merged contents of the whole file.
+    */
+   private int myNumVerts;
+   private double[] myVerts;
+   private int myNumTxts;
+   private double[] myTxts;
+   private int myNumNrmls;
+   private double[] myNrmls;
+   private int myNumFaces;
+   private int[] myFaceSizes;
+   private int[] myFaceFlags;
+   private int[] myFaceOffsets;
+   private int[] myFaceGroups;
+   private int[] myIdxs;
+   private ArrayList<String> myGroupNames = new ArrayList<String>();
+   private int myCurrentGroup;
+
+   private static double[] concat (
+      Chunk[] chunks, int nchunks, int which, int size) {
+      double[] vals = new double[size];
+      int k = 0;
+      for (int c=0; c<nchunks; c++) {
+         DynamicDoubleArray src = (which == 0 ? chunks[c].verts :
+                                   which == 1 ? chunks[c].txts :
+                                   chunks[c].nrmls);
+         for (int i=0; i<src.size(); i++) {
+            vals[k++] = src.get(i);
+         }
+      }
+      return vals;
+   }
+
+   private boolean merge (Chunk[] chunks, int nchunks) {
+      int nidxs = 0;
+      for (int c=0; c<nchunks; c++) {
+         Chunk chunk = chunks[c];
+         if (chunk.failed) {
+            return false;
+         }
+         myNumVerts += chunk.numVerts();
+         myNumTxts += chunk.numTxts();
+         myNumNrmls += chunk.numNrmls();
+         myNumFaces += chunk.faceSizes.size();
+         nidxs += chunk.idxs.size();
+      }
+      myVerts = concat (chunks, nchunks, 0, 4*myNumVerts);
+      myTxts = concat (chunks, nchunks, 1, 3*myNumTxts);
+      myNrmls = concat (chunks, nchunks, 2, 3*myNumNrmls);
+
+      myFaceSizes = new int[myNumFaces];
+      myFaceFlags = new int[myNumFaces];
+      myFaceOffsets = new int[myNumFaces];
+      myFaceGroups = new int[myNumFaces];
+      myIdxs = new int[nidxs];
+
+      // the default group always comes first, as in WavefrontReader
+      LinkedHashMap<String,Integer> groupMap =
+         new LinkedHashMap<String,Integer>();
+      groupMap.put (null, 0);
+      myGroupNames.add (null);
+      myCurrentGroup = 0;
+
+      int[] prefix = new int[3];
+      int f = 0;
+      int k = 0;
+      for (int c=0; c<nchunks; c++) {
+         Chunk chunk = chunks[c];
+         int nf = chunk.faceSizes.size();
+         int ng = 0;
+         for (int i=0; i<nf; i++) {
+            while (ng < chunk.groupNames.size() &&
+                   chunk.groupStarts.get(ng) == i) {
+               myCurrentGroup = findGroup (groupMap, chunk.groupNames.get(ng));
+               ng++;
+            }
+            myFaceSizes[f] = chunk.faceSizes.get(i);
+            myFaceFlags[f] = chunk.faceFlags.get(i);
+            myFaceOffsets[f] = k;
+            myFaceGroups[f] = myCurrentGroup;
+            f++;
+            k += 3*chunk.faceSizes.get(i);
+         }
+         while (ng < chunk.groupNames.size()) {
+            myCurrentGroup = findGroup (groupMap, chunk.groupNames.get(ng));
+            ng++;
+         }
+         int kbase = k - chunk.idxs.size();
+         for (int i=0; i<chunk.idxs.size(); i++) {
+            myIdxs[kbase+i] = chunk.idxs.get(i);
+         }
+         for (int i=0; i<chunk.relative.size(); i++) {
+            int loc = chunk.relative.get(i);
+            int idx = (myIdxs[kbase+loc/3] += prefix[loc%3]);
+            if (idx < 0) {
+               // relative index out of range
+               return false;
+            }
+         }
+         prefix[VERTEX_IDX] += chunk.numVerts();
+         prefix[TEXTURE_IDX] += chunk.numTxts();
+         prefix[NORMAL_IDX] += chunk.numNrmls();
+      }
+      // indices out of range cause WavefrontReader to fail
+      for (f=0; f<myNumFaces; f++) {
+         int off = myFaceOffsets[f];
+         for (int j=0; j<myFaceSizes[f]; j++) {
+            int vi = myIdxs[off+3*j];
+            int ti = myIdxs[off+3*j+1];
+            int ni = myIdxs[off+3*j+2];
+            if (vi >= myNumVerts ||
+                ((myFaceFlags[f] & TEXTURE) != 0 && ti >= myNumTxts) ||
+                ((myFaceFlags[f] & NORMAL) != 0 && ni >= myNumNrmls)) {
+               return false;
+            }
+         }
+      }
+      return true;
+   }
+
+   private int findGroup (LinkedHashMap<String,Integer> groupMap, String name) {
+      Integer id = groupMap.get (name);
+      if (id == null) {
+         id = groupMap.size();
+         groupMap.put (name, id);
+         myGroupNames.add (name);
+      }
+      return id;
+   }
+
+   private boolean parse (
+      final ByteBuffer buf, ParallelLoop loop, int nchunks) {
+
+      int size = buf.limit();
+      if (size == 0 || buf.get(size-1) != '\n') {
+         // WavefrontReader's handling of a final unterminated line depends
+         // on its contents
+         return false;
+      }
+      if (loop == null) {
+         nchunks = 1;
+      }
+      final int[] bounds = new int[nchunks+1];
+      int nb = 1;
+      for (int k=1; k<nchunks; k++) {
+         int pos = nextLineStart (buf, (int)(k*(long)size/nchunks));
+         if (pos > bounds[nb-1] && pos < size) {
+            bounds[nb++] = pos;
+         }
+      }
+      bounds[nb] = size;
+      final Chunk[] chunks = new Chunk[nb];
+      ParallelLoop.Body body = new ParallelLoop.Body() {
+         public void run (int start, int end, int worker) {
+            for (int k=start; k<end; k++) {
+               chunks[k] = parseChunk (buf, bounds[k], bounds[k+1]);
+            }
+         }
+      };
+      if (loop != null && nb > 1) {
+         loop.forRange (nb, body);
+      }
+      else {
+         body.run (0, nb, 0);
+      }
+      return merge (chunks, nb);
+   }
+
+   /**
+    * Reads an OBJ mesh from a mapped file, or returns <code>null</code> if
+    * the file should instead be read using {@link WavefrontReader}.
+    *
+    * @param mesh mesh to read into, or <code>null</code>
+    * @param buf buffer containing the file
+    * @param zeroIndexed if <code>true</code>, indices are zero-based
+    * @param loop parallel loop for reading large files, or
+    * <code>null</code>
+    * @param nchunks number of chunks to split the file into
+    */
+   static PolygonalMesh read (
+      PolygonalMesh mesh, ByteBuffer buf, boolean zeroIndexed,
+      ParallelLoop loop, int nchunks) {
+
+      FastObjReader reader = new FastObjReader (zeroIndexed);
+      if (!reader.parse (buf, loop, nchunks)) {
+         return null;
+      }
+      if (mesh == null) {
+         if (!reader.groupHasFaces (reader.myCurrentGroup)) {
+            // WavefrontReader creates a point or polyline mesh
+            return null;
+         }
+         mesh = new PolygonalMesh();
+      }
+      reader.buildMesh (mesh);
+      return mesh;
+   }
+
+   private boolean groupHasFaces (int group) {
+      for (int f=0; f<myNumFaces; f++) {
+         if (myFaceGroups[f] == group) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Returns the faces in the order used by WavefrontReader: by group, in
+    * the order the groups were created, and then in file order.
+    */
+   private int[] getFaceOrder (int group) {
+      int[] order = new int[myNumFaces];
+      int n = 0;
+      for (int g=0; g<myGroupNames.size(); g++) {
+         if (group == -1 || g == group) {
+            for (int f=0; f<myNumFaces; f++) {
+               if (myFaceGroups[f] == g) {
+                  order[n++] = f;
+               }
+            }
+         }
+      }
+      int[] result = new int[n];
+      System.arraycopy (order, 0, result, 0, n);
+      return result;
+   }
+
+   /**
+    * Computes a map from indices to local indices for the entries used by
+    * a set of faces, as done by WavefrontReader for a single group. Unused
+    * entries are mapped to -1. Returns the number of entries used.
+    */
+   private int computeLocalMap (
+      int[] faces, int flag, int offset, int[] indexMap) {
+      boolean[] used = new boolean[indexMap.length];
+      for (int f : faces) {
+         if (flag == 0 || (myFaceFlags[f] & flag) != 0) {
+            for (int j=0; j<myFaceSizes[f]; j++) {
+               used[myIdxs[myFaceOffsets[f]+3*j+offset]] = true;
+            }
+         }
+      }
+      int idx = 0;
+      for (int i=0; i<indexMap.length; i++) {
+         indexMap[i] = (used[i] ? idx++ : -1);
+      }
+      return idx;
+   }
+
+   /**
+    * Collects the texture or normal indices for the faces, with -1 for faces
+    * that do not have them, and maps them through indexMap if it is
+    * non-null.
+    */
+   private int[] getAttributeIndices (
+      int[] faces, int flag, int offset, int[] indexMap) {
+      int cnt = 0;
+      for (int f : faces) {
+         cnt += myFaceSizes[f];
+      }
+      int[] idxs = new int[cnt];
+      int k = 0;
+      for (int f : faces) {
+         for (int j=0; j<myFaceSizes[f]; j++) {
+            if ((myFaceFlags[f] & flag) != 0) {
+               int idx = myIdxs[myFaceOffsets[f]+3*j+offset];
+               idxs[k++] = (indexMap != null ? indexMap[idx] : idx);
+            }
+            else {
+               idxs[k++] = -1;
+            }
+         }
+      }
+      return idxs;
+   }
+
+   private void buildMesh (PolygonalMesh mesh) {
+      // build the mesh as done by WavefrontReader.setMesh()
+      mesh.clear();
+      // a single named group is read by itself; otherwise all faces are read
+      int group = (myGroupNames.size() == 2 ? 1 : -1);
+      String groupName = (group == 1 ? myGroupNames.get(1) : null);
+      int[] faces = getFaceOrder (group);
+
+      int[] vmap = null;
+      int nverts = myNumVerts;
+      if (group != -1) {
+         vmap = new int[myNumVerts];
+         nverts = computeLocalMap (faces, 0, 0, vmap);
+      }
+      for (int i=0; i<myNumVerts; i++) {
+         if (vmap == null || vmap[i] != -1) {
+            Point3d pnt = new Point3d();
+            double w = myVerts[4*i+3];
+            pnt.x = myVerts[4*i]/w;
+            pnt.y = myVerts[4*i+1]/w;
+            pnt.z = myVerts[4*i+2]/w;
+            mesh.addVertex (pnt, /* byReference= */true);
+         }
+      }
+      if (nverts > 0) {
+         for (int f : faces) {
+            int[] idxs = new int[myFaceSizes[f]];
+            for (int j=0; j<idxs.length; j++) {
+               int idx = myIdxs[myFaceOffsets[f]+3*j];
+               idxs[j] = (vmap != null ? vmap[idx] : idx);
+            }
+            mesh.addFace (idxs);
+         }
+      }
+
+      if (myNumTxts > 0) {
+         int[] tmap = null;
+         int ntxts = myNumTxts;
+         if (group != -1) {
+            tmap = new int[myNumTxts];
+            ntxts = computeLocalMap (faces, TEXTURE, 1, tmap);
+         }
+         if (ntxts > 0) {
+            int[] tindices = getAttributeIndices (faces, TEXTURE, 1, tmap);
+            boolean incompleteTexture = false;
+            for (int i=0; i<tindices.length; i++) {
+               if (tindices[i] == -1) {
+                  incompleteTexture = true;
+                  break;
+               }
+            }
+            if (!incompleteTexture) {
+               ArrayList<Vector3d> coords = new ArrayList<Vector3d>(ntxts);
+               for (int i=0; i<myNumTxts; i++) {
+                  if (tmap == null || tmap[i] != -1) {
+                     coords.add (new Vector3d (
+                        myTxts[3*i], myTxts[3*i+1], myTxts[3*i+2]));
+                  }
+               }
+               mesh.setTextureCoords (coords, tindices);
+            }
+         }
+      }
+      if (myNumNrmls > 0) {
+         int[] nmap = null;
+         int nnrmls = myNumNrmls;
+         if (group != -1) {
+            nmap = new int[myNumNrmls];
+            nnrmls = computeLocalMap (faces, NORMAL, 2, nmap);
+         }
+         if (nnrmls > 0) {
+            int[] nindices = getAttributeIndices (faces, NORMAL, 2, nmap);
+            ArrayList<Vector3d> normals = new ArrayList<Vector3d>(nnrmls);
+            for (int i=0; i<myNumNrmls; i++) {
+               if (nmap == null || nmap[i] != -1) {
+                  normals.add (new Vector3d (
+                     myNrmls[3*i], myNrmls[3*i+1], myNrmls[3*i+2]));
+               }
+            }
+            mesh.setNormals (normals, nindices);
+            mesh.setHardEdgesFromNormals();
+         }
+      }
+      mesh.setName (groupName);
+   }
+}
@@ -0,0 +1,592 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+import maspack.concurrency.ParallelLoop;
+import maspack.geometry.PolygonalMesh;
+import maspack.geometry.io.PlyWriter.DataType;
+import maspack.matrix.Point3d;
+import maspack.matrix.Vector3d;
+
+/**
+ * Fast path for reading PLY files, used by {@link FastMeshReader}. The header
+ * is interpreted in the same way as {@link PlyReader}, after which vertex
+ * records are decoded directly from the mapped file (in parallel for binary
+ * files, since their records have a fixed size) and the mesh is built using
+ * the same calls as <code>PlyReader</code>.
+ *
+ * <p>If the file uses a feature that is not handled here, such as
+ * <code>char</code> vertex index lists, <code>null</code> is returned so that
+ * the caller can use <code>PlyReader</code> instead.
+ */
+final class FastPlyReader {
+
+   private static final int VERTEX = 0;
+   private static final int NORMAL = 1;
+   private static final int COLOR = 2;
+   private static final int UNKNOWN = 3;
+
+   private static class Property {
+      int myType;
+      DataType myDataType;
+
+      Property (int type, DataType dtype) {
+         myType = type;
+         myDataType = dtype;
+      }
+
+      int numValues() {
+         return myType == UNKNOWN ? 1 : 3;
+      }
+   }
+
+   private ByteBuffer myBuf;
+   private int myPos;
+   private boolean myAscii;
+
+   private int myNumVerts;
+   private int myNumFaces;
+   private ArrayList<Property> myVertProps = new ArrayList<Property>();
+   private ArrayList<Property> myFaceProps = new ArrayList<Property>();
+   private DataType myFaceSizeType;
+   private DataType myFaceValueType;
+
+   private String myLine;
+   private boolean myLinePushed;
+
+   private FastPlyReader (ByteBuffer buf) {
+      myBuf = buf;
+   }
+
+   /**
+    * Header lines are read as in PlyReader, with '\r' discarded and comments
+    * skipped. Returns false on end of file.
+    */
+   private boolean readLine() {
+      if (myLinePushed) {
+         myLinePushed = false;
+         return true;
+      }
+      int end = myBuf.limit();
+      do {
+         StringBuilder sb = new StringBuilder();
+         int c = -1;
+         while (myPos < end) {
+            c = myBuf.get(myPos++) & 0xff;
+            if (c == '\r') {
+               continue;
+            }
+            else if (c == '\n') {
+               break;
+            }
+            sb.append ((char)c);
+         }
+         if (c != '\n') {
+            return false;
+         }
+         myLine = sb.toString();
+      }
+      while (myLine.startsWith ("comment") || myLine.startsWith ("obj_info"));
+      return true;
+   }
+
+   private static DataType parseDataType (String str) {
+      for (DataType type : DataType.values()) {
+         if (str.equals (type.toString().toLowerCase())) {
+            return type;
+         }
+      }
+      return null;
+   }
+
+   private boolean scanHeaderProperties (String typeStr, String... names) {
+      for (String name : names) {
+         if (!readLine() || !myLine.startsWith ("property")) {
+            return false;
+         }
+         String[] parts = myLine.split ("\\s+", 3);
+         if (parts.length < 3 ||
+             !parts[1].equals (typeStr) || !parts[2].equals (name)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private boolean scanProperties (ArrayList<Property> props) {
+      while (true) {
+         if (!readLine()) {
+            return false;
+         }
+         if (!myLine.startsWith ("property")) {
+            break;
+         }
+         String[] parts = myLine.split ("\\s+", 3);
+         if (parts.length < 3) {
+            return false;
+         }
+         String typeStr = parts[1];
+         String propStr = parts[2];
+         DataType dataType = parseDataType (typeStr);
+         if (dataType == null) {
+            return false;
+         }
+         if (propStr.equals ("x")) {
+            if (!scanHeaderProperties (typeStr, "y", "z")) {
+               return false;
+            }
+            props.add (new Property (VERTEX, dataType));
+         }
+         else if (propStr.equals ("nx")) {
+            if (!scanHeaderProperties (typeStr, "ny", "nz")) {
+               return false;
+            }
+            props.add (new Property (NORMAL, dataType));
+         }
+         else if (propStr.equals ("red")) {
+            if (!scanHeaderProperties (typeStr, "green", "blue")) {
+               return false;
+            }
+            props.add (new Property (COLOR, dataType));
+         }
+         else {
+            props.add (new Property (UNKNOWN, dataType));
+         }
+      }
+      myLinePushed = true;
+      return true;
+   }
+
+   private static int parseCount (String str) {
+      try {
+         return Integer.parseInt (str);
+      }
+      catch (NumberFormatException e) {
+         return -1;
+      }
+   }
+
+   private boolean parseHeader() {
+      if (!readLine() || !myLine.equals ("ply") || !readLine()) {
+         return false;
+      }
+      ByteOrder order = ByteOrder.BIG_ENDIAN;
+      if (myLine.startsWith ("format ascii")) {
+         myAscii = true;
+      }
+      else if (myLine.startsWith ("format binary_little_endian")) {
+         order = ByteOrder.LITTLE_ENDIAN;
+      }
+      else if (!myLine.startsWith ("format binary_big_endian")) {
+         return false;
+      }
+      myBuf.order (order);
+
+      String key = "element vertex ";
+      if (!readLine() || !myLine.startsWith (key)) {
+         return false;
+      }
+      myNumVerts = parseCount (myLine.substring (key.length()));
+      if (myNumVerts < 0 || !scanProperties (myVertProps) || !readLine()) {
+         return false;
+      }
+      key = "element face ";
+      if (myLine.startsWith (key)) {
+         myNumFaces = parseCount (myLine.substring (key.length()));
+         if (myNumFaces < 0 || !readLine()) {
+            return false;
+         }
+         String tline = myLine.trim();
+         if (!tline.startsWith ("property list") ||
+             (!tline.endsWith ("vertex_indices") &&
+              !tline.endsWith ("vertex_index"))) {
+            return false;
+         }
+         String[] parts = tline.split ("\\s+", 5);
+         if (parts.length < 5 ||
+             !parts[0].equalsIgnoreCase ("property") ||
+             !parts[1].equalsIgnoreCase ("list")) {
+            return false;
+         }
+         myFaceSizeType = parseDataType (parts[2]);
+         myFaceValueType = parseDataType (parts[3]);
+         if (myFaceSizeType == null || myFaceValueType == null ||
+             !scanProperties (myFaceProps)) {
+            return false;
+         }
+      }
+      else if (myLine.equals ("end_header")) {
+         myLinePushed = true;
+      }
+      else {
+         return false;
+      }
+      return readLine() && myLine.startsWith ("end_header");
+   }
+
+   private static int dataSize (DataType type) {
+      switch (type) {
+         case CHAR:
+         case UCHAR: return 1;
+         case SHORT:
+         case USHORT: return 2;
+         case INT:
+         case UINT:
+         case FLOAT: return 4;
+         case DOUBLE: return 8;
+         default: {
+            return -1;
+         }
+      }
+   }
+
+   private static double getNumber (ByteBuffer buf, int off, DataType type) {
+      switch (type) {
+         case CHAR: return buf.get (off);
+         case UCHAR: return buf.get (off) & 0xff;
+         case SHORT: return buf.getShort (off);
+         case USHORT: return buf.getShort (off) & 0xffff;
+         case INT: return buf.getInt (off);
+         case UINT: return buf.getInt (off) & 0xffffffffL;
+         case FLOAT: return buf.getFloat (off);
+         case DOUBLE: return buf.getDouble (off);
+         default: {
+            throw new IllegalArgumentException (
+               "Unimplemented data type '"+type+"'");
+         }
+      }
+   }
+
+   /**
+    * Returns <code>true</code> if vertex index lists of the specified type
+    * can be read in the same way as PlyReader.
+    */
+   private static boolean isSupportedIndexType (DataType type, boolean ascii) {
+      switch (type) {
+         case INT:
+         case UINT:
+         case FLOAT:
+         case DOUBLE: return true;
+         case SHORT:
+         case USHORT: return !ascii;
+         default: {
+            // PlyReader reads binary char lists as 2-byte chars
+            return false;
+         }
+      }
+   }
+
+   /**
+    * Per-vertex values, stored in the order in which PlyReader collects them.
+    */
+   private double[] myPnts;
+   private double[] myNrmls;
+   private double[] myColors;
+   private int myPntsPerVertex;
+   private int myNrmlsPerVertex;
+   private int myColorsPerVertex;
+
+   private int[][] myFaces;
+   private ArrayList<float[]> myFaceColors = new ArrayList<float[]>();
+
+   private void allocateVertexData() {
+      for (Property prop : myVertProps) {
+         switch (prop.myType) {
+            case VERTEX: myPntsPerVertex++; break;
+            case NORMAL: myNrmlsPerVertex++; break;
+            case COLOR: myColorsPerVertex++; break;
+            default:
+         }
+      }
+      myPnts = new double[3*myPntsPerVertex*myNumVerts];
+      myNrmls = new double[3*myNrmlsPerVertex*myNumVerts];
+      myColors = new double[3*myColorsPerVertex*myNumVerts];
+   }
+
+   private boolean readBinaryVertices (ParallelLoop loop) {
+      int recSize = 0;
+      for (Property prop : myVertProps) {
+         recSize += prop.numValues()*dataSize(prop.myDataType);
+      }
+      if (myPos + (long)recSize*myNumVerts > myBuf.limit()) {
+         return false;
+      }
+      final int start = myPos;
+      final int size = recSize;
+      final ByteBuffer buf = myBuf;
+      ParallelLoop.Body body = new ParallelLoop.Body() {
+         public void run (int i0, int i1, int worker) {
+            for (int i=i0; i<i1; i++) {
+               int off = start + i*size;
+               int kp = 3*myPntsPerVertex*i;
+               int kn = 3*myNrmlsPerVertex*i;
+               int kc = 3*myColorsPerVertex*i;
+               for (Property prop : myVertProps) {
+                  DataType type = prop.myDataType;
+                  int dsize = dataSize (type);
+                  double[] vals;
+                  int k;
+                  switch (prop.myType) {
+                     case VERTEX: vals = myPnts; k = kp; kp += 3; break;
+                     case NORMAL: vals = myNrmls; k = kn; kn += 3; break;
+                     case COLOR: vals = myColors; k = kc; kc += 3; break;
+                     default: {
+                        off += dsize;
+                        continue;
+                     }
+                  }
+                  for (int j=0; j<3; j++) {
+                     vals[k+j] = getNumber (buf, off, type);
+                     off += dsize;
+                  }
+               }
+            }
+         }
+      };
+      if (loop != null) {
+         loop.forRange (myNumVerts, 4096, body);
+      }
+      else {
+         body.run (0, myNumVerts, 0);
+      }
+      myPos += recSize*myNumVerts;
+      return true;
+   }
+
+   private boolean readBinaryFaces() {
+      if (myNumFaces == 0) {
+         myFaces = new int[0][];
+         return true;
+      }
+      int end = myBuf.limit();
+      int ssize = dataSize (myFaceSizeType);
+      int vsize = dataSize (myFaceValueType);
+      myFaces = new int[myNumFaces][];
+      for (int i=0; i<myNumFaces; i++) {
+         if (myPos + ssize > end) {
+            return false;
+         }
+         int n;
+         if (myFaceSizeType == DataType.UINT) {
+            n = myBuf.getInt (myPos);
+         }
+         else {
+            n = (int)getNumber (myBuf, myPos, myFaceSizeType);
+         }
+         myPos += ssize;
+         if (n < 0 || myPos + (long)n*vsize > end) {
+            return false;
+         }
+         int[] idxs = new int[n];
+         for (int j=0; j<n; j++) {
+            switch (myFaceValueType) {
+               case INT:
+               case UINT: idxs[j] = myBuf.getInt (myPos); break;
+               case SHORT: idxs[j] = myBuf.getShort (myPos); break;
+               case USHORT: idxs[j] = myBuf.getShort (myPos) & 0xffff; break;
+               case FLOAT: idxs[j] = (int)myBuf.getFloat (myPos); break;
+               case DOUBLE: idxs[j] = (int)myBuf.getDouble (myPos); break;
+               default:
+            }
+            myPos += vsize;
+         }
+         myFaces[i] = idxs;
+         for (Property prop : myFaceProps) {
+            int dsize = dataSize (prop.myDataType);
+            if (myPos + (long)prop.numValues()*dsize > end) {
+               return false;
+            }
+            if (prop.myType == COLOR) {
+               float[] color = new float[3];
+               for (int j=0; j<3; j++) {
+                  color[j] = (float)getNumber (
+                     myBuf, myPos+j*dsize, prop.myDataType)/255f;
+               }
+               myFaceColors.add (color);
+            }
+            myPos += prop.numValues()*dsize;
+         }
+      }
+      return true;
+   }
+
+   private boolean readAsciiVertices (ByteTokenScanner scanner) {
+      int kp = 0;
+      int kn = 0;
+      int kc = 0;
+      for (int i=0; i<myNumVerts; i++) {
+         for (Property prop : myVertProps) {
+            int nvals = prop.numValues();
+            for (int j=0; j<nvals; j++) {
+               scanner.skipWhitespace();
+               if (!scanner.scanNumber (-1)) {
+                  return false;
+               }
+               switch (prop.myType) {
+                  case VERTEX: myPnts[kp++] = scanner.nval; break;
+                  case NORMAL: myNrmls[kn++] = scanner.nval; break;
+                  case COLOR: myColors[kc++] = scanner.nval; break;
+                  default:
+               }
+            }
+         }
+      }
+      return true;
+   }
+
+   private boolean readAsciiFaces (ByteTokenScanner scanner) {
+      myFaces = new int[myNumFaces][];
+      for (int i=0; i<myNumFaces; i++) {
+         scanner.skipWhitespace();
+         if (!scanner.scanInt (-1) || scanner.lval < 0) {
+            return false;
+         }
+         int[] idxs = new int[(int)scanner.lval];
+         for (int j=0; j<idxs.length; j++) {
+            scanner.skipWhitespace();
+            if (myFaceValueType == DataType.INT ||
+                myFaceValueType == DataType.UINT) {
+               if (!scanner.scanInt (-1)) {
+                  return false;
+               }
+               idxs[j] = (int)scanner.lval;
+            }
+            else {
+               if (!scanner.scanNumber (-1)) {
+                  return false;
+               }
+               if (myFaceValueType == DataType.FLOAT) {
+                  idxs[j] = (int)(float)scanner.nval;
+               }
+               else {
+                  idxs[j] = (int)scanner.nval;
+               }
+            }
+         }
+         myFaces[i] = idxs;
+         for (Property prop : myFaceProps) {
+            float[] color = new float[3];
+            for (int j=0; j<prop.numValues(); j++) {
+               scanner.skipWhitespace();
+               if (!scanner.scanNumber (-1)) {
+                  return false;
+               }
+               color[j] = (float)scanner.nval/255f;
+            }
+            if (prop.myType == COLOR) {
+               myFaceColors.add (color);
+            }
+         }
+      }
+      return true;
+   }
+
+   private boolean readData (ParallelLoop loop) {
+      if (!parseHeader()) {
+         return false;
+      }
+      if (myNumFaces > 0 &&
+          !isSupportedIndexType (myFaceValueType, myAscii)) {
+         return false;
+      }
+      if (myNumFaces > 0 && !myAscii &&
+          (myFaceSizeType == DataType.FLOAT ||
+           myFaceSizeType == DataType.DOUBLE)) {
+         // PlyReader does not accept floating point list sizes
+         return false;
+      }
+      allocateVertexData();
+      if (myAscii) {
+         ByteTokenScanner scanner =
+            new ByteTokenScanner (myBuf, myPos, myBuf.limit());
+         return readAsciiVertices (scanner) && readAsciiFaces (scanner);
+      }
+      else {
+         return readBinaryVertices (loop) && readBinaryFaces();
+      }
+   }
+
+   /**
+    * Reads a PLY mesh from a mapped file, or returns <code>null</code> if
+    * the file should instead be read using {@link PlyReader}.
+    *
+    * @param mesh mesh to read into, or <code>null</code>
+    * @param buf buffer containing the file
+    * @param loop parallel loop for reading large files, or
+    * <code>null</code>
+    */
+   static PolygonalMesh read (
+      PolygonalMesh mesh, ByteBuffer buf, ParallelLoop loop) {
+
+      FastPlyReader reader = new FastPlyReader (buf);
+      if (!reader.readData (loop)) {
+         return null;
+      }
+      if (mesh == null) {
+         if (reader.myNumFaces == 0) {
+            // PlyReader creates a PointMesh in this case
+            return null;
+         }
+         mesh = new PolygonalMesh();
+      }
+      reader.buildMesh (mesh);
+      return mesh;
+   }
+
+   private void buildMesh (PolygonalMesh pmesh) {
+      // build the mesh using the same calls as PlyReader
+      int nverts = myPntsPerVertex*myNumVerts;
+      for (int i=0; i<nverts; i++) {
+         pmesh.addVertex (
+            new Point3d (myPnts[3*i], myPnts[3*i+1], myPnts[3*i+2]));
+      }
+      int icnt = 0;
+      for (int[] idxs : myFaces) {
+         pmesh.addFace (idxs);
+         icnt += idxs.length;
+      }
+      int nnrmls = myNrmlsPerVertex*myNumVerts;
+      if (nnrmls > 0) {
+         ArrayList<Vector3d> nrmls = new ArrayList<Vector3d>(nnrmls);
+         for (int i=0; i<nnrmls; i++) {
+            nrmls.add (
+               new Vector3d (myNrmls[3*i], myNrmls[3*i+1], myNrmls[3*i+2]));
+         }
+         // PlyReader assumes one normal per vertex
+         int k = 0;
+         int[] normalIndices = new int[icnt];
+         for (int i=0; i<myFaces.length; i++) {
+            int[] idxs = pmesh.getFaces().get(i).getVertexIndices();
+            for (int j=0; j<idxs.length; j++) {
+               normalIndices[k++] = idxs[j];
+            }
+         }
+         pmesh.setNormals (nrmls, normalIndices);
+         pmesh.setHardEdgesFromNormals();
+      }
+      if (myFaceColors.size() > 0) {
+         pmesh.setFeatureColoringEnabled();
+         for (int i=0; i<myFaceColors.size(); i++) {
+            pmesh.setColor (i, myFaceColors.get(i));
+         }
+      }
+      int ncolors = myColorsPerVertex*myNumVerts;
+      if (ncolors > 0) {
+         pmesh.setVertexColoringEnabled();
+         for (int i=0; i<ncolors; i++) {
+            pmesh.setColor (i, new float[] {
+                  (float)myColors[3*i]/255f,
+                  (float)myColors[3*i+1]/255f,
+                  (float)myColors[3*i+2]/255f });
+         }
+      }
+   }
+}
@@ -0,0 +1,407 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import maspack.concurrency.ParallelLoop;
+import maspack.geometry.PolygonalMesh;
+import maspack.matrix.Point3d;
+
+/**
+ * Fast path for reading STL files, used by {@link FastMeshReader}. Binary
+ * facets are decoded in parallel directly from the mapped file, and ASCII
+ * files are split into chunks at facet boundaries and parsed in
+ * parallel. Vertices are then merged using a {@link VertexWelder}, which
+ * reproduces the merging done by {@link StlReader}. Merging is done serially,
+ * since the result depends on the order in which points are added.
+ *
+ * <p>ASCII input is accepted only if it has the standard layout produced by
+ * most exporters. For anything else, <code>null</code> is returned so that
+ * the caller can use {@link StlReader} instead.
+ */
+final class FastStlReader {
+
+   private static final int FACET_SIZE = 50;
+   private static final int HEADER_SIZE = 84;
+
+   /**
+    * Points and face sizes parsed from a section of an ASCII file.
+    */
+   private static class Chunk {
+      double[] pnts = new double[3*256];
+      int npnts;
+      int[] faceSizes = new int[64];
+      int nfaces;
+      boolean ended;    // "endsolid" seen
+      boolean failed;
+
+      void addPoint (double x, double y, double z) {
+         if (3*npnts+3 > pnts.length) {
+            pnts = Arrays.copyOf (pnts, 2*pnts.length);
+         }
+         pnts[3*npnts] = x;
+         pnts[3*npnts+1] = y;
+         pnts[3*npnts+2] = z;
+         npnts++;
+      }
+
+      void addFace (int size) {
+         if (nfaces == faceSizes.length) {
+            faceSizes = Arrays.copyOf (faceSizes, 2*nfaces);
+         }
+         faceSizes[nfaces++] = size;
+      }
+   }
+
+   private FastStlReader() {
+   }
+
+   static boolean isAscii (ByteBuffer buf) {
+      byte[] solid = new byte[] { 's', 'o', 'l', 'i', 'd' };
+      if (buf.limit() < solid.length) {
+         return false;
+      }
+      for (int i=0; i<solid.length; i++) {
+         if (buf.get(i) != solid[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Reads an STL mesh from a mapped file, or returns <code>null</code> if
+    * the file should instead be read using {@link StlReader}.
+    *
+    * @param mesh mesh to read into, or <code>null</code>
+    * @param buf buffer containing the file
+    * @param tol tolerance for merging vertices
+    * @param loop parallel loop for reading large files, or
+    * <code>null</code>
+    * @param nchunks number of chunks to split ASCII files into
+    */
+   static PolygonalMesh read (
+      PolygonalMesh mesh, ByteBuffer buf, double tol,
+      ParallelLoop loop, int nchunks) {
+
+      double[] pnts;
+      int npnts;
+      int[] faceSizes;
+      int nfaces;
+      if (isAscii (buf)) {
+         Chunk chunk = readAscii (buf, loop, nchunks);
+         if (chunk == null) {
+            return null;
+         }
+         pnts = chunk.pnts;
+         npnts = chunk.npnts;
+         faceSizes = chunk.faceSizes;
+         nfaces = chunk.nfaces;
+      }
+      else {
+         if (buf.limit() < HEADER_SIZE) {
+            return null;
+         }
+         buf.order (ByteOrder.LITTLE_ENDIAN);
+         long numFacets = buf.getInt (80) & 0xffffffffL;
+         if (numFacets > (Integer.MAX_VALUE/9) ||
+             HEADER_SIZE + FACET_SIZE*numFacets > buf.limit()) {
+            // StlReader will report the error
+            return null;
+         }
+         nfaces = (int)numFacets;
+         pnts = readBinaryPoints (buf, nfaces, loop);
+         npnts = 3*nfaces;
+         faceSizes = null;
+      }
+
+      VertexWelder welder = new VertexWelder (
+         tol, VertexWelder.computeMinCellSize (pnts, npnts), npnts);
+      int[] idxmap = new int[npnts];
+      for (int i=0; i<npnts; i++) {
+         idxmap[i] = welder.add (pnts[3*i], pnts[3*i+1], pnts[3*i+2]);
+      }
+      double[] wpnts = welder.getPoints();
+      Point3d[] vertices = new Point3d[welder.numPoints()];
+      for (int i=0; i<vertices.length; i++) {
+         vertices[i] = new Point3d (wpnts[3*i], wpnts[3*i+1], wpnts[3*i+2]);
+      }
+      int[][] faceIndices = new int[nfaces][];
+      int k = 0;
+      for (int i=0; i<nfaces; i++) {
+         int size = (faceSizes != null ? faceSizes[i] : 3);
+         int[] idxs = new int[size];
+         for (int j=0; j<size; j++) {
+            idxs[j] = idxmap[k++];
+         }
+         faceIndices[i] = idxs;
+      }
+      if (mesh == null) {
+         mesh = new PolygonalMesh();
+      }
+      else {
+         mesh.clear();
+      }
+      mesh.set (vertices, faceIndices);
+      return mesh;
+   }
+
+   private static double[] readBinaryPoints (
+      final ByteBuffer buf, int nfacets, ParallelLoop loop) {
+
+      final double[] pnts = new double[9*nfacets];
+      ParallelLoop.Body body = new ParallelLoop.Body() {
+         public void run (int start, int end, int worker) {
+            for (int i=start; i<end; i++) {
+               // skip the normal
+               int off = HEADER_SIZE + FACET_SIZE*i + 12;
+               for (int j=0; j<9; j++) {
+                  pnts[9*i+j] = buf.getFloat (off+4*j);
+               }
+            }
+         }
+      };
+      if (loop != null) {
+         loop.forRange (nfacets, 4096, body);
+      }
+      else {
+         body.run (0, nfacets, 0);
+      }
+      return pnts;
+   }
+
+   /**
+    * Finds the start of the first line at or after <code>pos</code> that
+    * begins with the keyword "facet".
+    */
+   private static int findFacetLine (ByteBuffer buf, int pos) {
+      int end = buf.limit();
+      // advance to the start of a line
+      while (pos > 0 && pos < end && buf.get(pos-1) != '\n') {
+         pos++;
+      }
+      ByteTokenScanner scanner = new ByteTokenScanner (buf, pos, end);
+      while (!scanner.atEnd()) {
+         int start = scanner.myPos;
+         scanner.skipBlanks();
+         String word = scanner.scanWord();
+         if (word != null && word.equalsIgnoreCase ("facet")) {
+            return start;
+         }
+         scanner.skipLine();
+      }
+      return end;
+   }
+
+   private static Chunk readAscii (
+      final ByteBuffer buf, ParallelLoop loop, int nchunks) {
+
+      int size = buf.limit();
+      if (loop == null) {
+         nchunks = 1;
+      }
+      final int[] bounds = new int[nchunks+1];
+      int nb = 1;
+      for (int k=1; k<nchunks; k++) {
+         int pos = findFacetLine (buf, (int)(k*(long)size/nchunks));
+         if (pos > bounds[nb-1] && pos < size) {
+            bounds[nb++] = pos;
+         }
+      }
+      bounds[nb] = size;
+      final Chunk[] chunks = new Chunk[nb];
+      ParallelLoop.Body body = new ParallelLoop.Body() {
+         public void run (int start, int end, int worker) {
+            for (int k=start; k<end; k++) {
+               chunks[k] = parseAscii (buf, bounds[k], bounds[k+1], k == 0);
+            }
+         }
+      };
+      if (loop != null && nb > 1) {
+         loop.forRange (nb, body);
+      }
+      else {
+         body.run (0, nb, 0);
+      }
+      // StlReader stops at "endsolid", ignoring anything after it
+      int last = -1;
+      for (int k=0; k<nb; k++) {
+         if (chunks[k].failed) {
+            return null;
+         }
+         if (chunks[k].ended) {
+            last = k;
+            break;
+         }
+      }
+      if (last == -1) {
+         return null;
+      }
+      if (last == 0) {
+         return chunks[0];
+      }
+      Chunk all = new Chunk();
+      int npnts = 0;
+      int nfaces = 0;
+      for (int k=0; k<=last; k++) {
+         npnts += chunks[k].npnts;
+         nfaces += chunks[k].nfaces;
+      }
+      all.pnts = new double[3*npnts];
+      all.faceSizes = new int[nfaces];
+      for (int k=0; k<=last; k++) {
+         Chunk chunk = chunks[k];
+         System.arraycopy (
+            chunk.pnts, 0, all.pnts, 3*all.npnts, 3*chunk.npnts);
+         System.arraycopy (
+            chunk.faceSizes, 0, all.faceSizes, all.nfaces, chunk.nfaces);
+         all.npnts += chunk.npnts;
+         all.nfaces += chunk.nfaces;
+      }
+      all.ended = true;
+      return all;
+   }
+
+   /**
+    * Checks that only blanks remain on the current line, and if so advances
+    * to the next line.
+    */
+   private static boolean endLine (ByteTokenScanner scanner) {
+      if (!scanner.atEol() || scanner.atEnd()) {
+         return false;
+      }
+      scanner.skipLine();
+      return true;
+   }
+
+   private static boolean scanKeyword (
+      ByteTokenScanner scanner, String keyword) {
+      scanner.skipBlanks();
+      String word = scanner.scanWord();
+      return word != null && word.equalsIgnoreCase (keyword);
+   }
+
+   private static boolean scanPoint (ByteTokenScanner scanner, double[] xyz) {
+      for (int i=0; i<3; i++) {
+         scanner.skipBlanks();
+         if (!scanner.scanNumber (-1)) {
+            return false;
+         }
+         xyz[i] = scanner.nval;
+      }
+      return true;
+   }
+
+   private static boolean parseFacet (ByteTokenScanner scanner, Chunk chunk) {
+      double[] xyz = new double[3];
+      if (!scanKeyword (scanner, "normal") || !scanPoint (scanner, xyz) ||
+          !endLine (scanner)) {
+         return false;
+      }
+      // StlReader reads this line as raw text
+      int start = scanner.myPos;
+      scanner.skipLine();
+      String line = scanner.getString (start, scanner.myPos);
+      if (!line.toLowerCase().trim().equals ("outer loop")) {
+         return false;
+      }
+      int size = 0;
+      while (true) {
+         scanner.skipBlanks();
+         String word = scanner.scanWord();
+         if (word == null) {
+            return false;
+         }
+         else if (word.equalsIgnoreCase ("vertex")) {
+            if (!scanPoint (scanner, xyz) || !endLine (scanner)) {
+               return false;
+            }
+            chunk.addPoint (xyz[0], xyz[1], xyz[2]);
+            size++;
+         }
+         else if (word.equalsIgnoreCase ("endloop")) {
+            break;
+         }
+         else {
+            return false;
+         }
+      }
+      if (!endLine (scanner) ||
+          !scanKeyword (scanner, "endfacet") || !endLine (scanner)) {
+         return false;
+      }
+      chunk.addFace (size);
+      return true;
+   }
+
+   /**
+    * Skips the rest of the "solid" line, checking that it contains nothing
+    * that ReaderTokenizer would treat specially, such as quotes, comments
+    * or hex numbers.
+    */
+   private static boolean checkNameLine (ByteTokenScanner scanner) {
+      int prev = ' ';
+      while (!scanner.atEnd() && !ByteTokenScanner.isEol(scanner.peek())) {
+         int c = scanner.peek();
+         if (c == '"' || c == '\'' || c == '#' || c == '/' ||
+             ((c == 'x' || c == 'X') && prev == '0')) {
+            return false;
+         }
+         prev = c;
+         scanner.myPos++;
+      }
+      return true;
+   }
+
+   private static Chunk parseAscii (
+      ByteBuffer buf, int start, int end, boolean first) {
+
+      Chunk chunk = new Chunk();
+      ByteTokenScanner scanner = new ByteTokenScanner (buf, start, end);
+      if (first) {
+         // solid name, which StlReader does not use when reading files
+         if (!scanKeyword (scanner, "solid")) {
+            chunk.failed = true;
+            return chunk;
+         }
+         if (!checkNameLine (scanner)) {
+            chunk.failed = true;
+            return chunk;
+         }
+      }
+      while (true) {
+         scanner.skipWhitespace();
+         if (scanner.atEnd()) {
+            break;
+         }
+         String word = scanner.scanWord();
+         if (word == null) {
+            chunk.failed = true;
+            break;
+         }
+         word = word.toLowerCase();
+         if (word.equals ("facet")) {
+            if (!parseFacet (scanner, chunk)) {
+               chunk.failed = true;
+               break;
+            }
+         }
+         else if (word.equals ("endsolid") || word.equals ("end")) {
+            chunk.ended = true;
+            break;
+         }
+         else {
+            chunk.failed = true;
+            break;
+         }
+      }
+      return chunk;
+   }
+}
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 
+import maspack.geometry.GeometryCache;
 import maspack.geometry.MeshBase;
 import maspack.geometry.io.MeshWriter.DataFormat;
 import maspack.geometry.io.MeshWriter.FloatType;
@@ -15,6 +16,8 @@ public class GenericMeshReader implements MeshReader {
    private static ArrayList<MeshReaderFactory> factoryList = findFactoryList();
    protected MeshReader myReader;
 
+   private static boolean myFastReadingEnabled = true;
+
    DataFormat myDataFormat = null;
    FloatType myFloatType = null;
    int myLastPrecision = -1;
@@ -166,6 +169,19 @@ public class GenericMeshReader implements MeshReader {
       }
    }
 
+   /**
+    * Enables or disables the use of {@link FastMeshReader} by the static
+    * <code>readMesh</code> methods for OBJ, STL and PLY files. This gives
+    * the same results, but is faster for large files.
+    */
+   public static void setFastReadingEnabled (boolean enable) {
+      myFastReadingEnabled = enable;
+   }
+
+   public static boolean getFastReadingEnabled () {
+      return myFastReadingEnabled;
+   }
+
    public static MeshBase readMesh (String fileName) throws IOException {
       return readMesh (new File(fileName));
    }
@@ -175,8 +191,23 @@ public class GenericMeshReader implements MeshReader {
    }
 
    public static MeshBase readMesh (File file, MeshBase mesh) throws IOException {
-      GenericMeshReader reader = new GenericMeshReader (file);
-      return reader.readMesh (mesh); 
+      if (GeometryCache.isEnabled()) {
+         MeshBase cached = GeometryCache.getMesh (file, mesh);
+         if (cached != null) {
+            return cached;
+         }
+      }
+      MeshBase newMesh;
+      if (myFastReadingEnabled && FastMeshReader.isSupported (file)) {
+         newMesh = FastMeshReader.read (file, mesh);
+      }
+      else {
+         GenericMeshReader reader = new GenericMeshReader (file);
+         newMesh = reader.readMesh (mesh);
+         reader.close();
+      }
+      GeometryCache.putMesh (file, newMesh);
+      return newMesh;
    }
 
 }
@@ -11,15 +11,10 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 
-import maspack.geometry.AABBTree;
-import maspack.geometry.BVNode;
-import maspack.geometry.Boundable;
 import maspack.geometry.MeshBase;
 // import maspack.geometry.KDTree3d;
 import maspack.geometry.PolygonalMesh;
-import maspack.matrix.Matrix3d;
 import maspack.matrix.Point3d;
-import maspack.matrix.Vector3d;
 import maspack.util.ReaderTokenizer;
 
 /**
@@ -364,91 +359,29 @@ public class StlReader extends MeshReaderBase {
       return faceNodes;
    }
    
-   private static class PointBoundable implements Boundable {
-
-      Point3d pnt;
-      int idx;
-      
-      public PointBoundable(Point3d pnt, int idx) {
-         this.pnt = pnt;
-         this.idx = idx;
-      }
-      
-      @Override
-      public int numPoints () {
-         return 1;
-      }
-
-      @Override
-      public Point3d getPoint (int idx) {
-         return pnt;
-      }
-
-      @Override
-      public void computeCentroid (Vector3d centroid) {
-         centroid.set (pnt);
-      }
-
-      @Override
-      public void updateBounds (Vector3d min, Vector3d max) {
-         pnt.updateBounds (min, max);
-      }
-
-      @Override
-      public double computeCovariance (Matrix3d C) {
-         return -1;
-      }
-   }
-   
    private static void mergeNearbyNodes(ArrayList<Point3d> nodes, ArrayList<ArrayList<Integer>> faces, double tol) {
       
-      // build bounding volume tree if points
-      AABBTree tree = new AABBTree ();
-      tree.setMargin (tol);
-      tree.setMaxLeafElements (4);
-      ArrayList<PointBoundable> nb = new ArrayList<>(nodes.size ());
+      // hash points into a grid, mapping each to the earliest nearby point
+      double[] pnts = new double[3*nodes.size ()];
       for (int i=0; i<nodes.size (); ++i) {
-         nb.add (new PointBoundable (nodes.get (i), i));
-      }
-      tree.build (nb);
-      
-      // map each point to nearest
+         Point3d p = nodes.get (i);
+         pnts[3*i] = p.x;
+         pnts[3*i+1] = p.y;
+         pnts[3*i+2] = p.z;
+      }
+      VertexWelder welder = new VertexWelder (
+         tol, VertexWelder.computeMinCellSize (pnts, nodes.size ()),
+         nodes.size ());
       int[] idxmap = new int[nodes.size ()];
       for (int i=0; i<idxmap.length; ++i) {
-         idxmap[i] = -1;
+         idxmap[i] = welder.add (pnts[3*i], pnts[3*i+1], pnts[3*i+2]);
       }
       
-      ArrayList<BVNode> bvnodes = new ArrayList<>();
-      ArrayList<Point3d> npoints = new ArrayList<>();
-      
-      int nidx = 0;
-      for (int i=0; i<idxmap.length; ++i) {
-         if (idxmap[i] < 0) {
-            idxmap[i] = nidx;
-            
-            Point3d p = nodes.get (i);
-            npoints.add (new Point3d(p));
-            
-            // find other nearby nodes
-            bvnodes.clear ();
-            tree.intersectPoint (bvnodes, p);
-            for (BVNode node : bvnodes) {
-               for (Boundable b : node.getElements ()) {
-                  PointBoundable pb = (PointBoundable)b;
-                  // mark any nearby nodes
-                  if (idxmap[pb.idx] < 0) {
-                     if (pb.pnt.distance (p) < tol) {
-                        idxmap[pb.idx] = nidx;
-                     }
-                  } // unmarked
-               } // boundables
-            } // nodes
-            nidx++;  // next new node
-         } // unmarked
-      } // nodes
-      
+      double[] wpnts = welder.getPoints ();
       nodes.clear ();
-      nodes.addAll (npoints);
+      for (int i=0; i<welder.numPoints (); ++i) {
+         nodes.add (new Point3d (wpnts[3*i], wpnts[3*i+1], wpnts[3*i+2]));
+      }
       
       for (ArrayList<Integer> face : faces) {
          for (int j=0; j<face.size (); ++j) {
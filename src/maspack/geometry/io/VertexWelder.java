@@ -0,0 +1,232 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry.io;
+
+import java.util.Arrays;
+
+/**
+ * Merges points that lie within a given tolerance of each other, using a
+ * spatial hash keyed on primitive cell coordinates. Points are added one at
+ * a time, and each is mapped to the earliest previously added
+ * representative point whose distance to it is less than the tolerance, or
+ * else becomes a new representative. This is the same greedy merging that
+ * {@link StlReader} has always performed, so the results are identical.
+ */
+final class VertexWelder {
+
+   private double myTol;
+   private double myCellSize;
+
+   // representative points, stored as x, y, z triples
+   private double[] myPnts;
+   private int myNumPnts;
+   // next representative in the same cell, or -1
+   private int[] myNext;
+
+   // open-addressed hash table of cells, with the cell coordinates and
+   // first representative for each slot
+   private long[] myCellX;
+   private long[] myCellY;
+   private long[] myCellZ;
+   private int[] myHeads;
+   private int myNumCells;
+
+   /**
+    * Creates a new welder.
+    *
+    * @param tol points closer than this are merged
+    * @param minCellSize minimum size of the hash cells; should be small
+    * compared to the typical distance between distinct points
+    * @param capacity expected number of points
+    */
+   VertexWelder (double tol, double minCellSize, int capacity) {
+      myTol = tol;
+      myCellSize = Math.max (4*tol, minCellSize);
+      capacity = Math.max (capacity, 16);
+      myPnts = new double[3*capacity];
+      myNext = new int[capacity];
+      if (tol > 0) {
+         int size = 16;
+         while (size < capacity) {
+            size *= 2;
+         }
+         allocateTable (size);
+      }
+   }
+
+   /**
+    * Returns a minimum cell size appropriate for a set of points, based on
+    * their bounding box.
+    */
+   static double computeMinCellSize (double[] pnts, int npnts) {
+      if (npnts == 0) {
+         return 0;
+      }
+      double[] min = new double[] { pnts[0], pnts[1], pnts[2] };
+      double[] max = new double[] { pnts[0], pnts[1], pnts[2] };
+      for (int i=1; i<npnts; i++) {
+         for (int j=0; j<3; j++) {
+            double c = pnts[3*i+j];
+            if (c < min[j]) {
+               min[j] = c;
+            }
+            else if (c > max[j]) {
+               max[j] = c;
+            }
+         }
+      }
+      double ext = Math.max (max[0]-min[0], Math.max (
+         max[1]-min[1], max[2]-min[2]));
+      return (ext > 0 && ext < Double.POSITIVE_INFINITY) ? 1e-6*ext : 0;
+   }
+
+   private void allocateTable (int size) {
+      myCellX = new long[size];
+      myCellY = new long[size];
+      myCellZ = new long[size];
+      myHeads = new int[size];
+      Arrays.fill (myHeads, -1);
+      myNumCells = 0;
+   }
+
+   private int hash (long ix, long iy, long iz) {
+      long h = (ix*0x9E3779B97F4A7C15L ^ iy*0xC2B2AE3D27D4EB4FL ^
+                iz*0x165667B19E3779F9L);
+      return (int)(h ^ (h >>> 32));
+   }
+
+   private int findSlot (long ix, long iy, long iz) {
+      int mask = myHeads.length-1;
+      int s = hash (ix, iy, iz) & mask;
+      while (myHeads[s] != -1) {
+         if (myCellX[s] == ix && myCellY[s] == iy && myCellZ[s] == iz) {
+            return s;
+         }
+         s = (s+1) & mask;
+      }
+      return -1-s;
+   }
+
+   private void growTable() {
+      long[] cellx = myCellX;
+      long[] celly = myCellY;
+      long[] cellz = myCellZ;
+      int[] heads = myHeads;
+      allocateTable (2*heads.length);
+      for (int s=0; s<heads.length; s++) {
+         if (heads[s] != -1) {
+            int t = -1-findSlot (cellx[s], celly[s], cellz[s]);
+            myCellX[t] = cellx[s];
+            myCellY[t] = celly[s];
+            myCellZ[t] = cellz[s];
+            myHeads[t] = heads[s];
+            myNumCells++;
+         }
+      }
+   }
+
+   private long cell (double c) {
+      return (long)Math.floor (c/myCellSize);
+   }
+
+   private int closestInCell (
+      int best, long ix, long iy, long iz, double x, double y, double z) {
+      int s = findSlot (ix, iy, iz);
+      if (s >= 0) {
+         for (int r=myHeads[s]; r != -1; r=myNext[r]) {
+            if (best == -1 || r < best) {
+               double dx = x - myPnts[3*r];
+               double dy = y - myPnts[3*r+1];
+               double dz = z - myPnts[3*r+2];
+               if (Math.sqrt (dx*dx + dy*dy + dz*dz) < myTol) {
+                  best = r;
+               }
+            }
+         }
+      }
+      return best;
+   }
+
+   private double margin (double c) {
+      // allow for rounding error in locating c within its cell
+      return 2*myTol + 1e-14*(Math.abs(c) + myCellSize);
+   }
+
+   /**
+    * Adds a point and returns the index of its representative.
+    */
+   int add (double x, double y, double z) {
+      long ix = 0, iy = 0, iz = 0;
+      if (myTol > 0) {
+         double h = myCellSize;
+         ix = cell (x);
+         iy = cell (y);
+         iz = cell (z);
+         long x0 = ix, x1 = ix, y0 = iy, y1 = iy, z0 = iz, z1 = iz;
+         if (x - ix*h < margin(x)) x0--;
+         if ((ix+1)*h - x < margin(x)) x1++;
+         if (y - iy*h < margin(y)) y0--;
+         if ((iy+1)*h - y < margin(y)) y1++;
+         if (z - iz*h < margin(z)) z0--;
+         if ((iz+1)*h - z < margin(z)) z1++;
+         int best = -1;
+         for (long cx=x0; cx<=x1; cx++) {
+            for (long cy=y0; cy<=y1; cy++) {
+               for (long cz=z0; cz<=z1; cz++) {
+                  best = closestInCell (best, cx, cy, cz, x, y, z);
+               }
+            }
+         }
+         if (best != -1) {
+            return best;
+         }
+      }
+      int idx = myNumPnts++;
+      if (3*myNumPnts > myPnts.length) {
+         myPnts = Arrays.copyOf (myPnts, 2*myPnts.length);
+         myNext = Arrays.copyOf (myNext, 2*myNext.length);
+      }
+      myPnts[3*idx] = x;
+      myPnts[3*idx+1] = y;
+      myPnts[3*idx+2] = z;
+      myNext[idx] = -1;
+      if (myTol > 0) {
+         int s = findSlot (ix, iy, iz);
+         if (s >= 0) {
+            myNext[idx] = myHeads[s];
+            myHeads[s] = idx;
+         }
+         else {
+            if (2*(myNumCells+1) > myHeads.length) {
+               growTable();
+               s = findSlot (ix, iy, iz);
+            }
+            s = -1-s;
+            myCellX[s] = ix;
+            myCellY[s] = iy;
+            myCellZ[s] = iz;
+            myHeads[s] = idx;
+            myNumCells++;
+         }
+      }
+      return idx;
+   }
+
+   /**
+    * Returns the number of representative points.
+    */
+   int numPoints() {
+      return myNumPnts;
+   }
+
+   /**
+    * Returns the representative points, as x, y, z triples.
+    */
+   double[] getPoints() {
+      return myPnts;
+   }
+}
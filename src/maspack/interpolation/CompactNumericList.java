@@ -0,0 +1,594 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.interpolation;
+
+import maspack.interpolation.Interpolation.Order;
+import maspack.matrix.Vector;
+import maspack.matrix.VectorNd;
+
+/**
+ * A list of vector values arranged in order with respect to a parameter t,
+ * similar to {@link NumericList}, but with the t values and vector values
+ * stored in contiguous primitive arrays instead of individual knot
+ * objects. This greatly reduces memory overhead for lists with large numbers
+ * of knots, allows knots to be appended in amortized constant time, and
+ * allows knots to be located by t value using a binary search. The list can
+ * be interpolated using all the orders supported by {@link Interpolation},
+ * with results identical to those of {@link NumericList}.
+ *
+ * <p>Knots are identified by their index within the list, which ranges from
+ * 0 to {@link #numKnots()}-1.
+ */
+public class CompactNumericList {
+
+   private int myVsize;
+   private int myNumKnots;
+   private double[] myTimes;
+   private double[] myValues;
+   private int myLastIdx = -1;
+
+   private Interpolation myInterpolation;
+
+   // knots and list used to evaluate interpolation orders that are
+   // implemented by NumericList
+   private NumericListKnot[] myKnots;
+   private NumericList myKnotInterpolator;
+
+   /**
+    * Creates an empty list for holding vectors of a prescribed size.
+    *
+    * @param vsize size of the vectors that will form this list
+    */
+   public CompactNumericList (int vsize) {
+      this (vsize, 16);
+   }
+
+   /**
+    * Creates an empty list for holding vectors of a prescribed size, with
+    * storage preallocated for a specified number of knots.
+    *
+    * @param vsize size of the vectors that will form this list
+    * @param cap initial knot capacity
+    */
+   public CompactNumericList (int vsize, int cap) {
+      if (vsize < 0) {
+         throw new IllegalArgumentException ("vsize is negative");
+      }
+      myVsize = vsize;
+      cap = Math.max (cap, 1);
+      myTimes = new double[cap];
+      myValues = new double[cap*vsize];
+      myInterpolation = new Interpolation (NumericList.defaultInterpolation);
+   }
+
+   /**
+    * Creates a list containing a copy of the knots and the interpolation
+    * method of a {@link NumericList}.
+    *
+    * @param list numeric list to copy
+    */
+   public CompactNumericList (NumericList list) {
+      this (list.getVectorSize(), list.getNumKnots());
+      set (list);
+   }
+
+   /**
+    * Returns the size of the vectors associated with this list.
+    *
+    * @return vector size
+    */
+   public int getVectorSize() {
+      return myVsize;
+   }
+
+   /**
+    * Returns the number of knots in this list.
+    *
+    * @return number of knots
+    */
+   public int numKnots() {
+      return myNumKnots;
+   }
+
+   /**
+    * Returns true if this list is empty.
+    *
+    * @return true if this list is empty
+    */
+   public boolean isEmpty() {
+      return myNumKnots == 0;
+   }
+
+   /**
+    * Sets the interpolation method for this list. The default is
+    * <code>Step</code> with no end data extension.
+    *
+    * @param method new interpolation method.
+    */
+   public void setInterpolation (Interpolation method) {
+      myInterpolation = new Interpolation (method);
+   }
+
+   /**
+    * Sets the interpolation order for this list.
+    *
+    * @param order new interpolation order
+    */
+   public void setInterpolationOrder (Order order) {
+      myInterpolation.setOrder (order);
+   }
+
+   /**
+    * Returns the interpolation method for this list.
+    *
+    * @return interpolation method
+    */
+   public Interpolation getInterpolation() {
+      return myInterpolation;
+   }
+
+   /**
+    * Ensures that this list has storage for at least a specified number of
+    * knots.
+    *
+    * @param cap required knot capacity
+    */
+   public void ensureCapacity (int cap) {
+      if (myTimes.length < cap) {
+         int newCap = Math.max (cap, myTimes.length + myTimes.length/2);
+         double[] times = new double[newCap];
+         double[] values = new double[newCap*myVsize];
+         System.arraycopy (myTimes, 0, times, 0, myNumKnots);
+         System.arraycopy (myValues, 0, values, 0, myNumKnots*myVsize);
+         myTimes = times;
+         myValues = values;
+      }
+   }
+
+   /**
+    * Reduces the storage for this list to the current number of knots.
+    */
+   public void trimToSize() {
+      if (myTimes.length > myNumKnots && myNumKnots > 0) {
+         double[] times = new double[myNumKnots];
+         double[] values = new double[myNumKnots*myVsize];
+         System.arraycopy (myTimes, 0, times, 0, myNumKnots);
+         System.arraycopy (myValues, 0, values, 0, myNumKnots*myVsize);
+         myTimes = times;
+         myValues = values;
+      }
+   }
+
+   /**
+    * Removes all knots from this list.
+    */
+   public void clear() {
+      myNumKnots = 0;
+      myLastIdx = -1;
+   }
+
+   private void checkIndex (int idx) {
+      if (idx < 0 || idx >= myNumKnots) {
+         throw new IndexOutOfBoundsException (
+            "Index "+idx+" not in range [0,"+myNumKnots+")");
+      }
+   }
+
+   /**
+    * Returns the t value of a specific knot.
+    *
+    * @param idx knot index
+    * @return t value of the knot
+    */
+   public double getTime (int idx) {
+      checkIndex (idx);
+      return myTimes[idx];
+   }
+
+   /**
+    * Returns a specific value of a specific knot.
+    *
+    * @param idx knot index
+    * @param i index of the value within the knot's vector
+    * @return knot value
+    */
+   public double getValue (int idx, int i) {
+      checkIndex (idx);
+      if (i < 0 || i >= myVsize) {
+         throw new IndexOutOfBoundsException (
+            "Value index "+i+" not in range [0,"+myVsize+")");
+      }
+      return myValues[idx*myVsize+i];
+   }
+
+   /**
+    * Returns the values of a specific knot.
+    *
+    * @param idx knot index
+    * @param v returns the knot values. Will be resized if necessary.
+    */
+   public void getValues (int idx, VectorNd v) {
+      checkIndex (idx);
+      if (v.size() != myVsize) {
+         v.setSize (myVsize);
+      }
+      System.arraycopy (myValues, idx*myVsize, v.getBuffer(), 0, myVsize);
+   }
+
+   /**
+    * Sets the values of a specific knot.
+    *
+    * @param idx knot index
+    * @param vals new values for the knot. Must have a length {@code >=} the
+    * vector size.
+    */
+   public void setValues (int idx, double[] vals) {
+      checkIndex (idx);
+      System.arraycopy (vals, 0, myValues, idx*myVsize, myVsize);
+   }
+
+   /**
+    * Returns the index of the last knot whose t value is less than or equal
+    * to a specified value, or -1 if there is no such knot. The search starts
+    * from the most recently located knot, and otherwise uses a binary search,
+    * so that sequential access requires constant time and random access
+    * requires O(log n) time.
+    *
+    * @param t specified value
+    * @return index of the nearest knot at or before <code>t</code>, or -1
+    */
+   public int findKnotAtOrBefore (double t) {
+      int idx = myLastIdx;
+      if (idx >= 0 && idx < myNumKnots && myTimes[idx] <= t) {
+         // check the last knot and the one after it
+         for (int i=0; i<2; i++) {
+            if (idx == myNumKnots-1 || myTimes[idx+1] > t) {
+               myLastIdx = idx;
+               return idx;
+            }
+            idx++;
+         }
+      }
+      idx = searchTimes (t);
+      myLastIdx = idx;
+      return idx;
+   }
+
+   private int searchTimes (double t) {
+      if (myNumKnots == 0 || myTimes[0] > t) {
+         return -1;
+      }
+      int lo = 0;
+      int hi = myNumKnots-1;
+      while (lo < hi) {
+         int mid = (lo+hi+1) >>> 1;
+         if (myTimes[mid] <= t) {
+            lo = mid;
+         }
+         else {
+            hi = mid-1;
+         }
+      }
+      return lo;
+   }
+
+   /**
+    * Adds a knot to this list, at the location required to keep all t
+    * values monotonically increasing. If there is an existing knot with the
+    * same t value, its values are replaced. Adding a knot after the last knot
+    * requires amortized constant time.
+    *
+    * @param t t value for the knot
+    * @param vals values for the knot. Must have a length {@code >=} the vector
+    * size.
+    * @return index of the knot
+    */
+   public int add (double t, double[] vals) {
+      if (vals.length < myVsize) {
+         throw new IllegalArgumentException (
+            "Insufficient number of values specified for knot point");
+      }
+      int idx;
+      if (myNumKnots == 0 || myTimes[myNumKnots-1] < t) {
+         ensureCapacity (myNumKnots+1);
+         idx = myNumKnots++;
+      }
+      else {
+         int prev = searchTimes (t);
+         if (prev != -1 && myTimes[prev] == t) {
+            idx = prev;
+         }
+         else {
+            ensureCapacity (myNumKnots+1);
+            idx = prev+1;
+            System.arraycopy (
+               myTimes, idx, myTimes, idx+1, myNumKnots-idx);
+            System.arraycopy (
+               myValues, idx*myVsize, myValues, (idx+1)*myVsize,
+               (myNumKnots-idx)*myVsize);
+            myNumKnots++;
+         }
+      }
+      myTimes[idx] = t;
+      System.arraycopy (vals, 0, myValues, idx*myVsize, myVsize);
+      myLastIdx = idx;
+      return idx;
+   }
+
+   /**
+    * Adds a knot to this list, as described for {@link #add(double,double[])}.
+    *
+    * @param vals values for the knot. Must have a size {@code >=} the vector
+    * size.
+    * @param t t value for the knot
+    * @return index of the knot
+    */
+   public int add (Vector vals, double t) {
+      if (vals.size() < myVsize) {
+         throw new IllegalArgumentException (
+            "Insufficient number of values specified for knot point");
+      }
+      double[] buf = new double[myVsize];
+      for (int i=0; i<myVsize; i++) {
+         buf[i] = vals.get(i);
+      }
+      return add (t, buf);
+   }
+
+   /**
+    * Adds a set of knots to this list. If the t values are strictly
+    * increasing and follow those of the existing knots, the knots are
+    * appended in bulk. Otherwise, they are added individually as described
+    * for {@link #add(double,double[])}.
+    *
+    * @param tvals t values for the knots
+    * @param vals values for the knots, arranged so that the values for
+    * knot <code>k</code> start at <code>vals[k*vsize]</code>, where
+    * <code>vsize</code> is the vector size for this list.
+    * @param num number of knots to add
+    */
+   public void addAll (double[] tvals, double[] vals, int num) {
+      if (tvals.length < num || vals.length < num*myVsize) {
+         throw new IllegalArgumentException (
+            "Insufficient number of t values or values for "+num+" knots");
+      }
+      boolean appendable = true;
+      double tlast = (myNumKnots > 0 ? myTimes[myNumKnots-1] : 0);
+      for (int k=0; k<num; k++) {
+         if ((myNumKnots > 0 || k > 0) && tvals[k] <= tlast) {
+            appendable = false;
+            break;
+         }
+         tlast = tvals[k];
+      }
+      if (appendable) {
+         ensureCapacity (myNumKnots+num);
+         System.arraycopy (tvals, 0, myTimes, myNumKnots, num);
+         System.arraycopy (
+            vals, 0, myValues, myNumKnots*myVsize, num*myVsize);
+         myNumKnots += num;
+      }
+      else {
+         double[] buf = new double[myVsize];
+         for (int k=0; k<num; k++) {
+            System.arraycopy (vals, k*myVsize, buf, 0, myVsize);
+            add (tvals[k], buf);
+         }
+      }
+   }
+
+   /**
+    * Removes the knot at a specific index.
+    *
+    * @param idx index of the knot to remove
+    */
+   public void remove (int idx) {
+      checkIndex (idx);
+      System.arraycopy (myTimes, idx+1, myTimes, idx, myNumKnots-idx-1);
+      System.arraycopy (
+         myValues, (idx+1)*myVsize, myValues, idx*myVsize,
+         (myNumKnots-idx-1)*myVsize);
+      myNumKnots--;
+   }
+
+   /**
+    * Removes all knots whose t values are greater than a specified value.
+    *
+    * @param t specified value
+    */
+   public void clearAfter (double t) {
+      myNumKnots = searchTimes (t)+1;
+   }
+
+   /**
+    * Uniformly scales all the values in this list.
+    *
+    * @param s scale factor
+    */
+   public void scale (double s) {
+      for (int i=0; i<myNumKnots*myVsize; i++) {
+         myValues[i] *= s;
+      }
+   }
+
+   /**
+    * Adds an offset to all the t values in this list.
+    *
+    * @param dt offset to add
+    */
+   public void shiftTime (double dt) {
+      for (int k=0; k<myNumKnots; k++) {
+         myTimes[k] += dt;
+      }
+   }
+
+   /**
+    * Returns the minimum and maximum values in this list. If the list is
+    * empty, both are set to 0.
+    *
+    * @param minMax returns the minimum and maximum values
+    */
+   public void getMinMaxValues (double[] minMax) {
+      int nvals = myNumKnots*myVsize;
+      if (nvals == 0) {
+         minMax[0] = 0;
+         minMax[1] = 0;
+         return;
+      }
+      double min = Double.POSITIVE_INFINITY;
+      double max = Double.NEGATIVE_INFINITY;
+      for (int i=0; i<nvals; i++) {
+         double x = myValues[i];
+         if (x > max) {
+            max = x;
+         }
+         if (x < min) {
+            min = x;
+         }
+      }
+      minMax[0] = min;
+      minMax[1] = max;
+   }
+
+   /**
+    * Sets the contents of this list to a copy of the knots and interpolation
+    * method of a {@link NumericList}.
+    *
+    * @param list numeric list to copy
+    */
+   public void set (NumericList list) {
+      if (list.getVectorSize() != myVsize) {
+         throw new IllegalArgumentException (
+            "List vector size "+list.getVectorSize()+
+            " incompatible with vector size "+myVsize);
+      }
+      clear();
+      ensureCapacity (list.getNumKnots());
+      for (NumericListKnot knot : list) {
+         myTimes[myNumKnots] = knot.t;
+         System.arraycopy (
+            knot.v.getBuffer(), 0, myValues, myNumKnots*myVsize, myVsize);
+         myNumKnots++;
+      }
+      setInterpolation (list.getInterpolation());
+   }
+
+   /**
+    * Creates a {@link NumericList} containing a copy of the knots and
+    * interpolation method of this list.
+    *
+    * @return new numeric list
+    */
+   public NumericList toNumericList() {
+      NumericList list = new NumericList (myVsize);
+      list.setInterpolation (myInterpolation);
+      list.addAll (myTimes, myValues, myNumKnots);
+      return list;
+   }
+
+   private NumericListKnot loadKnot (int i, int idx) {
+      if (idx < 0 || idx >= myNumKnots) {
+         return null;
+      }
+      NumericListKnot knot = myKnots[i];
+      knot.t = myTimes[idx];
+      System.arraycopy (myValues, idx*myVsize, knot.v.getBuffer(), 0, myVsize);
+      return knot;
+   }
+
+   private void setToKnot (VectorNd v, int idx) {
+      if (v.size() != myVsize) {
+         v.setSize (myVsize);
+      }
+      System.arraycopy (myValues, idx*myVsize, v.getBuffer(), 0, myVsize);
+   }
+
+   /**
+    * Interpolates the value associated with a particular value of t, using
+    * this list's interpolation method, as described for {@link
+    * #interpolate(VectorNd,double,Interpolation)}.
+    *
+    * @param v stores the interpolation result
+    * @param t value to interpolate for
+    */
+   public void interpolate (VectorNd v, double t) {
+      interpolate (v, t, myInterpolation);
+   }
+
+   /**
+    * Interpolates the value associated with a particular value of t, using a
+    * specified interpolation method. The result is the same as that produced
+    * by {@link NumericList#interpolate(VectorNd,double,Interpolation,
+    * NumericListKnot)} for a numeric list with the same contents. If the list
+    * is empty, the result is set to zero.
+    *
+    * @param v stores the interpolation result
+    * @param t value to interpolate for
+    * @param method interpolation method
+    */
+   public void interpolate (VectorNd v, double t, Interpolation method) {
+      if (myNumKnots == 0) {
+         v.setZero();
+         return;
+      }
+      int prev = findKnotAtOrBefore (t);
+      if (prev == -1) {
+         // before the start of the list
+         if (method.isDataExtended()) {
+            setToKnot (v, 0);
+         }
+         else {
+            v.setZero();
+         }
+         return;
+      }
+      else if (prev == myNumKnots-1) {
+         // after the end of the list
+         if (method.isDataExtended() || myTimes[prev] == t) {
+            setToKnot (v, prev);
+         }
+         else {
+            v.setZero();
+         }
+         return;
+      }
+      int next = prev+1;
+      Order order = method.getOrder();
+      switch (order) {
+         case Step: {
+            setToKnot (v, prev);
+            break;
+         }
+         case Linear: {
+            if (v.size() != myVsize) {
+               v.setSize (myVsize);
+            }
+            double s = (t-myTimes[prev])/(myTimes[next]-myTimes[prev]);
+            double[] buf = v.getBuffer();
+            int off0 = prev*myVsize;
+            int off1 = next*myVsize;
+            for (int i=0; i<myVsize; i++) {
+               buf[i] = (1-s)*myValues[off0+i] + s*myValues[off1+i];
+            }
+            break;
+         }
+         default: {
+            if (myKnotInterpolator == null) {
+               myKnotInterpolator = new NumericList (myVsize);
+               myKnots = new NumericListKnot[4];
+               for (int i=0; i<myKnots.length; i++) {
+                  myKnots[i] = new NumericListKnot (myVsize);
+               }
+            }
+            myKnotInterpolator.interpolateKnots (
+               v, t, order, loadKnot (0, prev-1), loadKnot (1, prev),
+               loadKnot (2, next), loadKnot (3, next+1));
+            break;
+         }
+      }
+   }
+}
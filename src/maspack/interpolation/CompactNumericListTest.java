@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.interpolation;
+
+import maspack.interpolation.Interpolation.Order;
+import maspack.matrix.VectorNd;
+import maspack.util.RandomGenerator;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Tests CompactNumericList, by comparing it against NumericList.
+ */
+public class CompactNumericListTest extends UnitTest {
+
+   NumericList createRandomList (int vsize, int nknots) {
+      NumericList list = new NumericList (vsize);
+      double t = 0;
+      for (int k=0; k<nknots; k++) {
+         VectorNd v = new VectorNd (vsize);
+         v.setRandom();
+         // add some irregularity to the spacing
+         t += 0.5 + RandomGenerator.nextDouble();
+         list.add (v, t);
+      }
+      return list;
+   }
+
+   void checkContents (CompactNumericList clist, NumericList list) {
+      checkEquals ("numKnots", clist.numKnots(), list.getNumKnots());
+      VectorNd v = new VectorNd();
+      int k = 0;
+      for (NumericListKnot knot : list) {
+         checkEquals ("time "+k, clist.getTime(k), knot.t);
+         clist.getValues (k, v);
+         checkEquals ("values "+k, v, knot.v);
+         k++;
+      }
+   }
+
+   void checkInterpolation (
+      CompactNumericList clist, NumericList list, Interpolation method,
+      double t) {
+      int vsize = list.getVectorSize();
+      VectorNd vc = new VectorNd (vsize);
+      VectorNd vl = new VectorNd (vsize);
+      clist.interpolate (vc, t, method);
+      list.interpolate (vl, t, method, null);
+      if (!vc.epsilonEquals (vl, 1e-12)) {
+         throw new TestException (
+            "Interpolation at t="+t+" with "+method+": got\n"+
+            vc.toString ("%12.8f")+"\nexpected\n"+vl.toString ("%12.8f"));
+      }
+   }
+
+   void testInterpolation (int vsize, int nknots) {
+      NumericList list = createRandomList (vsize, nknots);
+      CompactNumericList clist = new CompactNumericList (list);
+      checkContents (clist, list);
+      double tmax = list.getLast().t;
+      for (Order order : Order.values()) {
+         for (boolean extend : new boolean[] { false, true }) {
+            Interpolation method = new Interpolation (order, extend);
+            // random access
+            for (int i=0; i<100; i++) {
+               double t = RandomGenerator.nextDouble (-1, tmax+1);
+               checkInterpolation (clist, list, method, t);
+            }
+            // sequential access, including at the knots
+            for (NumericListKnot knot : list) {
+               checkInterpolation (clist, list, method, knot.t);
+               checkInterpolation (clist, list, method, knot.t+0.1);
+            }
+         }
+      }
+   }
+
+   void testEditing() {
+      int vsize = 3;
+      NumericList list = new NumericList (vsize);
+      CompactNumericList clist = new CompactNumericList (vsize, 1);
+      double[] buf = new double[vsize];
+      for (int i=0; i<200; i++) {
+         // times are drawn from a small set so that some knots are replaced
+         double t = RandomGenerator.nextInt (0, 99)/10.0;
+         for (int j=0; j<vsize; j++) {
+            buf[j] = RandomGenerator.nextDouble (-1, 1);
+         }
+         int idx = clist.add (t, buf);
+         checkEquals ("time of added knot", clist.getTime(idx), t);
+         list.add (new VectorNd (buf), t);
+         checkContents (clist, list);
+      }
+      // find knots
+      for (int i=0; i<100; i++) {
+         double t = RandomGenerator.nextDouble (-1, 11);
+         int idx = clist.findKnotAtOrBefore (t);
+         NumericListKnot knot = list.findKnotAtOrBefore (t, null);
+         if (knot.t > t) {
+            checkEquals ("knot index before start", idx, -1);
+         }
+         else {
+            checkEquals ("knot time at or before "+t, clist.getTime(idx), knot.t);
+         }
+      }
+      // remove and clear after
+      clist.remove (0);
+      list.remove (list.getFirst());
+      clist.remove (clist.numKnots()/2);
+      list.remove (list.getKnot (list.getNumKnots()/2));
+      checkContents (clist, list);
+      double tclear = 5.05;
+      clist.clearAfter (tclear);
+      list.clearAfter (list.findKnotAtOrBefore (tclear, null));
+      checkContents (clist, list);
+
+      // bulk append, followed by bulk add that requires insertion
+      int num = 50;
+      double[] tvals = new double[num];
+      double[] vals = new double[num*vsize];
+      for (int k=0; k<num; k++) {
+         tvals[k] = 10 + k*0.1;
+      }
+      for (int i=0; i<vals.length; i++) {
+         vals[i] = RandomGenerator.nextDouble (-1, 1);
+      }
+      clist.addAll (tvals, vals, num);
+      list.addAll (tvals, vals, num);
+      checkContents (clist, list);
+      for (int k=0; k<num; k++) {
+         tvals[k] = RandomGenerator.nextInt (0, 200)/10.0;
+      }
+      clist.addAll (tvals, vals, num);
+      list.addAll (tvals, vals, num);
+      checkContents (clist, list);
+
+      NumericList copy = clist.toNumericList();
+      if (!copy.equals (list)) {
+         throw new TestException ("toNumericList() does not match list");
+      }
+
+      double[] minMax = new double[2];
+      double[] minMaxCheck = new double[2];
+      clist.getMinMaxValues (minMax);
+      copy.getMinMaxValues (minMaxCheck);
+      checkEquals ("min value", minMax[0], minMaxCheck[0]);
+      checkEquals ("max value", minMax[1], minMaxCheck[1]);
+
+      clist.clear();
+      checkEquals ("isEmpty", clist.isEmpty(), true);
+      VectorNd v = new VectorNd (vsize);
+      v.setRandom();
+      clist.interpolate (v, 1.0);
+      checkEquals ("interpolation of empty list", v, new VectorNd (vsize));
+   }
+
+   public void test() {
+      RandomGenerator.setSeed (0x1234);
+      for (int vsize : new int[] { 1, 3, 4, 7, 16 }) {
+         testInterpolation (vsize, 1);
+         testInterpolation (vsize, 2);
+         testInterpolation (vsize, 3);
+         testInterpolation (vsize, 40);
+      }
+      testEditing();
+   }
+
+   public static void main (String[] args) {
+      CompactNumericListTest tester = new CompactNumericListTest();
+      tester.runtest();
+   }
+}
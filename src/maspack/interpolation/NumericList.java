@@ -17,16 +17,35 @@ import maspack.util.*;
 /**
  * A linked list of vector values arranged in order with respect to a parameter
  * t. Can be interpolated to produce a continuous vector function.
+ *
+ * <p>In addition to the links, the list maintains an array index of its
+ * knots, which allows knots to be located by t value in O(log n) time when
+ * the search is not close to the most recently accessed knot. The index is
+ * updated incrementally as knots are appended to the end of the list, and
+ * is otherwise rebuilt when needed. For very large data sets, see also
+ * {@link CompactNumericList}, which stores its knots in primitive arrays.
  */
 public class NumericList
    implements Cloneable, Iterable<NumericListKnot>, Scannable {
-                                    
+
    private int myVsize;
    protected NumericListKnot myHead;
    protected NumericListKnot myTail;
    protected NumericListKnot myLast;
    // protected boolean myExtendValuesP = false;
 
+   // Maximum number of knots that findKnotAtOrBefore() will step through
+   // from a hint knot before resorting to a binary search of the index
+   private static final int MAX_HINT_STEPS = 4;
+
+   // Array of the knots in order, used to find knots using binary search.
+   // myNumKnots is only valid when myIndexValid is true. The index is only
+   // read or modified while holding this list's lock, so that readers in
+   // other threads never see a partially rebuilt index.
+   private NumericListKnot[] myIndex = new NumericListKnot[0];
+   private int myNumKnots = 0;
+   private boolean myIndexValid = false;
+
    protected Interpolation myInterpolation;
    protected static Interpolation defaultInterpolation =
       new Interpolation (Order.Step, false);
@@ -44,6 +63,80 @@ public class NumericList
    private VectorNd myTmp0;
    private VectorNd myTmp1;
 
+   private void rebuildIndex() {
+      int num = 0;
+      for (NumericListKnot knot = myHead; knot != null; knot = knot.next) {
+         num++;
+      }
+      if (myIndex.length < num || myIndex.length > 2*num+16) {
+         myIndex = new NumericListKnot[num+num/2];
+      }
+      else {
+         // clear out references to knots no longer in the list
+         for (int k=num; k<myIndex.length && myIndex[k] != null; k++) {
+            myIndex[k] = null;
+         }
+      }
+      num = 0;
+      for (NumericListKnot knot = myHead; knot != null; knot = knot.next) {
+         myIndex[num++] = knot;
+      }
+      myNumKnots = num;
+      myIndexValid = true;
+   }
+
+   private void updateIndexIfNecessary() {
+      if (!myIndexValid) {
+         rebuildIndex();
+      }
+   }
+
+   private void ensureIndexCapacity (int cap) {
+      if (myIndex.length < cap) {
+         NumericListKnot[] newIndex =
+            new NumericListKnot[Math.max (cap, myIndex.length+myIndex.length/2)];
+         System.arraycopy (myIndex, 0, newIndex, 0, myNumKnots);
+         myIndex = newIndex;
+      }
+   }
+
+   private void appendToIndex (NumericListKnot knot) {
+      if (myIndexValid) {
+         ensureIndexCapacity (myNumKnots+1);
+         myIndex[myNumKnots++] = knot;
+      }
+   }
+
+   private void truncateIndex (int num) {
+      for (int k=num; k<myNumKnots; k++) {
+         myIndex[k] = null;
+      }
+      myNumKnots = num;
+   }
+
+   /**
+    * Returns the position in the index of the last knot whose t value is
+    * less than or equal to t, or -1 if there is no such knot. Assumes the
+    * index is valid.
+    */
+   private int searchIndex (double t) {
+      int lo = 0;
+      int hi = myNumKnots-1;
+      if (hi < 0 || myIndex[0].t > t) {
+         return -1;
+      }
+      while (lo < hi) {
+         int mid = (lo+hi+1) >>> 1;
+         if (myIndex[mid].t <= t) {
+            lo = mid;
+         }
+         else {
+            hi = mid-1;
+         }
+      }
+      return lo;
+   }
+
    private void allocateTmps (int size) {
       if (myTmp0 == null) {
          myTmp0 = new VectorNd (size);
@@ -159,6 +252,41 @@ public class NumericList
       return knot;
    }
 
+   /**
+    * Adds a set of knots to this numeric list. This is more efficient than
+    * adding the knots individually, particularly when the knots are in
+    * increasing order of t and follow the existing knots. As with {@link
+    * #add(NumericListKnot)}, any existing knot with the same t value as a
+    * new knot is replaced.
+    *
+    * @param tvals t values for the knots
+    * @param vals values for the knots, arranged so that the values for
+    * knot <code>k</code> start at <code>vals[k*vsize]</code>, where
+    * <code>vsize</code> is the vector size for this list.
+    * @param num number of knots to add
+    * @throws IllegalArgumentException if <code>tvals</code> or
+    * <code>vals</code> are too small to hold <code>num</code> knots.
+    */
+   public synchronized void addAll (double[] tvals, double[] vals, int num) {
+      if (tvals.length < num || vals.length < num*myVsize) {
+         throw new IllegalArgumentException (
+            "Insufficient number of t values or values for "+num+" knots");
+      }
+      updateIndexIfNecessary();
+      ensureIndexCapacity (myNumKnots+num);
+      NumericListKnot last = myTail;
+      for (int k=0; k<num; k++) {
+         NumericListKnot knot = new NumericListKnot (myVsize);
+         knot.t = tvals[k];
+         System.arraycopy (vals, k*myVsize, knot.v.getBuffer(), 0, myVsize);
+         add (knot, last);
+         last = knot;
+      }
+      if (last != null) {
+         myLast = last;
+      }
+   }
+
    public synchronized NumericListKnot add (
       NumericListKnot knot, NumericListKnot last) {
       NumericListKnot existing = null;
@@ -171,6 +299,7 @@ public class NumericList
          knot.prev = null;
          myHead = knot;
          myTail = knot;
+         appendToIndex (knot);
       }
       else {
          NumericListKnot anchor = findKnotAtOrBefore (knot.t, last);
@@ -180,9 +309,11 @@ public class NumericList
             knot.next = anchor.next;
             if (anchor.next == null) {
                myTail = knot;
+               appendToIndex (knot);
             }
             else {
                anchor.next.prev = knot;
+               myIndexValid = false;
             }
             anchor.next = knot;
 
@@ -193,6 +324,7 @@ public class NumericList
             knot.prev = null;
             myHead = knot;
             anchor.prev = knot;
+            myIndexValid = false;
          }
          else { // anchor.t == knot.t, so delete it and replace it with knot
             knot.next = anchor.next;
@@ -209,6 +341,16 @@ public class NumericList
             else {
                anchor.next.prev = knot;
             }
+            if (myIndexValid) {
+               int idx = searchIndex (knot.t);
+               if (idx != -1 && myIndex[idx] == anchor) {
+                  myIndex[idx] = knot;
+               }
+               else {
+                  myIndexValid = false;
+               }
+            }
+            anchor.myList = null;
             existing = anchor;
          }
       }
@@ -305,7 +447,7 @@ public class NumericList
     * @param knot
     * knot to remove
     */
-   public void remove (NumericListKnot knot) {
+   public synchronized void remove (NumericListKnot knot) {
       if (knot.prev == null) {
          myHead = knot.next;
       }
@@ -314,9 +456,17 @@ public class NumericList
       }
       if (knot.next == null) {
          myTail = knot.prev;
+         if (myIndexValid && myNumKnots > 0 &&
+             myIndex[myNumKnots-1] == knot) {
+            truncateIndex (myNumKnots-1);
+         }
+         else {
+            myIndexValid = false;
+         }
       }
       else {
          knot.next.prev = knot.prev;
+         myIndexValid = false;
       }
       knot.myList = null;
       myMinMaxValid = false;
@@ -330,44 +480,90 @@ public class NumericList
     * all knots following this one will be removed
     */
    public synchronized void clearAfter (NumericListKnot knot) {
+      if (knot.next == null) {
+         return;
+      }
       for (NumericListKnot knotx = knot.next; knotx != null; knotx = knotx.next) {
          knotx.myList = null;
       }
       knot.next = null;
       myTail = knot;
       myMinMaxValid = false;
+      if (myIndexValid) {
+         // remaining knots form a prefix of the index
+         int idx = searchIndex (knot.t);
+         if (idx != -1 && myIndex[idx] == knot) {
+            truncateIndex (idx+1);
+         }
+         else {
+            myIndexValid = false;
+         }
+      }
    }
 
    /**
     * Finds the knot whose t value is closest to, and if possible less or equal
-    * to, a specified value.
-    * 
+    * to, a specified value. If <code>last</code> is a knot in this list whose
+    * t value is close to the specified value, the search starts from there;
+    * otherwise, a binary search is used.
+    *
     * @param t
     * specified value
+    * @param last
+    * optional hint knot from which to start the search
     * @return nearest knot less than t
     */
    public NumericListKnot findKnotAtOrBefore (double t, NumericListKnot last) {
-      if (last == null || last.myList != this) { // no hint from last knot
-                                                   // point.
-         if (myHead == null) {
-            return null; // list is empty, so knot must be null
+      if (myHead == null) {
+         return null; // list is empty, so knot must be null
+      }
+      if (last != null && last.myList == this) {
+         // try moving a few knots from the hint
+         if (last.t > t) {
+            for (int i=0; i<MAX_HINT_STEPS; i++) {
+               if (last.prev == null) {
+                  return last;
+               }
+               last = last.prev;
+               if (last.t <= t) {
+                  return last;
+               }
+            }
          }
-         else { // start search at Head or Tail, whichever is closer to t
-            double tmid = (myHead.t + myTail.t) / 2;
-            last = (t <= tmid ? myHead : myTail);
+         else {
+            for (int i=0; i<MAX_HINT_STEPS; i++) {
+               if (last.next == null || last.next.t > t) {
+                  return last;
+               }
+               last = last.next;
+            }
          }
       }
-      if (last.t > t) { // last is above t; try to move closer
-         while (last.t > t && last.prev != null) {
-            last = last.prev;
-         }
+      return searchKnots (t);
+   }
+
+   private synchronized NumericListKnot searchKnots (double t) {
+      updateIndexIfNecessary();
+      if (myNumKnots == 0) {
+         return null;
       }
-      else {
-         while (last.next != null && last.next.t <= t) {
-            last = last.next;
-         }
+      int idx = searchIndex (t);
+      return myIndex[idx == -1 ? 0 : idx];
+   }
+
+   /**
+    * Returns a specific knot in this list.
+    *
+    * @param idx index of the knot
+    * @return knot at the specified index
+    */
+   public synchronized NumericListKnot getKnot (int idx) {
+      updateIndexIfNecessary();
+      if (idx < 0 || idx >= myNumKnots) {
+         throw new IndexOutOfBoundsException (
+            "Index "+idx+" not in range [0,"+myNumKnots+")");
       }
-      return last;
+      return myIndex[idx];
    }
 
    /**
@@ -448,13 +644,11 @@ public class NumericList
       return interpolate (v, t, method.myOrder, method.myDataExtendedP, last);
    }
 
-   private void interpParabolic (NumericListKnot prev, VectorNd v, double t) {
-      NumericListKnot prevprev = prev.prev;
+   private void interpParabolic (
+      VectorNd v, double t, NumericListKnot prevprev, NumericListKnot prev,
+      NumericListKnot next) {
       if (prevprev == null)
          prevprev = prev;
-      NumericListKnot next = prev.next;
-      if (next == null)
-         next = prev;
 
       ParabolicInterpolation para = new ParabolicInterpolation();
       para.setTimeofKnots (prevprev.t, prev.t, next.t);
@@ -566,9 +760,9 @@ public class NumericList
    }
 
    private void interpLinearRotation (
-      NumericListKnot prev, VectorNd v, double t) {
+      VectorNd v, double t, NumericListKnot prevprev, NumericListKnot prev,
+      NumericListKnot next, NumericListKnot nextnext) {
 
-      NumericListKnot next = prev.next;
       double s = (t-prev.t)/(next.t-prev.t);
       Quaternion q0 = new Quaternion();
       Quaternion q1 = new Quaternion();
@@ -579,9 +773,9 @@ public class NumericList
    }
 
    private void interpLinearPosition (
-      NumericListKnot prev, VectorNd v, double t) {
+      VectorNd v, double t, NumericListKnot prevprev, NumericListKnot prev,
+      NumericListKnot next, NumericListKnot nextnext) {
 
-      NumericListKnot next = prev.next;
       double s = (t-prev.t)/(next.t-prev.t);
       Vector3d p0 = new Vector3d();
       Vector3d p1 = new Vector3d();
@@ -592,12 +786,10 @@ public class NumericList
    }
 
    private void interpCubicRotation (
-      NumericListKnot prev, VectorNd v, double t) {
+      VectorNd v, double t, NumericListKnot prevprev, NumericListKnot prev,
+      NumericListKnot next, NumericListKnot nextnext) {
 
-      NumericListKnot next = prev.next;
       double s = (t-prev.t)/(next.t-prev.t);
-      NumericListKnot prevprev = prev.prev;
-      NumericListKnot nextnext = next.next;
 
       Quaternion q0 = new Quaternion();
       Quaternion q1 = new Quaternion();
@@ -626,12 +818,10 @@ public class NumericList
    }
 
    private void interpCubicPosition (
-      NumericListKnot prev, VectorNd v, double t) {
+      VectorNd v, double t, NumericListKnot prevprev, NumericListKnot prev,
+      NumericListKnot next, NumericListKnot nextnext) {
 
-      NumericListKnot next = prev.next;
       double s = (t-prev.t)/(next.t-prev.t);
-      NumericListKnot prevprev = prev.prev;
-      NumericListKnot nextnext = next.next;
 
       Vector3d p0 = new Vector3d();
       Vector3d p1 = new Vector3d();
@@ -668,9 +858,9 @@ public class NumericList
    }
 
    private void interpCubicStep (
-      NumericListKnot prev, VectorNd v, double t) {
+      VectorNd v, double t, NumericListKnot prevprev, NumericListKnot prev,
+      NumericListKnot next, NumericListKnot nextnext) {
 
-      NumericListKnot next = prev.next;
       double s = (t-prev.t)/(next.t-prev.t);
       
       allocateTmps (v.size());
@@ -683,12 +873,10 @@ public class NumericList
    }
    
    private void interpCubic (
-      NumericListKnot prev, VectorNd v, double t) {
+      VectorNd v, double t, NumericListKnot prevprev, NumericListKnot prev,
+      NumericListKnot next, NumericListKnot nextnext) {
 
-      NumericListKnot next = prev.next;
       double s = (t-prev.t)/(next.t-prev.t);
-      NumericListKnot prevprev = prev.prev;
-      NumericListKnot nextnext = next.next;
 
       allocateTmps (v.size());
       VectorNd v0 = myTmp0;
@@ -793,6 +981,21 @@ public class NumericList
          }
          return prev;
       }
+      interpolateKnots (v, t, order, prev.prev, prev, next, next.next);
+      return prev;
+   }
+
+   /**
+    * Interpolates the value associated with t, which is assumed to lie
+    * between the knots <code>prev</code> and <code>next</code>.
+    * <code>prevprev</code> and <code>nextnext</code> are the knots
+    * immediately before <code>prev</code> and after <code>next</code>, or
+    * <code>null</code> if there are no such knots. Only the t and v fields
+    * of the knots are used, so they need not belong to a list.
+    */
+   void interpolateKnots (
+      VectorNd v, double t, Order order, NumericListKnot prevprev,
+      NumericListKnot prev, NumericListKnot next, NumericListKnot nextnext) {
 
       int size = v.size();
 
@@ -805,13 +1008,13 @@ public class NumericList
             break;
          }
          case Cubic: {
-            if (prev.prev == null && next.next == null) {
+            if (prevprev == null && nextnext == null) {
                order = Order.Linear;
             }
             break;
          }
          case SphericalCubic: {
-            if (prev.prev == null && next.next == null) {
+            if (prevprev == null && nextnext == null) {
                if (size != 4 && size != 7 && size != 16) {
                   order = Order.Linear; 
                }
@@ -835,33 +1038,32 @@ public class NumericList
          }
          case Linear: {
             v.interpolate (prev.v, (t - prev.t) / (next.t - prev.t), next.v);
-            int VectorSize = prev.v.size();
             break;
          }
          case SphericalLinear: {
-            interpLinearRotation (prev, v, t);
+            interpLinearRotation (v, t, prevprev, prev, next, nextnext);
             if (size == 7 || size == 16) {
-               interpLinearPosition (prev, v, t);
+               interpLinearPosition (v, t, prevprev, prev, next, nextnext);
             }
             break;
          }
          case Parabolic: {
-            interpParabolic (prev, v, t);
+            interpParabolic (v, t, prevprev, prev, next);
             break;
          }
          case Cubic: {
-            interpCubic (prev, v, t);
+            interpCubic (v, t, prevprev, prev, next, nextnext);
             break;
          }
          case SphericalCubic: {
-            interpCubicRotation (prev, v, t);
+            interpCubicRotation (v, t, prevprev, prev, next, nextnext);
             if (size == 7 || size == 16) {
-               interpCubicPosition (prev, v, t);
+               interpCubicPosition (v, t, prevprev, prev, next, nextnext);
             }
             break;
          }
          case CubicStep: {
-            interpCubicStep (prev, v, t);
+            interpCubicStep (v, t, prevprev, prev, next, nextnext);
             break;
          }
          default: {
@@ -869,7 +1071,6 @@ public class NumericList
                "interpolation method " + order + " not implemented");
          }
       }
-      return prev;
    }
 
    private class MyIterator implements Iterator<NumericListKnot> {
@@ -927,12 +1128,9 @@ public class NumericList
     * 
     * @return number of knots
     */
-   public int getNumKnots() {
-      int cnt = 0;
-      for (NumericListKnot knot = myHead; knot != null; knot = knot.next) {
-         cnt++;
-      }
-      return cnt;
+   public synchronized int getNumKnots() {
+      updateIndexIfNecessary();
+      return myNumKnots;
    }
 
    /**
@@ -954,6 +1152,9 @@ public class NumericList
       }
       myTail = myHead = myLast = null;
       myMinMaxValid = false;
+      myIndex = new NumericListKnot[0];
+      myNumKnots = 0;
+      myIndexValid = true;
    }
    
    /**
@@ -1014,6 +1215,7 @@ public class NumericList
          }
       }
       clear();
+      ensureIndexCapacity (vals.length);
       NumericListKnot last = null;
       for (int i=0; i<vals.length; i++) {
          NumericListKnot knot = new NumericListKnot (myVsize);
@@ -1116,6 +1318,10 @@ public class NumericList
       }
       l.myLast = l.myHead = l.myTail = null;
       l.myMinMaxValid = false;
+      l.myIndex = new NumericListKnot[0];
+      l.myNumKnots = 0;
+      l.myIndexValid = true;
+      l.ensureIndexCapacity (getNumKnots());
       l.a1 = new VectorNd (0);
       l.a2 = new VectorNd (0);
       l.a3 = new VectorNd (0);
@@ -136,6 +136,68 @@ class NumericListTest {
       list.getInterpolation().setDataExtended (false);
       checkInterpolation (list, 6, 0, 0);
 
+      testConcurrentReads();
+   }
+
+   /**
+    * Checks that knot lookups made in one thread remain consistent while
+    * another thread is adding knots, including insertions that force the
+    * knot index to be rebuilt.
+    */
+   void testConcurrentReads() {
+      final NumericList clist = new NumericList (myVsize);
+      final int numKnots = 20000;
+      final RuntimeException[] error = new RuntimeException[1];
+      Thread reader = new Thread() {
+         public void run() {
+            try {
+               int cnt = 0;
+               while (clist.getNumKnots() < numKnots) {
+                  int num = clist.getNumKnots();
+                  if (num == 0) {
+                     continue;
+                  }
+                  NumericListKnot knot = clist.getKnot (num-1);
+                  if (knot == null) {
+                     throw new TestException ("null knot at "+(num-1));
+                  }
+                  double t = (cnt++ % num) + 0.25;
+                  knot = clist.findKnotAtOrBefore (t, null);
+                  if (knot == null || knot.t > t) {
+                     throw new TestException (
+                        "findKnotAtOrBefore("+t+") returned "+
+                        (knot == null ? "null" : "knot at "+knot.t));
+                  }
+               }
+            }
+            catch (RuntimeException e) {
+               error[0] = e;
+            }
+         }
+      };
+      reader.start();
+      for (int i=0; i<numKnots; i++) {
+         if (i % 100 == 50) {
+            // insert before the tail to invalidate the index
+            clist.add (newKnot (i-1.5, 0, 0));
+            clist.remove (clist.findKnotAtOrBefore (i-1.5, null));
+         }
+         clist.add (newKnot (i, i, 0));
+      }
+      try {
+         reader.join();
+      }
+      catch (InterruptedException e) {
+         throw new TestException ("interrupted");
+      }
+      if (error[0] != null) {
+         throw error[0];
+      }
+      for (int i=0; i<numKnots; i++) {
+         if (clist.getKnot(i).t != i) {
+            throw new TestException ("knot "+i+" has t="+clist.getKnot(i).t);
+         }
+      }
    }
 
    public static void main (String[] args) {
@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.matrix;
+
+import maspack.matrix.Matrix.Partition;
+
+/**
+ * Precomputed map from the entries of the blocks of a {@link
+ * SparseBlockMatrix} to their locations within a compressed row storage
+ * (CRS) value array. This allows the CRS values to be refreshed using a flat
+ * indexed copy, without traversing the block rows or updating row offsets,
+ * when the matrix values change but its structure does not.
+ *
+ * <p>A map is created using {@link
+ * SparseBlockMatrix#createBlockCRSValueMap} and applied using {@link
+ * SparseBlockMatrix#getBlockCRSValues(double[],BlockCRSValueMap)}. It
+ * remains valid for as long as the structure version of the matrix (as
+ * returned by {@link SparseBlockMatrix#getStructureVersion}) is unchanged.
+ * A map can also be used with a different matrix, or after the structure
+ * has been rebuilt, provided that the block layout is the same (see {@link
+ * #isValid(SparseBlockMatrix,Partition,int,int) isValid()}). This is useful
+ * for matrices, such as constraint matrices, which are recreated at each
+ * time step but whose layout seldom changes.
+ */
+public class BlockCRSValueMap {
+
+   SparseBlockMatrix myMatrix;
+   int myStructureVersion;
+   Partition myPartition;
+   int myNumBlkRows;
+   int myNumBlkCols;
+
+   // block layout, used to check whether the map can be used with another
+   // matrix: the sizes of the block rows and columns, the start of each
+   // block row within myBlks, and the block column of each block
+   int[] myRowSizes;
+   int[] myColSizes;
+   int[] myRowBlkStarts;
+   int[] myBlkCols;
+
+   // blocks, in the order in which they are copied
+   MatrixBlock[] myBlks;
+   // start of each block's entries within mySrcIdxs and myDstIdxs;
+   // myBlkStarts[myBlks.length] gives the total number of entries
+   int[] myBlkStarts;
+   // for each entry, its index within the row-major dense block values
+   int[] mySrcIdxs;
+   // for each entry, its index within the CRS value array
+   int[] myDstIdxs;
+   // buffer for dense block values
+   double[] myBuf;
+
+   BlockCRSValueMap (
+      SparseBlockMatrix M, Partition part, int numBlkRows, int numBlkCols,
+      int numBlks, int numVals, int maxBlkSize) {
+
+      myMatrix = M;
+      myStructureVersion = M.getStructureVersion();
+      myPartition = part;
+      myNumBlkRows = numBlkRows;
+      myNumBlkCols = numBlkCols;
+      myRowSizes = new int[numBlkRows];
+      myColSizes = new int[numBlkCols];
+      myRowBlkStarts = new int[numBlkRows+1];
+      myBlkCols = new int[numBlks];
+      myBlks = new MatrixBlock[numBlks];
+      myBlkStarts = new int[numBlks+1];
+      mySrcIdxs = new int[numVals];
+      myDstIdxs = new int[numVals];
+      myBuf = new double[maxBlkSize];
+   }
+
+   /**
+    * Returns the matrix for which this map was created, or to which it was
+    * most recently rebound by {@link
+    * #isValid(SparseBlockMatrix,Partition,int,int) isValid()}.
+    *
+    * @return matrix associated with this map
+    */
+   public SparseBlockMatrix getMatrix() {
+      return myMatrix;
+   }
+
+   /**
+    * Returns the number of CRS values set by this map.
+    *
+    * @return number of values
+    */
+   public int numValues() {
+      return myDstIdxs.length;
+   }
+
+   /**
+    * Queries whether this map can be used to obtain the CRS values for a
+    * specific matrix and sub-matrix partition. This will be true if the
+    * partition and sub-matrix size are the same as those used to create the
+    * map, and either (a) the matrix is the one currently associated with the
+    * map and its structure has not changed, or (b) the matrix has the same
+    * block layout (block sizes, block positions and block types) as the one
+    * used to create the map. In case (b), the map is rebound to
+    * <code>M</code> so that subsequent checks for <code>M</code> are
+    * fast. If the layout is found to differ, the map becomes invalid for all
+    * matrices.
+    *
+    * @param M matrix to check
+    * @param part partition to check
+    * @param numRows number of rows delimiting the sub-matrix
+    * @param numCols number of columns delimiting the sub-matrix
+    * @return {@code true} if the map is valid for the matrix
+    */
+   public boolean isValid (
+      SparseBlockMatrix M, Partition part, int numRows, int numCols) {
+      if (part != myPartition ||
+          M.getAlignedBlockRow (numRows) != myNumBlkRows ||
+          M.getAlignedBlockCol (numCols) != myNumBlkCols) {
+         return false;
+      }
+      if (M == myMatrix && M.getStructureVersion() == myStructureVersion) {
+         return true;
+      }
+      if (rebind (M)) {
+         return true;
+      }
+      else {
+         myMatrix = null;
+         return false;
+      }
+   }
+
+   /**
+    * Compares the block layout of M with that of this map, and if it is the
+    * same, associates the map with the blocks of M.
+    */
+   private boolean rebind (SparseBlockMatrix M) {
+      for (int bi=0; bi<myNumBlkRows; bi++) {
+         if (M.getBlockRowSize (bi) != myRowSizes[bi]) {
+            return false;
+         }
+      }
+      for (int bj=0; bj<myNumBlkCols; bj++) {
+         if (M.getBlockColSize (bj) != myColSizes[bj]) {
+            return false;
+         }
+      }
+      int k = 0;
+      for (int bi=0; bi<myNumBlkRows; bi++) {
+         for (MatrixBlock blk = M.firstBlockInRow (bi);
+              blk != null && blk.getBlockCol() < myNumBlkCols;
+              blk = blk.next()) {
+            int bj = blk.getBlockCol();
+            if (myPartition == Partition.UpperTriangular && bj < bi) {
+               continue;
+            }
+            if (k >= myRowBlkStarts[bi+1] ||
+                myBlkCols[k] != bj ||
+                myBlks[k].getClass() != blk.getClass()) {
+               return false;
+            }
+            myBlks[k++] = blk;
+         }
+         if (k != myRowBlkStarts[bi+1]) {
+            return false;
+         }
+      }
+      myMatrix = M;
+      myStructureVersion = M.getStructureVersion();
+      return true;
+   }
+
+   /**
+    * Queries whether the structure of the associated matrix has remained
+    * unchanged since this map was created.
+    *
+    * @return {@code true} if the matrix structure is unchanged
+    */
+   public boolean isValid() {
+      return (myMatrix != null &&
+              myMatrix.getStructureVersion() == myStructureVersion);
+   }
+}
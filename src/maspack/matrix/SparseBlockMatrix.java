@@ -61,6 +61,9 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
 
    protected boolean myVerticallyLinkedP = false;
 
+   // incremented whenever the block structure changes
+   protected int myStructureVersion = 0;
+
    public enum PrintFormat {
       MatrixMarket, CRS, CCS,
    }
@@ -88,6 +91,8 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
    }
 
    private void invalidateCRSandCCSOffsets() {
+      myStructureVersion++;
+
       myRowIndicesPartition = Partition.None;
       myCRSNumBlkRows = -1;
       myCRSNumBlkCols = -1;
@@ -118,6 +123,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
       myRowOffsets[nbk+1] = myRowOffsets[nbk]+size;
       myRows[nbk] = new MatrixBlockRowList();
       myNumRows += size;
+      myStructureVersion++;
 
       myNumBlockRows++;
    }
@@ -135,6 +141,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
       }
       myNumRows += nrows;
       myNumBlockRows += num;
+      myStructureVersion++;
    }
          
    public void removeRow (int rowIdx) {
@@ -217,6 +224,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
       }
       myNumCols += size;
       myNumBlockCols++;
+      myStructureVersion++;
    }
 
    public void addCols (int[] sizes, int num) {
@@ -234,6 +242,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
       }
       myNumCols += ncols;
       myNumBlockCols += num;
+      myStructureVersion++;
    }
 
    public void removeCol (int colIdx) {
@@ -1687,6 +1696,163 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
       return nnz;
    }
 
+   /**
+    * Returns a version number for the block structure of this matrix. The
+    * number is incremented whenever blocks, block rows or block columns are
+    * added or removed, and so can be used to determine when information that
+    * depends only on the matrix structure needs to be recomputed.
+    *
+    * @return structure version number
+    */
+   public int getStructureVersion() {
+      return myStructureVersion;
+   }
+
+   /**
+    * Creates a map that can be used to efficiently obtain the compressed row
+    * storage (CRS) values for a principal sub-matrix of this matrix delimited
+    * by the first <code>numRows</code> rows and the first
+    * <code>numCols</code> columns, using {@link
+    * #getBlockCRSValues(double[],BlockCRSValueMap)}. The CRS locations are
+    * the same as those used by {@link
+    * #getBlockCRSValues(double[],int[],Partition,int,int)}, and the
+    * <code>offsets</code> argument is updated in the same way, but no values
+    * are actually stored. The map remains valid until the structure of this
+    * matrix changes.
+    *
+    * @param offsets
+    * offsets within the value array for storing each row's values; upon
+    * return, these are incremented by the number of non-zero entries in
+    * each row.
+    * @param part
+    * specifies what portion of the sub-matrix to store; must be either
+    * {@link maspack.matrix.Matrix.Partition#Full Full} or
+    * {@link maspack.matrix.Matrix.Partition#UpperTriangular UpperTriangular}
+    * @param numRows
+    * number of rows delimiting the sub-matrix
+    * @param numCols
+    * number of columns delimiting the sub-matrix
+    * @return value map for the sub-matrix
+    */
+   public BlockCRSValueMap createBlockCRSValueMap (
+      int[] offsets, Partition part, int numRows, int numCols) {
+      if (part != Partition.UpperTriangular && part != Partition.Full) {
+         throw new UnsupportedOperationException (
+            "Matrix partition " + part + " not supported");
+      }
+      BlockSize bsize = getBlockSize (numRows, numCols);
+      int numBlkRows = bsize.numBlkRows;
+      int numBlkCols = bsize.numBlkCols;
+
+      // count the blocks and values
+      int numBlks = 0;
+      int numVals = 0;
+      int maxBlkSize = 0;
+      for (int bi = 0; bi < numBlkRows; bi++) {
+         for (MatrixBlock blk = myRows[bi].myHead;
+              blk != null && blk.getBlockCol() < numBlkCols;
+              blk = blk.next()) {
+            int bj = blk.getBlockCol();
+            if (part == Partition.UpperTriangular && bj < bi) {
+               continue;
+            }
+            Partition blkPart = (bj == bi ? part : Partition.Full);
+            numBlks++;
+            numVals += blk.numNonZeroVals (
+               blkPart, blk.rowSize(), blk.colSize());
+            maxBlkSize = Math.max (maxBlkSize, blk.rowSize()*blk.colSize());
+         }
+      }
+      BlockCRSValueMap map = new BlockCRSValueMap (
+         this, part, numBlkRows, numBlkCols, numBlks, numVals, maxBlkSize);
+
+      // local column indices for each block, stored densely by row
+      int[] localCols = new int[maxBlkSize];
+      int[] localOffs = null;
+      int off = 0;
+      int k = 0;
+      int nv = 0;
+      for (int bj = 0; bj < numBlkCols; bj++) {
+         map.myColSizes[bj] = getBlockColSize(bj);
+      }
+      for (int bi = 0; bi < numBlkRows; bi++) {
+         int nrows = getBlockRowSize(bi);
+         map.myRowSizes[bi] = nrows;
+         map.myRowBlkStarts[bi] = k;
+         if (localOffs == null || localOffs.length != nrows) {
+            localOffs = new int[nrows];
+         }
+         for (MatrixBlock blk = myRows[bi].myHead;
+              blk != null && blk.getBlockCol() < numBlkCols;
+              blk = blk.next()) {
+            int bj = blk.getBlockCol();
+            if (part == Partition.UpperTriangular && bj < bi) {
+               continue;
+            }
+            Partition blkPart = (bj == bi ? part : Partition.Full);
+            int ncols = blk.colSize();
+            for (int i = 0; i < nrows; i++) {
+               localOffs[i] = i*ncols;
+            }
+            blk.getBlockCRSIndices (localCols, 0, localOffs, blkPart);
+            map.myBlks[k] = blk;
+            map.myBlkCols[k] = bj;
+            map.myBlkStarts[k] = nv;
+            for (int i = 0; i < nrows; i++) {
+               int dst = offsets[off + i];
+               for (int p = i*ncols; p < localOffs[i]; p++) {
+                  map.mySrcIdxs[nv] = i*ncols + localCols[p];
+                  map.myDstIdxs[nv] = dst++;
+                  nv++;
+               }
+               offsets[off + i] = dst;
+            }
+            k++;
+         }
+         off += nrows;
+      }
+      map.myBlkStarts[k] = nv;
+      map.myRowBlkStarts[numBlkRows] = k;
+      return map;
+   }
+
+   /**
+    * Gets the compressed row storage (CRS) values for a principal sub-matrix
+    * of this matrix, using a map previously created by {@link
+    * #createBlockCRSValueMap}. Values are copied directly to their locations
+    * within <code>vals</code>, without the need to traverse the block rows.
+    *
+    * @param vals
+    * returns the value of each non-zero element.
+    * @param map
+    * value map created for this matrix, or for a matrix with the same block
+    * layout and then validated for this matrix using {@link
+    * BlockCRSValueMap#isValid(SparseBlockMatrix,Partition,int,int)
+    * map.isValid()}
+    * @return number of values stored
+    * @throws ImproperStateException if the map is not associated with this
+    * matrix or the matrix structure has since changed
+    */
+   public int getBlockCRSValues (double[] vals, BlockCRSValueMap map) {
+      if (map.myMatrix != this || !map.isValid()) {
+         throw new ImproperStateException (
+            "Value map not created for this matrix or matrix structure "+
+            "has changed");
+      }
+      MatrixBlock[] blks = map.myBlks;
+      int[] blkStarts = map.myBlkStarts;
+      int[] srcIdxs = map.mySrcIdxs;
+      int[] dstIdxs = map.myDstIdxs;
+      double[] buf = map.myBuf;
+      for (int k = 0; k < blks.length; k++) {
+         blks[k].get (buf);
+         for (int p = blkStarts[k]; p < blkStarts[k+1]; p++) {
+            vals[dstIdxs[p]] = buf[srcIdxs[p]];
+         }
+      }
+      return dstIdxs.length;
+   }
+
    public void addNumNonZerosByRow (int[] offsets, int idx, Partition part) {
       addNumNonZerosByRow (offsets, idx, part, myNumRows, myNumCols);
    }
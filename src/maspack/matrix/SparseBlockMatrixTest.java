@@ -590,7 +590,100 @@ public class SparseBlockMatrixTest extends MatrixTest {
             throw new TestException ("rowOffs["+nrows+"]: got "+rowOffs[nrows]
                + ", expected " + (nnz+1));
          }
-         
+         if (S != null) {
+            testBlockCRSValueMap (S, vals, rowOffs, part, nrows, ncols);
+         }
+      }
+   }
+
+   private void testBlockCRSValueMap (
+      SparseBlockMatrix S, double[] vals, int[] rowOffs, Partition part,
+      int nrows, int ncols) {
+
+      int[] offsets = new int[nrows];
+      for (int i=0; i<nrows; i++) {
+         offsets[i] = rowOffs[i]-1;
+      }
+      BlockCRSValueMap map =
+         S.createBlockCRSValueMap (offsets, part, nrows, ncols);
+      for (int i=0; i<nrows; i++) {
+         if (offsets[i] != rowOffs[i+1]-1) {
+            throw new TestException (
+               "value map offsets["+i+"]: got "+offsets[i]+
+               ", expected "+(rowOffs[i+1]-1));
+         }
+      }
+      if (!map.isValid (S, part, nrows, ncols)) {
+         throw new TestException ("value map not valid after creation");
+      }
+      double[] mvals = new double[vals.length];
+      int nvals = S.getBlockCRSValues (mvals, map);
+      checkEquals ("num map values", nvals, rowOffs[nrows]-1);
+      for (int k=0; k<nvals; k++) {
+         if (mvals[k] != vals[k]) {
+            throw new TestException (
+               "value map: got "+mvals[k]+" at "+k+", expected "+vals[k]);
+         }
+      }
+   }
+
+   private void testBlockCRSValueMapVersion() {
+      SparseBlockMatrix S = createRandomMatrix (-1, -1);
+      int nrows = S.rowSize();
+      int ncols = S.colSize();
+      BlockCRSValueMap map = S.createBlockCRSValueMap (
+         new int[nrows], Partition.Full, nrows, ncols);
+      if (!map.isValid (S, Partition.Full, nrows, ncols)) {
+         throw new TestException ("value map not valid after creation");
+      }
+      if (map.isValid (S, Partition.UpperTriangular, nrows, ncols)) {
+         throw new TestException ("value map valid for wrong partition");
+      }
+      int version = S.getStructureVersion();
+      // changing values should not change the structure version
+      S.setRandomValues();
+      checkEquals ("structure version", S.getStructureVersion(), version);
+      // a different matrix with the same layout should be able to use the map
+      int nnz = S.numNonZeroVals();
+      int[] rowOffs = new int[nrows+1];
+      S.getCRSIndices (new int[nnz], rowOffs, Partition.Full);
+      int[] offsets = new int[nrows];
+      for (int i=0; i<nrows; i++) {
+         offsets[i] = rowOffs[i]-1;
+      }
+      BlockCRSValueMap cmap =
+         S.createBlockCRSValueMap (offsets, Partition.Full, nrows, ncols);
+      SparseBlockMatrix C = S.clone();
+      C.setRandomValues();
+      if (!cmap.isValid (C, Partition.Full, nrows, ncols)) {
+         throw new TestException (
+            "value map not valid for matrix with the same layout");
+      }
+      double[] cvals = new double[nnz];
+      double[] chk = new double[nnz];
+      C.getBlockCRSValues (cvals, cmap);
+      C.getCRSValues (chk, Partition.Full);
+      for (int k=0; k<chk.length; k++) {
+         if (cvals[k] != chk[k]) {
+            throw new TestException (
+               "rebound value map: got "+cvals[k]+" at "+k+
+               ", expected "+chk[k]);
+         }
+      }
+      if (!map.isValid (S, Partition.Full, nrows, ncols)) {
+         throw new TestException ("value map not valid for original matrix");
+      }
+      S.removeAllBlocks();
+      if (map.isValid (S, Partition.Full, nrows, ncols)) {
+         throw new TestException ("value map valid after structure change");
+      }
+      try {
+         S.getBlockCRSValues (new double[map.numValues()], map);
+         throw new TestException (
+            "getBlockCRSValues() did not throw exception for invalid map");
+      }
+      catch (ImproperStateException e) {
+         // expected
       }
    }
 
@@ -1092,6 +1185,7 @@ public class SparseBlockMatrixTest extends MatrixTest {
       testAdd ();
 
       testRemoveRowsCols();
+      testBlockCRSValueMapVersion();
    }
 
    public static void main (String[] args) {
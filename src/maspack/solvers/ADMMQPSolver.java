@@ -0,0 +1,457 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers;
+
+import maspack.matrix.*;
+import maspack.solvers.DantzigQPSolver.Status;
+
+/**
+ * A QP (Quadratic Program) solver that uses the alternating direction method
+ * of multipliers (ADMM), following the operator splitting approach of OSQP.
+ * It solves problems of the same form as {@link DantzigQPSolver}:
+ * <pre>
+ * {@code
+ * min 1/2 x^T H x + f^T x, A x >= b, Aeq x = beq
+ * }
+ * </pre>
+ * Unlike the pivoting approach, whose cost grows with the cube of the number
+ * of inequality constraints, each ADMM iteration requires only sparse
+ * products with the constraint rows and back-solves with a Cholesky factor
+ * of {@code H + sigma I + A^T R A}. Constraint rows are stored sparsely, so
+ * that bound constraints (rows with a single non-zero) add only to the
+ * diagonal of this matrix.
+ *
+ * <p>If the problem dimensions are unchanged from the previous call, the
+ * iteration is warm-started from the previous primal and dual solution,
+ * which makes the solver well suited to sequences of closely related
+ * problems, such as those arising in inverse tracking. The solution is
+ * approximate, with accuracy controlled by {@link #setTolerance}.
+ *
+ * <p>Status values are those of {@link DantzigQPSolver.Status}.
+ */
+public class ADMMQPSolver {
+
+   public static double DEFAULT_TOLERANCE = 1e-6;
+   public static int DEFAULT_MAX_ITERATIONS = 4000;
+
+   // OSQP defaults
+   private static final double SIGMA = 1e-6;
+   private static final double ALPHA = 1.6;
+   private static final double RHO_EQ_SCALE = 1e3;
+   private static final double RHO_MIN = 1e-6;
+   private static final double RHO_MAX = 1e6;
+   private static final int RHO_UPDATE_INTERVAL = 25;
+   private static final double RHO_UPDATE_RATIO = 5.0;
+
+   private double myTol = DEFAULT_TOLERANCE;
+   private int myMaxIterations = DEFAULT_MAX_ITERATIONS;
+   private boolean myWarmStart = true;
+   private double myRho = 0.1;
+   private int myIterations;
+
+   // constraint rows in compressed row form. Inequalities come first,
+   // followed by equalities
+   private int myNumCons;
+   private int myNumEq;
+   private int[] myRowOffs = new int[1];
+   private int[] myColIdxs = new int[0];
+   private double[] myVals = new double[0];
+   private double[] myLower = new double[0];
+   private double[] myUpper = new double[0];
+   private double[] myRhoVec = new double[0];
+
+   // iterates, retained for warm starting
+   private int mySize = -1;
+   private double[] myX = new double[0];
+   private double[] myZ = new double[0];
+   private double[] myY = new double[0];
+
+   // workspace
+   private double[] myRhs = new double[0];
+   private double[] myXt = new double[0];
+   private double[] myZt = new double[0];
+   private double[] myTmp = new double[0];
+   private MatrixNd myK = new MatrixNd();
+   private CholeskyDecomposition myCholD = new CholeskyDecomposition();
+
+   public ADMMQPSolver() {
+   }
+
+   /**
+    * Returns the convergence tolerance for this solver.
+    *
+    * @return convergence tolerance
+    */
+   public double getTolerance() {
+      return myTol;
+   }
+
+   /**
+    * Sets the convergence tolerance for this solver. This is used as both
+    * the absolute and relative tolerance on the primal and dual residuals.
+    *
+    * @param tol convergence tolerance
+    */
+   public void setTolerance (double tol) {
+      myTol = tol;
+   }
+
+   /**
+    * Returns the maximum number of iterations allowed for each solve.
+    *
+    * @return maximum number of iterations
+    */
+   public int getMaxIterations() {
+      return myMaxIterations;
+   }
+
+   /**
+    * Sets the maximum number of iterations allowed for each solve.
+    *
+    * @param max maximum number of iterations
+    */
+   public void setMaxIterations (int max) {
+      myMaxIterations = max;
+   }
+
+   /**
+    * Queries whether warm starting is enabled.
+    *
+    * @return {@code true} if warm starting is enabled
+    */
+   public boolean getWarmStart() {
+      return myWarmStart;
+   }
+
+   /**
+    * Enables or disables warm starting. If enabled, and the problem size and
+    * number of constraints are unchanged from the previous solve, the
+    * iteration starts from the previous solution. Warm starting is enabled
+    * by default.
+    *
+    * @param enable if {@code true}, enables warm starting
+    */
+   public void setWarmStart (boolean enable) {
+      myWarmStart = enable;
+   }
+
+   /**
+    * Returns the number of iterations performed by the most recent solve.
+    *
+    * @return number of iterations
+    */
+   public int getIterationCount() {
+      return myIterations;
+   }
+
+   private double[] ensureLength (double[] buf, int len) {
+      return buf.length < len ? new double[len] : buf;
+   }
+
+   private int addRows (int k, MatrixNd A, VectorNd b, boolean eq) {
+      int n = A.colSize();
+      for (int i=0; i<A.rowSize(); i++) {
+         int nnz = myRowOffs[myNumCons];
+         for (int j=0; j<n; j++) {
+            double val = A.get (i, j);
+            if (val != 0) {
+               if (nnz == myColIdxs.length) {
+                  int newlen = Math.max (2*nnz, 16);
+                  int[] idxs = new int[newlen];
+                  double[] vals = new double[newlen];
+                  System.arraycopy (myColIdxs, 0, idxs, 0, nnz);
+                  System.arraycopy (myVals, 0, vals, 0, nnz);
+                  myColIdxs = idxs;
+                  myVals = vals;
+               }
+               myColIdxs[nnz] = j;
+               myVals[nnz] = val;
+               nnz++;
+            }
+         }
+         myLower[k] = b.get(i);
+         myUpper[k] = eq ? b.get(i) : Double.POSITIVE_INFINITY;
+         myNumCons++;
+         myRowOffs[myNumCons] = nnz;
+         k++;
+      }
+      return k;
+   }
+
+   private void setConstraints (
+      MatrixNd A, VectorNd b, MatrixNd Aeq, VectorNd beq) {
+
+      int nineq = (A != null ? A.rowSize() : 0);
+      int neq = (Aeq != null ? Aeq.rowSize() : 0);
+      int m = nineq + neq;
+      if (myRowOffs.length < m+1) {
+         myRowOffs = new int[m+1];
+      }
+      myLower = ensureLength (myLower, m);
+      myUpper = ensureLength (myUpper, m);
+      myRhoVec = ensureLength (myRhoVec, m);
+      myNumCons = 0;
+      myNumEq = neq;
+      myRowOffs[0] = 0;
+      int k = 0;
+      if (nineq > 0) {
+         k = addRows (k, A, b, /*eq=*/false);
+      }
+      if (neq > 0) {
+         k = addRows (k, Aeq, beq, /*eq=*/true);
+      }
+   }
+
+   private void setRhoVec (double rho) {
+      int nineq = myNumCons-myNumEq;
+      for (int i=0; i<myNumCons; i++) {
+         myRhoVec[i] = (i < nineq ? rho : RHO_EQ_SCALE*rho);
+      }
+   }
+
+   /**
+    * Forms and factors K = H + sigma I + A^T R A.
+    */
+   private boolean factorSystem (MatrixNd H, int n) {
+      myK.setSize (n, n);
+      double[] kbuf = myK.getBuffer();
+      int kw = myK.getBufferWidth();
+      for (int i=0; i<n; i++) {
+         for (int j=0; j<n; j++) {
+            kbuf[i*kw+j] = H.get (i, j);
+         }
+         kbuf[i*kw+i] += SIGMA;
+      }
+      for (int r=0; r<myNumCons; r++) {
+         double rho = myRhoVec[r];
+         int beg = myRowOffs[r];
+         int end = myRowOffs[r+1];
+         for (int p=beg; p<end; p++) {
+            int i = myColIdxs[p];
+            double ri = rho*myVals[p];
+            for (int q=beg; q<end; q++) {
+               kbuf[i*kw+myColIdxs[q]] += ri*myVals[q];
+            }
+         }
+      }
+      try {
+         myCholD.factor (myK);
+      }
+      catch (Exception e) {
+         return false;
+      }
+      return true;
+   }
+
+   // y = A x
+   private void mulA (double[] y, double[] x) {
+      for (int r=0; r<myNumCons; r++) {
+         double sum = 0;
+         for (int p=myRowOffs[r]; p<myRowOffs[r+1]; p++) {
+            sum += myVals[p]*x[myColIdxs[p]];
+         }
+         y[r] = sum;
+      }
+   }
+
+   // y += A^T x
+   private void mulAddATranspose (double[] y, double[] x) {
+      for (int r=0; r<myNumCons; r++) {
+         double xr = x[r];
+         if (xr != 0) {
+            for (int p=myRowOffs[r]; p<myRowOffs[r+1]; p++) {
+               y[myColIdxs[p]] += myVals[p]*xr;
+            }
+         }
+      }
+   }
+
+   private double maxAbs (double[] v, int n) {
+      double max = 0;
+      for (int i=0; i<n; i++) {
+         double a = Math.abs(v[i]);
+         if (a > max) {
+            max = a;
+         }
+      }
+      return max;
+   }
+
+   /**
+    * Solves a convex quadratic program with inequality constraints:
+    * <pre>
+    * {@code
+    * min 1/2 x^T H x + f^T x,  A x >= b
+    * }
+    * </pre>
+    *
+    * @param x computed minimum value
+    * @param H quadratic matrix term. Must be symmetric positive semi-definite
+    * @param f linear term
+    * @param A inequality constraint matrix (can be null)
+    * @param b inequality constraint offsets (can be null if A is null)
+    * @return status value.
+    */
+   public Status solve (
+      VectorNd x, MatrixNd H, VectorNd f, MatrixNd A, VectorNd b) {
+      return solve (x, H, f, A, b, null, null);
+   }
+
+   /**
+    * Solves a convex quadratic program with both equality and inequality
+    * constraints:
+    * <pre>
+    * {@code
+    * min 1/2 x^T H x + f^T x, A x >= b, Aeq x = beq
+    * }
+    * </pre>
+    *
+    * @param x computed minimum value
+    * @param H quadratic matrix term. Must be symmetric positive semi-definite
+    * @param f linear term
+    * @param A inequality constraint matrix (can be null)
+    * @param b inequality constraint offsets (can be null if A is null)
+    * @param Aeq equality constraint matrix (can be null)
+    * @param beq equality constraint offsets (can be null if Aeq is null)
+    * @return status value.
+    */
+   public Status solve (
+      VectorNd x, MatrixNd H, VectorNd f,
+      MatrixNd A, VectorNd b, MatrixNd Aeq, VectorNd beq) {
+
+      if (H.rowSize() != H.colSize()) {
+         throw new IllegalArgumentException ("H must be square");
+      }
+      int n = H.rowSize();
+      if (f.size() != n) {
+         throw new IllegalArgumentException (
+            "f size "+f.size()+" does not equal H size "+n);
+      }
+      if (A != null && A.rowSize() > 0 &&
+          (A.colSize() != n || b == null || b.size() != A.rowSize())) {
+         throw new IllegalArgumentException (
+            "A and b are inconsistent with H size "+n);
+      }
+      if (Aeq != null && Aeq.rowSize() > 0 &&
+          (Aeq.colSize() != n || beq == null || beq.size() != Aeq.rowSize())) {
+         throw new IllegalArgumentException (
+            "Aeq and beq are inconsistent with H size "+n);
+      }
+      setConstraints (A, b, Aeq, beq);
+      int m = myNumCons;
+
+      boolean warm = (myWarmStart && n == mySize && m == myZ.length);
+      if (!warm) {
+         myX = new double[n];
+         myZ = new double[m];
+         myY = new double[m];
+         mySize = n;
+      }
+      myRhs = ensureLength (myRhs, n);
+      myXt = ensureLength (myXt, n);
+      myTmp = ensureLength (myTmp, Math.max (n, m));
+      myZt = ensureLength (myZt, m);
+      double[] xk = myX;
+      double[] zk = myZ;
+      double[] yk = myY;
+      double[] fbuf = f.getBuffer();
+
+      setRhoVec (myRho);
+      if (!factorSystem (H, n)) {
+         return Status.NOT_SPD;
+      }
+      Status status = Status.ITERATION_LIMIT_EXCEEDED;
+      myIterations = 0;
+      for (int iter=0; iter<myMaxIterations; iter++) {
+         myIterations++;
+         // rhs = sigma x - f + A^T (R z - y)
+         for (int i=0; i<m; i++) {
+            myTmp[i] = myRhoVec[i]*zk[i] - yk[i];
+         }
+         for (int j=0; j<n; j++) {
+            myRhs[j] = SIGMA*xk[j] - fbuf[j];
+         }
+         mulAddATranspose (myRhs, myTmp);
+         if (!myCholD.solve (myXt, 0, myRhs, 0)) {
+            return Status.NUMERIC_ERROR;
+         }
+         mulA (myZt, myXt);
+         for (int j=0; j<n; j++) {
+            xk[j] = ALPHA*myXt[j] + (1-ALPHA)*xk[j];
+         }
+         for (int i=0; i<m; i++) {
+            double zrel = ALPHA*myZt[i] + (1-ALPHA)*zk[i];
+            double znew = zrel + yk[i]/myRhoVec[i];
+            if (znew < myLower[i]) {
+               znew = myLower[i];
+            }
+            else if (znew > myUpper[i]) {
+               znew = myUpper[i];
+            }
+            yk[i] += myRhoVec[i]*(zrel - znew);
+            zk[i] = znew;
+         }
+         // check convergence every few iterations
+         if ((iter % 5) == 4 || iter == myMaxIterations-1) {
+            // primal residual A x - z
+            mulA (myZt, xk);
+            double axNorm = maxAbs (myZt, m);
+            for (int i=0; i<m; i++) {
+               myZt[i] -= zk[i];
+            }
+            double rprim = maxAbs (myZt, m);
+            double zNorm = maxAbs (zk, m);
+            // dual residual H x + f + A^T y
+            for (int j=0; j<n; j++) {
+               myTmp[j] = 0;
+            }
+            mulAddATranspose (myTmp, yk);
+            double atyNorm = maxAbs (myTmp, n);
+            double hxNorm = 0;
+            double rdual = 0;
+            for (int i=0; i<n; i++) {
+               double hx = 0;
+               for (int j=0; j<n; j++) {
+                  hx += H.get(i,j)*xk[j];
+               }
+               hxNorm = Math.max (hxNorm, Math.abs(hx));
+               rdual = Math.max (rdual, Math.abs(hx + fbuf[i] + myTmp[i]));
+            }
+            double fNorm = maxAbs (fbuf, n);
+            double epsPrim = myTol + myTol*Math.max (axNorm, zNorm);
+            double epsDual =
+               myTol + myTol*Math.max (hxNorm, Math.max (atyNorm, fNorm));
+            if (Double.isNaN (rprim) || Double.isNaN (rdual)) {
+               return Status.NUMERIC_ERROR;
+            }
+            if (rprim <= epsPrim && rdual <= epsDual) {
+               status = Status.SOLVED;
+               break;
+            }
+            // adapt rho to balance the normalized residuals
+            if (m > 0 && (iter+1) % RHO_UPDATE_INTERVAL == 0) {
+               double pnorm = rprim/(Math.max (axNorm, zNorm)+1e-30);
+               double dnorm = rdual/(
+                  Math.max (hxNorm, Math.max (atyNorm, fNorm))+1e-30);
+               double rho = myRho*Math.sqrt (pnorm/(dnorm+1e-30));
+               rho = Math.min (Math.max (rho, RHO_MIN), RHO_MAX);
+               if (rho > RHO_UPDATE_RATIO*myRho ||
+                   rho < myRho/RHO_UPDATE_RATIO) {
+                  myRho = rho;
+                  setRhoVec (myRho);
+                  if (!factorSystem (H, n)) {
+                     return Status.NOT_SPD;
+                  }
+               }
+            }
+         }
+      }
+      x.setSize (n);
+      x.set (xk);
+      return status;
+   }
+}
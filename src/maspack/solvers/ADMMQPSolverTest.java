@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers;
+
+import maspack.solvers.DantzigQPSolver.Status;
+import maspack.matrix.*;
+import maspack.util.*;
+
+/**
+ * Testing program for the ADMMQPSolver. Solutions are checked against those
+ * produced by DantzigQPSolver.
+ */
+public class ADMMQPSolverTest extends UnitTest {
+
+   ADMMQPSolver mySolver = new ADMMQPSolver();
+   DantzigQPSolver myDantzig = new DantzigQPSolver();
+
+   public ADMMQPSolverTest() {
+      mySolver.setTolerance (1e-10);
+      mySolver.setMaxIterations (100000);
+   }
+
+   public void checkSolution (
+      MatrixNd H, VectorNd f, MatrixNd A, VectorNd b,
+      MatrixNd Aeq, VectorNd beq, VectorNd xcheck, double tol) {
+
+      VectorNd x = new VectorNd (xcheck.size());
+      Status status = mySolver.solve (x, H, f, A, b, Aeq, beq);
+      if (status != Status.SOLVED) {
+         throw new TestException (
+            "Unexpected solution status: " + status);
+      }
+      if (!x.epsilonEquals (xcheck, tol)) {
+         throw new TestException (
+            "Solution:\n" + x + "\nExpected:\n" + xcheck);
+      }
+   }
+
+   private MatrixNd createSPD (int n) {
+      MatrixNd J = new MatrixNd (n, n);
+      J.setRandom();
+      MatrixNd H = new MatrixNd (n, n);
+      H.mulTransposeLeft (J, J);
+      for (int i=0; i<n; i++) {
+         H.add (i, i, 0.1);
+      }
+      return H;
+   }
+
+   /**
+    * Problems with bound constraints only, as produced by the BoundsTerm
+    * of the inverse controller.
+    */
+   public void boundsTest (int n) {
+      MatrixNd H = createSPD (n);
+      VectorNd f = new VectorNd (n);
+      f.setRandom();
+      f.scale (4);
+      MatrixNd A = new MatrixNd (2*n, n);
+      VectorNd b = new VectorNd (2*n);
+      for (int i=0; i<n; i++) {
+         A.set (i, i, 1);
+         b.set (i, 0);
+         A.set (n+i, i, -1);
+         b.set (n+i, -1);
+      }
+      VectorNd xcheck = new VectorNd (n);
+      if (myDantzig.solve (xcheck, H, f, A, b) != Status.SOLVED) {
+         throw new TestException ("Dantzig solver failed");
+      }
+      checkSolution (H, f, A, b, null, null, xcheck, 1e-6);
+   }
+
+   /**
+    * Problems with general inequality and equality constraints.
+    */
+   public void generalTest (int n, int nineq, int neq) {
+      MatrixNd H = createSPD (n);
+      VectorNd f = new VectorNd (n);
+      f.setRandom();
+      MatrixNd A = new MatrixNd (nineq, n);
+      A.setRandom();
+      VectorNd b = new VectorNd (nineq);
+      b.setRandom();
+      for (int i=0; i<nineq; i++) {
+         // ensure x = 0 is feasible
+         b.set (i, -Math.abs (b.get(i)));
+      }
+      MatrixNd Aeq = new MatrixNd (neq, n);
+      Aeq.setRandom();
+      VectorNd beq = new VectorNd (neq);
+      VectorNd xcheck = new VectorNd (n);
+      if (myDantzig.solve (
+             xcheck, H, f, A, b, Aeq, beq) != Status.SOLVED) {
+         throw new TestException ("Dantzig solver failed");
+      }
+      checkSolution (H, f, A, b, Aeq, beq, xcheck, 1e-6);
+   }
+
+   /**
+    * Solves a sequence of slowly varying problems, checking that warm
+    * starting reduces the iteration count.
+    */
+   public void warmStartTest (int n) {
+      MatrixNd H = createSPD (n);
+      VectorNd f = new VectorNd (n);
+      f.setRandom();
+      f.scale (4);
+      MatrixNd A = new MatrixNd (2*n, n);
+      VectorNd b = new VectorNd (2*n);
+      for (int i=0; i<n; i++) {
+         A.set (i, i, 1);
+         A.set (n+i, i, -1);
+         b.set (n+i, -1);
+      }
+      VectorNd x = new VectorNd (n);
+      mySolver.setWarmStart (false);
+      mySolver.solve (x, H, f, A, b);
+      mySolver.solve (x, H, f, A, b);
+      int coldIters = mySolver.getIterationCount();
+      mySolver.setWarmStart (true);
+      mySolver.solve (x, H, f, A, b);
+      mySolver.solve (x, H, f, A, b);
+      int warmIters = mySolver.getIterationCount();
+      if (warmIters > coldIters) {
+         throw new TestException (
+            "Warm start iterations "+warmIters+
+            " exceed cold start iterations "+coldIters);
+      }
+   }
+
+   public void test() {
+      for (int k=0; k<10; k++) {
+         boundsTest (5);
+         boundsTest (20);
+         generalTest (6, 4, 0);
+         generalTest (8, 5, 2);
+      }
+      warmStartTest (20);
+   }
+
+   public static void main (String[] args) {
+      ADMMQPSolverTest tester = new ADMMQPSolverTest();
+      RandomGenerator.setSeed (0x1234);
+      tester.runtest();
+   }
+}
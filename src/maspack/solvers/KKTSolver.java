@@ -18,6 +18,9 @@ import java.util.Arrays;
 public class KKTSolver {
 
    private SparseSolverId mySolverType = SparseSolverId.Pardiso;
+   // solver type requested by the application. mySolverType may differ from
+   // this if the requested solver cannot handle the current M
+   private SparseSolverId myRequestedSolverType = SparseSolverId.Pardiso;
 
    public static boolean computeResidualMG = false;
    // when building an LCP matrix, use solves with multiple right sides:
@@ -38,6 +41,7 @@ public class KKTSolver {
    SparseBlockMatrix myGT;
    UmfpackSolver myUmfpack;
    PardisoSolver myPardiso;
+   SparseLDLTSolver myLDLT;
    DirectSolver myMatrixSolver;
    boolean myIndices1Based = false;
    boolean myLastSolveWasIterative = false;
@@ -54,11 +58,23 @@ public class KKTSolver {
    double[] myUmfpackVals = new double[0];
 
    int[] myLocalOffs = new int[0];
+   // cached maps for obtaining the CRS values of M and GT
+   BlockCRSValueMap myMValueMap;
+   BlockCRSValueMap myGTValueMap;
+   int myValueMapCreationCnt = 0;
+   int myAnalyzeCnt = 0;
    double[] myVals = new double[0];
 
    VectorNd myMGx = new VectorNd();
    VectorNd myMGy = new VectorNd();
 
+   // work vectors and results for solveWithCurrentFactor
+   VectorNd myResM = new VectorNd();
+   VectorNd myResG = new VectorNd();
+   VectorNd myDelM = new VectorNd();
+   VectorNd myDelG = new VectorNd();
+   double myLastRefinementResidual = 0;
+
    MatrixNd myLcpM = new MatrixNd();
    VectorNd myQ = new VectorNd();
    VectorNd myZ = new VectorNd();
@@ -69,6 +85,13 @@ public class KKTSolver {
    VectorNd myHi = new VectorNd();
    VectorNd myW = new VectorNd();
 
+   // warm-starting of LCP solves for unilateral constraints
+   boolean myWarmStartLCP = false;
+   MurtyLCPSolver myWarmLCPSolver;
+   boolean myLastLCPWarmStarted = false;
+   int myLastLCPPivotCnt = 0;
+   int myLastLCPIterationCnt = 0;
+
    private enum State {
       NULL, ANALYZED, FACTORED
    };
@@ -99,6 +122,14 @@ public class KKTSolver {
    };
 
    public KKTSolver (SparseSolverId solverType) {
+      createSolver (solverType);
+      myRequestedSolverType = solverType;
+   }
+
+   private void createSolver (SparseSolverId solverType) {
+      myPardiso = null;
+      myUmfpack = null;
+      myLDLT = null;
       switch (solverType) {
          case Pardiso: {
             myPardiso = new PardisoSolver();
@@ -110,6 +141,11 @@ public class KKTSolver {
             myMatrixSolver = myUmfpack;
             break;
          }
+         case SparseLDLT: {
+            myLDLT = new SparseLDLTSolver();
+            myMatrixSolver = myLDLT;
+            break;
+         }
          default: {
             throw new IllegalArgumentException (
                "Solver type " + solverType + " not supported");
@@ -122,6 +158,38 @@ public class KKTSolver {
       this (SparseSolverId.Pardiso);
    }
 
+   /**
+    * Returns the type of the solver currently being used. This will differ
+    * from the type specified in the constructor if that solver cannot handle
+    * the most recently analyzed matrix, such as when {@link
+    * SparseSolverId#SparseLDLT} is requested and M is not symmetric.
+    *
+    * @return current solver type
+    */
+   public SparseSolverId getSolverType() {
+      return mySolverType;
+   }
+
+   /**
+    * Makes sure that the current solver can handle matrices M of the
+    * indicated type, switching to a compatible solver if necessary.
+    */
+   private void updateSolverForMatrixType (int typeM) {
+      SparseSolverId type =
+         myRequestedSolverType.getCompatibleDirectSolver (typeM);
+      if (type == null) {
+         throw new UnsupportedOperationException (
+            "Solver "+myRequestedSolverType+" requires M to be symmetric, "+
+            "and neither Pardiso nor Umfpack are available");
+      }
+      if (type != mySolverType) {
+         if (myMatrixSolver != null) {
+            myMatrixSolver.dispose();
+         }
+         createSolver (type);
+      }
+   }
+
    /**
     * Performs symbolic analysis on the equality portion of the KKT system
     * defined by M and G. This step must be called before any calls are made to
@@ -132,6 +200,8 @@ public class KKTSolver {
       int numG = (GT != null ? GT.colSize() : 0);
       int numVals = 0;
 
+      updateSolverForMatrixType (typeM);
+      myAnalyzeCnt++;
       myTypeM = typeM;
       if ((typeM & Matrix.SYMMETRIC) != 0) {
          myPartitionM = Partition.UpperTriangular;
@@ -182,6 +252,8 @@ public class KKTSolver {
       // are using Pardiso, then the indices will incremented later and
       // myIndices1Based will be set to true.
       myIndices1Based = false;
+      myMValueMap = null;
+      myGTValueMap = null;
 
       getCRSRowOffsets (M, sizeM, GT);
       getCRSIndices (M, sizeM, numVals, GT);
@@ -197,7 +269,8 @@ public class KKTSolver {
             throw new NumericalException ("Unable to analyze matrix");
          }
       }
-      else { // add 1 to indices, since Pardiso indices are 1-based
+      else { // add 1 to indices, since Pardiso and SparseLDLT indices
+             // are 1-based
          // XXX
          for (int i = 0; i < numVals; i++) {
             myColIdxs[i]++;
@@ -206,7 +279,11 @@ public class KKTSolver {
             myRowOffs[i]++;
          }
          myIndices1Based = true;
-         if ((myTypeM & Matrix.SYMMETRIC) != 0) {
+         if (mySolverType == SparseSolverId.SparseLDLT) {
+            myLDLT.analyze (
+               myVals, myColIdxs, myRowOffs, sizeMG, Matrix.SYMMETRIC);
+         }
+         else if ((myTypeM & Matrix.SYMMETRIC) != 0) {
             // even if myTypeM is SPD, the KKT system won't be, so
             // we need a symmetric solve regardless
             myPardiso.analyze (
@@ -216,7 +293,8 @@ public class KKTSolver {
             myPardiso.analyze (
                myVals, myColIdxs, myRowOffs, sizeMG, Matrix.INDEFINITE);
          }
-         if (myPardiso.getState() == PardisoSolver.UNSET) {
+         if (myPardiso != null &&
+             myPardiso.getState() == PardisoSolver.UNSET) {
             throw new NumericalException (
                "Pardiso: unable to analyze matrix: "+myPardiso.getErrorMessage());
          }
@@ -308,19 +386,69 @@ public class KKTSolver {
       }
    }
 
+   /**
+    * Queries whether the cached value maps for M and GT are valid for the
+    * current matrices.
+    */
+   private boolean valueMapsValid (
+      SparseBlockMatrix M, int sizeM, SparseBlockMatrix GT) {
+      if (myMValueMap == null ||
+          !myMValueMap.isValid (M, myPartitionM, sizeM, sizeM)) {
+         return false;
+      }
+      if (GT != null) {
+         return (myGTValueMap != null &&
+                 myGTValueMap.isValid (
+                    GT, Partition.Full, sizeM, GT.colSize()));
+      }
+      else {
+         return myGTValueMap == null;
+      }
+   }
+
+   /**
+    * Creates value maps for M and GT. Offsets for the rows of M are assumed
+    * to be set in myLocalOffs, and are updated as they would be by
+    * getBlockCRSValues().
+    */
+   private void createValueMaps (
+      SparseBlockMatrix M, int sizeM, SparseBlockMatrix GT) {
+      myValueMapCreationCnt++;
+      myMValueMap = M.createBlockCRSValueMap (
+         myLocalOffs, myPartitionM, sizeM, sizeM);
+      if (GT != null) {
+         myGTValueMap = GT.createBlockCRSValueMap (
+            myLocalOffs, Partition.Full, sizeM, GT.colSize());
+      }
+      else {
+         myGTValueMap = null;
+      }
+   }
+
    private void getCRSValues (
       Object M, int sizeM, int numVals, SparseBlockMatrix GT, VectorNd Rg) {
-      for (int i = 0; i < sizeM; i++) {
-         myLocalOffs[i] = myRowOffs[i];
-         if (myIndices1Based) {
-            myLocalOffs[i]--;
-         }
-      }
       if (M instanceof SparseBlockMatrix) {
-         ((SparseBlockMatrix)M).getBlockCRSValues (
-            myVals, myLocalOffs, myPartitionM, sizeM, sizeM);
+         // use precomputed maps to copy the values of M and GT, since the
+         // structure is usually unchanged between calls
+         SparseBlockMatrix Mblk = (SparseBlockMatrix)M;
+         if (!valueMapsValid (Mblk, sizeM, GT)) {
+            for (int i = 0; i < sizeM; i++) {
+               myLocalOffs[i] = myRowOffs[i];
+               if (myIndices1Based) {
+                  myLocalOffs[i]--;
+               }
+            }
+            createValueMaps (Mblk, sizeM, GT);
+         }
+         Mblk.getBlockCRSValues (myVals, myMValueMap);
       }
       else {
+         for (int i = 0; i < sizeM; i++) {
+            myLocalOffs[i] = myRowOffs[i];
+            if (myIndices1Based) {
+               myLocalOffs[i]--;
+            }
+         }
          // M is a diagonal matrix represented by a VectorNd
          double[] diag = ((VectorNd)M).getBuffer();
          for (int i = 0; i < sizeM; i++) {
@@ -329,7 +457,13 @@ public class KKTSolver {
       }
       if (GT != null) {
          int numG = GT.colSize();
-         GT.getBlockCRSValues (myVals, myLocalOffs, Partition.Full, sizeM, numG);
+         if (myGTValueMap != null) {
+            GT.getBlockCRSValues (myVals, myGTValueMap);
+         }
+         else {
+            GT.getBlockCRSValues (
+               myVals, myLocalOffs, Partition.Full, sizeM, numG);
+         }
          // now do the lower block(s). Reset localOffs for the lower rows
          for (int i=0; i<numG; i++) {
             myLocalOffs[i] = myRowOffs[sizeM+i];
@@ -637,6 +771,69 @@ public class KKTSolver {
       return dosolve (vel, lam, null, null, bm, bg, null, null, null, null, null);
    }
 
+   // storage for solves with multiple right hand sides
+   private double[] myMultiX = new double[0];
+   private double[] myMultiB = new double[0];
+
+   /**
+    * Solves the equality parts of a factored system for multiple right hand
+    * sides {@code bm[k]}, all sharing the same constraint offsets {@code
+    * bg}. For the Pardiso and SparseLDLT solvers, the right hand sides are
+    * solved together in a single call to the underlying matrix solver, which
+    * may solve them concurrently; otherwise, they are solved one at a time.
+    *
+    * @param vel returns the velocity solutions
+    * @param lam returns the bilateral constraint solutions
+    * @param bm supplies the right hand side force terms
+    * @param bg bilateral constraint offsets
+    * @param nrhs number of right hand sides
+    * @return solution status
+    */
+   public Status solve (
+      VectorNd[] vel, VectorNd[] lam, VectorNd[] bm, VectorNd bg, int nrhs) {
+      myLastSolveWasIterative = false;
+      if (myState != State.FACTORED) {
+         throw new ImproperStateException ("Factor has not been called");
+      }
+      if (myPardiso == null && myLDLT == null) {
+         for (int k=0; k<nrhs; k++) {
+            dosolve (
+               vel[k], lam[k], null, null, bm[k], bg,
+               null, null, null, null, null);
+         }
+         return Status.SOLVED;
+      }
+      if (bg.size() != myNumG) {
+         throw new IllegalArgumentException (
+            "bg size "+bg.size()+" incompatible with factored GT size of "
+            + myNumG);
+      }
+      int w = mySizeM+myNumG;
+      if (myMultiX.length < w*nrhs) {
+         myMultiX = new double[w*nrhs];
+         myMultiB = new double[w*nrhs];
+      }
+      double[] gbuf = bg.getBuffer();
+      for (int k=0; k<nrhs; k++) {
+         if (vel[k].size() != mySizeM || bm[k].size() != mySizeM) {
+            throw new IllegalArgumentException (
+               "size of vel and/or bm incompatible with factored M size of "
+               + mySizeM);
+         }
+         System.arraycopy (bm[k].getBuffer(), 0, myMultiB, k*w, mySizeM);
+         System.arraycopy (gbuf, 0, myMultiB, k*w+mySizeM, myNumG);
+      }
+      solveMG (myMultiX, myMultiB, nrhs);
+      for (int k=0; k<nrhs; k++) {
+         lam[k].setSize (myNumG);
+         System.arraycopy (myMultiX, k*w, vel[k].getBuffer(), 0, mySizeM);
+         // solveMG() has already negated lam
+         System.arraycopy (
+            myMultiX, k*w+mySizeM, lam[k].getBuffer(), 0, myNumG);
+      }
+      return Status.SOLVED;
+   }
+
    double myDirectTimeMsec = 0;
    int myDirectCnt = 0;
    double myIterativeTimeMsec = 0;
@@ -764,6 +961,97 @@ public class KKTSolver {
       return Status.SOLVED;
    }
 
+   /**
+    * Solves a KKT system containing only equality constraints using the
+    * current numeric factorization, without refactoring. The factorization
+    * may have been computed for different values of M, GT and Rg (although
+    * the structure must be the same), in which case it is used as a
+    * modified-Newton matrix for iterative refinement: the solution is
+    * corrected using the residual of the actual system until the residual
+    * norm is at most {@code tol} times the norm of the right-hand side.
+    *
+    * <p>If this fails to converge within {@code maxIters} corrections, or if
+    * the residual does not decrease sufficiently between corrections, the
+    * method returns {@code false}, in which case the system should be
+    * refactored. The residual ratio from the last call can be obtained using
+    * {@link #getLastRefinementResidual}.
+    *
+    * @param M system matrix
+    * @param sizeM size of M
+    * @param GT transpose of the bilateral constraint matrix
+    * @param Rg if non-null, supplies the diagonal regularization matrix R
+    * @param vel returns the velocities
+    * @param lam returns the bilateral impulses
+    * @param bm right-hand side for the M rows
+    * @param bg right-hand side for the constraint rows
+    * @param tol relative residual tolerance
+    * @param maxIters maximum number of refinement corrections
+    * @return {@code true} if the solution converged
+    */
+   public boolean solveWithCurrentFactor (
+      SparseBlockMatrix M, int sizeM, SparseBlockMatrix GT, VectorNd Rg,
+      VectorNd vel, VectorNd lam, VectorNd bm, VectorNd bg,
+      double tol, int maxIters) {
+
+      myLastSolveWasIterative = false;
+      checkMGStructure (M, sizeM, GT);
+      if (myState != State.FACTORED) {
+         throw new ImproperStateException ("Factor has not been called");
+      }
+      int numG = myNumG;
+      myResM.setSize (sizeM);
+      myResG.setSize (numG);
+      myDelM.setSize (sizeM);
+      myDelG.setSize (numG);
+
+      double bnorm = Math.sqrt (bm.dot(bm) + (numG > 0 ? bg.dot(bg) : 0));
+      solveMG (vel, lam, bm, bg);
+      double prevRes = Double.MAX_VALUE;
+      for (int k=0; k<=maxIters; k++) {
+         // compute residual of the actual system
+         M.mul (myResM, vel, sizeM, sizeM);
+         myResM.sub (bm, myResM);
+         if (numG > 0) {
+            GT.mulAdd (myResM, lam, sizeM, numG);
+            GT.mulTranspose (myResG, vel, numG, sizeM);
+            myResG.sub (bg, myResG);
+            if (Rg != null) {
+               for (int i=0; i<numG; i++) {
+                  myResG.add (i, -Rg.get(i)*lam.get(i));
+               }
+            }
+         }
+         double res = Math.sqrt (
+            myResM.dot(myResM) + (numG > 0 ? myResG.dot(myResG) : 0));
+         myLastRefinementResidual = (bnorm > 0 ? res/bnorm : res);
+         if (res <= tol*bnorm) {
+            myLastSolveWasIterative = true;
+            return true;
+         }
+         if (k == maxIters || res > 0.5*prevRes) {
+            // not converging quickly enough to be worth continuing
+            return false;
+         }
+         prevRes = res;
+         solveMG (myDelM, myDelG, myResM, myResG);
+         vel.add (myDelM);
+         if (numG > 0) {
+            lam.add (myDelG);
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Returns the relative residual achieved by the most recent call to
+    * {@link #solveWithCurrentFactor}.
+    *
+    * @return most recent relative refinement residual
+    */
+   public double getLastRefinementResidual() {
+      return myLastRefinementResidual;
+   }
+
    private Status dosolve (
       VectorNd vel, VectorNd lam, VectorNd the, VectorNd phi,
       VectorNd bm, VectorNd bg, VectorNd bn, VectorNd bd,
@@ -851,6 +1139,90 @@ public class KKTSolver {
       return new VectorNi (myLcpState);
    }
 
+   /**
+    * Queries whether LCP solves for unilateral constraints are warm-started.
+    * See {@link #setWarmStartLCP}.
+    *
+    * @return {@code true} if LCP solves are warm-started
+    */
+   public boolean getWarmStartLCP() {
+      return myWarmStartLCP;
+   }
+
+   /**
+    * Enables or disables warm-starting of the LCP solves for unilateral
+    * constraints without friction. When enabled, and a state vector is
+    * supplied to the solve method and contains basic (i.e., {@link
+    * LCPSolver#Z_VAR}) entries, the LCP is first solved using a principal
+    * pivoting method starting from that state. If this fails, the LCP is
+    * solved from scratch using the default solver.
+    *
+    * @param enable if {@code true}, enables LCP warm starts
+    */
+   public void setWarmStartLCP (boolean enable) {
+      myWarmStartLCP = enable;
+   }
+
+   /**
+    * Queries whether the most recent LCP solve was successfully
+    * warm-started.
+    *
+    * @return {@code true} if the last LCP solve was warm-started
+    */
+   public boolean lastLCPWasWarmStarted() {
+      return myLastLCPWarmStarted;
+   }
+
+   /**
+    * Returns the number of times the maps used to obtain the CRS values of M
+    * and GT have been created. Maps are created when the system is analyzed,
+    * and afterwards only if the block layout of M or GT changes; new M or GT
+    * matrices with the same layout reuse the existing maps.
+    *
+    * @return number of value map creations
+    */
+   public int getValueMapCreationCount() {
+      return myValueMapCreationCnt;
+   }
+
+   /**
+    * Returns the number of times the KKT system has been analyzed.
+    *
+    * @return number of analyses
+    */
+   public int getAnalyzeCount() {
+      return myAnalyzeCnt;
+   }
+
+   /**
+    * Returns the number of pivots used by the most recent LCP solve,
+    * including those of any failed warm start.
+    *
+    * @return pivot count for the last LCP solve
+    */
+   public int getLastLCPPivotCount() {
+      return myLastLCPPivotCnt;
+   }
+
+   /**
+    * Returns the number of iterations used by the most recent LCP solve,
+    * including those of any failed warm start.
+    *
+    * @return iteration count for the last LCP solve
+    */
+   public int getLastLCPIterationCount() {
+      return myLastLCPIterationCnt;
+   }
+
+   private boolean hasBasicState (VectorNi state, int size) {
+      for (int i=0; i<size; i++) {
+         if (state.get(i) == LCPSolver.Z_VAR) {
+            return true;
+         }
+      }
+      return false;
+   }
+
    static int myMaxN = 0;
 
    private Status solveLCP (
@@ -896,7 +1268,33 @@ public class KKTSolver {
          timer = new FunctionTimer();
          timer.start();
       }
-      status = myDantzig.solve (myZ, myLcpState, myLcpM, myQ);
+      status = null;
+      myLastLCPWarmStarted = false;
+      myLastLCPPivotCnt = 0;
+      myLastLCPIterationCnt = 0;
+      if (myWarmStartLCP && state != null &&
+          hasBasicState (myLcpState, myQ.size())) {
+         if (myWarmLCPSolver == null) {
+            myWarmLCPSolver = new MurtyLCPSolver();
+            myWarmLCPSolver.setSilent (true);
+         }
+         status = myWarmLCPSolver.solve (myZ, myLcpState, myLcpM, myQ);
+         myLastLCPPivotCnt += myWarmLCPSolver.getPivotCount();
+         myLastLCPIterationCnt += myWarmLCPSolver.getIterationCount();
+         if (status == LCPSolver.Status.SOLVED) {
+            myLastLCPWarmStarted = true;
+         }
+         else {
+            // resolve from scratch
+            LCPSolver.clearState (myLcpState);
+            status = null;
+         }
+      }
+      if (status == null) {
+         status = myDantzig.solve (myZ, myLcpState, myLcpM, myQ);
+         myLastLCPPivotCnt += myDantzig.getPivotCount();
+         myLastLCPIterationCnt += myDantzig.getIterationCount();
+      }
       if (myQPTestCaseFile != null && myNT.colSize() >= myMaxN) {
          timer.stop();
          writeLcpAsQP (myQPTestCaseFile, myLcpM, myQ, myZ);
@@ -1278,7 +1676,7 @@ public class KKTSolver {
       myHi.setSize (n);
       myLo.setSize (n);
 
-      if (myPardiso != null && useBlockSolves) {
+      if ((myPardiso != null || myLDLT != null) && useBlockSolves) {
          MatrixNd ND = new MatrixNd();
          getDenseND (ND, NT, DT);
          solveMG (ND.getBuffer(), ND.getBuffer(), n);
@@ -1594,7 +1992,7 @@ public class KKTSolver {
     */
    public void solveMG (VectorNd x, VectorNd b) {
       myMatrixSolver.solve (x, b);
-      if (computeResidualMG) {
+      if (computeResidualMG && myPardiso != null) {
          double res = 
             myPardiso.residual (
                myRowOffs, myColIdxs, myVals, mySizeM+myNumG, 
@@ -1621,9 +2019,19 @@ public class KKTSolver {
             }
          }        
       }
+      else if (myLDLT != null) {
+         int w = mySizeM+myNumG;
+         myLDLT.solve (Xbuf, Bbuf, nrhs);
+         // negate lam.
+         for (int i=0; i<nrhs; i++) {
+            for (int j=mySizeM; j<w; j++) {
+               Xbuf[i*w+j] = -Xbuf[i*w+j];
+            }
+         }        
+      }
       else {
          throw new UnsupportedOperationException (
-            "solve for multiple rhs only supported for Pardiso");
+            "solve for multiple rhs only supported for Pardiso and SparseLDLT");
       }
    }
 
@@ -1694,6 +2102,9 @@ public class KKTSolver {
                "Umfpack: Matrix is near singular, solve could fail");
          }
       }
+      else if (myLDLT != null) {
+         myLDLT.factor (myVals);
+      }
       else {
          myPardiso.factor (myVals);
          if (myPardiso.getState() != PardisoSolver.FACTORED) {
@@ -1708,6 +2119,9 @@ public class KKTSolver {
    }
 
    public int getNumNonZerosInFactors() {
+      if (myLDLT != null) {
+         return myLDLT.getNumNonZerosInFactors();
+      }
       return myPardiso.getNumNonZerosInFactors();
    }
 
@@ -1721,6 +2135,7 @@ public class KKTSolver {
          myMatrixSolver = null;
          myPardiso = null;
          myUmfpack = null;
+         myLDLT = null;
       }
    }
 
@@ -110,6 +110,130 @@ public class KKTSolverTest {
          M, 6, GT, NT, Rg, Rn, bm, bg, bn, vel, lam, the, Matrix.INDEFINITE);
    }
 
+   /**
+    * Checks that an LCP solve warm started from the state of a previous
+    * solve gives the same answer as a cold solve.
+    */
+   public void testWarmStartLCP() {
+      int sizeM = 12;
+      int numN = 8;
+      MatrixNdBlock Mblk = new MatrixNdBlock (sizeM, sizeM);
+      Mblk.setRandom();
+      Mblk.mulTranspose (Mblk);
+      for (int i=0; i<sizeM; i++) {
+         Mblk.set (i, i, Mblk.get (i, i) + 1);
+      }
+      SparseBlockMatrix M = new SparseBlockMatrix();
+      M.addBlock (0, 0, Mblk);
+      SparseBlockMatrix GT = new SparseBlockMatrix (new int[] {sizeM}, new int[0]);
+      MatrixNdBlock NTblk = new MatrixNdBlock (sizeM, numN);
+      NTblk.setRandom();
+      SparseBlockMatrix NT = new SparseBlockMatrix();
+      NT.addBlock (0, 0, NTblk);
+
+      VectorNd bm = new VectorNd (sizeM);
+      VectorNd bg = new VectorNd (0);
+      VectorNd bn = new VectorNd (numN);
+      VectorNd Rn = new VectorNd (numN);
+      bm.setRandom();
+      bn.setRandom();
+
+      KKTSolver solver = new KKTSolver (SparseSolverId.SparseLDLT);
+      solver.analyze (M, sizeM, GT, null, Matrix.SYMMETRIC);
+      solver.factor (M, sizeM, GT, null, NT, Rn);
+
+      VectorNd vel0 = new VectorNd (sizeM);
+      VectorNd the0 = new VectorNd (numN);
+      VectorNd lam = new VectorNd (0);
+      VectorNi state = new VectorNi (numN);
+      Status status = solver.solve (vel0, lam, the0, bm, bg, bn, state);
+      if (status != Status.SOLVED) {
+         throw new TestException ("cold solve failed: " + status);
+      }
+      if (solver.lastLCPWasWarmStarted()) {
+         throw new TestException ("cold solve reported as warm started");
+      }
+      int coldPivots = solver.getLastLCPPivotCount();
+
+      // resolve, warm starting from the state of the last solve
+      solver.setWarmStartLCP (true);
+      VectorNd vel1 = new VectorNd (sizeM);
+      VectorNd the1 = new VectorNd (numN);
+      status = solver.solve (vel1, lam, the1, bm, bg, bn, state);
+      if (status != Status.SOLVED) {
+         throw new TestException ("warm solve failed: " + status);
+      }
+      if (!solver.lastLCPWasWarmStarted()) {
+         throw new TestException ("warm solve not reported as warm started");
+      }
+      if (solver.getLastLCPPivotCount() > coldPivots) {
+         throw new TestException (
+            "warm solve used " + solver.getLastLCPPivotCount() +
+            " pivots, cold solve used " + coldPivots);
+      }
+      if (!vel1.epsilonEquals (vel0, PREC) ||
+          !the1.epsilonEquals (the0, PREC)) {
+         throw new TestException (
+            "warm solve differs from cold solve:\n" +
+            "vel=" + vel1.toString ("%12.8f") + "\n" +
+            "expected " + vel0.toString ("%12.8f"));
+      }
+   }
+
+   /**
+    * Checks that solving for multiple right hand sides gives the same
+    * answers as solving for each one individually.
+    */
+   public void testMultipleRhs() {
+      int sizeM = 12;
+      int numG = 4;
+      MatrixNdBlock Mblk = new MatrixNdBlock (sizeM, sizeM);
+      Mblk.setRandom();
+      Mblk.mulTranspose (Mblk);
+      for (int i=0; i<sizeM; i++) {
+         Mblk.set (i, i, Mblk.get (i, i) + 1);
+      }
+      SparseBlockMatrix M = new SparseBlockMatrix();
+      M.addBlock (0, 0, Mblk);
+      MatrixNdBlock GTblk = new MatrixNdBlock (sizeM, numG);
+      GTblk.setRandom();
+      SparseBlockMatrix GT = new SparseBlockMatrix();
+      GT.addBlock (0, 0, GTblk);
+      VectorNd bg = new VectorNd (numG);
+      bg.setRandom();
+
+      KKTSolver solver = new KKTSolver (SparseSolverId.SparseLDLT);
+      solver.analyze (M, sizeM, GT, null, Matrix.SYMMETRIC);
+      solver.factor (M, sizeM, GT, null);
+
+      int nrhs = 5;
+      VectorNd[] vel = new VectorNd[nrhs];
+      VectorNd[] lam = new VectorNd[nrhs];
+      VectorNd[] bm = new VectorNd[nrhs];
+      for (int k=0; k<nrhs; k++) {
+         vel[k] = new VectorNd (sizeM);
+         lam[k] = new VectorNd (numG);
+         bm[k] = new VectorNd (sizeM);
+         bm[k].setRandom();
+      }
+      Status status = solver.solve (vel, lam, bm, bg, nrhs);
+      if (status != Status.SOLVED) {
+         throw new TestException ("multiple rhs solve failed: " + status);
+      }
+      VectorNd velChk = new VectorNd (sizeM);
+      VectorNd lamChk = new VectorNd (numG);
+      for (int k=0; k<nrhs; k++) {
+         solver.solve (velChk, lamChk, bm[k], bg);
+         if (!vel[k].epsilonEquals (velChk, PREC) ||
+             !lam[k].epsilonEquals (lamChk, PREC)) {
+            throw new TestException (
+               "multiple rhs solve differs for rhs " + k + ":\n" +
+               "vel=" + vel[k].toString ("%12.8f") + "\n" +
+               "expected " + velChk.toString ("%12.8f"));
+         }
+      }
+   }
+
    private void solveAndCheck (
       Object M, int sizeM, SparseBlockMatrix GT, SparseBlockMatrix NT,
       VectorNd Rg, VectorNd Rn, VectorNd bm, VectorNd bg, VectorNd bn,
@@ -582,6 +706,8 @@ public class KKTSolverTest {
       PardisoSolver.printThreadInfo = false;
       try {
          //tester.test();
+         tester.testWarmStartLCP();
+         tester.testMultipleRhs();
          //tester.testFromFile ("blockCollide3.txt");
          tester.testFromFile ("MLCPtest.txt");
       }
@@ -0,0 +1,430 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers;
+
+import java.util.Arrays;
+
+/**
+ * Computes a fill-reducing ordering for a sparse symmetric matrix using an
+ * approximate minimum degree algorithm. The algorithm follows the general
+ * approach of AMD (Amestoy, Davis and Duff), operating on a quotient graph
+ * with approximate external degrees, element absorption and supervariable
+ * detection.
+ *
+ * <p>Nodes may be marked as <i>delayed</i>, in which case they are not
+ * eliminated until at least one of their neighbors has been eliminated. This
+ * is used for nodes with a zero diagonal (such as the constraint rows of a
+ * KKT system), since eliminating them first would result in a zero pivot.
+ */
+class MinimumDegreeOrdering {
+
+   private static final int VARIABLE = 0;
+   private static final int ELEMENT = 1;
+   private static final int DEAD = 2;
+
+   private int n;
+
+   private int[][] myVarAdj;    // variable neighbors of each variable
+   private int[] myVarLen;
+   private int[][] myElemAdj;   // element neighbors of each variable
+   private int[] myElemLen;
+   private int[][] myElemVars;  // variables of each element
+   private int[] myElemVarLen;
+
+   private int[] myStatus;
+   private int[] myWeight;      // number of nodes in each supervariable
+   private int[] myDegree;      // approximate external degree
+   private boolean[] myDelayed;
+
+   // degree lists
+   private int[] myHead;
+   private int[] myNext;
+   private int[] myPrev;
+   private boolean[] myInList;
+   private int myMinDegree;
+
+   // nodes merged into each supervariable
+   private int[] myMergeNext;
+   private int[] myMergeLast;
+
+   private int[] myMark;
+   private int myStamp;
+   private int[] myW;
+   private int[] myWMark;
+   private int myWStamp;
+
+   private MinimumDegreeOrdering (
+      int n, int[] offs, int[] idxs, boolean[] delayed) {
+      this.n = n;
+      myVarAdj = new int[n][];
+      myVarLen = new int[n];
+      myElemAdj = new int[n][];
+      myElemLen = new int[n];
+      myElemVars = new int[n][];
+      myElemVarLen = new int[n];
+      myStatus = new int[n];
+      myWeight = new int[n];
+      myDegree = new int[n];
+      myDelayed = delayed;
+      myHead = new int[n+1];
+      myNext = new int[n];
+      myPrev = new int[n];
+      myInList = new boolean[n];
+      myMergeNext = new int[n];
+      myMergeLast = new int[n];
+      myMark = new int[n];
+      myW = new int[n];
+      myWMark = new int[n];
+      Arrays.fill (myHead, -1);
+      Arrays.fill (myMergeNext, -1);
+      for (int i=0; i<n; i++) {
+         int len = offs[i+1]-offs[i];
+         myVarAdj[i] = Arrays.copyOfRange (idxs, offs[i], offs[i+1]);
+         myVarLen[i] = len;
+         myElemAdj[i] = new int[2];
+         myWeight[i] = 1;
+         myDegree[i] = len;
+         myMergeLast[i] = i;
+      }
+   }
+
+   /**
+    * Computes a fill-reducing ordering for a symmetric matrix whose
+    * adjacency structure (excluding the diagonal) is given in compressed
+    * form by <code>offs</code> and <code>idxs</code>.
+    *
+    * @param n size of the matrix
+    * @param offs offsets into idxs for each node (length n+1)
+    * @param idxs adjacent nodes
+    * @param delayed if non-<code>null</code>, identifies nodes whose
+    * elimination should be delayed
+    * @return permutation, whose k-th entry gives the k-th eliminated node
+    */
+   static int[] compute (int n, int[] offs, int[] idxs, boolean[] delayed) {
+      if (delayed == null) {
+         delayed = new boolean[n];
+      }
+      MinimumDegreeOrdering ordering =
+         new MinimumDegreeOrdering (n, offs, idxs, delayed);
+      return ordering.computeOrdering();
+   }
+
+   private void addToList (int i) {
+      int d = myDegree[i];
+      myNext[i] = myHead[d];
+      myPrev[i] = -1;
+      if (myHead[d] != -1) {
+         myPrev[myHead[d]] = i;
+      }
+      myHead[d] = i;
+      myInList[i] = true;
+      if (d < myMinDegree) {
+         myMinDegree = d;
+      }
+   }
+
+   private void removeFromList (int i) {
+      if (myInList[i]) {
+         if (myPrev[i] != -1) {
+            myNext[myPrev[i]] = myNext[i];
+         }
+         else {
+            myHead[myDegree[i]] = myNext[i];
+         }
+         if (myNext[i] != -1) {
+            myPrev[myNext[i]] = myPrev[i];
+         }
+         myInList[i] = false;
+      }
+   }
+
+   private int nextStamp() {
+      if (++myStamp == Integer.MAX_VALUE) {
+         Arrays.fill (myMark, 0);
+         myStamp = 1;
+      }
+      return myStamp;
+   }
+
+   private int nextWStamp() {
+      if (++myWStamp == Integer.MAX_VALUE) {
+         Arrays.fill (myWMark, 0);
+         myWStamp = 1;
+      }
+      return myWStamp;
+   }
+
+   private int selectPivot() {
+      while (myMinDegree <= n && myHead[myMinDegree] == -1) {
+         myMinDegree++;
+      }
+      if (myMinDegree <= n) {
+         return myHead[myMinDegree];
+      }
+      // only delayed variables with no eliminated neighbors remain; take the
+      // one with the smallest degree
+      int p = -1;
+      for (int i=0; i<n; i++) {
+         if (myStatus[i] == VARIABLE &&
+             (p == -1 || myDegree[i] < myDegree[p])) {
+            p = i;
+         }
+      }
+      return p;
+   }
+
+   private static int[] append (int[] list, int len, int val) {
+      if (len == list.length) {
+         list = Arrays.copyOf (list, Math.max (2*len, 2));
+      }
+      list[len] = val;
+      return list;
+   }
+
+   /**
+    * Removes dead variables from the variable list of element e and returns
+    * the total weight of the variables that remain.
+    */
+   private int compactElement (int e) {
+      int[] vars = myElemVars[e];
+      int len = 0;
+      int size = 0;
+      for (int k=0; k<myElemVarLen[e]; k++) {
+         int v = vars[k];
+         if (myStatus[v] == VARIABLE) {
+            vars[len++] = v;
+            size += myWeight[v];
+         }
+      }
+      myElemVarLen[e] = len;
+      return size;
+   }
+
+   private int[] computeOrdering() {
+      int[] perm = new int[n];
+      int numOrdered = 0;
+
+      myMinDegree = n+1;
+      for (int i=0; i<n; i++) {
+         if (!myDelayed[i]) {
+            addToList (i);
+         }
+      }
+      int[] Lp = new int[n];
+      while (numOrdered < n) {
+         int p = selectPivot();
+         removeFromList (p);
+
+         // form the new element Lp from the elements and variables adjacent
+         // to p, absorbing the elements
+         int stamp = nextStamp();
+         myMark[p] = stamp;
+         int lenLp = 0;
+         int degLp = 0;
+         for (int ke=0; ke<myElemLen[p]; ke++) {
+            int e = myElemAdj[p][ke];
+            if (myStatus[e] != ELEMENT) {
+               continue;
+            }
+            for (int kv=0; kv<myElemVarLen[e]; kv++) {
+               int v = myElemVars[e][kv];
+               if (myStatus[v] == VARIABLE && myMark[v] != stamp) {
+                  myMark[v] = stamp;
+                  Lp[lenLp++] = v;
+                  degLp += myWeight[v];
+               }
+            }
+            myStatus[e] = DEAD;
+            myElemVars[e] = null;
+         }
+         for (int kv=0; kv<myVarLen[p]; kv++) {
+            int v = myVarAdj[p][kv];
+            if (myStatus[v] == VARIABLE && myMark[v] != stamp) {
+               myMark[v] = stamp;
+               Lp[lenLp++] = v;
+               degLp += myWeight[v];
+            }
+         }
+
+         // eliminate p, turning it into an element
+         myStatus[p] = ELEMENT;
+         myElemVars[p] = Arrays.copyOf (Lp, lenLp);
+         myElemVarLen[p] = lenLp;
+         myVarAdj[p] = null;
+         myElemAdj[p] = null;
+         for (int i=p; i!=-1; i=myMergeNext[i]) {
+            perm[numOrdered++] = i;
+         }
+
+         // update the adjacency of each variable in Lp
+         for (int k=0; k<lenLp; k++) {
+            int i = Lp[k];
+            removeFromList (i);
+            int[] elems = myElemAdj[i];
+            int len = 0;
+            for (int ke=0; ke<myElemLen[i]; ke++) {
+               int e = elems[ke];
+               if (myStatus[e] == ELEMENT) {
+                  elems[len++] = e;
+               }
+            }
+            myElemAdj[i] = append (elems, len, p);
+            myElemLen[i] = len+1;
+            // variables in Lp are now covered by element p
+            int[] vars = myVarAdj[i];
+            len = 0;
+            for (int kv=0; kv<myVarLen[i]; kv++) {
+               int v = vars[kv];
+               if (myStatus[v] == VARIABLE && myMark[v] != stamp) {
+                  vars[len++] = v;
+               }
+            }
+            myVarLen[i] = len;
+         }
+
+         // compute |Le \ Lp| for each element adjacent to Lp
+         int wstamp = nextWStamp();
+         for (int k=0; k<lenLp; k++) {
+            int i = Lp[k];
+            for (int ke=0; ke<myElemLen[i]; ke++) {
+               int e = myElemAdj[i][ke];
+               if (e == p) {
+                  continue;
+               }
+               if (myWMark[e] != wstamp) {
+                  myWMark[e] = wstamp;
+                  myW[e] = compactElement (e);
+               }
+               myW[e] -= myWeight[i];
+            }
+         }
+
+         // update the approximate degrees, absorbing elements that are
+         // contained in Lp
+         int numRemaining = n-numOrdered;
+         for (int k=0; k<lenLp; k++) {
+            int i = Lp[k];
+            int[] elems = myElemAdj[i];
+            int len = 0;
+            int deg = 0;
+            for (int ke=0; ke<myElemLen[i]; ke++) {
+               int e = elems[ke];
+               if (e != p) {
+                  if (myStatus[e] != ELEMENT) {
+                     continue;
+                  }
+                  if (myW[e] == 0) {
+                     // aggressive absorption
+                     myStatus[e] = DEAD;
+                     myElemVars[e] = null;
+                     continue;
+                  }
+                  deg += myW[e];
+               }
+               elems[len++] = e;
+            }
+            myElemLen[i] = len;
+            for (int kv=0; kv<myVarLen[i]; kv++) {
+               deg += myWeight[myVarAdj[i][kv]];
+            }
+            int ext = degLp - myWeight[i];
+            deg += ext;
+            deg = Math.min (deg, myDegree[i] + ext);
+            deg = Math.min (deg, numRemaining - myWeight[i]);
+            myDegree[i] = Math.max (deg, 0);
+         }
+
+         // detect supervariables within Lp: variables with identical
+         // element and variable adjacency can be merged
+         mergeSupervariables (Lp, lenLp);
+
+         for (int k=0; k<lenLp; k++) {
+            int i = Lp[k];
+            if (myStatus[i] == VARIABLE) {
+               addToList (i);
+            }
+         }
+      }
+      return perm;
+   }
+
+   private long hashAdjacency (int i) {
+      long h = 0;
+      for (int ke=0; ke<myElemLen[i]; ke++) {
+         h += myElemAdj[i][ke];
+      }
+      for (int kv=0; kv<myVarLen[i]; kv++) {
+         h += myVarAdj[i][kv];
+      }
+      return h % n;
+   }
+
+   private boolean sameAdjacency (int i, int j) {
+      if (myElemLen[i] != myElemLen[j] || myVarLen[i] != myVarLen[j]) {
+         return false;
+      }
+      int stamp = nextStamp();
+      for (int ke=0; ke<myElemLen[i]; ke++) {
+         myMark[myElemAdj[i][ke]] = stamp;
+      }
+      for (int kv=0; kv<myVarLen[i]; kv++) {
+         myMark[myVarAdj[i][kv]] = stamp;
+      }
+      for (int ke=0; ke<myElemLen[j]; ke++) {
+         if (myMark[myElemAdj[j][ke]] != stamp) {
+            return false;
+         }
+      }
+      for (int kv=0; kv<myVarLen[j]; kv++) {
+         if (myMark[myVarAdj[j][kv]] != stamp) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private void mergeSupervariables (int[] Lp, int lenLp) {
+      if (lenLp < 2) {
+         return;
+      }
+      long[] keys = new long[lenLp];
+      for (int k=0; k<lenLp; k++) {
+         int i = Lp[k];
+         keys[k] = (hashAdjacency (i) << 32) | i;
+      }
+      Arrays.sort (keys);
+      int k0 = 0;
+      while (k0 < lenLp) {
+         long hash = keys[k0] >>> 32;
+         int k1 = k0+1;
+         while (k1 < lenLp && (keys[k1] >>> 32) == hash) {
+            k1++;
+         }
+         for (int ka=k0; ka<k1; ka++) {
+            int i = (int)keys[ka];
+            if (myStatus[i] != VARIABLE) {
+               continue;
+            }
+            for (int kb=ka+1; kb<k1; kb++) {
+               int j = (int)keys[kb];
+               if (myStatus[j] == VARIABLE && sameAdjacency (i, j)) {
+                  // merge j into i
+                  myDegree[i] = Math.max (myDegree[i]-myWeight[j], 0);
+                  myWeight[i] += myWeight[j];
+                  myWeight[j] = 0;
+                  myStatus[j] = DEAD;
+                  myMergeNext[myMergeLast[i]] = j;
+                  myMergeLast[i] = myMergeLast[j];
+                  myVarAdj[j] = null;
+                  myElemAdj[j] = null;
+               }
+            }
+         }
+         k0 = k1;
+      }
+   }
+}
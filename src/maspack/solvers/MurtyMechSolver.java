@@ -307,7 +307,8 @@ public class MurtyMechSolver {
    DirectSolver myMatrixSolver;      // current sparse solver
    UmfpackSolver myUmfpack;          // Umfpack solver, if used
    PardisoSolver myPardiso;          // Pardiso solver, if used
-   int mySavedMaxRefinementSteps;    // saved value of Pardiso refinement steps
+   SparseLDLTSolver myLDLT;          // SparseLDLT solver, if used
+   int mySavedMaxRefinementSteps;    // saved value of solver refinement steps
    boolean myAMatrixFactored;        // A matrix factored and ready for solution
    
    // control variables related to hybrid solves
@@ -499,6 +500,11 @@ public class MurtyMechSolver {
             myMatrixSolver = myUmfpack;
             break;
          }
+         case SparseLDLT: {
+            myLDLT = new SparseLDLTSolver();
+            myMatrixSolver = myLDLT;
+            break;
+         }
          default: {
             throw new IllegalArgumentException (
                "Solver type " + solverType + " not supported");
@@ -516,6 +522,10 @@ public class MurtyMechSolver {
          myUmfpack = (UmfpackSolver)solver;
          mySolverType = SparseSolverId.Umfpack;
       }
+      else if (solver instanceof SparseLDLTSolver) {
+         myLDLT = (SparseLDLTSolver)solver;
+         mySolverType = SparseSolverId.SparseLDLT;
+      }
       else {
          throw new UnsupportedOperationException ("Unsupported solver "+solver);
       }
@@ -864,7 +874,8 @@ public class MurtyMechSolver {
    }
 
    private void analyzeA (int[] colIdxs) {
-      if (mySolverType == SparseSolverId.Pardiso) {
+      if (mySolverType == SparseSolverId.Pardiso ||
+          mySolverType == SparseSolverId.SparseLDLT) {
          int[] rowOffs = Arrays.copyOf (myRowOffsA, mySizeA+1);
          for (int i=0; i<rowOffs.length; i++) {
             rowOffs[i]++;
@@ -876,12 +887,18 @@ public class MurtyMechSolver {
          myARowOffs = rowOffs;
          //getAValues (null, true);
          myAnalyzeTimer.restart();
-         myPardiso.analyze (
-            myValuesA, colIdxs, rowOffs, mySizeA, Matrix.SYMMETRIC);
-         if (myPardiso.getState() == PardisoSolver.UNSET) {
-            throw new NumericalException (
-               "Pardiso: unable to analyze matrix: " +
-               myPardiso.getErrorMessage());
+         if (myLDLT != null) {
+            myLDLT.analyze (
+               myValuesA, colIdxs, rowOffs, mySizeA, Matrix.SYMMETRIC);
+         }
+         else {
+            myPardiso.analyze (
+               myValuesA, colIdxs, rowOffs, mySizeA, Matrix.SYMMETRIC);
+            if (myPardiso.getState() == PardisoSolver.UNSET) {
+               throw new NumericalException (
+                  "Pardiso: unable to analyze matrix: " +
+                  myPardiso.getErrorMessage());
+            }
          }
          myAnalyzeTimer.stop();
          //getAValues (null, false);
@@ -944,6 +961,13 @@ public class MurtyMechSolver {
          myTotalFactorCnt++;
          myAMatrixFactored = true;
       }
+      else if (mySolverType == SparseSolverId.SparseLDLT) {
+         myFactorTimer.restart();
+         myLDLT.factor (myValuesA);
+         myFactorTimer.stop();
+         myTotalFactorCnt++;
+         myAMatrixFactored = true;
+      }
       else {
          throw new UnsupportedOperationException (
             "Solver " + mySolverType + " is not supported");
@@ -958,6 +982,13 @@ public class MurtyMechSolver {
          mySolveCnt++;
          myTotalSolveCnt++;
       }
+      else if (mySolverType == SparseSolverId.SparseLDLT) {
+         mySolveTimer.restart();
+         myLDLT.solve (y, x);
+         mySolveTimer.stop();
+         mySolveCnt++;
+         myTotalSolveCnt++;
+      }
       else {
          throw new UnsupportedOperationException (
             "Solver " + mySolverType + " is not supported");
@@ -973,12 +1004,40 @@ public class MurtyMechSolver {
          mySolveCnt += nrows;
          myTotalSolveCnt += nrows;
       }
+      else if (mySolverType == SparseSolverId.SparseLDLT) {
+         mySolveTimer.restart();
+         int nrows= Y.rowSize(); 
+         myLDLT.solve (Y.getBuffer(), X.getBuffer(), nrows);
+         mySolveTimer.stop();
+         mySolveCnt += nrows;
+         myTotalSolveCnt += nrows;
+      }
       else {
          throw new UnsupportedOperationException (
             "Solver " + mySolverType + " is not supported");
       }
    }
 
+   private void disableRefinementSteps() {
+      if (myLDLT != null) {
+         mySavedMaxRefinementSteps = myLDLT.getMaxRefinementSteps();
+         myLDLT.setMaxRefinementSteps(0);
+      }
+      else {
+         mySavedMaxRefinementSteps = myPardiso.getMaxRefinementSteps();
+         myPardiso.setMaxRefinementSteps(0);
+      }
+   }
+
+   private void restoreRefinementSteps() {
+      if (myLDLT != null) {
+         myLDLT.setMaxRefinementSteps(mySavedMaxRefinementSteps);
+      }
+      else {
+         myPardiso.setMaxRefinementSteps(mySavedMaxRefinementSteps);
+      }
+   }
+
    private boolean canDoHybridSolve() {
       if (myHybridSolves && myPardiso != null &&
           mySizeND == 0 && myAvgDirectTime > 0 && !myAStructureChanged) {
@@ -3110,8 +3169,7 @@ public class MurtyMechSolver {
 
       myTol = myDefaultTol;
 
-      mySavedMaxRefinementSteps = myPardiso.getMaxRefinementSteps();
-      myPardiso.setMaxRefinementSteps(0);
+      disableRefinementSteps();
 
       updateAndSolveA (stateN, stateD);
       myNTActivityFrozen = ((flags & NT_INACTIVE) != 0);
@@ -3141,7 +3199,7 @@ public class MurtyMechSolver {
       else {
          extractMGSolution (vel, lam);
       }
-      myPardiso.setMaxRefinementSteps(mySavedMaxRefinementSteps);
+      restoreRefinementSteps();
       myNTActivityFrozen = false;
       getStateN (stateN);
       getStateD (stateD);
@@ -3189,8 +3247,7 @@ public class MurtyMechSolver {
 
       setFrictionLimits (flim);
 
-      mySavedMaxRefinementSteps = myPardiso.getMaxRefinementSteps();
-      myPardiso.setMaxRefinementSteps(0);
+      disableRefinementSteps();
       
       myTol = myDefaultTol;
 
@@ -3207,7 +3264,7 @@ public class MurtyMechSolver {
          extractMGSolution (vel, lam);      
       }
       
-      myPardiso.setMaxRefinementSteps(mySavedMaxRefinementSteps);
+      restoreRefinementSteps();
       myNTActivityFrozen = false;
       getStateN (stateN);
       getStateD (stateD);
@@ -3311,6 +3368,7 @@ public class MurtyMechSolver {
          myMatrixSolver = null;
          myPardiso = null;
          myUmfpack = null;
+         myLDLT = null;
       }
    }
 
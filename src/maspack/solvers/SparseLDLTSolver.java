@@ -0,0 +1,1600 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers;
+
+import java.util.Arrays;
+
+import maspack.concurrency.ParallelLoop;
+import maspack.matrix.ImproperStateException;
+import maspack.matrix.Matrix;
+import maspack.matrix.Matrix.Partition;
+import maspack.matrix.NumericalException;
+import maspack.matrix.VectorNd;
+
+/**
+ * Pure Java direct solver for sparse symmetric matrices, which may be
+ * indefinite (such as the KKT systems that arise in constrained mechanics).
+ * The matrix is factored as
+ * <pre>
+ * P M P^T = L D L^T
+ * </pre>
+ * where P is a fill-reducing permutation combined with pivot interchanges,
+ * L is unit lower triangular and D is block diagonal with 1 x 1 and 2 x 2
+ * blocks. Since this solver does not depend on native code, it can be
+ * used in environments where {@link PardisoSolver} is not available.
+ *
+ * <p>Solving is done in three phases:
+ * <ul>
+ * <li>{@link #analyze analyze()} computes a minimum degree ordering
+ * and a supernodal symbolic factorization, which depend only on the
+ * sparsity structure of the matrix;
+ * <li>{@link #factor factor()} computes the numeric factorization, reusing
+ * the most recent analysis, and can be called repeatedly as long as the
+ * sparsity structure does not change;
+ * <li>{@link #solve(VectorNd,VectorNd) solve()} solves the system for a
+ * given right hand side.
+ * </ul>
+ *
+ * <p>The numeric factorization is left-looking and supernodal. Supernodes
+ * that are at the same height in the supernodal elimination tree are
+ * independent of each other and are factored in parallel if the number of
+ * threads (see {@link #setNumThreads setNumThreads()}) is greater than
+ * one. The order of floating point operations does not depend on the number
+ * of threads, so results are identical regardless of how many threads are
+ * used.
+ *
+ * <p>The ordering delays the elimination of rows whose diagonal is zero
+ * (such as constraint rows in a KKT system) until they have been coupled to
+ * an eliminated row. Within each supernode, pivots are then chosen
+ * dynamically using Bunch-Kaufman pivoting with 1 x 1 and 2 x 2 pivots
+ * (see {@link #setDynamicPivoting setDynamicPivoting()}). Since pivots are
+ * not exchanged between supernodes, a suitable pivot may not always be
+ * found, in which case any pivot whose magnitude is below a small threshold
+ * is replaced by the threshold value (static pivot perturbation, as also
+ * done by Pardiso). If any pivots are perturbed, or if the entries of L
+ * show large growth, the solution is improved using iterative refinement.
+ */
+public class SparseLDLTSolver implements DirectSolver {
+
+   /**
+    * Ordering methods that may be used to reduce fill-in.
+    */
+   public enum ReorderMethod {
+      /**
+       * Approximate minimum degree ordering.
+       */
+      AMD,
+
+      /**
+       * No reordering.
+       */
+      NONE
+   };
+
+   public static double DEFAULT_PIVOT_PERTURBATION = 1e-8;
+   public static int DEFAULT_MAX_REFINEMENT_STEPS = 2;
+
+   // Bunch-Kaufman constant (1+sqrt(17))/8, which minimizes element growth
+   private static final double BK_ALPHA = (1+Math.sqrt(17))/8;
+
+   private static int myDefaultNumThreads = 1;
+
+   private enum State {
+      UNSET, ANALYZED, FACTORED
+   };
+
+   private State myState = State.UNSET;
+
+   private ReorderMethod myReorderMethod = ReorderMethod.AMD;
+   private double myPivotPerturbation = DEFAULT_PIVOT_PERTURBATION;
+   private int myMaxRefinementSteps = DEFAULT_MAX_REFINEMENT_STEPS;
+   private int myNumRefinementSteps = 0;
+   private int myNumPerturbedPivots = 0;
+   private int myNumNegPivots = 0;
+   private boolean myDynamicPivoting = true;
+   private int myNumPivotInterchanges = 0;
+   private double myMaxFactorEntry = 0;
+
+   private int myNumThreads;
+   private ParallelLoop myLoop;
+   private Workspace[] myWorkspaces;
+
+   // matrix supplied to analyze(Matrix,int,int), if any
+   private Matrix myMatrix;
+
+   // upper triangular CRS structure of the matrix, 0-based
+   private int mySize;
+   private int myNumVals;
+   private int[] myRowOffs = new int[0];
+   private int[] myColIdxs = new int[0];
+   private double[] myVals = new double[0];
+
+   // fill reducing permutation: myPerm[k] gives the original index of the
+   // k-th pivot, and myIperm is its inverse
+   private int[] myPerm;
+   private int[] myIperm;
+
+   // supernodal structure. Supernode s contains the columns
+   // mySuperCols[s] ... mySuperCols[s+1]-1, and its (sorted) row indices
+   // are given by mySuperRows[mySuperRowOffs[s]] ... mySuperRows
+   // [mySuperRowOffs[s+1]-1]. The first rows are the supernode columns
+   // themselves. Values are stored in column-major order starting at
+   // mySuperValOffs[s].
+   private int myNumSupers;
+   private int[] mySuperCols;
+   private int[] myColSupers;
+   private int[] mySuperRowOffs;
+   private int[] mySuperRows;
+   private int[] mySuperValOffs;
+   private int myMaxSuperRows;
+
+   // supernodes which update supernode s are given by myUpdateSupers
+   // [myUpdateOffs[s]] ... myUpdateSupers[myUpdateOffs[s+1]-1]. For each of
+   // these, myUpdateRowStart and myUpdateRowEnd give the range of local
+   // rows that correspond to the columns of s.
+   private int[] myUpdateOffs;
+   private int[] myUpdateSupers;
+   private int[] myUpdateRowStart;
+   private int[] myUpdateRowEnd;
+
+   // supernodes arranged by height in the supernodal elimination tree
+   private int[] myLevelOffs;
+   private int[] myLevelSupers;
+
+   // maps each input value into the factor storage, with the values
+   // belonging to supernode s given by myValIdxs[myValOffs[s]] ...
+   private int[] myValOffs;
+   private int[] myValIdxs;
+   private int[] myValMap;
+
+   // numeric factor. myD contains the diagonal of D, and myDoff[k] is the
+   // off-diagonal entry coupling pivots k and k+1 if they form a 2 x 2
+   // block, and 0 otherwise. myPivSwaps[k] gives the column that was
+   // interchanged with column k when pivot k was chosen; 2 x 2 blocks never
+   // span more than one supernode.
+   private double[] myL = new double[0];
+   private double[] myD = new double[0];
+   private double[] myDoff = new double[0];
+   private int[] myPivSwaps = new int[0];
+   private int[] mySuperNumPerturbed;
+   private int[] mySuperNumNeg;
+   private int[] mySuperNumSwaps;
+   private double[] mySuperMaxEntry;
+
+   // work vectors for solves
+   private double[] myY = new double[0];
+   private double[] myR = new double[0];
+   private double[] myDx = new double[0];
+   private double[] myB = new double[0];
+
+   /**
+    * Per-thread workspace for the numeric factorization.
+    */
+   private static class Workspace {
+      int[] myRelIdxs;
+      double[] myBuf;
+      double[] myBuf2;
+
+      // work vectors for concurrent solves, allocated on demand
+      double[] myY;
+      double[] myR;
+      double[] myDx;
+      double[] myB;
+
+      Workspace (int n, int maxRows) {
+         myRelIdxs = new int[n];
+         myBuf = new double[maxRows];
+         myBuf2 = new double[maxRows];
+      }
+
+      void allocateSolveVectors (int n) {
+         if (myY == null || myY.length < n) {
+            myY = new double[n];
+            myR = new double[n];
+            myDx = new double[n];
+            myB = new double[n];
+         }
+      }
+   }
+
+   // minimum number of right hand sides per worker for concurrent solves
+   private static final int MIN_SOLVE_CHUNK = 2;
+
+   public SparseLDLTSolver() {
+      myNumThreads = myDefaultNumThreads;
+   }
+
+   /**
+    * Sets the default number of threads used by a <code>SparseLDLTSolver</code>
+    * when it is created. Setting <code>num</code> to a value {@code <=} 0 sets
+    * the number of threads to the number of available processors.
+    *
+    * @param num default number of threads to use
+    * @see #getDefaultNumThreads
+    */
+   public static void setDefaultNumThreads (int num) {
+      if (num <= 0) {
+         num = Runtime.getRuntime().availableProcessors();
+      }
+      myDefaultNumThreads = num;
+   }
+
+   /**
+    * Returns the default number of threads used by a
+    * <code>SparseLDLTSolver</code> when it is created.
+    *
+    * @return default number of threads
+    * @see #setDefaultNumThreads
+    */
+   public static int getDefaultNumThreads () {
+      return myDefaultNumThreads;
+   }
+
+   /**
+    * Sets the number of threads used for the numeric factorization and
+    * for solves with multiple right hand sides. Setting
+    * <code>num</code> to a value {@code <=} 0 sets the number of threads to
+    * the number of available processors.
+    *
+    * @param num number of threads to use
+    * @see #getNumThreads
+    */
+   public synchronized void setNumThreads (int num) {
+      if (num <= 0) {
+         num = Runtime.getRuntime().availableProcessors();
+      }
+      if (num != myNumThreads) {
+         myNumThreads = num;
+         if (myLoop != null) {
+            myLoop.shutdown();
+            myLoop = null;
+         }
+         myWorkspaces = null;
+      }
+   }
+
+   /**
+    * Returns the number of threads used for the numeric factorization
+    * and for solves with multiple right hand sides.
+    *
+    * @return number of threads
+    * @see #setNumThreads
+    */
+   public synchronized int getNumThreads () {
+      return myNumThreads;
+   }
+
+   /**
+    * Returns the reorder method used during the analyze phase to reduce
+    * fill-in.
+    *
+    * @return current reorder method
+    * @see #setReorderMethod
+    */
+   public ReorderMethod getReorderMethod () {
+      return myReorderMethod;
+   }
+
+   /**
+    * Sets the reorder method used during the analyze phase to reduce fill-in.
+    * The new method takes effect at the next call to {@link #analyze
+    * analyze()}.
+    *
+    * @param method reorder method
+    * @see #getReorderMethod
+    */
+   public void setReorderMethod (ReorderMethod method) {
+      myReorderMethod = method;
+   }
+
+   /**
+    * Sets the relative threshold used for static pivot perturbation. Any
+    * pivot whose magnitude is less than or equal to <code>eps</code> times
+    * the largest magnitude value in the matrix is replaced by this threshold.
+    *
+    * @param eps relative pivot perturbation threshold
+    * @see #getPivotPerturbation
+    */
+   public void setPivotPerturbation (double eps) {
+      if (eps < 0) {
+         throw new IllegalArgumentException (
+            "pivot perturbation must be non-negative");
+      }
+      myPivotPerturbation = eps;
+   }
+
+   /**
+    * Returns the relative threshold used for static pivot perturbation.
+    *
+    * @return relative pivot perturbation threshold
+    * @see #setPivotPerturbation
+    */
+   public double getPivotPerturbation () {
+      return myPivotPerturbation;
+   }
+
+   /**
+    * Enables or disables dynamic pivoting within supernodes. If disabled,
+    * pivots are taken in the order determined by the analysis and small
+    * pivots are handled only by static perturbation. Dynamic pivoting is
+    * enabled by default, and the new setting takes effect at the next call to
+    * {@link #factor factor()}.
+    *
+    * @param enable if <code>true</code>, enables dynamic pivoting
+    * @see #getDynamicPivoting
+    */
+   public void setDynamicPivoting (boolean enable) {
+      myDynamicPivoting = enable;
+   }
+
+   /**
+    * Queries whether dynamic pivoting within supernodes is enabled.
+    *
+    * @return <code>true</code> if dynamic pivoting is enabled
+    * @see #setDynamicPivoting
+    */
+   public boolean getDynamicPivoting () {
+      return myDynamicPivoting;
+   }
+
+   /**
+    * Sets the maximum number of iterative refinement steps performed after a
+    * solve when pivots were perturbed during the factorization, or when the
+    * entries of L show large growth. Setting this to 0 disables iterative
+    * refinement.
+    *
+    * @param nsteps maximum number of iterative refinement steps
+    * @see #getMaxRefinementSteps
+    */
+   public void setMaxRefinementSteps (int nsteps) {
+      myMaxRefinementSteps = Math.max (nsteps, 0);
+   }
+
+   /**
+    * Returns the maximum number of iterative refinement steps.
+    *
+    * @return maximum number of iterative refinement steps
+    * @see #setMaxRefinementSteps
+    */
+   public int getMaxRefinementSteps () {
+      return myMaxRefinementSteps;
+   }
+
+   /**
+    * Returns the number of iterative refinement steps actually performed
+    * during the most recent solve.
+    *
+    * @return number of iterative refinement steps
+    */
+   public int getNumRefinementSteps () {
+      return myNumRefinementSteps;
+   }
+
+   /**
+    * Returns the number of pivots that were perturbed during the most recent
+    * factorization.
+    *
+    * @return number of perturbed pivots
+    */
+   public int getNumPerturbedPivots () {
+      return myNumPerturbedPivots;
+   }
+
+   /**
+    * Returns the number of pivots that were interchanged with a later column
+    * by dynamic pivoting during the most recent factorization. Each 2 x 2
+    * pivot also counts as one interchange.
+    *
+    * @return number of pivot interchanges
+    */
+   public int getNumPivotInterchanges () {
+      return myNumPivotInterchanges;
+   }
+
+   /**
+    * Returns the number of negative eigenvalues of D resulting from the most
+    * recent factorization. If no pivots were perturbed, this equals the
+    * number of negative eigenvalues of the matrix.
+    *
+    * @return number of negative pivots
+    */
+   public int getNumNegEigenvalues () {
+      return myNumNegPivots;
+   }
+
+   /**
+    * Returns the number of non-zero values in the factor L, including the
+    * diagonal.
+    *
+    * @return number of non-zeros in the factorization
+    */
+   public int getNumNonZerosInFactors () {
+      if (myState == State.UNSET) {
+         return 0;
+      }
+      long nnz = 0;
+      for (int s=0; s<myNumSupers; s++) {
+         long k = mySuperCols[s+1]-mySuperCols[s];
+         long m = mySuperRowOffs[s+1]-mySuperRowOffs[s];
+         nnz += k*(k+1)/2 + (m-k)*k;
+      }
+      return (int)Math.min (nnz, Integer.MAX_VALUE);
+   }
+
+   /**
+    * Returns the fill reducing permutation computed by the most recent
+    * analysis. Entry k gives the original index of the k-th pivot.
+    *
+    * @return fill reducing permutation, or <code>null</code> if no analysis
+    * has been performed
+    */
+   public int[] getPermutation() {
+      return myPerm == null ? null : Arrays.copyOf (myPerm, mySize);
+   }
+
+   /**
+    * Returns the number of supernodes found by the most recent analysis.
+    *
+    * @return number of supernodes
+    */
+   public int numSupernodes() {
+      return myState == State.UNSET ? 0 : myNumSupers;
+   }
+
+   private void checkSymmetricType (int type) {
+      if ((type & Matrix.SYMMETRIC) == 0) {
+         throw new IllegalArgumentException (
+            "SparseLDLTSolver only supports symmetric matrices");
+      }
+   }
+
+   /**
+    * Sets the matrix associated with this solver and performs symbolic
+    * analysis on it. If <code>size</code> is less than
+    * <code>M.rowSize()</code>, the matrix is taken to be the top-left
+    * diagonal sub-matrix of the indicated size. This solver retains a pointer
+    * to <code>M</code> until the next call to {@link #analyze analyze()}, so
+    * that subsequent calls to {@link #factor()} can obtain its current
+    * values.
+    *
+    * @param M supplies the matrix to be analyzed
+    * @param size size of the matrix to be analyzed
+    * @param type type of the matrix to be analyzed; must include
+    * {@link Matrix#SYMMETRIC}
+    * @throws IllegalArgumentException if the matrix is not square, if
+    * <code>size</code> is out of bounds, or if <code>type</code> is not
+    * symmetric
+    */
+   public synchronized void analyze (Matrix M, int size, int type) {
+      if (M.rowSize() != M.colSize()) {
+         throw new IllegalArgumentException ("Matrix is not square");
+      }
+      if (size < 0 || size > M.rowSize()) {
+         throw new IllegalArgumentException (
+            "Requested size " + size + " is out of bounds");
+      }
+      checkSymmetricType (type);
+      int numVals = M.numNonZeroVals (Partition.UpperTriangular, size, size);
+      int[] colIdxs = new int[numVals];
+      int[] rowOffs = new int[size+1];
+      double[] vals = new double[numVals];
+      M.getCRSIndices (colIdxs, rowOffs, Partition.UpperTriangular, size, size);
+      M.getCRSValues (vals, Partition.UpperTriangular, size, size);
+      doAnalyze (vals, colIdxs, rowOffs, size);
+      myMatrix = M;
+   }
+
+   /**
+    * Sets the matrix associated with this solver and performs symbolic
+    * analysis on it. The structure of the matrix is described using
+    * compressed row storage (CRS) with 1-based indices (see {@link
+    * maspack.matrix.Matrix#setCRSValues Matrix.setCRSValues()}), and must
+    * contain the upper triangular portion of the matrix only. The values are
+    * used to determine which diagonal entries are zero; subsequent
+    * factorizations must be done using {@link #factor(double[])}.
+    *
+    * @param vals values of the non-zero matrix elements
+    * @param colIdxs 1-based column indices of the non-zero matrix elements
+    * @param rowOffs 1-based row start offsets into <code>vals</code> and
+    * <code>colIdxs</code>
+    * @param size size of the matrix to be analyzed
+    * @param type type of the matrix to be analyzed; must include
+    * {@link Matrix#SYMMETRIC}
+    * @throws IllegalArgumentException if the CRS data structures are
+    * inconsistent or are not upper triangular, or if <code>type</code> is not
+    * symmetric
+    */
+   public synchronized void analyze (
+      double[] vals, int[] colIdxs, int[] rowOffs, int size, int type) {
+      checkSymmetricType (type);
+      doAnalyze (vals, colIdxs, rowOffs, size);
+      myMatrix = null;
+   }
+
+   private void doAnalyze (
+      double[] vals, int[] colIdxs, int[] rowOffs, int size) {
+
+      if (size < 0 || rowOffs.length < size+1) {
+         throw new IllegalArgumentException (
+            "rowOffs must have a length of at least size+1");
+      }
+      int numVals = rowOffs[size]-1;
+      if (numVals < 0 || colIdxs.length < numVals ||
+          (vals != null && vals.length < numVals)) {
+         throw new IllegalArgumentException (
+            "Inconsistent CRS data: number of values=" + numVals);
+      }
+      myState = State.UNSET;
+      mySize = size;
+      myNumVals = numVals;
+      if (myRowOffs.length < size+1) {
+         myRowOffs = new int[size+1];
+      }
+      if (myColIdxs.length < numVals) {
+         myColIdxs = new int[numVals];
+         myVals = new double[numVals];
+      }
+      for (int i=0; i<=size; i++) {
+         myRowOffs[i] = rowOffs[i]-1;
+      }
+      boolean[] zeroDiag = new boolean[size];
+      Arrays.fill (zeroDiag, true);
+      for (int i=0; i<size; i++) {
+         if (myRowOffs[i] > myRowOffs[i+1]) {
+            throw new IllegalArgumentException (
+               "Inconsistent CRS data: decreasing row offsets at row " + i);
+         }
+         for (int k=myRowOffs[i]; k<myRowOffs[i+1]; k++) {
+            int j = colIdxs[k]-1;
+            if (j < i || j >= size) {
+               throw new IllegalArgumentException (
+                  "Column index "+(j+1)+" in row "+(i+1)+
+                  " is out of bounds or not upper triangular");
+            }
+            myColIdxs[k] = j;
+            myVals[k] = (vals != null ? vals[k] : 0);
+            if (j == i && myVals[k] != 0) {
+               zeroDiag[i] = false;
+            }
+         }
+      }
+      computeSymbolicFactorization (zeroDiag);
+      myState = State.ANALYZED;
+   }
+
+   /* ---- Symbolic analysis ---- */
+
+   /**
+    * Creates the adjacency structure (excluding the diagonal) for the
+    * symmetric matrix, with indices relabeled by <code>iperm</code>
+    * if it is non-<code>null</code>. Returns the offsets, with the
+    * adjacency indices returned in adj[0].
+    */
+   private int[] createAdjacency (int[] iperm, int[][] adj) {
+      int n = mySize;
+      int[] offs = new int[n+1];
+      for (int i=0; i<n; i++) {
+         for (int k=myRowOffs[i]; k<myRowOffs[i+1]; k++) {
+            int j = myColIdxs[k];
+            if (j != i) {
+               offs[iperm != null ? iperm[i] : i]++;
+               offs[iperm != null ? iperm[j] : j]++;
+            }
+         }
+      }
+      int off = 0;
+      for (int i=0; i<n; i++) {
+         int cnt = offs[i];
+         offs[i] = off;
+         off += cnt;
+      }
+      offs[n] = off;
+      int[] idxs = new int[off];
+      int[] next = Arrays.copyOf (offs, n);
+      for (int i=0; i<n; i++) {
+         for (int k=myRowOffs[i]; k<myRowOffs[i+1]; k++) {
+            int j = myColIdxs[k];
+            if (j != i) {
+               int pi = (iperm != null ? iperm[i] : i);
+               int pj = (iperm != null ? iperm[j] : j);
+               idxs[next[pi]++] = pj;
+               idxs[next[pj]++] = pi;
+            }
+         }
+      }
+      adj[0] = idxs;
+      return offs;
+   }
+
+   /**
+    * Computes the elimination tree for a matrix whose (permuted) adjacency
+    * structure is given by offs and idxs.
+    */
+   private static int[] computeEtree (int n, int[] offs, int[] idxs) {
+      int[] parent = new int[n];
+      int[] ancestor = new int[n];
+      for (int k=0; k<n; k++) {
+         parent[k] = -1;
+         ancestor[k] = -1;
+         for (int p=offs[k]; p<offs[k+1]; p++) {
+            int i = idxs[p];
+            while (i != -1 && i < k) {
+               int inext = ancestor[i];
+               ancestor[i] = k;
+               if (inext == -1) {
+                  parent[i] = k;
+               }
+               i = inext;
+            }
+         }
+      }
+      return parent;
+   }
+
+   /**
+    * Computes a postordering of a forest given by parent.
+    */
+   private static int[] computePostorder (int n, int[] parent) {
+      int[] head = new int[n];
+      int[] next = new int[n];
+      int[] stack = new int[n];
+      Arrays.fill (head, -1);
+      // add children in reverse order so that they are visited in order
+      for (int j=n-1; j>=0; j--) {
+         if (parent[j] != -1) {
+            next[j] = head[parent[j]];
+            head[parent[j]] = j;
+         }
+      }
+      int[] post = new int[n];
+      int k = 0;
+      for (int j=0; j<n; j++) {
+         if (parent[j] != -1) {
+            continue;
+         }
+         int top = 0;
+         stack[0] = j;
+         while (top >= 0) {
+            int p = stack[top];
+            int c = head[p];
+            if (c == -1) {
+               top--;
+               post[k++] = p;
+            }
+            else {
+               head[p] = next[c];
+               stack[++top] = c;
+            }
+         }
+      }
+      return post;
+   }
+
+   private void computeSymbolicFactorization (boolean[] zeroDiag) {
+      int n = mySize;
+      int[][] adj = new int[1][];
+      int[] offs;
+
+      // compute fill reducing ordering
+      int[] perm;
+      if (myReorderMethod == ReorderMethod.AMD && n > 0) {
+         offs = createAdjacency (null, adj);
+         perm = MinimumDegreeOrdering.compute (n, offs, adj[0], zeroDiag);
+         // postorder the elimination tree so that supernode columns are
+         // contiguous
+         int[] iperm = new int[n];
+         for (int k=0; k<n; k++) {
+            iperm[perm[k]] = k;
+         }
+         offs = createAdjacency (iperm, adj);
+         int[] post = computePostorder (n, computeEtree (n, offs, adj[0]));
+         int[] pperm = new int[n];
+         for (int k=0; k<n; k++) {
+            pperm[k] = perm[post[k]];
+         }
+         perm = pperm;
+      }
+      else {
+         perm = new int[n];
+         for (int k=0; k<n; k++) {
+            perm[k] = k;
+         }
+      }
+      myPerm = perm;
+      myIperm = new int[n];
+      for (int k=0; k<n; k++) {
+         myIperm[perm[k]] = k;
+      }
+      offs = createAdjacency (myIperm, adj);
+      int[] idxs = adj[0];
+      int[] parent = computeEtree (n, offs, idxs);
+
+      // compute column counts, by traversing the row subtrees
+      int[] colCnts = new int[n];
+      int[] mark = new int[n];
+      Arrays.fill (mark, -1);
+      for (int i=0; i<n; i++) {
+         mark[i] = i;
+         colCnts[i]++; // diagonal
+         for (int p=offs[i]; p<offs[i+1]; p++) {
+            int j = idxs[p];
+            while (j < i && mark[j] != i) {
+               colCnts[j]++;
+               mark[j] = i;
+               j = parent[j];
+            }
+         }
+      }
+      int[] numChildren = new int[n];
+      for (int j=0; j<n; j++) {
+         if (parent[j] != -1) {
+            numChildren[parent[j]]++;
+         }
+      }
+
+      // find fundamental supernodes
+      int[] superCols = new int[n+1];
+      int ns = 0;
+      for (int j=0; j<n; j++) {
+         if (j == 0 || parent[j-1] != j || colCnts[j-1] != colCnts[j]+1 ||
+             numChildren[j] != 1) {
+            superCols[ns++] = j;
+         }
+      }
+      superCols[ns] = n;
+      myNumSupers = ns;
+      mySuperCols = Arrays.copyOf (superCols, ns+1);
+      myColSupers = new int[n];
+      for (int s=0; s<ns; s++) {
+         for (int j=mySuperCols[s]; j<mySuperCols[s+1]; j++) {
+            myColSupers[j] = s;
+         }
+      }
+      int[] superParent = new int[ns];
+      for (int s=0; s<ns; s++) {
+         int plast = parent[mySuperCols[s+1]-1];
+         superParent[s] = (plast == -1 ? -1 : myColSupers[plast]);
+      }
+
+      // supernode row structures. The structure of each supernode is that
+      // of its first column, whose size is given by the column count.
+      mySuperRowOffs = new int[ns+1];
+      int off = 0;
+      for (int s=0; s<ns; s++) {
+         mySuperRowOffs[s] = off;
+         off += colCnts[mySuperCols[s]];
+      }
+      mySuperRowOffs[ns] = off;
+      mySuperRows = new int[off];
+      int[] childHead = new int[ns];
+      int[] childNext = new int[ns];
+      Arrays.fill (childHead, -1);
+      for (int s=ns-1; s>=0; s--) {
+         if (superParent[s] != -1) {
+            childNext[s] = childHead[superParent[s]];
+            childHead[superParent[s]] = s;
+         }
+      }
+      Arrays.fill (mark, -1);
+      myMaxSuperRows = 0;
+      for (int s=0; s<ns; s++) {
+         int c0 = mySuperCols[s];
+         int c1 = mySuperCols[s+1];
+         int roff = mySuperRowOffs[s];
+         int cnt = 0;
+         for (int j=c0; j<c1; j++) {
+            mySuperRows[roff+cnt++] = j;
+            mark[j] = s;
+         }
+         for (int j=c0; j<c1; j++) {
+            for (int p=offs[j]; p<offs[j+1]; p++) {
+               int i = idxs[p];
+               if (i >= c1 && mark[i] != s) {
+                  mark[i] = s;
+                  mySuperRows[roff+cnt++] = i;
+               }
+            }
+         }
+         for (int t=childHead[s]; t!=-1; t=childNext[t]) {
+            for (int p=mySuperRowOffs[t]; p<mySuperRowOffs[t+1]; p++) {
+               int i = mySuperRows[p];
+               if (i >= c1 && mark[i] != s) {
+                  mark[i] = s;
+                  mySuperRows[roff+cnt++] = i;
+               }
+            }
+         }
+         if (cnt != mySuperRowOffs[s+1]-roff) {
+            throw new InternalError (
+               "Supernode "+s+" has "+cnt+" rows; expected "+
+               (mySuperRowOffs[s+1]-roff));
+         }
+         Arrays.sort (mySuperRows, roff+(c1-c0), roff+cnt);
+         myMaxSuperRows = Math.max (myMaxSuperRows, cnt);
+      }
+
+      // value storage offsets
+      mySuperValOffs = new int[ns+1];
+      long voff = 0;
+      for (int s=0; s<ns; s++) {
+         mySuperValOffs[s] = (int)voff;
+         voff += (long)(mySuperCols[s+1]-mySuperCols[s])*
+            (mySuperRowOffs[s+1]-mySuperRowOffs[s]);
+         if (voff > Integer.MAX_VALUE) {
+            throw new NumericalException (
+               "SparseLDLTSolver: factor is too large");
+         }
+      }
+      mySuperValOffs[ns] = (int)voff;
+
+      // update lists: supernode d updates each supernode s that contains
+      // one of its off-diagonal rows
+      int[] updCnts = new int[ns+1];
+      for (int d=0; d<ns; d++) {
+         int roff = mySuperRowOffs[d];
+         int last = -1;
+         for (int p=roff+mySuperCols[d+1]-mySuperCols[d];
+              p<mySuperRowOffs[d+1]; p++) {
+            int s = myColSupers[mySuperRows[p]];
+            if (s != last) {
+               updCnts[s]++;
+               last = s;
+            }
+         }
+      }
+      myUpdateOffs = new int[ns+1];
+      off = 0;
+      for (int s=0; s<ns; s++) {
+         myUpdateOffs[s] = off;
+         off += updCnts[s];
+      }
+      myUpdateOffs[ns] = off;
+      myUpdateSupers = new int[off];
+      myUpdateRowStart = new int[off];
+      myUpdateRowEnd = new int[off];
+      int[] next = Arrays.copyOf (myUpdateOffs, ns);
+      for (int d=0; d<ns; d++) {
+         int roff = mySuperRowOffs[d];
+         int m = mySuperRowOffs[d+1]-roff;
+         int p = mySuperCols[d+1]-mySuperCols[d];
+         while (p < m) {
+            int s = myColSupers[mySuperRows[roff+p]];
+            int p0 = p;
+            while (p < m && myColSupers[mySuperRows[roff+p]] == s) {
+               p++;
+            }
+            int u = next[s]++;
+            myUpdateSupers[u] = d;
+            myUpdateRowStart[u] = p0;
+            myUpdateRowEnd[u] = p;
+         }
+      }
+
+      // group supernodes by their height in the supernodal tree; supernodes
+      // with the same height are independent
+      int[] height = new int[ns];
+      int maxh = 0;
+      for (int s=0; s<ns; s++) {
+         int h = 0;
+         for (int t=childHead[s]; t!=-1; t=childNext[t]) {
+            h = Math.max (h, height[t]+1);
+         }
+         height[s] = h;
+         maxh = Math.max (maxh, h);
+      }
+      myLevelOffs = new int[ns > 0 ? maxh+2 : 1];
+      for (int s=0; s<ns; s++) {
+         myLevelOffs[height[s]+1]++;
+      }
+      for (int h=1; h<myLevelOffs.length; h++) {
+         myLevelOffs[h] += myLevelOffs[h-1];
+      }
+      myLevelSupers = new int[ns];
+      next = Arrays.copyOf (myLevelOffs, myLevelOffs.length);
+      for (int s=0; s<ns; s++) {
+         myLevelSupers[next[height[s]]++] = s;
+      }
+
+      // map input values into the factor storage
+      myValMap = new int[myNumVals];
+      int[] valCnts = new int[ns+1];
+      for (int i=0; i<n; i++) {
+         for (int k=myRowOffs[i]; k<myRowOffs[i+1]; k++) {
+            int pi = myIperm[i];
+            int pj = myIperm[myColIdxs[k]];
+            int r = Math.max (pi, pj);
+            int c = Math.min (pi, pj);
+            int s = myColSupers[c];
+            int roff = mySuperRowOffs[s];
+            int m = mySuperRowOffs[s+1]-roff;
+            int pos = Arrays.binarySearch (mySuperRows, roff, roff+m, r)-roff;
+            myValMap[k] =
+               mySuperValOffs[s] + (c-mySuperCols[s])*m + pos;
+            valCnts[s]++;
+         }
+      }
+      myValOffs = new int[ns+1];
+      off = 0;
+      for (int s=0; s<ns; s++) {
+         myValOffs[s] = off;
+         off += valCnts[s];
+      }
+      myValOffs[ns] = off;
+      myValIdxs = new int[off];
+      next = Arrays.copyOf (myValOffs, ns);
+      for (int i=0; i<n; i++) {
+         for (int k=myRowOffs[i]; k<myRowOffs[i+1]; k++) {
+            int c = Math.min (myIperm[i], myIperm[myColIdxs[k]]);
+            myValIdxs[next[myColSupers[c]]++] = k;
+         }
+      }
+
+      if (myL.length < mySuperValOffs[ns]) {
+         myL = new double[mySuperValOffs[ns]];
+      }
+      if (myD.length < n) {
+         myD = new double[n];
+         myDoff = new double[n];
+         myPivSwaps = new int[n];
+         myY = new double[n];
+         myR = new double[n];
+         myDx = new double[n];
+         myB = new double[n];
+      }
+      mySuperNumPerturbed = new int[ns];
+      mySuperNumNeg = new int[ns];
+      mySuperNumSwaps = new int[ns];
+      mySuperMaxEntry = new double[ns];
+      myWorkspaces = null;
+   }
+
+   /* ---- Numeric factorization ---- */
+
+   /**
+    * Performs a numeric factorization of the matrix associated with this
+    * solver, using the current numeric values contained within the matrix
+    * that was supplied by a previous call to {@link
+    * #analyze(maspack.matrix.Matrix,int,int) analyze(Matrix,int,int)} or
+    * {@link #analyzeAndFactor analyzeAndFactor()}.
+    *
+    * @throws ImproperStateException if not preceded by a call to
+    * {@link #analyze(maspack.matrix.Matrix,int,int) analyze(Matrix,int,int)} or
+    * {@link #analyzeAndFactor analyzeAndFactor()}
+    */
+   public synchronized void factor() {
+      if (myMatrix == null) {
+         throw new ImproperStateException (
+            "analyze(Matrix) or analyzeAndFactor(Matrix) not previously called");
+      }
+      myMatrix.getCRSValues (
+         myVals, Partition.UpperTriangular, mySize, mySize);
+      doFactor();
+   }
+
+   /**
+    * Performs a numeric factorization of the most recently analyzed matrix
+    * using the supplied values, which must be arranged in the same CRS
+    * structure as that supplied to the analysis.
+    *
+    * @param vals non-zero matrix element values
+    * @throws ImproperStateException if no analysis has been performed
+    * @throws IllegalArgumentException if the number of supplied values is
+    * less than the number of non-zero elements in the analyzed matrix
+    */
+   public synchronized void factor (double[] vals) {
+      if (myState == State.UNSET) {
+         throw new ImproperStateException ("No matrix currently set");
+      }
+      if (vals.length < myNumVals) {
+         throw new IllegalArgumentException (
+            "Not enough values: vals.length=" + vals.length +
+            ", expected number is " + myNumVals);
+      }
+      System.arraycopy (vals, 0, myVals, 0, myNumVals);
+      doFactor();
+   }
+
+   private Workspace[] getWorkspaces() {
+      if (myWorkspaces == null ||
+          myWorkspaces[0].myRelIdxs.length < mySize ||
+          myWorkspaces[0].myBuf.length < myMaxSuperRows) {
+         myWorkspaces = new Workspace[myNumThreads];
+         for (int i=0; i<myNumThreads; i++) {
+            myWorkspaces[i] = new Workspace (mySize, myMaxSuperRows);
+         }
+      }
+      return myWorkspaces;
+   }
+
+   private void doFactor() {
+      if (myState == State.UNSET) {
+         throw new ImproperStateException ("No matrix currently set");
+      }
+      double anorm = 0;
+      for (int k=0; k<myNumVals; k++) {
+         double a = Math.abs (myVals[k]);
+         if (a > anorm) {
+            anorm = a;
+         }
+      }
+      final double eps = myPivotPerturbation*(anorm == 0 ? 1 : anorm);
+      final Workspace[] workspaces = getWorkspaces();
+      if (myNumThreads > 1 && myLoop == null) {
+         myLoop = new ParallelLoop ("SparseLDLT", myNumThreads);
+      }
+      for (int h=0; h<myLevelOffs.length-1; h++) {
+         final int lev0 = myLevelOffs[h];
+         int nlev = myLevelOffs[h+1]-lev0;
+         if (myNumThreads > 1 && nlev > 1) {
+            myLoop.forRange (nlev, new ParallelLoop.Body() {
+                  public void run (int start, int end, int worker) {
+                     for (int i=start; i<end; i++) {
+                        factorSupernode (
+                           myLevelSupers[lev0+i], eps, workspaces[worker]);
+                     }
+                  }
+               });
+         }
+         else {
+            for (int i=0; i<nlev; i++) {
+               factorSupernode (myLevelSupers[lev0+i], eps, workspaces[0]);
+            }
+         }
+      }
+      myNumPerturbedPivots = 0;
+      myNumNegPivots = 0;
+      myNumPivotInterchanges = 0;
+      myMaxFactorEntry = 0;
+      for (int s=0; s<myNumSupers; s++) {
+         myMaxFactorEntry = Math.max (myMaxFactorEntry, mySuperMaxEntry[s]);
+         myNumPerturbedPivots += mySuperNumPerturbed[s];
+         myNumNegPivots += mySuperNumNeg[s];
+         myNumPivotInterchanges += mySuperNumSwaps[s];
+      }
+      myState = State.FACTORED;
+   }
+
+   /**
+    * Computes the columns of L and D associated with supernode s, assuming
+    * that all the supernodes which update it have already been factored.
+    */
+   private void factorSupernode (int s, double eps, Workspace ws) {
+      double[] L = myL;
+      double[] D = myD;
+      double[] Doff = myDoff;
+      int[] rows = mySuperRows;
+      int[] relIdxs = ws.myRelIdxs;
+      double[] buf = ws.myBuf;
+
+      int c0 = mySuperCols[s];
+      int k = mySuperCols[s+1]-c0;
+      int roff = mySuperRowOffs[s];
+      int m = mySuperRowOffs[s+1]-roff;
+      int loff = mySuperValOffs[s];
+
+      // load the matrix values
+      Arrays.fill (L, loff, loff+k*m, 0);
+      for (int p=myValOffs[s]; p<myValOffs[s+1]; p++) {
+         int kv = myValIdxs[p];
+         L[myValMap[kv]] += myVals[kv];
+      }
+      for (int p=0; p<m; p++) {
+         relIdxs[rows[roff+p]] = p;
+      }
+
+      // apply updates from descendant supernodes
+      for (int u=myUpdateOffs[s]; u<myUpdateOffs[s+1]; u++) {
+         int d = myUpdateSupers[u];
+         int p0 = myUpdateRowStart[u];
+         int p1 = myUpdateRowEnd[u];
+         int dc0 = mySuperCols[d];
+         int dk = mySuperCols[d+1]-dc0;
+         int droff = mySuperRowOffs[d];
+         int dm = mySuperRowOffs[d+1]-droff;
+         int dloff = mySuperValOffs[d];
+         int nr = dm-p0;
+         for (int j=0; j<p1-p0; j++) {
+            // compute column j of L_d[p0:dm,:] D_d L_d[p0:p1,:]^T, starting
+            // from the diagonal
+            for (int i=j; i<nr; i++) {
+               buf[i] = 0;
+            }
+            for (int c=0; c<dk; c++) {
+               int base = dloff + c*dm + p0;
+               // (L D)[j,c], where D may couple c with c-1 or c+1
+               double f = L[base+j]*D[dc0+c];
+               if (c > 0 && Doff[dc0+c-1] != 0) {
+                  f += L[base-dm+j]*Doff[dc0+c-1];
+               }
+               if (c < dk-1 && Doff[dc0+c] != 0) {
+                  f += L[base+dm+j]*Doff[dc0+c];
+               }
+               if (f != 0) {
+                  for (int i=j; i<nr; i++) {
+                     buf[i] += L[base+i]*f;
+                  }
+               }
+            }
+            int col = loff + (rows[droff+p0+j]-c0)*m;
+            for (int i=j; i<nr; i++) {
+               L[col + relIdxs[rows[droff+p0+i]]] -= buf[i];
+            }
+         }
+      }
+
+      // dense L D L^T factorization of the supernode columns, with pivots
+      // chosen from within the supernode using Bunch-Kaufman pivoting
+      int nperturbed = 0;
+      int nneg = 0;
+      int nswaps = 0;
+      double maxl = 0;
+      double[] buf2 = ws.myBuf2;
+      int j = 0;
+      while (j < k) {
+         int colj = loff + j*m;
+         int npiv = 1;
+         int swap = j;
+         if (myDynamicPivoting) {
+            // find the largest off-diagonal entry in column j within the
+            // diagonal block
+            double lambda = 0;
+            int r = j;
+            for (int i=j+1; i<k; i++) {
+               double a = Math.abs (L[colj+i]);
+               if (a > lambda) {
+                  lambda = a;
+                  r = i;
+               }
+            }
+            double ajj = Math.abs (L[colj+j]);
+            if (lambda > eps && ajj < BK_ALPHA*lambda) {
+               // find the largest off-diagonal entry in row r
+               double sigma = 0;
+               for (int q=j; q<r; q++) {
+                  sigma = Math.max (sigma, Math.abs (L[loff+q*m+r]));
+               }
+               for (int i=r+1; i<k; i++) {
+                  sigma = Math.max (sigma, Math.abs (L[loff+r*m+i]));
+               }
+               if (ajj*sigma >= BK_ALPHA*lambda*lambda) {
+                  // use a 1 x 1 pivot at j
+               }
+               else if (Math.abs (L[loff+r*m+r]) >= BK_ALPHA*sigma) {
+                  // use a 1 x 1 pivot at r
+                  swap = r;
+               }
+               else {
+                  // use a 2 x 2 pivot at j, r
+                  npiv = 2;
+                  swap = r;
+               }
+            }
+         }
+         if (npiv == 1) {
+            if (swap != j) {
+               swapPanelColumns (L, loff, m, j, swap);
+               nswaps++;
+            }
+            myPivSwaps[c0+j] = c0+swap;
+            Doff[c0+j] = 0;
+            double dj = L[colj+j];
+            if (Math.abs (dj) <= eps) {
+               dj = (dj < 0 ? -eps : eps);
+               nperturbed++;
+            }
+            if (dj < 0) {
+               nneg++;
+            }
+            D[c0+j] = dj;
+            L[colj+j] = 1.0;
+            for (int i=j+1; i<m; i++) {
+               buf[i] = L[colj+i];
+               L[colj+i] = buf[i]/dj;
+               maxl = Math.max (maxl, Math.abs (L[colj+i]));
+            }
+            for (int q=j+1; q<k; q++) {
+               double f = buf[q];
+               if (f != 0) {
+                  int colq = loff + q*m;
+                  for (int i=q; i<m; i++) {
+                     L[colq+i] -= L[colj+i]*f;
+                  }
+               }
+            }
+         }
+         else {
+            if (swap != j+1) {
+               swapPanelColumns (L, loff, m, j+1, swap);
+            }
+            nswaps++;
+            myPivSwaps[c0+j] = c0+j;
+            myPivSwaps[c0+j+1] = c0+swap;
+            int colj1 = colj + m;
+            double d11 = L[colj+j];
+            double d21 = L[colj+j+1];
+            double d22 = L[colj1+j+1];
+            double det = d11*d22 - d21*d21;
+            if (det < 0) {
+               nneg++;
+            }
+            else if (d11 < 0) {
+               nneg += 2;
+            }
+            D[c0+j] = d11;
+            D[c0+j+1] = d22;
+            Doff[c0+j] = d21;
+            Doff[c0+j+1] = 0;
+            L[colj+j] = 1.0;
+            L[colj+j+1] = 0;
+            L[colj1+j+1] = 1.0;
+            for (int i=j+2; i<m; i++) {
+               double w1 = L[colj+i];
+               double w2 = L[colj1+i];
+               buf[i] = w1;
+               buf2[i] = w2;
+               L[colj+i] = (d22*w1 - d21*w2)/det;
+               L[colj1+i] = (d11*w2 - d21*w1)/det;
+               maxl = Math.max (
+                  maxl, Math.max (Math.abs (L[colj+i]), Math.abs (L[colj1+i])));
+            }
+            for (int q=j+2; q<k; q++) {
+               double f1 = buf[q];
+               double f2 = buf2[q];
+               if (f1 != 0 || f2 != 0) {
+                  int colq = loff + q*m;
+                  for (int i=q; i<m; i++) {
+                     L[colq+i] -= (L[colj+i]*f1 + L[colj1+i]*f2);
+                  }
+               }
+            }
+         }
+         j += npiv;
+      }
+      mySuperNumPerturbed[s] = nperturbed;
+      mySuperNumNeg[s] = nneg;
+      mySuperNumSwaps[s] = nswaps;
+      mySuperMaxEntry[s] = maxl;
+   }
+
+   /**
+    * Symmetrically interchanges columns (and rows) a and b of the dense
+    * lower triangular panel of a supernode, where {@code a < b} are both
+    * within the diagonal block. Rows a and b are also interchanged within
+    * all preceding columns, including those already factored.
+    */
+   private void swapPanelColumns (double[] L, int loff, int m, int a, int b) {
+      double tmp;
+      for (int c=0; c<a; c++) {
+         int colc = loff + c*m;
+         tmp = L[colc+a]; L[colc+a] = L[colc+b]; L[colc+b] = tmp;
+      }
+      int cola = loff + a*m;
+      int colb = loff + b*m;
+      tmp = L[cola+a]; L[cola+a] = L[colb+b]; L[colb+b] = tmp;
+      for (int i=a+1; i<b; i++) {
+         int coli = loff + i*m;
+         tmp = L[cola+i]; L[cola+i] = L[coli+b]; L[coli+b] = tmp;
+      }
+      for (int i=b+1; i<m; i++) {
+         tmp = L[cola+i]; L[cola+i] = L[colb+i]; L[colb+i] = tmp;
+      }
+   }
+
+   /**
+    * Convenience method that analyzes and factors a symmetric matrix. This is
+    * equivalent to the two calls
+    * <pre>
+    *   analyze (M, M.rowSize(), Matrix.SYMMETRIC)
+    *   factor()
+    * </pre>
+    * Only the upper triangular part of M is used.
+    *
+    * @param M matrix to factor
+    */
+   public void analyzeAndFactor (Matrix M) {
+      analyze (M, M.rowSize(), Matrix.SYMMETRIC);
+      factor();
+   }
+
+   /* ---- Solves ---- */
+
+   private void checkSolveArgs (int xsize, int bsize, int nrhs) {
+      if (myState != State.FACTORED) {
+         throw new ImproperStateException ("Matrix not factored");
+      }
+      if (xsize < mySize*nrhs) {
+         throw new IllegalArgumentException (
+            "x size " + xsize + " incompatible with matrix size " + mySize);
+      }
+      if (bsize < mySize*nrhs) {
+         throw new IllegalArgumentException (
+            "b size " + bsize + " incompatible with matrix size " + mySize);
+      }
+   }
+
+   /**
+    * Solves P^T L D L^T P x = b using the current factorization, where P
+    * includes the pivot interchanges made within each supernode.
+    */
+   private void solveFactored (
+      double[] x, int xoff, double[] b, int boff, double[] y) {
+      double[] L = myL;
+      int[] rows = mySuperRows;
+      int n = mySize;
+
+      for (int k=0; k<n; k++) {
+         y[k] = b[boff+myPerm[k]];
+      }
+      // forward substitution
+      for (int s=0; s<myNumSupers; s++) {
+         int c0 = mySuperCols[s];
+         int k = mySuperCols[s+1]-c0;
+         int roff = mySuperRowOffs[s];
+         int m = mySuperRowOffs[s+1]-roff;
+         int loff = mySuperValOffs[s];
+         for (int j=0; j<k; j++) {
+            int p = myPivSwaps[c0+j];
+            if (p != c0+j) {
+               double tmp = y[c0+j]; y[c0+j] = y[p]; y[p] = tmp;
+            }
+         }
+         for (int j=0; j<k; j++) {
+            double yj = y[c0+j];
+            if (yj != 0) {
+               int colj = loff + j*m;
+               for (int i=j+1; i<m; i++) {
+                  y[rows[roff+i]] -= L[colj+i]*yj;
+               }
+            }
+         }
+      }
+      for (int k=0; k<n; k++) {
+         if (myDoff[k] != 0) {
+            // 2 x 2 block
+            double d11 = myD[k];
+            double d21 = myDoff[k];
+            double d22 = myD[k+1];
+            double det = d11*d22 - d21*d21;
+            double y1 = y[k];
+            double y2 = y[k+1];
+            y[k] = (d22*y1 - d21*y2)/det;
+            y[k+1] = (d11*y2 - d21*y1)/det;
+            k++;
+         }
+         else {
+            y[k] /= myD[k];
+         }
+      }
+      // backward substitution
+      for (int s=myNumSupers-1; s>=0; s--) {
+         int c0 = mySuperCols[s];
+         int k = mySuperCols[s+1]-c0;
+         int roff = mySuperRowOffs[s];
+         int m = mySuperRowOffs[s+1]-roff;
+         int loff = mySuperValOffs[s];
+         for (int j=k-1; j>=0; j--) {
+            int colj = loff + j*m;
+            double sum = y[c0+j];
+            for (int i=j+1; i<m; i++) {
+               sum -= L[colj+i]*y[rows[roff+i]];
+            }
+            y[c0+j] = sum;
+         }
+         for (int j=k-1; j>=0; j--) {
+            int p = myPivSwaps[c0+j];
+            if (p != c0+j) {
+               double tmp = y[c0+j]; y[c0+j] = y[p]; y[p] = tmp;
+            }
+         }
+      }
+      for (int k=0; k<n; k++) {
+         x[xoff+myPerm[k]] = y[k];
+      }
+   }
+
+   /**
+    * Computes r = b - A x, where A is the factored matrix, and returns the
+    * infinity norm of r.
+    */
+   private double computeResidual (
+      double[] r, double[] x, int xoff, double[] b, int boff) {
+      int n = mySize;
+      for (int i=0; i<n; i++) {
+         r[i] = b[boff+i];
+      }
+      for (int i=0; i<n; i++) {
+         double xi = x[xoff+i];
+         double sum = 0;
+         for (int k=myRowOffs[i]; k<myRowOffs[i+1]; k++) {
+            int j = myColIdxs[k];
+            double a = myVals[k];
+            sum += a*x[xoff+j];
+            if (j != i) {
+               r[j] -= a*xi;
+            }
+         }
+         r[i] -= sum;
+      }
+      double norm = 0;
+      for (int i=0; i<n; i++) {
+         norm = Math.max (norm, Math.abs (r[i]));
+      }
+      return norm;
+   }
+
+   private void doSolve (double[] x, int xoff, double[] b, int boff) {
+      myNumRefinementSteps =
+         doSolve (x, xoff, b, boff, myY, myR, myDx, myB);
+   }
+
+   /**
+    * Returns true if solutions should be improved by iterative refinement,
+    * which is the case if pivots were perturbed or if the entries of L grew
+    * large enough to suggest a loss of accuracy.
+    */
+   private boolean needsRefinement() {
+      if (myMaxRefinementSteps == 0) {
+         return false;
+      }
+      return (myNumPerturbedPivots > 0 ||
+              myMaxFactorEntry*Math.sqrt (myPivotPerturbation) > 1);
+   }
+
+   /**
+    * Solves for a single right hand side using the supplied work vectors,
+    * returning the number of refinement steps performed.
+    */
+   private int doSolve (
+      double[] x, int xoff, double[] b, int boff,
+      double[] y, double[] r, double[] dx, double[] bsave) {
+      boolean refine = needsRefinement();
+      if (refine && x == b) {
+         // solving in place, so save b for computing residuals
+         System.arraycopy (b, boff, bsave, 0, mySize);
+         b = bsave;
+         boff = 0;
+      }
+      solveFactored (x, xoff, b, boff, y);
+      int nsteps = 0;
+      if (refine) {
+         double res = computeResidual (r, x, xoff, b, boff);
+         while (nsteps < myMaxRefinementSteps && res > 0) {
+            solveFactored (dx, 0, r, 0, y);
+            for (int i=0; i<mySize; i++) {
+               x[xoff+i] += dx[i];
+            }
+            nsteps++;
+            double newres = computeResidual (r, x, xoff, b, boff);
+            if (newres >= res) {
+               // refinement is not helping; undo the last step
+               for (int i=0; i<mySize; i++) {
+                  x[xoff+i] -= dx[i];
+               }
+               break;
+            }
+            res = newres;
+         }
+      }
+      return nsteps;
+   }
+
+   /**
+    * Solves the system
+    * <pre>
+    *  M x = b
+    * </pre>
+    * using the current factorization.
+    *
+    * @param x returns the solution value
+    * @param b supplies the right-hand side
+    * @throws ImproperStateException if the matrix has not been factored
+    * @throws IllegalArgumentException if the dimensions of <code>x</code> or
+    * <code>b</code> are incompatible with the matrix size
+    */
+   public synchronized void solve (VectorNd x, VectorNd b) {
+      checkSolveArgs (x.size(), b.size(), 1);
+      doSolve (x.getBuffer(), 0, b.getBuffer(), 0);
+   }
+
+   /**
+    * Solves the system
+    * <pre>
+    *  M x = b
+    * </pre>
+    * using the current factorization, with <code>x</code> and
+    * <code>b</code> stored in <code>double[]</code> arrays.
+    *
+    * @param x returns the solution value
+    * @param b supplies the right-hand side
+    * @throws ImproperStateException if the matrix has not been factored
+    * @throws IllegalArgumentException if the dimensions of <code>x</code> or
+    * <code>b</code> are incompatible with the matrix size
+    */
+   public synchronized void solve (double[] x, double[] b) {
+      checkSolveArgs (x.length, b.length, 1);
+      doSolve (x, 0, b, 0);
+   }
+
+   /**
+    * Solves the system
+    * <pre>
+    *  M X = B
+    * </pre>
+    * for multiple right hand sides, using the current factorization. The
+    * columns of <code>X</code> and <code>B</code> are stored in column-major
+    * order. <code>X</code> and <code>B</code> may be the same array.
+    * If the solver uses more than one thread, the right hand sides are
+    * solved concurrently.
+    *
+    * @param X returns the solution values
+    * @param B supplies the right-hand sides
+    * @param nrhs number of right hand sides
+    * @throws ImproperStateException if the matrix has not been factored
+    * @throws IllegalArgumentException if the dimensions of <code>X</code> or
+    * <code>B</code> are incompatible with the matrix size
+    */
+   public synchronized void solve (double[] X, double[] B, int nrhs) {
+      checkSolveArgs (X.length, B.length, nrhs);
+      if (myNumThreads > 1 && nrhs >= 2*MIN_SOLVE_CHUNK) {
+         final double[] XX = X;
+         final double[] BB = B;
+         final Workspace[] workspaces = getWorkspaces();
+         if (myLoop == null) {
+            myLoop = new ParallelLoop ("SparseLDLT", myNumThreads);
+         }
+         final int[] nsteps = new int[nrhs];
+         myLoop.forRange (nrhs, MIN_SOLVE_CHUNK, new ParallelLoop.Body() {
+               public void run (int start, int end, int worker) {
+                  Workspace ws = workspaces[worker];
+                  ws.allocateSolveVectors (mySize);
+                  for (int j=start; j<end; j++) {
+                     nsteps[j] = doSolve (
+                        XX, j*mySize, BB, j*mySize,
+                        ws.myY, ws.myR, ws.myDx, ws.myB);
+                  }
+               }
+            });
+         myNumRefinementSteps = nsteps[nrhs-1];
+      }
+      else {
+         for (int j=0; j<nrhs; j++) {
+            doSolve (X, j*mySize, B, j*mySize);
+         }
+      }
+   }
+
+   /**
+    * Calls {@link #factor()} followed by {@link #solve(VectorNd,VectorNd)}.
+    * Auto-iterative solving is not supported, so <code>tolExp</code> is
+    * ignored.
+    */
+   public void autoFactorAndSolve (VectorNd x, VectorNd b, int tolExp) {
+      factor();
+      solve (x, b);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean hasAutoIterativeSolving() {
+      return false;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public synchronized void dispose() {
+      if (myLoop != null) {
+         myLoop.shutdown();
+         myLoop = null;
+      }
+      myWorkspaces = null;
+      myMatrix = null;
+      myL = new double[0];
+      myState = State.UNSET;
+   }
+}
@@ -0,0 +1,534 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers;
+
+import java.util.Random;
+
+import maspack.matrix.*;
+import maspack.matrix.Matrix.Partition;
+import maspack.solvers.SparseLDLTSolver.ReorderMethod;
+import maspack.util.*;
+
+public class SparseLDLTSolverTest extends UnitTest {
+
+   private static double EPS = 1e-10;
+
+   private Random myRandom = new Random (0x1234);
+
+   private void setRandom (Matrix3d C) {
+      for (int i=0; i<3; i++) {
+         for (int j=0; j<3; j++) {
+            C.set (i, j, myRandom.nextDouble()-0.5);
+         }
+      }
+   }
+
+   /**
+    * Creates a symmetric positive definite matrix with 3x3 blocks, whose
+    * block structure is that of an nx X ny X nz grid of nodes, and with the
+    * node numbering randomly permuted.
+    */
+   MatrixNd createGridMatrix (int nx, int ny, int nz) {
+      int numNodes = nx*ny*nz;
+      int[] nodeIdxs = new int[numNodes];
+      for (int i=0; i<numNodes; i++) {
+         nodeIdxs[i] = i;
+      }
+      for (int i=numNodes-1; i>0; i--) {
+         int j = myRandom.nextInt (i+1);
+         int tmp = nodeIdxs[i];
+         nodeIdxs[i] = nodeIdxs[j];
+         nodeIdxs[j] = tmp;
+      }
+      MatrixNd A = new MatrixNd (3*numNodes, 3*numNodes);
+      for (int i=0; i<3*numNodes; i++) {
+         A.set (i, i, 1.0);
+      }
+      Matrix3d C = new Matrix3d();
+      Matrix3d K = new Matrix3d();
+      for (int i=0; i<nx; i++) {
+         for (int j=0; j<ny; j++) {
+            for (int k=0; k<nz; k++) {
+               int a = nodeIdxs[(i*ny + j)*nz + k];
+               int[] nbrs = new int[] {
+                  i+1 < nx ? nodeIdxs[((i+1)*ny + j)*nz + k] : -1,
+                  j+1 < ny ? nodeIdxs[(i*ny + j+1)*nz + k] : -1,
+                  k+1 < nz ? nodeIdxs[(i*ny + j)*nz + k+1] : -1 };
+               for (int b : nbrs) {
+                  if (b != -1) {
+                     setRandom (C);
+                     K.mulTransposeRight (C, C);
+                     addBlock (A, a, a, K, 1);
+                     addBlock (A, b, b, K, 1);
+                     addBlock (A, a, b, K, -1);
+                     addBlock (A, b, a, K, -1);
+                  }
+               }
+            }
+         }
+      }
+      return A;
+   }
+
+   private void addBlock (MatrixNd A, int a, int b, Matrix3d K, double s) {
+      for (int i=0; i<3; i++) {
+         for (int j=0; j<3; j++) {
+            A.add (3*a+i, 3*b+j, s*K.get(i,j));
+         }
+      }
+   }
+
+   /**
+    * Creates a KKT matrix [ A G^T ; G -R ] where each row of G couples
+    * one or two of the nodes of A.
+    */
+   MatrixNd createKKTMatrix (MatrixNd A, int numG, boolean regularize) {
+      int sizeA = A.rowSize();
+      int numNodes = sizeA/3;
+      MatrixNd K = new MatrixNd (sizeA+numG, sizeA+numG);
+      K.setSubMatrix (0, 0, A);
+      for (int k=0; k<numG; k++) {
+         int na = myRandom.nextInt (numNodes);
+         int nb = myRandom.nextInt (numNodes);
+         for (int j=0; j<3; j++) {
+            double g = myRandom.nextDouble()-0.5;
+            K.set (sizeA+k, 3*na+j, g);
+            K.set (3*na+j, sizeA+k, g);
+            if (nb != na) {
+               g = myRandom.nextDouble()-0.5;
+               K.set (sizeA+k, 3*nb+j, g);
+               K.set (3*nb+j, sizeA+k, g);
+            }
+         }
+         if (regularize && (k%2) == 0) {
+            K.set (sizeA+k, sizeA+k, -1e-3*myRandom.nextDouble());
+         }
+      }
+      return K;
+   }
+
+   private VectorNd denseSolve (MatrixNd A, VectorNd b) {
+      VectorNd x = new VectorNd (b.size());
+      LUDecomposition lu = new LUDecomposition (A);
+      lu.solve (x, b);
+      return x;
+   }
+
+   private SparseMatrixNd createSparse (MatrixNd A) {
+      SparseMatrixNd S = new SparseMatrixNd (A.rowSize(), A.colSize());
+      for (int i=0; i<A.rowSize(); i++) {
+         for (int j=0; j<A.colSize(); j++) {
+            if (A.get(i,j) != 0 || i == j) {
+               S.set (i, j, A.get(i,j));
+            }
+         }
+      }
+      return S;
+   }
+
+   private void checkSolve (
+      String msg, SparseLDLTSolver solver, MatrixNd A, VectorNd b) {
+      VectorNd x = new VectorNd (b.size());
+      solver.solve (x, b);
+      checkNormedEquals (msg, x, denseSolve (A, b), EPS);
+   }
+
+   /**
+    * Symmetric indefinite matrix with zeros on the diagonal.
+    */
+   void testSmall() {
+      double[] vals = new double[] { 3, 1, 2, 0, 1, 2, 4, 1, 0, 6, 2 };
+      int[] rowOffs = new int[] { 1, 4, 7, 9, 11, 12 };
+      int[] colIdxs = new int[] { 1, 2, 3, 2, 3, 4, 3, 4, 4, 5, 5 };
+      MatrixNd M = new MatrixNd (5, 5);
+      M.setCRSValues (
+         vals, colIdxs, rowOffs, 11, 5, Partition.UpperTriangular);
+      VectorNd b = new VectorNd (new double[] { 1, 2, 3, 4, 5 });
+
+      for (ReorderMethod method : ReorderMethod.values()) {
+         SparseLDLTSolver solver = new SparseLDLTSolver();
+         solver.setReorderMethod (method);
+         solver.analyzeAndFactor (M);
+         checkSolve ("small matrix, "+method, solver, M, b);
+
+         // same structure, different values, using CRS values directly
+         double[] vals2 = new double[] { 3, 1, 2, 10, 1, 2, 4, 1, 10, 5, 2 };
+         solver.analyze (vals, colIdxs, rowOffs, 5, Matrix.SYMMETRIC);
+         solver.factor (vals2);
+         MatrixNd M2 = new MatrixNd (5, 5);
+         M2.setCRSValues (
+            vals2, colIdxs, rowOffs, 11, 5, Partition.UpperTriangular);
+         checkSolve ("small matrix, new values, "+method, solver, M2, b);
+      }
+   }
+
+   void testSPD() {
+      MatrixNd A = createGridMatrix (4, 5, 6);
+      SparseMatrixNd S = createSparse (A);
+      int n = A.rowSize();
+      VectorNd b = new VectorNd (n);
+      b.setRandom();
+
+      SparseLDLTSolver solver = new SparseLDLTSolver();
+      solver.analyze (S, n, Matrix.SPD);
+      solver.factor();
+      checkSolve ("grid matrix", solver, A, b);
+      checkEquals ("negative pivots", solver.getNumNegEigenvalues(), 0);
+      checkEquals ("perturbed pivots", solver.getNumPerturbedPivots(), 0);
+      int nnzAMD = solver.getNumNonZerosInFactors();
+      check ("supernodes should contain several columns",
+             solver.numSupernodes() < n/2);
+
+      solver.setReorderMethod (ReorderMethod.NONE);
+      solver.analyze (S, n, Matrix.SPD);
+      solver.factor();
+      checkSolve ("grid matrix, no reordering", solver, A, b);
+      int nnzNone = solver.getNumNonZerosInFactors();
+      check ("AMD fill "+nnzAMD+" should be less than natural fill "+nnzNone,
+             nnzAMD < nnzNone);
+
+      // change values but not structure; the analysis should be reused
+      solver.setReorderMethod (ReorderMethod.AMD);
+      solver.analyze (S, n, Matrix.SPD);
+      MatrixNd A3 = new MatrixNd (A);
+      A3.scale (2.0);
+      for (int i=0; i<n; i++) {
+         A3.add (i, i, 1.0);
+      }
+      S.set (createSparse (A3));
+      solver.factor();
+      checkSolve ("grid matrix, new values", solver, A3, b);
+   }
+
+   void testKKT() {
+      MatrixNd A = createGridMatrix (3, 4, 5);
+      int numG = 20;
+      for (boolean regularize : new boolean[] { false, true }) {
+         MatrixNd K = createKKTMatrix (A, numG, regularize);
+         SparseMatrixNd S = createSparse (K);
+         int n = K.rowSize();
+         VectorNd b = new VectorNd (n);
+         b.setRandom();
+
+         SparseLDLTSolver solver = new SparseLDLTSolver();
+         solver.analyze (S, n, Matrix.SYMMETRIC);
+         solver.factor();
+         checkSolve ("KKT matrix", solver, K, b);
+         checkEquals (
+            "negative pivots", solver.getNumNegEigenvalues(), numG);
+
+         // multiple right hand sides, solved in place
+         int nrhs = 3;
+         double[] X = new double[n*nrhs];
+         for (int k=0; k<nrhs; k++) {
+            VectorNd bk = new VectorNd (n);
+            bk.setRandom();
+            bk.get (X, k*n);
+         }
+         double[] B = X.clone();
+         solver.solve (X, X, nrhs);
+         for (int k=0; k<nrhs; k++) {
+            VectorNd bk = new VectorNd (n);
+            VectorNd xk = new VectorNd (n);
+            bk.set (B, k*n);
+            xk.set (X, k*n);
+            checkNormedEquals (
+               "KKT matrix, rhs "+k, xk, denseSolve (K, bk), EPS);
+         }
+      }
+   }
+
+   void testThreads() {
+      MatrixNd K = createKKTMatrix (createGridMatrix (6, 6, 6), 40, true);
+      SparseMatrixNd S = createSparse (K);
+      int n = K.rowSize();
+      VectorNd b = new VectorNd (n);
+      b.setRandom();
+
+      SparseLDLTSolver solver = new SparseLDLTSolver();
+      solver.setNumThreads (1);
+      solver.analyze (S, n, Matrix.SYMMETRIC);
+      solver.factor();
+      VectorNd xchk = new VectorNd (n);
+      solver.solve (xchk, b);
+      checkNormedEquals ("serial solve", xchk, denseSolve (K, b), EPS);
+
+      for (int nthreads : new int[] { 2, 4 }) {
+         solver.setNumThreads (nthreads);
+         solver.factor();
+         VectorNd x = new VectorNd (n);
+         solver.solve (x, b);
+         // results should not depend on the number of threads
+         checkEquals ("solve with "+nthreads+" threads", x, xchk);
+
+         // multiple right hand sides are solved concurrently
+         int nrhs = 8;
+         double[] X = new double[n*nrhs];
+         double[] B = new double[n*nrhs];
+         for (int k=0; k<nrhs; k++) {
+            b.get (B, k*n);
+         }
+         solver.solve (X, B, nrhs);
+         for (int k=0; k<nrhs; k++) {
+            VectorNd xk = new VectorNd (n);
+            xk.set (X, k*n);
+            checkEquals (
+               "rhs "+k+" solve with "+nthreads+" threads", xk, xchk);
+         }
+      }
+      solver.dispose();
+   }
+
+   void testKKTSolver() {
+      int numNodes = 4*4*4;
+      MatrixNd A = createGridMatrix (4, 4, 4);
+      int[] sizes = new int[numNodes];
+      for (int i=0; i<numNodes; i++) {
+         sizes[i] = 3;
+      }
+      SparseBlockMatrix M = new SparseBlockMatrix (sizes);
+      for (int bi=0; bi<numNodes; bi++) {
+         for (int bj=0; bj<numNodes; bj++) {
+            MatrixNd blk = new MatrixNd (3, 3);
+            A.getSubMatrix (3*bi, 3*bj, blk);
+            if (blk.frobeniusNorm() != 0) {
+               M.addBlock (bi, bj, blk);
+            }
+         }
+      }
+      int numG = 10;
+      int[] gsizes = new int[numG];
+      for (int j=0; j<numG; j++) {
+         gsizes[j] = 1;
+      }
+      SparseBlockMatrix GT = new SparseBlockMatrix (sizes, gsizes);
+      for (int j=0; j<numG; j++) {
+         MatrixNd blk = new MatrixNd (3, 1);
+         blk.setRandom();
+         GT.addBlock (myRandom.nextInt (numNodes), j, blk);
+      }
+      int sizeM = M.rowSize();
+      VectorNd Rg = new VectorNd (numG);
+      VectorNd bm = new VectorNd (sizeM);
+      VectorNd bg = new VectorNd (numG);
+      VectorNd vel = new VectorNd (sizeM);
+      VectorNd lam = new VectorNd (numG);
+      bm.setRandom();
+      bg.setRandom();
+
+      KKTSolver solver = new KKTSolver (SparseSolverId.SparseLDLT);
+      solver.analyze (M, sizeM, GT, Rg, Matrix.SYMMETRIC);
+      solver.factor (M, sizeM, GT, Rg);
+      solver.solve (vel, lam, bm, bg);
+
+      // check that M vel - GT lam = bm and GT^T vel + Rg lam = bg
+      VectorNd chk = new VectorNd (sizeM);
+      VectorNd tmp = new VectorNd (sizeM);
+      M.mul (chk, vel);
+      GT.mul (tmp, lam);
+      chk.sub (tmp);
+      checkNormedEquals ("KKTSolver bm", chk, bm, EPS);
+      VectorNd gchk = new VectorNd (numG);
+      GT.mulTranspose (gchk, vel);
+      checkNormedEquals ("KKTSolver bg", gchk, bg, EPS);
+      solver.dispose();
+   }
+
+   private int numNegativeEigenvalues (MatrixNd A) {
+      EigenDecomposition evd = new EigenDecomposition();
+      evd.factorSymmetric (A, EigenDecomposition.OMIT_V);
+      VectorNd eig = evd.getEigReal();
+      int nneg = 0;
+      for (int i=0; i<eig.size(); i++) {
+         if (eig.get(i) < 0) {
+            nneg++;
+         }
+      }
+      return nneg;
+   }
+
+   private void checkPivotedSolve (String msg, MatrixNd A) {
+      int n = A.rowSize();
+      VectorNd b = new VectorNd (n);
+      b.setRandom();
+      SparseLDLTSolver solver = new SparseLDLTSolver();
+      solver.analyze (createSparse (A), n, Matrix.SYMMETRIC);
+      solver.factor();
+      checkSolve (msg, solver, A, b);
+      checkEquals (msg+", perturbed pivots", solver.getNumPerturbedPivots(), 0);
+      check (msg+", no pivot interchanges",
+             solver.getNumPivotInterchanges() > 0);
+      checkEquals (
+         msg+", negative pivots",
+         solver.getNumNegEigenvalues(), numNegativeEigenvalues (A));
+   }
+
+   /**
+    * Indefinite matrices whose diagonal entries are zero or small, or become
+    * so during the factorization, and which require dynamic pivoting.
+    */
+   void testDynamicPivoting() {
+      MatrixNd A = new MatrixNd (2, 2);
+      A.set (new double[] { 0, 1, 1, 0 });
+      checkPivotedSolve ("zero diagonal 2x2", A);
+
+      // second pivot becomes zero after eliminating the first
+      A = new MatrixNd (3, 3);
+      A.set (new double[] { 1, 1, 1,  1, 1, 2,  1, 2, 0 });
+      checkPivotedSolve ("cancellation 3x3", A);
+
+      // dense matrices with zero and small diagonals
+      int n = 10;
+      for (double dscale : new double[] { 0, 1e-6 }) {
+         A = new MatrixNd (n, n);
+         for (int i=0; i<n; i++) {
+            A.set (i, i, dscale*(myRandom.nextDouble()-0.5));
+            for (int j=i+1; j<n; j++) {
+               double a = myRandom.nextDouble()-0.5;
+               A.set (i, j, a);
+               A.set (j, i, a);
+            }
+         }
+         checkPivotedSolve ("dense, diagonal scale "+dscale, A);
+      }
+
+      // KKT matrix whose mass block is singular, with each node block
+      // having rank one, so that the matrix is positive definite only on
+      // the null space of the constraints
+      int numNodes = 20;
+      int sizeA = 3*numNodes;
+      A = new MatrixNd (sizeA, sizeA);
+      Vector3d u = new Vector3d();
+      for (int k=0; k<numNodes; k++) {
+         u.setRandom();
+         for (int i=0; i<3; i++) {
+            for (int j=0; j<3; j++) {
+               A.set (3*k+i, 3*k+j, u.get(i)*u.get(j));
+            }
+         }
+      }
+      int numG = 2*numNodes;
+      MatrixNd K = new MatrixNd (sizeA+numG, sizeA+numG);
+      K.setSubMatrix (0, 0, A);
+      for (int c=0; c<numG; c++) {
+         int na = c/2;
+         int nb = (na+1)%numNodes;
+         for (int j=0; j<3; j++) {
+            double g = myRandom.nextDouble()-0.5;
+            K.set (sizeA+c, 3*na+j, g);
+            K.set (3*na+j, sizeA+c, g);
+         }
+         double g = myRandom.nextDouble()-0.5;
+         K.set (sizeA+c, 3*nb, g);
+         K.set (3*nb, sizeA+c, g);
+      }
+      VectorNd b = new VectorNd (K.rowSize());
+      b.setRandom();
+      SparseLDLTSolver solver = new SparseLDLTSolver();
+      solver.analyze (createSparse (K), K.rowSize(), Matrix.SYMMETRIC);
+      solver.factor();
+      checkSolve ("KKT with singular mass", solver, K, b);
+      checkEquals (
+         "KKT with singular mass, negative pivots",
+         solver.getNumNegEigenvalues(), numG);
+   }
+
+   /**
+    * SparseLDLT only handles symmetric M. If M is not symmetric, KKTSolver
+    * should use Pardiso or Umfpack instead, or fail if neither is available.
+    */
+   void testNonSymmetricKKTSolver() {
+      int numNodes = 10;
+      int sizeM = 3*numNodes;
+      int[] sizes = new int[numNodes];
+      for (int i=0; i<numNodes; i++) {
+         sizes[i] = 3;
+      }
+      SparseBlockMatrix M = new SparseBlockMatrix (sizes);
+      for (int bi=0; bi<numNodes; bi++) {
+         Matrix3d blk = new Matrix3d();
+         setRandom (blk);
+         // diagonally dominant but not symmetric
+         blk.m00 += 4; blk.m11 += 4; blk.m22 += 4;
+         M.addBlock (bi, bi, blk);
+         if (bi > 0) {
+            blk = new Matrix3d();
+            setRandom (blk);
+            M.addBlock (bi, bi-1, blk);
+         }
+      }
+      int numG = 4;
+      int[] gsizes = new int[numG];
+      for (int j=0; j<numG; j++) {
+         gsizes[j] = 1;
+      }
+      SparseBlockMatrix GT = new SparseBlockMatrix (sizes, gsizes);
+      for (int j=0; j<numG; j++) {
+         MatrixNd blk = new MatrixNd (3, 1);
+         blk.setRandom();
+         GT.addBlock (2*j, j, blk);
+      }
+      VectorNd Rg = new VectorNd (numG);
+      VectorNd bm = new VectorNd (sizeM);
+      VectorNd bg = new VectorNd (numG);
+      VectorNd vel = new VectorNd (sizeM);
+      VectorNd lam = new VectorNd (numG);
+      bm.setRandom();
+      bg.setRandom();
+
+      SparseSolverId fallback =
+         SparseSolverId.SparseLDLT.getCompatibleDirectSolver (
+            Matrix.INDEFINITE);
+      KKTSolver solver = new KKTSolver (SparseSolverId.SparseLDLT);
+      if (fallback == null) {
+         try {
+            solver.analyze (M, sizeM, GT, Rg, Matrix.INDEFINITE);
+         }
+         catch (UnsupportedOperationException e) {
+            return;
+         }
+         throw new TestException (
+            "non-symmetric M without a native solver did not fail");
+      }
+      solver.analyze (M, sizeM, GT, Rg, Matrix.INDEFINITE);
+      checkEquals ("fallback solver", solver.getSolverType(), fallback);
+      solver.factor (M, sizeM, GT, Rg);
+      solver.solve (vel, lam, bm, bg);
+      VectorNd chk = new VectorNd (sizeM);
+      VectorNd tmp = new VectorNd (sizeM);
+      M.mul (chk, vel);
+      GT.mul (tmp, lam);
+      chk.sub (tmp);
+      checkNormedEquals ("non-symmetric KKTSolver bm", chk, bm, EPS);
+
+      // a symmetric M should switch back to SparseLDLT
+      SparseBlockMatrix MS = new SparseBlockMatrix (sizes);
+      for (int bi=0; bi<numNodes; bi++) {
+         MS.addBlock (bi, bi, Matrix3d.IDENTITY);
+      }
+      solver.analyze (MS, sizeM, GT, Rg, Matrix.SYMMETRIC);
+      checkEquals (
+         "symmetric solver", solver.getSolverType(), SparseSolverId.SparseLDLT);
+      solver.dispose();
+   }
+
+   public void test() {
+      testSmall();
+      testSPD();
+      testKKT();
+      testDynamicPivoting();
+      testThreads();
+      testKKTSolver();
+      testNonSymmetricKKTSolver();
+   }
+
+   public static void main (String[] args) {
+      RandomGenerator.setSeed (0x1234);
+      SparseLDLTSolverTest tester = new SparseLDLTSolverTest();
+      tester.runtest();
+   }
+}
@@ -16,6 +16,14 @@ public enum SparseSolverId {
     */
    Umfpack (true, Matrix.INDEFINITE),
 
+   /**
+    * Pure Java supernodal LDL^T solver for symmetric (possibly indefinite)
+    * matrices, which does not require native libraries. Non-symmetric
+    * matrices are handled using Pardiso or Umfpack, if available (see
+    * {@link #getCompatibleDirectSolver}).
+    */
+   SparseLDLT (true, Matrix.SYMMETRIC),
+
    /**
     * Conjugate gradient
     */
@@ -67,6 +75,31 @@ public enum SparseSolverId {
       }
    }
 
+   /**
+    * Returns a direct solver type that can be used in place of this one for
+    * matrices of the indicated type. This is this type itself if it is
+    * compatible with the matrix type. Otherwise, it is {@link #Pardiso} or
+    * {@link #Umfpack}, whichever is first found to be available, or {@code
+    * null} if neither can be loaded.
+    *
+    * @param matrixType type of the matrix to be solved
+    * @return compatible direct solver type, or {@code null}
+    */
+   public SparseSolverId getCompatibleDirectSolver (int matrixType) {
+      if (isCompatible (matrixType)) {
+         return this;
+      }
+      else if (PardisoSolver.isAvailable()) {
+         return Pardiso;
+      }
+      else if (UmfpackSolver.isAvailable()) {
+         return Umfpack;
+      }
+      else {
+         return null;
+      }
+   }
+
    /**
     * Creates and returns the solver for this type, if it represents a direct
     * solver. Otherwise, returns {@code null}.
@@ -81,6 +114,9 @@ public enum SparseSolverId {
          case Umfpack: {
             return new UmfpackSolver();
          }
+         case SparseLDLT: {
+            return new SparseLDLTSolver();
+         }
          default: {
             return null;
          }
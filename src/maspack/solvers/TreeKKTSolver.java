@@ -0,0 +1,534 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import maspack.matrix.ImproperStateException;
+import maspack.matrix.LUDecomposition;
+import maspack.matrix.MatrixBlock;
+import maspack.matrix.MatrixNd;
+import maspack.matrix.SparseBlockMatrix;
+import maspack.matrix.VectorNd;
+
+/**
+ * Solves KKT systems of the form
+ * <pre>
+ * [ M -G ] [ x ]   [ bm ]
+ * [      ] [   ] = [    ]
+ * [ G Rg ] [lam]   [ bg ]
+ * </pre>
+ * whose block structure is a tree (or forest), in time that is linear in the
+ * number of blocks. Here G is supplied in transposed form as the matrix GT,
+ * whose block rows conform to the block rows of M, and Rg is an optional
+ * diagonal regularization matrix.
+ *
+ * <p>The system is viewed as a graph whose nodes are the block rows of M and
+ * the block columns of GT, with an edge for each non-zero off-diagonal block
+ * of M and each non-zero block of GT. This is the structure that arises for
+ * a system of bodies connected by joints, where M is block diagonal and each
+ * block column of GT describes a joint. If the graph is acyclic, the system
+ * can be factored by block Gaussian elimination, processing the nodes
+ * leaves-first, with no fill-in (as described in D. Baraff, "Linear-Time
+ * Dynamics using Lagrange Multipliers", SIGGRAPH 1996). Constraint blocks
+ * that are coupled to only a single block of M (such as joints connecting a
+ * body to ground) are merged with that block, so that every pivot block is
+ * non-singular for a well-posed system. Pivot blocks are factored using
+ * dense LU decompositions.
+ *
+ * <p>{@link #analyze analyze()} determines the elimination order, and
+ * returns {@code false} if the graph contains a cycle, in which case the
+ * system should be solved using a general solver such as {@link
+ * KKTSolver}. {@link #factor factor()} computes the numeric factorization
+ * and {@link #solve solve()} solves the system for a given right hand side.
+ */
+public class TreeKKTSolver {
+
+   /**
+    * A node of the elimination tree, consisting of either a block row of M,
+    * together with any constraint blocks merged with it, or a constraint
+    * block coupled to more than one block row of M.
+    */
+   private class Node {
+      int[] myIdxs;       // indices into the combined (x, lam) vector
+      Node myParent;
+      MatrixNd myD;       // pivot block
+      MatrixNd myKcp;     // coupling block: rows of this node, cols of parent
+      MatrixNd myKpc;     // coupling block: rows of parent, cols of this node
+      MatrixNd myE;       // D^{-1} Kcp
+      LUDecomposition myLU = new LUDecomposition();
+      VectorNd myY;       // right side, and then solution, during solves
+      VectorNd myZ;       // D^{-1} times the reduced right side
+
+      Node (int size) {
+         myIdxs = new int[size];
+         myD = new MatrixNd (size, size);
+         myY = new VectorNd (size);
+         myZ = new VectorNd (size);
+      }
+
+      int size() {
+         return myIdxs.length;
+      }
+
+      void setParent (Node parent) {
+         myParent = parent;
+         myKcp = new MatrixNd (size(), parent.size());
+         myKpc = new MatrixNd (parent.size(), size());
+         myE = new MatrixNd (size(), parent.size());
+      }
+   }
+
+   private enum State {
+      NULL, ANALYZED, FACTORED
+   };
+
+   private State myState = State.NULL;
+
+   int mySizeM;
+   int myNumG;
+   int myNumVelBlks;
+   // nodes in elimination order, with children before parents
+   Node[] myNodes = new Node[0];
+   // node containing each block row of M
+   Node[] myVelNodes = new Node[0];
+   // node containing each block column of GT, or null if the column is empty
+   Node[] myConNodes = new Node[0];
+   // offset of each block column of GT within its node
+   int[] myConOffs = new int[0];
+
+   MatrixNd myTmp = new MatrixNd();
+   VectorNd myTmpVec = new VectorNd();
+
+   /**
+    * Returns the number of block rows of M that lie within its first
+    * {@code sizeM} rows.
+    */
+   private int numVelBlocks (SparseBlockMatrix M, int sizeM) {
+      int nvb = 0;
+      while (nvb < M.numBlockRows() && M.getBlockRowOffset(nvb) < sizeM) {
+         nvb++;
+      }
+      return nvb;
+   }
+
+   private int findRoot (int[] sets, int i) {
+      while (sets[i] != i) {
+         sets[i] = sets[sets[i]];
+         i = sets[i];
+      }
+      return i;
+   }
+
+   /**
+    * Analyzes the block structure of a KKT system and, if it is a tree,
+    * determines an elimination order.
+    *
+    * @param M system matrix
+    * @param sizeM size of the system matrix (may be less than the row size
+    * of M)
+    * @param GT transpose of the constraint matrix
+    * @return {@code true} if the system is tree-structured and can be
+    * factored by this solver
+    */
+   public boolean analyze (SparseBlockMatrix M, int sizeM, SparseBlockMatrix GT) {
+      myState = State.NULL;
+      int nvb = numVelBlocks (M, sizeM);
+      if (nvb > 0 && M.getBlockRowOffset(nvb) != sizeM) {
+         // sizeM does not fall on a block boundary
+         return false;
+      }
+      int ncb = (GT != null ? GT.numBlockCols() : 0);
+      mySizeM = sizeM;
+      myNumG = (GT != null ? GT.colSize() : 0);
+      myNumVelBlks = nvb;
+
+      // find the M blocks coupled to each constraint block. GT is traversed
+      // by rows since it may not be vertically linked.
+      int[][] conBlks = new int[ncb][];
+      int[] cnts = new int[ncb];
+      for (int bi=0; bi<nvb && GT != null; bi++) {
+         for (MatrixBlock blk=GT.firstBlockInRow(bi); blk!=null;
+              blk=blk.next()) {
+            cnts[blk.getBlockCol()]++;
+         }
+      }
+      for (int bj=0; bj<ncb; bj++) {
+         conBlks[bj] = new int[cnts[bj]];
+         cnts[bj] = 0;
+      }
+      for (int bi=0; bi<nvb && GT != null; bi++) {
+         for (MatrixBlock blk=GT.firstBlockInRow(bi); blk!=null;
+              blk=blk.next()) {
+            int bj = blk.getBlockCol();
+            conBlks[bj][cnts[bj]++] = bi;
+         }
+      }
+      int numConNodes = 0;
+      for (int bj=0; bj<ncb; bj++) {
+         if (GT.getBlockColSize(bj) > 0 && conBlks[bj].length != 1) {
+            numConNodes++;
+         }
+      }
+
+      // create nodes, with constraint blocks coupled to a single M block
+      // merged into that block's node
+      Node[] nodes = new Node[nvb+numConNodes];
+      int[] sizes = new int[nvb];
+      for (int bi=0; bi<nvb; bi++) {
+         sizes[bi] = M.getBlockRowSize(bi);
+      }
+      myConOffs = new int[ncb];
+      for (int bj=0; bj<ncb; bj++) {
+         if (GT.getBlockColSize(bj) > 0 && conBlks[bj].length == 1) {
+            int bi = conBlks[bj][0];
+            myConOffs[bj] = sizes[bi];
+            sizes[bi] += GT.getBlockColSize(bj);
+         }
+      }
+      myVelNodes = new Node[nvb];
+      for (int bi=0; bi<nvb; bi++) {
+         Node node = new Node (sizes[bi]);
+         int off = M.getBlockRowOffset(bi);
+         for (int i=0; i<M.getBlockRowSize(bi); i++) {
+            node.myIdxs[i] = off+i;
+         }
+         nodes[bi] = node;
+         myVelNodes[bi] = node;
+      }
+      myConNodes = new Node[ncb];
+      int k = nvb;
+      for (int bj=0; bj<ncb; bj++) {
+         int size = GT.getBlockColSize(bj);
+         if (size == 0) {
+            continue;
+         }
+         Node node;
+         if (conBlks[bj].length == 1) {
+            node = myVelNodes[conBlks[bj][0]];
+         }
+         else {
+            node = new Node (size);
+            myConOffs[bj] = 0;
+            nodes[k++] = node;
+         }
+         int off = sizeM + GT.getBlockColOffset(bj);
+         for (int i=0; i<size; i++) {
+            node.myIdxs[myConOffs[bj]+i] = off+i;
+         }
+         myConNodes[bj] = node;
+      }
+
+      // collect the edges, using a disjoint set forest to detect cycles
+      int nnodes = nodes.length;
+      int[] sets = new int[nnodes];
+      for (int i=0; i<nnodes; i++) {
+         sets[i] = i;
+      }
+      ArrayList<ArrayList<Integer>> adjacent = new ArrayList<>(nnodes);
+      for (int i=0; i<nnodes; i++) {
+         adjacent.add (new ArrayList<Integer>());
+      }
+      ArrayList<int[]> edges = new ArrayList<>();
+      for (int bi=0; bi<nvb; bi++) {
+         for (MatrixBlock blk=M.firstBlockInRow(bi); blk!=null;
+              blk=blk.next()) {
+            int bj = blk.getBlockCol();
+            if (bj < nvb && bj != bi &&
+                (bi < bj || M.getBlock (bj, bi) == null)) {
+               edges.add (new int[] {bi, bj});
+            }
+         }
+      }
+      k = nvb;
+      for (int bj=0; bj<ncb; bj++) {
+         if (GT.getBlockColSize(bj) > 0 && conBlks[bj].length != 1) {
+            for (int bi : conBlks[bj]) {
+               edges.add (new int[] {k, bi});
+            }
+            k++;
+         }
+      }
+      for (int[] edge : edges) {
+         int ri = findRoot (sets, edge[0]);
+         int rj = findRoot (sets, edge[1]);
+         if (ri == rj) {
+            // cycle, or repeated edge
+            return false;
+         }
+         sets[ri] = rj;
+         adjacent.get(edge[0]).add (edge[1]);
+         adjacent.get(edge[1]).add (edge[0]);
+      }
+
+      // root each tree at an M block if possible, so that every
+      // constraint node has at least one child, and order the nodes so that
+      // children precede parents
+      Node[] order = new Node[nnodes];
+      boolean[] visited = new boolean[nnodes];
+      int[] stack = new int[nnodes];
+      int cnt = nnodes;
+      for (int r=0; r<nnodes; r++) {
+         if (visited[r]) {
+            continue;
+         }
+         int top = 0;
+         stack[top++] = r;
+         visited[r] = true;
+         nodes[r].myParent = null;
+         while (top > 0) {
+            int i = stack[--top];
+            order[--cnt] = nodes[i];
+            for (int j : adjacent.get(i)) {
+               if (!visited[j]) {
+                  visited[j] = true;
+                  nodes[j].setParent (nodes[i]);
+                  stack[top++] = j;
+               }
+            }
+         }
+      }
+      myNodes = order;
+      myState = State.ANALYZED;
+      return true;
+   }
+
+   /**
+    * Queries whether the most recent call to {@link #analyze analyze()}
+    * found the system to be tree-structured.
+    *
+    * @return {@code true} if the system can be factored by this solver
+    */
+   public boolean isTreeStructured() {
+      return myState != State.NULL;
+   }
+
+   /**
+    * Queries whether this solver currently has a valid numeric
+    * factorization.
+    *
+    * @return {@code true} if this solver is factored
+    */
+   public boolean isFactored() {
+      return myState == State.FACTORED;
+   }
+
+   /**
+    * Adds a block of M into the node matrices.
+    */
+   private boolean addMBlock (MatrixBlock blk, int bi, int bj) {
+      Node ni = myVelNodes[bi];
+      Node nj = myVelNodes[bj];
+      MatrixNd K;
+      if (ni == nj) {
+         K = ni.myD;
+      }
+      else if (ni.myParent == nj) {
+         K = ni.myKcp;
+      }
+      else if (nj.myParent == ni) {
+         K = nj.myKpc;
+      }
+      else {
+         return false;
+      }
+      for (int i=0; i<blk.rowSize(); i++) {
+         for (int j=0; j<blk.colSize(); j++) {
+            K.add (i, j, blk.get (i, j));
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Adds a block of GT, and its transpose, into the node matrices.
+    */
+   private boolean addGTBlock (MatrixBlock blk, int bi, int bj) {
+      Node nv = myVelNodes[bi];
+      Node nc = myConNodes[bj];
+      int coff = myConOffs[bj];
+      MatrixNd Kvc; // receives GT
+      MatrixNd Kcv; // receives G
+      if (nv == nc) {
+         Kvc = nv.myD;
+         Kcv = nv.myD;
+      }
+      else if (nc.myParent == nv) {
+         Kvc = nc.myKpc;
+         Kcv = nc.myKcp;
+      }
+      else if (nv.myParent == nc) {
+         Kvc = nv.myKcp;
+         Kcv = nv.myKpc;
+      }
+      else {
+         return false;
+      }
+      int vcol = (nv == nc ? coff : 0);
+      for (int i=0; i<blk.rowSize(); i++) {
+         for (int j=0; j<blk.colSize(); j++) {
+            double val = blk.get (i, j);
+            Kvc.add (i, vcol+j, val);
+            Kcv.add (coff+j, i, val);
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Computes the numeric factorization of a KKT system, using the elimination
+    * order determined by the most recent call to {@link #analyze
+    * analyze()}. If a pivot block is singular, or the system contains blocks
+    * that are not present in the analyzed structure, {@code false} is
+    * returned and the system should be solved by some other means.
+    *
+    * @param M system matrix
+    * @param sizeM size of the system matrix (may be less than the row size
+    * of M)
+    * @param GT transpose of the constraint matrix
+    * @param Rg if non-null, supplies the diagonal regularization matrix
+    * @return {@code true} if the factorization succeeded
+    */
+   public boolean factor (
+      SparseBlockMatrix M, int sizeM, SparseBlockMatrix GT, VectorNd Rg) {
+      if (myState == State.NULL) {
+         throw new ImproperStateException (
+            "System has not been analyzed or is not tree-structured");
+      }
+      int numG = (GT != null ? GT.colSize() : 0);
+      if (sizeM != mySizeM || numG != myNumG) {
+         throw new IllegalArgumentException (
+            "System size differs from that of the analyzed system");
+      }
+      myState = State.ANALYZED;
+      for (Node node : myNodes) {
+         node.myD.setZero();
+         if (node.myParent != null) {
+            node.myKcp.setZero();
+            node.myKpc.setZero();
+         }
+      }
+      int nvb = myNumVelBlks;
+      for (int bi=0; bi<nvb; bi++) {
+         for (MatrixBlock blk=M.firstBlockInRow(bi); blk!=null;
+              blk=blk.next()) {
+            int bj = blk.getBlockCol();
+            if (bj < nvb && !addMBlock (blk, bi, bj)) {
+               return false;
+            }
+         }
+      }
+      for (int bi=0; bi<nvb && GT != null; bi++) {
+         for (MatrixBlock blk=GT.firstBlockInRow(bi); blk!=null;
+              blk=blk.next()) {
+            int bj = blk.getBlockCol();
+            if (myConNodes[bj] != null && !addGTBlock (blk, bi, bj)) {
+               return false;
+            }
+         }
+      }
+      if (Rg != null) {
+         for (int bj=0; bj<myConNodes.length; bj++) {
+            Node node = myConNodes[bj];
+            if (node != null) {
+               int off = GT.getBlockColOffset(bj);
+               for (int i=0; i<GT.getBlockColSize(bj); i++) {
+                  int k = myConOffs[bj]+i;
+                  node.myD.add (k, k, -Rg.get(off+i));
+               }
+            }
+         }
+      }
+      // eliminate nodes leaves-first
+      for (Node node : myNodes) {
+         node.myLU.factor (node.myD);
+         Node parent = node.myParent;
+         if (parent != null) {
+            if (!node.myLU.solve (node.myE, node.myKcp)) {
+               return false;
+            }
+            myTmp.mul (node.myKpc, node.myE);
+            parent.myD.sub (myTmp);
+         }
+         else if (node.size() > 0) {
+            // check for singularity of root pivots
+            node.myY.setZero();
+            if (!node.myLU.solve (node.myZ, node.myY)) {
+               return false;
+            }
+         }
+      }
+      myState = State.FACTORED;
+      return true;
+   }
+
+   /**
+    * Solves the KKT system using the current factorization. The bilateral
+    * impulses are returned in {@code lam}.
+    *
+    * @param vel returns the solution for the M rows
+    * @param lam returns the solution for the constraint rows
+    * @param bm right side for the M rows
+    * @param bg right side for the constraint rows
+    */
+   public void solve (VectorNd vel, VectorNd lam, VectorNd bm, VectorNd bg) {
+      if (myState != State.FACTORED) {
+         throw new ImproperStateException ("Factor has not been called");
+      }
+      vel.setSize (mySizeM);
+      lam.setSize (myNumG);
+      double[] bmbuf = bm.getBuffer();
+      double[] bgbuf = (myNumG > 0 ? bg.getBuffer() : null);
+      for (Node node : myNodes) {
+         double[] ybuf = node.myY.getBuffer();
+         for (int i=0; i<node.size(); i++) {
+            int idx = node.myIdxs[i];
+            ybuf[i] = (idx < mySizeM ? bmbuf[idx] : bgbuf[idx-mySizeM]);
+         }
+      }
+      // forward elimination
+      for (Node node : myNodes) {
+         node.myLU.solve (node.myZ, node.myY);
+         if (node.myParent != null) {
+            node.myKpc.mul (myTmpVec, node.myZ);
+            node.myParent.myY.sub (myTmpVec);
+         }
+      }
+      // back substitution, storing the solution in myY
+      double[] vbuf = vel.getBuffer();
+      double[] lbuf = lam.getBuffer();
+      for (int k=myNodes.length-1; k>=0; k--) {
+         Node node = myNodes[k];
+         node.myY.set (node.myZ);
+         if (node.myParent != null) {
+            node.myE.mul (myTmpVec, node.myParent.myY);
+            node.myY.sub (myTmpVec);
+         }
+         double[] ybuf = node.myY.getBuffer();
+         for (int i=0; i<node.size(); i++) {
+            int idx = node.myIdxs[i];
+            if (idx < mySizeM) {
+               vbuf[idx] = ybuf[i];
+            }
+            else {
+               // negate since the factored matrix uses -lam
+               lbuf[idx-mySizeM] = -ybuf[i];
+            }
+         }
+      }
+   }
+
+   /**
+    * Returns the number of nodes in the current elimination tree.
+    *
+    * @return number of elimination nodes
+    */
+   public int numNodes() {
+      return myNodes.length;
+   }
+}
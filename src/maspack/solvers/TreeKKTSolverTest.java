@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers;
+
+import java.util.ArrayList;
+
+import maspack.matrix.*;
+import maspack.util.*;
+
+/**
+ * Testing program for the TreeKKTSolver. Solutions are checked against
+ * those produced by a dense LU decomposition of the full KKT matrix.
+ */
+public class TreeKKTSolverTest extends UnitTest {
+
+   TreeKKTSolver mySolver = new TreeKKTSolver();
+
+   private MatrixNdBlock createSPDBlock (int n) {
+      MatrixNdBlock J = new MatrixNdBlock (n, n);
+      J.setRandom();
+      MatrixNdBlock blk = new MatrixNdBlock (n, n);
+      blk.mulTransposeLeft (J, J);
+      for (int i=0; i<n; i++) {
+         blk.add (i, i, 1.0);
+      }
+      return blk;
+   }
+
+   private MatrixNdBlock createRandomBlock (int nr, int nc) {
+      MatrixNdBlock blk = new MatrixNdBlock (nr, nc);
+      blk.setRandom();
+      return blk;
+   }
+
+   /**
+    * Describes a constraint block by the M blocks it couples to.
+    */
+   private class Constraint {
+      int[] myBlks;
+      int mySize;
+
+      Constraint (int size, int... blks) {
+         mySize = size;
+         myBlks = blks;
+      }
+   }
+
+   private SparseBlockMatrix createGT (
+      int[] blkSizes, ArrayList<Constraint> cons) {
+      int[] colSizes = new int[cons.size()];
+      for (int bj=0; bj<cons.size(); bj++) {
+         colSizes[bj] = cons.get(bj).mySize;
+      }
+      SparseBlockMatrix GT = new SparseBlockMatrix (blkSizes, colSizes);
+      for (int bj=0; bj<cons.size(); bj++) {
+         Constraint c = cons.get(bj);
+         for (int bi : c.myBlks) {
+            GT.addBlock (bi, bj, createRandomBlock (blkSizes[bi], c.mySize));
+         }
+      }
+      return GT;
+   }
+
+   /**
+    * Solves the KKT system using a dense LU decomposition.
+    */
+   private void denseSolve (
+      VectorNd vel, VectorNd lam, SparseBlockMatrix M, SparseBlockMatrix GT,
+      VectorNd Rg, VectorNd bm, VectorNd bg) {
+      int sizeM = M.rowSize();
+      int numG = GT.colSize();
+      MatrixNd K = new MatrixNd (sizeM+numG, sizeM+numG);
+      for (int i=0; i<sizeM; i++) {
+         for (int j=0; j<sizeM; j++) {
+            K.set (i, j, M.get (i, j));
+         }
+         for (int j=0; j<numG; j++) {
+            K.set (i, sizeM+j, -GT.get (i, j));
+            K.set (sizeM+j, i, GT.get (i, j));
+         }
+      }
+      if (Rg != null) {
+         for (int j=0; j<numG; j++) {
+            K.set (sizeM+j, sizeM+j, Rg.get(j));
+         }
+      }
+      VectorNd b = new VectorNd (sizeM+numG);
+      b.setSubVector (0, bm);
+      b.setSubVector (sizeM, bg);
+      VectorNd x = new VectorNd (sizeM+numG);
+      LUDecomposition lu = new LUDecomposition (K);
+      lu.solve (x, b);
+      x.getSubVector (0, vel);
+      x.getSubVector (sizeM, lam);
+   }
+
+   private void checkSolve (
+      SparseBlockMatrix M, SparseBlockMatrix GT, VectorNd Rg) {
+
+      int sizeM = M.rowSize();
+      int numG = GT.colSize();
+      if (!mySolver.analyze (M, sizeM, GT)) {
+         throw new TestException ("System not recognized as a tree");
+      }
+      if (!mySolver.factor (M, sizeM, GT, Rg)) {
+         throw new TestException ("Factorization failed");
+      }
+      VectorNd bm = new VectorNd (sizeM);
+      VectorNd bg = new VectorNd (numG);
+      bm.setRandom();
+      bg.setRandom();
+      VectorNd vel = new VectorNd (sizeM);
+      VectorNd lam = new VectorNd (numG);
+      mySolver.solve (vel, lam, bm, bg);
+
+      VectorNd velChk = new VectorNd (sizeM);
+      VectorNd lamChk = new VectorNd (numG);
+      denseSolve (velChk, lamChk, M, GT, Rg, bm, bg);
+      double tol = 1e-8;
+      if (!vel.epsilonEquals (velChk, tol*velChk.infinityNorm())) {
+         throw new TestException (
+            "Solution vel:\n" + vel + "\nExpected:\n" + velChk);
+      }
+      double lamTol = tol*Math.max (1, lamChk.infinityNorm());
+      if (!lam.epsilonEquals (lamChk, lamTol)) {
+         throw new TestException (
+            "Solution lam:\n" + lam + "\nExpected:\n" + lamChk);
+      }
+   }
+
+   /**
+    * Tests a randomly branching tree of 6 DOF bodies connected by joints,
+    * with the root and some other bodies also jointed to ground, together
+    * with a chain of 3 DOF particles coupled by springs.
+    */
+   public void treeTest (int numBodies, int numParticles, boolean useRg) {
+      int nblks = numBodies+numParticles;
+      int[] blkSizes = new int[nblks];
+      SparseBlockMatrix M;
+      ArrayList<Constraint> cons = new ArrayList<>();
+      for (int bi=0; bi<nblks; bi++) {
+         blkSizes[bi] = (bi < numBodies ? 6 : 3);
+      }
+      M = new SparseBlockMatrix (blkSizes, blkSizes);
+      for (int bi=0; bi<nblks; bi++) {
+         M.addBlock (bi, bi, createSPDBlock (blkSizes[bi]));
+      }
+      cons.add (new Constraint (5, 0));
+      for (int bi=1; bi<numBodies; bi++) {
+         int parent = RandomGenerator.nextInt (0, bi-1);
+         int size = RandomGenerator.nextInt (1, 4);
+         cons.add (new Constraint (size, parent, bi));
+         if (bi % 4 == 0) {
+            cons.add (new Constraint (2, bi));
+         }
+      }
+      for (int bi=numBodies; bi<nblks; bi++) {
+         // couple each particle to the previous block
+         int bj = bi-1;
+         MatrixNdBlock Kij = createRandomBlock (blkSizes[bi], blkSizes[bj]);
+         Kij.scale (0.1);
+         M.addBlock (bi, bj, Kij);
+         MatrixNdBlock Kji = new MatrixNdBlock (blkSizes[bj], blkSizes[bi]);
+         Kji.transpose (Kij);
+         M.addBlock (bj, bi, Kji);
+      }
+      SparseBlockMatrix GT = createGT (blkSizes, cons);
+      VectorNd Rg = null;
+      if (useRg) {
+         Rg = new VectorNd (GT.colSize());
+         for (int i=0; i<Rg.size(); i++) {
+            Rg.set (i, 0.01*RandomGenerator.nextDouble (0, 1));
+         }
+      }
+      checkSolve (M, GT, Rg);
+   }
+
+   /**
+    * Checks that closed loops are detected.
+    */
+   public void loopTest () {
+      int[] blkSizes = new int[] { 6, 6, 6 };
+      SparseBlockMatrix M = new SparseBlockMatrix (blkSizes, blkSizes);
+      for (int bi=0; bi<blkSizes.length; bi++) {
+         M.addBlock (bi, bi, createSPDBlock (6));
+      }
+      ArrayList<Constraint> cons = new ArrayList<>();
+      cons.add (new Constraint (5, 0));
+      cons.add (new Constraint (5, 0, 1));
+      cons.add (new Constraint (5, 1, 2));
+      SparseBlockMatrix GT = createGT (blkSizes, cons);
+      checkSolve (M, GT, null);
+      cons.add (new Constraint (3, 2, 0));
+      GT = createGT (blkSizes, cons);
+      if (mySolver.analyze (M, M.rowSize(), GT)) {
+         throw new TestException ("Loop not detected");
+      }
+      // a spring between the bodies at the ends of the chain also creates
+      // a loop
+      cons.remove (cons.size()-1);
+      GT = createGT (blkSizes, cons);
+      M.addBlock (0, 2, createRandomBlock (6, 6));
+      if (mySolver.analyze (M, M.rowSize(), GT)) {
+         throw new TestException ("Loop not detected");
+      }
+   }
+
+   public void test() {
+      for (int k=0; k<10; k++) {
+         treeTest (1, 0, false);
+         treeTest (10, 0, false);
+         treeTest (20, 5, false);
+         treeTest (20, 5, true);
+      }
+      loopTest();
+   }
+
+   public static void main (String[] args) {
+      TreeKKTSolverTest tester = new TreeKKTSolverTest();
+      RandomGenerator.setSeed (0x1234);
+      tester.runtest();
+   }
+}
@@ -102,6 +102,11 @@ public class UmfpackSolver implements DirectSolver {
          System.err.println (e.getMessage());
          myInitStatus = ERR_CANT_LOAD_LIBRARIES;
       }
+      catch (Exception e) {
+         // NativeLibraryManager reports missing libraries with exceptions
+         System.err.println (e.getMessage());
+         myInitStatus = ERR_CANT_LOAD_LIBRARIES;
+      }
    }
 
    public UmfpackSolver() {